@@ -88,4 +88,18 @@ public class AmqpMessage
         }
         return this.messageImpl.encode(data, offset, data.length);
     }
+
+    /**
+     * Encodes the message in the buffer of the encoder
+     * @param encoder the encoder to encode the message with.
+     * @return the number of bytes encoded at the start of the buffer of the encoder.
+     */
+    public int encode(AmqpMessageEncoder encoder)
+    {
+        if (encoder == null)
+        {
+            throw new IllegalArgumentException("The encoder cannot be null.");
+        }
+        return encoder.encode(this.messageImpl);
+    }
 }
@@ -0,0 +1,247 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.deps.transport.amqp;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.AmqpSequence;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Footer;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+
+import java.nio.BufferOverflowException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Encodes the proton messages to send in a buffer pooled per thread.
+ *
+ * The buffer is sized from an upper bound of the encoded length of the
+ * message, so a message is encoded in one pass instead of being encoded
+ * again in a buffer twice as large each time it does not fit. Buffers up to
+ * {@link #MAX_POOLED_BUFFER_SIZE} are kept for the next messages encoded on
+ * the same thread, larger ones are dropped once the message is encoded.
+ *
+ * The encoded bytes are only valid until the next message is encoded on the
+ * same thread. The proton sender copies them when the delivery is sent.
+ */
+public final class AmqpMessageEncoder
+{
+    public static final int MIN_BUFFER_SIZE = 1024;
+    public static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    // The descriptors and constructors of the sections, and the fixed size fields of the header and properties.
+    private static final int SECTIONS_OVERHEAD = 256;
+    // The constructor and the size of a variable width value, or the largest fixed width value.
+    private static final int VALUE_OVERHEAD = 17;
+    // The UTF-8 encoding of a char of a Java string takes at most 3 bytes.
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<AmqpMessageEncoder> ENCODERS = new ThreadLocal<AmqpMessageEncoder>()
+    {
+        @Override
+        protected AmqpMessageEncoder initialValue()
+        {
+            return new AmqpMessageEncoder();
+        }
+    };
+
+    private byte[] pooledBuffer = new byte[MIN_BUFFER_SIZE];
+    private byte[] buffer = this.pooledBuffer;
+
+    private AmqpMessageEncoder()
+    {
+    }
+
+    /**
+     * Getter for the encoder of the calling thread.
+     *
+     * @return the encoder of the calling thread.
+     */
+    public static AmqpMessageEncoder get()
+    {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encodes the message in the buffer of the encoder.
+     *
+     * @param message the message to encode.
+     * @return the number of bytes encoded at the start of {@link #getBuffer()}.
+     * @throws IllegalArgumentException if the message is {@code null}.
+     */
+    public int encode(Message message)
+    {
+        if (message == null)
+        {
+            throw new IllegalArgumentException("message cannot be null");
+        }
+
+        int size = estimateEncodedLength(message);
+        this.buffer = (size <= this.pooledBuffer.length) ? this.pooledBuffer : this.allocate(size);
+
+        while (true)
+        {
+            try
+            {
+                return message.encode(this.buffer, 0, this.buffer.length);
+            }
+            catch (BufferOverflowException e)
+            {
+                if (this.buffer.length >= MAX_BUFFER_SIZE)
+                {
+                    throw e;
+                }
+                this.buffer = this.allocate((int) Math.min((long) this.buffer.length * 2, MAX_BUFFER_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Getter for the buffer the last message was encoded in.
+     *
+     * @return the buffer the last message was encoded in.
+     */
+    public byte[] getBuffer()
+    {
+        return this.buffer;
+    }
+
+    /**
+     * Estimates an upper bound of the encoded length of a message. The
+     * estimate is exact enough for the body, which is most of a large
+     * message, and errs on the large side for the other sections.
+     *
+     * @param message the message to estimate.
+     * @return the estimated encoded length of the message.
+     */
+    public static int estimateEncodedLength(Message message)
+    {
+        long length = SECTIONS_OVERHEAD;
+        length += estimateBody(message.getBody());
+
+        Properties properties = message.getProperties();
+        if (properties != null)
+        {
+            length += estimateValue(properties.getMessageId());
+            length += estimateValue(properties.getUserId());
+            length += estimateValue(properties.getTo());
+            length += estimateValue(properties.getSubject());
+            length += estimateValue(properties.getReplyTo());
+            length += estimateValue(properties.getCorrelationId());
+            length += estimateValue(properties.getContentType());
+            length += estimateValue(properties.getContentEncoding());
+            length += estimateValue(properties.getGroupId());
+            length += estimateValue(properties.getReplyToGroupId());
+        }
+
+        ApplicationProperties applicationProperties = message.getApplicationProperties();
+        if (applicationProperties != null)
+        {
+            length += estimateValue(applicationProperties.getValue());
+        }
+
+        MessageAnnotations messageAnnotations = message.getMessageAnnotations();
+        if (messageAnnotations != null)
+        {
+            length += estimateValue(messageAnnotations.getValue());
+        }
+
+        DeliveryAnnotations deliveryAnnotations = message.getDeliveryAnnotations();
+        if (deliveryAnnotations != null)
+        {
+            length += estimateValue(deliveryAnnotations.getValue());
+        }
+
+        Footer footer = message.getFooter();
+        if (footer != null)
+        {
+            length += estimateValue(footer.getValue());
+        }
+
+        return (int) Math.min(length, MAX_BUFFER_SIZE);
+    }
+
+    private static long estimateBody(Section body)
+    {
+        if (body instanceof Data)
+        {
+            return estimateValue(((Data) body).getValue());
+        }
+        else if (body instanceof AmqpValue)
+        {
+            return estimateValue(((AmqpValue) body).getValue());
+        }
+        else if (body instanceof AmqpSequence)
+        {
+            return estimateValue(((AmqpSequence) body).getValue());
+        }
+
+        return 0;
+    }
+
+    private static long estimateValue(Object value)
+    {
+        long length = VALUE_OVERHEAD;
+
+        if (value instanceof String)
+        {
+            length += (long) ((String) value).length() * MAX_BYTES_PER_CHAR;
+        }
+        else if (value instanceof Symbol)
+        {
+            length += value.toString().length();
+        }
+        else if (value instanceof Binary)
+        {
+            length += ((Binary) value).getLength();
+        }
+        else if (value instanceof byte[])
+        {
+            length += ((byte[]) value).length;
+        }
+        else if (value instanceof Map)
+        {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                length += estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+            }
+        }
+        else if (value instanceof Collection)
+        {
+            for (Object element : (Collection<?>) value)
+            {
+                length += estimateValue(element);
+            }
+        }
+
+        return length;
+    }
+
+    private byte[] allocate(int size)
+    {
+        // Round up to a power of two, so messages of close sizes reuse the same buffer.
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size));
+        if (capacity < size)
+        {
+            capacity = (capacity <= MAX_BUFFER_SIZE / 2) ? capacity * 2 : MAX_BUFFER_SIZE;
+        }
+
+        byte[] newBuffer = new byte[capacity];
+
+        if (capacity <= MAX_POOLED_BUFFER_SIZE)
+        {
+            this.pooledBuffer = newBuffer;
+        }
+
+        return newBuffer;
+    }
+}
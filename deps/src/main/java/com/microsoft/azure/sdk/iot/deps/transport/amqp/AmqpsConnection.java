@@ -20,7 +20,6 @@ import org.apache.qpid.proton.reactor.ReactorOptions;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -444,22 +443,9 @@ public class AmqpsConnection extends BaseHandler
         }
         else
         {
-            byte[] msgData = new byte[1024];
-            int length = 0;
-            boolean encodingComplete = false;
-
-            do
-            {
-                try
-                {
-                    length = message.encode(msgData, 0);
-                    encodingComplete = true;
-                }
-                catch (BufferOverflowException e)
-                {
-                    msgData = new byte[msgData.length * 2];
-                }
-            } while(!encodingComplete);
+            AmqpMessageEncoder encoder = AmqpMessageEncoder.get();
+            int length = message.encode(encoder);
+            byte[] msgData = encoder.getBuffer();
 
             if (length > 0)
             {
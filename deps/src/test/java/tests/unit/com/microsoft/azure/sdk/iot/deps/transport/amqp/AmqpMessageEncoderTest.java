@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) Microsoft. All rights reserved.
+ *  Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.deps.transport.amqp;
+
+import com.microsoft.azure.sdk.iot.deps.transport.amqp.AmqpMessageEncoder;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for AmqpMessageEncoder. */
+public class AmqpMessageEncoderTest
+{
+    /** Counts the calls to encode. */
+    private static class CountingMessage extends MessageImpl
+    {
+        private int encodeCount = 0;
+
+        @Override
+        public int encode(byte[] data, int offset, int length)
+        {
+            this.encodeCount++;
+            return super.encode(data, offset, length);
+        }
+    }
+
+    private static CountingMessage newMessage(int payloadSize)
+    {
+        Properties properties = new Properties();
+        properties.setTo("/devices/device-é/messages/devicebound");
+
+        Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put("building", "東京");
+
+        CountingMessage message = new CountingMessage();
+        message.setProperties(properties);
+        message.setApplicationProperties(new ApplicationProperties(applicationProperties));
+        message.setBody(new Data(new Binary(new byte[payloadSize])));
+        return message;
+    }
+
+    @Test
+    public void getReturnsSameEncoderOnSameThread()
+    {
+        assertSame(AmqpMessageEncoder.get(), AmqpMessageEncoder.get());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeThrowsOnMessageNull()
+    {
+        AmqpMessageEncoder.get().encode(null);
+    }
+
+    @Test
+    public void encodeSucceeds()
+    {
+        AmqpMessageEncoder encoder = AmqpMessageEncoder.get();
+        CountingMessage message = newMessage(100);
+
+        int length = encoder.encode(message);
+
+        MessageImpl decoded = new MessageImpl();
+        decoded.decode(encoder.getBuffer(), 0, length);
+        assertEquals(message.getProperties().getTo(), decoded.getProperties().getTo());
+        assertEquals(((Data) message.getBody()).getValue(), ((Data) decoded.getBody()).getValue());
+    }
+
+    @Test
+    public void encodeDropsBufferLargerThanMaxPooledSize()
+    {
+        AmqpMessageEncoder encoder = AmqpMessageEncoder.get();
+
+        encoder.encode(newMessage(2 * AmqpMessageEncoder.MAX_POOLED_BUFFER_SIZE));
+        encoder.encode(newMessage(100));
+
+        assertTrue(encoder.getBuffer().length <= AmqpMessageEncoder.MAX_POOLED_BUFFER_SIZE);
+    }
+
+    @Test
+    public void encodeEncodesEachPayloadSizeInOnePass()
+    {
+        AmqpMessageEncoder encoder = AmqpMessageEncoder.get();
+        int[] payloadSizes = { 100, 1024, 16 * 1024, 64 * 1024, 256 * 1024 };
+
+        for (int payloadSize : payloadSizes)
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                CountingMessage message = newMessage(payloadSize);
+
+                int length = encoder.encode(message);
+
+                assertEquals(1, message.encodeCount);
+                assertTrue(length > payloadSize);
+                assertTrue(AmqpMessageEncoder.estimateEncodedLength(message) >= length);
+            }
+        }
+    }
+}
@@ -15,12 +15,15 @@ import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import com.microsoft.azure.sdk.iot.deps.transport.amqp.AmqpMessage;
+import com.microsoft.azure.sdk.iot.deps.transport.amqp.AmqpMessageEncoder;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+
 /** Unit tests for AmqpConnection.
  * Coverage : 100% method, 100% line */
 @RunWith(JMockit.class)
@@ -144,4 +147,27 @@ public class AmqpMessageTest
 
         amqpMessage.encode(data, 0);
     }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeThrowsOnEncoderNull()
+    {
+        AmqpMessage amqpMessage = new AmqpMessage(mockedMessageImpl);
+        amqpMessage.encode((AmqpMessageEncoder) null);
+    }
+
+    @Test
+    public void encodeWithEncoderSucceeds(@Mocked final AmqpMessageEncoder mockedEncoder)
+    {
+        AmqpMessage amqpMessage = new AmqpMessage(mockedMessageImpl);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockedEncoder.encode(mockedMessageImpl);
+                result = 10;
+            }
+        };
+
+        assertEquals(10, amqpMessage.encode(mockedEncoder));
+    }
 }
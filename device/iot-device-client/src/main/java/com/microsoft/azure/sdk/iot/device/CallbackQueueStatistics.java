@@ -0,0 +1,80 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * A snapshot of the delivery of the completion callbacks of sent messages,
+ * with the lag between the completion of a request and the invocation of its
+ * callback.
+ */
+public final class CallbackQueueStatistics
+{
+    private final int pendingCallbackCount;
+    private final long invokedCallbackCount;
+    private final long averageLagMillis;
+    private final long maxLagMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param pendingCallbackCount the number of callbacks waiting for the callback executor.
+     * @param invokedCallbackCount the number of callbacks invoked.
+     * @param averageLagMillis the average time, in milliseconds, between the completion of a request and the invocation of its callback.
+     * @param maxLagMillis the longest time, in milliseconds, between the completion of a request and the invocation of its callback.
+     */
+    public CallbackQueueStatistics(int pendingCallbackCount, long invokedCallbackCount, long averageLagMillis, long maxLagMillis)
+    {
+        // Codes_SRS_CALLBACKQUEUESTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.pendingCallbackCount = pendingCallbackCount;
+        this.invokedCallbackCount = invokedCallbackCount;
+        this.averageLagMillis = averageLagMillis;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * Getter for the number of callbacks waiting for the callback executor.
+     *
+     * @return the number of pending callbacks.
+     */
+    public int getPendingCallbackCount()
+    {
+        // Codes_SRS_CALLBACKQUEUESTATISTICS_45_002: [The function shall return the saved pending callback count.]
+        return this.pendingCallbackCount;
+    }
+
+    /**
+     * Getter for the number of callbacks invoked.
+     *
+     * @return the number of invoked callbacks.
+     */
+    public long getInvokedCallbackCount()
+    {
+        // Codes_SRS_CALLBACKQUEUESTATISTICS_45_003: [The function shall return the saved invoked callback count.]
+        return this.invokedCallbackCount;
+    }
+
+    /**
+     * Getter for the average callback lag.
+     *
+     * @return the average time, in milliseconds, between the completion of a
+     * request and the invocation of its callback.
+     */
+    public long getAverageLagMillis()
+    {
+        // Codes_SRS_CALLBACKQUEUESTATISTICS_45_004: [The function shall return the saved average lag.]
+        return this.averageLagMillis;
+    }
+
+    /**
+     * Getter for the worst callback lag.
+     *
+     * @return the longest time, in milliseconds, between the completion of a
+     * request and the invocation of its callback.
+     */
+    public long getMaxLagMillis()
+    {
+        // Codes_SRS_CALLBACKQUEUESTATISTICS_45_005: [The function shall return the saved maximum lag.]
+        return this.maxLagMillis;
+    }
+}
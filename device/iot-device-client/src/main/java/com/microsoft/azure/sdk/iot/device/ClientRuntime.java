@@ -0,0 +1,305 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads shared by many clients in the same process, with a fixed thread
+ * budget. By default each client starts its own threads to send and receive
+ * messages, renew its tokens and upload files, so the number of threads grows
+ * with the number of clients. The clients configured with a runtime run those
+ * tasks on its threads instead, so the number of threads stays flat however
+ * many clients are open.
+ *
+ * The runtime has three pools:
+ * <ul>
+ *     <li>a scheduler for the timers of the clients, such as the ticks of
+ *     the periodic sends and receives and the renewal of the tokens;</li>
+ *     <li>a blocking executor for the send and receive passes and the file
+ *     uploads, so they never hold the scheduler threads;</li>
+ *     <li>a single thread for the expiry sweep, which runs one sweep for all
+ *     the open clients, instead of one timer per client, and only while some
+ *     client is open.</li>
+ * </ul>
+ *
+ * The blocking executor is shared by all the clients, so a pass on it never
+ * waits for its client: a pass that finds the in flight window full, the
+ * send credit spent or the outbound queue full returns, and the event that
+ * frees the path signals the next pass. A client that cannot make progress
+ * thus never holds a thread the other clients need.
+ *
+ * The AMQPS transport still runs its connection loop on a thread of its own,
+ * as the loop blocks for the lifetime of the connection.
+ *
+ * The threads are daemon threads, so a runtime never keeps the process alive.
+ * A runtime can be shared with any number of clients, and must only be closed
+ * once they are all closed.
+ */
+public final class ClientRuntime implements Closeable
+{
+    /** The number of scheduler threads of the shared runtime. */
+    public static final int DEFAULT_SCHEDULER_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** The number of blocking threads of the shared runtime. */
+    public static final int DEFAULT_BLOCKING_THREAD_COUNT = 10;
+
+    private static final long BLOCKING_THREAD_KEEP_ALIVE_SECONDS = 60;
+    /** The period of the removal of the messages that expired while waiting to be sent. */
+    private static final long EXPIRY_SWEEP_PERIOD_MILLIS = 100L;
+    private static final AtomicInteger RUNTIME_NUMBER = new AtomicInteger();
+
+    private static ClientRuntime sharedRuntime = null;
+
+    private final int schedulerThreadCount;
+    private final int blockingThreadCount;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor blockingExecutor;
+    private final ThreadPoolExecutor expiryExecutor;
+    private final boolean isShared;
+
+    /* the expiry sweeps of the open clients, all run by one timer that only runs while there is any */
+    private final Set<Runnable> expirySweeps = new CopyOnWriteArraySet<>();
+    private final IotHubSignalledTask expirySweepSignal;
+    private ScheduledFuture<?> expirySweepTimer = null;
+    private final Object expirySweepLock = new Object();
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Creates a runtime with its own thread budget.
+     *
+     * @param schedulerThreadCount the number of threads that run the periodic tasks of the clients.
+     * @param blockingThreadCount the maximum number of threads that run the blocking tasks of the clients.
+     * @throws IllegalArgumentException if any of the thread counts is smaller than 1.
+     */
+    public ClientRuntime(int schedulerThreadCount, int blockingThreadCount)
+    {
+        this(schedulerThreadCount, blockingThreadCount, false);
+    }
+
+    private ClientRuntime(int schedulerThreadCount, int blockingThreadCount, boolean isShared)
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_001: [If any of the thread counts is smaller than 1, the constructor shall throw IllegalArgumentException.]
+        if (schedulerThreadCount < 1)
+        {
+            throw new IllegalArgumentException("scheduler thread count cannot be smaller than 1");
+        }
+        if (blockingThreadCount < 1)
+        {
+            throw new IllegalArgumentException("blocking thread count cannot be smaller than 1");
+        }
+
+        this.schedulerThreadCount = schedulerThreadCount;
+        this.blockingThreadCount = blockingThreadCount;
+        this.isShared = isShared;
+
+        String namePrefix = "azure-iot-sdk-runtime-" + RUNTIME_NUMBER.incrementAndGet();
+
+        // Codes_SRS_CLIENTRUNTIME_45_002: [The constructor shall create a scheduler with the provided number of daemon threads, which drops the cancelled tasks right away.]
+        // the cancelled tasks of the closed clients would otherwise stay in the
+        // queue of the scheduler until their next execution time.
+        this.scheduler = new ScheduledThreadPoolExecutor(schedulerThreadCount, new DaemonThreadFactory(namePrefix + "-scheduler-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+
+        // Codes_SRS_CLIENTRUNTIME_45_003: [The constructor shall create a blocking executor with at most the provided number of daemon threads, which stop when they are idle.]
+        this.blockingExecutor = new ThreadPoolExecutor(blockingThreadCount, blockingThreadCount,
+                BLOCKING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(namePrefix + "-blocking-"));
+        this.blockingExecutor.allowCoreThreadTimeOut(true);
+
+        // Codes_SRS_CLIENTRUNTIME_45_015: [The constructor shall create an expiry executor with a single daemon thread, which stops when it is idle.]
+        // the sweeps run the callbacks of the device twin requests that timed
+        // out, so they run on a lane of their own, never concurrently, and are
+        // neither delayed by the passes nor delay them.
+        this.expiryExecutor = new ThreadPoolExecutor(1, 1,
+                BLOCKING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(namePrefix + "-expiry-"));
+        this.expiryExecutor.allowCoreThreadTimeOut(true);
+
+        this.expirySweepSignal = new IotHubSignalledTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (Runnable expirySweep : expirySweeps)
+                {
+                    expirySweep.run();
+                }
+            }
+        }, this.expiryExecutor);
+
+        logger.LogInfo("Client runtime %s is created with %d scheduler threads and %d blocking threads, method name is %s ",
+                namePrefix, schedulerThreadCount, blockingThreadCount, logger.getMethodName());
+    }
+
+    /**
+     * Returns the runtime shared by the whole process, created with
+     * {@link #DEFAULT_SCHEDULER_THREAD_COUNT} scheduler threads and
+     * {@link #DEFAULT_BLOCKING_THREAD_COUNT} blocking threads the first time it
+     * is requested. The shared runtime cannot be closed.
+     *
+     * @return the shared runtime.
+     */
+    public static synchronized ClientRuntime getShared()
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_004: [The function shall create the shared runtime with the default thread counts the first time it is called, and return the same runtime afterwards.]
+        if (sharedRuntime == null)
+        {
+            sharedRuntime = new ClientRuntime(DEFAULT_SCHEDULER_THREAD_COUNT, DEFAULT_BLOCKING_THREAD_COUNT, true);
+        }
+        return sharedRuntime;
+    }
+
+    /**
+     * Returns the scheduler for the timers of the clients. The
+     * clients cancel their tasks when they close, and never shut the scheduler
+     * down.
+     *
+     * @return the scheduler of the runtime.
+     */
+    public ScheduledExecutorService getScheduler()
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_005: [The function shall return the scheduler of the runtime.]
+        return this.scheduler;
+    }
+
+    /**
+     * Returns the executor for the send and receive passes and the file
+     * uploads of the clients. The passes run on it never wait for a full in
+     * flight window, send credit or outbound queue, as the executor is shared
+     * by all the clients. The clients cancel their tasks when they close, and
+     * never shut the executor down.
+     *
+     * @return the blocking executor of the runtime.
+     */
+    public ExecutorService getBlockingExecutor()
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_006: [The function shall return the blocking executor of the runtime.]
+        return this.blockingExecutor;
+    }
+
+    /**
+     * Returns the maximum number of threads the runtime can start.
+     *
+     * @return the number of scheduler threads plus the maximum number of blocking threads, plus the thread of the expiry sweep.
+     */
+    public int getThreadBudget()
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_007: [The function shall return the sum of the scheduler thread count and the blocking thread count, plus one for the thread of the expiry sweep.]
+        return this.schedulerThreadCount + this.blockingThreadCount + 1;
+    }
+
+    /**
+     * Adds the expiry sweep of a client to the single sweep of the runtime,
+     * which runs every {@code EXPIRY_SWEEP_PERIOD_MILLIS} milliseconds while
+     * any client sweep is added.
+     *
+     * @param expirySweep the expiry sweep of the client. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the expiry sweep is {@code null}.
+     */
+    void addExpirySweep(Runnable expirySweep)
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_010: [If the expiry sweep is null, the function shall throw IllegalArgumentException.]
+        if (expirySweep == null)
+        {
+            throw new IllegalArgumentException("Parameter 'expirySweep' must not be null");
+        }
+
+        synchronized (this.expirySweepLock)
+        {
+            // Codes_SRS_CLIENTRUNTIME_45_011: [The function shall add the expiry sweep to the ones run by the sweep of the runtime.]
+            this.expirySweeps.add(expirySweep);
+
+            // Codes_SRS_CLIENTRUNTIME_45_012: [If the sweep of the runtime is not scheduled, the function shall schedule a timer on the scheduler that signals every EXPIRY_SWEEP_PERIOD_MILLIS milliseconds a pass on the expiry executor, which runs all the added expiry sweeps.]
+            if (this.expirySweepTimer == null)
+            {
+                this.expirySweepTimer = this.scheduler.scheduleWithFixedDelay(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        expirySweepSignal.signal();
+                    }
+                }, EXPIRY_SWEEP_PERIOD_MILLIS, EXPIRY_SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Removes the expiry sweep of a client from the single sweep of the
+     * runtime. The sweep of the runtime stops once no client sweep is left.
+     *
+     * @param expirySweep the expiry sweep of the client.
+     */
+    void removeExpirySweep(Runnable expirySweep)
+    {
+        synchronized (this.expirySweepLock)
+        {
+            // Codes_SRS_CLIENTRUNTIME_45_013: [The function shall remove the expiry sweep from the ones run by the sweep of the runtime.]
+            this.expirySweeps.remove(expirySweep);
+
+            // Codes_SRS_CLIENTRUNTIME_45_014: [If no expiry sweep is left, the function shall cancel the timer of the sweep of the runtime.]
+            if (this.expirySweeps.isEmpty() && (this.expirySweepTimer != null))
+            {
+                this.expirySweepTimer.cancel(false);
+                this.expirySweepTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the threads of the runtime. The tasks already started are allowed
+     * to finish, and the periodic tasks are not run anymore. Must only be
+     * called once all the clients that use the runtime are closed. Closing a
+     * closed runtime does nothing.
+     *
+     * @throws IllegalStateException if the runtime is the shared runtime.
+     */
+    @Override
+    public void close()
+    {
+        // Codes_SRS_CLIENTRUNTIME_45_008: [If the runtime is the shared runtime, the function shall throw IllegalStateException.]
+        if (this.isShared)
+        {
+            throw new IllegalStateException("The shared client runtime cannot be closed.");
+        }
+
+        // Codes_SRS_CLIENTRUNTIME_45_009: [The function shall shut down the scheduler, the blocking executor and the expiry executor.]
+        this.scheduler.shutdown();
+        this.blockingExecutor.shutdown();
+        this.expiryExecutor.shutdown();
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private DaemonThreadFactory(String namePrefix)
+        {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, this.namePrefix + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -7,14 +7,18 @@ import com.microsoft.azure.sdk.iot.deps.serializer.ParserUtility;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import com.microsoft.azure.sdk.iot.device.fileupload.FileUpload;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.IoTHubConnectionType;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 
 import java.io.*;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS;
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS_WS;
@@ -100,6 +104,25 @@ public final class DeviceClient implements Closeable
     private static final String SET_SEND_INTERVAL = "SetSendInterval";
     private static final String SET_CERTIFICATE_PATH = "SetCertificatePath";
     private static final String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    private static final String SET_EVENT_DRIVEN_SEND = "SetEventDrivenSend";
+    private static final String SET_EVENT_DRIVEN_RECEIVE = "SetEventDrivenReceive";
+    private static final String SET_OUTBOUND_QUEUE_MAX_MESSAGES = "SetOutboundQueueMaxMessages";
+    private static final String SET_OUTBOUND_QUEUE_MAX_BYTES = "SetOutboundQueueMaxBytes";
+    private static final String SET_OUTBOUND_QUEUE_FULL_POLICY = "SetOutboundQueueFullPolicy";
+    private static final String SET_OUTBOUND_QUEUE_BLOCK_TIMEOUT = "SetOutboundQueueBlockTimeout";
+    private static final String SET_CALLBACK_EXECUTOR = "SetCallbackExecutor";
+    private static final String SET_OUTBOUND_JOURNAL_DIRECTORY = "SetOutboundJournalDirectory";
+    private static final String SET_OUTBOUND_JOURNAL_MAX_BYTES = "SetOutboundJournalMaxBytes";
+    private static final String SET_OUTBOUND_JOURNAL_FULL_POLICY = "SetOutboundJournalFullPolicy";
+    private static final String SET_CLIENT_RUNTIME = "SetClientRuntime";
+    private static final String SET_MQTT_IN_FLIGHT_WINDOW = "SetMqttInFlightWindow";
+    private static final String SET_MQTT_ADAPTIVE_IN_FLIGHT_WINDOW = "SetMqttAdaptiveInFlightWindow";
+    private static final String SET_MQTT_TELEMETRY_DELIVERY_MODE = "SetMqttTelemetryDeliveryMode";
+    private static final String SET_MQTT_PERSISTENCE_DIRECTORY = "SetMqttPersistenceDirectory";
+    private static final String SET_MQTT_NIO_ENGINE = "SetMqttNioEngine";
+    private static final String SET_AMQP_TELEMETRY_BATCH_MAX_MESSAGES = "SetAmqpTelemetryBatchMaxMessages";
+    private static final String SET_AMQP_TELEMETRY_BATCH_MAX_BYTES = "SetAmqpTelemetryBatchMaxBytes";
+    private static final String SET_AMQP_TELEMETRY_BATCH_LINGER = "SetAmqpTelemetryBatchLinger";
 
     private DeviceClientConfig config;
     private DeviceIO deviceIO;
@@ -317,6 +340,9 @@ public final class DeviceClient implements Closeable
             case MQTT_WS:
                 RECEIVE_PERIOD_MILLIS = RECEIVE_PERIOD_MILLIS_MQTT;
                 break;
+            case MQTT_NIO:
+                RECEIVE_PERIOD_MILLIS = RECEIVE_PERIOD_MILLIS_MQTT;
+                break;
             default:
                 // should never happen.
                 throw new IllegalStateException(
@@ -450,7 +476,9 @@ public final class DeviceClient implements Closeable
     }
 
     /**
-     * Asynchronously sends an event message to the IoT Hub.
+     * Asynchronously sends an event message to the IoT Hub. The body of the
+     * message is sent without a copy, so it must not be modified until the
+     * callback is invoked.
      *
      * @param message the message to be sent.
      * @param callback the callback to be invoked when a response is received.
@@ -472,6 +500,56 @@ public final class DeviceClient implements Closeable
         logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
     }
 
+    /**
+     * Asynchronously sends an event message to the IoT Hub, returning a future
+     * that the transport completes with the status of the message. The future
+     * is the callback of the message, so no other callback is involved.
+     *
+     * @param message the message to be sent.
+     * @return the future of the message.
+     *
+     * @throws IllegalArgumentException if the message provided is {@code null}.
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public IotHubEventFuture sendEventAsync(Message message)
+    {
+        /* Codes_SRS_DEVICECLIENT_45_029: [The sendEventAsync shall asynchronously send the message using the deviceIO connection, with a new future as the callback and the client's connection string, and return the future.] */
+        /* Codes_SRS_DEVICECLIENT_45_030: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
+        IotHubEventFuture future = new IotHubEventFuture();
+        deviceIO.sendEventAsync(message, future, null, this.config.getIotHubConnectionString());
+
+        logger.LogInfo("Message with messageid %s along with future is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        return future;
+    }
+
+    /**
+     * Asynchronously sends a batch of event messages to the IoT Hub. The
+     * messages are queued as one unit and sent in the best wire form of the
+     * protocol: HTTPS sends them in batched requests, AMQP and MQTT send them
+     * back to back. The callback is invoked once, with the status of each
+     * message in the order of the list, when all of them have completed.
+     *
+     * @param messages the messages to be sent.
+     * @param callback the callback to be invoked when all the messages have
+     * completed. Can be {@code null}.
+     * @param callbackContext a context to be passed to the callback. Can be
+     * {@code null} if no callback is provided.
+     *
+     * @throws IllegalArgumentException if the list of messages is {@code null}
+     * or empty, or contains {@code null}.
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public void sendEventBatchAsync(List<Message> messages, IotHubBatchEventCallback callback, Object callbackContext)
+    {
+        /* Codes_SRS_DEVICECLIENT_45_021: [The sendEventBatchAsync shall asynchronously send the messages using the deviceIO connection, with the client's connection string.] */
+        /* Codes_SRS_DEVICECLIENT_45_022: [If starting to send via deviceIO is not successful, the sendEventBatchAsync shall bypass the threw exception.] */
+        deviceIO.sendEventBatchAsync(messages, callback, callbackContext, this.config.getIotHubConnectionString());
+
+        logger.LogInfo("Batch of %d messages along with callback and callbackcontext is added to the queue, method name is %s ", messages.size(), logger.getMethodName());
+    }
+
     /**
      * Sets the message callback.
      *
@@ -684,6 +762,79 @@ public final class DeviceClient implements Closeable
         this.deviceTwin.subscribeDesiredPropertiesTwinPropertyNotification(onDesiredPropertyChange);
     }
 
+    /**
+     * Sends reported properties, returning a future that completes with the
+     * status of the response of the IoT Hub to the update.
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     * @return the future of the update.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty.
+     */
+    public IotHubEventFuture sendReportedPropertiesAsync(Set<Property> reportedProperties) throws IOException
+    {
+        /*
+         **Codes_SRS_DEVICECLIENT_45_031: [**This method shall check the client and reported properties as sendReportedProperties does.**]**
+         */
+        this.checkReportedProperties(reportedProperties);
+
+        /*
+         **Codes_SRS_DEVICECLIENT_45_032: [**This method shall send the reported properties by calling updateReportedPropertiesAsync on the twin object, and return its future.**]**
+         */
+        return this.deviceTwin.updateReportedPropertiesAsync(reportedProperties, null);
+    }
+
+    /**
+     * Sends reported properties with their version, returning a future that
+     * completes with the status of the response of the IoT Hub to the update.
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     * @param version the Reported property version. Cannot be negative.
+     * @return the future of the update.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty, or version is negative.
+     */
+    public IotHubEventFuture sendReportedPropertiesAsync(Set<Property> reportedProperties, int version) throws IOException
+    {
+        /*
+         **Codes_SRS_DEVICECLIENT_45_031: [**This method shall check the client and reported properties as sendReportedProperties does.**]**
+         */
+        this.checkReportedProperties(reportedProperties);
+
+        if (version < 0)
+        {
+            /*
+             **Codes_SRS_DEVICECLIENT_45_033: [**If version is negative, the function shall throw an IllegalArgumentException.**]**
+             */
+            throw new IllegalArgumentException("Version cannot be negative.");
+        }
+
+        /*
+         **Codes_SRS_DEVICECLIENT_45_032: [**This method shall send the reported properties by calling updateReportedPropertiesAsync on the twin object, and return its future.**]**
+         */
+        return this.deviceTwin.updateReportedPropertiesAsync(reportedProperties, version);
+    }
+
+    private void checkReportedProperties(Set<Property> reportedProperties) throws IOException
+    {
+        if (this.deviceTwin == null)
+        {
+            throw new IOException("Start twin before using it");
+        }
+
+        if (!this.deviceIO.isOpen())
+        {
+            throw new IOException("Open the client connection before using it.");
+        }
+
+        if (reportedProperties == null || reportedProperties.isEmpty())
+        {
+            throw new IllegalArgumentException("Reported properties set cannot be null or empty.");
+        }
+    }
+
     /**
      * Sends reported properties
      *
@@ -819,6 +970,50 @@ public final class DeviceClient implements Closeable
         this.deviceMethod.subscribeToDeviceMethod(deviceMethodCallback, deviceMethodCallbackContext);
     }
 
+    /**
+     * Subscribes to device methods, returning a future that completes when the
+     * IoT Hub acknowledges the subscription.
+     *
+     * @param deviceMethodCallback Callback on which device methods shall be invoked. Cannot be {@code null}.
+     * @param deviceMethodCallbackContext Context for device method callback. Can be {@code null}.
+     * @param deviceMethodStatusCallback Callback for providing IotHub status for device methods. Cannot be {@code null}.
+     * @param deviceMethodStatusCallbackContext Context for device method status callback. Can be {@code null}.
+     * @return the future of the subscription.
+     *
+     * @throws IOException if called when client is not opened.
+     * @throws IllegalArgumentException if either callback are null.
+     */
+    public IotHubEventFuture subscribeToDeviceMethodAsync(DeviceMethodCallback deviceMethodCallback, Object deviceMethodCallbackContext,
+                                                          IotHubEventCallback deviceMethodStatusCallback, Object deviceMethodStatusCallbackContext)
+            throws IOException
+    {
+        if (!this.deviceIO.isOpen())
+        {
+            /*
+            **Codes_SRS_DEVICECLIENT_45_034: [**If the client has not been open, the function shall throw an IOException.**]**
+             */
+            throw new IOException("Open the client connection before using it.");
+        }
+
+        if (deviceMethodCallback == null || deviceMethodStatusCallback == null)
+        {
+            /*
+            **Codes_SRS_DEVICECLIENT_45_035: [**If deviceMethodCallback or deviceMethodStatusCallback is null, the function shall throw an IllegalArgumentException.**]**
+             */
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+
+        if (this.deviceMethod == null)
+        {
+            this.deviceMethod = new DeviceMethod(this.deviceIO, this.config, deviceMethodStatusCallback, deviceMethodStatusCallbackContext);
+        }
+
+        /*
+        **Codes_SRS_DEVICECLIENT_45_036: [**This method shall subscribe by calling subscribeToDeviceMethodAsync on the DeviceMethod object, creating it only if needed, and return its future.**]**
+         */
+        return this.deviceMethod.subscribeToDeviceMethodAsync(deviceMethodCallback, deviceMethodCallbackContext);
+    }
+
     /**
      * Asynchronously upload a stream to the IoT Hub.
      *
@@ -1037,6 +1232,349 @@ public final class DeviceClient implements Closeable
         }
     }
 
+    private void setOption_SetEventDrivenSend(Object value)
+    {
+        logger.LogInfo("Setting event driven send as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_002: ["SetEventDrivenSend" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.deviceIO.setEventDrivenSend((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetEventDrivenReceive(Object value)
+    {
+        logger.LogInfo("Setting event driven receive as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_006: ["SetEventDrivenReceive" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.deviceIO.setEventDrivenReceive((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxMessages(Object value)
+    {
+        logger.LogInfo("Setting outbound queue maximum messages as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_010: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+        if (value instanceof Integer)
+        {
+            this.config.setOutboundQueueMaxMessages((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting outbound queue maximum bytes as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_012: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundQueueMaxBytes((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueFullPolicy(Object value)
+    {
+        logger.LogInfo("Setting outbound queue full policy as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_014: ["SetOutboundQueueFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+        if (value instanceof OutboundQueueFullPolicy)
+        {
+            this.config.setOutboundQueueFullPolicy((OutboundQueueFullPolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not OutboundQueueFullPolicy = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundQueueBlockTimeout(Object value)
+    {
+        logger.LogInfo("Setting outbound queue block timeout as %s milliseconds, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_016: ["SetOutboundQueueBlockTimeout" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundQueueBlockTimeoutMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetCallbackExecutor(Object value)
+    {
+        logger.LogInfo("Setting callback executor as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_024: ["SetCallbackExecutor" needs to have value type Executor.]
+        if (value instanceof Executor)
+        {
+            this.deviceIO.setCallbackExecutor((Executor) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not Executor = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundJournalDirectory(Object value)
+    {
+        logger.LogInfo("Setting outbound journal directory as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_038: ["SetOutboundJournalDirectory" needs to have value type String.]
+        if (value instanceof String)
+        {
+            this.config.setOutboundJournalDirectory((String) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not String = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundJournalMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting outbound journal maximum bytes as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_040: ["SetOutboundJournalMaxBytes" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setOutboundJournalMaxBytes((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void setOption_SetOutboundJournalFullPolicy(Object value)
+    {
+        logger.LogInfo("Setting outbound journal full policy as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_042: ["SetOutboundJournalFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+        if (value instanceof OutboundQueueFullPolicy)
+        {
+            this.config.setOutboundJournalFullPolicy((OutboundQueueFullPolicy) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not OutboundQueueFullPolicy = " + value);
+        }
+    }
+
+    private void setOption_SetClientRuntime(Object value)
+    {
+        logger.LogInfo("Setting client runtime as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_046: ["SetClientRuntime" needs to have value type ClientRuntime.]
+        if (value instanceof ClientRuntime)
+        {
+            this.config.setClientRuntime((ClientRuntime) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not ClientRuntime = " + value);
+        }
+    }
+
+    private void setOption_SetMqttInFlightWindow(Object value)
+    {
+        logger.LogInfo("Setting MQTT in flight window as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_050: ["SetMqttInFlightWindow" needs to have value type int.]
+        if (value instanceof Integer)
+        {
+            this.config.setMqttInFlightWindowSize((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetMqttAdaptiveInFlightWindow(Object value)
+    {
+        logger.LogInfo("Setting MQTT adaptive in flight window as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_052: ["SetMqttAdaptiveInFlightWindow" needs to have value type boolean.]
+        if (value instanceof Boolean)
+        {
+            this.config.setMqttInFlightWindowAdaptive((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetMqttTelemetryDeliveryMode(Object value)
+    {
+        logger.LogInfo("Setting MQTT telemetry delivery mode as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_063: ["SetMqttTelemetryDeliveryMode" needs to have value type TelemetryDeliveryMode.]
+        if (value instanceof TelemetryDeliveryMode)
+        {
+            this.config.setMqttTelemetryDeliveryMode((TelemetryDeliveryMode) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not TelemetryDeliveryMode = " + value);
+        }
+    }
+
+    private void setOption_SetMqttPersistenceDirectory(Object value)
+    {
+        logger.LogInfo("Setting MQTT persistence directory as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_065: ["SetMqttPersistenceDirectory" needs to have value type String.]
+        if (value instanceof String)
+        {
+            this.config.setMqttPersistenceDirectory((String) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not String = " + value);
+        }
+    }
+
+    private void setOption_SetMqttNioEngine(Object value)
+    {
+        logger.LogInfo("Setting MQTT NIO engine as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_067: ["SetMqttNioEngine" needs to have value type MqttNioEngine.]
+        if (value instanceof MqttNioEngine)
+        {
+            this.config.setMqttNioEngine((MqttNioEngine) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not MqttNioEngine = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpTelemetryBatchMaxMessages(Object value)
+    {
+        logger.LogInfo("Setting AMQP telemetry batch maximum number of messages as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_071: ["SetAmqpTelemetryBatchMaxMessages" needs to have value type int.]
+        if (value instanceof Integer)
+        {
+            this.config.setAmqpTelemetryBatchMaxMessages((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpTelemetryBatchMaxBytes(Object value)
+    {
+        logger.LogInfo("Setting AMQP telemetry batch maximum size as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_073: ["SetAmqpTelemetryBatchMaxBytes" needs to have value type int.]
+        if (value instanceof Integer)
+        {
+            this.config.setAmqpTelemetryBatchMaxBytes((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpTelemetryBatchLinger(Object value)
+    {
+        logger.LogInfo("Setting AMQP telemetry batch linger time as %s, method name is %s ", value, logger.getMethodName());
+
+        // Codes_SRS_DEVICECLIENT_45_075: ["SetAmqpTelemetryBatchLinger" needs to have value type long.]
+        if (value instanceof Long)
+        {
+            this.config.setAmqpTelemetryBatchLingerMillis((long) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not long = " + value);
+        }
+    }
+
+    private void checkAmqpTelemetryBatchOption(String optionName)
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            // Codes_SRS_DEVICECLIENT_45_076: [If the client configured to use TransportClient the AMQP telemetry batch options shall throw IllegalStateException.]
+            throw new IllegalStateException("Setting " + optionName + " is not supported for single client if using TransportClient.");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_077: [The AMQP telemetry batch options are available only for AMQPS and AMQPS_WS.]
+        IotHubClientProtocol protocol = this.deviceIO.getProtocol();
+        if (protocol != IotHubClientProtocol.AMQPS && protocol != IotHubClientProtocol.AMQPS_WS)
+        {
+            logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, protocol.toString(), logger.getMethodName());
+            // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the
+            // client, then it shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + protocol.toString());
+        }
+    }
+
+    private void checkMqttConnectionOption(String optionName, IotHubClientProtocol... protocols)
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            // Codes_SRS_DEVICECLIENT_45_053: [If the client configured to use TransportClient the MQTT connection options shall throw IllegalStateException.]
+            throw new IllegalStateException("Setting " + optionName + " is not supported for single client if using TransportClient.");
+        }
+
+        if (this.deviceIO.isOpen())
+        {
+            // Codes_SRS_DEVICECLIENT_45_054: [The MQTT connection options shall throw IllegalStateException if the client is open.]
+            throw new IllegalStateException("setOption " + optionName + " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_055: [The MQTT connection options are available only for the MQTT protocols they apply to.]
+        if (!Arrays.asList(protocols).contains(this.deviceIO.getProtocol()))
+        {
+            logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.deviceIO.getProtocol().toString(), logger.getMethodName());
+            // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the
+            // client, then it shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + this.deviceIO.getProtocol().toString());
+        }
+    }
+
+    private void checkOutboundJournalOption(String optionName)
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            // Codes_SRS_DEVICECLIENT_45_043: [If the client configured to use TransportClient the outbound journal options shall throw IllegalStateException.]
+            throw new IllegalStateException("Setting " + optionName + " is not supported for single client if using TransportClient.");
+        }
+
+        if (this.deviceIO.isOpen())
+        {
+            // Codes_SRS_DEVICECLIENT_45_044: [The outbound journal options shall throw IllegalStateException if the client is open.]
+            throw new IllegalStateException("setOption " + optionName + " only works when the transport is closed");
+        }
+    }
+
     /**
      * Sets a runtime option identified by parameter {@code optionName}
      * to {@code value}.
@@ -1056,6 +1594,128 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetEventDrivenSend</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT. When {@code true}, queued messages are sent as soon as
+     *         they are added instead of on every send interval, and the send
+     *         thread stays idle while there is nothing to send. It can only be
+     *         set while the client is closed. The value is expected to be of
+     *         type {@code boolean}.
+     *      - <b>SetEventDrivenReceive</b> - this option is applicable for AMQP/
+     *         MQTT. When {@code true}, messages pushed by the IoT Hub are handed
+     *         to their callbacks as soon as they arrive instead of one message on
+     *         every receive interval. HTTP always polls on the receive interval.
+     *         It can only be set while the client is closed. The value is
+     *         expected to be of type {@code boolean}.
+     *      - <b>SetOutboundQueueMaxMessages</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the maximum number of messages
+     *         waiting to be sent, 0 for no limit, which is the default. The value
+     *         is expected to be of type {@code int}.
+     *      - <b>SetOutboundQueueMaxBytes</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the maximum total body size,
+     *         in bytes, of the messages waiting to be sent, 0 for no limit, which
+     *         is the default. The value is expected to be of type {@code long}.
+     *      - <b>SetOutboundQueueFullPolicy</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies what happens to a new message
+     *         when the outbound queue is full. The default is to reject it. The
+     *         value is expected to be of type {@link OutboundQueueFullPolicy}.
+     *      - <b>SetOutboundQueueBlockTimeout</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies, in milliseconds, how long the
+     *         {@link OutboundQueueFullPolicy#BLOCK} policy waits for room in the
+     *         queue before rejecting the message. The value is expected to be of
+     *         type {@code long}.
+     *      - <b>SetCallbackExecutor</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT. This option specifies the executor that runs the
+     *         callbacks of sent messages, so a slow callback does not delay the
+     *         next sends. The callbacks of the client are still invoked one at a
+     *         time and in order, and the client never shuts the executor down.
+     *         By default, the callbacks run on the send thread. It can only be
+     *         set while the client is closed. The value is expected to be of
+     *         type {@link java.util.concurrent.Executor}.
+     *      - <b>SetOutboundJournalDirectory</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the directory of a journal
+     *         on disk that keeps the telemetry sent with an event callback until
+     *         the IoT Hub acknowledges it, so it is sent again when the client
+     *         is opened after a crash or restart. Messages may then be received
+     *         more than once. By default, there is no journal. It can only be set while the client is closed. The value is
+     *         expected to be of type {@code String}.
+     *      - <b>SetOutboundJournalMaxBytes</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the maximum disk space, in
+     *         bytes, used by the outbound journal. It can only be set while the
+     *         client is closed. The value is expected to be of type {@code long}.
+     *      - <b>SetOutboundJournalFullPolicy</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies what happens when the
+     *         outbound journal is full: {@link OutboundQueueFullPolicy#DROP_OLDEST},
+     *         the default, drops the oldest journaled messages, and
+     *         {@link OutboundQueueFullPolicy#DROP_NEWEST} sends new messages
+     *         without journaling them. It can only be set while the client is
+     *         closed. The value is expected to be of type
+     *         {@link OutboundQueueFullPolicy}.
+     *      - <b>SetClientRuntime</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT. This option specifies the runtime whose threads send
+     *         and receive the messages, renew the tokens and upload the files
+     *         of the client, so many clients in the same process share a fixed
+     *         number of threads. The client never closes the runtime. By
+     *         default, the client starts threads of its own. It can only be set
+     *         while the client is closed. The value is expected to be of type
+     *         {@link ClientRuntime}.
+     *      - <b>SetMqttInFlightWindow</b> - this option is applicable for MQTT/
+     *         MQTT_WS/MQTT_NIO. This option specifies how many messages can be published
+     *         and waiting for their acknowledgement, or how many at most if the
+     *         window is adaptive. A larger window sends faster on links with a
+     *         long round trip. The default is 10. It can only be set while the
+     *         client is closed. The value is expected to be of type {@code int}.
+     *      - <b>SetMqttAdaptiveInFlightWindow</b> - this option is applicable
+     *         for MQTT/MQTT_WS/MQTT_NIO. This option, when {@code true}, lets the window
+     *         of messages in flight grow while their round trip stays flat and
+     *         halve on delivery timeouts and lost connections. The default is
+     *         a fixed window. It can only be set while the client is closed. The
+     *         value is expected to be of type {@code boolean}.
+     *      - <b>SetMqttTelemetryDeliveryMode</b> - this option is applicable
+     *         for MQTT/MQTT_WS/MQTT_NIO. This option, when
+     *         {@link TelemetryDeliveryMode#AT_MOST_ONCE}, publishes the
+     *         telemetry messages at QoS 0, without waiting for their
+     *         acknowledgement, and completes their callbacks as soon as they
+     *         are handed to the MQTT client. Device twin and device method
+     *         messages are still delivered at least once. The default is
+     *         {@link TelemetryDeliveryMode#AT_LEAST_ONCE}. It applies to the
+     *         messages sent after it is set. The value is expected to be of
+     *         type {@link TelemetryDeliveryMode}.
+     *      - <b>SetMqttPersistenceDirectory</b> - this option is applicable
+     *         for MQTT/MQTT_WS. This option specifies a directory where the
+     *         messages published and not yet acknowledged are kept, so they are
+     *         published again when the client is opened after a restart of the
+     *         process, without being sent again by the application. By
+     *         default, they are kept in memory. It can only be set while the
+     *         client is closed. The value is expected to be of type
+     *         {@code String}.
+     *      - <b>SetMqttNioEngine</b> - this option is applicable for MQTT_NIO.
+     *         This option specifies the engine whose selector threads run the
+     *         connection of the client, so many clients in the same process
+     *         share a fixed number of threads and sockets are multiplexed on
+     *         them. The client never closes the engine. By default, the client
+     *         runs on the engine shared by the whole process. It can only be
+     *         set while the client is closed. The value is expected to be of
+     *         type {@link MqttNioEngine}.
+     *      - <b>SetAmqpTelemetryBatchMaxMessages</b> - this option is applicable
+     *         for AMQPS/AMQPS_WS. This option specifies the largest number of
+     *         telemetry messages packed in one batched transfer, which spends
+     *         one link credit and one disposition on all of them. The
+     *         callback of every message in a batch gets the status of the
+     *         batch. The default is 1, which sends each message in its own
+     *         transfer. It applies to the messages sent after it is set. The
+     *         value is expected to be of type {@code int}.
+     *      - <b>SetAmqpTelemetryBatchMaxBytes</b> - this option is applicable
+     *         for AMQPS/AMQPS_WS. This option specifies the largest estimated
+     *         size in bytes of a batched transfer. The default is 256KB, the
+     *         largest message accepted by the IoT Hub. It applies to the
+     *         messages sent after it is set. The value is expected to be of
+     *         type {@code int}.
+     *      - <b>SetAmqpTelemetryBatchLinger</b> - this option is applicable
+     *         for AMQPS/AMQPS_WS. This option specifies the time in
+     *         milliseconds an incomplete batch waits for more messages before
+     *         it is sent. The default is 0, which sends each batch as soon as
+     *         the queued messages are packed. It applies to the messages sent
+     *         after it is set. The value is expected to be of type {@code long}.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -1191,6 +1851,214 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                // Codes_SRS_DEVICECLIENT_45_001: ["SetEventDrivenSend" - send queued messages as soon as they are added.]
+                case SET_EVENT_DRIVEN_SEND:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_003: [If the client configured to use TransportClient the SetEventDrivenSend shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting event driven send is not supported for single client if using TransportClient.");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_004: ["SetEventDrivenSend" shall throw IllegalStateException if the client is open.]
+                        throw new IllegalStateException("setOption " + SET_EVENT_DRIVEN_SEND + " only works when the transport is closed");
+                    }
+                    else
+                    {
+                        setOption_SetEventDrivenSend(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_005: ["SetEventDrivenReceive" - dispatch received messages as soon as they arrive.]
+                case SET_EVENT_DRIVEN_RECEIVE:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_007: [If the client configured to use TransportClient the SetEventDrivenReceive shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting event driven receive is not supported for single client if using TransportClient.");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_008: ["SetEventDrivenReceive" shall throw IllegalStateException if the client is open.]
+                        throw new IllegalStateException("setOption " + SET_EVENT_DRIVEN_RECEIVE + " only works when the transport is closed");
+                    }
+                    else
+                    {
+                        setOption_SetEventDrivenReceive(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_009: ["SetOutboundQueueMaxMessages" - maximum number of messages waiting to be sent, 0 for no limit.]
+                case SET_OUTBOUND_QUEUE_MAX_MESSAGES:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_018: [If the client configured to use TransportClient the outbound queue options shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting outbound queue maximum messages is not supported for single client if using TransportClient.");
+                    }
+                    else
+                    {
+                        setOption_SetOutboundQueueMaxMessages(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_011: ["SetOutboundQueueMaxBytes" - maximum total body size in bytes of the messages waiting to be sent, 0 for no limit.]
+                case SET_OUTBOUND_QUEUE_MAX_BYTES:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_018: [If the client configured to use TransportClient the outbound queue options shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting outbound queue maximum bytes is not supported for single client if using TransportClient.");
+                    }
+                    else
+                    {
+                        setOption_SetOutboundQueueMaxBytes(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_013: ["SetOutboundQueueFullPolicy" - policy applied to new messages when the outbound queue is full.]
+                case SET_OUTBOUND_QUEUE_FULL_POLICY:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_018: [If the client configured to use TransportClient the outbound queue options shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting outbound queue full policy is not supported for single client if using TransportClient.");
+                    }
+                    else
+                    {
+                        setOption_SetOutboundQueueFullPolicy(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_015: ["SetOutboundQueueBlockTimeout" - time in milliseconds that the BLOCK policy waits for room in the outbound queue.]
+                case SET_OUTBOUND_QUEUE_BLOCK_TIMEOUT:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_018: [If the client configured to use TransportClient the outbound queue options shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting outbound queue block timeout is not supported for single client if using TransportClient.");
+                    }
+                    else
+                    {
+                        setOption_SetOutboundQueueBlockTimeout(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_023: ["SetCallbackExecutor" - executor that runs the callbacks of sent messages.]
+                case SET_CALLBACK_EXECUTOR:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_025: [If the client configured to use TransportClient the SetCallbackExecutor shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting callback executor is not supported for single client if using TransportClient.");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_026: ["SetCallbackExecutor" shall throw IllegalStateException if the client is open.]
+                        throw new IllegalStateException("setOption " + SET_CALLBACK_EXECUTOR + " only works when the transport is closed");
+                    }
+                    else
+                    {
+                        setOption_SetCallbackExecutor(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_037: ["SetOutboundJournalDirectory" - directory of the outbound journal.]
+                case SET_OUTBOUND_JOURNAL_DIRECTORY:
+                {
+                    checkOutboundJournalOption(SET_OUTBOUND_JOURNAL_DIRECTORY);
+                    setOption_SetOutboundJournalDirectory(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_039: ["SetOutboundJournalMaxBytes" - maximum disk space in bytes of the outbound journal.]
+                case SET_OUTBOUND_JOURNAL_MAX_BYTES:
+                {
+                    checkOutboundJournalOption(SET_OUTBOUND_JOURNAL_MAX_BYTES);
+                    setOption_SetOutboundJournalMaxBytes(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_041: ["SetOutboundJournalFullPolicy" - policy applied when the outbound journal is full.]
+                case SET_OUTBOUND_JOURNAL_FULL_POLICY:
+                {
+                    checkOutboundJournalOption(SET_OUTBOUND_JOURNAL_FULL_POLICY);
+                    setOption_SetOutboundJournalFullPolicy(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_045: ["SetClientRuntime" - runtime whose threads run the tasks of the client.]
+                case SET_CLIENT_RUNTIME:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_047: [If the client configured to use TransportClient the SetClientRuntime shall throw IllegalStateException.]
+                        throw new IllegalStateException("Setting client runtime is not supported for single client if using TransportClient.");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        // Codes_SRS_DEVICECLIENT_45_048: ["SetClientRuntime" shall throw IllegalStateException if the client is open.]
+                        throw new IllegalStateException("setOption " + SET_CLIENT_RUNTIME + " only works when the transport is closed");
+                    }
+                    else
+                    {
+                        setOption_SetClientRuntime(value);
+                    }
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_049: ["SetMqttInFlightWindow" - number of MQTT messages in flight.]
+                case SET_MQTT_IN_FLIGHT_WINDOW:
+                {
+                    checkMqttConnectionOption(SET_MQTT_IN_FLIGHT_WINDOW, IotHubClientProtocol.MQTT, IotHubClientProtocol.MQTT_WS, IotHubClientProtocol.MQTT_NIO);
+                    setOption_SetMqttInFlightWindow(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_051: ["SetMqttAdaptiveInFlightWindow" - whether the MQTT in flight window tunes its size.]
+                case SET_MQTT_ADAPTIVE_IN_FLIGHT_WINDOW:
+                {
+                    checkMqttConnectionOption(SET_MQTT_ADAPTIVE_IN_FLIGHT_WINDOW, IotHubClientProtocol.MQTT, IotHubClientProtocol.MQTT_WS, IotHubClientProtocol.MQTT_NIO);
+                    setOption_SetMqttAdaptiveInFlightWindow(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_062: ["SetMqttTelemetryDeliveryMode" - QoS of the MQTT telemetry messages.]
+                case SET_MQTT_TELEMETRY_DELIVERY_MODE:
+                {
+                    setOption_SetMqttTelemetryDeliveryMode(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_064: ["SetMqttPersistenceDirectory" - directory where the MQTT messages in flight are kept.]
+                case SET_MQTT_PERSISTENCE_DIRECTORY:
+                {
+                    checkMqttConnectionOption(SET_MQTT_PERSISTENCE_DIRECTORY, IotHubClientProtocol.MQTT, IotHubClientProtocol.MQTT_WS);
+                    setOption_SetMqttPersistenceDirectory(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_066: ["SetMqttNioEngine" - engine whose selector threads run the MQTT_NIO connection.]
+                case SET_MQTT_NIO_ENGINE:
+                {
+                    checkMqttConnectionOption(SET_MQTT_NIO_ENGINE, IotHubClientProtocol.MQTT_NIO);
+                    setOption_SetMqttNioEngine(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_070: ["SetAmqpTelemetryBatchMaxMessages" - largest number of AMQP telemetry messages in one transfer.]
+                case SET_AMQP_TELEMETRY_BATCH_MAX_MESSAGES:
+                {
+                    checkAmqpTelemetryBatchOption(SET_AMQP_TELEMETRY_BATCH_MAX_MESSAGES);
+                    setOption_SetAmqpTelemetryBatchMaxMessages(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_072: ["SetAmqpTelemetryBatchMaxBytes" - largest size of a batched AMQP telemetry transfer.]
+                case SET_AMQP_TELEMETRY_BATCH_MAX_BYTES:
+                {
+                    checkAmqpTelemetryBatchOption(SET_AMQP_TELEMETRY_BATCH_MAX_BYTES);
+                    setOption_SetAmqpTelemetryBatchMaxBytes(value);
+                    break;
+                }
+                // Codes_SRS_DEVICECLIENT_45_074: ["SetAmqpTelemetryBatchLinger" - time an incomplete AMQP telemetry batch waits for more messages.]
+                case SET_AMQP_TELEMETRY_BATCH_LINGER:
+                {
+                    checkAmqpTelemetryBatchOption(SET_AMQP_TELEMETRY_BATCH_LINGER);
+                    setOption_SetAmqpTelemetryBatchLinger(value);
+                    break;
+                }
                 default:
                 {
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
@@ -1219,6 +2087,132 @@ public final class DeviceClient implements Closeable
         this.deviceIO.registerConnectionStateCallback(callback, callbackContext);
     }
 
+    /**
+     * Returns a snapshot of the queue of messages waiting to be sent, with the
+     * number of messages dropped or rejected because the queue was full.
+     *
+     * @return the outbound queue statistics.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public OutboundQueueStatistics getOutboundQueueStatistics()
+    {
+        // Codes_SRS_DEVICECLIENT_45_019: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The outbound queue is not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_020: [The function shall return the outbound queue statistics of the DeviceIO.]
+        return this.deviceIO.getOutboundQueueStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the callbacks of sent messages waiting to be
+     * invoked, with the lag between the completion of a request and the
+     * invocation of its callback.
+     *
+     * @return the callback queue statistics.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public CallbackQueueStatistics getCallbackQueueStatistics()
+    {
+        // Codes_SRS_DEVICECLIENT_45_027: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The callback queue is not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_028: [The function shall return the callback queue statistics of the DeviceIO.]
+        return this.deviceIO.getCallbackQueueStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the window of messages sent and waiting for their
+     * acknowledgement, with the measured round trip. Only the MQTT, MQTT_WS
+     * and MQTT_NIO transports have an in flight window.
+     *
+     * @return the in flight window statistics, or {@code null} if the
+     * transport has no in flight window or the client was never opened.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        // Codes_SRS_DEVICECLIENT_45_056: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The in flight window is not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_057: [The function shall return the in flight window statistics of the DeviceIO.]
+        return this.deviceIO.getInFlightWindowStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the outages of the connection and of the attempts
+     * to restore it in the background. Only the MQTT, MQTT_WS and MQTT_NIO
+     * transports report their outages.
+     *
+     * @return the reconnect statistics, or {@code null} if the transport does
+     * not report its outages or the client was never opened.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        // Codes_SRS_DEVICECLIENT_45_058: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The reconnect statistics are not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_059: [The function shall return the reconnect statistics of the DeviceIO.]
+        return this.deviceIO.getReconnectStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the credit the IoT Hub granted to send messages,
+     * and of the times the client ran out of it. While the client is starved
+     * of credit, the messages wait in the outbound queue, which applies its
+     * {@link OutboundQueueFullPolicy} once full. Only the AMQPS and AMQPS_WS
+     * transports have send credit.
+     *
+     * @return the send credit statistics, or {@code null} if the transport
+     * has no send credit or the client was never opened.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        // Codes_SRS_DEVICECLIENT_45_068: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The send credit statistics are not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_069: [The function shall return the send credit statistics of the DeviceIO.]
+        return this.deviceIO.getSendCreditStatistics();
+    }
+
+    /**
+     * Returns the number of device twin requests sent and still waiting for
+     * their response. A request that waits longer than
+     * {@link com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable#DEFAULT_TIMEOUT_MILLIS}
+     * milliseconds is failed with {@link IotHubStatusCode#MESSAGE_EXPIRED}
+     * on the device twin status callback.
+     *
+     * @return the number of pending device twin requests, or 0 if the transport does not support device twin.
+     * @throws IllegalStateException if the client uses a TransportClient that is not open yet.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        // Codes_SRS_DEVICECLIENT_45_060: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+        if (this.deviceIO == null)
+        {
+            throw new IllegalStateException("The pending twin requests are not available until the TransportClient is opened");
+        }
+
+        // Codes_SRS_DEVICECLIENT_45_061: [The function shall return the number of pending device twin requests of the DeviceIO.]
+        return this.deviceIO.getPendingTwinRequestCount();
+    }
+
     /**
      * Closes FileUpload object if it is initialized.
      *
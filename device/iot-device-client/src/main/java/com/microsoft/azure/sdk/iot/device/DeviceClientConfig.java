@@ -4,6 +4,7 @@
 package com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.auth.*;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderTpm;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderX509;
@@ -20,6 +21,18 @@ public final class DeviceClientConfig
     private static final int DEFAULT_READ_TIMEOUT_MILLIS = 240000;
     /** The default value for messageLockTimeoutSecs. */
     private static final int DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS = 180;
+    /** The default value for outboundQueueBlockTimeoutMillis. */
+    private static final long DEFAULT_OUTBOUND_QUEUE_BLOCK_TIMEOUT_MILLIS = 10000;
+    /** The default value for outboundJournalMaxBytes. */
+    private static final long DEFAULT_OUTBOUND_JOURNAL_MAX_BYTES = 64L * 1024 * 1024;
+    /** The smallest value for outboundJournalMaxBytes. */
+    public static final long MIN_OUTBOUND_JOURNAL_MAX_BYTES = 64L * 1024;
+    /** The default value for mqttInFlightWindowSize. */
+    public static final int DEFAULT_MQTT_IN_FLIGHT_WINDOW_SIZE = 10;
+    /** The default value for amqpTelemetryBatchMaxMessages, one message per transfer. */
+    public static final int DEFAULT_AMQP_TELEMETRY_BATCH_MAX_MESSAGES = 1;
+    /** The default value for amqpTelemetryBatchMaxBytes, the largest message accepted by the IoT Hub. */
+    public static final int DEFAULT_AMQP_TELEMETRY_BATCH_MAX_BYTES = 256 * 1024;
 
     private boolean useWebsocket;
 
@@ -50,6 +63,36 @@ public final class DeviceClientConfig
     /** The context to be passed in to the message callback. */
     private Object deviceTelemetryMessageContext;
 
+    /* limits of the queue of messages waiting to be sent, 0 means no limit */
+    private volatile int outboundQueueMaxMessages = 0;
+    private volatile long outboundQueueMaxBytes = 0;
+    private volatile OutboundQueueFullPolicy outboundQueueFullPolicy = OutboundQueueFullPolicy.REJECT;
+    private volatile long outboundQueueBlockTimeoutMillis = DEFAULT_OUTBOUND_QUEUE_BLOCK_TIMEOUT_MILLIS;
+
+    /* persistent journal of the telemetry waiting to be sent, disabled while there is no directory */
+    private volatile String outboundJournalDirectory = null;
+    private volatile long outboundJournalMaxBytes = DEFAULT_OUTBOUND_JOURNAL_MAX_BYTES;
+    private volatile OutboundQueueFullPolicy outboundJournalFullPolicy = OutboundQueueFullPolicy.DROP_OLDEST;
+
+    /* threads shared with other clients, each client starts its own threads while there is none */
+    private volatile ClientRuntime clientRuntime = null;
+
+    /* number of MQTT publishes waiting for their PUBACK, the maximum if the window is adaptive */
+    private volatile int mqttInFlightWindowSize = DEFAULT_MQTT_IN_FLIGHT_WINDOW_SIZE;
+    private volatile boolean isMqttInFlightWindowAdaptive = false;
+
+    /* QoS of the MQTT telemetry publishes, device twin and device method messages are always sent at QoS 1 */
+    private volatile TelemetryDeliveryMode mqttTelemetryDeliveryMode = TelemetryDeliveryMode.AT_LEAST_ONCE;
+    private volatile String mqttPersistenceDirectory = null;
+
+    /* selector threads of the MQTT_NIO connection, the shared engine while there is none */
+    private volatile MqttNioEngine mqttNioEngine = null;
+
+    /* limits of the AMQP telemetry packed in one batched transfer, batching is disabled while the count is 1 */
+    private volatile int amqpTelemetryBatchMaxMessages = DEFAULT_AMQP_TELEMETRY_BATCH_MAX_MESSAGES;
+    private volatile int amqpTelemetryBatchMaxBytes = DEFAULT_AMQP_TELEMETRY_BATCH_MAX_BYTES;
+    private volatile long amqpTelemetryBatchLingerMillis = 0;
+
     private CustomLogger logger;
 
     public enum AuthType
@@ -436,6 +479,482 @@ public final class DeviceClientConfig
         return authenticationType;
     }
 
+    /**
+     * Getter for the maximum number of messages waiting to be sent.
+     *
+     * @return the maximum number of queued messages, or 0 if there is no limit.
+     */
+    public int getOutboundQueueMaxMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_001: [The function shall return the saved maximum number of queued messages.]
+        return this.outboundQueueMaxMessages;
+    }
+
+    /**
+     * Setter for the maximum number of messages waiting to be sent.
+     *
+     * @param maxMessages the maximum number of queued messages, or 0 for no limit.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setOutboundQueueMaxMessages(int maxMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_002: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (maxMessages < 0)
+        {
+            throw new IllegalArgumentException("maximum number of queued messages cannot be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_003: [The function shall save the maximum number of queued messages.]
+        this.outboundQueueMaxMessages = maxMessages;
+    }
+
+    /**
+     * Getter for the maximum total body size of the messages waiting to be sent.
+     *
+     * @return the maximum number of queued bytes, or 0 if there is no limit.
+     */
+    public long getOutboundQueueMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_004: [The function shall return the saved maximum number of queued bytes.]
+        return this.outboundQueueMaxBytes;
+    }
+
+    /**
+     * Setter for the maximum total body size of the messages waiting to be sent.
+     *
+     * @param maxBytes the maximum number of queued bytes, or 0 for no limit.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setOutboundQueueMaxBytes(long maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_005: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("maximum number of queued bytes cannot be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_006: [The function shall save the maximum number of queued bytes.]
+        this.outboundQueueMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the policy applied to new messages when the outbound queue is full.
+     *
+     * @return the outbound queue full policy. The default is {@link OutboundQueueFullPolicy#REJECT}.
+     */
+    public OutboundQueueFullPolicy getOutboundQueueFullPolicy()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_007: [The function shall return the saved outbound queue full policy.]
+        return this.outboundQueueFullPolicy;
+    }
+
+    /**
+     * Setter for the policy applied to new messages when the outbound queue is full.
+     *
+     * @param policy the outbound queue full policy.
+     * @throws IllegalArgumentException if the provided policy is {@code null}.
+     */
+    public void setOutboundQueueFullPolicy(OutboundQueueFullPolicy policy)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_008: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+        if (policy == null)
+        {
+            throw new IllegalArgumentException("outbound queue full policy cannot be null");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_009: [The function shall save the outbound queue full policy.]
+        this.outboundQueueFullPolicy = policy;
+    }
+
+    /**
+     * Getter for the time a caller is blocked by the {@link OutboundQueueFullPolicy#BLOCK} policy.
+     *
+     * @return the block timeout in milliseconds. The default is 10 seconds.
+     */
+    public long getOutboundQueueBlockTimeoutMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_010: [The function shall return the saved block timeout in milliseconds.]
+        return this.outboundQueueBlockTimeoutMillis;
+    }
+
+    /**
+     * Setter for the time a caller is blocked by the {@link OutboundQueueFullPolicy#BLOCK} policy.
+     *
+     * @param blockTimeoutMillis the block timeout in milliseconds.
+     * @throws IllegalArgumentException if the provided timeout is zero or negative.
+     */
+    public void setOutboundQueueBlockTimeoutMillis(long blockTimeoutMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_011: [If the provided timeout is zero or negative, the function shall throw IllegalArgumentException.]
+        if (blockTimeoutMillis <= 0)
+        {
+            throw new IllegalArgumentException("block timeout can not be zero or negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_012: [The function shall save the block timeout in milliseconds.]
+        this.outboundQueueBlockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Getter for the directory of the outbound journal.
+     *
+     * @return the path of the journal directory, or {@code null} if the journal is disabled, which is the default.
+     */
+    public String getOutboundJournalDirectory()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_013: [The function shall return the saved journal directory.]
+        return this.outboundJournalDirectory;
+    }
+
+    /**
+     * Setter for the directory of the outbound journal, which keeps the
+     * telemetry waiting to be sent on disk so it survives a restart.
+     *
+     * @param directory the path of the journal directory, or {@code null} to disable the journal.
+     * @throws IllegalArgumentException if the provided path is empty.
+     */
+    public void setOutboundJournalDirectory(String directory)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_014: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+        if ((directory != null) && directory.isEmpty())
+        {
+            throw new IllegalArgumentException("journal directory cannot be empty");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_015: [The function shall save the journal directory.]
+        this.outboundJournalDirectory = directory;
+    }
+
+    /**
+     * Getter for the maximum size of the outbound journal on disk.
+     *
+     * @return the maximum size in bytes. The default is 64 MB.
+     */
+    public long getOutboundJournalMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_016: [The function shall return the saved maximum journal size.]
+        return this.outboundJournalMaxBytes;
+    }
+
+    /**
+     * Setter for the maximum size of the outbound journal on disk.
+     *
+     * @param maxBytes the maximum size in bytes.
+     * @throws IllegalArgumentException if the provided size is smaller than {@link #MIN_OUTBOUND_JOURNAL_MAX_BYTES}.
+     */
+    public void setOutboundJournalMaxBytes(long maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_017: [If the provided size is smaller than MIN_OUTBOUND_JOURNAL_MAX_BYTES, the function shall throw IllegalArgumentException.]
+        if (maxBytes < MIN_OUTBOUND_JOURNAL_MAX_BYTES)
+        {
+            throw new IllegalArgumentException("journal size cannot be smaller than " + MIN_OUTBOUND_JOURNAL_MAX_BYTES + " bytes");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_018: [The function shall save the maximum journal size.]
+        this.outboundJournalMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the policy applied when the outbound journal is full.
+     *
+     * @return the journal full policy. The default is {@link OutboundQueueFullPolicy#DROP_OLDEST}.
+     */
+    public OutboundQueueFullPolicy getOutboundJournalFullPolicy()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_019: [The function shall return the saved journal full policy.]
+        return this.outboundJournalFullPolicy;
+    }
+
+    /**
+     * Setter for the policy applied when the outbound journal is full. With
+     * {@link OutboundQueueFullPolicy#DROP_OLDEST} the oldest journaled
+     * messages are dropped from the journal, and with
+     * {@link OutboundQueueFullPolicy#DROP_NEWEST} new messages are not
+     * journaled. In both cases the messages are still sent from memory.
+     *
+     * @param policy the journal full policy.
+     * @throws IllegalArgumentException if the provided policy is not DROP_OLDEST or DROP_NEWEST.
+     */
+    public void setOutboundJournalFullPolicy(OutboundQueueFullPolicy policy)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_020: [If the provided policy is not DROP_OLDEST or DROP_NEWEST, the function shall throw IllegalArgumentException.]
+        if ((policy != OutboundQueueFullPolicy.DROP_OLDEST) && (policy != OutboundQueueFullPolicy.DROP_NEWEST))
+        {
+            throw new IllegalArgumentException("journal full policy must be DROP_OLDEST or DROP_NEWEST");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_021: [The function shall save the journal full policy.]
+        this.outboundJournalFullPolicy = policy;
+    }
+
+    /**
+     * Getter for the runtime whose threads run the tasks of the client.
+     *
+     * @return the client runtime, or {@code null} if the client starts its own threads, which is the default.
+     */
+    public ClientRuntime getClientRuntime()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_022: [The function shall return the saved client runtime.]
+        return this.clientRuntime;
+    }
+
+    /**
+     * Setter for the runtime whose threads run the tasks of the client,
+     * instead of threads of its own.
+     *
+     * @param clientRuntime the client runtime, or {@code null} for the client to start its own threads.
+     */
+    public void setClientRuntime(ClientRuntime clientRuntime)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_023: [The function shall save the client runtime.]
+        this.clientRuntime = clientRuntime;
+    }
+
+    /**
+     * Getter for the size of the window of MQTT messages published and
+     * waiting for their PUBACK.
+     *
+     * @return the number of messages in flight, or the maximum number if the
+     * window is adaptive. The default is {@link #DEFAULT_MQTT_IN_FLIGHT_WINDOW_SIZE}.
+     */
+    public int getMqttInFlightWindowSize()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_024: [The function shall return the saved MQTT in flight window size.]
+        return this.mqttInFlightWindowSize;
+    }
+
+    /**
+     * Setter for the size of the window of MQTT messages published and
+     * waiting for their PUBACK. A larger window sends more messages per round
+     * trip, which matters on links with a long round trip.
+     *
+     * @param windowSize the number of messages in flight, or the maximum number if the window is adaptive.
+     * @throws IllegalArgumentException if the provided size is smaller than 1.
+     */
+    public void setMqttInFlightWindowSize(int windowSize)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_025: [If the provided size is smaller than 1, the function shall throw IllegalArgumentException.]
+        if (windowSize < 1)
+        {
+            throw new IllegalArgumentException("MQTT in flight window size cannot be smaller than 1");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_026: [The function shall save the MQTT in flight window size.]
+        this.mqttInFlightWindowSize = windowSize;
+    }
+
+    /**
+     * Getter for the mode of the window of MQTT messages in flight.
+     *
+     * @return {@code true} if the window tunes its size from the round trip of
+     * the messages, and {@code false}, the default, if its size is fixed.
+     */
+    public boolean isMqttInFlightWindowAdaptive()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_027: [The function shall return the saved MQTT in flight window mode.]
+        return this.isMqttInFlightWindowAdaptive;
+    }
+
+    /**
+     * Setter for the mode of the window of MQTT messages in flight. An
+     * adaptive window grows while the round trip of the messages stays flat,
+     * up to the window size, and halves on delivery timeouts and lost
+     * connections.
+     *
+     * @param isAdaptive {@code true} to tune the size of the window, and {@code false} to keep it fixed.
+     */
+    public void setMqttInFlightWindowAdaptive(boolean isAdaptive)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_028: [The function shall save the MQTT in flight window mode.]
+        this.isMqttInFlightWindowAdaptive = isAdaptive;
+    }
+
+    /**
+     * Getter for the delivery mode of the telemetry messages sent over MQTT.
+     *
+     * @return the telemetry delivery mode. The default is {@link TelemetryDeliveryMode#AT_LEAST_ONCE}.
+     */
+    public TelemetryDeliveryMode getMqttTelemetryDeliveryMode()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_029: [The function shall return the saved MQTT telemetry delivery mode.]
+        return this.mqttTelemetryDeliveryMode;
+    }
+
+    /**
+     * Setter for the delivery mode of the telemetry messages sent over MQTT.
+     * Device twin and device method messages are always delivered at least
+     * once.
+     *
+     * @param deliveryMode the telemetry delivery mode. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the provided mode is {@code null}.
+     */
+    public void setMqttTelemetryDeliveryMode(TelemetryDeliveryMode deliveryMode)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_030: [If the provided mode is null, the function shall throw IllegalArgumentException.]
+        if (deliveryMode == null)
+        {
+            throw new IllegalArgumentException("MQTT telemetry delivery mode cannot be null");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_031: [The function shall save the MQTT telemetry delivery mode.]
+        this.mqttTelemetryDeliveryMode = deliveryMode;
+    }
+
+    /**
+     * Getter for the directory where the MQTT transport keeps the messages in
+     * flight.
+     *
+     * @return the path of the persistence directory, or {@code null} if the messages in flight are kept in memory, which is the default.
+     */
+    public String getMqttPersistenceDirectory()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_032: [The function shall return the saved MQTT persistence directory.]
+        return this.mqttPersistenceDirectory;
+    }
+
+    /**
+     * Setter for the directory where the MQTT transport keeps the messages in
+     * flight, so the publishes that were not acknowledged resume when the
+     * client is opened again after a restart.
+     *
+     * @param directory the path of the persistence directory, or {@code null} to keep the messages in flight in memory.
+     * @throws IllegalArgumentException if the provided path is empty.
+     */
+    public void setMqttPersistenceDirectory(String directory)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_033: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+        if ((directory != null) && directory.isEmpty())
+        {
+            throw new IllegalArgumentException("MQTT persistence directory cannot be empty");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_034: [The function shall save the MQTT persistence directory.]
+        this.mqttPersistenceDirectory = directory;
+    }
+
+    /**
+     * Getter for the engine whose selector threads run the MQTT_NIO
+     * connection of the client.
+     *
+     * @return the MQTT NIO engine, or {@code null} if the client runs on the shared engine, which is the default.
+     */
+    public MqttNioEngine getMqttNioEngine()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_035: [The function shall return the saved MQTT NIO engine.]
+        return this.mqttNioEngine;
+    }
+
+    /**
+     * Setter for the engine whose selector threads run the MQTT_NIO
+     * connection of the client, instead of the engine shared by the whole
+     * process.
+     *
+     * @param mqttNioEngine the MQTT NIO engine, or {@code null} for the shared engine.
+     */
+    public void setMqttNioEngine(MqttNioEngine mqttNioEngine)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_036: [The function shall save the MQTT NIO engine.]
+        this.mqttNioEngine = mqttNioEngine;
+    }
+
+    /**
+     * Getter for the largest number of AMQP telemetry messages packed in one
+     * batched transfer.
+     *
+     * @return the number of messages per transfer. The default is
+     * {@link #DEFAULT_AMQP_TELEMETRY_BATCH_MAX_MESSAGES}, which disables batching.
+     */
+    public int getAmqpTelemetryBatchMaxMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_037: [The function shall return the saved AMQP telemetry batch maximum number of messages.]
+        return this.amqpTelemetryBatchMaxMessages;
+    }
+
+    /**
+     * Setter for the largest number of AMQP telemetry messages packed in one
+     * batched transfer. Packing small messages together spends one link credit
+     * and one disposition on several messages.
+     *
+     * @param maxMessages the number of messages per transfer, 1 to send each message in its own transfer.
+     * @throws IllegalArgumentException if the provided number is smaller than 1.
+     */
+    public void setAmqpTelemetryBatchMaxMessages(int maxMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_038: [If the provided number is smaller than 1, the function shall throw IllegalArgumentException.]
+        if (maxMessages < 1)
+        {
+            throw new IllegalArgumentException("AMQP telemetry batch maximum number of messages cannot be smaller than 1");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_039: [The function shall save the AMQP telemetry batch maximum number of messages.]
+        this.amqpTelemetryBatchMaxMessages = maxMessages;
+    }
+
+    /**
+     * Getter for the largest estimated size of a batched AMQP telemetry
+     * transfer.
+     *
+     * @return the size in bytes. The default is {@link #DEFAULT_AMQP_TELEMETRY_BATCH_MAX_BYTES}.
+     */
+    public int getAmqpTelemetryBatchMaxBytes()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_040: [The function shall return the saved AMQP telemetry batch maximum size.]
+        return this.amqpTelemetryBatchMaxBytes;
+    }
+
+    /**
+     * Setter for the largest estimated size of a batched AMQP telemetry
+     * transfer. A message that does not fit in the current batch starts the
+     * next one.
+     *
+     * @param maxBytes the size in bytes.
+     * @throws IllegalArgumentException if the provided size is smaller than 1.
+     */
+    public void setAmqpTelemetryBatchMaxBytes(int maxBytes)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_041: [If the provided size is smaller than 1, the function shall throw IllegalArgumentException.]
+        if (maxBytes < 1)
+        {
+            throw new IllegalArgumentException("AMQP telemetry batch maximum size cannot be smaller than 1");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_042: [The function shall save the AMQP telemetry batch maximum size.]
+        this.amqpTelemetryBatchMaxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the time an incomplete AMQP telemetry batch waits for more
+     * messages before it is sent.
+     *
+     * @return the time in milliseconds. The default is 0, which sends each
+     * batch as soon as the queue is drained.
+     */
+    public long getAmqpTelemetryBatchLingerMillis()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_043: [The function shall return the saved AMQP telemetry batch linger time.]
+        return this.amqpTelemetryBatchLingerMillis;
+    }
+
+    /**
+     * Setter for the time an incomplete AMQP telemetry batch waits for more
+     * messages before it is sent. A longer time packs more messages per
+     * transfer at the cost of their latency.
+     *
+     * @param lingerMillis the time in milliseconds.
+     * @throws IllegalArgumentException if the provided time is negative.
+     */
+    public void setAmqpTelemetryBatchLingerMillis(long lingerMillis)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_45_044: [If the provided time is negative, the function shall throw IllegalArgumentException.]
+        if (lingerMillis < 0)
+        {
+            throw new IllegalArgumentException("AMQP telemetry batch linger time cannot be negative");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_45_045: [The function shall save the AMQP telemetry batch linger time.]
+        this.amqpTelemetryBatchLingerMillis = lingerMillis;
+    }
+
     @SuppressWarnings("unused")
     protected DeviceClientConfig()
     {
@@ -3,17 +3,27 @@
 
 package com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.transport.IotHubBatchEventCollector;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubDispatchTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExpirySweepTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundJournal;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -73,6 +83,9 @@ public final class DeviceIO
         OPEN, CLOSED
     }
 
+    /** The period of the removal of the messages that expired while waiting to be sent. */
+    private static final long EXPIRY_SWEEP_PERIOD_MILLIS = 100L;
+
     private long sendPeriodInMilliseconds;
     private long receivePeriodInMilliseconds;
 
@@ -81,10 +94,29 @@ public final class DeviceIO
     private DeviceClientConfig config;
     private IotHubSendTask sendTask = null;
     private IotHubReceiveTask receiveTask = null;
+    private IotHubSignalledTask sendSignal = null;
+    private IotHubSignalledTask receiveSignal = null;
     private IotHubClientProtocol protocol = null;
+    private boolean eventDrivenSend = false;
+    private boolean eventDrivenReceive = false;
+    private Executor callbackExecutor = null;
+    /* read without a lock by the sends, which append to the journal, if any, before adding to the transport */
+    private volatile IotHubOutboundJournal outboundJournal = null;
 
     private ScheduledExecutorService taskScheduler;
-    private IotHubClientState state;
+    /* the scheduler is only shut down on close if the client created it, a shared one only loses the tasks of the client */
+    private boolean isTaskSchedulerOwned = false;
+    /* runs the send and receive passes: the scheduler of the client, or the blocking executor of a client runtime */
+    private Executor drainExecutor;
+    /* with a client runtime, the periodic passes are signalled by timers on its scheduler and run on its blocking executor */
+    private IotHubSignalledTask periodicSendSignal = null;
+    private IotHubSignalledTask periodicReceiveSignal = null;
+    /* with a client runtime, the expiry sweep is run by the single sweep of the runtime */
+    private IotHubExpirySweepTask runtimeExpirySweep = null;
+    private ClientRuntime expirySweepRuntime = null;
+    private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+    /* read without a lock by the sends, so that a send blocked on a full outbound queue does not hold up the other calls on the client */
+    private volatile IotHubClientState state;
 
     /**
      * Constructor that takes a connection string as an argument.
@@ -139,6 +171,10 @@ public final class DeviceIO
                 this.config.setUseWebsocket(true);
                 this.transport = new MqttTransport(this.config);
                 break;
+            case MQTT_NIO:
+                this.config.setUseWebsocket(false);
+                this.transport = new MqttTransport(this.config, this.config.getMqttNioEngine());
+                break;
             default:
                 /* Codes_SRS_DEVICE_IO_21_005: [If the `protocol` is not valid, the constructor shall throw an IllegalArgumentException.] */
                 // should never happen.
@@ -171,9 +207,31 @@ public final class DeviceIO
             return;
         }
 
+        List<IotHubOutboundJournal.Record> journalRecords = this.openOutboundJournal();
+
         /* Codes_SRS_DEVICE_IO_21_012: [The open shall open the transport to communicate with an IoT Hub.] */
         /* Codes_SRS_DEVICE_IO_21_015: [If an error occurs in opening the transport, the open shall throw an IOException.] */
-        this.transport.open();
+        try
+        {
+            this.transport.open();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            /* Codes_SRS_DEVICE_IO_45_029: [If an error occurs in opening the transport, the open shall close the outbound journal.] */
+            this.closeOutboundJournal();
+            throw e;
+        }
+
+        if (journalRecords != null)
+        {
+            /* Codes_SRS_DEVICE_IO_45_030: [The open shall add the recovered journal records to the transport, with a callback that acknowledges them, before starting the tasks.] */
+            for (IotHubOutboundJournal.Record record : journalRecords)
+            {
+                Message message = record.getMessage();
+                message.setIotHubConnectionString(this.config.getIotHubConnectionString());
+                this.transport.addMessage(message, this.outboundJournal.newAcknowledgingCallback(record.getSequenceNumber(), null), null);
+            }
+        }
 
         /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
         /* Codes_SRS_DEVICE_IO_21_016: [The open shall set the `state` as `OPEN`.] */
@@ -206,24 +264,126 @@ public final class DeviceIO
         commonOpenSetup();
     }
 
+    /**
+     * Opens the outbound journal if a journal directory is configured.
+     *
+     * @return the records recovered from the journal, or {@code null} if there is no journal.
+     * @throws IOException if the journal cannot be opened.
+     */
+    private List<IotHubOutboundJournal.Record> openOutboundJournal() throws IOException
+    {
+        String directory = this.config.getOutboundJournalDirectory();
+        if (directory == null)
+        {
+            return null;
+        }
+
+        /* Codes_SRS_DEVICE_IO_45_027: [If a journal directory is configured, the open shall create and open an outbound journal in it, with the configured maximum size and full policy, before opening the transport.] */
+        /* Codes_SRS_DEVICE_IO_45_028: [If the outbound journal cannot be opened, the open shall throw the IOException without opening the transport.] */
+        IotHubOutboundJournal journal = new IotHubOutboundJournal(new File(directory),
+                this.config.getOutboundJournalMaxBytes(), this.config.getOutboundJournalFullPolicy());
+        List<IotHubOutboundJournal.Record> records = journal.open();
+        this.outboundJournal = journal;
+        return records;
+    }
+
+    private void closeOutboundJournal() throws IOException
+    {
+        if (this.outboundJournal != null)
+        {
+            IotHubOutboundJournal journal = this.outboundJournal;
+            this.outboundJournal = null;
+            journal.close();
+        }
+    }
+
     /**
      * Handles logic common to all open functions.
      */
     private void commonOpenSetup()
     {
+        if (this.callbackExecutor != null)
+        {
+            /* Codes_SRS_DEVICE_IO_45_021: [If a callback executor is set, the open shall register it with the transport before starting the tasks.] */
+            this.transport.registerCallbackExecutor(this.callbackExecutor);
+        }
+
         this.sendTask = new IotHubSendTask(this.transport);
         this.receiveTask = new IotHubReceiveTask(this.transport);
 
-        this.taskScheduler = Executors.newScheduledThreadPool(2);
-        // the scheduler waits until each execution is finished before
-        // scheduling the next one, so executions of a given task
-        // will never overlap.
-        /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
-                sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
-        /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
-                receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        ClientRuntime clientRuntime = this.config.getClientRuntime();
+        if (clientRuntime == null)
+        {
+            this.taskScheduler = Executors.newScheduledThreadPool(2);
+            this.isTaskSchedulerOwned = true;
+            this.drainExecutor = this.taskScheduler;
+        }
+        else
+        {
+            /* Codes_SRS_DEVICE_IO_45_035: [If a client runtime is configured, the open shall run the tasks on the scheduler of the runtime instead of creating a scheduler.] */
+            this.taskScheduler = clientRuntime.getScheduler();
+            this.isTaskSchedulerOwned = false;
+            // a pass can block on the network, so it never runs on the scheduler
+            // shared with the timers of the other clients.
+            /* Codes_SRS_DEVICE_IO_45_043: [If a client runtime is configured, the open shall only keep timers on the scheduler of the runtime, and run the send and receive passes on its blocking executor.] */
+            this.drainExecutor = clientRuntime.getBlockingExecutor();
+        }
+
+        if (this.eventDrivenSend)
+        {
+            // the signalled task coalesces signals and never runs
+            // concurrently with itself, so sends will never overlap.
+            /* Codes_SRS_DEVICE_IO_45_001: [If the event driven send is enabled, the open shall register a signalled send task with the transport instead of scheduling the send task.] */
+            /* Codes_SRS_DEVICE_IO_45_047: [If the event driven send is enabled, the signalled send task shall raise its delayed signals on the task scheduler.] */
+            this.sendSignal = new IotHubSignalledTask(this.sendTask, this.drainExecutor, this.taskScheduler);
+            this.transport.registerSendSignal(this.sendSignal);
+            /* Codes_SRS_DEVICE_IO_45_041: [If the event driven send is enabled, the open shall have the send task signal itself again while messages stay queued after a pass, first after sendPeriodInMilliseconds and then backing off.] */
+            this.sendTask.setRetrySignal(this.sendSignal, this.taskScheduler, this.sendPeriodInMilliseconds);
+            /* Codes_SRS_DEVICE_IO_45_002: [If the event driven send is enabled, the open shall signal the send task once to drain messages queued before the open.] */
+            this.sendSignal.signal();
+        }
+        else
+        {
+            /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
+            if (clientRuntime != null)
+            {
+                this.periodicSendSignal = new IotHubSignalledTask(this.sendTask, this.drainExecutor);
+            }
+            this.scheduledTasks.add(this.schedulePeriodicPass(this.sendTask, this.periodicSendSignal, this.sendPeriodInMilliseconds));
+        }
+        if (this.isReceiveSignalled())
+        {
+            /* Codes_SRS_DEVICE_IO_45_008: [If the event driven receive is enabled and the protocol is not HTTPS, the open shall register a signalled dispatch task with the transport instead of scheduling the receive task.] */
+            this.receiveSignal = new IotHubSignalledTask(new IotHubDispatchTask(this.transport), this.drainExecutor);
+            this.transport.registerReceiveSignal(this.receiveSignal);
+            /* Codes_SRS_DEVICE_IO_45_009: [If the event driven receive is enabled and the protocol is not HTTPS, the open shall signal the dispatch task once to handle messages received before the open.] */
+            this.receiveSignal.signal();
+        }
+        else
+        {
+            /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+            if (clientRuntime != null)
+            {
+                this.periodicReceiveSignal = new IotHubSignalledTask(this.receiveTask, this.drainExecutor);
+            }
+            this.scheduledTasks.add(this.schedulePeriodicPass(this.receiveTask, this.periodicReceiveSignal, this.receivePeriodInMilliseconds));
+        }
+
+        // the sweep only visits the expired messages, so it is cheap to run
+        // often whatever the length of the queue.
+        if (clientRuntime == null)
+        {
+            /* Codes_SRS_DEVICE_IO_45_034: [If no client runtime is configured, the open shall schedule an expiry sweep task to run every EXPIRY_SWEEP_PERIOD_MILLIS milliseconds, which removes the messages that expired while waiting to be sent.] */
+            this.scheduledTasks.add(this.taskScheduler.scheduleWithFixedDelay(new IotHubExpirySweepTask(this.transport),
+                    EXPIRY_SWEEP_PERIOD_MILLIS, EXPIRY_SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        else
+        {
+            /* Codes_SRS_DEVICE_IO_45_045: [If a client runtime is configured, the open shall add an expiry sweep task to the single sweep of the runtime instead of scheduling it.] */
+            this.runtimeExpirySweep = new IotHubExpirySweepTask(this.transport);
+            this.expirySweepRuntime = clientRuntime;
+            clientRuntime.addExpirySweep(this.runtimeExpirySweep);
+        }
 
         /* Codes_SRS_DEVICE_IO_21_016: [The open shall set the `state` as `OPEN`.] */
         this.state = IotHubClientState.OPEN;
@@ -247,11 +407,64 @@ public final class DeviceIO
 
         /* Codes_SRS_DEVICE_IO_21_017: [The close shall finish all ongoing tasks.] */
         /* Codes_SRS_DEVICE_IO_21_018: [The close shall cancel all recurring tasks.] */
-        this.taskScheduler.shutdown();
+        /* Codes_SRS_DEVICE_IO_45_003: [If a signalled send task exists, the close shall stop it and unregister it from the transport.] */
+        if (this.sendSignal != null)
+        {
+            this.sendSignal.stop();
+            this.transport.registerSendSignal(null);
+            this.sendSignal = null;
+        }
+        /* Codes_SRS_DEVICE_IO_45_010: [If a signalled dispatch task exists, the close shall stop it and unregister it from the transport.] */
+        if (this.receiveSignal != null)
+        {
+            this.receiveSignal.stop();
+            this.transport.registerReceiveSignal(null);
+            this.receiveSignal = null;
+        }
+        /* Codes_SRS_DEVICE_IO_45_044: [The close shall stop the signalled periodic passes, if any.] */
+        if (this.periodicSendSignal != null)
+        {
+            this.periodicSendSignal.stop();
+            this.periodicSendSignal = null;
+        }
+        if (this.periodicReceiveSignal != null)
+        {
+            this.periodicReceiveSignal.stop();
+            this.periodicReceiveSignal = null;
+        }
+        /* Codes_SRS_DEVICE_IO_45_046: [If the expiry sweep task was added to the sweep of a client runtime, the close shall remove it.] */
+        if (this.runtimeExpirySweep != null)
+        {
+            this.expirySweepRuntime.removeExpirySweep(this.runtimeExpirySweep);
+            this.runtimeExpirySweep = null;
+            this.expirySweepRuntime = null;
+        }
+        /* Codes_SRS_DEVICE_IO_45_036: [The close shall cancel the recurring tasks of the client, and shut down the scheduler only if it is not the scheduler of a client runtime.] */
+        for (ScheduledFuture<?> scheduledTask : this.scheduledTasks)
+        {
+            if (scheduledTask != null)
+            {
+                scheduledTask.cancel(false);
+            }
+        }
+        this.scheduledTasks.clear();
+        if (this.isTaskSchedulerOwned)
+        {
+            this.taskScheduler.shutdown();
+        }
 
         /* Codes_SRS_DEVICE_IO_21_019: [The close shall close the transport.] */
         this.transport.close();
 
+        if (this.callbackExecutor != null)
+        {
+            /* Codes_SRS_DEVICE_IO_45_022: [If a callback executor is set, the close shall unregister it from the transport after closing the transport.] */
+            this.transport.registerCallbackExecutor(null);
+        }
+
+        /* Codes_SRS_DEVICE_IO_45_031: [The close shall close the outbound journal, if any, after closing the transport.] */
+        this.closeOutboundJournal();
+
         /* Codes_SRS_DEVICE_IO_21_021: [The close shall set the `state` as `CLOSE`.] */
         this.state = IotHubClientState.CLOSED;
     }
@@ -283,7 +496,7 @@ public final class DeviceIO
      * @throws IllegalArgumentException if the message provided is {@code null}.
      * @throws IllegalStateException if the client has not been opened yet or is already closed.
      */
-    public synchronized void sendEventAsync(Message message,
+    public void sendEventAsync(Message message,
                                IotHubEventCallback callback,
                                Object callbackContext,
                                IotHubConnectionString iotHubConnectionString)
@@ -308,11 +521,44 @@ public final class DeviceIO
             message.setIotHubConnectionString(iotHubConnectionString);
         }
 
+        IotHubOutboundJournal journal = this.outboundJournal;
+        if ((journal != null) && isJournaled(message))
+        {
+            /* Codes_SRS_DEVICE_IO_45_032: [If there is an outbound journal and the message is telemetry, the sendEventAsync shall append the message to the journal and add it to the transport with a callback that acknowledges the record and then invokes the provided callback.] */
+            long sequenceNumber = this.appendToOutboundJournal(journal, message);
+            if (sequenceNumber != IotHubOutboundJournal.NOT_JOURNALED)
+            {
+                callback = journal.newAcknowledgingCallback(sequenceNumber, callback);
+            }
+        }
+
         logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
         /* Codes_SRS_DEVICE_IO_21_022: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
+        /* Codes_SRS_DEVICE_IO_45_048: [The sendEventAsync and sendEventBatchAsync shall add to the transport without holding a lock of the client, so that a send that waits for room in the outbound queue does not block other sends or calls on the client.] */
         transport.addMessage(message, callback, callbackContext);
     }
 
+    private static boolean isJournaled(Message message)
+    {
+        MessageType messageType = message.getMessageType();
+        return (messageType == null) || (messageType == MessageType.DEVICE_TELEMETRY);
+    }
+
+    private long appendToOutboundJournal(IotHubOutboundJournal journal, Message message)
+    {
+        try
+        {
+            return journal.append(message);
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            /* Codes_SRS_DEVICE_IO_45_033: [If the message cannot be appended to the outbound journal, including because the client is closing it, the sendEventAsync shall add it to the transport with the provided callback.] */
+            logger.LogError("Message with messageid %s could not be journaled, method name is %s ", message.getMessageId(), logger.getMethodName());
+            logger.LogError(e);
+            return IotHubOutboundJournal.NOT_JOURNALED;
+        }
+    }
+
     /**
      * Asynchronously sends an event message to the IoT Hub. Use IotHubResponseCallback if you
      * need the message payload received as a response for a sent message, together with the
@@ -327,8 +573,9 @@ public final class DeviceIO
      *
      * @throws IllegalArgumentException if the message provided is {@code null}.
      * @throws IllegalStateException if the client has not been opened yet or is already closed.
+     * @throws UnsupportedOperationException if the protocol does not support response callbacks.
      */
-    public synchronized void sendEventAsync(Message message,
+    public void sendEventAsync(Message message,
                                IotHubResponseCallback callback,
                                Object callbackContext,
                                IotHubConnectionString iotHubConnectionString)
@@ -352,9 +599,112 @@ public final class DeviceIO
             message.setIotHubConnectionString(iotHubConnectionString);
         }
 
+        IotHubOutboundJournal journal = this.outboundJournal;
+        long sequenceNumber = IotHubOutboundJournal.NOT_JOURNALED;
+        if ((journal != null) && isJournaled(message))
+        {
+            /* Codes_SRS_DEVICE_IO_45_049: [If there is an outbound journal and the message is telemetry, the sendEventAsync shall append the message to the journal as the sendEventAsync with an event callback does, and add it to the transport with a response callback that acknowledges the record and then invokes the provided callback.] */
+            sequenceNumber = this.appendToOutboundJournal(journal, message);
+            if (sequenceNumber != IotHubOutboundJournal.NOT_JOURNALED)
+            {
+                callback = journal.newAcknowledgingResponseCallback(sequenceNumber, callback);
+            }
+        }
+
         logger.LogInfo("Message with messageid %s along with callback and callbackContext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
-        /* Codes_SRS_DEVICE_IO_21_040: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
-        transport.addMessage(message, callback, callbackContext);
+        try
+        {
+            /* Codes_SRS_DEVICE_IO_21_040: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
+            /* Codes_SRS_DEVICE_IO_45_048: [The sendEventAsync and sendEventBatchAsync shall add to the transport without holding a lock of the client, so that a send that waits for room in the outbound queue does not block other sends or calls on the client.] */
+            transport.addMessage(message, callback, callbackContext);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            /* Codes_SRS_DEVICE_IO_45_050: [If the transport does not support response callbacks, the sendEventAsync shall acknowledge the record of the message, if any, so it is not sent again on the next open, and rethrow the exception.] */
+            if (sequenceNumber != IotHubOutboundJournal.NOT_JOURNALED)
+            {
+                journal.acknowledge(sequenceNumber);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronously sends a batch of event messages to the IoT Hub. The
+     * messages are queued as one unit and sent in the best wire form of the
+     * protocol, and the callback is invoked once, with the status of each
+     * message, when all of them have completed.
+     *
+     * @param messages the messages to be sent. Cannot be {@code null} or empty, or contain {@code null}.
+     * @param callback the callback to be invoked when all the messages have
+     * completed. Can be {@code null}.
+     * @param callbackContext a context to be passed to the callback. Can be
+     * {@code null} if no callback is provided.
+     * @param iotHubConnectionString the sender's connection string.
+     *
+     * @throws IllegalArgumentException if the list of messages is {@code null} or empty, or contains {@code null}.
+     * @throws IllegalStateException if the client has not been opened yet or is already closed.
+     */
+    public void sendEventBatchAsync(List<Message> messages,
+                                                 IotHubBatchEventCallback callback,
+                                                 Object callbackContext,
+                                                 IotHubConnectionString iotHubConnectionString)
+    {
+        /* Codes_SRS_DEVICE_IO_45_016: [If the client is closed, the sendEventBatchAsync shall throw an IllegalStateException.] */
+        if (this.state == IotHubClientState.CLOSED)
+        {
+            throw new IllegalStateException(
+                    "Cannot send event from "
+                            + "an IoT Hub client that is closed.");
+        }
+
+        /* Codes_SRS_DEVICE_IO_45_017: [If the list of messages is null or empty, or contains a null message, the sendEventBatchAsync shall throw an IllegalArgumentException.] */
+        if (messages == null || messages.isEmpty())
+        {
+            throw new IllegalArgumentException("Cannot send an empty batch of messages.");
+        }
+
+        for (Message message : messages)
+        {
+            if (message == null)
+            {
+                throw new IllegalArgumentException("Cannot send message 'null'.");
+            }
+        }
+
+        IotHubOutboundJournal journal = this.outboundJournal;
+
+        /* Codes_SRS_DEVICE_IO_45_018: [The sendEventBatchAsync shall create one outbound packet per message, in order, each with an event callback that collects its status and invokes the batch callback once all messages have completed.] */
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(messages.size(), callback, callbackContext);
+        List<IotHubOutboundPacket> packets = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++)
+        {
+            Message message = messages.get(i);
+
+            /* Codes_SRS_DEVICE_IO_45_019: [The sendEventBatchAsync shall set the connection string on each message if the iotHubConnectionString parameter is not null.] */
+            if (iotHubConnectionString != null)
+            {
+                message.setIotHubConnectionString(iotHubConnectionString);
+            }
+
+            IotHubEventCallback packetCallback = collector;
+            if ((journal != null) && isJournaled(message))
+            {
+                /* Codes_SRS_DEVICE_IO_45_042: [If there is an outbound journal, the sendEventBatchAsync shall append each telemetry message to the journal as the sendEventAsync does, with a callback that acknowledges the record and then collects the status of the message.] */
+                long sequenceNumber = this.appendToOutboundJournal(journal, message);
+                if (sequenceNumber != IotHubOutboundJournal.NOT_JOURNALED)
+                {
+                    packetCallback = journal.newAcknowledgingCallback(sequenceNumber, collector);
+                }
+            }
+
+            packets.add(new IotHubOutboundPacket(message, packetCallback, i));
+        }
+
+        logger.LogInfo("Batch of %d messages along with callback and callbackcontext is added to the queue, method name is %s ", messages.size(), logger.getMethodName());
+        /* Codes_SRS_DEVICE_IO_45_020: [The sendEventBatchAsync shall add the packets to the transport as one unit.] */
+        /* Codes_SRS_DEVICE_IO_45_048: [The sendEventAsync and sendEventBatchAsync shall add to the transport without holding a lock of the client, so that a send that waits for room in the outbound queue does not block other sends or calls on the client.] */
+        transport.addMessages(packets);
     }
 
     /**
@@ -387,7 +737,8 @@ public final class DeviceIO
         this.receivePeriodInMilliseconds = newIntervalInMilliseconds;
 
         /* Codes_SRS_DEVICE_IO_21_028: [If the task scheduler already exists, the setReceivePeriodInMilliseconds shall change the `scheduleAtFixedRate` for the receiveTask to the new value.] */
-        if(this.taskScheduler != null)
+        /* Codes_SRS_DEVICE_IO_45_011: [If the receive is signalled, the setReceivePeriodInMilliseconds shall only store the new value.] */
+        if((this.taskScheduler != null) && (this.receiveSignal == null))
         {
             /* Codes_SRS_DEVICE_IO_21_029: [If the `receiveTask` is null, the setReceivePeriodInMilliseconds shall throw IOException.] */
             if(this.receiveTask == null)
@@ -395,8 +746,7 @@ public final class DeviceIO
                 throw new IOException("transport receive task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
-                    this.receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+            this.scheduledTasks.add(this.schedulePeriodicPass(this.receiveTask, this.periodicReceiveSignal, this.receivePeriodInMilliseconds));
         }
     }
 
@@ -430,7 +780,8 @@ public final class DeviceIO
         this.sendPeriodInMilliseconds = newIntervalInMilliseconds;
 
         /* Codes_SRS_DEVICE_IO_21_034: [If the task scheduler already exists, the setSendPeriodInMilliseconds shall change the `scheduleAtFixedRate` for the sendTask to the new value.] */
-        if(this.taskScheduler != null)
+        /* Codes_SRS_DEVICE_IO_45_004: [If the event driven send is enabled, the setSendPeriodInMilliseconds shall only store the new value.] */
+        if((this.taskScheduler != null) && !this.eventDrivenSend)
         {
             /* Codes_SRS_DEVICE_IO_21_035: [If the `sendTask` is null, the setSendPeriodInMilliseconds shall throw IOException.] */
             if(this.sendTask == null)
@@ -438,9 +789,148 @@ public final class DeviceIO
                 throw new IOException("transport send task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
-                    this.sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
+            this.scheduledTasks.add(this.schedulePeriodicPass(this.sendTask, this.periodicSendSignal, this.sendPeriodInMilliseconds));
+        }
+    }
+
+    /**
+     * Getter for the send mode.
+     *
+     * @return {@code true} if messages are sent as soon as they are queued, or
+     * {@code false} if the send task runs every send period.
+     */
+    public boolean isEventDrivenSend()
+    {
+        /* Codes_SRS_DEVICE_IO_45_005: [The isEventDrivenSend shall return true if the event driven send is enabled, false otherwise.] */
+        return this.eventDrivenSend;
+    }
+
+    /**
+     * Setter for the send mode. When enabled, queuing a message wakes the send
+     * task, which sends everything queued and then stays idle until the next
+     * message or acknowledgement. When disabled, the send task runs every send
+     * period, which is the default.
+     *
+     * @param eventDrivenSend {@code true} to enable the event driven send.
+     * @throws IllegalStateException if the client is open.
+     */
+    public void setEventDrivenSend(boolean eventDrivenSend)
+    {
+        /* Codes_SRS_DEVICE_IO_45_006: [If the client is open, the setEventDrivenSend shall throw IllegalStateException.] */
+        if (this.state == IotHubClientState.OPEN)
+        {
+            throw new IllegalStateException("send mode can only be changed when the client is closed");
         }
+
+        /* Codes_SRS_DEVICE_IO_45_007: [The setEventDrivenSend shall store the new send mode.] */
+        this.eventDrivenSend = eventDrivenSend;
+    }
+
+    /**
+     * Getter for the receive mode.
+     *
+     * @return {@code true} if received messages are dispatched as soon as they
+     * arrive, or {@code false} if the receive task runs every receive period.
+     */
+    public boolean isEventDrivenReceive()
+    {
+        /* Codes_SRS_DEVICE_IO_45_012: [The isEventDrivenReceive shall return true if the event driven receive is enabled, false otherwise.] */
+        return this.eventDrivenReceive;
+    }
+
+    /**
+     * Setter for the receive mode. When enabled, a message pushed by the IoT Hub
+     * wakes the dispatch task, which hands every received message to its
+     * callback and then stays idle until the next message arrives. When
+     * disabled, the receive task handles one message every receive period, which
+     * is the default. HTTPS has no push channel, so it always uses the receive
+     * period.
+     *
+     * @param eventDrivenReceive {@code true} to enable the event driven receive.
+     * @throws IllegalStateException if the client is open.
+     */
+    public void setEventDrivenReceive(boolean eventDrivenReceive)
+    {
+        /* Codes_SRS_DEVICE_IO_45_013: [If the client is open, the setEventDrivenReceive shall throw IllegalStateException.] */
+        if (this.state == IotHubClientState.OPEN)
+        {
+            throw new IllegalStateException("receive mode can only be changed when the client is closed");
+        }
+
+        /* Codes_SRS_DEVICE_IO_45_014: [The setEventDrivenReceive shall store the new receive mode.] */
+        this.eventDrivenReceive = eventDrivenReceive;
+    }
+
+    /**
+     * Getter for the callback executor.
+     *
+     * @return the executor that runs the callbacks of sent messages, or
+     * {@code null} if they run on the send thread.
+     */
+    public Executor getCallbackExecutor()
+    {
+        /* Codes_SRS_DEVICE_IO_45_023: [The getCallbackExecutor shall return the saved callback executor.] */
+        return this.callbackExecutor;
+    }
+
+    /**
+     * Setter for the callback executor. When set, the callbacks of sent
+     * messages run on this executor instead of the send thread, so a slow
+     * callback does not delay the next sends. The callbacks of this client are
+     * still invoked one at a time and in order. The client does not shut the
+     * executor down. When {@code null}, which is the default, the callbacks
+     * run on the send thread.
+     *
+     * @param callbackExecutor the executor that runs the callbacks.
+     * @throws IllegalStateException if the client is open.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor)
+    {
+        /* Codes_SRS_DEVICE_IO_45_024: [If the client is open, the setCallbackExecutor shall throw IllegalStateException.] */
+        if (this.state == IotHubClientState.OPEN)
+        {
+            throw new IllegalStateException("callback executor can only be changed when the client is closed");
+        }
+
+        /* Codes_SRS_DEVICE_IO_45_025: [The setCallbackExecutor shall store the callback executor.] */
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    private boolean isReceiveSignalled()
+    {
+        return this.eventDrivenReceive && (this.protocol != IotHubClientProtocol.HTTPS);
+    }
+
+    /**
+     * Runs a send or receive pass every period. Without a signal, the pass
+     * runs on the scheduler itself; with one, the scheduler only raises the
+     * signal every period, and the pass runs on the executor of the signal.
+     *
+     * @param pass the pass to run.
+     * @param passSignal the signal that runs the pass. Can be {@code null}.
+     * @param periodInMilliseconds the period of the pass.
+     * @return the future of the recurring task.
+     */
+    private ScheduledFuture<?> schedulePeriodicPass(Runnable pass, final IotHubSignalledTask passSignal, long periodInMilliseconds)
+    {
+        if (passSignal == null)
+        {
+            // the scheduler waits until each execution is finished before
+            // scheduling the next one, so executions of a given task
+            // will never overlap.
+            return this.taskScheduler.scheduleAtFixedRate(pass, 0, periodInMilliseconds, TimeUnit.MILLISECONDS);
+        }
+
+        // the signalled task coalesces the ticks that arrive while a pass is
+        // running, so passes will never overlap either.
+        return this.taskScheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                passSignal.signal();
+            }
+        }, 0, periodInMilliseconds, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -475,6 +965,66 @@ public final class DeviceIO
         return this.transport.isEmpty();
     }
 
+    /**
+     * Getter for the outbound queue statistics of the transport.
+     * @return a snapshot of the queue of messages waiting to be sent.
+     */
+    public OutboundQueueStatistics getOutboundQueueStatistics()
+    {
+        /* Codes_SRS_DEVICE_IO_45_015: [The getOutboundQueueStatistics shall return the outbound queue statistics of the transport.] */
+        return this.transport.getOutboundQueueStatistics();
+    }
+
+    /**
+     * Getter for the callback queue statistics of the transport.
+     * @return a snapshot of the callbacks waiting to be invoked and of the callback lag.
+     */
+    public CallbackQueueStatistics getCallbackQueueStatistics()
+    {
+        /* Codes_SRS_DEVICE_IO_45_026: [The getCallbackQueueStatistics shall return the callback queue statistics of the transport.] */
+        return this.transport.getCallbackQueueStatistics();
+    }
+
+    /**
+     * Getter for the in flight window statistics of the transport.
+     * @return a snapshot of the window of messages waiting for their acknowledgement, or {@code null} if the transport has none.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        /* Codes_SRS_DEVICE_IO_45_037: [The getInFlightWindowStatistics shall return the in flight window statistics of the transport.] */
+        return this.transport.getInFlightWindowStatistics();
+    }
+
+    /**
+     * Getter for the reconnect statistics of the transport.
+     * @return a snapshot of the outages of the connection and of the attempts to restore it, or {@code null} if the transport has none.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        /* Codes_SRS_DEVICE_IO_45_038: [The getReconnectStatistics shall return the reconnect statistics of the transport.] */
+        return this.transport.getReconnectStatistics();
+    }
+
+    /**
+     * Getter for the send credit statistics of the transport.
+     * @return a snapshot of the credit granted to send messages and of the times the transport ran out of it, or {@code null} if the transport has none.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        /* Codes_SRS_DEVICE_IO_45_040: [The getSendCreditStatistics shall return the send credit statistics of the transport.] */
+        return this.transport.getSendCreditStatistics();
+    }
+
+    /**
+     * Getter for the number of device twin requests of the transport waiting for their response.
+     * @return the number of pending device twin requests.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        /* Codes_SRS_DEVICE_IO_45_039: [The getPendingTwinRequestCount shall return the number of pending device twin requests of the transport.] */
+        return this.transport.getPendingTwinRequestCount();
+    }
+
     /**
      * Registers a callback with the configured transport to be executed whenever the connection to the device is lost or established.
      *
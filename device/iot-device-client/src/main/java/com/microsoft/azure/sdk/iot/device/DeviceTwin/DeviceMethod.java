@@ -136,6 +136,14 @@ public final class DeviceMethod
                 deviceMethodStatusCallback.execute(responseStatus, deviceMethodStatusCallbackContext);
             }
 
+            if (callbackContext instanceof IotHubEventFuture)
+            {
+                /*
+                **Codes_SRS_DEVICEMETHOD_45_003: [**When the subscribe message completes, the future of the subscription shall be completed with its status.**]**
+                 */
+                ((IotHubEventFuture) callbackContext).execute(responseStatus, null);
+            }
+
         }
     }
 
@@ -188,6 +196,38 @@ public final class DeviceMethod
      * @throws IllegalArgumentException This exception is thrown when deviceMethodCallback is provided null.
      */
     public void subscribeToDeviceMethod(DeviceMethodCallback deviceMethodCallback, Object deviceMethodCallbackContext) throws IllegalArgumentException
+    {
+        this.subscribeToDeviceMethod(deviceMethodCallback, deviceMethodCallbackContext, null);
+    }
+
+    /**
+     * A method which subscribes to receive device method invocation for the user with the IotHub, returning
+     * a future that completes when the subscription is acknowledged.
+     * @param deviceMethodCallback Callback where upon receiving the request the
+     *                             invoke a method shall be triggered.
+     * @param deviceMethodCallbackContext Context to be passed on when invoking the
+     *                                    callback.
+     * @return the future of the subscription, already complete with OK_EMPTY if already subscribed.
+     * @throws IllegalArgumentException This exception is thrown when deviceMethodCallback is provided null.
+     */
+    public IotHubEventFuture subscribeToDeviceMethodAsync(DeviceMethodCallback deviceMethodCallback, Object deviceMethodCallbackContext) throws IllegalArgumentException
+    {
+        IotHubEventFuture future = new IotHubEventFuture();
+        if (!this.subscribeToDeviceMethod(deviceMethodCallback, deviceMethodCallbackContext, future))
+        {
+            /*
+            **Codes_SRS_DEVICEMETHOD_45_002: [**If already subscribed, the method shall return a future completed with OK_EMPTY.**]**
+             */
+            future.execute(IotHubStatusCode.OK_EMPTY, null);
+        }
+
+        /*
+        **Codes_SRS_DEVICEMETHOD_45_001: [**The method shall subscribe as subscribeToDeviceMethod does, passing the future as the context of the subscribe message callback, and return the future.**]**
+         */
+        return future;
+    }
+
+    private boolean subscribeToDeviceMethod(DeviceMethodCallback deviceMethodCallback, Object deviceMethodCallbackContext, IotHubEventFuture future) throws IllegalArgumentException
     {
         if (deviceMethodCallback == null)
         {
@@ -208,8 +248,10 @@ public final class DeviceMethod
              */
             IotHubTransportMessage subscribeMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_METHODS);
             subscribeMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST);
-            this.deviceIO.sendEventAsync(subscribeMessage, new deviceMethodRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+            this.deviceIO.sendEventAsync(subscribeMessage, new deviceMethodRequestMessageCallback(), future, this.config.getIotHubConnectionString());
+            return true;
         }
 
+        return false;
     }
 }
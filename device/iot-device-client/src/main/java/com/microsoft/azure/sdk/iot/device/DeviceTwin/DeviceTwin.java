@@ -12,8 +12,10 @@ import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import java.io.IOException;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubMessageResult.ABANDON;
@@ -47,6 +49,15 @@ public class DeviceTwin
     private ConcurrentSkipListMap<String, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChangeMap;
     private ConcurrentSkipListMap<String, Pair<TwinPropertyCallBack, Object>> onDesiredTwinPropertyChangeMap;
 
+    /*
+        Futures of the reported properties updates waiting for their response, by request id in the order
+        they were sent, and the request ids by the correlation id sent with each update, as the AMQP
+        responses only carry the correlation id. Guarded by DEVICE_TWIN_LOCK. The futures are always
+        completed after releasing the lock, as their listeners may call back into the twin.
+     */
+    private final Map<String, IotHubEventFuture> pendingReportedPropertiesFutures = new LinkedHashMap<>();
+    private final Map<String, String> pendingReportedPropertiesRequestIds = new LinkedHashMap<>();
+
     /*
         Callback invoked when a response to device twin operation is issued by iothub
      */
@@ -58,13 +69,14 @@ public class DeviceTwin
         @Override
         public IotHubMessageResult execute(Message message, Object callbackContext)
         {
+            IotHubEventFuture reportedPropertiesFuture = null;
+            IotHubStatusCode iotHubStatus = IotHubStatusCode.ERROR;
             synchronized (DEVICE_TWIN_LOCK)
             {
                 /*
                  **Codes_SRS_DEVICETWIN_25_028: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE and if the status is null then the user is notified on the status callback registered by the user as ERROR.**]**
                  **Codes_SRS_DEVICETWIN_25_031: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_GET_RESPONSE and if the status is null then the user is notified on the status callback registered by the user as ERROR.**]**
                  */
-                IotHubStatusCode iotHubStatus = IotHubStatusCode.ERROR;
                 if (message.getMessageType() != MessageType.DEVICE_TWIN)
                 {
                     System.out.print("Unexpected message type received");
@@ -117,6 +129,11 @@ public class DeviceTwin
                          */
                         deviceTwinStatusCallback.execute(iotHubStatus, deviceTwinStatusCallbackContext);
 
+                        /*
+                         **Codes_SRS_DEVICETWIN_45_004: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE then the future of the request with the request id or correlation id of the message is completed with the status, after releasing the lock of the twin.**]**
+                         **Codes_SRS_DEVICETWIN_45_007: [**If the request id and the correlation id of the message match no pending future, no future is completed.**]**
+                         */
+                        reportedPropertiesFuture = removePendingReportedPropertiesFuture(dtMessage);
                         break;
                     }
                     case DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_RESPONSE:
@@ -137,11 +154,36 @@ public class DeviceTwin
                     default:
                         break;
                 }
-                return COMPLETE;
             }
+
+            if (reportedPropertiesFuture != null)
+            {
+                reportedPropertiesFuture.execute(iotHubStatus, null);
+            }
+            return COMPLETE;
         }
     }
 
+    private IotHubEventFuture removePendingReportedPropertiesFuture(IotHubTransportMessage response)
+    {
+        String updateRequestId = response.getRequestId();
+        if ((updateRequestId == null || !this.pendingReportedPropertiesFutures.containsKey(updateRequestId))
+                && response.getCorrelationId() != null)
+        {
+            updateRequestId = this.pendingReportedPropertiesRequestIds.get(response.getCorrelationId());
+        }
+
+        // a response matching no pending update, e.g. one already completed on a failed delivery, is ignored.
+        return (updateRequestId == null) ? null : removePendingReportedPropertiesFuture(updateRequestId);
+    }
+
+    private IotHubEventFuture removePendingReportedPropertiesFuture(String updateRequestId)
+    {
+        IotHubEventFuture future = this.pendingReportedPropertiesFutures.remove(updateRequestId);
+        this.pendingReportedPropertiesRequestIds.values().remove(updateRequestId);
+        return future;
+    }
+
     private void OnDesiredPropertyChanged(TwinCollection desiredPropertyMap)
     {
         synchronized (DEVICE_TWIN_LOCK)
@@ -219,6 +261,7 @@ public class DeviceTwin
         @Override
         public void execute(IotHubStatusCode responseStatus, Object callbackContext)
         {
+            IotHubEventFuture reportedPropertiesFuture = null;
             synchronized (DEVICE_TWIN_LOCK)
             {
                 /*
@@ -228,8 +271,21 @@ public class DeviceTwin
                 if((responseStatus != IotHubStatusCode.OK) && (responseStatus != IotHubStatusCode.OK_EMPTY))
                 {
                     deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
+
+                    if (callbackContext != null)
+                    {
+                        /*
+                         **Codes_SRS_DEVICETWIN_45_005: [**If a reported properties update request fails to be delivered, the future of the request is completed with the delivery status, after releasing the lock of the twin.**]**
+                         */
+                        reportedPropertiesFuture = removePendingReportedPropertiesFuture(callbackContext.toString());
+                    }
                 }
             }
+
+            if (reportedPropertiesFuture != null)
+            {
+                reportedPropertiesFuture.execute(responseStatus, null);
+            }
         }
     }
 
@@ -299,7 +355,10 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_007: [**This method shall set the request id for the message by calling setRequestId .**]**
          */
-        getTwinRequestMessage.setRequestId(String.valueOf(requestId++));
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            getTwinRequestMessage.setRequestId(String.valueOf(requestId++));
+        }
 
         /*
          **Codes_SRS_DEVICETWIN_25_006: [**This method shall set the message type as DEVICE_OPERATION_TWIN_GET_REQUEST by calling setDeviceOperationType.**]**
@@ -318,6 +377,32 @@ public class DeviceTwin
     }
 
     public synchronized void updateReportedProperties(Set<Property> reportedProperties, Integer version) throws IOException
+    {
+        this.updateReportedProperties(reportedProperties, version, null);
+    }
+
+    /**
+     * Sends the reported properties, returning a future that completes with
+     * the status of the response of the IoT Hub to the update, or with the
+     * delivery status if the update could not be delivered. The status
+     * callback of the twin is invoked as for the other updates.
+     *
+     * @param reportedProperties the reported properties to send. Cannot be {@code null}.
+     * @param version the version of the reported properties. Can be {@code null}.
+     * @return the future of the update.
+     * @throws IOException if the reported properties cannot be sent.
+     */
+    public IotHubEventFuture updateReportedPropertiesAsync(Set<Property> reportedProperties, Integer version) throws IOException
+    {
+        /*
+         **Codes_SRS_DEVICETWIN_45_001: [**The method shall send the reported properties as updateReportedProperties does and return a new future for the update.**]**
+         */
+        IotHubEventFuture future = new IotHubEventFuture();
+        this.updateReportedProperties(reportedProperties, version, future);
+        return future;
+    }
+
+    private void updateReportedProperties(Set<Property> reportedProperties, Integer version, IotHubEventFuture future) throws IOException
     {
         if (reportedProperties == null)
         {
@@ -339,6 +424,13 @@ public class DeviceTwin
 
         if (serializedReportedProperties == null)
         {
+            if (future != null)
+            {
+                /*
+                 **Codes_SRS_DEVICETWIN_45_002: [**If there is nothing to send, the method shall complete the future with OK_EMPTY.**]**
+                 */
+                future.execute(IotHubStatusCode.OK_EMPTY, null);
+            }
             return;
         }
 
@@ -350,7 +442,12 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_014: [**This method shall set the request id for the message by calling setRequestId .**]**
          */
-        updateReportedPropertiesRequest.setRequestId(String.valueOf(requestId++));
+        String updateRequestId;
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            updateRequestId = String.valueOf(requestId++);
+        }
+        updateReportedPropertiesRequest.setRequestId(updateRequestId);
 
         if(version != null)
         {
@@ -368,8 +465,37 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_015: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
-        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+        if (future == null)
+        {
+            this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+            return;
+        }
 
+        /*
+         **Codes_SRS_DEVICETWIN_45_003: [**The method shall set a new correlation id on the message, save the future by request id and correlation id before sending, and pass the request id as the context of the delivery callback.**]**
+         */
+        String updateCorrelationId = UUID.randomUUID().toString();
+        updateReportedPropertiesRequest.setCorrelationId(updateCorrelationId);
+        synchronized (DEVICE_TWIN_LOCK)
+        {
+            this.pendingReportedPropertiesFutures.put(updateRequestId, future);
+            this.pendingReportedPropertiesRequestIds.put(updateCorrelationId, updateRequestId);
+        }
+        try
+        {
+            this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), updateRequestId, this.config.getIotHubConnectionString());
+        }
+        catch (RuntimeException e)
+        {
+            /*
+             **Codes_SRS_DEVICETWIN_45_006: [**If sendEventAsync throws, the method shall forget the future and rethrow the exception.**]**
+             */
+            synchronized (DEVICE_TWIN_LOCK)
+            {
+                removePendingReportedPropertiesFuture(updateRequestId);
+            }
+            throw e;
+        }
     }
 
     public void subscribeDesiredPropertiesNotification(Map<Property, Pair<PropertyCallBack<String, Object>, Object>> onDesiredPropertyChange)
@@ -0,0 +1,94 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * A snapshot of the window of messages sent to an IoT Hub and waiting for
+ * their acknowledgement on one connection, with the measured round trip.
+ */
+public final class InFlightWindowStatistics
+{
+    private final int windowSize;
+    private final int maxWindowSize;
+    private final int inFlightCount;
+    private final long smoothedRoundTripMicros;
+    private final long minRoundTripMicros;
+
+    /**
+     * Constructor.
+     *
+     * @param windowSize the number of messages allowed in flight.
+     * @param maxWindowSize the number of messages the window can grow to.
+     * @param inFlightCount the number of messages in flight.
+     * @param smoothedRoundTripMicros the smoothed round trip, in microseconds, or 0 if none was measured.
+     * @param minRoundTripMicros the fastest round trip, in microseconds, or 0 if none was measured.
+     */
+    public InFlightWindowStatistics(int windowSize, int maxWindowSize, int inFlightCount,
+                                    long smoothedRoundTripMicros, long minRoundTripMicros)
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.windowSize = windowSize;
+        this.maxWindowSize = maxWindowSize;
+        this.inFlightCount = inFlightCount;
+        this.smoothedRoundTripMicros = smoothedRoundTripMicros;
+        this.minRoundTripMicros = minRoundTripMicros;
+    }
+
+    /**
+     * Getter for the current size of the window.
+     *
+     * @return the number of messages allowed in flight.
+     */
+    public int getWindowSize()
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_002: [The function shall return the saved window size.]
+        return this.windowSize;
+    }
+
+    /**
+     * Getter for the maximum size of the window.
+     *
+     * @return the number of messages the window can grow to.
+     */
+    public int getMaxWindowSize()
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_003: [The function shall return the saved maximum window size.]
+        return this.maxWindowSize;
+    }
+
+    /**
+     * Getter for the number of messages in flight.
+     *
+     * @return the number of messages sent and waiting for their acknowledgement.
+     */
+    public int getInFlightCount()
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_004: [The function shall return the saved in flight count.]
+        return this.inFlightCount;
+    }
+
+    /**
+     * Getter for the smoothed round trip between sending a message and
+     * receiving its acknowledgement.
+     *
+     * @return the smoothed round trip in microseconds, or 0 if none was measured.
+     */
+    public long getSmoothedRoundTripMicros()
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_005: [The function shall return the saved smoothed round trip.]
+        return this.smoothedRoundTripMicros;
+    }
+
+    /**
+     * Getter for the fastest round trip between sending a message and
+     * receiving its acknowledgement.
+     *
+     * @return the fastest round trip in microseconds, or 0 if none was measured.
+     */
+    public long getMinRoundTripMicros()
+    {
+        // Codes_SRS_INFLIGHTWINDOWSTATISTICS_45_006: [The function shall return the saved minimum round trip.]
+        return this.minRoundTripMicros;
+    }
+}
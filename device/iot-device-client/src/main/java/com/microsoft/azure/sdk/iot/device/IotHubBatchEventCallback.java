@@ -0,0 +1,27 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.List;
+
+/**
+ * An interface for an IoT Hub batch event callback.
+ *
+ * Developers are expected to create an implementation of this interface,
+ * and the transport will call {@link IotHubBatchEventCallback#execute(List, Object)}
+ * once, after every message of a batch sent with
+ * {@link DeviceClient#sendEventBatchAsync(List, IotHubBatchEventCallback, Object)}
+ * has completed.
+ */
+public interface IotHubBatchEventCallback
+{
+    /**
+     * Executes the callback.
+     *
+     * @param responseStatuses the response status code of each message, in the
+     * order of the messages in the batch.
+     * @param callbackContext a custom context given by the developer.
+     */
+    void execute(List<IotHubStatusCode> responseStatuses, Object callbackContext);
+}
@@ -5,9 +5,12 @@ package com.microsoft.azure.sdk.iot.device;
 
 /**
  * The application-layer protocol used by the client to communicate with an IoT
- * Hub.
+ * Hub. MQTT_NIO speaks MQTT on the selector threads of an
+ * {@link com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine}
+ * shared by many clients, and only carries the telemetry and cloud to device
+ * messages.
  */
 public enum IotHubClientProtocol
 {
-    HTTPS, AMQPS, MQTT, AMQPS_WS, MQTT_WS
+    HTTPS, AMQPS, MQTT, AMQPS_WS, MQTT_WS, MQTT_NIO
 }
@@ -0,0 +1,205 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending status of an operation sent to the IoT Hub. The future is itself
+ * the event callback of the operation, so it is completed directly by the
+ * transport when the operation completes, without a callback of its own.
+ *
+ * The future completes once: the first status wins and later ones are
+ * ignored. An operation cannot be taken back once queued, so the future cannot
+ * be cancelled.
+ */
+public final class IotHubEventFuture implements Future<IotHubStatusCode>, IotHubEventCallback
+{
+    private final Object lock = new Object();
+    private IotHubStatusCode status;
+    private List<Listener> listeners;
+
+    private static final class Listener
+    {
+        private final IotHubEventCallback callback;
+        private final Object callbackContext;
+
+        private Listener(IotHubEventCallback callback, Object callbackContext)
+        {
+            this.callback = callback;
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    /**
+     * Completes the future with the status of the operation. Invoked by the
+     * transport; completing an already completed future does nothing.
+     *
+     * @param responseStatus the status of the operation. Cannot be {@code null}.
+     * @param callbackContext ignored.
+     * @throws IllegalArgumentException if the status is {@code null}.
+     */
+    @Override
+    public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+    {
+        if (responseStatus == null)
+        {
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_001: [If the status is null, the function shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("Status cannot be null.");
+        }
+
+        List<Listener> listenersToInvoke;
+        synchronized (this.lock)
+        {
+            if (this.status != null)
+            {
+                // Codes_SRS_IOTHUBEVENTFUTURE_45_002: [If the future is already complete, the function shall do nothing.]
+                return;
+            }
+
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_003: [The function shall save the status and wake up all the threads waiting for it.]
+            this.status = responseStatus;
+            this.lock.notifyAll();
+            listenersToInvoke = this.listeners;
+            this.listeners = null;
+        }
+
+        if (listenersToInvoke != null)
+        {
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_004: [The function shall invoke the listeners in the order they were added, with the status and their context, outside of the lock of the future.]
+            for (Listener listener : listenersToInvoke)
+            {
+                listener.callback.execute(responseStatus, listener.callbackContext);
+            }
+        }
+    }
+
+    /**
+     * Adds a callback to be invoked with the status when the future completes.
+     * If the future is already complete, the callback is invoked right away on
+     * the calling thread; otherwise it is invoked on the thread that completes
+     * the future.
+     *
+     * @param callback the callback to be invoked. Cannot be {@code null}.
+     * @param callbackContext a context to be passed to the callback. Can be {@code null}.
+     * @return itself, for fluent setting.
+     * @throws IllegalArgumentException if the callback is {@code null}.
+     */
+    public IotHubEventFuture addListener(IotHubEventCallback callback, Object callbackContext)
+    {
+        if (callback == null)
+        {
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_005: [If the callback is null, the function shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("Callback cannot be null.");
+        }
+
+        IotHubStatusCode completedStatus;
+        synchronized (this.lock)
+        {
+            completedStatus = this.status;
+            if (completedStatus == null)
+            {
+                // Codes_SRS_IOTHUBEVENTFUTURE_45_006: [If the future is not complete, the function shall save the callback and context to be invoked on completion.]
+                if (this.listeners == null)
+                {
+                    this.listeners = new ArrayList<>(1);
+                }
+                this.listeners.add(new Listener(callback, callbackContext));
+            }
+        }
+
+        if (completedStatus != null)
+        {
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_007: [If the future is already complete, the function shall invoke the callback with the status and the context.]
+            callback.execute(completedStatus, callbackContext);
+        }
+
+        return this;
+    }
+
+    /**
+     * Waits for the operation to complete.
+     *
+     * @return the status of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    @Override
+    public IotHubStatusCode get() throws InterruptedException
+    {
+        // Codes_SRS_IOTHUBEVENTFUTURE_45_008: [The function shall wait until the future is complete and return the status.]
+        synchronized (this.lock)
+        {
+            while (this.status == null)
+            {
+                this.lock.wait();
+            }
+            return this.status;
+        }
+    }
+
+    /**
+     * Waits at most the given time for the operation to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the status of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws TimeoutException if the operation did not complete in time.
+     */
+    @Override
+    public IotHubStatusCode get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException
+    {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.lock)
+        {
+            while (this.status == null)
+            {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0)
+                {
+                    // Codes_SRS_IOTHUBEVENTFUTURE_45_010: [If the future does not complete before the timeout, the function shall throw TimeoutException.]
+                    throw new TimeoutException("Operation did not complete in " + timeout + " " + unit);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.lock, remainingNanos);
+            }
+
+            // Codes_SRS_IOTHUBEVENTFUTURE_45_009: [The function shall wait until the future is complete or the timeout elapses, and return the status.]
+            return this.status;
+        }
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        // Codes_SRS_IOTHUBEVENTFUTURE_45_011: [The function shall return true if the future is complete, and false otherwise.]
+        synchronized (this.lock)
+        {
+            return this.status != null;
+        }
+    }
+
+    /**
+     * Does nothing, as an operation cannot be taken back once queued.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return {@code false}.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        // Codes_SRS_IOTHUBEVENTFUTURE_45_012: [The function shall return false and leave the future unchanged.]
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        // Codes_SRS_IOTHUBEVENTFUTURE_45_013: [The function shall return false.]
+        return false;
+    }
+}
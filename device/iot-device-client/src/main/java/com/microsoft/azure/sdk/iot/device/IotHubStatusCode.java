@@ -11,7 +11,8 @@ public enum IotHubStatusCode
     OK, OK_EMPTY, BAD_FORMAT, UNAUTHORIZED, TOO_MANY_DEVICES,
     HUB_OR_DEVICE_ID_NOT_FOUND,
     PRECONDITION_FAILED, REQUEST_ENTITY_TOO_LARGE, THROTTLED,
-    INTERNAL_SERVER_ERROR, SERVER_BUSY, ERROR, MESSAGE_EXPIRED,MESSAGE_CANCELLED_ONCLOSE;
+    INTERNAL_SERVER_ERROR, SERVER_BUSY, ERROR, MESSAGE_EXPIRED,MESSAGE_CANCELLED_ONCLOSE,
+    MESSAGE_CANCELLED_QUEUE_FULL;
 
     /**
      * Returns the IoT Hub status code referenced by the HTTPS status code.
@@ -47,6 +48,10 @@ public enum IotHubStatusCode
             case 404:
                 iotHubStatus = HUB_OR_DEVICE_ID_NOT_FOUND;
                 break;
+            case 408:
+                // Codes_SRS_IOTHUBSTATUSCODE_45_001: [The function shall convert the HTTPS status code 408 (request timeout) to MESSAGE_EXPIRED.]
+                iotHubStatus = MESSAGE_EXPIRED;
+                break;
             case 412:
                 iotHubStatus = PRECONDITION_FAILED;
                 break;
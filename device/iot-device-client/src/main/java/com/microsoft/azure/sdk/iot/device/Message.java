@@ -153,7 +153,11 @@ public class Message
     }
 
     /**
-     * Constructor.
+     * Constructor. The message takes ownership of the body: it keeps the
+     * array itself, without copying it, and the transports send it as is,
+     * possibly more than once if the message is retried. Once the message is
+     * passed to the client to be sent, the array must not be modified until
+     * the callback of the message is invoked.
      * @param body The body of the new Message instance.
      */
     public Message(byte[] body)
@@ -213,6 +217,21 @@ public class Message
         return bodyClone;
     }
 
+    /**
+     * Gets the message body without copying it, for the transports that send
+     * the body of a message they own. The returned array is the body of the
+     * message itself, so it must not be modified. The transports may keep it
+     * until the delivery of the message completes, which is why the body
+     * passed to {@link #Message(byte[])} must not be modified in the meantime.
+     *
+     * @return the message body, or {@code null} if the message has no body.
+     */
+    public byte[] getBytesNoCopy()
+    {
+        // Codes_SRS_MESSAGE_45_002: [The function shall return the message body itself, without copying it.]
+        return this.body;
+    }
+
     /**
      * Gets the values of user-defined properties of this Message.
      * @param name Name of the user-defined property to search for.
@@ -377,6 +396,16 @@ public class Message
         this.correlationId = correlationId;
     }
 
+    /**
+     * Getter for the expiryTime property
+     * @return The absolute expiry time, in milliseconds since the epoch, or 0 if the message never expires.
+     */
+    public long getExpiryTime()
+    {
+        // Codes_SRS_MESSAGE_45_001: [The function shall return the message's absolute expiry time, or 0 if it is not set.]
+        return this.expiryTime;
+    }
+
     /**
      * Setter for the expiryTime property. This setter uses relative time, not absolute time.
      * @param timeOut The time out for the message, in milliseconds, from the current time.
@@ -0,0 +1,35 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * What the client does with a new message when its outbound queue is full.
+ */
+public enum OutboundQueueFullPolicy
+{
+    /**
+     * Block the caller until there is room in the queue. If there is still no
+     * room when the block timeout expires, the message is rejected.
+     */
+    BLOCK,
+
+    /**
+     * Reject the message. Its callback is invoked with
+     * {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.
+     */
+    REJECT,
+
+    /**
+     * Discard the oldest queued messages to make room for the new one. The
+     * callbacks of the discarded messages are invoked with
+     * {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new message. Its callback is invoked with
+     * {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.
+     */
+    DROP_NEWEST
+}
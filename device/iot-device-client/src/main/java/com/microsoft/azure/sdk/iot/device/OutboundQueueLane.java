@@ -0,0 +1,22 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * The lanes of the queue of messages waiting to be sent. The transport always
+ * takes every message from the {@link #CONTROL} lane before it takes a message
+ * from the {@link #TELEMETRY} lane. Messages keep their order within a lane.
+ */
+public enum OutboundQueueLane
+{
+    /**
+     * Device twin and device method messages.
+     */
+    CONTROL,
+
+    /**
+     * All the other messages, including telemetry.
+     */
+    TELEMETRY
+}
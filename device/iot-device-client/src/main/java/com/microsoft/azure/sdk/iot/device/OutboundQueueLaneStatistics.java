@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * A snapshot of the state of one lane of the queue of messages waiting to be
+ * sent, with the time its messages spent in the queue before the transport
+ * took them to be sent.
+ */
+public final class OutboundQueueLaneStatistics
+{
+    private final int queuedMessageCount;
+    private final long dequeuedMessageCount;
+    private final long averageQueueTimeMillis;
+    private final long maxQueueTimeMillis;
+    private final long oldestMessageAgeMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param queuedMessageCount the number of messages in the lane.
+     * @param dequeuedMessageCount the number of messages the transport took from the lane.
+     * @param averageQueueTimeMillis the average time, in milliseconds, that the dequeued messages spent in the lane.
+     * @param maxQueueTimeMillis the longest time, in milliseconds, that a dequeued message spent in the lane.
+     * @param oldestMessageAgeMillis the time, in milliseconds, that the oldest message in the lane has been waiting, or 0 if the lane is empty.
+     */
+    public OutboundQueueLaneStatistics(int queuedMessageCount, long dequeuedMessageCount,
+                                       long averageQueueTimeMillis, long maxQueueTimeMillis,
+                                       long oldestMessageAgeMillis)
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.queuedMessageCount = queuedMessageCount;
+        this.dequeuedMessageCount = dequeuedMessageCount;
+        this.averageQueueTimeMillis = averageQueueTimeMillis;
+        this.maxQueueTimeMillis = maxQueueTimeMillis;
+        this.oldestMessageAgeMillis = oldestMessageAgeMillis;
+    }
+
+    /**
+     * Getter for the lane depth.
+     *
+     * @return the number of messages in the lane.
+     */
+    public int getQueuedMessageCount()
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_002: [The function shall return the saved queued message count.]
+        return this.queuedMessageCount;
+    }
+
+    /**
+     * Getter for the number of messages the transport took from the lane.
+     *
+     * @return the number of dequeued messages.
+     */
+    public long getDequeuedMessageCount()
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_003: [The function shall return the saved dequeued message count.]
+        return this.dequeuedMessageCount;
+    }
+
+    /**
+     * Getter for the average queueing latency of the lane.
+     *
+     * @return the average time, in milliseconds, that the dequeued messages spent in the lane.
+     */
+    public long getAverageQueueTimeMillis()
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_004: [The function shall return the saved average queue time.]
+        return this.averageQueueTimeMillis;
+    }
+
+    /**
+     * Getter for the worst queueing latency of the lane.
+     *
+     * @return the longest time, in milliseconds, that a dequeued message spent in the lane.
+     */
+    public long getMaxQueueTimeMillis()
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_005: [The function shall return the saved maximum queue time.]
+        return this.maxQueueTimeMillis;
+    }
+
+    /**
+     * Getter for the age of the oldest message still in the lane.
+     *
+     * @return the time, in milliseconds, that the oldest message in the lane
+     * has been waiting, or 0 if the lane is empty.
+     */
+    public long getOldestMessageAgeMillis()
+    {
+        // Codes_SRS_OUTBOUNDQUEUELANESTATISTICS_45_006: [The function shall return the saved oldest message age.]
+        return this.oldestMessageAgeMillis;
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the state of the queue of messages waiting to be sent to an
+ * IoT Hub.
+ */
+public final class OutboundQueueStatistics
+{
+    private final int queuedMessageCount;
+    private final long queuedBytes;
+    private final long droppedMessageCount;
+    private final long rejectedMessageCount;
+    private final Map<OutboundQueueLane, OutboundQueueLaneStatistics> laneStatistics;
+
+    /**
+     * Constructor.
+     *
+     * @param queuedMessageCount the number of messages in the queue.
+     * @param queuedBytes the total body size, in bytes, of the messages in the queue.
+     * @param droppedMessageCount the number of messages discarded because the queue was full.
+     * @param rejectedMessageCount the number of messages rejected because the queue was full.
+     * @param laneStatistics the statistics of each lane of the queue. Can be {@code null} if there are none.
+     */
+    public OutboundQueueStatistics(int queuedMessageCount, long queuedBytes, long droppedMessageCount, long rejectedMessageCount,
+                                   Map<OutboundQueueLane, OutboundQueueLaneStatistics> laneStatistics)
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.queuedMessageCount = queuedMessageCount;
+        this.queuedBytes = queuedBytes;
+        this.droppedMessageCount = droppedMessageCount;
+        this.rejectedMessageCount = rejectedMessageCount;
+
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_006: [The constructor shall save a copy of the lane statistics, so later changes to the provided map are not visible.]
+        Map<OutboundQueueLane, OutboundQueueLaneStatistics> lanes = new EnumMap<>(OutboundQueueLane.class);
+        if (laneStatistics != null)
+        {
+            lanes.putAll(laneStatistics);
+        }
+        this.laneStatistics = Collections.unmodifiableMap(lanes);
+    }
+
+    /**
+     * Getter for the queue depth.
+     *
+     * @return the number of messages in the queue.
+     */
+    public int getQueuedMessageCount()
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_002: [The function shall return the saved queued message count.]
+        return this.queuedMessageCount;
+    }
+
+    /**
+     * Getter for the queue size in bytes.
+     *
+     * @return the total body size, in bytes, of the messages in the queue.
+     */
+    public long getQueuedBytes()
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_003: [The function shall return the saved queued bytes.]
+        return this.queuedBytes;
+    }
+
+    /**
+     * Getter for the number of dropped messages.
+     *
+     * @return the number of messages discarded by the {@link OutboundQueueFullPolicy#DROP_OLDEST}
+     * or {@link OutboundQueueFullPolicy#DROP_NEWEST} policies.
+     */
+    public long getDroppedMessageCount()
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_004: [The function shall return the saved dropped message count.]
+        return this.droppedMessageCount;
+    }
+
+    /**
+     * Getter for the number of rejected messages.
+     *
+     * @return the number of messages rejected by the {@link OutboundQueueFullPolicy#REJECT}
+     * or {@link OutboundQueueFullPolicy#BLOCK} policies.
+     */
+    public long getRejectedMessageCount()
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_005: [The function shall return the saved rejected message count.]
+        return this.rejectedMessageCount;
+    }
+
+    /**
+     * Getter for the statistics of one lane of the queue.
+     *
+     * @param lane the lane.
+     * @return the statistics of the lane, or {@code null} if there are none.
+     */
+    public OutboundQueueLaneStatistics getLaneStatistics(OutboundQueueLane lane)
+    {
+        // Codes_SRS_OUTBOUNDQUEUESTATISTICS_45_007: [The function shall return the saved statistics of the provided lane, or null if there are none.]
+        return this.laneStatistics.get(lane);
+    }
+}
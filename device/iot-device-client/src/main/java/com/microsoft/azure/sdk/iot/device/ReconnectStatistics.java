@@ -0,0 +1,107 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * A snapshot of the reconnections of one connection to an IoT Hub: how many
+ * times the connection was lost, how many attempts were made to restore it,
+ * and how long it stayed down.
+ */
+public final class ReconnectStatistics
+{
+    private final boolean isReconnecting;
+    private final long outageCount;
+    private final long reconnectAttemptCount;
+    private final long currentOutageMillis;
+    private final long lastOutageMillis;
+    private final long totalOutageMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param isReconnecting {@code true} if the connection is lost and being restored.
+     * @param outageCount the number of times the connection was lost.
+     * @param reconnectAttemptCount the number of attempts made to restore the connection.
+     * @param currentOutageMillis the time the connection has been down, in milliseconds, or 0 if it is up.
+     * @param lastOutageMillis the time the connection stayed down the last time it was restored, in milliseconds, or 0 if it never was.
+     * @param totalOutageMillis the time the connection stayed down in all, in milliseconds, including the current outage.
+     */
+    public ReconnectStatistics(boolean isReconnecting, long outageCount, long reconnectAttemptCount,
+                               long currentOutageMillis, long lastOutageMillis, long totalOutageMillis)
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.isReconnecting = isReconnecting;
+        this.outageCount = outageCount;
+        this.reconnectAttemptCount = reconnectAttemptCount;
+        this.currentOutageMillis = currentOutageMillis;
+        this.lastOutageMillis = lastOutageMillis;
+        this.totalOutageMillis = totalOutageMillis;
+    }
+
+    /**
+     * Getter for the state of the connection.
+     *
+     * @return {@code true} if the connection is lost and being restored.
+     */
+    public boolean isReconnecting()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_002: [The function shall return the saved reconnecting state.]
+        return this.isReconnecting;
+    }
+
+    /**
+     * Getter for the number of outages.
+     *
+     * @return the number of times the connection was lost.
+     */
+    public long getOutageCount()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_003: [The function shall return the saved outage count.]
+        return this.outageCount;
+    }
+
+    /**
+     * Getter for the number of reconnection attempts.
+     *
+     * @return the number of attempts made to restore the connection, successful or not.
+     */
+    public long getReconnectAttemptCount()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_004: [The function shall return the saved reconnect attempt count.]
+        return this.reconnectAttemptCount;
+    }
+
+    /**
+     * Getter for the duration of the current outage.
+     *
+     * @return the time the connection has been down, in milliseconds, or 0 if it is up.
+     */
+    public long getCurrentOutageMillis()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_005: [The function shall return the saved current outage duration.]
+        return this.currentOutageMillis;
+    }
+
+    /**
+     * Getter for the duration of the last outage that ended.
+     *
+     * @return the time the connection stayed down the last time it was restored, in milliseconds, or 0 if it never was.
+     */
+    public long getLastOutageMillis()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_006: [The function shall return the saved last outage duration.]
+        return this.lastOutageMillis;
+    }
+
+    /**
+     * Getter for the total duration of the outages.
+     *
+     * @return the time the connection stayed down in all, in milliseconds, including the current outage.
+     */
+    public long getTotalOutageMillis()
+    {
+        // Codes_SRS_RECONNECTSTATISTICS_45_007: [The function shall return the saved total outage duration.]
+        return this.totalOutageMillis;
+    }
+}
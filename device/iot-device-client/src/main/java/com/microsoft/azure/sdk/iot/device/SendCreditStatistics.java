@@ -0,0 +1,94 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * A snapshot of the credit the IoT Hub granted to send messages on the links
+ * of one connection, and of the times the links ran out of it. While a link
+ * has no credit, its messages wait in the outbound queue instead of being
+ * sent.
+ */
+public final class SendCreditStatistics
+{
+    private final boolean isCreditStarved;
+    private final long availableCredit;
+    private final int starvedLinkCount;
+    private final long starvationCount;
+    private final long deferredSendCount;
+
+    /**
+     * Constructor.
+     *
+     * @param isCreditStarved {@code true} if a link has messages to send and no credit.
+     * @param availableCredit the number of messages the links can send before they need more credit.
+     * @param starvedLinkCount the number of links with messages to send and no credit.
+     * @param starvationCount the number of times a link ran out of credit with messages to send.
+     * @param deferredSendCount the number of messages held back because their link had no credit, each counted once.
+     */
+    public SendCreditStatistics(boolean isCreditStarved, long availableCredit, int starvedLinkCount,
+                                long starvationCount, long deferredSendCount)
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_001: [The constructor shall save the provided values.]
+        this.isCreditStarved = isCreditStarved;
+        this.availableCredit = availableCredit;
+        this.starvedLinkCount = starvedLinkCount;
+        this.starvationCount = starvationCount;
+        this.deferredSendCount = deferredSendCount;
+    }
+
+    /**
+     * Getter for the starvation state.
+     *
+     * @return {@code true} if a link has messages to send and no credit.
+     */
+    public boolean isCreditStarved()
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_002: [The function shall return the saved starvation state.]
+        return this.isCreditStarved;
+    }
+
+    /**
+     * Getter for the credit left on all the links.
+     *
+     * @return the number of messages the links can send before they need more credit.
+     */
+    public long getAvailableCredit()
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_003: [The function shall return the saved available credit.]
+        return this.availableCredit;
+    }
+
+    /**
+     * Getter for the number of starved links.
+     *
+     * @return the number of links with messages to send and no credit.
+     */
+    public int getStarvedLinkCount()
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_004: [The function shall return the saved starved link count.]
+        return this.starvedLinkCount;
+    }
+
+    /**
+     * Getter for the number of starvations.
+     *
+     * @return the number of times a link ran out of credit with messages to send.
+     */
+    public long getStarvationCount()
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_005: [The function shall return the saved starvation count.]
+        return this.starvationCount;
+    }
+
+    /**
+     * Getter for the number of deferred sends.
+     *
+     * @return the number of messages held back because their link had no credit, each counted once.
+     */
+    public long getDeferredSendCount()
+    {
+        // Codes_SRS_SENDCREDITSTATISTICS_45_006: [The function shall return the saved deferred send count.]
+        return this.deferredSendCount;
+    }
+}
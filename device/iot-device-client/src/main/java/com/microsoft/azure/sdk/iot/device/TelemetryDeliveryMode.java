@@ -0,0 +1,27 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * How the MQTT transport delivers the telemetry messages of the client.
+ * Device twin and device method messages are always delivered at least once.
+ */
+public enum TelemetryDeliveryMode
+{
+    /**
+     * Publish each message at QoS 1. The callback of the message is invoked
+     * once the IoT Hub acknowledges it, and the messages waiting for their
+     * acknowledgement are bounded by the in flight window.
+     */
+    AT_LEAST_ONCE,
+
+    /**
+     * Publish each message at QoS 0, without waiting for an acknowledgement
+     * and outside of the in flight window. The callback of the message is
+     * invoked with {@link IotHubStatusCode#OK_EMPTY} as soon as the message is
+     * handed to the MQTT client, so a message lost on the way is never
+     * reported. Meant for high frequency telemetry that tolerates loss.
+     */
+    AT_MOST_ONCE
+}
@@ -49,6 +49,7 @@ public class TransportClient
                 break;
             case MQTT:
             case MQTT_WS:
+            case MQTT_NIO:
             case HTTPS:
                 throw new IllegalArgumentException("Multiplexing is only supported for AMQPS and AMQPS_WS");
             default:
@@ -3,6 +3,7 @@
 
 package com.microsoft.azure.sdk.iot.device.fileupload;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
@@ -12,9 +13,9 @@ import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransportManager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provide means to upload file in the Azure Storage using the IoTHub.
@@ -25,9 +26,10 @@ public final class FileUpload
 
     private HttpsTransportManager httpsTransportManager;
     private static CustomLogger logger;
-    private ScheduledExecutorService taskScheduler;
+    private ExecutorService taskScheduler;
+    private boolean isTaskSchedulerShared;
     private FileUploadStatusCallBack fileUploadStatusCallBack;
-    private static Queue<FileUploadInProgress> fileUploadInProgressesSet;
+    private Queue<FileUploadInProgress> fileUploadInProgressesSet;
 
     /**
      * CONSTRUCTOR
@@ -51,15 +53,26 @@ public final class FileUpload
         /* Codes_SRS_FILEUPLOAD_21_003: [If the constructor fail to create the new instance of the `HttpsTransportManager`, it shall throw IllegalArgumentException, threw by the HttpsTransportManager constructor.] */
         this.httpsTransportManager = new HttpsTransportManager(config);
 
-        try
+        ClientRuntime clientRuntime = config.getClientRuntime();
+        if (clientRuntime != null)
         {
-            /* Codes_SRS_FILEUPLOAD_21_012: [The constructor shall create an pool of 10 threads to execute the uploads in parallel.] */
-            taskScheduler = Executors.newScheduledThreadPool(MAX_UPLOAD_PARALLEL);
+            /* Codes_SRS_FILEUPLOAD_45_001: [If a client runtime is configured, the constructor shall execute the uploads on the blocking executor of the runtime instead of creating a pool of threads.] */
+            taskScheduler = clientRuntime.getBlockingExecutor();
+            isTaskSchedulerShared = true;
         }
-        catch (IllegalArgumentException | NullPointerException e)
+        else
         {
-            /* Codes_SRS_FILEUPLOAD_21_015: [If create the executor failed, the constructor shall throws IOException.] */
-            throw new IOException("Cannot create a pool of threads to manager uploads: " + e);
+            try
+            {
+                /* Codes_SRS_FILEUPLOAD_21_012: [The constructor shall create an pool of 10 threads to execute the uploads in parallel.] */
+                taskScheduler = Executors.newScheduledThreadPool(MAX_UPLOAD_PARALLEL);
+                isTaskSchedulerShared = false;
+            }
+            catch (IllegalArgumentException | NullPointerException e)
+            {
+                /* Codes_SRS_FILEUPLOAD_21_015: [If create the executor failed, the constructor shall throws IOException.] */
+                throw new IOException("Cannot create a pool of threads to manager uploads: " + e);
+            }
         }
         /* Codes_SRS_FILEUPLOAD_21_013: [The constructor shall create a list `fileUploadInProgressesSet` to control the pending uploads.] */
         fileUploadInProgressesSet = new LinkedBlockingDeque<FileUploadInProgress>();
@@ -168,8 +181,19 @@ public final class FileUpload
      */
     public void closeNow() throws IOException
     {
-        /* Codes_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
-        taskScheduler.shutdownNow();
+        if (isTaskSchedulerShared)
+        {
+            /* Codes_SRS_FILEUPLOAD_45_002: [If the uploads run on the blocking executor of a client runtime, the closeNow shall cancel the pending uploads instead of shutting down the executor.] */
+            for (FileUploadInProgress uploadInProgress : fileUploadInProgressesSet)
+            {
+                uploadInProgress.cancel();
+            }
+        }
+        else
+        {
+            /* Codes_SRS_FILEUPLOAD_21_017: [The closeNow shall shutdown the thread pool by calling `shutdownNow`.] */
+            taskScheduler.shutdownNow();
+        }
 
         /* Codes_SRS_FILEUPLOAD_21_018: [If there is pending file uploads, the closeNow shall cancel the upload, and call the `statusCallback` reporting ERROR.] */
         for (FileUploadInProgress uploadInProgress : fileUploadInProgressesSet)
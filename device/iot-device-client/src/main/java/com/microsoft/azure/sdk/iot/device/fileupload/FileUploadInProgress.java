@@ -67,6 +67,23 @@ public final class FileUploadInProgress
         statusCallback.execute(iotHubStatusCode, statusCallbackContext);
     }
 
+    /**
+     * Cancel the future task, interrupting the upload if it is running.
+     *
+     * @throws IOException is the task is null.
+     */
+    void cancel() throws IOException
+    {
+        /* Codes_SRS_FILEUPLOADINPROGRESS_45_001: [If the `task` is null, the cancel shall throws IOException.] */
+        if(task == null)
+        {
+            throw new IOException("future task is null");
+        }
+
+        /* Codes_SRS_FILEUPLOADINPROGRESS_45_002: [The cancel shall call cancel on the `task`, interrupting it if it is running.] */
+        this.task.cancel(true);
+    }
+
     /**
      * Getter for the task cancellation.
      * 
@@ -0,0 +1,78 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubBatchEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the status of each message of a batch and invokes the batch
+ * callback once, when the last message completes. Used as the event callback
+ * of every message in the batch, with the position of the message in the
+ * batch as the callback context.
+ */
+public final class IotHubBatchEventCollector implements IotHubEventCallback
+{
+    private final IotHubStatusCode[] responseStatuses;
+    private final AtomicInteger pendingMessageCount;
+    private final IotHubBatchEventCallback callback;
+    private final Object callbackContext;
+
+    /**
+     * Constructor.
+     *
+     * @param messageCount the number of messages in the batch. Must be positive.
+     * @param callback the callback to be invoked when all the messages have
+     * completed. Can be {@code null}.
+     * @param callbackContext the context to be passed to the callback.
+     * @throws IllegalArgumentException if the message count is zero or negative.
+     */
+    public IotHubBatchEventCollector(int messageCount, IotHubBatchEventCallback callback, Object callbackContext)
+    {
+        // Codes_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_001: [If the message count is zero or negative, the constructor shall throw IllegalArgumentException.]
+        if (messageCount <= 0)
+        {
+            throw new IllegalArgumentException("Batch must contain at least one message");
+        }
+
+        // Codes_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_002: [The constructor shall save the message count, callback, and callback context.]
+        this.responseStatuses = new IotHubStatusCode[messageCount];
+        this.pendingMessageCount = new AtomicInteger(messageCount);
+        this.callback = callback;
+        this.callbackContext = callbackContext;
+    }
+
+    /**
+     * Records the status of one message of the batch.
+     *
+     * @param responseStatus the response status code of the message.
+     * @param messageIndex the position of the message in the batch, as an {@link Integer}.
+     * @throws IllegalArgumentException if the message index is not a valid position in the batch.
+     */
+    @Override
+    public void execute(IotHubStatusCode responseStatus, Object messageIndex)
+    {
+        // Codes_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_003: [If the context is not an Integer within the batch, the function shall throw IllegalArgumentException.]
+        if (!(messageIndex instanceof Integer)
+                || ((Integer) messageIndex < 0) || ((Integer) messageIndex >= this.responseStatuses.length))
+        {
+            throw new IllegalArgumentException("Context is not the position of a message in the batch: " + messageIndex);
+        }
+
+        // Codes_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_004: [The function shall save the status of the message at the position given by the context.]
+        this.responseStatuses[(Integer) messageIndex] = responseStatus;
+
+        // the decrement publishes the saved status to the thread that completes the batch.
+        // Codes_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_005: [When the status of the last pending message is saved, the function shall invoke the callback, if any, once with the statuses in the order of the messages and the callback context.]
+        if (this.pendingMessageCount.decrementAndGet() == 0 && this.callback != null)
+        {
+            this.callback.execute(Collections.unmodifiableList(Arrays.asList(this.responseStatuses)), this.callbackContext);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CallbackQueueStatistics;
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the callbacks of completed requests for a transport. Without an
+ * executor, each callback is invoked on the calling thread, as the transport
+ * always did. With an executor, the callbacks are handed off so a slow
+ * callback never holds the transport locks or stalls the send thread. The
+ * handed off callbacks are invoked one at a time, in the order they were
+ * dispatched, so callbacks of one device are never reordered or run
+ * concurrently, whatever the executor.
+ */
+public final class IotHubCallbackDispatcher implements Runnable
+{
+    private volatile Executor executor;
+
+    /** Callbacks waiting for the executor, guarded by this. */
+    private final ArrayDeque<IotHubCallbackPacket> pending = new ArrayDeque<>();
+    /** Whether a drain pass is submitted to the executor or running, guarded by this. */
+    private boolean draining = false;
+
+    private long invokedCount = 0;
+    private long totalLagNanos = 0;
+    private long maxLagNanos = 0;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Setter for the executor that runs the callbacks.
+     *
+     * @param executor the executor, or {@code null} to invoke the callbacks on
+     * the thread that dispatches them.
+     */
+    public void setExecutor(Executor executor)
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_001: [The function shall save the executor, which can be null.]
+        this.executor = executor;
+    }
+
+    /**
+     * Delivers the callback of a completed request.
+     *
+     * @param packet the packet with the callback, its context and the result
+     * of the request. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the packet is {@code null}.
+     */
+    public void dispatch(IotHubCallbackPacket packet)
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_002: [If the packet is null, the function shall throw IllegalArgumentException.]
+        if (packet == null)
+        {
+            throw new IllegalArgumentException("Parameter 'packet' must not be null");
+        }
+
+        Executor currentExecutor = this.executor;
+        synchronized (this)
+        {
+            if ((currentExecutor != null) || this.draining)
+            {
+                // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_004: [If there is an executor, or callbacks are waiting for a previous executor, the function shall add the packet to the pending callbacks and, if no drain pass is submitted or running, submit one to the executor.]
+                this.pending.add(packet);
+                if (this.draining)
+                {
+                    return;
+                }
+                this.draining = true;
+            }
+        }
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_003: [If there is no executor and no callback is waiting for a previous executor, the function shall invoke the callback on the calling thread, and exceptions thrown by the callback shall propagate to the caller.]
+        if (currentExecutor == null)
+        {
+            invoke(packet);
+            return;
+        }
+
+        try
+        {
+            currentExecutor.execute(this);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_005: [If the executor rejects the drain pass, the function shall run it on the calling thread.]
+            logger.LogError("Callback executor rejected the callbacks, invoking them on the calling thread, method name is %s ", logger.getMethodName());
+            run();
+        }
+    }
+
+    /**
+     * Invokes the pending callbacks, in the order they were dispatched, until
+     * there are none left.
+     */
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            IotHubCallbackPacket packet;
+            synchronized (this)
+            {
+                packet = this.pending.poll();
+                if (packet == null)
+                {
+                    this.draining = false;
+                    return;
+                }
+            }
+
+            try
+            {
+                invoke(packet);
+            }
+            catch (RuntimeException e)
+            {
+                // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_006: [If a callback invoked by the drain pass throws, the drain pass shall drop that callback and continue with the next one.]
+                logger.LogError("Callback threw %s, dropping it, method name is %s ", e.toString(), logger.getMethodName());
+            }
+        }
+    }
+
+    /**
+     * Getter for the callback statistics.
+     *
+     * @return a snapshot of the pending callbacks and of the callback lag.
+     */
+    public synchronized CallbackQueueStatistics getStatistics()
+    {
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_007: [The function shall return the number of pending callbacks, the number of invoked callbacks, and the average and maximum time between the creation of a callback packet and the invocation of its callback.]
+        long averageLagNanos = (this.invokedCount == 0) ? 0 : this.totalLagNanos / this.invokedCount;
+        return new CallbackQueueStatistics(this.pending.size(), this.invokedCount,
+                TimeUnit.NANOSECONDS.toMillis(averageLagNanos), TimeUnit.NANOSECONDS.toMillis(this.maxLagNanos));
+    }
+
+    private void invoke(IotHubCallbackPacket packet)
+    {
+        long lagNanos = System.nanoTime() - packet.getCreatedNanos();
+        synchronized (this)
+        {
+            this.invokedCount++;
+            this.totalLagNanos += lagNanos;
+            this.maxLagNanos = Math.max(this.maxLagNanos, lagNanos);
+        }
+
+        // Codes_SRS_IOTHUBCALLBACKDISPATCHER_45_008: [The callback invocation shall execute the event callback, if any, with the status and context of the packet, then the response callback, if any, with the response message and context of the packet.]
+        Object context = packet.getContext();
+
+        IotHubEventCallback eventCallback = packet.getCallback();
+        if (eventCallback != null)
+        {
+            eventCallback.execute(packet.getStatus(), context);
+        }
+
+        IotHubResponseCallback responseCallback = packet.getResponseCallback();
+        if (responseCallback != null)
+        {
+            responseCallback.execute(packet.getResponseMessage(), context);
+        }
+    }
+}
@@ -19,6 +19,7 @@ public final class IotHubCallbackPacket
     private final IotHubEventCallback eventCallback;
     private final IotHubResponseCallback responseCallback;
     private final Object callbackContext;
+    private final long createdNanos = System.nanoTime();
 
     /**
      * Constructor.
@@ -117,4 +118,16 @@ public final class IotHubCallbackPacket
         // Codes_SRS_IOTHUBCALLBACKPACKET_11_004: [The function shall return the callback context given in the constructor.]
         return callbackContext;
     }
+
+    /**
+     * Getter for the time the packet was created, that is, when the request
+     * completed, as given by {@link System#nanoTime()}.
+     *
+     * @return the creation time in nanoseconds.
+     */
+    long getCreatedNanos()
+    {
+        // Codes_SRS_IOTHUBCALLBACKPACKET_45_001: [The function shall return the value of System.nanoTime() at the time the packet was created.]
+        return createdNanos;
+    }
 }
@@ -0,0 +1,57 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+/**
+ * Dispatches the messages that a transport has already received to their
+ * callbacks. Unlike {@link IotHubReceiveTask}, which handles one message per
+ * run, each run handles every message queued when the run starts. Meant to be
+ * driven by an {@link IotHubSignalledTask} that the transport signals when a
+ * message arrives.
+ */
+public final class IotHubDispatchTask implements Runnable
+{
+    private final IotHubTransport transport;
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    public IotHubDispatchTask(IotHubTransport transport)
+    {
+        // Codes_SRS_IOTHUBDISPATCHTASK_45_001: [If the transport is null, the constructor shall throw IllegalArgumentException.]
+        if (transport == null)
+        {
+            logger.LogError("IotHubDispatchTask constructor called with null value for parameter transport");
+            throw new IllegalArgumentException("Parameter 'transport' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBDISPATCHTASK_45_002: [The constructor shall save the transport.]
+        this.transport = transport;
+    }
+
+    public void run()
+    {
+        // the number of handled messages is bounded by the queue size at the start,
+        // so messages that cannot be handled yet (no callback registered, or put
+        // back on the queue after a failed acknowledgement) do not spin this thread.
+        // Codes_SRS_IOTHUBDISPATCHTASK_45_003: [The function shall call handleMessage on the transport once for each message that the transport has received and not yet handled when the function starts.]
+        int pendingMessages = this.transport.getReceivedMessageCount();
+        for (int i = 0; i < pendingMessages; i++)
+        {
+            try
+            {
+                this.transport.handleMessage();
+            }
+            // Codes_SRS_IOTHUBDISPATCHTASK_45_004: [The function shall not crash because of any error or exception thrown by the transport, and shall continue with the next message.]
+            catch (Throwable e)
+            {
+                logger.LogError(e.toString() + ": " + e.getMessage());
+                logger.LogDebug("Exception on dispatching received messages", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+/**
+ * Removes the messages that expired while waiting to be sent, so they stop
+ * taking memory and their callbacks are completed with MESSAGE_EXPIRED
+ * promptly, instead of when they reach the head of a long backlog. Meant to be
+ * used with an executor that periodically calls run().
+ */
+public final class IotHubExpirySweepTask implements Runnable
+{
+    private final IotHubTransport transport;
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    public IotHubExpirySweepTask(IotHubTransport transport)
+    {
+        // Codes_SRS_IOTHUBEXPIRYSWEEPTASK_45_001: [If the transport is null, the constructor shall throw IllegalArgumentException.]
+        if (transport == null)
+        {
+            logger.LogError("IotHubExpirySweepTask constructor called with null value for parameter transport");
+            throw new IllegalArgumentException("Parameter 'transport' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBEXPIRYSWEEPTASK_45_002: [The constructor shall save the transport.]
+        this.transport = transport;
+    }
+
+    public void run()
+    {
+        try
+        {
+            // Codes_SRS_IOTHUBEXPIRYSWEEPTASK_45_003: [The function shall remove the expired messages from the transport.]
+            this.transport.removeExpiredMessages();
+        }
+        // Codes_SRS_IOTHUBEXPIRYSWEEPTASK_45_004: [The function shall not crash because of any error or exception thrown by the transport.]
+        catch (Throwable e)
+        {
+            logger.LogError(e.toString() + ": " + e.getMessage());
+            logger.LogDebug("Exception on removing expired messages", e);
+        }
+    }
+}
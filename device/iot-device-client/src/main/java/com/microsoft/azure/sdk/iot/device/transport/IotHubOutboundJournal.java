@@ -0,0 +1,779 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent store-and-forward journal of the telemetry messages waiting to
+ * be sent, so they survive a restart of the process. The journal is an
+ * append-only log of memory-mapped segment files under a directory. Each
+ * message is appended with a new sequence number before it is queued in the
+ * transport, and is acknowledged once the transport completes it. A segment is
+ * deleted when all its records are acknowledged.
+ *
+ * The sequence number below which every record is acknowledged is kept in a
+ * checkpoint file. When the journal is opened again, the records above it are
+ * returned to be sent again. Records acknowledged out of order before a crash
+ * are sent again too, so delivery is at least once.
+ *
+ * The disk usage is bounded by a maximum number of bytes. When a new segment
+ * is needed and there is no room for it, the {@link OutboundQueueFullPolicy}
+ * decides: {@link OutboundQueueFullPolicy#DROP_OLDEST} deletes the oldest
+ * segment with the records it still holds, and {@link OutboundQueueFullPolicy#DROP_NEWEST}
+ * does not journal the new message, which is then only sent from memory.
+ */
+public final class IotHubOutboundJournal implements Closeable
+{
+    /** The sequence number returned for a message that was not journaled. */
+    public static final long NOT_JOURNALED = -1;
+
+    /** The size of a segment file, unless the journal is smaller. */
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE_NAME = "journal.ack";
+    private static final int CHECKPOINT_BYTES = 8;
+
+    // record layout: payload length, CRC32 of sequence number and payload, sequence number, payload
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 8;
+    private static final byte PAYLOAD_FORMAT_VERSION = 1;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final OutboundQueueFullPolicy fullPolicy;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private RandomAccessFile checkpointFile;
+    private MappedByteBuffer checkpoint;
+    private long acknowledgedSequenceNumber;
+    private long nextSequenceNumber;
+    private long droppedRecordCount;
+    private boolean isOpen;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /** A record recovered from the journal, waiting to be sent again. */
+    public static final class Record
+    {
+        private final long sequenceNumber;
+        private final Message message;
+
+        private Record(long sequenceNumber, Message message)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.message = message;
+        }
+
+        /**
+         * Getter for the sequence number.
+         *
+         * @return the sequence number of the record.
+         */
+        public long getSequenceNumber()
+        {
+            return this.sequenceNumber;
+        }
+
+        /**
+         * Getter for the message.
+         *
+         * @return the message of the record.
+         */
+        public Message getMessage()
+        {
+            return this.message;
+        }
+    }
+
+    private static final class Segment
+    {
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private final long firstSequenceNumber;
+        private final BitSet acknowledged = new BitSet();
+        private int recordCount;
+        private int acknowledgedCount;
+
+        private Segment(File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, long firstSequenceNumber)
+        {
+            this.file = file;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+            this.firstSequenceNumber = firstSequenceNumber;
+        }
+
+        private boolean contains(long sequenceNumber)
+        {
+            return (sequenceNumber >= this.firstSequenceNumber) && (sequenceNumber < this.firstSequenceNumber + this.recordCount);
+        }
+
+        private boolean isFullyAcknowledged()
+        {
+            return this.acknowledgedCount == this.recordCount;
+        }
+
+        private void acknowledge(int index)
+        {
+            if (!this.acknowledged.get(index))
+            {
+                this.acknowledged.set(index);
+                this.acknowledgedCount++;
+            }
+        }
+    }
+
+    /**
+     * The event callback of a journaled message. It acknowledges the record
+     * when the transport completes the message with a final status, then
+     * invokes the callback of the message, if any.
+     */
+    private final class AcknowledgingCallback implements IotHubEventCallback
+    {
+        private final long sequenceNumber;
+        private final IotHubEventCallback callback;
+
+        private AcknowledgingCallback(long sequenceNumber, IotHubEventCallback callback)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.callback = callback;
+        }
+
+        @Override
+        public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+        {
+            if (isFinalStatus(responseStatus))
+            {
+                acknowledge(this.sequenceNumber);
+            }
+
+            if (this.callback != null)
+            {
+                this.callback.execute(responseStatus, callbackContext);
+            }
+        }
+    }
+
+    /**
+     * The response callback of a journaled message, for the transports that
+     * complete a message with the response of the IoT Hub. It acknowledges the
+     * record as {@link AcknowledgingCallback} does, using the status of the
+     * response.
+     */
+    private final class AcknowledgingResponseCallback implements IotHubResponseCallback
+    {
+        private final long sequenceNumber;
+        private final IotHubResponseCallback callback;
+
+        private AcknowledgingResponseCallback(long sequenceNumber, IotHubResponseCallback callback)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.callback = callback;
+        }
+
+        @Override
+        public void execute(ResponseMessage responseMessage, Object callbackContext)
+        {
+            if ((responseMessage != null) && isFinalStatus(responseMessage.getStatus()))
+            {
+                acknowledge(this.sequenceNumber);
+            }
+
+            if (this.callback != null)
+            {
+                this.callback.execute(responseMessage, callbackContext);
+            }
+        }
+    }
+
+    /**
+     * Constructor. The journal is not usable until it is opened.
+     *
+     * @param directory the directory of the journal files. Cannot be {@code null}.
+     * @param maxBytes the maximum size of the journal files on disk. Must be at
+     * least the size of a record header.
+     * @param fullPolicy what to do when the journal is full. Must be
+     * {@link OutboundQueueFullPolicy#DROP_OLDEST} or {@link OutboundQueueFullPolicy#DROP_NEWEST}.
+     * @throws IllegalArgumentException if any of the parameters is invalid.
+     */
+    public IotHubOutboundJournal(File directory, long maxBytes, OutboundQueueFullPolicy fullPolicy)
+    {
+        this(directory, Math.min(DEFAULT_SEGMENT_BYTES, maxBytes), maxBytes, fullPolicy);
+    }
+
+    /**
+     * Constructor. The journal is not usable until it is opened.
+     *
+     * @param directory the directory of the journal files. Cannot be {@code null}.
+     * @param segmentBytes the size of each segment file. Must be larger than a
+     * record header and at most {@code maxBytes}.
+     * @param maxBytes the maximum size of the journal files on disk.
+     * @param fullPolicy what to do when the journal is full. Must be
+     * {@link OutboundQueueFullPolicy#DROP_OLDEST} or {@link OutboundQueueFullPolicy#DROP_NEWEST}.
+     * @throws IllegalArgumentException if any of the parameters is invalid.
+     */
+    public IotHubOutboundJournal(File directory, long segmentBytes, long maxBytes, OutboundQueueFullPolicy fullPolicy)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_001: [If the directory is null, the constructor shall throw IllegalArgumentException.]
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Parameter 'directory' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_002: [If the segment size is not larger than a record header, not at most the maximum size, or more than Integer.MAX_VALUE, the constructor shall throw IllegalArgumentException.]
+        if ((segmentBytes <= RECORD_HEADER_BYTES) || (segmentBytes > maxBytes) || (segmentBytes > Integer.MAX_VALUE))
+        {
+            throw new IllegalArgumentException("Segment size must be larger than " + RECORD_HEADER_BYTES + " bytes and at most the maximum journal size");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_003: [If the full policy is not DROP_OLDEST or DROP_NEWEST, the constructor shall throw IllegalArgumentException.]
+        if ((fullPolicy != OutboundQueueFullPolicy.DROP_OLDEST) && (fullPolicy != OutboundQueueFullPolicy.DROP_NEWEST))
+        {
+            throw new IllegalArgumentException("Journal full policy must be DROP_OLDEST or DROP_NEWEST");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_004: [The constructor shall save the directory, the segment size, the number of segments that fit in the maximum size, and the full policy.]
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+        this.fullPolicy = fullPolicy;
+    }
+
+    /**
+     * Opens the journal, creating the directory if needed, and recovers the
+     * records that were not acknowledged when the journal was last used.
+     * A record torn by a crash ends the recovery of its segment.
+     *
+     * @return the recovered records, in the order they were appended.
+     * @throws IOException if the journal files cannot be read or created.
+     * @throws IllegalStateException if the journal is already open.
+     */
+    public synchronized List<Record> open() throws IOException
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_005: [If the journal is already open, the function shall throw IllegalStateException.]
+        if (this.isOpen)
+        {
+            throw new IllegalStateException("Journal is already open");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_006: [The function shall create the directory if it does not exist, and throw IOException if it cannot.]
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+        {
+            throw new IOException("Cannot create journal directory " + this.directory);
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_007: [The function shall read the acknowledged sequence number from the checkpoint file, creating it if it does not exist.]
+        this.checkpointFile = new RandomAccessFile(new File(this.directory, CHECKPOINT_FILE_NAME), "rw");
+        this.checkpoint = this.checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_BYTES);
+        this.acknowledgedSequenceNumber = this.checkpoint.getLong(0);
+        this.nextSequenceNumber = this.acknowledgedSequenceNumber + 1;
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_008: [The function shall scan the segment files in order and return the valid records above the acknowledged sequence number, stopping the scan of a segment at the first record with a bad length, checksum, or sequence number.]
+        List<Record> records = new ArrayList<>();
+        for (File file : this.listSegmentFiles())
+        {
+            Segment segment = this.recoverSegment(file, records);
+            if (segment != null)
+            {
+                this.segments.addLast(segment);
+                this.nextSequenceNumber = Math.max(this.nextSequenceNumber, segment.firstSequenceNumber + segment.recordCount);
+            }
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_009: [The function shall delete the segments whose records are all acknowledged, except the last one.]
+        this.removeAcknowledgedSegments();
+
+        this.isOpen = true;
+        logger.LogInfo("Journal in %s recovered %d records, method name is %s ", this.directory, records.size(), logger.getMethodName());
+        return records;
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param message the message to append. Cannot be {@code null}.
+     * @return the sequence number of the record, or {@link #NOT_JOURNALED} if
+     * the message does not fit in a segment, or the journal is full and its
+     * policy is {@link OutboundQueueFullPolicy#DROP_NEWEST}.
+     * @throws IOException if a new segment file cannot be created.
+     * @throws IllegalArgumentException if the message is {@code null}.
+     * @throws IllegalStateException if the journal is not open.
+     */
+    public synchronized long append(Message message) throws IOException
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_010: [If the message is null, the function shall throw IllegalArgumentException.]
+        if (message == null)
+        {
+            throw new IllegalArgumentException("Parameter 'message' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_011: [If the journal is not open, the function shall throw IllegalStateException.]
+        if (!this.isOpen)
+        {
+            throw new IllegalStateException("Journal is not open");
+        }
+
+        byte[] payload = encode(message);
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (recordBytes > this.segmentBytes)
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_012: [If the record does not fit in a segment, the function shall count it as dropped and return NOT_JOURNALED.]
+            this.droppedRecordCount++;
+            logger.LogWarn("Message with messageid %s is too large for the journal, method name is %s ", message.getMessageId(), logger.getMethodName());
+            return NOT_JOURNALED;
+        }
+
+        Segment active = this.segments.peekLast();
+        if ((active == null) || (active.buffer.remaining() < recordBytes)
+                || (active.firstSequenceNumber + active.recordCount != this.nextSequenceNumber))
+        {
+            if (!this.makeRoomForSegment())
+            {
+                // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_014: [If a new segment is needed, the journal is full and the policy is DROP_NEWEST, the function shall count the message as dropped and return NOT_JOURNALED.]
+                this.droppedRecordCount++;
+                return NOT_JOURNALED;
+            }
+
+            // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_015: [If there is no last segment, or the record does not fit in it or does not follow its last record, the function shall create a new segment file named after the sequence number of its first record.]
+            active = this.createSegment(this.nextSequenceNumber);
+            this.segments.addLast(active);
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_016: [The function shall write the record to the last segment, with its length written last so a torn record reads as the end of the segment, and return its sequence number.]
+        long sequenceNumber = this.nextSequenceNumber++;
+        MappedByteBuffer buffer = active.buffer;
+        int position = buffer.position();
+        int end = position + recordBytes;
+        if (end + 4 <= buffer.capacity())
+        {
+            buffer.putInt(end, 0);
+        }
+        buffer.position(position + RECORD_HEADER_BYTES);
+        buffer.put(payload);
+        buffer.putLong(position + 8, sequenceNumber);
+        buffer.putInt(position + 4, checksum(sequenceNumber, payload));
+        buffer.putInt(position, payload.length);
+        active.recordCount++;
+
+        return sequenceNumber;
+    }
+
+    /**
+     * Creates the event callback of a journaled message, which acknowledges
+     * the record when the transport completes the message with a final status
+     * and then invokes the callback of the message. The final statuses are the
+     * success statuses and the failures that sending the message again would
+     * not fix: {@link IotHubStatusCode#MESSAGE_EXPIRED}, {@link IotHubStatusCode#BAD_FORMAT},
+     * {@link IotHubStatusCode#REQUEST_ENTITY_TOO_LARGE} and
+     * {@link IotHubStatusCode#PRECONDITION_FAILED}. A message that failed with
+     * any other status, for example because the client closed, the queue was
+     * full, or the IoT Hub throttled or did not authorize the device, is not
+     * acknowledged, so it is sent again on the next open.
+     *
+     * @param sequenceNumber the sequence number of the record.
+     * @param callback the callback of the message. Can be {@code null}.
+     * @return the event callback to queue with the message. The transport
+     * passes the callback context of the message through it unchanged.
+     */
+    public IotHubEventCallback newAcknowledgingCallback(long sequenceNumber, IotHubEventCallback callback)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_017: [The function shall return a callback that, if the status is OK, OK_EMPTY, MESSAGE_EXPIRED, BAD_FORMAT, REQUEST_ENTITY_TOO_LARGE or PRECONDITION_FAILED, acknowledges the record, and then invokes the provided callback, if any, with the status and the context.]
+        return new AcknowledgingCallback(sequenceNumber, callback);
+    }
+
+    /**
+     * Creates the response callback of a journaled message. The record is
+     * acknowledged on the same final statuses as the event callback of
+     * {@link #newAcknowledgingCallback(long, IotHubEventCallback)}, taken
+     * from the response of the IoT Hub.
+     *
+     * @param sequenceNumber the sequence number of the record.
+     * @param callback the response callback of the message. Can be {@code null}.
+     * @return the response callback to queue with the message.
+     */
+    public IotHubResponseCallback newAcknowledgingResponseCallback(long sequenceNumber, IotHubResponseCallback callback)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_024: [The function shall return a response callback that, if the response has one of the statuses that acknowledge the record of an event callback, acknowledges the record, and then invokes the provided callback, if any, with the response and the context.]
+        return new AcknowledgingResponseCallback(sequenceNumber, callback);
+    }
+
+    private static boolean isFinalStatus(IotHubStatusCode responseStatus)
+    {
+        switch (responseStatus)
+        {
+            case OK:
+            case OK_EMPTY:
+            case MESSAGE_EXPIRED:
+            case BAD_FORMAT:
+            case REQUEST_ENTITY_TOO_LARGE:
+            case PRECONDITION_FAILED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Acknowledges a record, so it is not sent again on the next open. Records
+     * that are not in the journal, for example because their segment was
+     * dropped or the journal was closed, are ignored.
+     *
+     * @param sequenceNumber the sequence number of the record.
+     */
+    public synchronized void acknowledge(long sequenceNumber)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_018: [If the journal is not open or the record is not in the journal, the function shall do nothing.]
+        if (!this.isOpen)
+        {
+            return;
+        }
+
+        for (Segment segment : this.segments)
+        {
+            if (segment.contains(sequenceNumber))
+            {
+                // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_019: [The function shall mark the record as acknowledged, advance the checkpoint to the highest sequence number below which every record is acknowledged, and delete the segments whose records are all acknowledged, except the last one.]
+                segment.acknowledge((int) (sequenceNumber - segment.firstSequenceNumber));
+                this.removeAcknowledgedSegments();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of records that are not acknowledged.
+     *
+     * @return the number of records waiting to be acknowledged.
+     */
+    public synchronized int getPendingRecordCount()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_020: [The function shall return the number of records in the journal that are not acknowledged.]
+        int pending = 0;
+        for (Segment segment : this.segments)
+        {
+            pending += segment.recordCount - segment.acknowledgedCount;
+        }
+        return pending;
+    }
+
+    /**
+     * Getter for the number of messages dropped because the journal was full
+     * or the message did not fit in a segment.
+     *
+     * @return the number of dropped messages.
+     */
+    public synchronized long getDroppedRecordCount()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_021: [The function shall return the number of messages not journaled and of records dropped with their segment.]
+        return this.droppedRecordCount;
+    }
+
+    /**
+     * Closes the journal, flushing the segment and checkpoint files. The
+     * records that are not acknowledged are kept for the next open. If the
+     * journal is not open, the function does nothing.
+     *
+     * @throws IOException if a journal file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_022: [If the journal is not open, the function shall do nothing.]
+        if (!this.isOpen)
+        {
+            return;
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_023: [The function shall flush and close the segment and checkpoint files, and mark the journal as not open.]
+        this.isOpen = false;
+        for (Segment segment : this.segments)
+        {
+            segment.buffer.force();
+            segment.randomAccessFile.close();
+        }
+        this.segments.clear();
+        this.checkpoint.force();
+        this.checkpointFile.close();
+    }
+
+    private File[] listSegmentFiles()
+    {
+        File[] files = this.directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        if (files == null)
+        {
+            return new File[0];
+        }
+
+        // the names are the zero padded sequence numbers of the first records
+        Arrays.sort(files);
+        return files;
+    }
+
+    private Segment recoverSegment(File file, List<Record> records) throws IOException
+    {
+        long firstSequenceNumber;
+        try
+        {
+            firstSequenceNumber = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            logger.LogWarn("Ignoring unexpected journal file %s, method name is %s ", file, logger.getMethodName());
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        long size = Math.max(randomAccessFile.length(), this.segmentBytes);
+        MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        Segment segment = new Segment(file, randomAccessFile, buffer, firstSequenceNumber);
+
+        int position = 0;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity())
+        {
+            int payloadLength = buffer.getInt(position);
+            if ((payloadLength <= 0) || (payloadLength > buffer.capacity() - position - RECORD_HEADER_BYTES))
+            {
+                break;
+            }
+
+            long sequenceNumber = buffer.getLong(position + 8);
+            if (sequenceNumber != firstSequenceNumber + segment.recordCount)
+            {
+                break;
+            }
+
+            byte[] payload = new byte[payloadLength];
+            buffer.position(position + RECORD_HEADER_BYTES);
+            buffer.get(payload);
+            if (buffer.getInt(position + 4) != checksum(sequenceNumber, payload))
+            {
+                logger.LogWarn("Journal segment %s ends with a torn record, method name is %s ", file, logger.getMethodName());
+                break;
+            }
+
+            int index = segment.recordCount++;
+            position += RECORD_HEADER_BYTES + payloadLength;
+            if (sequenceNumber <= this.acknowledgedSequenceNumber)
+            {
+                segment.acknowledge(index);
+                continue;
+            }
+
+            try
+            {
+                records.add(new Record(sequenceNumber, decode(payload)));
+            }
+            catch (IOException | IllegalArgumentException e)
+            {
+                logger.LogError("Dropping unreadable journal record %d, method name is %s ", sequenceNumber, logger.getMethodName());
+                segment.acknowledge(index);
+            }
+        }
+
+        buffer.position(position);
+        return segment;
+    }
+
+    private boolean makeRoomForSegment() throws IOException
+    {
+        this.removeAcknowledgedSegments();
+
+        // a full last segment can go too once all its records are acknowledged
+        Segment last = this.segments.peekLast();
+        if ((last != null) && last.isFullyAcknowledged())
+        {
+            this.deleteSegment(this.segments.pollLast());
+        }
+
+        while (this.segments.size() >= this.maxSegments)
+        {
+            if (this.fullPolicy != OutboundQueueFullPolicy.DROP_OLDEST)
+            {
+                return false;
+            }
+
+            // Codes_SRS_IOTHUBOUTBOUNDJOURNAL_45_013: [If a new segment is needed, the journal is full and the policy is DROP_OLDEST, the function shall delete the oldest segments, counting their records that are not acknowledged as dropped.]
+            Segment oldest = this.segments.pollFirst();
+            this.droppedRecordCount += oldest.recordCount - oldest.acknowledgedCount;
+            this.deleteSegment(oldest);
+            logger.LogWarn("Journal is full, dropped segment %s, method name is %s ", oldest.file, logger.getMethodName());
+        }
+
+        return true;
+    }
+
+    private Segment createSegment(long firstSequenceNumber) throws IOException
+    {
+        File file = new File(this.directory, String.format("%020d%s", firstSequenceNumber, SEGMENT_SUFFIX));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+        return new Segment(file, randomAccessFile, buffer, firstSequenceNumber);
+    }
+
+    private void removeAcknowledgedSegments()
+    {
+        long acknowledged = this.acknowledgedSequenceNumber;
+        Iterator<Segment> iterator = this.segments.iterator();
+        while (iterator.hasNext())
+        {
+            Segment segment = iterator.next();
+            int firstPending = segment.acknowledged.nextClearBit(0);
+            if (firstPending < segment.recordCount)
+            {
+                acknowledged = Math.max(acknowledged, segment.firstSequenceNumber + firstPending - 1);
+                break;
+            }
+
+            acknowledged = Math.max(acknowledged, segment.firstSequenceNumber + segment.recordCount - 1);
+            if (iterator.hasNext())
+            {
+                iterator.remove();
+                this.deleteSegment(segment);
+            }
+        }
+
+        if (acknowledged != this.acknowledgedSequenceNumber)
+        {
+            this.acknowledgedSequenceNumber = acknowledged;
+            this.checkpoint.putLong(0, acknowledged);
+        }
+    }
+
+    private void deleteSegment(Segment segment)
+    {
+        try
+        {
+            segment.randomAccessFile.close();
+        }
+        catch (IOException e)
+        {
+            logger.LogError(e);
+        }
+
+        if (!segment.file.delete())
+        {
+            logger.LogError("Cannot delete journal segment %s, method name is %s ", segment.file, logger.getMethodName());
+        }
+    }
+
+    private static int checksum(long sequenceNumber, byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8)
+        {
+            crc.update((int) (sequenceNumber >>> shift));
+        }
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(Message message) throws IOException
+    {
+        byte[] body = message.getBytes();
+        MessageProperty[] properties = message.getProperties();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + ((body == null) ? 0 : body.length));
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(PAYLOAD_FORMAT_VERSION);
+        writeNullableString(output, message.getMessageId());
+        writeNullableString(output, message.getCorrelationId());
+        output.writeLong(message.getExpiryTime());
+        output.writeInt(properties.length);
+        for (MessageProperty property : properties)
+        {
+            output.writeUTF(property.getName());
+            output.writeUTF(property.getValue());
+        }
+        if (body == null)
+        {
+            output.writeInt(0);
+        }
+        else
+        {
+            output.writeInt(body.length);
+            output.write(body);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Message decode(byte[] payload) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        if (input.readByte() != PAYLOAD_FORMAT_VERSION)
+        {
+            throw new IOException("Unknown journal record format");
+        }
+
+        String messageId = readNullableString(input);
+        String correlationId = readNullableString(input);
+        long expiryTime = input.readLong();
+        int propertyCount = input.readInt();
+        String[] propertyNames = new String[propertyCount];
+        String[] propertyValues = new String[propertyCount];
+        for (int i = 0; i < propertyCount; i++)
+        {
+            propertyNames[i] = input.readUTF();
+            propertyValues[i] = input.readUTF();
+        }
+        byte[] body = new byte[input.readInt()];
+        input.readFully(body);
+
+        Message message = new Message(body);
+        message.setMessageId(messageId);
+        message.setCorrelationId(correlationId);
+        if (expiryTime != 0)
+        {
+            message.setAbsoluteExpiryTime(expiryTime);
+        }
+        for (int i = 0; i < propertyCount; i++)
+        {
+            message.setProperty(propertyNames[i], propertyValues[i]);
+        }
+        return message;
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null)
+        {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException
+    {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
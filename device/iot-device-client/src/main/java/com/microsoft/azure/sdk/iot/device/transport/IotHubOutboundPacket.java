@@ -6,6 +6,7 @@ package com.microsoft.azure.sdk.iot.device.transport;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageType;
 
 /**
  * A packet containing the data needed for an IoT Hub transport to send a
@@ -18,6 +19,12 @@ public final class IotHubOutboundPacket
     private final IotHubResponseCallback responseCallback;
     private final Object callbackContext;
 
+    /* the message as converted by the transport, kept while the packet waits so it is converted once */
+    private Object convertedMessage;
+
+    /* whether the transport held the packet back, so it counts the packet once */
+    private boolean isDeferred;
+
     /**
      * Constructor.
      *
@@ -103,4 +110,87 @@ public final class IotHubOutboundPacket
         // Codes_SRS_IOTHUBOUTBOUNDPACKET_11_004: [The function shall return the callback context given in the constructor.]
         return callbackContext;
     }
+
+    /**
+     * Getter for the message as converted by the transport to be sent, if
+     * the transport kept it on the packet.
+     *
+     * @return the converted message, or {@code null} if there is none.
+     */
+    public Object getConvertedMessage()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_004: [The function shall return the converted message saved on the packet, or null if there is none.]
+        return convertedMessage;
+    }
+
+    /**
+     * Keeps the message as converted by the transport on the packet, so a
+     * packet that waits over several send attempts is converted once. The
+     * message of the packet must not change after it was converted.
+     *
+     * @param convertedMessage the converted message. Can be {@code null} to drop it.
+     */
+    public void setConvertedMessage(Object convertedMessage)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_005: [The function shall save the converted message on the packet.]
+        this.convertedMessage = convertedMessage;
+    }
+
+    /**
+     * Marks the packet as held back by the transport, for example because
+     * its link has no credit, so a packet that waits over several send
+     * attempts is counted once.
+     *
+     * @return {@code true} if the packet was not marked before, and {@code false} otherwise.
+     */
+    public boolean markDeferred()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_006: [The function shall mark the packet as deferred, and return true if it was not marked before, and false otherwise.]
+        boolean wasDeferred = this.isDeferred;
+        this.isDeferred = true;
+        return !wasDeferred;
+    }
+
+    /**
+     * Returns the size of the message body, as counted against the byte limit
+     * of the {@link IotHubOutboundQueue}.
+     *
+     * @return the size of the message body in bytes, or 0 if there is no body.
+     */
+    long getBodySize()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_001: [The function shall return the length of the message body, or 0 if the message or its body is null.]
+        byte[] body = (message == null) ? null : message.getBytes();
+        return (body == null) ? 0 : body.length;
+    }
+
+    /**
+     * Returns whether the message is a device twin or device method message,
+     * which the {@link IotHubOutboundQueue} never holds back.
+     *
+     * @return {@code true} if the message is a device twin or device method message.
+     */
+    boolean isControlMessage()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_002: [The function shall return true if the message type is DEVICE_TWIN or DEVICE_METHODS, and false otherwise, including if the message is null.]
+        if (message == null)
+        {
+            return false;
+        }
+
+        MessageType messageType = message.getMessageType();
+        return (messageType == MessageType.DEVICE_TWIN) || (messageType == MessageType.DEVICE_METHODS);
+    }
+
+    /**
+     * Returns the absolute expiry time of the message, by which the
+     * {@link IotHubOutboundQueue} indexes the packets that can expire.
+     *
+     * @return the expiry time in milliseconds since the epoch, or 0 if the message never expires.
+     */
+    long getExpiryTime()
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDPACKET_45_003: [The function shall return the expiry time of the message, or 0 if the message is null.]
+        return (message == null) ? 0 : message.getExpiryTime();
+    }
 }
@@ -0,0 +1,751 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.*;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of packets waiting to be sent by a transport. New messages are
+ * added with {@link #enqueue(IotHubOutboundPacket)} or {@link #enqueueAll(List)},
+ * which apply the capacity and the {@link OutboundQueueFullPolicy} set in the
+ * {@link DeviceClientConfig}. The {@link java.util.Queue} methods are used
+ * by the transport itself and never apply the limits, so packets that were
+ * already accepted can always be put back after a failed send.
+ *
+ * The packets discarded by the {@link OutboundQueueFullPolicy#DROP_NEWEST}
+ * and {@link OutboundQueueFullPolicy#DROP_OLDEST} policies are kept until
+ * the transport takes them with {@link #removeDropped()}, so it can notify
+ * their callbacks without holding the lock of the queue.
+ *
+ * Device twin and device method messages are small and are needed to keep
+ * the device manageable, so they are never held back by the limits, but they
+ * are counted in the queue depth. They are also kept in their own
+ * {@link OutboundQueueLane#CONTROL} lane, which is always drained before the
+ * {@link OutboundQueueLane#TELEMETRY} lane, so they never wait behind a
+ * backlog of telemetry. Packets keep their order within a lane.
+ *
+ * The packets whose message has an expiry time are also indexed by that
+ * time, so {@link #removeExpired(long)} finds the expired packets anywhere in
+ * the queue at a cost that depends on their number, not on the queue length.
+ */
+public final class IotHubOutboundQueue extends AbstractQueue<IotHubOutboundPacket>
+{
+    private final DeviceClientConfig config;
+
+    private final Lane controlLane = new Lane();
+    private final Lane telemetryLane = new Lane();
+    private long queuedBytes = 0;
+
+    /** The queued packets that can expire, in the order they expire. */
+    private final TreeSet<Entry> expiryIndex = new TreeSet<>(EXPIRY_ORDER);
+    private long nextEntrySequenceNumber = 0;
+
+    /** The packets discarded by the queue full policy, not yet taken by {@link #removeDropped()}. */
+    private List<IotHubOutboundPacket> droppedPackets = new ArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong droppedMessageCount = new AtomicLong(0);
+    private final AtomicLong rejectedMessageCount = new AtomicLong(0);
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Selects the packets a transport can send now, so it can take them out
+     * of the queue while the others stay in place.
+     */
+    public interface PacketFilter
+    {
+        /**
+         * Called holding the lock of the queue, so it shall be quick and
+         * shall never call the queue.
+         *
+         * @param packet a queued packet.
+         * @return {@code true} if the packet can be taken out of the queue, {@code false} to leave it in place.
+         */
+        boolean accept(IotHubOutboundPacket packet);
+    }
+
+    private static final Comparator<Entry> EXPIRY_ORDER = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry first, Entry second)
+        {
+            if (first.expiryTime != second.expiryTime)
+            {
+                return (first.expiryTime < second.expiryTime) ? -1 : 1;
+            }
+            return (first.sequenceNumber < second.sequenceNumber) ? -1 : ((first.sequenceNumber == second.sequenceNumber) ? 0 : 1);
+        }
+    };
+
+    private static final class Entry
+    {
+        private final IotHubOutboundPacket packet;
+        private final long sizeInBytes;
+        private final boolean isControl;
+        /** The absolute expiry time of the message, or 0 if it never expires. */
+        private final long expiryTime;
+        private long sequenceNumber;
+        private long enqueuedNanos;
+
+        // links of the lane, so an expired entry can be unlinked from anywhere in it
+        private Entry previous;
+        private Entry next;
+
+        private Entry(IotHubOutboundPacket packet, long sizeInBytes)
+        {
+            this.packet = packet;
+            this.sizeInBytes = sizeInBytes;
+            this.isControl = packet.isControlMessage();
+            this.expiryTime = packet.getExpiryTime();
+        }
+    }
+
+    /** A first in, first out list of entries, linked through the entries themselves. */
+    private static final class Lane
+    {
+        private Entry head;
+        private Entry tail;
+        private int size = 0;
+        private long dequeuedCount = 0;
+        private long totalQueueNanos = 0;
+        private long maxQueueNanos = 0;
+
+        private boolean isEmpty()
+        {
+            return this.head == null;
+        }
+
+        private void addLast(Entry entry)
+        {
+            entry.previous = this.tail;
+            entry.next = null;
+            if (this.tail == null)
+            {
+                this.head = entry;
+            }
+            else
+            {
+                this.tail.next = entry;
+            }
+            this.tail = entry;
+            this.size++;
+        }
+
+        private void addFirst(Entry entry)
+        {
+            entry.previous = null;
+            entry.next = this.head;
+            if (this.head == null)
+            {
+                this.tail = entry;
+            }
+            else
+            {
+                this.head.previous = entry;
+            }
+            this.head = entry;
+            this.size++;
+        }
+
+        private void unlink(Entry entry)
+        {
+            if (entry.previous == null)
+            {
+                this.head = entry.next;
+            }
+            else
+            {
+                entry.previous.next = entry.next;
+            }
+            if (entry.next == null)
+            {
+                this.tail = entry.previous;
+            }
+            else
+            {
+                entry.next.previous = entry.previous;
+            }
+            entry.previous = null;
+            entry.next = null;
+            this.size--;
+        }
+
+        private OutboundQueueLaneStatistics getStatistics(long nowNanos)
+        {
+            Entry oldest = this.head;
+            long oldestAgeNanos = (oldest == null) ? 0 : nowNanos - oldest.enqueuedNanos;
+            long averageQueueNanos = (this.dequeuedCount == 0) ? 0 : this.totalQueueNanos / this.dequeuedCount;
+
+            return new OutboundQueueLaneStatistics(this.size, this.dequeuedCount,
+                    TimeUnit.NANOSECONDS.toMillis(averageQueueNanos),
+                    TimeUnit.NANOSECONDS.toMillis(this.maxQueueNanos),
+                    TimeUnit.NANOSECONDS.toMillis(oldestAgeNanos));
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param config the client configuration that holds the queue limits. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the config is {@code null}.
+     */
+    public IotHubOutboundQueue(DeviceClientConfig config)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_001: [If the config is null, the constructor shall throw IllegalArgumentException.]
+        if (config == null)
+        {
+            throw new IllegalArgumentException("Parameter 'config' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_002: [The constructor shall save the config.]
+        this.config = config;
+    }
+
+    /**
+     * Adds a new packet to the queue, applying the configured limits. If the
+     * queue is full, the configured {@link OutboundQueueFullPolicy} decides
+     * what happens to the packet. With the {@link OutboundQueueFullPolicy#BLOCK}
+     * policy, this call blocks until there is room or the block timeout expires,
+     * unless it is made from a drain pass, which never waits.
+     *
+     * @param packet the packet to add. Cannot be {@code null}.
+     * @return {@code false} if the packet was rejected and its callback shall
+     * be notified, {@code true} otherwise, including when a packet was dropped.
+     * The callbacks of the dropped packets shall be notified after taking them
+     * with {@link #removeDropped()}.
+     * @throws IllegalArgumentException if the packet is {@code null}.
+     */
+    public boolean enqueue(IotHubOutboundPacket packet)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_003: [If the packet is null, the function shall throw IllegalArgumentException.]
+        if (packet == null)
+        {
+            throw new IllegalArgumentException("Parameter 'packet' must not be null");
+        }
+
+        return enqueueEntries(Collections.singletonList(new Entry(packet, packet.getBodySize())));
+    }
+
+    /**
+     * Adds a batch of new packets to the queue as one unit, applying the
+     * configured limits to the batch as a whole. Either all the packets are
+     * added, next to each other, or none of them is. If the queue is full, the
+     * configured {@link OutboundQueueFullPolicy} decides what happens to the
+     * whole batch, in the same way as for a single packet.
+     *
+     * @param packets the packets to add. Cannot be {@code null}, empty, or contain {@code null}.
+     * @return {@code false} if the batch was rejected and the callbacks of its
+     * packets shall be notified, {@code true} otherwise, including when the
+     * batch was dropped. The callbacks of the dropped packets shall be notified
+     * after taking them with {@link #removeDropped()}.
+     * @throws IllegalArgumentException if the list is {@code null} or empty, or contains a {@code null} packet.
+     */
+    public boolean enqueueAll(List<IotHubOutboundPacket> packets)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_017: [If the list is null or empty, or contains a null packet, the function shall throw IllegalArgumentException.]
+        if (packets == null || packets.isEmpty())
+        {
+            throw new IllegalArgumentException("Parameter 'packets' must not be null or empty");
+        }
+
+        List<Entry> batch = new ArrayList<>(packets.size());
+        for (IotHubOutboundPacket packet : packets)
+        {
+            if (packet == null)
+            {
+                throw new IllegalArgumentException("Parameter 'packets' must not contain null");
+            }
+            batch.add(new Entry(packet, packet.getBodySize()));
+        }
+
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_018: [The function shall apply the limits and the outbound queue full policy to the batch as a whole, so that either all the packets are added next to each other at the end of the queue, or none of them is.]
+        return enqueueEntries(batch);
+    }
+
+    /**
+     * Adds a packet to the end of the queue without applying the limits. Used
+     * by the transport to put back packets that were already accepted by
+     * {@link #enqueue(IotHubOutboundPacket)} or {@link #enqueueAll(List)}
+     * and then taken out to be sent. Such a packet was already counted against
+     * the limits once, and applying them again could drop or reject a message
+     * the application was told was queued, or block the sending thread on
+     * itself. New messages shall never be added through this method.
+     *
+     * @param packet the packet to add.
+     * @return always {@code true}.
+     */
+    @Override
+    public boolean offer(IotHubOutboundPacket packet)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_009: [If the packet is null, the function shall throw IllegalArgumentException.]
+        if (packet == null)
+        {
+            throw new IllegalArgumentException("Parameter 'packet' must not be null");
+        }
+
+        long sizeInBytes = packet.getBodySize();
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_010: [The function shall add the packet to the end of its lane regardless of the limits, and return true.]
+            add(new Entry(packet, sizeInBytes));
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a packet back at the head of its lane without applying the limits.
+     * Used by the transport for a packet it took out to send and could not
+     * send because the connection was lost, so the packet is sent first once
+     * the connection is restored, and keeps its place before the packets
+     * queued after it. New messages shall never be added through this method.
+     *
+     * @param packet the packet to put back. Cannot be {@code null}.
+     * @return always {@code true}.
+     * @throws IllegalArgumentException if the packet is {@code null}.
+     */
+    public boolean offerFirst(IotHubOutboundPacket packet)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_025: [If the packet is null, the function shall throw IllegalArgumentException.]
+        if (packet == null)
+        {
+            throw new IllegalArgumentException("Parameter 'packet' must not be null");
+        }
+
+        long sizeInBytes = packet.getBodySize();
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_026: [The function shall add the packet to the head of its lane regardless of the limits, and return true.]
+            Entry entry = new Entry(packet, sizeInBytes);
+            index(entry);
+            (entry.isControl ? this.controlLane : this.telemetryLane).addFirst(entry);
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public IotHubOutboundPacket poll()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_011: [The function shall remove and return the packet at the head of the queue, or return null if the queue is empty.]
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_019: [The head of the queue shall be the head of the CONTROL lane if it is not empty, and the head of the TELEMETRY lane otherwise.]
+            Lane lane = this.controlLane.isEmpty() ? this.telemetryLane : this.controlLane;
+            Entry entry = lane.head;
+            if (entry == null)
+            {
+                return null;
+            }
+            return dequeue(lane, entry);
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the first packet, from head to tail, that the
+     * filter accepts. The packets the filter rejects are left in place, so a
+     * transport can skip the packets it cannot send yet, for example those of
+     * a link without credit, without taking them out and putting them back.
+     *
+     * @param filter the filter of the packets that can be taken. Cannot be {@code null}.
+     * @return the first packet the filter accepts, or {@code null} if it accepts none.
+     * @throws IllegalArgumentException if the filter is {@code null}.
+     */
+    public IotHubOutboundPacket pollFirst(PacketFilter filter)
+    {
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_028: [If the filter is null, the function shall throw IllegalArgumentException.]
+        if (filter == null)
+        {
+            throw new IllegalArgumentException("Parameter 'filter' must not be null");
+        }
+
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_029: [The function shall remove and return the first packet of the CONTROL lane, then of the TELEMETRY lane, that the filter accepts, leaving the packets it rejects in place, or return null if it accepts none.]
+            for (Lane lane : new Lane[] { this.controlLane, this.telemetryLane })
+            {
+                for (Entry entry = lane.head; entry != null; entry = entry.next)
+                {
+                    if (filter.accept(entry.packet))
+                    {
+                        return dequeue(lane, entry);
+                    }
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public IotHubOutboundPacket peek()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_013: [The function shall return the packet at the head of the queue without removing it, or return null if the queue is empty.]
+            Entry entry = this.controlLane.isEmpty() ? this.telemetryLane.head : this.controlLane.head;
+            return (entry == null) ? null : entry.packet;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_014: [The function shall return the number of packets in the queue.]
+            return queuedCount();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue. The iterator does not
+     * support {@code remove}.
+     *
+     * @return an iterator over the packets in the queue, from head to tail,
+     * that is, the CONTROL lane followed by the TELEMETRY lane.
+     */
+    @Override
+    public Iterator<IotHubOutboundPacket> iterator()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_015: [The function shall return a read only iterator over a snapshot of the queue.]
+            List<IotHubOutboundPacket> snapshot = new ArrayList<>(queuedCount());
+            for (Entry entry = this.controlLane.head; entry != null; entry = entry.next)
+            {
+                snapshot.add(entry.packet);
+            }
+            for (Entry entry = this.telemetryLane.head; entry != null; entry = entry.next)
+            {
+                snapshot.add(entry.packet);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the queue statistics.
+     *
+     * @return a snapshot of the queue depth, of the drop and reject counters,
+     * and of the depth and queueing latency of each lane.
+     */
+    public OutboundQueueStatistics getStatistics()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_016: [The function shall return the number of queued packets, their total body size in bytes, and the number of dropped and rejected packets.]
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_021: [The function shall return, for each lane, the number of queued packets, the number of dequeued packets, their average and maximum time in the queue, and the age of the oldest queued packet.]
+            long nowNanos = System.nanoTime();
+            Map<OutboundQueueLane, OutboundQueueLaneStatistics> laneStatistics = new EnumMap<>(OutboundQueueLane.class);
+            laneStatistics.put(OutboundQueueLane.CONTROL, this.controlLane.getStatistics(nowNanos));
+            laneStatistics.put(OutboundQueueLane.TELEMETRY, this.telemetryLane.getStatistics(nowNanos));
+
+            return new OutboundQueueStatistics(queuedCount(), this.queuedBytes,
+                    this.droppedMessageCount.get(), this.rejectedMessageCount.get(), laneStatistics);
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the packets whose message expired, wherever they are in the
+     * queue. Only the expired packets are visited, so the cost depends on
+     * their number and not on the length of the queue.
+     *
+     * @param nowMillis the current time, in milliseconds since the epoch. A
+     * message expires once this time is past its expiry time.
+     * @return the removed packets, in the order they expired, or an empty list
+     * if none expired.
+     */
+    public List<IotHubOutboundPacket> removeExpired(long nowMillis)
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_022: [The function shall remove from their lanes the packets whose message expiry time is set and earlier than the provided time, and return them in the order of their expiry time.]
+            if (this.expiryIndex.isEmpty() || (this.expiryIndex.first().expiryTime >= nowMillis))
+            {
+                return Collections.emptyList();
+            }
+
+            List<IotHubOutboundPacket> expired = new ArrayList<>();
+            while (!this.expiryIndex.isEmpty() && (this.expiryIndex.first().expiryTime < nowMillis))
+            {
+                Entry entry = this.expiryIndex.first();
+                remove(entry.isControl ? this.controlLane : this.telemetryLane, entry);
+                expired.add(entry.packet);
+            }
+
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_023: [If any packet was removed, the function shall wake up the callers blocked waiting for room.]
+            this.notFull.signalAll();
+            return expired;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean enqueueEntries(List<Entry> batch)
+    {
+        // device twin and device method packets are not held back by the limits,
+        // so only the others count toward the room the batch needs.
+        int limitedCount = 0;
+        long limitedBytes = 0;
+        for (Entry entry : batch)
+        {
+            if (!entry.isControl)
+            {
+                limitedCount++;
+                limitedBytes += entry.sizeInBytes;
+            }
+        }
+
+        OutboundQueueFullPolicy policy = this.config.getOutboundQueueFullPolicy();
+
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_004: [If the packet is a device twin or device method message, or if there is room for the packet, the function shall add it to the end of its lane and return true.]
+            if ((limitedCount == 0) || hasRoomFor(limitedCount, limitedBytes))
+            {
+                addAll(batch);
+                return true;
+            }
+
+            if (policy == OutboundQueueFullPolicy.DROP_NEWEST)
+            {
+                // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_005: [If the queue is full and the policy is DROP_NEWEST, the function shall discard the packet, count it as dropped, keep it to be returned by removeDropped, and return true.]
+                drop(batch);
+                logger.LogDebug("Outbound queue is full, dropped the newest message, method name is %s ", logger.getMethodName());
+                return true;
+            }
+
+            if (policy == OutboundQueueFullPolicy.DROP_OLDEST)
+            {
+                // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_006: [If the queue is full and the policy is DROP_OLDEST, the function shall discard the oldest packets that are not device twin or device method messages, counting each as dropped and keeping each to be returned by removeDropped, until there is room, then add the packet and return true.]
+                // only the TELEMETRY lane holds packets that can be dropped.
+                while (!hasRoomFor(limitedCount, limitedBytes) && !this.telemetryLane.isEmpty())
+                {
+                    Entry oldest = this.telemetryLane.head;
+                    remove(this.telemetryLane, oldest);
+                    drop(Collections.singletonList(oldest));
+                }
+                logger.LogDebug("Outbound queue is full, dropped the oldest messages, method name is %s ", logger.getMethodName());
+
+                if (hasRoomFor(limitedCount, limitedBytes))
+                {
+                    addAll(batch);
+                }
+                else
+                {
+                    // the packets alone are larger than the limits.
+                    drop(batch);
+                }
+                return true;
+            }
+
+            if (policy == OutboundQueueFullPolicy.BLOCK)
+            {
+                // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_007: [If the queue is full and the policy is BLOCK, the function shall wait until there is room for the packet or the block timeout expires. If room is made, the function shall add the packet and return true.]
+                // packets larger than the limits would never fit, so they are rejected without waiting.
+                // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_027: [If the queue is full, the policy is BLOCK and the function is called from the drain pass of a signalled task, the function shall not wait for room.]
+                // a drain pass may run on a thread shared with other clients, so it never waits.
+                long remainingNanos = (exceedsLimits(limitedCount, limitedBytes) || IotHubSignalledTask.isInDrainPass()) ?
+                        0 : TimeUnit.MILLISECONDS.toNanos(this.config.getOutboundQueueBlockTimeoutMillis());
+                try
+                {
+                    while (!hasRoomFor(limitedCount, limitedBytes) && remainingNanos > 0)
+                    {
+                        remainingNanos = this.notFull.awaitNanos(remainingNanos);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (hasRoomFor(limitedCount, limitedBytes))
+                {
+                    addAll(batch);
+                    return true;
+                }
+            }
+
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_008: [If the queue is full and the policy is REJECT, or the block timeout expired, the function shall count the packet as rejected and return false.]
+            this.rejectedMessageCount.addAndGet(batch.size());
+            logger.LogDebug("Outbound queue is full, rejected the message, method name is %s ", logger.getMethodName());
+            return false;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the packets discarded by the queue full policy since the last
+     * call. The transport shall complete each of them, after releasing any
+     * lock of its own, with the status
+     * {@link IotHubStatusCode#MESSAGE_CANCELLED_QUEUE_FULL}.
+     *
+     * @return the dropped packets, in the order they were dropped, or an
+     * empty list if none was dropped.
+     */
+    public List<IotHubOutboundPacket> removeDropped()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_024: [The function shall return the packets dropped since its last call, in the order they were dropped, and forget them.]
+            if (this.droppedPackets.isEmpty())
+            {
+                return Collections.emptyList();
+            }
+
+            List<IotHubOutboundPacket> dropped = this.droppedPackets;
+            this.droppedPackets = new ArrayList<>();
+            return dropped;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    private IotHubOutboundPacket dequeue(Lane lane, Entry entry)
+    {
+        remove(lane, entry);
+
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_020: [The function shall count the packet as dequeued from its lane and record the time it spent in the queue.]
+        long queueNanos = System.nanoTime() - entry.enqueuedNanos;
+        lane.dequeuedCount++;
+        lane.totalQueueNanos += queueNanos;
+        lane.maxQueueNanos = Math.max(lane.maxQueueNanos, queueNanos);
+
+        // Codes_SRS_IOTHUBOUTBOUNDQUEUE_45_012: [The function shall wake up the callers blocked waiting for room.]
+        this.notFull.signalAll();
+        return entry.packet;
+    }
+
+    private void drop(List<Entry> entries)
+    {
+        for (Entry entry : entries)
+        {
+            this.droppedPackets.add(entry.packet);
+        }
+        this.droppedMessageCount.addAndGet(entries.size());
+    }
+
+    private void addAll(List<Entry> batch)
+    {
+        for (Entry entry : batch)
+        {
+            add(entry);
+        }
+    }
+
+    private void add(Entry entry)
+    {
+        index(entry);
+        (entry.isControl ? this.controlLane : this.telemetryLane).addLast(entry);
+    }
+
+    private void index(Entry entry)
+    {
+        entry.enqueuedNanos = System.nanoTime();
+        entry.sequenceNumber = this.nextEntrySequenceNumber++;
+        this.queuedBytes += entry.sizeInBytes;
+        if (entry.expiryTime != 0)
+        {
+            this.expiryIndex.add(entry);
+        }
+    }
+
+    private void remove(Lane lane, Entry entry)
+    {
+        lane.unlink(entry);
+        this.queuedBytes -= entry.sizeInBytes;
+        if (entry.expiryTime != 0)
+        {
+            this.expiryIndex.remove(entry);
+        }
+    }
+
+    private int queuedCount()
+    {
+        return this.controlLane.size + this.telemetryLane.size;
+    }
+
+    private boolean hasRoomFor(int messageCount, long sizeInBytes)
+    {
+        int maxMessages = this.config.getOutboundQueueMaxMessages();
+        long maxBytes = this.config.getOutboundQueueMaxBytes();
+
+        return ((maxMessages <= 0) || (queuedCount() + messageCount <= maxMessages))
+                && ((maxBytes <= 0) || (this.queuedBytes + sizeInBytes <= maxBytes));
+    }
+
+    private boolean exceedsLimits(int messageCount, long sizeInBytes)
+    {
+        int maxMessages = this.config.getOutboundQueueMaxMessages();
+        long maxBytes = this.config.getOutboundQueueMaxBytes();
+
+        return ((maxMessages > 0) && (messageCount > maxMessages))
+                || ((maxBytes > 0) && (sizeInBytes > maxBytes));
+    }
+}
@@ -4,6 +4,12 @@
 package com.microsoft.azure.sdk.iot.device.transport;
 
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueStatistics;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Sends batched messages and invokes callbacks on completed requests. Meant to
@@ -11,8 +17,18 @@ import com.microsoft.azure.sdk.iot.device.CustomLogger;
  */
 public final class IotHubSendTask implements Runnable
 {
+    /* the longest delay of the fallback retry, which doubles while messages stay queued */
+    private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+
     private final IotHubTransport transport;
 
+    /* the signal to raise again while messages stay queued after a pass, if the send is event driven */
+    private volatile IotHubSignalledTask retrySignal = null;
+    private volatile ScheduledExecutorService retryScheduler = null;
+    private volatile long retryDelayMillis = 0;
+    private volatile long nextRetryDelayMillis = 0;
+    private final AtomicBoolean isRetryScheduled = new AtomicBoolean(false);
+
     /**
      * Private logger for class
      */
@@ -53,5 +69,82 @@ public final class IotHubSendTask implements Runnable
             logger.LogError(e.toString() + ": " + e.getMessage());
             logger.LogDebug("Exception on sending queued messages to IoT Hub", e);
         }
+
+        this.scheduleRetryIfQueued();
+    }
+
+    /**
+     * Sets the signal that runs this task when the send is event driven. A
+     * pass can return with messages still queued, because the connection was
+     * lost, the in flight window or the send credit ran out, or the transport
+     * threw. The events that free the path, such as the reconnection, the
+     * acknowledgement of a message or a grant of credit, signal the task
+     * again. Only for a failure no event reports, the task raises the signal
+     * once more after the delay, and doubles the delay up to a few seconds
+     * while messages stay queued, so they are never left behind until an
+     * unrelated message is queued and an idle client is not polled.
+     *
+     * @param retrySignal the signal that runs this task. Can be {@code null} to stop retrying.
+     * @param retryScheduler the scheduler that raises the signal after the delay.
+     * @param retryDelayMillis the first delay before the signal is raised again.
+     */
+    public void setRetrySignal(IotHubSignalledTask retrySignal, ScheduledExecutorService retryScheduler, long retryDelayMillis)
+    {
+        // Codes_SRS_IOTHUBSENDTASK_45_001: [The function shall save the retry signal, the scheduler and the delay.]
+        this.retryScheduler = retryScheduler;
+        this.retryDelayMillis = retryDelayMillis;
+        this.nextRetryDelayMillis = retryDelayMillis;
+        this.retrySignal = retrySignal;
+    }
+
+    private void scheduleRetryIfQueued()
+    {
+        final IotHubSignalledTask signal = this.retrySignal;
+        ScheduledExecutorService scheduler = this.retryScheduler;
+        if (signal == null || scheduler == null || signal.isStopped())
+        {
+            return;
+        }
+
+        try
+        {
+            OutboundQueueStatistics statistics = this.transport.getOutboundQueueStatistics();
+            if (statistics == null || statistics.getQueuedMessageCount() == 0)
+            {
+                // Codes_SRS_IOTHUBSENDTASK_45_005: [If no message is queued after the pass, the function shall reset the retry delay to the delay set with the retry signal.]
+                this.nextRetryDelayMillis = this.retryDelayMillis;
+                return;
+            }
+        }
+        catch (Throwable e)
+        {
+            logger.LogDebug("Exception on reading the outbound queue statistics", e);
+            return;
+        }
+
+        // Codes_SRS_IOTHUBSENDTASK_45_002: [If a retry signal is set and messages are still queued after the pass, the function shall schedule the signal to be raised once after the retry delay, unless a retry is already scheduled.]
+        if (this.isRetryScheduled.compareAndSet(false, true))
+        {
+            // Codes_SRS_IOTHUBSENDTASK_45_004: [The function shall double the retry delay for the next retry, up to 5 seconds, or keep it if it is already longer.]
+            long delayMillis = this.nextRetryDelayMillis;
+            this.nextRetryDelayMillis = Math.max(delayMillis, Math.min(Math.max(delayMillis, 1) * 2, MAX_RETRY_DELAY_MILLIS));
+            try
+            {
+                scheduler.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        isRetryScheduled.set(false);
+                        signal.signal();
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Codes_SRS_IOTHUBSENDTASK_45_003: [If the scheduler rejects the retry, the function shall drop it.]
+                this.isRetryScheduled.set(false);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a drain task on an executor only when there is work for it. Every call
+ * to {@link #signal()} guarantees that the drain task runs at least once after
+ * the call. Signals that arrive while the drain task is running are coalesced
+ * into one more pass, and the task never runs concurrently with itself. When
+ * there are no signals, nothing is scheduled. A task with a timer can also be
+ * signalled once a delay elapsed, for work that is due at a deadline.
+ */
+public final class IotHubSignalledTask implements Runnable
+{
+    /* marks the threads running a drain pass, which may be shared by many clients and so must never wait */
+    private static final ThreadLocal<Boolean> IS_IN_DRAIN_PASS = new ThreadLocal<>();
+
+    private final Runnable drainTask;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+
+    /** Number of signals received since the last drain pass started. */
+    private final AtomicInteger pendingSignals = new AtomicInteger(0);
+    private volatile boolean stopped = false;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param drainTask the task that drains the queued work. Cannot be {@code null}.
+     * @param executor the executor that runs the drain task. Cannot be {@code null}.
+     * @throws IllegalArgumentException if any of the parameters is {@code null}.
+     */
+    public IotHubSignalledTask(Runnable drainTask, Executor executor)
+    {
+        this(drainTask, executor, null);
+    }
+
+    /**
+     * Constructor for a task that can be signalled after a delay.
+     *
+     * @param drainTask the task that drains the queued work. Cannot be {@code null}.
+     * @param executor the executor that runs the drain task. Cannot be {@code null}.
+     * @param timer the scheduler that raises the delayed signals. Can be {@code null} if there are none.
+     * @throws IllegalArgumentException if the drain task or the executor is {@code null}.
+     */
+    public IotHubSignalledTask(Runnable drainTask, Executor executor, ScheduledExecutorService timer)
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_001: [If the drainTask or the executor is null, the constructor shall throw IllegalArgumentException.]
+        if (drainTask == null)
+        {
+            logger.LogError("IotHubSignalledTask constructor called with null value for parameter drainTask");
+            throw new IllegalArgumentException("Parameter 'drainTask' must not be null");
+        }
+        if (executor == null)
+        {
+            logger.LogError("IotHubSignalledTask constructor called with null value for parameter executor");
+            throw new IllegalArgumentException("Parameter 'executor' must not be null");
+        }
+
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_002: [The constructor shall save the drainTask and the executor.]
+        this.drainTask = drainTask;
+        this.executor = executor;
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_013: [The constructor shall save the timer, if any.]
+        this.timer = timer;
+    }
+
+    /**
+     * Signals that there is work to drain. Never blocks.
+     */
+    public void signal()
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_003: [If the task is stopped, the function shall do nothing.]
+        if (this.stopped)
+        {
+            return;
+        }
+
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_004: [If no drain pass is pending or running, the function shall submit this task to the executor.]
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_005: [If a drain pass is pending or running, the function shall only record the signal.]
+        if (this.pendingSignals.getAndIncrement() == 0)
+        {
+            try
+            {
+                this.executor.execute(this);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Codes_SRS_IOTHUBSIGNALLEDTASK_45_006: [If the executor rejects the task, the function shall clear the recorded signals.]
+                logger.LogDebug("Executor rejected the drain task, method name is %s ", logger.getMethodName());
+                this.pendingSignals.set(0);
+            }
+        }
+    }
+
+    /**
+     * Signals that there is work to drain once a delay elapsed, for example
+     * at the deadline of work that waits on purpose. Never blocks.
+     *
+     * @param delayMillis the delay before the signal, in milliseconds.
+     */
+    public void signalAfter(long delayMillis)
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_014: [If the task is stopped or has no timer, the function shall do nothing.]
+        ScheduledExecutorService timer = this.timer;
+        if (this.stopped || timer == null)
+        {
+            return;
+        }
+
+        try
+        {
+            // Codes_SRS_IOTHUBSIGNALLEDTASK_45_015: [The function shall schedule the task to be signalled once on the timer after the delay.]
+            timer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    signal();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Codes_SRS_IOTHUBSIGNALLEDTASK_45_016: [If the timer rejects the signal, the function shall drop it.]
+            logger.LogDebug("Timer rejected the delayed signal, method name is %s ", logger.getMethodName());
+        }
+    }
+
+    /**
+     * Stops the task. Signals received after this call are ignored.
+     */
+    public void stop()
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_007: [The function shall mark the task as stopped.]
+        this.stopped = true;
+    }
+
+    /**
+     * Getter for the stopped state.
+     *
+     * @return {@code true} if the task was stopped, {@code false} otherwise.
+     */
+    public boolean isStopped()
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_008: [The function shall return true if the task was stopped, false otherwise.]
+        return this.stopped;
+    }
+
+    /**
+     * Tells whether the current thread is running the drain pass of a
+     * signalled task. The passes may share their threads with other clients,
+     * so the code they call uses this to never wait.
+     *
+     * @return {@code true} if the current thread is running a drain pass, {@code false} otherwise.
+     */
+    static boolean isInDrainPass()
+    {
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_018: [The function shall return true if the current thread is running a drain pass, false otherwise.]
+        return Boolean.TRUE.equals(IS_IN_DRAIN_PASS.get());
+    }
+
+    public void run()
+    {
+        int observedSignals;
+        do
+        {
+            observedSignals = this.pendingSignals.get();
+
+            // Codes_SRS_IOTHUBSIGNALLEDTASK_45_009: [If the task is stopped, the function shall clear the recorded signals and return.]
+            if (this.stopped)
+            {
+                this.pendingSignals.set(0);
+                return;
+            }
+
+            // Codes_SRS_IOTHUBSIGNALLEDTASK_45_017: [The function shall mark the current thread as running a drain pass while the drain task runs.]
+            Boolean wasInDrainPass = IS_IN_DRAIN_PASS.get();
+            IS_IN_DRAIN_PASS.set(Boolean.TRUE);
+            try
+            {
+                // Codes_SRS_IOTHUBSIGNALLEDTASK_45_010: [The function shall run the drain task.]
+                this.drainTask.run();
+            }
+            // Codes_SRS_IOTHUBSIGNALLEDTASK_45_011: [The function shall not crash because of any error or exception thrown by the drain task.]
+            catch (Throwable e)
+            {
+                logger.LogError(e.toString() + ": " + e.getMessage());
+                logger.LogDebug("Exception on draining the signalled task", e);
+            }
+            finally
+            {
+                IS_IN_DRAIN_PASS.set(wasInDrainPass);
+            }
+        }
+        // Codes_SRS_IOTHUBSIGNALLEDTASK_45_012: [If new signals arrived while the drain task was running, the function shall run the drain task again.]
+        while (!this.pendingSignals.compareAndSet(observedSignals, 0));
+    }
+}
@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.*;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /** An interface for an IoT Hub transport. */
 public interface IotHubTransport extends Closeable
@@ -66,6 +67,16 @@ public interface IotHubTransport extends Closeable
                     IotHubResponseCallback callback,
                     Object callbackContext);
 
+    /**
+     * Adds a batch of packets to the transport queue as one unit, so they are
+     * sent together in the best wire form of the transport. Either all the
+     * packets are queued or, if the queue is full, none of them is.
+     *
+     * @param packets the packets to be sent, each with its own callback and
+     * callback context.
+     */
+    void addMessages(List<IotHubOutboundPacket> packets);
+
     /**
      * Sends all messages on the transport queue. If a previous send attempt had
      * failed, the function will attempt to resend the messages in the previous
@@ -78,6 +89,16 @@ public interface IotHubTransport extends Closeable
     /** Invokes the callbacks for all completed requests. */
     void invokeCallbacks();
 
+    /**
+     * Removes the messages that expired while waiting to be sent, wherever
+     * they are in the queue, and completes their callbacks with
+     * {@link IotHubStatusCode#MESSAGE_EXPIRED}. The cost depends on the number
+     * of expired messages, not on the length of the queue. Transports that
+     * support device twin also fail the device twin requests that waited for
+     * their response past their deadline.
+     */
+    void removeExpiredMessages();
+
     /**
      * <p>
      * Invokes the message callback if a message is found and
@@ -107,4 +128,98 @@ public interface IotHubTransport extends Closeable
      * {@code null} if no callback is provided.
      */
     void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext);
+
+    /**
+     * Registers a task to be signalled whenever the transport has work for the
+     * send path, that is, a message was queued to be sent or a completed request
+     * has a callback waiting to be invoked. Can be {@code null} to stop signalling.
+     *
+     * @param sendSignal the task to signal.
+     */
+    void registerSendSignal(IotHubSignalledTask sendSignal);
+
+    /**
+     * Registers a task to be signalled whenever the IoT Hub pushes a message to
+     * the transport. Transports that only find messages by polling never signal
+     * the task. Can be {@code null} to stop signalling.
+     *
+     * @param receiveSignal the task to signal.
+     */
+    void registerReceiveSignal(IotHubSignalledTask receiveSignal);
+
+    /**
+     * Returns the number of messages the transport has received and not yet
+     * handled. Transports that only find messages by polling return 0.
+     *
+     * @return the number of received messages waiting to be handled.
+     */
+    int getReceivedMessageCount();
+
+    /**
+     * Returns a snapshot of the queue of messages waiting to be sent, with the
+     * number of messages dropped or rejected because the queue was full.
+     *
+     * @return the outbound queue statistics.
+     */
+    OutboundQueueStatistics getOutboundQueueStatistics();
+
+    /**
+     * Registers the executor that runs the callbacks of completed requests,
+     * so a slow callback does not hold the transport locks or stall the send
+     * thread. The callbacks are still invoked one at a time and in order. Can
+     * be {@code null} to invoke them on the thread that calls
+     * {@link #invokeCallbacks()}.
+     *
+     * @param callbackExecutor the executor that runs the callbacks.
+     */
+    void registerCallbackExecutor(Executor callbackExecutor);
+
+    /**
+     * Returns a snapshot of the callbacks waiting to be invoked, with the lag
+     * between the completion of a request and the invocation of its callback.
+     *
+     * @return the callback queue statistics.
+     */
+    CallbackQueueStatistics getCallbackQueueStatistics();
+
+    /**
+     * Returns a snapshot of the window of messages sent and waiting for their
+     * acknowledgement, with the measured round trip. Transports that wait for
+     * each message to be acknowledged before sending the next one return
+     * {@code null}.
+     *
+     * @return the in flight window statistics, or {@code null} if the
+     * transport has no in flight window or is not open yet.
+     */
+    InFlightWindowStatistics getInFlightWindowStatistics();
+
+    /**
+     * Returns a snapshot of the outages of the connection and of the attempts
+     * to restore it. Transports that do not restore their connection in the
+     * background return {@code null}.
+     *
+     * @return the reconnect statistics, or {@code null} if the transport does
+     * not restore its connection in the background or is not open yet.
+     */
+    ReconnectStatistics getReconnectStatistics();
+
+    /**
+     * Returns a snapshot of the credit the IoT Hub granted to send messages,
+     * and of the times the transport ran out of it. Transports whose protocol
+     * has no send credit return {@code null}.
+     *
+     * @return the send credit statistics, or {@code null} if the transport
+     * has no send credit or is not open yet.
+     */
+    SendCreditStatistics getSendCreditStatistics();
+
+    /**
+     * Returns the number of device twin requests sent by the transport and
+     * waiting for their response. The requests that wait past their deadline
+     * are failed by {@link #removeExpiredMessages()}.
+     *
+     * @return the number of pending device twin requests, or 0 if the
+     * transport does not support device twin or is not open yet.
+     */
+    int getPendingTwinRequestCount();
 }
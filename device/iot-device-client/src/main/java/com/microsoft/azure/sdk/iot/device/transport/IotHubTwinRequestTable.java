@@ -0,0 +1,219 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The device twin requests sent to an IoT Hub that still wait for their
+ * response, by request id. The requests are added by the thread that sends
+ * them and removed by the thread that receives the responses, without a
+ * common lock.
+ *
+ * Each request gets a deadline when it is added. The requests are also
+ * filed in a timer wheel, a ring of slots of {@link #TICK_MILLIS}
+ * milliseconds each, by their deadline, so {@link #removeExpired(long)} only
+ * visits the slots of the time elapsed since the last sweep instead of the
+ * whole table. The requests answered in the meantime are dropped from their
+ * slot when it is visited.
+ */
+public final class IotHubTwinRequestTable
+{
+    /** The time a request waits for its response by default, in milliseconds. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 240000L;
+
+    /**
+     * The status of the responses made up for the requests that timed out,
+     * which maps to {@link com.microsoft.azure.sdk.iot.device.IotHubStatusCode#MESSAGE_EXPIRED}.
+     */
+    public static final String TIMEOUT_STATUS = "408";
+
+    static final long TICK_MILLIS = 1000L;
+    /* a turn of the wheel outlasts the default timeout, so a slot mostly holds the requests that expire in it */
+    static final int WHEEL_SIZE = 256;
+
+    private static final long NEVER_SWEPT = -1L;
+
+    private final long timeoutMillis;
+    private final ConcurrentHashMap<String, Request> requests = new ConcurrentHashMap<>();
+
+    /* The wheel is only used by add and removeExpired, guarded by wheelLock. */
+    private final List<List<Request>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final Object wheelLock = new Object();
+    private long lastSweptTick = NEVER_SWEPT;
+
+    private static final class Request
+    {
+        private final String requestId;
+        private final DeviceOperations operation;
+        private final long deadline;
+
+        private Request(String requestId, DeviceOperations operation, long deadline)
+        {
+            this.requestId = requestId;
+            this.operation = operation;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Constructor for a table whose requests wait {@link #DEFAULT_TIMEOUT_MILLIS}
+     * milliseconds for their response.
+     */
+    public IotHubTwinRequestTable()
+    {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeoutMillis the time a request waits for its response, in milliseconds.
+     * @throws IllegalArgumentException if the timeout is not positive.
+     */
+    public IotHubTwinRequestTable(long timeoutMillis)
+    {
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_001: [If the timeout is not positive, the constructor shall throw IllegalArgumentException.]
+        if (timeoutMillis <= 0)
+        {
+            throw new IllegalArgumentException("The timeout of the twin requests must be positive.");
+        }
+
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_002: [The constructor shall save the timeout and create an empty table.]
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < WHEEL_SIZE; i++)
+        {
+            this.wheel.add(new ArrayList<Request>());
+        }
+    }
+
+    /**
+     * Adds a request that waits for its response, replacing any request with
+     * the same id.
+     *
+     * @param requestId the id of the request. Cannot be {@code null}.
+     * @param operation the operation of the request. Cannot be {@code null}.
+     * @param currentTimeMillis the time the request is sent, in milliseconds since the epoch.
+     * @throws IllegalArgumentException if the request id or the operation is {@code null}.
+     */
+    public void add(String requestId, DeviceOperations operation, long currentTimeMillis)
+    {
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_003: [If the request id or the operation is null, the function shall throw IllegalArgumentException.]
+        if (requestId == null || operation == null)
+        {
+            throw new IllegalArgumentException("The request id and the operation cannot be null.");
+        }
+
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_004: [The function shall save the request with a deadline of the timeout after the provided time, replacing any request with the same id, and file it in the slot of the wheel of its deadline.]
+        Request request = new Request(requestId, operation, currentTimeMillis + this.timeoutMillis);
+        this.requests.put(requestId, request);
+
+        synchronized (this.wheelLock)
+        {
+            // a deadline in a slot already swept is filed in the slot the
+            // next sweep starts from, so it is never a whole turn late.
+            long tick = Math.max(request.deadline / TICK_MILLIS, this.lastSweptTick);
+            this.wheel.get(slotOf(tick)).add(request);
+        }
+    }
+
+    /**
+     * Removes the request answered by a response.
+     *
+     * @param requestId the id of the request. Can be {@code null}.
+     * @return the operation of the request, or {@code null} if no request
+     * with this id waits for its response.
+     */
+    public DeviceOperations remove(String requestId)
+    {
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_005: [If the request id is null or no request with this id waits for its response, the function shall return null.]
+        if (requestId == null)
+        {
+            return null;
+        }
+
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_006: [The function shall remove the request and return its operation.]
+        Request request = this.requests.remove(requestId);
+        return (request == null) ? null : request.operation;
+    }
+
+    /**
+     * Removes the requests whose deadline passed.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return the operations of the requests that timed out by request id, in
+     * the order of their deadline slot.
+     */
+    public Map<String, DeviceOperations> removeExpired(long currentTimeMillis)
+    {
+        Map<String, DeviceOperations> expiredRequests = new LinkedHashMap<>();
+        long currentTick = currentTimeMillis / TICK_MILLIS;
+
+        synchronized (this.wheelLock)
+        {
+            // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_007: [The function shall visit the slots of the wheel from the tick of the last sweep up to the current tick, or every slot if it was never swept or a whole turn elapsed.]
+            long firstTick = currentTick - WHEEL_SIZE + 1;
+            if (this.lastSweptTick != NEVER_SWEPT)
+            {
+                firstTick = Math.max(firstTick, this.lastSweptTick);
+            }
+
+            for (long tick = firstTick; tick <= currentTick; tick++)
+            {
+                // the slot is compacted in place, so a busy slot is swept in
+                // a single pass whatever the number of requests it drops.
+                List<Request> slot = this.wheel.get(slotOf(tick));
+                int keptCount = 0;
+                for (int i = 0; i < slot.size(); i++)
+                {
+                    Request request = slot.get(i);
+                    if (this.requests.get(request.requestId) != request)
+                    {
+                        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_008: [The function shall drop from the visited slots the requests that were answered or replaced.]
+                        continue;
+                    }
+
+                    if (request.deadline <= currentTimeMillis)
+                    {
+                        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_009: [The function shall remove the requests of the visited slots whose deadline passed, unless they are answered meanwhile, and return their operations by request id.]
+                        if (this.requests.remove(request.requestId, request))
+                        {
+                            expiredRequests.put(request.requestId, request.operation);
+                        }
+                        continue;
+                    }
+
+                    slot.set(keptCount++, request);
+                }
+                slot.subList(keptCount, slot.size()).clear();
+            }
+
+            this.lastSweptTick = Math.max(this.lastSweptTick, currentTick);
+        }
+
+        return expiredRequests;
+    }
+
+    /**
+     * Getter for the number of requests that wait for their response.
+     *
+     * @return the number of pending requests.
+     */
+    public int size()
+    {
+        // Codes_SRS_IOTHUBTWINREQUESTTABLE_45_010: [The function shall return the number of requests that wait for their response.]
+        return this.requests.size();
+    }
+
+    private static int slotOf(long tick)
+    {
+        return (int) (((tick % WHEEL_SIZE) + WHEEL_SIZE) % WHEEL_SIZE);
+    }
+}
@@ -3,6 +3,8 @@
 
 package com.microsoft.azure.sdk.iot.device.transport;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 public class TransportUtils
 {
     public static final String JAVA_DEVICE_CLIENT_IDENTIFIER = "com.microsoft.azure.sdk.iot.iot-device-client/";
@@ -30,4 +32,19 @@ public class TransportUtils
             return 0;
         }
     }
+
+    /** Generates a reconnection time with an exponential backoff, like
+     * {@link #generateSleepInterval(int)}, spread at random over the upper
+     * half of the interval, so the clients that lost their connection at the
+     * same time do not all reconnect at the same time.
+     *
+     * @param currentAttempt the number of attempts
+     * @return the sleep interval in milliseconds until the next attempt.
+     */
+    public static int generateJitteredSleepInterval(int currentAttempt)
+    {
+        int sleepInterval = generateSleepInterval(currentAttempt);
+        int halfInterval = sleepInterval / 2;
+        return sleepInterval - ThreadLocalRandom.current().nextInt(halfInterval + 1);
+    }
 }
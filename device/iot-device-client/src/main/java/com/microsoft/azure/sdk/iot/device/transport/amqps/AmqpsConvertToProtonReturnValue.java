@@ -9,6 +9,10 @@ public class AmqpsConvertToProtonReturnValue
 
     private MessageType messageType;
 
+    /* estimated once, as the value is kept while its message waits to be sent */
+    private static final long NOT_ESTIMATED = -1;
+    private long estimatedLength = NOT_ESTIMATED;
+
     /**
      * Create a return value object containing the Proton message and the message type.
      *
@@ -43,4 +47,21 @@ public class AmqpsConvertToProtonReturnValue
         // Codes_SRS_AMQPSCONVERTTOPROTONRETURNVALUE_12_003: [The function shall return the current value of messageType private member.]
         return messageType;
     }
+
+    /**
+     * Getter for the estimated length of the encoding of the Proton message.
+     * The length is estimated on the first call only.
+     *
+     * @return the estimated length of the encoding, in bytes.
+     */
+    long getEstimatedLength()
+    {
+        // Codes_SRS_AMQPSCONVERTTOPROTONRETURNVALUE_45_001: [The function shall estimate the encoded length of messageImpl on the first call, and return the same value on the subsequent calls.]
+        if (this.estimatedLength == NOT_ESTIMATED)
+        {
+            this.estimatedLength = AmqpsMessageEncoder.estimateEncodedLength(this.messageImpl);
+        }
+
+        return this.estimatedLength;
+    }
 }
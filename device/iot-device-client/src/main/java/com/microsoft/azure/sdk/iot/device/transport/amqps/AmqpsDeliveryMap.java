@@ -0,0 +1,292 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map of the deliveries sent on AMQP links and not settled yet, keyed by
+ * their delivery tag.
+ *
+ * The delivery tags are never negative, so the map keeps them unboxed in an
+ * open addressing table with linear probing, where -1 marks a free slot. A
+ * removed entry is filled by shifting the following entries of its probe
+ * sequence back, so the table never holds tombstones. The table doubles
+ * once it is half full.
+ *
+ * @param <V> the type of the values.
+ */
+final class AmqpsDeliveryMap<V>
+{
+    private static final long FREE = -1;
+    private static final int MIN_CAPACITY = 16;
+    // 2^64 divided by the golden ratio, which spreads increasing tags over the table.
+    private static final long FIBONACCI_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int shift;
+
+    /**
+     * Constructor.
+     */
+    AmqpsDeliveryMap()
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_001: [The constructor shall create an empty map.]
+        this.allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Adds the value of a delivery, or replaces it if the delivery is
+     * already in the map.
+     *
+     * @param deliveryTag the delivery tag.
+     * @param value the value of the delivery.
+     * @throws IllegalArgumentException if the delivery tag is negative or the value is {@code null}.
+     */
+    synchronized void put(long deliveryTag, V value)
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_002: [If the delivery tag is negative or the value is null, the function shall throw IllegalArgumentException.]
+        if (deliveryTag < 0)
+        {
+            throw new IllegalArgumentException("deliveryTag cannot be negative");
+        }
+        if (value == null)
+        {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+
+        // Codes_SRS_AMQPSDELIVERYMAP_45_003: [The function shall add the value of the delivery, or replace it if the delivery is already in the map.]
+        if ((this.size + 1) * 2 > this.keys.length)
+        {
+            this.resize(this.keys.length * 2);
+        }
+
+        int slot = this.slotOf(deliveryTag);
+        if (this.keys[slot] == FREE)
+        {
+            this.keys[slot] = deliveryTag;
+            this.size++;
+        }
+        this.values[slot] = value;
+    }
+
+    /**
+     * Removes a delivery.
+     *
+     * @param deliveryTag the delivery tag.
+     * @return the value of the delivery, or {@code null} if the delivery is not in the map.
+     */
+    synchronized V remove(long deliveryTag)
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_004: [The function shall remove the delivery and return its value, or return null if the delivery is not in the map.]
+        return this.removeKey(deliveryTag);
+    }
+
+    /**
+     * Removes the deliveries of a range of delivery tags, for example the
+     * deliveries settled by a single disposition.
+     *
+     * @param firstDeliveryTag the first delivery tag of the range.
+     * @param lastDeliveryTag the last delivery tag of the range, included.
+     * @return the values of the deliveries removed, in delivery tag order.
+     */
+    synchronized List<V> removeRange(long firstDeliveryTag, long lastDeliveryTag)
+    {
+        List<V> removed = new ArrayList<>();
+        this.removeRange(firstDeliveryTag, lastDeliveryTag, removed);
+        return removed;
+    }
+
+    /**
+     * Removes the deliveries of a range of delivery tags, and gives their
+     * tags along with their values, so the deliveries of several maps can
+     * be merged in the order they were sent.
+     *
+     * @param firstDeliveryTag the first delivery tag of the range.
+     * @param lastDeliveryTag the last delivery tag of the range, included.
+     * @param removed the list to add the values of the deliveries removed to, in delivery tag order.
+     * @return the delivery tags of the deliveries removed, in the order of their values.
+     */
+    synchronized long[] removeRange(long firstDeliveryTag, long lastDeliveryTag, List<V> removed)
+    {
+        long first = Math.max(firstDeliveryTag, 0);
+        long[] removedTags;
+        int count = 0;
+
+        // Codes_SRS_AMQPSDELIVERYMAP_45_005: [The function shall remove the deliveries of the tags from the first to the last included, and return their values in delivery tag order.]
+        if (lastDeliveryTag - first < this.keys.length)
+        {
+            removedTags = new long[(int) Math.max(0, Math.min(this.size, lastDeliveryTag - first + 1))];
+            for (long deliveryTag = first; deliveryTag <= lastDeliveryTag && this.size > 0; deliveryTag++)
+            {
+                V value = this.removeKey(deliveryTag);
+                if (value != null)
+                {
+                    removed.add(value);
+                    removedTags[count++] = deliveryTag;
+                }
+            }
+        }
+        else
+        {
+            // The range is wider than the table, so look up the tags of the table instead of the tags of the range.
+            removedTags = this.sortedKeys(first, lastDeliveryTag);
+            for (long deliveryTag : removedTags)
+            {
+                removed.add(this.removeKey(deliveryTag));
+            }
+            count = removedTags.length;
+        }
+
+        // Codes_SRS_AMQPSDELIVERYMAP_45_009: [The function shall add the values of the deliveries removed to the provided list, and return their delivery tags in the same order.]
+        return (count == removedTags.length) ? removedTags : Arrays.copyOf(removedTags, count);
+    }
+
+    /**
+     * Removes all the deliveries.
+     *
+     * @return the values of the deliveries removed, in delivery tag order.
+     */
+    synchronized List<V> removeAll()
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_006: [The function shall remove all the deliveries and return their values in delivery tag order.]
+        List<V> removed = new ArrayList<>(this.size);
+        for (long deliveryTag : this.sortedKeys(0, Long.MAX_VALUE))
+        {
+            removed.add(this.get(deliveryTag));
+        }
+
+        this.allocate(MIN_CAPACITY);
+        return removed;
+    }
+
+    /**
+     * Getter for the number of deliveries in the map.
+     *
+     * @return the number of deliveries in the map.
+     */
+    synchronized int size()
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_007: [The function shall return the number of deliveries in the map.]
+        return this.size;
+    }
+
+    /**
+     * Checks if the map is empty.
+     *
+     * @return {@code true} if there is no delivery in the map, and {@code false} otherwise.
+     */
+    synchronized boolean isEmpty()
+    {
+        // Codes_SRS_AMQPSDELIVERYMAP_45_008: [The function shall return true if there is no delivery in the map, and false otherwise.]
+        return this.size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V get(long deliveryTag)
+    {
+        int slot = this.slotOf(deliveryTag);
+        return (this.keys[slot] == FREE) ? null : (V) this.values[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeKey(long deliveryTag)
+    {
+        if (deliveryTag < 0)
+        {
+            return null;
+        }
+
+        int slot = this.slotOf(deliveryTag);
+        if (this.keys[slot] == FREE)
+        {
+            return null;
+        }
+
+        V value = (V) this.values[slot];
+        this.size--;
+
+        // Shift back the following entries that cannot be found anymore once the slot is free.
+        int mask = this.keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; this.keys[next] != FREE; next = (next + 1) & mask)
+        {
+            int home = this.homeOf(this.keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask))
+            {
+                this.keys[hole] = this.keys[next];
+                this.values[hole] = this.values[next];
+                hole = next;
+            }
+        }
+        this.keys[hole] = FREE;
+        this.values[hole] = null;
+
+        return value;
+    }
+
+    private long[] sortedKeys(long firstDeliveryTag, long lastDeliveryTag)
+    {
+        long[] sorted = new long[this.size];
+        int count = 0;
+        for (long key : this.keys)
+        {
+            if (key != FREE && key >= firstDeliveryTag && key <= lastDeliveryTag)
+            {
+                sorted[count++] = key;
+            }
+        }
+
+        sorted = Arrays.copyOf(sorted, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private int homeOf(long deliveryTag)
+    {
+        return (int) ((deliveryTag * FIBONACCI_MULTIPLIER) >>> this.shift);
+    }
+
+    private int slotOf(long deliveryTag)
+    {
+        int mask = this.keys.length - 1;
+        int slot = this.homeOf(deliveryTag);
+        while (this.keys[slot] != FREE && this.keys[slot] != deliveryTag)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.values = new Object[capacity];
+        this.size = 0;
+        this.shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private void resize(int capacity)
+    {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != FREE)
+            {
+                int slot = this.slotOf(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+                this.size++;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the delivery tags of the messages sent on AMQP links.
+ *
+ * The tags come from a single increasing counter, so a tag identifies one
+ * delivery across all the links and connections of the process, and the
+ * disposition of a delivery can be matched to the message it settles. On
+ * the wire, a tag is the decimal string of its value.
+ */
+final class AmqpsDeliveryTag
+{
+    private static final int MAX_TAG_DIGITS = 18;
+
+    private static final AtomicLong NEXT_TAG = new AtomicLong(0);
+
+    private AmqpsDeliveryTag()
+    {
+    }
+
+    /**
+     * Generates the next delivery tag.
+     *
+     * @return the next delivery tag, which is never negative.
+     */
+    static long next()
+    {
+        // Codes_SRS_AMQPSDELIVERYTAG_45_001: [The function shall return the next value of a counter shared by all the links, starting at 0.]
+        return NEXT_TAG.getAndIncrement();
+    }
+
+    /**
+     * Converts a delivery tag to the bytes sent on the wire.
+     *
+     * @param deliveryTag the delivery tag.
+     * @return the decimal string of the delivery tag, in ASCII.
+     * @throws IllegalArgumentException if the delivery tag is negative.
+     */
+    static byte[] toBytes(long deliveryTag)
+    {
+        // Codes_SRS_AMQPSDELIVERYTAG_45_002: [If the delivery tag is negative, the function shall throw IllegalArgumentException.]
+        if (deliveryTag < 0)
+        {
+            throw new IllegalArgumentException("deliveryTag cannot be negative");
+        }
+
+        // Codes_SRS_AMQPSDELIVERYTAG_45_003: [The function shall return the decimal string of the delivery tag in ASCII.]
+        return Long.toString(deliveryTag).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Converts the bytes of a delivery back to its delivery tag.
+     *
+     * @param bytes the bytes of the delivery tag.
+     * @return the delivery tag, or -1 if the bytes are not a delivery tag.
+     */
+    static long fromBytes(byte[] bytes)
+    {
+        // Codes_SRS_AMQPSDELIVERYTAG_45_004: [If the bytes are null, empty, longer than 18 digits or not all decimal digits, the function shall return -1.]
+        if (bytes == null || bytes.length == 0 || bytes.length > MAX_TAG_DIGITS)
+        {
+            return -1;
+        }
+
+        // Codes_SRS_AMQPSDELIVERYTAG_45_005: [The function shall return the value of the decimal digits.]
+        long deliveryTag = 0;
+        for (byte digit : bytes)
+        {
+            if (digit < '0' || digit > '9')
+            {
+                return -1;
+            }
+            deliveryTag = deliveryTag * 10 + (digit - '0');
+        }
+
+        return deliveryTag;
+    }
+}
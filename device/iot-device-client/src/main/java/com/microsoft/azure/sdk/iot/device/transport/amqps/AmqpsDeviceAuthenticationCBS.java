@@ -13,7 +13,6 @@ import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingDeque;
 
@@ -39,7 +38,6 @@ public final class AmqpsDeviceAuthenticationCBS extends AmqpsDeviceAuthenticatio
 
     private final String DEVICES_PATH =  "/devices/";
 
-    private long nextTag = 0;
 
     private final Queue<MessageImpl> waitingMessages = new LinkedBlockingDeque<>();
 
@@ -92,31 +90,20 @@ public final class AmqpsDeviceAuthenticationCBS extends AmqpsDeviceAuthenticatio
             // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_005: [If there is no message in the queue to send the function shall do nothing.]
             while (!this.waitingMessages.isEmpty())
             {
-                byte[] msgData = new byte[1024];
-                int length;
-
                 // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_006: [The function shall read the message from the queue.]
                 MessageImpl outgoingMessage = this.waitingMessages.remove();
 
-                while (true)
-                {
-                    try
-                    {
-                        // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_007: [The function shall encode the message to a buffer.]
-                        length = outgoingMessage.encode(msgData, 0, msgData.length);
-                        break;
-                    }
-                    catch (BufferOverflowException e)
-                    {
-                        // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_008: [The function shall double the buffer if encode throws BufferOverflowException.]
-                        msgData = new byte[msgData.length * 2];
-                    }
-                }
+                // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_007: [The function shall encode the message to a buffer.]
+                // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_45_001: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
+                AmqpsMessageEncoder encoder = AmqpsMessageEncoder.get();
+                int length = encoder.encode(outgoingMessage);
+                byte[] msgData = encoder.getBuffer();
                 // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_009: [The function shall set the delivery tag for the sender.]
-                byte[] deliveryTag = String.valueOf(this.nextTag++).getBytes();
+                // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_45_002: [The function shall take the delivery tag from the AmqpsDeliveryTag counter shared by all the links.]
+                long deliveryTag = AmqpsDeliveryTag.next();
 
-                // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_010: [The function shall call the super class sendMessageAndGetDeliveryHash.]
-                this.sendMessageAndGetDeliveryHash(MessageType.CBS_AUTHENTICATION, msgData, 0, length, deliveryTag);
+                // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_010: [The function shall call the super class sendMessageAndGetDeliveryTag.]
+                this.sendMessageAndGetDeliveryTag(MessageType.CBS_AUTHENTICATION, msgData, 0, length, deliveryTag);
             }
         }
     }
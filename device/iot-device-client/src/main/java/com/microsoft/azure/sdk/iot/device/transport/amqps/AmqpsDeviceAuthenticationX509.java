@@ -41,7 +41,7 @@ public class AmqpsDeviceAuthenticationX509 extends AmqpsDeviceAuthentication
      * Do nothing in SAS case.
      */
     @Override
-    protected AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    protected AmqpsSendReturnValue sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
     {
         // Codes_SRS_AMQPSDEVICEAUTHENTICATIONSAS_12_004: [The function shall override the default behaviour and return null.]
         return null;
@@ -98,7 +98,7 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
     }
 
     /**
-     * Sends the given message and returns with the delivery hash if the message type is methods
+     * Sends the given message and returns with the delivery tag if the message type is methods
      *
      * @param msgData The binary array of the bytes to send
      * @param offset The start offset to copy the bytes from
@@ -106,19 +106,19 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
      * @param deliveryTag The unique identfier of the delivery
      * @return delivery tag
      * @throws IllegalStateException if sender link has not been initialized
-     * @throws IllegalArgumentException if deliveryTag's length is 0
+     * @throws IllegalArgumentException if deliveryTag is negative
      */
     @Override
-    protected AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    protected AmqpsSendReturnValue sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
     {
         if (messageType == MessageType.DEVICE_METHODS)
         {
             // Codes_SRS_AMQPSDEVICEMETHODS_12_010: [The function shall call the super function if the MessageType is DEVICE_METHODS, and return with it's return value.]
-            return super.sendMessageAndGetDeliveryHash(messageType, msgData, offset, length, deliveryTag);
+            return super.sendMessageAndGetDeliveryTag(messageType, msgData, offset, length, deliveryTag);
         }
         else
         {
-            // Codes_SRS_AMQPSDEVICEMETHODS_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery hash.]
+            // Codes_SRS_AMQPSDEVICEMETHODS_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery tag.]
             return new AmqpsSendReturnValue(false, -1);
         }
     }
@@ -17,7 +17,9 @@ import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -32,6 +34,9 @@ public class AmqpsDeviceOperations
     protected static final String USER_ID_KEY = "userId";
     protected static final String AMQPS_APP_PROPERTY_PREFIX = "iothub-app-";
 
+    // The message format of a delivery holding a single AMQP message.
+    private static final int AMQP_MESSAGE_FORMAT = 0;
+
     protected AmqpsDeviceOperationLinkState amqpsSendLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
     protected AmqpsDeviceOperationLinkState amqpsRecvLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
 
@@ -250,7 +255,7 @@ public class AmqpsDeviceOperations
     }
 
     /**
-     * Sends the given message and returns with the delivery hash
+     * Sends the given message and returns with the delivery tag
      * @param messageType The message operation type.
      * @param msgData The binary array of the bytes to send
      * @param offset The start offset to copy the bytes from
@@ -258,9 +263,32 @@ public class AmqpsDeviceOperations
      * @param deliveryTag The unique identfier of the delivery
      * @return delivery tag
      * @throws IllegalStateException if sender link has not been initialized
-     * @throws IllegalArgumentException if deliveryTag's length is 0
+     * @throws IllegalArgumentException if deliveryTag is negative
      */
-    protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        return this.sendDelivery(msgData, offset, length, deliveryTag, AMQP_MESSAGE_FORMAT);
+    }
+
+    /**
+     * Sends the given batched message, whose body holds the encoding of
+     * several messages, and returns with the delivery tag
+     * @param messageType The message operation type.
+     * @param msgData The binary array of the bytes of the batch to send
+     * @param offset The start offset to copy the bytes from
+     * @param length The number of bytes to be send related to the offset
+     * @param deliveryTag The unique identfier of the delivery
+     * @return delivery tag
+     * @throws IllegalStateException if sender link has not been initialized
+     * @throws IllegalArgumentException if deliveryTag is negative
+     */
+    protected synchronized AmqpsSendReturnValue sendBatchAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        // Codes_SRS_AMQPSDEVICEOPERATIONS_45_005: [The function shall send the batch like a message, with a delivery of the batch message format.]
+        return this.sendDelivery(msgData, offset, length, deliveryTag, AmqpsTelemetryBatch.BATCH_MESSAGE_FORMAT);
+    }
+
+    private AmqpsSendReturnValue sendDelivery(byte[] msgData, int offset, int length, long deliveryTag, int messageFormat)
     {
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_019: [The function shall throw IllegalStateException if the sender link is not initialized.]
         if (this.senderLink == null)
@@ -268,29 +296,33 @@ public class AmqpsDeviceOperations
             throw new IllegalStateException("Trying to send but Sender link is not initialized.");
         }
 
-        // Codes_SRS_AMQPSDEVICEOPERATIONS_12_020: [The function shall throw IllegalArgumentException if the deliveryTag length is zero.]
-        if (deliveryTag.length == 0)
+        // Codes_SRS_AMQPSDEVICEOPERATIONS_45_003: [The function shall throw IllegalArgumentException if the deliveryTag is negative.]
+        if (deliveryTag < 0)
         {
-            throw new IllegalArgumentException("Trying deliveryTag cannot be null.");
+            throw new IllegalArgumentException("deliveryTag cannot be negative.");
         }
 
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_021: [The function shall create a Delivery object using the sender link and the deliveryTag.]
-        Delivery delivery = this.senderLink.delivery(deliveryTag);
+        Delivery delivery = this.senderLink.delivery(AmqpsDeliveryTag.toBytes(deliveryTag));
+        if (messageFormat != AMQP_MESSAGE_FORMAT)
+        {
+            delivery.setMessageFormat(messageFormat);
+        }
         try
         {
             // Codes_SRS_AMQPSDEVICEOPERATIONS_12_022: [The function shall try to send the message data using the sender link with the offset and length argument.]
             this.senderLink.send(msgData, offset, length);
             // Codes_SRS_AMQPSDEVICEOPERATIONS_12_023: [The function shall advance the sender link.]
             this.senderLink.advance();
-            // Codes_SRS_AMQPSDEVICEOPERATIONS_12_024: [The function shall set the delivery hash to the value returned by the sender link.]
-            return new AmqpsSendReturnValue(true, delivery.hashCode());
+            // Codes_SRS_AMQPSDEVICEOPERATIONS_45_004: [The function shall return the delivery tag if the sender link sent the message.]
+            return new AmqpsSendReturnValue(true, deliveryTag);
         }
         catch (Exception e)
         {
-            // Codes_SRS_AMQPSDEVICEOPERATIONS_12_025: [If proton failed sending the function shall advance the sender link, release the delivery object and sets the delivery hash to -1.]
+            // Codes_SRS_AMQPSDEVICEOPERATIONS_12_025: [If proton failed sending the function shall advance the sender link, release the delivery object and sets the delivery tag to -1.]
             this.senderLink.advance();
             delivery.free();
-            // Codes_SRS_AMQPSDEVICEOPERATIONS_12_026: [The function shall return with the delivery hash.]
+            // Codes_SRS_AMQPSDEVICEOPERATIONS_12_026: [The function shall return with the delivery tag.]
             return new AmqpsSendReturnValue(false, -1);
         }
     }
@@ -408,6 +440,29 @@ public class AmqpsDeviceOperations
         return null;
     }
 
+    /**
+     * Prototype (empty) function for operation specific implementations to fail the requests that waited for their response past their deadline
+     *
+     * @param currentTimeMillis The current time, in milliseconds since the epoch
+     * @return the responses made up for the requests that timed out, with the callback to handle them
+     */
+    protected List<AmqpsConvertFromProtonReturnValue> removeExpiredRequests(long currentTimeMillis)
+    {
+        // Codes_SRS_AMQPSDEVICEOPERATIONS_45_001: [The prototype function shall return an empty list.]
+        return Collections.emptyList();
+    }
+
+    /**
+     * Prototype (empty) function for operation specific implementations to count the requests waiting for their response
+     *
+     * @return the number of requests waiting for their response
+     */
+    protected int getPendingRequestCount()
+    {
+        // Codes_SRS_AMQPSDEVICEOPERATIONS_45_002: [The prototype function shall return 0.]
+        return 0;
+    }
+
     /**
      * Prototype (empty) function for protected converter function
      *
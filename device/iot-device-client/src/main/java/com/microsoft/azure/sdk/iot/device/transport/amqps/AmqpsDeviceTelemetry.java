@@ -83,7 +83,7 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
     }
 
     /**
-     * Sends the given message and returns with the delivery hash if the message type is telemetry
+     * Sends the given message and returns with the delivery tag if the message type is telemetry
      *
      * @param msgData The binary array of the bytes to send
      * @param offset The start offset to copy the bytes from
@@ -91,15 +91,15 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
      * @param deliveryTag The unique identfier of the delivery
      * @return delivery tag
      * @throws IllegalStateException if sender link has not been initialized
-     * @throws IllegalArgumentException if deliveryTag's length is 0
+     * @throws IllegalArgumentException if deliveryTag is negative
      */
     @Override
-    protected AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    protected AmqpsSendReturnValue sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
     {
         if (messageType == MessageType.DEVICE_TELEMETRY)
         {
             // Codes_SRS_AMQPSDEVICETELEMETRY_12_007: [The function shall call the super function with the arguments and return with it's return value.]
-            return super.sendMessageAndGetDeliveryHash(messageType, msgData, offset, length, deliveryTag);
+            return super.sendMessageAndGetDeliveryTag(messageType, msgData, offset, length, deliveryTag);
         }
         else
         {
@@ -108,6 +108,33 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
         }
     }
 
+    /**
+     * Sends the given batched message and returns with the delivery tag if
+     * the message type is telemetry
+     *
+     * @param msgData The binary array of the bytes of the batch to send
+     * @param offset The start offset to copy the bytes from
+     * @param length The number of bytes to be send related to the offset
+     * @param deliveryTag The unique identfier of the delivery
+     * @return delivery tag
+     * @throws IllegalStateException if sender link has not been initialized
+     * @throws IllegalArgumentException if deliveryTag is negative
+     */
+    @Override
+    protected AmqpsSendReturnValue sendBatchAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        if (messageType == MessageType.DEVICE_TELEMETRY)
+        {
+            // Codes_SRS_AMQPSDEVICETELEMETRY_45_001: [The function shall call the super function with the arguments and return with it's return value.]
+            return super.sendBatchAndGetDeliveryTag(messageType, msgData, offset, length, deliveryTag);
+        }
+        else
+        {
+            // Codes_SRS_AMQPSDEVICETELEMETRY_45_002: [The function shall return an AmqpsSendReturnValue object with false and -1 if the message type is not DEVICE_TELEMETRY.]
+            return new AmqpsSendReturnValue(false, -1);
+        }
+    }
+
     /**
      * Read the message from Proton if the link name matches
      * Set the message type to telemetry
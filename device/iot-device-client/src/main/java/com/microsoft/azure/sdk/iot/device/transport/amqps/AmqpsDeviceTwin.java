@@ -6,6 +6,7 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.Symbol;
@@ -15,7 +16,9 @@ import org.apache.qpid.proton.message.impl.MessageImpl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -46,7 +49,7 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
     private static final String MESSAGE_ANNOTATION_FIELD_VALUE_NOTIFICATIONS_TWIN_PROPERTIES_DESIRED = "/notifications/twin/properties/desired";
     private static final String MESSAGE_ANNOTATION_FIELD_VALUE_PROPERTIES_DESIRED = "/properties/desired";
 
-    Map<String, DeviceOperations> correlationIdList;
+    IotHubTwinRequestTable correlationIdList;
 
     private DeviceClientConfig deviceClientConfig;
 
@@ -82,8 +85,8 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         // Codes_SRS_AMQPSDEVICETWIN_12_007: [The constructor shall generate a UUID amd add it as a correlation ID to the amqpProperties.]
         this.amqpProperties.put(Symbol.getSymbol(CORRELATION_ID_KEY), Symbol.getSymbol(CORRELATION_ID_KEY_PREFIX +  UUID.randomUUID().toString()));
 
-        // Codes_SRS_AMQPSDEVICETWIN_12_009: [The constructor shall create a HashMap for correlationId list.]
-        this.correlationIdList = new HashMap<>();
+        // Codes_SRS_AMQPSDEVICETWIN_12_009: [The constructor shall create a request table for correlationId list.]
+        this.correlationIdList = new IotHubTwinRequestTable();
     }
 
     /**
@@ -113,7 +116,7 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
     }
 
     /**
-     * Sends the given message and returns with the delivery hash if the message type is twin
+     * Sends the given message and returns with the delivery tag if the message type is twin
      *
      * @param msgData The binary array of the bytes to send
      * @param offset The start offset to copy the bytes from
@@ -121,19 +124,19 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
      * @param deliveryTag The unique identfier of the delivery
      * @return delivery tag
      * @throws IllegalStateException if sender link has not been initialized
-     * @throws IllegalArgumentException if deliveryTag's length is 0
+     * @throws IllegalArgumentException if deliveryTag is negative
      */
     @Override
-    protected AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    protected AmqpsSendReturnValue sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException
     {
         if (messageType == MessageType.DEVICE_TWIN)
         {
             // Codes_SRS_AMQPSDEVICETWIN_12_010: [The function shall call the super function if the MessageType is DEVICE_TWIN, and return with it's return value.]
-            return super.sendMessageAndGetDeliveryHash(messageType, msgData, offset, length, deliveryTag);
+            return super.sendMessageAndGetDeliveryTag(messageType, msgData, offset, length, deliveryTag);
         }
         else
         {
-            // Codes_SRS_AMQPSDEVICETWIN_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery hash.]
+            // Codes_SRS_AMQPSDEVICETWIN_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery tag.]
             return new AmqpsSendReturnValue(false, -1);
         }
     }
@@ -286,9 +289,10 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
                 iotHubTransportMessage.setCorrelationId(properties.getCorrelationId().toString());
 
                 // Codes_SRS_AMQPSDEVICETWIN_12_023: [The function shall find the proton correlation ID in the correlationIdList and if it is found, set the operation type to the related response.]
-                if (correlationIdList.containsKey(properties.getCorrelationId().toString()))
+                // Codes_SRS_AMQPSDEVICETWIN_12_043: [The function shall remove the correlation from the correlationId list.]
+                DeviceOperations deviceOperations = this.correlationIdList.remove(properties.getCorrelationId().toString());
+                if (deviceOperations != null)
                 {
-                    DeviceOperations deviceOperations = correlationIdList.get(properties.getCorrelationId().toString());
                     switch (deviceOperations)
                     {
                         case DEVICE_OPERATION_TWIN_GET_REQUEST:
@@ -306,8 +310,6 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
                         default:
                             throw new IOException("Invalid device operation type in protonMessageToIoTHubMessage!");
                     }
-                    // Codes_SRS_AMQPSDEVICETWIN_12_043: [The function shall remove the correlation from the correlationId list.]
-                    this.correlationIdList.remove(properties.getCorrelationId().toString());
                 }
             }
             else
@@ -353,6 +355,57 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         return iotHubTransportMessage;
     }
 
+    /**
+     * Removes the requests that waited for their response past their deadline
+     * and makes up a response for each, with status
+     * {@link IotHubTwinRequestTable#TIMEOUT_STATUS}, so the callers of the
+     * requests learn that they failed.
+     *
+     * @param currentTimeMillis The current time, in milliseconds since the epoch
+     * @return the responses of the requests that timed out, with the device twin message callback
+     */
+    @Override
+    protected List<AmqpsConvertFromProtonReturnValue> removeExpiredRequests(long currentTimeMillis)
+    {
+        List<AmqpsConvertFromProtonReturnValue> timeoutResponses = new ArrayList<>();
+        for (Map.Entry<String, DeviceOperations> expiredRequest : this.correlationIdList.removeExpired(currentTimeMillis).entrySet())
+        {
+            // Codes_SRS_AMQPSDEVICETWIN_45_001: [The function shall remove the requests whose deadline passed from the correlationId list and return for each a response with an empty body, the correlationId of the request, the status TIMEOUT_STATUS and the response operation type of the request, with the device twin message callback and context of the configuration.]
+            IotHubTransportMessage timeoutResponse = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+            timeoutResponse.setCorrelationId(expiredRequest.getKey());
+            timeoutResponse.setStatus(IotHubTwinRequestTable.TIMEOUT_STATUS);
+            timeoutResponse.setIotHubConnectionString(this.deviceClientConfig.getIotHubConnectionString());
+            switch (expiredRequest.getValue())
+            {
+                case DEVICE_OPERATION_TWIN_GET_REQUEST:
+                    timeoutResponse.setDeviceOperationType(DEVICE_OPERATION_TWIN_GET_RESPONSE);
+                    break;
+                case DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST:
+                    timeoutResponse.setDeviceOperationType(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+                    break;
+                default:
+                    // a made up response of a subscription has no desired properties to report
+                    timeoutResponse.setDeviceOperationType(DEVICE_OPERATION_UNKNOWN);
+            }
+            timeoutResponses.add(new AmqpsConvertFromProtonReturnValue(timeoutResponse,
+                    this.deviceClientConfig.getDeviceTwinMessageCallback(), this.deviceClientConfig.getDeviceTwinMessageContext()));
+        }
+
+        return timeoutResponses;
+    }
+
+    /**
+     * Getter for the number of requests waiting for their response
+     *
+     * @return the number of pending device twin requests
+     */
+    @Override
+    protected int getPendingRequestCount()
+    {
+        // Codes_SRS_AMQPSDEVICETWIN_45_002: [The function shall return the number of requests in the correlationId list.]
+        return this.correlationIdList.size();
+    }
+
     /**
      * Creates a proton message from the IoTHub message.
      * @param message the IoTHub input message.
@@ -376,7 +429,7 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         {
             properties.setCorrelationId(UUID.fromString(deviceTwinMessage.getCorrelationId()));
             // Codes_SRS_AMQPSDEVICETWIN_12_045: [The function shall add the correlationId to the correlationIdList if it is not null.]
-            this.correlationIdList.put(deviceTwinMessage.getCorrelationId(), deviceTwinMessage.getDeviceOperationType());
+            this.correlationIdList.add(deviceTwinMessage.getCorrelationId(), deviceTwinMessage.getDeviceOperationType(), System.currentTimeMillis());
         }
         outgoingMessage.setProperties(properties);
 
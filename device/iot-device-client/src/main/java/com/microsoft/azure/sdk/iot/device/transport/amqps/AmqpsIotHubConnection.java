@@ -37,7 +37,13 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private static final int MAX_WAIT_TO_TERMINATE_EXECUTOR = 30;
     private State state;
 
-    private int linkCredit = -1;
+    /** The send window of the links, fed by the flows the IoT Hub sends on them. */
+    private final AmqpsLinkCreditWindow sendCreditWindow = new AmqpsLinkCreditWindow();
+
+    /** The consecutive deliveries settled with the same state, and not notified to the listeners yet. */
+    private long settledFirstDeliveryTag = -1;
+    private long settledLastDeliveryTag = -1;
+    private boolean settledDeliveryState;
     /** The {@link Delivery} tag. */
     private static final String WEB_SOCKET_PATH = "/$iothub/websocket";
     private static final String WEB_SOCKET_SUB_PROTOCOL = "AMQPWSB10";
@@ -384,28 +390,120 @@ public final class AmqpsIotHubConnection extends BaseHandler
      * @param messageType the type of the message being sent
      * @param iotHubConnectionString the connection string to use for sender identification.
      * @throws IOException if send message fails
-     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
+     * @return the delivery tag of the message, or -1 if the connection is closed or the sender link has no credit.
      */
-    public synchronized Integer sendMessage(Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
+    public synchronized long sendMessage(Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
     {
         logger.LogDebug("Entered in method %s", logger.getMethodName());
 
-        Integer deliveryHash = -1;
+        long deliveryTag = -1;
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
-        // credit, the function shall return -1.]
-        if (this.state == State.CLOSED || this.linkCredit <= 0)
+        if (this.state != State.CLOSED)
         {
-            deliveryHash = -1;
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
+            // credit, the function shall return -1.]
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_45_006: [The function shall take the credit to send the message from the send window of the sender link of the message type and the device of the connection string.]
+            String linkName = this.amqpsSessionManager.getSenderLinkName(messageType, iotHubConnectionString);
+            if (this.sendCreditWindow.tryAcquire(linkName))
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_12_024: [The function shall call AmqpsSessionManager.sendMessage with the given parameters.]
+                deliveryTag = this.amqpsSessionManager.sendMessage(message, messageType, iotHubConnectionString);
+                if (deliveryTag == -1)
+                {
+                    // Codes_SRS_AMQPSIOTHUBCONNECTION_45_007: [If the message was not sent, the function shall give the credit back to the send window.]
+                    this.sendCreditWindow.release(linkName);
+                }
+            }
         }
-        else
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery tag.]
+        return deliveryTag;
+    }
+
+    /**
+     * Sends a batch of telemetry messages in one transfer of the telemetry
+     * sender link, which takes a single credit of its send window.
+     *
+     * @param messages the telemetry messages of the batch.
+     * @param iotHubConnectionString the connection string to use for sender identification.
+     * @throws IOException if send message fails
+     * @return the delivery tag of the batch, or -1 if the connection is closed or the sender link has no credit.
+     */
+    public synchronized long sendMessageBatch(List<Message> messages, IotHubConnectionString iotHubConnectionString) throws IOException
+    {
+        long deliveryTag = -1;
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_012: [If the state of the connection is CLOSED or the telemetry sender link of the device has no credit, the function shall return -1.]
+        if (this.state != State.CLOSED)
         {
-            // Codes_SRS_AMQPSIOTHUBCONNECTION_12_024: [The function shall call AmqpsSessionManager.sendMessage with the given parameters.]
-            deliveryHash = this.amqpsSessionManager.sendMessage(message, messageType, iotHubConnectionString);
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_45_013: [The function shall take one credit of the send window of the telemetry sender link of the device for the whole batch.]
+            String linkName = this.amqpsSessionManager.getSenderLinkName(MessageType.DEVICE_TELEMETRY, iotHubConnectionString);
+            if (this.sendCreditWindow.tryAcquire(linkName))
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_45_014: [The function shall call AmqpsSessionManager.sendMessageBatch with the given parameters, and give the credit back to the send window if the batch was not sent.]
+                deliveryTag = this.amqpsSessionManager.sendMessageBatch(messages, iotHubConnectionString);
+                if (deliveryTag == -1)
+                {
+                    this.sendCreditWindow.release(linkName);
+                }
+            }
         }
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
-        return deliveryHash;
+        return deliveryTag;
+    }
+
+    /**
+     * Checks if the connection has a sender link for a message. A message
+     * without one, for example sent by a device the connection was not
+     * opened for, can never be sent on this connection.
+     *
+     * @param messageType the type of the message.
+     * @param iotHubConnectionString the connection string of the device sending the message.
+     * @return {@code true} if the connection has a sender link for the message, and {@code false} otherwise.
+     */
+    public boolean hasSenderLink(MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_015: [The function shall return true if the session manager resolves the name of the sender link of the message type and the device of the connection string, and false otherwise.]
+        return this.amqpsSessionManager.getSenderLinkName(messageType, iotHubConnectionString) != null;
+    }
+
+    /**
+     * Checks if the sender link of a message has no credit to send it. In
+     * this case the link is starved until the IoT Hub grants it more, and
+     * the listeners are notified then.
+     *
+     * @param messageType the type of the message.
+     * @param iotHubConnectionString the connection string of the device sending the message.
+     * @return {@code true} if the sender link has no credit, and {@code false} otherwise.
+     */
+    public boolean isSendCreditStarved(MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_008: [The function shall return false if the send window of the sender link of the message type and the device of the connection string has credit, and true otherwise.]
+        return !this.sendCreditWindow.hasCredit(this.amqpsSessionManager.getSenderLinkName(messageType, iotHubConnectionString));
+    }
+
+    /**
+     * Counts a message held back because its sender link has no credit, in
+     * the statistics of the send window.
+     *
+     * @param messageType the type of the message.
+     * @param iotHubConnectionString the connection string of the device sending the message.
+     */
+    public void countDeferredSend(MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_016: [The function shall count a deferred send on the send window of the sender link of the message type and the device of the connection string.]
+        this.sendCreditWindow.countDeferredSend(this.amqpsSessionManager.getSenderLinkName(messageType, iotHubConnectionString));
+    }
+
+    /**
+     * Returns a snapshot of the send window of the links of the connection.
+     *
+     * @return the send credit statistics.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_009: [The function shall return the statistics of the send window.]
+        return this.sendCreditWindow.getStatistics();
     }
 
     /**
@@ -481,6 +579,19 @@ public final class AmqpsIotHubConnection extends BaseHandler
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
 
+    /**
+     * Event handler for the reactor quiesced event, raised once the reactor
+     * handled all the events it has, for example all the deliveries settled
+     * by the dispositions it just received.
+     * @param event Proton Event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_004: [The event handler shall notify the listeners of the settled deliveries not notified yet.]
+        this.notifySettledDeliveries();
+    }
+
     /**
      * Event handler for reactor final event. Releases the close lock.
      * If reconnection has been set starts the reconnection by calling openAsync()
@@ -622,15 +733,12 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 Delivery d = event.getDelivery();
                 DeliveryState remoteState = d.getRemoteState();
 
-                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) tag to inform the AmqpsIotHubConnection of the message receipt.]
                 boolean state = remoteState.equals(Accepted.getInstance());
                 logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, logger.getMethodName());
-                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", logger.getMethodName());
-                //let any listener know that the message was received by the server
-                for (ServerListener listener : listeners)
-                {
-                    listener.messageSent(d.hashCode(), state);
-                }
+
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_45_003: [If the delivery follows the settled deliveries with the same state, the event handler shall add it to them, and otherwise notify the listeners of the settled deliveries and start new ones with the delivery.]
+                this.settleDelivery(AmqpsDeliveryTag.fromBytes(d.getTag()), state);
                 // release the delivery object which created in sendMessage().
                 d.free();
             }
@@ -663,7 +771,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
     }
 
     /**
-     * Event handler for the link flow event. Handles sending a single message.
+     * Event handler for the link flow event. Saves the credit of the link,
+     * and notifies the listeners if the link was starved, so the messages
+     * held for it are sent as soon as the credit arrives.
      * @param event The Proton Event object.
      */
     @Override
@@ -672,8 +782,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
         logger.LogDebug("Entered in method %s", logger.getMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
-        this.linkCredit = event.getLink().getCredit();
-        logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
+        Link link = event.getLink();
+        int linkCredit = link.getCredit();
+        logger.LogDebug("The link credit value is %s, method name is %s", linkCredit, logger.getMethodName());
+        if (this.sendCreditWindow.onLinkFlow(link.getName(), linkCredit))
+        {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_45_010: [If the link was starved and the flow granted it credit, the event handler shall notify the listeners that send credit is available.]
+            for (ServerListener listener : listeners)
+            {
+                listener.sendCreditAvailable();
+            }
+        }
 
         logger.LogDebug("Exited from method %s", logger.getMethodName());
     }
@@ -794,6 +913,30 @@ public final class AmqpsIotHubConnection extends BaseHandler
         return this.amqpsSessionManager.convertFromProton(amqpsMessage, deviceClientConfig);
     }
 
+    /**
+     * Calls the AmqpsSessionManager to fail the device twin requests that
+     * waited for their response past their deadline.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return the responses made up for the requests that timed out, with the callback to handle them.
+     */
+    protected List<AmqpsConvertFromProtonReturnValue> removeExpiredTwinRequests(long currentTimeMillis)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_001: [The function shall return the timed out requests of the AmqpsSessionManager.]
+        return this.amqpsSessionManager.removeExpiredRequests(currentTimeMillis);
+    }
+
+    /**
+     * Calls the AmqpsSessionManager to count the device twin requests waiting for their response.
+     *
+     * @return the number of pending device twin requests.
+     */
+    protected int getPendingTwinRequestCount()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_002: [The function shall return the number of pending requests of the AmqpsSessionManager.]
+        return this.amqpsSessionManager.getPendingRequestCount();
+    }
+
     /**
      * Notifies all listeners that the connection was lost and attempts to startReconnect to the IoTHub
      * using an exponential backoff interval.
@@ -804,6 +947,12 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
         reconnectCall = true;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_005: [The function shall notify the listeners of the settled deliveries not notified yet before notifying them that the connection has been lost.]
+        this.notifySettledDeliveries();
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_45_011: [The function shall forget the credit of the links of the lost connection.]
+        this.sendCreditWindow.clear();
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_007: [The event handler shall notify all server listeners when that the connection has been lost.]
         for(ServerListener listener : listeners)
         {
@@ -826,6 +975,54 @@ public final class AmqpsIotHubConnection extends BaseHandler
         closeAsync();
     }
 
+    /**
+     * Adds a settled delivery to the consecutive deliveries settled with the
+     * same state, so the listeners are notified of a whole disposition at
+     * once. If the delivery does not follow them, the listeners are notified
+     * of them first.
+     * @param deliveryTag The delivery tag, or -1 if the delivery has no tag of ours.
+     * @param deliveryState The state of the delivery.
+     */
+    private void settleDelivery(long deliveryTag, boolean deliveryState)
+    {
+        if (deliveryTag < 0)
+        {
+            return;
+        }
+
+        if (this.settledFirstDeliveryTag >= 0 && deliveryTag == this.settledLastDeliveryTag + 1 && deliveryState == this.settledDeliveryState)
+        {
+            this.settledLastDeliveryTag = deliveryTag;
+            return;
+        }
+
+        this.notifySettledDeliveries();
+        this.settledFirstDeliveryTag = deliveryTag;
+        this.settledLastDeliveryTag = deliveryTag;
+        this.settledDeliveryState = deliveryState;
+    }
+
+    /**
+     * Notifies all the listeners of the settled deliveries not notified yet.
+     */
+    private void notifySettledDeliveries()
+    {
+        if (this.settledFirstDeliveryTag < 0)
+        {
+            return;
+        }
+
+        logger.LogInfo("Inform listener that messages %s to %s have been sent to IoT Hub along with remote state, method name is %s ", this.settledFirstDeliveryTag, this.settledLastDeliveryTag, logger.getMethodName());
+        //let any listener know that the messages were received by the server
+        for (ServerListener listener : listeners)
+        {
+            listener.messagesSent(this.settledFirstDeliveryTag, this.settledLastDeliveryTag, this.settledDeliveryState);
+        }
+
+        this.settledFirstDeliveryTag = -1;
+        this.settledLastDeliveryTag = -1;
+    }
+
     /**
      * Notifies all the listeners that a message was received from the server.
      * @param msg The message received from server.
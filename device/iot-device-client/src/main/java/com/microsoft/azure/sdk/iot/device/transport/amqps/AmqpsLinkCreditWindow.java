@@ -0,0 +1,163 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.SendCreditStatistics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Send window of the links of an AMQP connection, keyed by link name.
+ *
+ * The window of a link is the credit the IoT Hub granted in its last flow,
+ * minus the messages sent since. A link without credit is starved until a
+ * flow grants it more, so its messages wait instead of being retried.
+ */
+final class AmqpsLinkCreditWindow
+{
+    private final Map<String, Integer> credits = new HashMap<>();
+    private final Set<String> starvedLinks = new HashSet<>();
+    private long starvationCount;
+    private long deferredSendCount;
+
+    /**
+     * Saves the credit granted to a link by a flow.
+     *
+     * @param linkName the name of the link.
+     * @param credit the credit of the link.
+     * @return {@code true} if the link was starved and the flow granted it credit, and {@code false} otherwise.
+     * @throws IllegalArgumentException if the link name is {@code null}.
+     */
+    synchronized boolean onLinkFlow(String linkName, int credit)
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_001: [If the link name is null, the function shall throw IllegalArgumentException.]
+        if (linkName == null)
+        {
+            throw new IllegalArgumentException("linkName cannot be null");
+        }
+
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_002: [The function shall save the credit of the link, and return true if the link was starved and the credit is positive.]
+        this.credits.put(linkName, credit);
+        return credit > 0 && this.starvedLinks.remove(linkName);
+    }
+
+    /**
+     * Checks if a link has credit to send a message, without taking it.
+     *
+     * @param linkName the name of the link, or {@code null} if there is no such link.
+     * @return {@code true} if the link has credit, and {@code false} otherwise.
+     */
+    synchronized boolean hasCredit(String linkName)
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_003: [The function shall return true if the link has positive credit, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+        if (this.creditOf(linkName) > 0)
+        {
+            return true;
+        }
+
+        this.starve(linkName);
+        return false;
+    }
+
+    /**
+     * Takes the credit to send a message on a link.
+     *
+     * @param linkName the name of the link, or {@code null} if there is no such link.
+     * @return {@code true} if the link had credit, and {@code false} otherwise.
+     */
+    synchronized boolean tryAcquire(String linkName)
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_004: [If the link has positive credit, the function shall take one and return true, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+        int credit = this.creditOf(linkName);
+        if (credit > 0)
+        {
+            this.credits.put(linkName, credit - 1);
+            return true;
+        }
+
+        this.starve(linkName);
+        return false;
+    }
+
+    /**
+     * Gives back the credit taken for a message that was not sent.
+     *
+     * @param linkName the name of the link.
+     */
+    synchronized void release(String linkName)
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_005: [If the link has a credit saved, the function shall add one to it.]
+        Integer credit = this.credits.get(linkName);
+        if (credit != null)
+        {
+            this.credits.put(linkName, credit + 1);
+        }
+    }
+
+    /**
+     * Counts a send held back because its link has no credit. The caller
+     * counts each held back message once, however often it checks the
+     * credit of the link before the message is sent.
+     *
+     * @param linkName the name of the link, or {@code null} if there is no such link.
+     */
+    synchronized void countDeferredSend(String linkName)
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_008: [If the link name is not null, the function shall add one to the deferred send count.]
+        if (linkName != null)
+        {
+            this.deferredSendCount++;
+        }
+    }
+
+    /**
+     * Forgets the credit of all the links, for example when the connection
+     * closes and its links go away. The counters are kept.
+     */
+    synchronized void clear()
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_006: [The function shall remove the credit and the starved state of all the links, and keep the counters.]
+        this.credits.clear();
+        this.starvedLinks.clear();
+    }
+
+    /**
+     * Returns a snapshot of the window.
+     *
+     * @return the send credit statistics.
+     */
+    synchronized SendCreditStatistics getStatistics()
+    {
+        // Codes_SRS_AMQPSLINKCREDITWINDOW_45_007: [The function shall return the sum of the positive credits, the number of starved links, the starvation count and the deferred send count.]
+        long availableCredit = 0;
+        for (int credit : this.credits.values())
+        {
+            if (credit > 0)
+            {
+                availableCredit += credit;
+            }
+        }
+
+        return new SendCreditStatistics(!this.starvedLinks.isEmpty(), availableCredit, this.starvedLinks.size(),
+                this.starvationCount, this.deferredSendCount);
+    }
+
+    private int creditOf(String linkName)
+    {
+        Integer credit = (linkName == null) ? null : this.credits.get(linkName);
+        return (credit == null) ? 0 : credit;
+    }
+
+    private void starve(String linkName)
+    {
+        // A send for no link is not held back for credit, so it is not counted.
+        if (linkName != null && this.starvedLinks.add(linkName))
+        {
+            this.starvationCount++;
+        }
+    }
+}
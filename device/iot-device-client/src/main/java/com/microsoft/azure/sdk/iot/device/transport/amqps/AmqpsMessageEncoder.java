@@ -0,0 +1,333 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.AmqpSequence;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Footer;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+
+import java.nio.BufferOverflowException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the proton messages to send in a buffer pooled per thread.
+ *
+ * The buffer is sized from an upper bound of the encoded length of the
+ * message, so a message is encoded in one pass instead of being encoded
+ * again in a buffer twice as large each time it does not fit. Buffers up to
+ * {@link #MAX_POOLED_BUFFER_SIZE} are kept for the next messages encoded on
+ * the same thread, larger ones are dropped once the message is encoded.
+ *
+ * The encoded bytes are only valid until the next message is encoded on the
+ * same thread. The proton sender copies them when the delivery is sent.
+ *
+ * A batch of messages is encoded as the body of a batched message, one data
+ * section per message, each holding the encoding of the message.
+ */
+final class AmqpsMessageEncoder
+{
+    static final int MIN_BUFFER_SIZE = 1024;
+    static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    // The descriptors and constructors of the sections, and the fixed size fields of the header and properties.
+    private static final int SECTIONS_OVERHEAD = 256;
+    // The constructor and the size of a variable width value, or the largest fixed width value.
+    private static final int VALUE_OVERHEAD = 17;
+    // The UTF-8 encoding of a char of a Java string takes at most 3 bytes.
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    // The descriptor of a data section followed by the constructor and the 4 bytes size of a vbin32 value.
+    private static final byte[] DATA_SECTION_PREFIX = { 0x00, 0x53, 0x75, (byte) 0xb0 };
+    private static final int DATA_SECTION_HEADER_SIZE = DATA_SECTION_PREFIX.length + 4;
+
+    private static final ThreadLocal<AmqpsMessageEncoder> ENCODERS = new ThreadLocal<AmqpsMessageEncoder>()
+    {
+        @Override
+        protected AmqpsMessageEncoder initialValue()
+        {
+            return new AmqpsMessageEncoder();
+        }
+    };
+
+    private byte[] pooledBuffer = new byte[MIN_BUFFER_SIZE];
+    private byte[] buffer = this.pooledBuffer;
+
+    private AmqpsMessageEncoder()
+    {
+    }
+
+    /**
+     * Getter for the encoder of the calling thread.
+     *
+     * @return the encoder of the calling thread.
+     */
+    static AmqpsMessageEncoder get()
+    {
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_001: [The function shall return the encoder of the calling thread, and create it the first time the thread calls it.]
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encodes the message in the buffer of the encoder.
+     *
+     * @param message the message to encode.
+     * @return the number of bytes encoded at the start of {@link #getBuffer()}.
+     * @throws IllegalArgumentException if the message is {@code null}.
+     */
+    int encode(Message message)
+    {
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_002: [If the message is null, the function shall throw IllegalArgumentException.]
+        if (message == null)
+        {
+            throw new IllegalArgumentException("message cannot be null");
+        }
+
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_003: [The function shall encode the message in the pooled buffer if it is as large as the estimated encoded length, and in a buffer of the estimated encoded length otherwise.]
+        int size = estimateEncodedLength(message);
+        this.buffer = (size <= this.pooledBuffer.length) ? this.pooledBuffer : this.allocate(size);
+
+        while (true)
+        {
+            try
+            {
+                return message.encode(this.buffer, 0, this.buffer.length);
+            }
+            catch (BufferOverflowException e)
+            {
+                // Codes_SRS_AMQPSMESSAGEENCODER_45_004: [If the message does not fit the buffer, the function shall encode it again in a buffer twice as large, and rethrow the BufferOverflowException if the buffer cannot grow.]
+                this.grow(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the body of a batched message in the buffer of the encoder,
+     * one data section per message of the batch.
+     *
+     * @param messages the messages of the batch.
+     * @return the number of bytes encoded at the start of {@link #getBuffer()}.
+     * @throws IllegalArgumentException if the list of messages is {@code null}
+     * or empty, or holds a {@code null} message.
+     */
+    int encodeBatch(List<Message> messages)
+    {
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_009: [If the list of messages is null, empty or holds a null message, the function shall throw IllegalArgumentException.]
+        if (messages == null || messages.isEmpty())
+        {
+            throw new IllegalArgumentException("messages cannot be null or empty");
+        }
+
+        long estimate = 0;
+        for (Message message : messages)
+        {
+            if (message == null)
+            {
+                throw new IllegalArgumentException("messages cannot hold a null message");
+            }
+            estimate += DATA_SECTION_HEADER_SIZE + estimateEncodedLength(message);
+        }
+
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_010: [The function shall encode the batch in the pooled buffer if it is as large as the sum of the estimated encoded lengths, and in a buffer of that size otherwise.]
+        int size = (int) Math.min(estimate, MAX_BUFFER_SIZE);
+        this.buffer = (size <= this.pooledBuffer.length) ? this.pooledBuffer : this.allocate(size);
+
+        while (true)
+        {
+            try
+            {
+                // Codes_SRS_AMQPSMESSAGEENCODER_45_011: [The function shall encode each message in a data section holding its encoding, in the order of the list.]
+                int position = 0;
+                for (Message message : messages)
+                {
+                    if (this.buffer.length - position < DATA_SECTION_HEADER_SIZE)
+                    {
+                        throw new BufferOverflowException();
+                    }
+
+                    int start = position + DATA_SECTION_HEADER_SIZE;
+                    int length = message.encode(this.buffer, start, this.buffer.length - start);
+
+                    System.arraycopy(DATA_SECTION_PREFIX, 0, this.buffer, position, DATA_SECTION_PREFIX.length);
+                    position += DATA_SECTION_PREFIX.length;
+                    this.buffer[position++] = (byte) (length >>> 24);
+                    this.buffer[position++] = (byte) (length >>> 16);
+                    this.buffer[position++] = (byte) (length >>> 8);
+                    this.buffer[position++] = (byte) length;
+                    position += length;
+                }
+                return position;
+            }
+            catch (BufferOverflowException e)
+            {
+                // Codes_SRS_AMQPSMESSAGEENCODER_45_012: [If the batch does not fit the buffer, the function shall encode it again in a buffer twice as large, and rethrow the BufferOverflowException if the buffer cannot grow.]
+                this.grow(e);
+            }
+        }
+    }
+
+    /**
+     * Getter for the buffer the last message was encoded in.
+     *
+     * @return the buffer the last message was encoded in.
+     */
+    byte[] getBuffer()
+    {
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_005: [The function shall return the buffer the last message was encoded in.]
+        return this.buffer;
+    }
+
+    /**
+     * Estimates an upper bound of the encoded length of a message. The
+     * estimate is exact enough for the body, which is most of a large
+     * message, and errs on the large side for the other sections.
+     *
+     * @param message the message to estimate.
+     * @return the estimated encoded length of the message.
+     */
+    static int estimateEncodedLength(Message message)
+    {
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_006: [The function shall add the length of the body, properties, application properties, annotations and footer of the message to a fixed overhead for the other sections.]
+        long length = SECTIONS_OVERHEAD;
+        length += estimateBody(message.getBody());
+
+        Properties properties = message.getProperties();
+        if (properties != null)
+        {
+            length += estimateValue(properties.getMessageId());
+            length += estimateValue(properties.getUserId());
+            length += estimateValue(properties.getTo());
+            length += estimateValue(properties.getSubject());
+            length += estimateValue(properties.getReplyTo());
+            length += estimateValue(properties.getCorrelationId());
+            length += estimateValue(properties.getContentType());
+            length += estimateValue(properties.getContentEncoding());
+            length += estimateValue(properties.getGroupId());
+            length += estimateValue(properties.getReplyToGroupId());
+        }
+
+        ApplicationProperties applicationProperties = message.getApplicationProperties();
+        if (applicationProperties != null)
+        {
+            length += estimateValue(applicationProperties.getValue());
+        }
+
+        MessageAnnotations messageAnnotations = message.getMessageAnnotations();
+        if (messageAnnotations != null)
+        {
+            length += estimateValue(messageAnnotations.getValue());
+        }
+
+        DeliveryAnnotations deliveryAnnotations = message.getDeliveryAnnotations();
+        if (deliveryAnnotations != null)
+        {
+            length += estimateValue(deliveryAnnotations.getValue());
+        }
+
+        Footer footer = message.getFooter();
+        if (footer != null)
+        {
+            length += estimateValue(footer.getValue());
+        }
+
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_007: [The function shall cap the estimate to the largest buffer it can allocate.]
+        return (int) Math.min(length, MAX_BUFFER_SIZE);
+    }
+
+    private static long estimateBody(Section body)
+    {
+        if (body instanceof Data)
+        {
+            return estimateValue(((Data) body).getValue());
+        }
+        else if (body instanceof AmqpValue)
+        {
+            return estimateValue(((AmqpValue) body).getValue());
+        }
+        else if (body instanceof AmqpSequence)
+        {
+            return estimateValue(((AmqpSequence) body).getValue());
+        }
+
+        return 0;
+    }
+
+    private static long estimateValue(Object value)
+    {
+        long length = VALUE_OVERHEAD;
+
+        if (value instanceof String)
+        {
+            length += (long) ((String) value).length() * MAX_BYTES_PER_CHAR;
+        }
+        else if (value instanceof Symbol)
+        {
+            length += value.toString().length();
+        }
+        else if (value instanceof Binary)
+        {
+            length += ((Binary) value).getLength();
+        }
+        else if (value instanceof byte[])
+        {
+            length += ((byte[]) value).length;
+        }
+        else if (value instanceof Map)
+        {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                length += estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+            }
+        }
+        else if (value instanceof Collection)
+        {
+            for (Object element : (Collection<?>) value)
+            {
+                length += estimateValue(element);
+            }
+        }
+
+        return length;
+    }
+
+    private void grow(BufferOverflowException e)
+    {
+        if (this.buffer.length >= MAX_BUFFER_SIZE)
+        {
+            throw e;
+        }
+        this.buffer = this.allocate((int) Math.min((long) this.buffer.length * 2, MAX_BUFFER_SIZE));
+    }
+
+    private byte[] allocate(int size)
+    {
+        // Round up to a power of two, so messages of close sizes reuse the same buffer.
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size));
+        if (capacity < size)
+        {
+            capacity = (capacity <= MAX_BUFFER_SIZE / 2) ? capacity * 2 : MAX_BUFFER_SIZE;
+        }
+
+        byte[] newBuffer = new byte[capacity];
+
+        // Codes_SRS_AMQPSMESSAGEENCODER_45_008: [The function shall keep a new buffer for the next messages if it is not larger than MAX_POOLED_BUFFER_SIZE.]
+        if (capacity <= MAX_POOLED_BUFFER_SIZE)
+        {
+            this.pooledBuffer = newBuffer;
+        }
+
+        return newBuffer;
+    }
+}
@@ -3,19 +3,19 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 public class AmqpsSendReturnValue
 {
     private boolean deliverySuccessful;
-    private int  deliveryHash;
+    private long deliveryTag;
 
     /**
-     * Create a return value object containing the delivery status and the delivery hash
+     * Create a return value object containing the delivery status and the delivery tag
      *
      * @param deliverySuccessful the delivery state
-     * @param deliveryHash the delivery hash
+     * @param deliveryTag the delivery tag
      */
-    AmqpsSendReturnValue(boolean deliverySuccessful, int deliveryHash)
+    AmqpsSendReturnValue(boolean deliverySuccessful, long deliveryTag)
     {
-        // Codes_SRS_AMQPSSENDRETURNVALUE_12_001: [The constructor shall initialize deliverySuccessful and deliveryHash private member variables with the given arguments.]
+        // Codes_SRS_AMQPSSENDRETURNVALUE_45_001: [The constructor shall initialize deliverySuccessful and deliveryTag private member variables with the given arguments.]
         this.deliverySuccessful = deliverySuccessful;
-        this.deliveryHash = deliveryHash;
+        this.deliveryTag = deliveryTag;
     }
 
     /**
@@ -30,13 +30,13 @@ public class AmqpsSendReturnValue
     }
 
     /**
-     * Getter for the delivery hash.
+     * Getter for the delivery tag.
      *
-     * @return the delivery hash.
+     * @return the delivery tag.
      */
-    int getDeliveryHash()
+    long getDeliveryTag()
     {
-        // Codes_SRS_AMQPSSENDRETURNVALUE_12_003: [The function shall return the current value of deliveryHash private member.]
-        return deliveryHash;
+        // Codes_SRS_AMQPSSENDRETURNVALUE_45_002: [The function shall return the current value of deliveryTag private member.]
+        return deliveryTag;
     }
 }
@@ -4,10 +4,10 @@ import com.microsoft.azure.sdk.iot.device.*;
 import org.apache.qpid.proton.engine.*;
 
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class AmqpsSessionDeviceOperation
@@ -18,14 +18,16 @@ public class AmqpsSessionDeviceOperation
     private final AmqpsDeviceAuthentication amqpsDeviceAuthentication;
 
     private ArrayList<AmqpsDeviceOperations> amqpsDeviceOperationsList = new ArrayList<>();;
+    private Map<MessageType, AmqpsDeviceOperations> amqpsDeviceOperationsByMessageType = new EnumMap<>(MessageType.class);
+    private Map<String, AmqpsDeviceOperations> amqpsDeviceOperationsByLinkName = new HashMap<>();
 
-    private long nextTag = 0;
 
     private Integer openLock = new Integer(1);
 
     private long tokenRenewalPeriodInMillisecSecs = 4000; //45*60*100;
 
     private ScheduledExecutorService taskSchedulerTokenRenewal;
+    private ScheduledFuture<?> tokenRenewalTaskFuture;
     private AmqpsDeviceAuthenticationCBSTokenRenewalTask tokenRenewalTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE = 10*1000;
@@ -58,9 +60,10 @@ public class AmqpsSessionDeviceOperation
         this.amqpsDeviceAuthentication = amqpsDeviceAuthentication;
 
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_003: [The constructor shall create AmqpsDeviceTelemetry, AmqpsDeviceMethods and AmqpsDeviceTwin and add them to the device operations list. ]
-        this.amqpsDeviceOperationsList.add(new AmqpsDeviceTelemetry(this.deviceClientConfig));
-        this.amqpsDeviceOperationsList.add(new AmqpsDeviceMethods(this.deviceClientConfig));
-        this.amqpsDeviceOperationsList.add(new AmqpsDeviceTwin(this.deviceClientConfig));
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_007: [The constructor shall index the device operations by the message type they send and by the name of their links.]
+        this.addDeviceOperation(MessageType.DEVICE_TELEMETRY, new AmqpsDeviceTelemetry(this.deviceClientConfig));
+        this.addDeviceOperation(MessageType.DEVICE_METHODS, new AmqpsDeviceMethods(this.deviceClientConfig));
+        this.addDeviceOperation(MessageType.DEVICE_TWIN, new AmqpsDeviceTwin(this.deviceClientConfig));
 
         this.logger = new CustomLogger(this.getClass());
 
@@ -84,6 +87,45 @@ public class AmqpsSessionDeviceOperation
         }
     }
 
+    /**
+     * Add a device operation to the list and to the indexes used to route
+     * the messages to it.
+     *
+     * @param messageType the type of the messages the operation sends.
+     * @param amqpsDeviceOperations the device operation to add.
+     */
+    private void addDeviceOperation(MessageType messageType, AmqpsDeviceOperations amqpsDeviceOperations)
+    {
+        this.amqpsDeviceOperationsList.add(amqpsDeviceOperations);
+        this.amqpsDeviceOperationsByMessageType.put(messageType, amqpsDeviceOperations);
+        this.amqpsDeviceOperationsByLinkName.put(amqpsDeviceOperations.getSenderLinkTag(), amqpsDeviceOperations);
+        this.amqpsDeviceOperationsByLinkName.put(amqpsDeviceOperations.getReceiverLinkTag(), amqpsDeviceOperations);
+    }
+
+    /**
+     * Getter for the names of the links of the device operations.
+     *
+     * @return the names of the sender and receiver links.
+     */
+    Set<String> getLinkNames()
+    {
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_008: [The function shall return the names of the sender and receiver links of all device operations.]
+        return Collections.unmodifiableSet(this.amqpsDeviceOperationsByLinkName.keySet());
+    }
+
+    /**
+     * Getter for the name of the sender link of a message type.
+     *
+     * @param messageType the message type.
+     * @return the name of the sender link of the device operation of the message type, or {@code null} if there is none.
+     */
+    String getSenderLinkName(MessageType messageType)
+    {
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_012: [The function shall return the name of the sender link of the device operation object of the message type, or null if there is none.]
+        AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsByMessageType.get(messageType);
+        return (amqpsDeviceOperations == null) ? null : amqpsDeviceOperations.getSenderLinkTag();
+    }
+
     /**
      * Release all resources and close all links.
      */
@@ -277,17 +319,17 @@ public class AmqpsSessionDeviceOperation
 
     /**
      * Delegate the send call to device operation objects.
-     * Loop through the device operation list and find the sender
-     * object by message type and deviceId (connection string).
+     * Find the sender object by message type if the deviceId
+     * (connection string) is the one of this device.
      *
      * @param message the message to send.
      * @param messageType the message type to find the sender.
      * @param iotHubConnectionString the deviceconnection string to
      *                               find the sender.
      *
-     * @return Integer
+     * @return the delivery tag, or -1 if the message was not sent.
      */
-    Integer sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
+    long sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
     {
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_012: [The function shall return -1 if the state is not authenticated.]
         if (this.amqpsAuthenticatorState == AmqpsDeviceAuthenticationState.AUTHENTICATED)
@@ -296,28 +338,17 @@ public class AmqpsSessionDeviceOperation
             if (this.deviceClientConfig.getDeviceId() == iotHubConnectionString.getDeviceId())
             {
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_014: [The function shall encode the message and copy the contents to the byte buffer.]
-                byte[] msgData = new byte[1024];
-                int length;
-
-                while (true)
-                {
-                    try
-                    {
-                        length = message.encode(msgData, 0, msgData.length);
-                        break;
-                    }
-                    catch (BufferOverflowException e)
-                    {
-                        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_015: [The function shall doubles the buffer if encode throws BufferOverflowException.]
-                        msgData = new byte[msgData.length * 2];
-                    }
-                }
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_005: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
+                AmqpsMessageEncoder encoder = AmqpsMessageEncoder.get();
+                int length = encoder.encode(message);
+                byte[] msgData = encoder.getBuffer();
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_017: [The function shall set the delivery tag for the sender.]
-                byte[] deliveryTag = String.valueOf(this.nextTag++).getBytes();
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_006: [The function shall take the delivery tag from the AmqpsDeliveryTag counter shared by all the links.]
+                long deliveryTag = AmqpsDeliveryTag.next();
 
-                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_018: [The function shall call sendMessageAndGetDeliveryHash on all device operation objects.]
-                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery hash.]
-                return this.sendMessageAndGetDeliveryHash(messageType, msgData, 0, length, deliveryTag);
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_009: [The function shall call sendMessageAndGetDeliveryTag on the device operation object of the message type.]
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery tag.]
+                return this.sendMessageAndGetDeliveryTag(messageType, msgData, 0, length, deliveryTag);
             }
             else
             {
@@ -331,9 +362,48 @@ public class AmqpsSessionDeviceOperation
     }
 
     /**
-     * Delegate the send call to device operation objects.
-     * Loop through the device operation list and find the sender 
-     * object by message type. 
+     * Delegate the send call of a batch of telemetry messages to the
+     * telemetry device operation object if the deviceId (connection string)
+     * is the one of this device.
+     *
+     * @param messages the telemetry messages of the batch.
+     * @param iotHubConnectionString the deviceconnection string to
+     *                               find the sender.
+     *
+     * @return the delivery tag of the batch, or -1 if the batch was not sent.
+     */
+    long sendMessageBatch(List<org.apache.qpid.proton.message.Message> messages, IotHubConnectionString iotHubConnectionString) throws IOException
+    {
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_013: [The function shall return -1 if the state is not authenticated, or if the deviceId in the connection string is not equal to the deviceId in the config.]
+        if (this.amqpsAuthenticatorState != AmqpsDeviceAuthenticationState.AUTHENTICATED
+                || this.deviceClientConfig.getDeviceId() != iotHubConnectionString.getDeviceId())
+        {
+            return -1;
+        }
+
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_014: [The function shall encode the messages as the body of a batched message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
+        AmqpsMessageEncoder encoder = AmqpsMessageEncoder.get();
+        int length = encoder.encodeBatch(messages);
+        byte[] msgData = encoder.getBuffer();
+        long deliveryTag = AmqpsDeliveryTag.next();
+
+        // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_015: [The function shall call sendBatchAndGetDeliveryTag on the telemetry device operation object and return the delivery tag, or -1 if it did not send the batch.]
+        AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsByMessageType.get(MessageType.DEVICE_TELEMETRY);
+        if (amqpsDeviceOperations != null)
+        {
+            AmqpsSendReturnValue amqpsSendReturnValue = amqpsDeviceOperations.sendBatchAndGetDeliveryTag(MessageType.DEVICE_TELEMETRY, msgData, 0, length, deliveryTag);
+            if (amqpsSendReturnValue.isDeliverySuccessful())
+            {
+                return amqpsSendReturnValue.getDeliveryTag();
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Delegate the send call to the device operation object of the
+     * message type.
      *
      * @param messageType the message type to identify the sender.
      * @param msgData the binary content of the message.
@@ -341,29 +411,26 @@ public class AmqpsSessionDeviceOperation
      * @param length the length of the binary to read.
      * @param deliveryTag the message delivery tag.
      *
-     * @return Integer
+     * @return the delivery tag, or -1 if no device operation object sent the message.
      */
-    private Integer sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException, IOException
+    private long sendMessageAndGetDeliveryTag(MessageType messageType, byte[] msgData, int offset, int length, long deliveryTag) throws IllegalStateException, IllegalArgumentException, IOException
     {
-        Integer deliveryHash = -1;
-
-        for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+        AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsByMessageType.get(messageType);
+        if (amqpsDeviceOperations != null)
         {
-            AmqpsSendReturnValue amqpsSendReturnValue = null;
-            amqpsSendReturnValue = this.amqpsDeviceOperationsList.get(i).sendMessageAndGetDeliveryHash(messageType, msgData, 0, length, deliveryTag);
+            AmqpsSendReturnValue amqpsSendReturnValue = amqpsDeviceOperations.sendMessageAndGetDeliveryTag(messageType, msgData, 0, length, deliveryTag);
             if (amqpsSendReturnValue.isDeliverySuccessful())
             {
-                return amqpsSendReturnValue.getDeliveryHash();
+                return amqpsSendReturnValue.getDeliveryTag();
             }
         }
 
-        return deliveryHash;
+        return -1;
     }
 
     /**
-     * Delegate the onDelivery call to device operation objects.
-     * Loop through the device operation list and find the receiver 
-     * object by link name. 
+     * Delegate the onDelivery call to the device operation object of
+     * the link, or to the authentication object while authenticating.
      *
      * @param linkName the link name to identify the receiver.
      *
@@ -413,13 +480,11 @@ public class AmqpsSessionDeviceOperation
         else
         {
             // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_057: [If the state is other than authenticating the function shall try to read the message from the device operation objects.]
-            for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+            // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_010: [The function shall read the message from the device operation object of the link, and return null if no device operation has a link of this name.]
+            AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsByLinkName.get(linkName);
+            if (amqpsDeviceOperations != null)
             {
-                amqpsMessage = this.amqpsDeviceOperationsList.get(i).getMessageFromReceiverLink(linkName);
-                if (amqpsMessage != null)
-                {
-                    break;
-                }
+                amqpsMessage = amqpsDeviceOperations.getMessageFromReceiverLink(linkName);
             }
         }
 
@@ -438,12 +503,11 @@ public class AmqpsSessionDeviceOperation
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_024: [The function shall return true if any of the operation's link name is a match and return false otherwise.]
         if (this.amqpsAuthenticatorState == AmqpsDeviceAuthenticationState.AUTHENTICATED)
         {
-            for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+            // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_011: [The function shall call isLinkFound on the device operation object of the link only.]
+            AmqpsDeviceOperations amqpsDeviceOperations = this.amqpsDeviceOperationsByLinkName.get(linkName);
+            if (amqpsDeviceOperations != null)
             {
-                if (this.amqpsDeviceOperationsList.get(i).isLinkFound(linkName))
-                {
-                    return true;
-                }
+                return amqpsDeviceOperations.isLinkFound(linkName);
             }
         }
         return false;
@@ -509,6 +573,53 @@ public class AmqpsSessionDeviceOperation
         return amqpsHandleMessageReturnValue;
     }
 
+    /**
+     * Fails the requests of the device operations that waited for their
+     * response past their deadline.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     *
+     * @return the responses made up for the requests that timed out, with
+     *         the callback to handle them.
+     */
+    List<AmqpsConvertFromProtonReturnValue> removeExpiredRequests(long currentTimeMillis)
+    {
+        List<AmqpsConvertFromProtonReturnValue> timeoutResponses = new ArrayList<>();
+
+        if (this.amqpsDeviceOperationsList != null)
+        {
+            for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+            {
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_003: [The function shall collect the timed out requests of all device operations.]
+                timeoutResponses.addAll(this.amqpsDeviceOperationsList.get(i).removeExpiredRequests(currentTimeMillis));
+            }
+        }
+
+        return timeoutResponses;
+    }
+
+    /**
+     * Getter for the number of requests of the device operations waiting
+     * for their response.
+     *
+     * @return the number of pending requests.
+     */
+    int getPendingRequestCount()
+    {
+        int pendingRequestCount = 0;
+
+        if (this.amqpsDeviceOperationsList != null)
+        {
+            for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+            {
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_004: [The function shall return the sum of the pending requests of all device operations.]
+                pendingRequestCount += this.amqpsDeviceOperationsList.get(i).getPendingRequestCount();
+            }
+        }
+
+        return pendingRequestCount;
+    }
+
     /**
      * Restart the renewal thread
      *
@@ -520,12 +631,21 @@ public class AmqpsSessionDeviceOperation
         if (renewalPeriod > 0)
         {
             shutDownScheduler();
+            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
+
+            ClientRuntime clientRuntime = this.deviceClientConfig.getClientRuntime();
+            if (clientRuntime != null)
+            {
+                // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_001: [If a client runtime is configured, the constructor shall schedule the AmqpsDeviceAuthenticationCBSTokenRenewalTask on the scheduler of the runtime instead of creating a scheduler.]
+                this.tokenRenewalTaskFuture = clientRuntime.getScheduler().scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
             if (this.taskSchedulerTokenRenewal == null)
             {
                 this.taskSchedulerTokenRenewal = Executors.newScheduledThreadPool(1);
             }
 
-            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
             this.taskSchedulerTokenRenewal.scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
 
             return true;
@@ -538,6 +658,13 @@ public class AmqpsSessionDeviceOperation
      */
     private void shutDownScheduler()
     {
+        if (this.tokenRenewalTaskFuture != null)
+        {
+            // Codes_SRS_AMQPSESSIONDEVICEOPERATION_45_002: [If the AmqpsDeviceAuthenticationCBSTokenRenewalTask runs on the scheduler of a client runtime, the close shall cancel the task without shutting down the scheduler.]
+            this.tokenRenewalTaskFuture.cancel(false);
+            this.tokenRenewalTaskFuture = null;
+        }
+
         if (this.taskSchedulerTokenRenewal  != null)
         {
             taskSchedulerTokenRenewal.shutdown(); // Disable new tasks from being submitted
@@ -1,5 +1,6 @@
 package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
@@ -8,6 +9,9 @@ import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import org.apache.qpid.proton.engine.*;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 
@@ -23,9 +27,12 @@ public class AmqpsSessionManager
 
     private AmqpsDeviceAuthentication amqpsDeviceAuthentication;
     private ArrayList<AmqpsSessionDeviceOperation> amqpsDeviceSessionList = new ArrayList<>();
+    private Map<String, AmqpsSessionDeviceOperation> amqpsDeviceSessionsByDeviceId = new HashMap<>();
+    private Map<String, AmqpsSessionDeviceOperation> amqpsDeviceSessionsByLinkName = new HashMap<>();
 
     private long SEND_PERIOD_MILLISECONDS = 300;
     private ScheduledExecutorService taskSchedulerCBSSend;
+    private ScheduledFuture<?> cbsAuthSendTaskFuture;
     private AmqpsDeviceAuthenticationCBSSendTask cbsAuthSendTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE_MS = 10*1000;
@@ -62,8 +69,17 @@ public class AmqpsSessionManager
 
                 // Codes_SRS_AMQPSESSIONMANAGER_12_006: [The constructor shall create and start a scheduler for AmqpsDeviceAuthenticationCBSTokenRenewalTask if the authentication type is CBS.]
                 this.cbsAuthSendTask = new AmqpsDeviceAuthenticationCBSSendTask((AmqpsDeviceAuthenticationCBS) this.amqpsDeviceAuthentication);
-                this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
-                this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                ClientRuntime clientRuntime = this.deviceClientConfig.getClientRuntime();
+                if (clientRuntime == null)
+                {
+                    this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
+                    this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    // Codes_SRS_AMQPSESSIONMANAGER_45_001: [If a client runtime is configured, the constructor shall schedule the AmqpsDeviceAuthenticationCBSSendTask on the scheduler of the runtime instead of creating a scheduler.]
+                    this.cbsAuthSendTaskFuture = clientRuntime.getScheduler().scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
 
                 break;
             case X509_CERTIFICATE:
@@ -91,6 +107,13 @@ public class AmqpsSessionManager
         // Codes_SRS_AMQPSESSIONMANAGER_12_009: [The function shall create a new  AmqpsSessionDeviceOperation with the given deviceClietnConfig and add it to the session list.]
         AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(deviceClientConfig, this.amqpsDeviceAuthentication);
         this.amqpsDeviceSessionList.add(amqpsSessionDeviceOperation);
+
+        // Codes_SRS_AMQPSESSIONMANAGER_45_005: [The function shall index the new device session by the device ID of the deviceClientConfig and by the name of its links.]
+        this.amqpsDeviceSessionsByDeviceId.put(deviceClientConfig.getDeviceId(), amqpsSessionDeviceOperation);
+        for (String linkName : amqpsSessionDeviceOperation.getLinkNames())
+        {
+            this.amqpsDeviceSessionsByLinkName.put(linkName, amqpsSessionDeviceOperation);
+        }
     }
 
     /**
@@ -307,19 +330,20 @@ public class AmqpsSessionManager
         String linkName = event.getLink().getName();
         if (this.isAuthenticationOpened())
         {
-            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+            // Codes_SRS_AMQPSESSIONMANAGER_45_006: [The function shall call isLinkFound on the device session of the link only.]
+            AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByLinkName.get(linkName);
+            if (amqpsSessionDeviceOperation != null)
             {
-                isLinkFound = this.amqpsDeviceSessionList.get(i).isLinkFound(linkName);
+                isLinkFound = amqpsSessionDeviceOperation.isLinkFound(linkName);
                 if (isLinkFound == true)
                 {
-                    if (this.amqpsDeviceSessionList.get(i).operationLinksOpened())
+                    if (amqpsSessionDeviceOperation.operationLinksOpened())
                     {
                         synchronized (this.openLinksLock)
                         {
                             // Codes_SRS_AMQPSESSIONMANAGER_12_031: [The function shall call authentication isLinkFound if the authentication is not open and return true if both links are open]
                             this.openLinksLock.notifyLock();
                         }
-                        break;
                     }
                 }
             }
@@ -342,42 +366,90 @@ public class AmqpsSessionManager
         return isLinkFound;
     }
 
+    /**
+     * Find the sender link a message would be sent on, which is the
+     * sender link of the message type in the device session of the
+     * deviceId (connection string).
+     *
+     * @param messageType the message type to find the sender.
+     * @param iotHubConnectionString the device connection string to
+     *                               find the sender.
+     *
+     * @return the name of the sender link, or null if there is none.
+     */
+    String getSenderLinkName(MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        // Codes_SRS_AMQPSESSIONMANAGER_45_009: [The function shall return the name of the sender link of the message type in the device session of the device ID of the connection string, or null if there is no such device session.]
+        if (iotHubConnectionString == null)
+        {
+            return null;
+        }
+
+        AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByDeviceId.get(iotHubConnectionString.getDeviceId());
+        return (amqpsSessionDeviceOperation == null) ? null : amqpsSessionDeviceOperation.getSenderLinkName(messageType);
+    }
+
     /**
      * Delegate the send call to device operation objects. 
-     * Loop through the device operation list and find the sender 
-     * object by message type and deviceId (connection string). 
+     * Find the device session by deviceId (connection string), which
+     * finds the sender object by message type.
      *
      * @param message the message to send.
      * @param messageType the message type to find the sender. 
      * @param iotHubConnectionString the deviceconnection string to 
      *                               find the sender.
      *
-     * @return Integer
+     * @return the delivery tag, or -1 if the message was not sent.
      */
-    Integer sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
+    long sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IOException
     {
-        Integer deliveryHash = -1;
+        long deliveryTag = -1;
 
         if (this.session != null)
         {
-            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+            // Codes_SRS_AMQPSESSIONMANAGER_45_007: [The function shall call sendMessage on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+            AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByDeviceId.get(iotHubConnectionString.getDeviceId());
+            if (amqpsSessionDeviceOperation != null)
             {
-                // Codes_SRS_AMQPSESSIONMANAGER_12_032: [The function shall call sendMessage on all session list member and if there is a successful send return with the deliveryHash, otherwise return -1.]
-                deliveryHash = this.amqpsDeviceSessionList.get(i).sendMessage(message, messageType, iotHubConnectionString);
-                if (deliveryHash != -1)
-                {
-                    break;
-                }
+                deliveryTag = amqpsSessionDeviceOperation.sendMessage(message, messageType, iotHubConnectionString);
+            }
+        }
+
+        return deliveryTag;
+    }
+
+    /**
+     * Delegate the send call of a batch of telemetry messages to the device
+     * session of the deviceId (connection string).
+     *
+     * @param messages the telemetry messages of the batch.
+     * @param iotHubConnectionString the deviceconnection string to
+     *                               find the sender.
+     *
+     * @return the delivery tag of the batch, or -1 if the batch was not sent.
+     */
+    long sendMessageBatch(List<org.apache.qpid.proton.message.Message> messages, IotHubConnectionString iotHubConnectionString) throws IOException
+    {
+        long deliveryTag = -1;
+
+        if (this.session != null)
+        {
+            // Codes_SRS_AMQPSESSIONMANAGER_45_010: [The function shall call sendMessageBatch on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+            AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByDeviceId.get(iotHubConnectionString.getDeviceId());
+            if (amqpsSessionDeviceOperation != null)
+            {
+                deliveryTag = amqpsSessionDeviceOperation.sendMessageBatch(messages, iotHubConnectionString);
             }
         }
 
-        return deliveryHash;
+        return deliveryTag;
     }
 
     /**
      * Delegate the onDelivery call to device operation objects.
-     * Loop through the device operation list and find the receiver 
-     * object by link name. 
+     * Find the device session by link name. The links which are not
+     * operation links, such as the CBS link, are read by all device
+     * sessions, as each one picks the replies to its own requests.
      *
      * @param linkName the link name to identify the receiver.
      *
@@ -393,13 +465,22 @@ public class AmqpsSessionManager
         {
             if (this.isAuthenticationOpened())
             {
-                for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+                // Codes_SRS_AMQPSESSIONMANAGER_45_008: [If the link is a link of a device session, the function shall call getMessageFromReceiverLink on this device session only.]
+                AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByLinkName.get(linkName);
+                if (amqpsSessionDeviceOperation != null)
                 {
-                    // Codes_SRS_AMQPSESSIONMANAGER_12_035: [The function shall call device sessions getMessageFromReceiverLink if the authentication is open.]
-                    amqpsMessage = this.amqpsDeviceSessionList.get(i).getMessageFromReceiverLink(linkName);
-                    if (amqpsMessage != null)
+                    amqpsMessage = amqpsSessionDeviceOperation.getMessageFromReceiverLink(linkName);
+                }
+                else
+                {
+                    for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
                     {
-                        break;
+                        // Codes_SRS_AMQPSESSIONMANAGER_12_035: [The function shall call device sessions getMessageFromReceiverLink if the authentication is open.]
+                        amqpsMessage = this.amqpsDeviceSessionList.get(i).getMessageFromReceiverLink(linkName);
+                        if (amqpsMessage != null)
+                        {
+                            break;
+                        }
                     }
                 }
             }
@@ -426,14 +507,11 @@ public class AmqpsSessionManager
 
         if (this.isAuthenticationOpened())
         {
-            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+            // Codes_SRS_AMQPSESSIONMANAGER_45_006: [The function shall call isLinkFound on the device session of the link only.]
+            AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = this.amqpsDeviceSessionsByLinkName.get(linkName);
+            if (amqpsSessionDeviceOperation != null)
             {
-                // Codes_SRS_AMQPSESSIONMANAGER_12_038: [The function shall call all device session's isLinkFound, and if any of them true return true otherwise return false.]
-                isLinkFound = this.amqpsDeviceSessionList.get(i).isLinkFound(linkName);
-                if (isLinkFound == true)
-                {
-                    break;
-                }
+                isLinkFound = amqpsSessionDeviceOperation.isLinkFound(linkName);
             }
         }
         else
@@ -512,11 +590,59 @@ public class AmqpsSessionManager
         return amqpsConvertFromProtonReturnValue;
     }
 
+    /**
+     * Fails the requests of the managed devices that waited for their
+     * response past their deadline.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     *
+     * @return the responses made up for the requests that timed out, with
+     *         the callback to handle them.
+     */
+    List<AmqpsConvertFromProtonReturnValue> removeExpiredRequests(long currentTimeMillis)
+    {
+        List<AmqpsConvertFromProtonReturnValue> timeoutResponses = new ArrayList<>();
+
+        for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+        {
+            // Codes_SRS_AMQPSESSIONMANAGER_45_003: [The function shall collect the timed out requests of all device sessions.]
+            timeoutResponses.addAll(this.amqpsDeviceSessionList.get(i).removeExpiredRequests(currentTimeMillis));
+        }
+
+        return timeoutResponses;
+    }
+
+    /**
+     * Getter for the number of requests of the managed devices waiting for
+     * their response.
+     *
+     * @return the number of pending requests.
+     */
+    int getPendingRequestCount()
+    {
+        int pendingRequestCount = 0;
+
+        for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+        {
+            // Codes_SRS_AMQPSESSIONMANAGER_45_004: [The function shall return the sum of the pending requests of all device sessions.]
+            pendingRequestCount += this.amqpsDeviceSessionList.get(i).getPendingRequestCount();
+        }
+
+        return pendingRequestCount;
+    }
+
     /**
      * Shut down the CBS authentication sender thread
      */
     private void shutDownScheduler()
     {
+        if (this.cbsAuthSendTaskFuture != null)
+        {
+            // Codes_SRS_AMQPSESSIONMANAGER_45_002: [If the AmqpsDeviceAuthenticationCBSSendTask runs on the scheduler of a client runtime, the function shall cancel the task without shutting down the scheduler.]
+            this.cbsAuthSendTaskFuture.cancel(false);
+            this.cbsAuthSendTaskFuture = null;
+        }
+
         if (this.taskSchedulerCBSSend != null)
         {
             this.taskSchedulerCBSSend.shutdown(); // Disable new tasks from being submitted
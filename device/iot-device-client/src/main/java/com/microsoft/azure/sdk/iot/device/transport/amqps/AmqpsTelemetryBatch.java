@@ -0,0 +1,176 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import org.apache.qpid.proton.message.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Telemetry messages of a device packed to be sent in one batched transfer.
+ *
+ * The IoT Hub accepts a delivery of the batch message format whose body
+ * holds one data section per message, and settles the whole delivery with a
+ * single disposition. A batch is limited by its number of messages and by
+ * the estimated length of its encoding. A message larger than the limit is
+ * still sent, alone in its batch.
+ */
+final class AmqpsTelemetryBatch
+{
+    /** The message format of a delivery holding a batch of messages. */
+    static final int BATCH_MESSAGE_FORMAT = 0x80013700;
+
+    // The data section holding each message of the batch.
+    private static final int DATA_SECTION_OVERHEAD = 8;
+
+    private final int maxMessages;
+    private final int maxBytes;
+
+    private final List<IotHubOutboundPacket> packets = new ArrayList<>();
+    private final List<Message> messages = new ArrayList<>();
+    private IotHubConnectionString iotHubConnectionString;
+    private long estimatedLength;
+
+    /**
+     * Constructor.
+     *
+     * @param maxMessages the largest number of messages of the batch.
+     * @param maxBytes the largest estimated length of the encoding of the batch.
+     * @throws IllegalArgumentException if a limit is smaller than 1.
+     */
+    AmqpsTelemetryBatch(int maxMessages, int maxBytes)
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_001: [If a limit is smaller than 1, the constructor shall throw IllegalArgumentException.]
+        if (maxMessages < 1 || maxBytes < 1)
+        {
+            throw new IllegalArgumentException("batch limits cannot be smaller than 1");
+        }
+
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_002: [The constructor shall create an empty batch with the given limits.]
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks if a message can join the batch.
+     *
+     * @param iotHubConnectionString the connection string of the device sending the message.
+     * @param messageLength the estimated length of the encoding of the proton message.
+     * @return {@code true} if the message can join the batch, and {@code false} if the batch shall be sent first.
+     */
+    boolean fits(IotHubConnectionString iotHubConnectionString, long messageLength)
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_003: [The function shall return true if the batch is empty.]
+        if (this.messages.isEmpty())
+        {
+            return true;
+        }
+
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_004: [The function shall return false if the message is sent by another device than the messages of the batch.]
+        if (!this.iotHubConnectionString.getDeviceId().equals(iotHubConnectionString.getDeviceId()))
+        {
+            return false;
+        }
+
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_005: [The function shall return false if the batch is full or the estimated length of the batch with the message exceeds the size limit.]
+        return !this.isFull()
+                && this.estimatedLength + DATA_SECTION_OVERHEAD + messageLength <= this.maxBytes;
+    }
+
+    /**
+     * Adds a message to the batch.
+     *
+     * @param packet the packet of the message, whose callback gets the status of the batch.
+     * @param iotHubConnectionString the connection string of the device sending the message.
+     * @param message the proton message.
+     * @param messageLength the estimated length of the encoding of the proton message.
+     * @throws IllegalArgumentException if an argument is {@code null}.
+     */
+    void add(IotHubOutboundPacket packet, IotHubConnectionString iotHubConnectionString, Message message, long messageLength)
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_006: [If an argument is null, the function shall throw IllegalArgumentException.]
+        if (packet == null || iotHubConnectionString == null || message == null)
+        {
+            throw new IllegalArgumentException("packet, connection string and message cannot be null");
+        }
+
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_007: [The function shall add the packet and the message to the batch, and add the estimated length of the message to the one of the batch.]
+        this.packets.add(packet);
+        this.messages.add(message);
+        this.iotHubConnectionString = iotHubConnectionString;
+        this.estimatedLength += DATA_SECTION_OVERHEAD + messageLength;
+    }
+
+    /**
+     * Checks if the batch holds as many messages as its limit.
+     *
+     * @return {@code true} if no message can join the batch.
+     */
+    boolean isFull()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_008: [The function shall return true if the batch holds as many messages as its limit.]
+        return this.messages.size() >= this.maxMessages;
+    }
+
+    /**
+     * Checks if the batch holds no message.
+     *
+     * @return {@code true} if the batch holds no message.
+     */
+    boolean isEmpty()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_009: [The function shall return true if the batch holds no message.]
+        return this.messages.isEmpty();
+    }
+
+    /**
+     * Getter for the packets of the messages of the batch, in the order they
+     * were added.
+     *
+     * @return a copy of the packets of the batch.
+     */
+    List<IotHubOutboundPacket> getPackets()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_010: [The function shall return a copy of the packets of the batch, in the order they were added.]
+        return new ArrayList<>(this.packets);
+    }
+
+    /**
+     * Getter for the proton messages of the batch, in the order they were
+     * added.
+     *
+     * @return the proton messages of the batch.
+     */
+    List<Message> getMessages()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_011: [The function shall return the proton messages of the batch, in the order they were added.]
+        return this.messages;
+    }
+
+    /**
+     * Getter for the connection string of the device sending the batch.
+     *
+     * @return the connection string, or {@code null} if the batch is empty.
+     */
+    IotHubConnectionString getIotHubConnectionString()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_012: [The function shall return the connection string of the device sending the batch.]
+        return this.iotHubConnectionString;
+    }
+
+    /**
+     * Removes all the messages of the batch.
+     */
+    void clear()
+    {
+        // Codes_SRS_AMQPSTELEMETRYBATCH_45_013: [The function shall remove all the messages of the batch.]
+        this.packets.clear();
+        this.messages.clear();
+        this.iotHubConnectionString = null;
+        this.estimatedLength = 0;
+    }
+}
@@ -4,14 +4,17 @@
 package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -35,16 +38,24 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     private AmqpsIotHubConnection connection;
 
     /** Messages waiting to be sent to the IoT Hub. */
-    private final Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingQueue<>();
+    private final IotHubOutboundQueue waitingMessages;
 
-    /** Messages which are sent to the IoT Hub but did not receive ack yet. */
-    private final Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+    /** Messages which are sent to the IoT Hub but did not receive ack yet, keyed by delivery tag. */
+    private final AmqpsDeliveryMap<IotHubOutboundPacket> inProgressMessages = new AmqpsDeliveryMap<>();
+
+    /** Batches of telemetry messages which are sent to the IoT Hub but did not receive ack yet, keyed by delivery tag. */
+    private final AmqpsDeliveryMap<List<IotHubOutboundPacket>> inProgressBatches = new AmqpsDeliveryMap<>();
+
+    /** Time the incomplete telemetry batch started waiting for more messages, or NOT_LINGERING. */
+    private static final long NOT_LINGERING = -1;
+    private volatile long telemetryBatchLingerStartMillis = NOT_LINGERING;
 
     /** Messages received from the IoT Hub */
     private final Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
 
     /** Messages whose callbacks that are waiting to be invoked. */
     private final Queue<IotHubCallbackPacket> callbackList = new LinkedBlockingQueue<>();
+    private final IotHubCallbackDispatcher callbackDispatcher = new IotHubCallbackDispatcher();
 
     /** Connection state change callback */
     private IotHubConnectionStateCallback stateCallback;
@@ -55,6 +66,10 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
     private int currentReconnectionAttempt = 1;
 
+    /** Task signalled when there is work for the send path, if any. */
+    private volatile IotHubSignalledTask sendSignal;
+    private volatile IotHubSignalledTask receiveSignal;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -66,6 +81,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         // Codes_SRS_AMQPSTRANSPORT_15_001: [The constructor shall save the input parameters into instance variables.]
         this.deviceClientConfig = config;
+        this.waitingMessages = new IotHubOutboundQueue(config);
 
         this.deviceClientList = null;
 
@@ -200,18 +216,25 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         }
 
         // Codes_SRS_AMQPSTRANSPORT_12_005: [The function shall add a new outbound packet to the callback list.]
-        for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
+        // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
+        for (IotHubOutboundPacket packet : inProgressMessages.removeAll())
         {
-            IotHubOutboundPacket packet = entry.getValue();
             IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getCallback(), packet.getContext());
             this.callbackList.add(callbackPacket);
         }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_029: [The function shall add a MESSAGE_CANCELLED_ONCLOSE callback for every message of the batches in progress to the callback list.]
+        for (List<IotHubOutboundPacket> batch : inProgressBatches.removeAll())
+        {
+            for (IotHubOutboundPacket packet : batch)
+            {
+                this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getCallback(), packet.getContext()));
+            }
+        }
+        this.telemetryBatchLingerStartMillis = NOT_LINGERING;
                     
         // Codes_SRS_AMQPSTRANSPORT_99_037: [The method will invoke all the callbacks..]
         invokeCallbacks(); 
-        
-        // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
-        inProgressMessages.clear();
                        
         logger.LogInfo("Starting to close the connection..., method name is %s ", logger.getMethodName());
        
@@ -243,7 +266,47 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
         // Codes_SRS_AMQPSTRANSPORT_15_011: [The function shall add a packet containing the message, callback, and callback context to the queue of messages waiting to be sent.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingMessages.add(packet);
+        // Codes_SRS_AMQPSTRANSPORT_45_009: [If the outbound queue rejects the packet, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+        if (!this.waitingMessages.enqueue(packet))
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, callback, callbackContext));
+        }
+        this.cancelDroppedMessages();
+        // Codes_SRS_AMQPSTRANSPORT_45_001: [If a send signal is registered, the function shall signal it after adding the packet.]
+        this.signalSend();
+    }
+
+    /**
+     * Adds a batch of packets to the transport queue as one unit.
+     * The batch is transferred back to back on the next send.
+     *
+     * @param packets the packets to be sent, each with its own callback and
+     * callback context.
+     *
+     * @throws IllegalStateException if the transport is closed.
+     */
+    public void addMessages(List<IotHubOutboundPacket> packets) throws IllegalStateException
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_011: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
+        if (this.state == State.CLOSED)
+        {
+            logger.LogError("Cannot add messages when the AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            throw new IllegalStateException("Cannot add messages when the AMQPS transport is closed.");
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_012: [The function shall add the packets to the transport queue as one unit.]
+        if (!this.waitingMessages.enqueueAll(packets))
+        {
+            // Codes_SRS_AMQPSTRANSPORT_45_013: [If the outbound queue rejects the batch, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
+            for (IotHubOutboundPacket packet : packets)
+            {
+                this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, packet.getCallback(), packet.getContext()));
+            }
+        }
+        this.cancelDroppedMessages();
+
+        // Codes_SRS_AMQPSTRANSPORT_45_014: [If a send signal is registered, the function shall signal it once after adding the packets.]
+        this.signalSend();
     }
 
     /**
@@ -266,7 +329,21 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      * <p>
      * Sends all messages from the waiting list, one at a time. If a previous
      * send attempt had failed, the function will attempt to resend the messages
-     * in the previous attempt.
+     * in the previous attempt. The messages of a sender link without credit
+     * stay in place in the waiting list, without being taken out, until the
+     * IoT Hub grants it more. The messages that could not be sent are put
+     * back at the head of the waiting list, in their order. The messages the
+     * connection has no sender link for are completed with status ERROR.
+     * </p>
+     * <p>
+     * If the configuration allows more than one AMQP telemetry message per
+     * batch, the telemetry messages of a device are packed in batches sent in
+     * one transfer each. An incomplete batch waits for more messages until
+     * its linger time elapses, when the send task is signalled again.
+     * </p>
+     * <p>
+     * A message is converted to a Proton message once, and the converted
+     * message is kept on its packet while it waits to be sent.
      * </p>
      *
      * @throws IOException if the server could not be reached.
@@ -288,13 +365,23 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             return;
         }
 
-        Collection<IotHubOutboundPacket> failedMessages = new ArrayList<>() ;
+        List<IotHubOutboundPacket> failedMessages = new ArrayList<>();
+
+        // Codes_SRS_AMQPSTRANSPORT_45_030: [If the configuration allows more than one AMQP telemetry message per batch, the function shall pack the telemetry messages in batches limited by the configured number of messages and size.]
+        AmqpsTelemetryBatch telemetryBatch = null;
+        if (this.deviceClientConfig.getAmqpTelemetryBatchMaxMessages() > 1)
+        {
+            telemetryBatch = new AmqpsTelemetryBatch(this.deviceClientConfig.getAmqpTelemetryBatchMaxMessages(), this.deviceClientConfig.getAmqpTelemetryBatchMaxBytes());
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_026: [The function shall leave the messages of a sender link without credit in place in the waiting list, without converting or sending them, and shall not check the credit of that link again during the pass.]
+        SendablePacketFilter sendablePackets = new SendablePacketFilter();
 
         // Codes_SRS_AMQPSTRANSPORT_15_014: [The function shall attempt to send every message on its waiting list, one at a time.]
-        while (!this.waitingMessages.isEmpty())
+        IotHubOutboundPacket packet;
+        while ((packet = this.waitingMessages.pollFirst(sendablePackets)) != null)
         {
             logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ", logger.getMethodName());
-            IotHubOutboundPacket packet = this.waitingMessages.remove();
 
             Message message = packet.getMessage();
 
@@ -309,12 +396,19 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
                     IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
                     this.callbackList.add(callbackPacket);
                 }
+                // Codes_SRS_AMQPSTRANSPORT_45_041: [If the connection has no sender link for the message, the function shall add a callback with the ERROR status to the callback list without converting or sending the message.]
+                else if (!this.connection.hasSenderLink(sendMessageTypeOf(message), message.getIotHubConnectionString()))
+                {
+                    logger.LogError("No sender link for the message, creating a callback with ERROR status, method name is %s ", logger.getMethodName());
+                    IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.ERROR, packet.getCallback(), packet.getContext());
+                    this.callbackList.add(callbackPacket);
+                }
                 else
                 {
                     logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", logger.getMethodName());
 
                     // Codes_SRS_AMQPSTRANSPORT_12_002: [The function shall call device operation objects to convert the IoTHubMessage to Proton message.]
-                    AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue = this.connection.convertToProton(message);
+                    AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue = this.convertToProton(packet, message);
 
                     // Codes_SRS_AMQPSTRANSPORT_12_003: [The function throws IllegalStateException if none of the device operation object could handle the conversion.]
                     if (amqpsConvertToProtonReturnValue == null)
@@ -336,17 +430,31 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
                         }
                         //Codes_SRS_AMQPSTRANSPORT_34_043: [If the config is using sas token authentication and its sas token has expired and cannot be renewed, the message shall not be put back into the waiting messages queue to be re-sent.]
                     }
+                    else if (telemetryBatch != null && amqpsConvertToProtonReturnValue.getMessageType() == MessageType.DEVICE_TELEMETRY)
+                    {
+                        // Codes_SRS_AMQPSTRANSPORT_45_031: [If the telemetry message does not fit the batch, the function shall send the batch first, then add the message to the batch, and send the batch once it is full.]
+                        if (!telemetryBatch.fits(message.getIotHubConnectionString(), amqpsConvertToProtonReturnValue.getEstimatedLength()))
+                        {
+                            this.sendTelemetryBatch(telemetryBatch, failedMessages);
+                        }
+
+                        telemetryBatch.add(packet, message.getIotHubConnectionString(), amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getEstimatedLength());
+                        if (telemetryBatch.isFull())
+                        {
+                            this.sendTelemetryBatch(telemetryBatch, failedMessages);
+                        }
+                    }
                     else
                     {
                         // Codes_SRS_AMQPSTRANSPORT_15_037: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-                        Integer sendHash = connection.sendMessage(amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
+                        long deliveryTag = connection.sendMessage(amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
 
-                        // Codes_SRS_AMQPSTRANSPORT_15_016: [If the sent message hash is valid, it shall be added to the in progress map.]
-                        if (sendHash != -1)
+                        // Codes_SRS_AMQPSTRANSPORT_15_016: [If the sent message delivery tag is valid, it shall be added to the in progress map.]
+                        if (deliveryTag != -1)
                         {
-                            this.inProgressMessages.put(sendHash, packet);
+                            this.inProgressMessages.put(deliveryTag, packet);
                         }
-                        // Codes_SRS_AMQPSTRANSPORT_15_017: [If the sent message hash is not valid, it shall be buffered to be sent in a subsequent attempt.]
+                        // Codes_SRS_AMQPSTRANSPORT_15_017: [If the sent message delivery tag is not valid, it shall be buffered to be sent in a subsequent attempt.]
                         else
                         {
                             failedMessages.add(packet);
@@ -356,7 +464,180 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             }
         }
 
-        this.waitingMessages.addAll(failedMessages);
+        if (telemetryBatch != null && !telemetryBatch.isEmpty())
+        {
+            long nowMillis = System.currentTimeMillis();
+            if (this.telemetryBatchLingerStartMillis == NOT_LINGERING)
+            {
+                this.telemetryBatchLingerStartMillis = nowMillis;
+
+                // Codes_SRS_AMQPSTRANSPORT_45_036: [When an incomplete telemetry batch starts to linger, the function shall have the registered send task, if any, signalled once its linger time elapsed.]
+                IotHubSignalledTask signal = this.sendSignal;
+                if (signal != null)
+                {
+                    signal.signalAfter(this.deviceClientConfig.getAmqpTelemetryBatchLingerMillis());
+                }
+            }
+
+            if (nowMillis - this.telemetryBatchLingerStartMillis < this.deviceClientConfig.getAmqpTelemetryBatchLingerMillis())
+            {
+                // Codes_SRS_AMQPSTRANSPORT_45_032: [If the last batch is incomplete and its linger time did not elapse, the function shall put its messages back in the waiting list, so they are packed again with the next messages.]
+                failedMessages.addAll(telemetryBatch.getPackets());
+            }
+            else
+            {
+                // Codes_SRS_AMQPSTRANSPORT_45_033: [If the last batch is incomplete and its linger time elapsed, the function shall send it.]
+                this.sendTelemetryBatch(telemetryBatch, failedMessages);
+            }
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_043: [The function shall put the messages it could not send back at the head of the waiting list, in the order they were taken.]
+        this.requeueFirst(failedMessages);
+    }
+
+    /**
+     * Removes the messages and the batches in progress of a range of
+     * delivery tags. The delivery tags are taken from a counter shared by all
+     * the links, so they give the order the messages were sent in.
+     *
+     * @param firstDeliveryTag the first delivery tag of the range.
+     * @param lastDeliveryTag the last delivery tag of the range, included.
+     * @return the packets removed, with the packets of each batch in their place, in the order they were sent.
+     */
+    private List<IotHubOutboundPacket> removeInProgress(long firstDeliveryTag, long lastDeliveryTag)
+    {
+        List<IotHubOutboundPacket> messages = new ArrayList<>();
+        long[] messageTags = this.inProgressMessages.removeRange(firstDeliveryTag, lastDeliveryTag, messages);
+        List<List<IotHubOutboundPacket>> batches = new ArrayList<>();
+        long[] batchTags = this.inProgressBatches.removeRange(firstDeliveryTag, lastDeliveryTag, batches);
+        if (batches.isEmpty())
+        {
+            return messages;
+        }
+
+        List<IotHubOutboundPacket> packets = new ArrayList<>();
+        int messageIndex = 0;
+        int batchIndex = 0;
+        while (messageIndex < messageTags.length || batchIndex < batchTags.length)
+        {
+            if (batchIndex == batchTags.length
+                    || (messageIndex < messageTags.length && messageTags[messageIndex] < batchTags[batchIndex]))
+            {
+                packets.add(messages.get(messageIndex++));
+            }
+            else
+            {
+                packets.addAll(batches.get(batchIndex++));
+            }
+        }
+        return packets;
+    }
+
+    /**
+     * Puts packets back at the head of the waiting list, so they keep their
+     * order and their place before the packets queued after them.
+     *
+     * @param packets the packets to put back, in the order they were taken.
+     */
+    private void requeueFirst(List<IotHubOutboundPacket> packets)
+    {
+        for (ListIterator<IotHubOutboundPacket> iterator = packets.listIterator(packets.size()); iterator.hasPrevious();)
+        {
+            this.waitingMessages.offerFirst(iterator.previous());
+        }
+    }
+
+    /**
+     * Takes out of the waiting list the messages a pass can handle, and
+     * leaves in place the messages of the sender links without credit. The
+     * credit of a link is checked until the link is found starved, and the
+     * link is then skipped for the rest of the pass.
+     */
+    private final class SendablePacketFilter implements IotHubOutboundQueue.PacketFilter
+    {
+        private final Map<MessageType, Set<String>> starvedDeviceIds = new EnumMap<>(MessageType.class);
+
+        @Override
+        public boolean accept(IotHubOutboundPacket packet)
+        {
+            // the pass itself handles the packets without a message. The
+            // expired messages of a starved link stay for the expiry sweep.
+            Message message = packet.getMessage();
+            if (message == null)
+            {
+                return true;
+            }
+
+            MessageType messageType = sendMessageTypeOf(message);
+            IotHubConnectionString iotHubConnectionString = message.getIotHubConnectionString();
+            String deviceId = (iotHubConnectionString == null) ? null : iotHubConnectionString.getDeviceId();
+            Set<String> starvedDevices = this.starvedDeviceIds.get(messageType);
+            if (starvedDevices == null || !starvedDevices.contains(deviceId))
+            {
+                if (!connection.hasSenderLink(messageType, iotHubConnectionString)
+                        || !connection.isSendCreditStarved(messageType, iotHubConnectionString))
+                {
+                    return true;
+                }
+
+                if (starvedDevices == null)
+                {
+                    starvedDevices = new HashSet<>();
+                    this.starvedDeviceIds.put(messageType, starvedDevices);
+                }
+                starvedDevices.add(deviceId);
+            }
+
+            // Codes_SRS_AMQPSTRANSPORT_45_044: [The function shall count each message it leaves in place for a sender link without credit once as a deferred send, however many passes it waits.]
+            if (packet.markDeferred())
+            {
+                connection.countDeferredSend(messageType, iotHubConnectionString);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sends a batch of telemetry messages, and empties it. A batch of one
+     * message is sent as a plain message.
+     *
+     * @param telemetryBatch the batch to send.
+     * @param failedMessages the messages to send in a subsequent attempt.
+     * @throws IOException if the server could not be reached.
+     */
+    private void sendTelemetryBatch(AmqpsTelemetryBatch telemetryBatch, List<IotHubOutboundPacket> failedMessages) throws IOException
+    {
+        List<IotHubOutboundPacket> packets = telemetryBatch.getPackets();
+        if (packets.size() == 1)
+        {
+            // Codes_SRS_AMQPSTRANSPORT_45_034: [A batch of one message shall be sent as a plain message and added to the in progress map.]
+            long deliveryTag = this.connection.sendMessage(telemetryBatch.getMessages().get(0), MessageType.DEVICE_TELEMETRY, telemetryBatch.getIotHubConnectionString());
+            if (deliveryTag != -1)
+            {
+                this.inProgressMessages.put(deliveryTag, packets.get(0));
+            }
+            else
+            {
+                failedMessages.add(packets.get(0));
+            }
+        }
+        else
+        {
+            // Codes_SRS_AMQPSTRANSPORT_45_035: [The function shall send a batch of several messages in one transfer, and add its messages to the map of batches in progress under the delivery tag of the transfer, or buffer them to be sent in a subsequent attempt if the transfer was not sent.]
+            long deliveryTag = this.connection.sendMessageBatch(telemetryBatch.getMessages(), telemetryBatch.getIotHubConnectionString());
+            if (deliveryTag != -1)
+            {
+                logger.LogInfo("Sent a batch of %s telemetry messages, method name is %s ", packets.size(), logger.getMethodName());
+                this.inProgressBatches.put(deliveryTag, packets);
+            }
+            else
+            {
+                failedMessages.addAll(packets);
+            }
+        }
+
+        telemetryBatch.clear();
+        this.telemetryBatchLingerStartMillis = NOT_LINGERING;
     }
 
     /**
@@ -378,12 +659,43 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         {
             IotHubCallbackPacket packet = this.callbackList.remove();
 
-            IotHubStatusCode status = packet.getStatus();
-            IotHubEventCallback callback = packet.getCallback();
-            Object context = packet.getContext();
+            logger.LogInfo("Invoking the callback function for sent message, method name is %s ", logger.getMethodName());
+            // Codes_SRS_AMQPSTRANSPORT_45_015: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any.]
+            this.callbackDispatcher.dispatch(packet);
+        }
+    }
+
+    /**
+     * Removes the messages that expired while waiting to be sent, wherever
+     * they are in the waiting list, and adds their callbacks to the callback
+     * list with status MESSAGE_EXPIRED.
+     */
+    public void removeExpiredMessages()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_018: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+        List<IotHubOutboundPacket> expiredPackets = this.waitingMessages.removeExpired(System.currentTimeMillis());
+        for (IotHubOutboundPacket packet : expiredPackets)
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext()));
+        }
 
-            logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with status %s, method name is %s ", status.name(), logger.getMethodName());
-            callback.execute(status, context);
+        if (!expiredPackets.isEmpty())
+        {
+            // Codes_SRS_AMQPSTRANSPORT_45_019: [If any message expired, the function shall signal the registered send task, if any.]
+            signalSend();
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_022: [If the transport is open, the function shall remove the device twin requests that timed out from the connection and invoke the message callback of each, if any, on its response.]
+        AmqpsIotHubConnection connection = this.connection;
+        if (this.state == State.OPEN && connection != null)
+        {
+            for (AmqpsConvertFromProtonReturnValue timeoutResponse : connection.removeExpiredTwinRequests(System.currentTimeMillis()))
+            {
+                if (timeoutResponse.getMessageCallback() != null)
+                {
+                    timeoutResponse.getMessageCallback().execute(timeoutResponse.getMessage(), timeoutResponse.getMessageContext());
+                }
+            }
         }
     }
 
@@ -447,29 +759,66 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      * When a message is acknowledged by IoTHub, it is removed from the list of in progress messages and its callback
      * is added to the list of callbacks to be executed. If the message was not successfully delivered, it is buffered
      * to be sent again.
-     * @param messageHash The hash of the message.
+     * @param deliveryTag The delivery tag of the message.
      * @param deliveryState The state of the delivery.
      */
-    public void messageSent(Integer messageHash, Boolean deliveryState)
+    public void messageSent(long deliveryTag, boolean deliveryState)
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_024: [The function shall handle the message as a range of one message.]
+        this.messagesSent(deliveryTag, deliveryTag, deliveryState);
+    }
+
+    /**
+     * When a range of messages is acknowledged by IoTHub with the same state, they are removed from the list of in
+     * progress messages at once, and handled as {@link #messageSent(long, boolean)} does for a single message.
+     * @param firstDeliveryTag The delivery tag of the first message of the range.
+     * @param lastDeliveryTag The delivery tag of the last message of the range, included.
+     * @param deliveryState The state of the deliveries.
+     */
+    public void messagesSent(long firstDeliveryTag, long lastDeliveryTag, boolean deliveryState)
     {
-        // Codes_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
-        if (inProgressMessages.containsKey(messageHash))
+        // Codes_SRS_AMQPSTRANSPORT_15_029: [If the delivery tag cannot be found in the list of keys for the messages in progress, the method returns.]
+        // Codes_SRS_AMQPSTRANSPORT_45_025: [The function shall remove the messages of the delivery tags from the first to the last from the in progress map, in delivery tag order.]
+        // Codes_SRS_AMQPSTRANSPORT_45_037: [The function shall remove the batches of the delivery tags from the first to the last from the map of batches in progress, and handle each message of a batch with the state of its batch.]
+        List<IotHubOutboundPacket> packets = this.removeInProgress(firstDeliveryTag, lastDeliveryTag);
+
+        if (packets.isEmpty())
         {
-            IotHubOutboundPacket packet = inProgressMessages.remove(messageHash);
-            if (deliveryState)
+            return;
+        }
+
+        if (deliveryState)
+        {
+            for (IotHubOutboundPacket packet : packets)
             {
                 logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
                 // Codes_SRS_AMQPSTRANSPORT_15_030: [If the message was successfully delivered,
                 // its callback is added to the list of callbacks to be executed.]
                 IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext());
                 this.callbackList.add(callbackPacket);
-            } else
-            {
-                logger.LogInfo("Message with messageid %s was not delivered to IoTHub, it is buffered to be sent again, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
-                // Codes_SRS_AMQPSTRANSPORT_15_031: [If the message was not delivered successfully, it is buffered to be sent again.]
-                waitingMessages.add(packet);
             }
         }
+        else
+        {
+            logger.LogInfo("%d messages were not delivered to IoTHub, they are buffered to be sent again, method name is %s ", packets.size(), logger.getMethodName());
+            // Codes_SRS_AMQPSTRANSPORT_15_031: [If the message was not delivered successfully, it is buffered to be sent again.]
+            // Codes_SRS_AMQPSTRANSPORT_45_045: [The function shall put the messages that were not delivered back at the head of the waiting list, in the order they were sent.]
+            this.requeueFirst(packets);
+        }
+
+        // Codes_SRS_AMQPSTRANSPORT_45_002: [If a send signal is registered, the function shall signal it after queueing the callback or the packet to resend.]
+        this.signalSend();
+    }
+
+    /**
+     * When a sender link which was out of credit gets more, the messages held
+     * back for it are sent right away.
+     */
+    public void sendCreditAvailable()
+    {
+        logger.LogInfo("The IoT Hub granted credit to a starved sender link, method name is %s ", logger.getMethodName());
+        // Codes_SRS_AMQPSTRANSPORT_45_027: [If a send signal is registered, the function shall signal it so the messages held back for lack of credit are sent.]
+        this.signalSend();
     }
 
     /**
@@ -479,13 +828,10 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", logger.getMethodName());
         // Codes_SRS_AMQPSTRANSPORT_15_032: [The messages in progress are buffered to be sent again.]
-        for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
-        {
-            this.waitingMessages.add(entry.getValue());
-        }
-
         // Codes_SRS_AMQPSTRANSPORT_15_033: [The map of messages in progress is cleared.]
-        inProgressMessages.clear();
+        // Codes_SRS_AMQPSTRANSPORT_45_038: [The messages of the batches in progress are buffered to be sent again.]
+        // Codes_SRS_AMQPSTRANSPORT_45_046: [The messages in progress and the messages of the batches in progress shall be put back at the head of the waiting list, in the order they were sent.]
+        this.requeueFirst(this.removeInProgress(0, Long.MAX_VALUE));
 
         // Notify the listener that the connection is down
         // Codes_SRS_AMQPSTRANSPORT_99_001: [Registered connection state callback is notified that the connection has been lost.]
@@ -505,6 +851,10 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         if (this.stateCallback != null) {
             this.stateCallback.execute(IotHubConnectionState.CONNECTION_SUCCESS, this.stateCallbackContext);
         }
+        // Codes_SRS_AMQPSTRANSPORT_45_003: [If a send signal is registered, the function shall signal it so messages buffered while the connection was down are sent.]
+        this.signalSend();
+        // Codes_SRS_AMQPSTRANSPORT_45_007: [If a receive signal is registered, the function shall signal it so messages put back on the received queue while the connection was down are handled.]
+        this.signalReceive();
     }
 
     /**
@@ -551,6 +901,8 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ", message.hashCode(), new Date(), logger.getMethodName());
         // Codes_SRS_AMQPSTRANSPORT_15_034: [The message received is added to the list of messages to be processed.]
         this.receivedMessages.add(message);
+        // Codes_SRS_AMQPSTRANSPORT_45_006: [If a receive signal is registered, the function shall signal it after adding the message.]
+        this.signalReceive();
     }
 
     /**
@@ -564,7 +916,8 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
     {
         // Codes_SRS_AMQPSTRANSPORT_15_035: [The function shall return true if the waiting list,
         // in progress list and callback list are all empty, and false otherwise.]
-        return this.waitingMessages.isEmpty() && this.inProgressMessages.size() == 0 && this.callbackList.isEmpty();
+        // Codes_SRS_AMQPSTRANSPORT_45_039: [The function shall return false if a batch of messages is in progress.]
+        return this.waitingMessages.isEmpty() && this.inProgressMessages.isEmpty() && this.inProgressBatches.isEmpty() && this.callbackList.isEmpty();
     }
 
     /**
@@ -586,4 +939,194 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         this.stateCallback = callback;
         this.stateCallbackContext = callbackContext;
     }
-}
\ No newline at end of file
+
+    /**
+     * Registers a task to be signalled whenever there is work for the send path.
+     *
+     * @param sendSignal the task to signal. Can be {@code null} to stop signalling.
+     */
+    public void registerSendSignal(IotHubSignalledTask sendSignal)
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_004: [The function shall save the provided send signal.]
+        this.sendSignal = sendSignal;
+    }
+
+    /**
+     * Registers a task to be signalled whenever a message is received from the IoT Hub.
+     *
+     * @param receiveSignal the task to signal. Can be {@code null} to stop signalling.
+     */
+    public void registerReceiveSignal(IotHubSignalledTask receiveSignal)
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_005: [The function shall save the provided receive signal.]
+        this.receiveSignal = receiveSignal;
+    }
+
+    /**
+     * Returns the number of messages received from the IoT Hub and not yet handled.
+     *
+     * @return the number of received messages waiting to be handled.
+     */
+    public int getReceivedMessageCount()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_008: [The function shall return the number of messages in the received messages queue.]
+        return this.receivedMessages.size();
+    }
+
+    /**
+     * Returns a snapshot of the queue of messages waiting to be sent.
+     *
+     * @return the outbound queue statistics.
+     */
+    public OutboundQueueStatistics getOutboundQueueStatistics()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_010: [The function shall return the statistics of the outbound queue.]
+        return this.waitingMessages.getStatistics();
+    }
+
+    /**
+     * Registers the executor that runs the callbacks of completed requests,
+     * so they are not invoked on the send thread. Can be {@code null} to
+     * invoke them on the thread that calls {@link #invokeCallbacks()}.
+     *
+     * @param callbackExecutor the executor that runs the callbacks.
+     */
+    public void registerCallbackExecutor(Executor callbackExecutor)
+    {
+                // Codes_SRS_AMQPSTRANSPORT_45_016: [The function shall hand the provided executor to the callback dispatcher.]
+        this.callbackDispatcher.setExecutor(callbackExecutor);
+    }
+
+    /**
+     * Returns a snapshot of the callbacks waiting to be invoked, with the lag
+     * between the completion of a request and the invocation of its callback.
+     *
+     * @return the callback queue statistics.
+     */
+    public CallbackQueueStatistics getCallbackQueueStatistics()
+    {
+                // Codes_SRS_AMQPSTRANSPORT_45_017: [The function shall return the statistics of the callback dispatcher.]
+        return this.callbackDispatcher.getStatistics();
+    }
+
+    /**
+     * The AMQPS transport does not report an in flight window yet.
+     *
+     * @return {@code null}.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_020: [The function shall return null.]
+        return null;
+    }
+
+    /**
+     * The AMQPS transport restores its connection on its own thread, and does
+     * not report its outages yet.
+     *
+     * @return {@code null}.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_021: [The function shall return null.]
+        return null;
+    }
+
+    /**
+     * Returns a snapshot of the credit the IoT Hub granted to the sender
+     * links of the AMQPS connection, and of the times they ran out of it.
+     *
+     * @return the send credit statistics, or {@code null} if the transport is not open.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_028: [The function shall return the send credit statistics of the connection, or null if the transport is not open.]
+        AmqpsIotHubConnection connection = this.connection;
+        if (this.state != State.OPEN || connection == null)
+        {
+            return null;
+        }
+
+        return connection.getSendCreditStatistics();
+    }
+
+    /**
+     * Returns the number of device twin requests sent on the AMQPS connection
+     * and waiting for their response.
+     *
+     * @return the number of pending device twin requests, or 0 if the transport is not open.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_023: [The function shall return the number of pending device twin requests of the connection, or 0 if the transport is not open.]
+        AmqpsIotHubConnection connection = this.connection;
+        if (this.state != State.OPEN || connection == null)
+        {
+            return 0;
+        }
+
+        return connection.getPendingTwinRequestCount();
+    }
+
+    /**
+     * Converts the message of a packet to a Proton message. The converted
+     * message is kept on the packet, so a message held back over several
+     * send attempts is converted, and its length estimated, only once.
+     *
+     * @param packet the packet of the message.
+     * @param message the message of the packet.
+     * @return the converted message, or {@code null} if no device operation could convert it.
+     * @throws IOException if the conversion failed.
+     */
+    private AmqpsConvertToProtonReturnValue convertToProton(IotHubOutboundPacket packet, Message message) throws IOException
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_042: [The function shall convert a message to a Proton message only once, and keep the converted message on its packet for the subsequent attempts to send it.]
+        Object convertedMessage = packet.getConvertedMessage();
+        if (convertedMessage instanceof AmqpsConvertToProtonReturnValue)
+        {
+            return (AmqpsConvertToProtonReturnValue) convertedMessage;
+        }
+
+        AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue = this.connection.convertToProton(message);
+        packet.setConvertedMessage(amqpsConvertToProtonReturnValue);
+        return amqpsConvertToProtonReturnValue;
+    }
+
+    private static MessageType sendMessageTypeOf(Message message)
+    {
+        // The messages without a type are sent as telemetry.
+        return (message.getMessageType() == null) ? MessageType.DEVICE_TELEMETRY : message.getMessageType();
+    }
+
+    /**
+     * Completes the messages dropped by the outbound queue full policy with
+     * status MESSAGE_CANCELLED_QUEUE_FULL. Called once the queue released its
+     * lock, so the callbacks never run under it.
+     */
+    private void cancelDroppedMessages()
+    {
+        // Codes_SRS_AMQPSTRANSPORT_45_040: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+        for (IotHubOutboundPacket packet : this.waitingMessages.removeDropped())
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, packet.getCallback(), packet.getContext()));
+        }
+    }
+
+    private void signalSend()
+    {
+        IotHubSignalledTask signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
+    private void signalReceive()
+    {
+        IotHubSignalledTask signal = this.receiveSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+}
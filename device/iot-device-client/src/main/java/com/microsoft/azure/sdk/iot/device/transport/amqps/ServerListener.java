@@ -10,10 +10,19 @@ public interface ServerListener
 {
     /**
      * Method executed when a message was acknowledged by IoTHub.
-     * @param messageHash The hash of the message.
+     * @param deliveryTag The delivery tag of the message.
      * @param deliveryState The state of the delivery.
      */
-    void messageSent(Integer messageHash, Boolean deliveryState);
+    void messageSent(long deliveryTag, boolean deliveryState);
+
+    /**
+     * Method executed when a range of messages was acknowledged by IoTHub
+     * with the same state.
+     * @param firstDeliveryTag The delivery tag of the first message of the range.
+     * @param lastDeliveryTag The delivery tag of the last message of the range, included.
+     * @param deliveryState The state of the deliveries.
+     */
+    void messagesSent(long firstDeliveryTag, long lastDeliveryTag, boolean deliveryState);
 
     /**
      * Method executed when a message was received from IoTHub.
@@ -21,6 +30,12 @@ public interface ServerListener
      */
     void messageReceived(AmqpsMessage message);
 
+    /**
+     * Method executed when the IoTHub granted credit to a sender link which
+     * had messages to send and no credit.
+     */
+    void sendCreditAvailable();
+
     /**
      * Method executed when the connection with the IoTHub is lost.
      */
@@ -5,14 +5,18 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubSizeExceededException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -45,14 +49,18 @@ public final class HttpsTransport implements IotHubTransport
     private HttpsIotHubConnection connection;
 
     /** Messages waiting to be sent to an IoT Hub. */
-    private final Queue<IotHubOutboundPacket> waitingList;
+    private final IotHubOutboundQueue waitingList;
     /** Messages that are waiting for a response from an IoT Hub. */
     private final Queue<IotHubOutboundPacket> inProgressList;
     /** Messages whose callbacks that are waiting to be invoked. */
     private final Queue<IotHubCallbackPacket> callbackList;
+    private final IotHubCallbackDispatcher callbackDispatcher = new IotHubCallbackDispatcher();
 
     private final DeviceClientConfig config;
 
+    /** Task signalled when there is work for the send path, if any. */
+    private volatile IotHubSignalledTask sendSignal;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -62,7 +70,7 @@ public final class HttpsTransport implements IotHubTransport
     public HttpsTransport(DeviceClientConfig config)
     {
         // Codes_SRS_HTTPSTRANSPORT_11_001: [The constructor shall initialize an empty transport queue for adding messages to be sent as a batch.]
-        this.waitingList = new LinkedBlockingQueue<>();
+        this.waitingList = new IotHubOutboundQueue(config);
         this.inProgressList = new LinkedBlockingQueue<>();
         // Codes_SRS_HTTPSTRANSPORT_11_002: [The constructor shall initialize an empty queue for adding callbacks waiting to be invoked.]
         this.callbackList = new LinkedBlockingQueue<>();
@@ -155,7 +163,14 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_11_003: [The function shall add a packet containing the message, callback, and callback context to the transport queue.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingList.add(packet);
+        // Codes_SRS_HTTPSTRANSPORT_45_006: [If the outbound queue rejects the packet, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+        if (!this.waitingList.enqueue(packet))
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, callback, callbackContext));
+        }
+        this.cancelDroppedMessages();
+        // Codes_SRS_HTTPSTRANSPORT_45_001: [If a send signal is registered, the function shall signal it after adding the packet.]
+        this.signalSend();
     }
 
     /**
@@ -181,7 +196,49 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_21_017: [The function shall add a packet containing the message, callback, and callback context to the transport queue.]
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
-        this.waitingList.add(packet);
+        // Codes_SRS_HTTPSTRANSPORT_45_006: [If the outbound queue rejects the packet, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+        if (!this.waitingList.enqueue(packet))
+        {
+            ResponseMessage responseMessage = new ResponseMessage(new byte[0], IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            this.callbackList.add(new IotHubCallbackPacket(responseMessage, callback, callbackContext));
+        }
+        this.cancelDroppedMessages();
+        // Codes_SRS_HTTPSTRANSPORT_45_001: [If a send signal is registered, the function shall signal it after adding the packet.]
+        this.signalSend();
+    }
+
+    /**
+     * Adds a batch of packets to the transport queue as one unit.
+     * The packets are next to each other in the queue, so they go out in as few
+     * batched requests as the service size limit allows.
+     *
+     * @param packets the packets to be sent, each with its own callback and
+     * callback context.
+     *
+     * @throws IllegalStateException if the transport is closed.
+     */
+    public void addMessages(List<IotHubOutboundPacket> packets) throws IllegalStateException
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_008: [If the transport is closed, the function shall throw an IllegalStateException.]
+        if (this.state == HttpsTransportState.CLOSED)
+        {
+            throw new IllegalStateException("Cannot add messages to an HTTPS transport that is closed.");
+        }
+
+        // Codes_SRS_HTTPSTRANSPORT_45_009: [The function shall add the packets to the transport queue as one unit.]
+        if (!this.waitingList.enqueueAll(packets))
+        {
+            // Codes_SRS_HTTPSTRANSPORT_45_010: [If the outbound queue rejects the batch, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
+            ResponseMessage responseMessage = new ResponseMessage(new byte[0], IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            for (IotHubOutboundPacket packet : packets)
+            {
+                addOutboundPacketToCallbackList(packet, responseMessage);
+            }
+        }
+        this.cancelDroppedMessages();
+
+        // Codes_SRS_HTTPSTRANSPORT_45_011: [If a send signal is registered, the function shall signal it once after adding the packets.]
+        this.signalSend();
     }
 
     /**
@@ -243,6 +300,12 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
         this.moveInProgressListToCallbackList(responseMessage);
+
+        // Codes_SRS_HTTPSTRANSPORT_45_002: [If messages are still waiting after a successful request, the function shall signal the registered send signal so the next batch is sent.]
+        if (!this.waitingList.isEmpty())
+        {
+            this.signalSend();
+        }
     }
 
     /**
@@ -267,19 +330,29 @@ public final class HttpsTransport implements IotHubTransport
             // Codes_SRS_HTTPSTRANSPORT_11_016: [If an exception is thrown during the callback, the function shall drop the callback from the queue.]
             IotHubCallbackPacket packet = this.callbackList.remove();
 
-            Object context = packet.getContext();
+            // Codes_SRS_HTTPSTRANSPORT_45_012: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any.]
+            this.callbackDispatcher.dispatch(packet);
+        }
+    }
 
-            IotHubEventCallback eventCallback = packet.getCallback();
-            if(eventCallback != null)
-            {
-                eventCallback.execute(packet.getStatus(), context);
-            }
+    /**
+     * Removes the messages that expired while waiting to be sent, wherever
+     * they are in the waiting list, and adds their callbacks to the callback
+     * list with status MESSAGE_EXPIRED.
+     */
+    public void removeExpiredMessages()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_015: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+        List<IotHubOutboundPacket> expiredPackets = this.waitingList.removeExpired(System.currentTimeMillis());
+        for (IotHubOutboundPacket packet : expiredPackets)
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext()));
+        }
 
-            IotHubResponseCallback responseCallback = packet.getResponseCallback();
-            if(responseCallback != null)
-            {
-                responseCallback.execute(packet.getResponseMessage(), context);
-            }
+        if (!expiredPackets.isEmpty())
+        {
+            // Codes_SRS_HTTPSTRANSPORT_45_016: [If any message expired, the function shall signal the registered send task, if any.]
+            signalSend();
         }
     }
 
@@ -381,6 +454,142 @@ public final class HttpsTransport implements IotHubTransport
         this.stateCallbackContext = callbackContext;
     }
 
+    /**
+     * Registers a task to be signalled whenever a message is queued to be sent.
+     *
+     * @param sendSignal the task to signal. Can be {@code null} to stop signalling.
+     */
+    public void registerSendSignal(IotHubSignalledTask sendSignal)
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_003: [The function shall save the provided send signal.]
+        this.sendSignal = sendSignal;
+    }
+
+    /**
+     * HTTPS has no channel for the IoT Hub to push messages, they are only found
+     * by polling, so the receive signal is never raised.
+     *
+     * @param receiveSignal ignored.
+     */
+    public void registerReceiveSignal(IotHubSignalledTask receiveSignal)
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_004: [The function shall do nothing.]
+    }
+
+    /**
+     * HTTPS does not queue received messages, they are handled as they are polled.
+     *
+     * @return always 0.
+     */
+    public int getReceivedMessageCount()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_005: [The function shall return 0.]
+        return 0;
+    }
+
+    /**
+     * Returns a snapshot of the queue of messages waiting to be sent.
+     *
+     * @return the outbound queue statistics.
+     */
+    public OutboundQueueStatistics getOutboundQueueStatistics()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_007: [The function shall return the statistics of the outbound queue.]
+        return this.waitingList.getStatistics();
+    }
+
+    /**
+     * Registers the executor that runs the callbacks of completed requests,
+     * so they are not invoked on the send thread. Can be {@code null} to
+     * invoke them on the thread that calls {@link #invokeCallbacks()}.
+     *
+     * @param callbackExecutor the executor that runs the callbacks.
+     */
+    public void registerCallbackExecutor(Executor callbackExecutor)
+    {
+                // Codes_SRS_HTTPSTRANSPORT_45_013: [The function shall hand the provided executor to the callback dispatcher.]
+        this.callbackDispatcher.setExecutor(callbackExecutor);
+    }
+
+    /**
+     * Returns a snapshot of the callbacks waiting to be invoked, with the lag
+     * between the completion of a request and the invocation of its callback.
+     *
+     * @return the callback queue statistics.
+     */
+    public CallbackQueueStatistics getCallbackQueueStatistics()
+    {
+                // Codes_SRS_HTTPSTRANSPORT_45_014: [The function shall return the statistics of the callback dispatcher.]
+        return this.callbackDispatcher.getStatistics();
+    }
+
+    /**
+     * HTTPS sends one request at a time, so there is no in flight window.
+     *
+     * @return {@code null}.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_017: [The function shall return null.]
+        return null;
+    }
+
+    /**
+     * HTTPS opens a connection per request, so there is no connection to restore.
+     *
+     * @return {@code null}.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_018: [The function shall return null.]
+        return null;
+    }
+
+    /**
+     * HTTPS has no send credit, each request waits for its response.
+     *
+     * @return {@code null}.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_020: [The function shall return null.]
+        return null;
+    }
+
+    /**
+     * Returns 0, the HTTPS transport does not support device twin.
+     *
+     * @return 0.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_019: [The function shall return 0.]
+        return 0;
+    }
+
+    /**
+     * Completes the messages dropped by the outbound queue full policy with
+     * status MESSAGE_CANCELLED_QUEUE_FULL. Called once the queue released its
+     * lock, so the callbacks never run under it.
+     */
+    private void cancelDroppedMessages()
+    {
+        // Codes_SRS_HTTPSTRANSPORT_45_021: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+        for (IotHubOutboundPacket packet : this.waitingList.removeDropped())
+        {
+            addOutboundPacketToCallbackList(packet, new ResponseMessage(new byte[0], IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL));
+        }
+    }
+
+    private void signalSend()
+    {
+        IotHubSignalledTask signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
     /**
      * Triggers the callbacks notifying the user that the sas token in this transport has expired
      */
@@ -6,22 +6,21 @@ package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
-import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
-import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.paho.client.mqttv3.*;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 abstract public class Mqtt implements MqttCallback
 {
     private MqttConnection mqttConnection;
     private DeviceClientConfig deviceClientConfig = null;
+    private MqttMessageRouter messageRouter;
+    private volatile MqttReconnector reconnector;
     ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
     Object mqttLock = null;
 
@@ -33,8 +32,6 @@ abstract public class Mqtt implements MqttCallback
     private final static String MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED = "%24";
     private final static char MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED = '$';
     final static char MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR = '=';
-    private final static int PROPERTY_KEY_INDEX = 0;
-    private final static int PROPERTY_VALUE_INDEX = 1;
 
     /* The system property keys expected in a message */
     //This may be common with amqp as well
@@ -48,10 +45,21 @@ abstract public class Mqtt implements MqttCallback
     private MqttConnectionStateListener listener;
 
     /**
-     * Constructor to instantiate mqtt broker connection.
+     * Constructor to instantiate mqtt broker connection, for a client that
+     * handles the cloud to device messages.
      * @param mqttConnection the connection to use
      */
     public Mqtt(MqttConnection mqttConnection, MqttConnectionStateListener listener) throws IllegalArgumentException
+    {
+        this(mqttConnection, listener, MqttMessageRouter.Route.MESSAGING);
+    }
+
+    /**
+     * Constructor to instantiate mqtt broker connection.
+     * @param mqttConnection the connection to use
+     * @param route the route of the received messages this client handles
+     */
+    Mqtt(MqttConnection mqttConnection, MqttConnectionStateListener listener, MqttMessageRouter.Route route) throws IllegalArgumentException
     {
         if (mqttConnection == null)
         {
@@ -60,8 +68,10 @@ abstract public class Mqtt implements MqttCallback
         }
 
         //Codes_SRS_Mqtt_25_003: [The constructor shall retrieve lock, queue from the provided connection information and save the connection.]
+        //Codes_SRS_Mqtt_45_006: [The constructor shall retrieve the queue of the provided route from the message router of the connection, or the queue of the MESSAGING route if none is provided.]
         this.mqttConnection = mqttConnection;
-        this.allReceivedMessages = mqttConnection.getAllReceivedMessages();
+        this.messageRouter = mqttConnection.getMessageRouter();
+        this.allReceivedMessages = (this.messageRouter == null) ? null : this.messageRouter.getQueue(route);
         this.mqttLock = mqttConnection.getMqttLock();
         this.userSpecifiedSASTokenExpiredOnRetry = false;
         this.listener = listener;
@@ -155,6 +165,25 @@ abstract public class Mqtt implements MqttCallback
      * @throws IOException if failed to publish the mqtt topic.
      */
     protected void publish(String publishTopic, byte[] payload) throws IOException
+    {
+        this.publish(publishTopic, payload, null);
+    }
+
+    /**
+     * Method to publish to mqtt broker connection without waiting for the
+     * delivery. The caller shall hold a slot of the in flight window of the
+     * connection for the publish, taken with
+     * {@link MqttConnection#tryAcquireInFlightSlot()} before taking any lock. Once the publish is handed to the MQTT client,
+     * the slot is released when its delivery completes; if this method throws,
+     * the slot is still owned by the caller.
+     *
+     * @param publishTopic the topic to publish on mqtt broker connection.
+     * @param payload   the payload to publish on publishTopic of mqtt broker connection.
+     * @param deliveryListener the listener to notify with the outcome of the delivery
+     * once it completes. Can be {@code null}. It is never notified if this method throws.
+     * @throws IOException if failed to publish the mqtt topic.
+     */
+    protected void publish(String publishTopic, byte[] payload, IMqttActionListener deliveryListener) throws IOException
     {
         synchronized (this.mqttLock)
         {
@@ -189,23 +218,6 @@ abstract public class Mqtt implements MqttCallback
                     throw new IOException("Cannot publish on null or empty publish topic");
                 }
 
-                while (this.mqttConnection.getMqttAsyncClient().getPendingDeliveryTokens().length >= MqttConnection.MAX_IN_FLIGHT_COUNT)
-                {
-                    /*
-                    **Codes_SRS_Mqtt_25_048: [**publish shall check for pending publish tokens by calling getPendingDeliveryTokens.
-                    * And if there are pending tokens publish shall sleep until the number of pending tokens are less than 10 as per paho limitations**]**
-                    */
-                    Thread.sleep(10);
-
-                    if (!this.mqttConnection.getMqttAsyncClient().isConnected())
-                    {
-                    /*
-                    ** Codes_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
-                     */
-                        throw new IOException("Cannot publish when mqtt client is holding 10 tokens and  is disconnected");
-                    }
-                }
-
                 MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
 
                 mqttMessage.setQos(MqttConnection.QOS);
@@ -213,9 +225,14 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_014: [**The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.**]**
                  */
-
-                IMqttDeliveryToken publishToken = this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage);
-
+                /*
+                **Codes_SRS_Mqtt_45_002: [**publish shall not take a slot of the in flight window of the connection, as the caller holds one for the publish.**]**
+                 */
+                /*
+                **Codes_SRS_Mqtt_45_003: [**publish shall not wait for the delivery, and shall release the slot of the window with the time the publish was sent and notify the delivery listener, if any, with the outcome once the delivery completes.**]**
+                 */
+                this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage, null,
+                        new InFlightSlotListener(this.mqttConnection, deliveryListener, System.nanoTime()));
             }
             catch (MqttException e)
             {
@@ -224,10 +241,6 @@ abstract public class Mqtt implements MqttCallback
                  */
                 throw new IOException("Unable to publish message on topic : " + publishTopic + " because " + e.getCause() + e.getMessage(), e);
             }
-            catch (InterruptedException e)
-            {
-                throw new IOException("Interrupted, Unable to publish message on topic : " + publishTopic);
-            }
             catch (Exception e)
             {
                 throw new IOException("Unable to publish message on topic : " + publishTopic + " " + e.getCause() + e.getMessage(), e);
@@ -236,56 +249,158 @@ abstract public class Mqtt implements MqttCallback
     }
 
     /**
-     * Method to subscribe to mqtt broker connection.
+     * Method to publish to mqtt broker connection at QoS 0. The publish is
+     * handed to the MQTT client and forgotten: it does not take a slot of the
+     * in flight window and no one is notified of its delivery.
      *
-     * @param topic the topic to subscribe on mqtt broker connection.
-     * @throws IOException if failed to subscribe the mqtt topic.
+     * @param publishTopic the topic to publish on mqtt broker connection.
+     * @param payload   the payload to publish on publishTopic of mqtt broker connection.
+     * @throws IOException if failed to publish the mqtt topic.
      */
-    protected void subscribe(String topic) throws IOException
+    protected void publishAtMostOnce(String publishTopic, byte[] payload) throws IOException
     {
         synchronized (this.mqttLock)
         {
+            if (this.mqttConnection == null)
+            {
+                throw new IOException("Mqtt client should be initialised atleast once before using it");
+            }
+
+            if (this.userSpecifiedSASTokenExpiredOnRetry)
+            {
+                /*
+                ** Codes_SRS_Mqtt_45_014: [**If the user supplied SAS token has expired or the MQTT connection is closed, publishAtMostOnce shall throw an IOException.**]**
+                 */
+                throw new IOException("Cannot publish when user supplied SAS token has expired");
+            }
+
+            if (!this.mqttConnection.getMqttAsyncClient().isConnected())
+            {
+                throw new IOException("Cannot publish when mqtt client is disconnected");
+            }
+
+            if (publishTopic == null || publishTopic.length() == 0 || payload == null)
+            {
+                /*
+                **Codes_SRS_Mqtt_45_015: [**If the either publishTopic is null or empty or if payload is null, publishAtMostOnce shall throw an IOException.**]**
+                 */
+                throw new IOException("Cannot publish on null or empty publish topic");
+            }
+
             try
             {
-                if (this.mqttConnection == null)
-                {
-                    throw new IOException("Mqtt client should be initialised atleast once before using it");
-                }
-                else if (topic == null)
-                {
-                    /*
-                    **Codes_SRS_Mqtt_25_016: [**If the subscribeTopic is null or empty, the function shall throw an InvalidParameter Exception.**]**
-                     */
-                    throw new InvalidParameterException("Topic cannot be null");
+                MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
+                mqttMessage.setQos(MqttConnection.QOS_AT_MOST_ONCE);
 
-                }
-                else if (this.userSpecifiedSASTokenExpiredOnRetry)
+                /*
+                **Codes_SRS_Mqtt_45_016: [**publishAtMostOnce shall publish the payload at QoS 0 on the publishTopic, without taking a slot of the in flight window nor keeping the delivery token.**]**
+                 */
+                this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage);
+            }
+            catch (MqttException e)
+            {
+                /*
+                **Codes_SRS_Mqtt_45_017: [**If the Mqtt Client Async throws MqttException, publishAtMostOnce shall throw an IOException with the message.**]**
+                 */
+                throw new IOException("Unable to publish message on topic : " + publishTopic + " because " + e.getCause() + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Method to subscribe to mqtt broker connection. The subscriptions that
+     * are not subscribed yet are sent together in a single SUBSCRIBE, and the
+     * function returns without waiting for the SUBACK: the state of each
+     * subscription is updated once it comes back.
+     *
+     * @param subscriptions the subscriptions to subscribe to.
+     * @throws IOException if failed to subscribe the mqtt topics.
+     */
+    protected void subscribe(MqttSubscription... subscriptions) throws IOException
+    {
+        synchronized (this.mqttLock)
+        {
+            if (this.mqttConnection == null)
+            {
+                throw new IOException("Mqtt client should be initialised atleast once before using it");
+            }
+            else if (subscriptions == null)
+            {
+                /*
+                **Codes_SRS_Mqtt_25_016: [**If the subscribeTopic is null or empty, the function shall throw an InvalidParameter Exception.**]**
+                 */
+                throw new InvalidParameterException("Subscriptions cannot be null");
+            }
+            for (MqttSubscription subscription : subscriptions)
+            {
+                if (subscription == null)
                 {
-                    /*
-                    ** Codes_SRS_Mqtt_99_049: [**If the user supplied SAS token has expired, the function shall throw an IOException.**]**
-                     */
-                    throw new IOException("Cannot subscribe when user supplied SAS token has expired");
+                    throw new InvalidParameterException("Subscription cannot be null");
                 }
-                else if (!this.mqttConnection.getMqttAsyncClient().isConnected())
+            }
+
+            if (this.userSpecifiedSASTokenExpiredOnRetry)
+            {
+                /*
+                ** Codes_SRS_Mqtt_99_049: [**If the user supplied SAS token has expired, the function shall throw an IOException.**]**
+                 */
+                throw new IOException("Cannot subscribe when user supplied SAS token has expired");
+            }
+            else if (!this.mqttConnection.getMqttAsyncClient().isConnected())
+            {
+                /*
+                **Codes_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
+                 */
+                throw new IOException("Cannot suscribe when mqtt client is disconnected");
+            }
+
+            /*
+            **Codes_SRS_Mqtt_45_018: [**The function shall only subscribe to the subscriptions that are not subscribed or subscribing yet, and do nothing if there is none.**]**
+             */
+            int count = 0;
+            MqttSubscription[] pending = new MqttSubscription[subscriptions.length];
+            for (MqttSubscription subscription : subscriptions)
+            {
+                if (subscription.beginSubscribe())
                 {
-                    /*
-                    **Codes_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
-                     */
-                    throw new IOException("Cannot suscribe when mqtt client is disconnected");
+                    pending[count++] = subscription;
                 }
+            }
+            if (count == 0)
+            {
+                return;
+            }
+
+            String[] topics = new String[count];
+            int[] qos = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                topics[i] = pending[i].getTopic();
+                qos[i] = MqttConnection.QOS;
+            }
+
+            try
+            {
                 /*
                 **Codes_SRS_Mqtt_25_017: [**The function shall subscribe to subscribeTopic specified to the IoT Hub given in the configuration.**]**
                  */
-                IMqttToken subToken = this.mqttConnection.getMqttAsyncClient().subscribe(topic, MqttConnection.QOS);
-
-                subToken.waitForCompletion(MqttConnection.MAX_WAIT_TIME);
+                /*
+                **Codes_SRS_Mqtt_45_019: [**The function shall send all the topics in a single SUBSCRIBE without waiting for the SUBACK, and complete each subscription with the QoS the IoT Hub granted it once the SUBACK comes back.**]**
+                 */
+                this.mqttConnection.getMqttAsyncClient().subscribe(topics, qos, null,
+                        new SubscribeListener(Arrays.copyOf(pending, count)));
             }
             catch (MqttException e)
             {
+                for (int i = 0; i < count; i++)
+                {
+                    pending[i].completeSubscribe(false);
+                }
+
                 /*
                 **Codes_SRS_Mqtt_25_048: [**If the Mqtt Client Async throws MqttException for any reason, the function shall throw an IOException with the message.**]**
                  */
-                throw new IOException("Unable to subscribe to topic :" + topic + " because " + e.getCause() + e.getMessage(), e);
+                throw new IOException("Unable to subscribe to topics :" + Arrays.toString(topics) + " because " + e.getCause() + e.getMessage(), e);
             }
         }
     }
@@ -349,7 +464,9 @@ abstract public class Mqtt implements MqttCallback
     }
 
     /**
-     * Event fired when the connection with the MQTT broker is lost.
+     * Event fired when the connection with the MQTT broker is lost. The
+     * connection is restored by the reconnector, if any, on its scheduler, so
+     * this returns right away and holds no lock.
      * @param throwable Reason for losing the connection.
      */
     @Override
@@ -361,80 +478,78 @@ abstract public class Mqtt implements MqttCallback
             this.listener.connectionLost();
         }
 
-        synchronized (this.mqttLock)
+        if (this.mqttConnection != null && this.mqttConnection.getMqttAsyncClient() != null)
         {
-            if (this.mqttConnection != null && this.mqttConnection.getMqttAsyncClient() != null)
+            //Codes_SRS_Mqtt_45_005: [The function shall report the lost connection to the in flight window of the connection.]
+            this.mqttConnection.onConnectionLost();
+
+            MqttReconnector reconnector = this.reconnector;
+            if (reconnector != null)
             {
-                int currentReconnectionAttempt = 0;
-                while (!this.mqttConnection.getMqttAsyncClient().isConnected())
-                {
-                    System.out.println("Lost connection to the server. Reconnecting " + currentReconnectionAttempt + " time.");
-                    try
-                    {
-                        currentReconnectionAttempt++;
-                        if (this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
-                        {
-                            /*
-                            **Codes_SRS_Mqtt_99_050: [**The function shall check if SAS token has already expired.**]**
-                            */
-                            if (!IotHubSasToken.isExpired(new String(this.mqttConnection.getConnectionOptions().getPassword())))
-                            {
-                                connect(); // Try to reconnect
-                            }
-                            else
-                            {
-                                /*
-                                **Codes_SRS_Mqtt_99_050: [**The function shall check if SAS token has already expired.**]**
-                                */
-                                if (this.deviceClientConfig.getIotHubConnectionString().getSharedAccessKey() != null)
-                                {
-                                   /*
-                                    **Codes_SRS_Mqtt_99_052: [**The function shall generate a new SAS token.**]**
-                                    */
-                                    String sasToken = this.deviceClientConfig.getSasTokenAuthentication().getRenewedSasToken();
-                                    this.mqttConnection.getConnectionOptions().setPassword(sasToken.toCharArray());
-
-                                    connect(); // Try to reconnect
-                                }
-                                else
-                                {
-                                    /*
-                                    **Codes_SRS_Mqtt_99_053: [**The function shall set user supplied SAS token expiration flag to true .**]**
-                                    */
-                                    this.userSpecifiedSASTokenExpiredOnRetry  = true;
-                                    return; // no reconnect exit now
-                                }
-                            }
-                        }
-                        else if (this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.X509_CERTIFICATE)
-                        {
-                            connect(); // Try to reconnect
-                        }
-                    }
-                    catch (IOException e)
-                    {
-                        try
-                        {
-                            /*
-                            Codes_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
-                             */
-                            /*
-                            **Codes_SRS_Mqtt_25_028: [**The maximum wait interval until a reconnect is attempted shall be 60 seconds.**]**
-                             */
-                            Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
-                        }
-                        catch (InterruptedException ie)
-                        {
-                            // do nothing and continue trying...
-                        }
-                    }
-                }
+                /*
+                Codes_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
+                 */
+                //Codes_SRS_Mqtt_45_010: [The function shall hand the lost connection to the saved reconnector, if any, without waiting for the connection to be restored.]
+                reconnector.onConnectionLost();
             }
-            else
+        }
+    }
+
+    /**
+     * Refreshes the credentials of the connection before an attempt to
+     * restore it.
+     * @return {@code true} if the connection can be restored, and {@code false}
+     * if the user supplied SAS token has expired.
+     * @throws IOException if the SAS token cannot be renewed.
+     */
+    boolean prepareReconnect() throws IOException
+    {
+        if (this.deviceClientConfig != null && this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
+        {
+            /*
+            **Codes_SRS_Mqtt_99_052: [**The function shall generate a new SAS token.**]**
+            */
+            String sasToken = this.deviceClientConfig.getSasTokenAuthentication().getRenewedSasToken();
+
+            /*
+            **Codes_SRS_Mqtt_99_050: [**The function shall check if SAS token has already expired.**]**
+            */
+            if (IotHubSasToken.isExpired(sasToken))
             {
-                System.out.println("Initialise before using this..");
+                /*
+                **Codes_SRS_Mqtt_99_053: [**The function shall set user supplied SAS token expiration flag to true .**]**
+                */
+                this.userSpecifiedSASTokenExpiredOnRetry = true;
+                return false;
             }
+
+            //Codes_SRS_Mqtt_45_011: [The function shall set the renewed SAS token as the password of the connection options.]
+            this.mqttConnection.getConnectionOptions().setPassword(sasToken.toCharArray());
         }
+
+        return true;
+    }
+
+    /**
+     * Notified by the reconnector once the connection is restored.
+     */
+    void onReconnected()
+    {
+        if (this.listener != null)
+        {
+            //Codes_SRS_Mqtt_45_012: [If this object has a saved listener, this function shall notify the listener that connection was established.]
+            this.listener.connectionEstablished();
+        }
+    }
+
+    /**
+     * Set the reconnector that restores the connection once it is lost.
+     * @param reconnector the reconnector. Can be {@code null} to not restore the connection.
+     */
+    void setReconnector(MqttReconnector reconnector)
+    {
+        //Codes_SRS_Mqtt_45_013: [The function shall save the provided reconnector.]
+        this.reconnector = reconnector;
     }
 
     /**
@@ -448,7 +563,14 @@ abstract public class Mqtt implements MqttCallback
         /*
         **Codes_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue .**]**
          */
-        this.mqttConnection.getAllReceivedMessages().add(new MutablePair<>(topic, mqttMessage.getPayload()));
+        //Codes_SRS_Mqtt_45_007: [The function shall route the message once, by its topic, to the queue of the client that handles it.]
+        this.messageRouter.route(topic, mqttMessage.getPayload());
+
+        if (this.listener != null)
+        {
+            //Codes_SRS_Mqtt_45_001: [If this object has a saved listener, this function shall notify the listener that a message was received after adding it to the queue.]
+            this.listener.messageReceived();
+        }
     }
 
     /**
@@ -461,6 +583,81 @@ abstract public class Mqtt implements MqttCallback
 
     }
 
+    /**
+     * Releases the slot of the in flight window taken by a publish once its
+     * delivery completes, with the time it was sent so the window can measure
+     * its round trip, then passes the outcome to the delivery listener.
+     */
+    private static final class InFlightSlotListener implements IMqttActionListener
+    {
+        private final MqttConnection mqttConnection;
+        private final IMqttActionListener deliveryListener;
+        private final long sentNanos;
+
+        private InFlightSlotListener(MqttConnection mqttConnection, IMqttActionListener deliveryListener, long sentNanos)
+        {
+            this.mqttConnection = mqttConnection;
+            this.deliveryListener = deliveryListener;
+            this.sentNanos = sentNanos;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            this.mqttConnection.completeInFlightSlot(this.sentNanos, true);
+            if (this.deliveryListener != null)
+            {
+                this.deliveryListener.onSuccess(asyncActionToken);
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            this.mqttConnection.completeInFlightSlot(this.sentNanos, false);
+            if (this.deliveryListener != null)
+            {
+                this.deliveryListener.onFailure(asyncActionToken, exception);
+            }
+        }
+    }
+
+    /**
+     * Completes the subscriptions sent in one SUBSCRIBE once its SUBACK comes back.
+     */
+    private static final class SubscribeListener implements IMqttActionListener
+    {
+        /* the return code of a SUBACK for a subscription that was refused */
+        private static final int SUBSCRIBE_FAILURE = 0x80;
+
+        private final MqttSubscription[] subscriptions;
+
+        private SubscribeListener(MqttSubscription[] subscriptions)
+        {
+            this.subscriptions = subscriptions;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            int[] grantedQos = (asyncActionToken == null) ? null : asyncActionToken.getGrantedQos();
+            for (int i = 0; i < this.subscriptions.length; i++)
+            {
+                boolean isGranted = grantedQos == null || i >= grantedQos.length || grantedQos[i] != SUBSCRIBE_FAILURE;
+                this.subscriptions[i].completeSubscribe(isGranted);
+            }
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            for (MqttSubscription subscription : this.subscriptions)
+            {
+                subscription.completeSubscribe(false);
+            }
+        }
+    }
+
     public Pair<String, byte[]> peekMessage() throws IOException
     {
         if (allReceivedMessages == null)
@@ -479,7 +676,7 @@ abstract public class Mqtt implements MqttCallback
      * @return a new instance of Message containing the payload and all the properties in the topic string
      * @throws IllegalArgumentException if the topic string has no system properties
      */
-    private Message constructMessage(byte[] data, String topic) throws IllegalArgumentException
+    static Message constructMessage(byte[] data, String topic) throws IllegalArgumentException
     {
         /*
         **Codes_SRS_Mqtt_25_024: [**This method shall construct new Message with the bytes obtained from parsePayload and return the message.**]**
@@ -507,66 +704,132 @@ abstract public class Mqtt implements MqttCallback
      * @throws IllegalArgumentException if a property's key and value are not separated by the '=' symbol
      * @throws NumberFormatException if the property for expiry time is present, but the value cannot be parsed as a Long
      * */
-    private void assignPropertiesToMessage(Message message, String propertiesString) throws IllegalArgumentException, NumberFormatException
+    private static void assignPropertiesToMessage(Message message, String propertiesString) throws IllegalArgumentException, NumberFormatException
     {
         /*
         **Codes_SRS_Mqtt_34_054: [**A message may have 0 to many custom properties**]**
         */
         //expected format is <key>=<value><MESSAGE_PROPERTY_SEPARATOR><key>=<value><MESSAGE_PROPERTY_SEPARATOR>...
-        for (String propertyString : propertiesString.split(String.valueOf(MESSAGE_PROPERTY_SEPARATOR)))
+        //Codes_SRS_Mqtt_45_008: [This method shall scan the properties string in a single pass without regular expressions, splitting the properties on `&`, ignoring trailing separators, and each property on its first `=`.]
+        int propertiesEnd = propertiesString.length();
+        while (propertiesEnd > 0 && propertiesString.charAt(propertiesEnd - 1) == MESSAGE_PROPERTY_SEPARATOR)
+        {
+            propertiesEnd--;
+        }
+
+        int propertyStart = 0;
+        while (propertyStart < propertiesEnd)
         {
-            if (propertyString.contains("="))
+            int propertyEnd = propertiesString.indexOf(MESSAGE_PROPERTY_SEPARATOR, propertyStart);
+            if (propertyEnd == -1 || propertyEnd > propertiesEnd)
             {
-                //Expected format is <key>=<value> where both key and value may be encoded
-                String key = propertyString.split("=")[PROPERTY_KEY_INDEX];
-                String value = propertyString.split("=")[PROPERTY_VALUE_INDEX];
-                try
-                {
-                    /*
-                    **Codes_SRS_Mqtt_34_053: [**A property's key and value may include unusual characters such as &, %, $**]**
-                    */
-                    key = URLDecoder.decode(key, StandardCharsets.UTF_8.name());
-                    value = URLDecoder.decode(value, StandardCharsets.UTF_8.name());
-                }
-                catch (UnsupportedEncodingException e)
+                propertyEnd = propertiesEnd;
+            }
+
+            //Expected format is <key>=<value> where both key and value may be encoded
+            int keyValueSeparator = propertiesString.indexOf(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR, propertyStart);
+            if (keyValueSeparator == -1 || keyValueSeparator > propertyEnd)
+            {
+                /*
+                 **Codes_SRS_Mqtt_34_051: [**If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown**]**
+                 */
+                throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: "
+                        + propertiesString.substring(propertyStart, propertyEnd));
+            }
+
+            /*
+            **Codes_SRS_Mqtt_34_053: [**A property's key and value may include unusual characters such as &, %, $**]**
+            */
+            String key = decodeProperty(propertiesString, propertyStart, keyValueSeparator);
+            String value = decodeProperty(propertiesString, keyValueSeparator + 1, propertyEnd);
+
+            //Some properties are reserved system properties and must be saved in the message differently
+            switch (key)
+            {
+                case TO:
+                    //do nothing
+                    break;
+                case MESSAGE_ID:
+                    message.setMessageId(value);
+                    break;
+                case IOTHUB_ACK:
+                    //do nothing
+                    break;
+                case CORRELATION_ID:
+                    message.setCorrelationId(value);
+                    break;
+                case USER_ID:
+                    //do nothing
+                    break;
+                case ABSOLUTE_EXPIRY_TIME:
+                    //do nothing
+                    break;
+                default:
+                    message.setProperty(key, value);
+            }
+
+            propertyStart = propertyEnd + 1;
+        }
+    }
+
+    /**
+     * Decodes a percent-encoded key or value of a property, as URLDecoder does
+     * for UTF-8, without copying the ones that have nothing to decode.
+     * @param properties the properties string holding the key or value
+     * @param start the index of the first character of the key or value
+     * @param end the index after the last character of the key or value
+     * @return the decoded key or value
+     * @throws IllegalArgumentException if a percent sign is not followed by two hexadecimal digits
+     */
+    private static String decodeProperty(String properties, int start, int end) throws IllegalArgumentException
+    {
+        //Codes_SRS_Mqtt_45_009: [This method shall decode the `+` signs and the percent-encoded UTF-8 bytes of the keys and values, and throw an IllegalArgumentException if a percent sign is not followed by two hexadecimal digits.]
+        int index = start;
+        while (index < end && properties.charAt(index) != '%' && properties.charAt(index) != '+')
+        {
+            index++;
+        }
+        if (index == end)
+        {
+            return properties.substring(start, end);
+        }
+
+        StringBuilder decoded = new StringBuilder(end - start);
+        decoded.append(properties, start, index);
+        byte[] escapedBytes = null;
+        while (index < end)
+        {
+            char c = properties.charAt(index);
+            if (c == '%')
+            {
+                if (escapedBytes == null)
                 {
-                    // should never happen, since the encoding is hard-coded.
-                    throw new IllegalStateException(e);
+                    escapedBytes = new byte[(end - index) / 3];
                 }
 
-                //Some properties are reserved system properties and must be saved in the message differently
-                switch (key)
+                // a run of escaped bytes is decoded at once, as a character may take several bytes
+                int escapedCount = 0;
+                while (index < end && properties.charAt(index) == '%')
                 {
-                    case TO:
-                        //do nothing
-                        break;
-                    case MESSAGE_ID:
-                        message.setMessageId(value);
-                        break;
-                    case IOTHUB_ACK:
-                        //do nothing
-                        break;
-                    case CORRELATION_ID:
-                        message.setCorrelationId(value);
-                        break;
-                    case USER_ID:
-                        //do nothing
-                        break;
-                    case ABSOLUTE_EXPIRY_TIME:
-                        //do nothing
-                        break;
-                    default:
-                        message.setProperty(key, value);
+                    int high = (index + 2 < end) ? Character.digit(properties.charAt(index + 1), 16) : -1;
+                    int low = (index + 2 < end) ? Character.digit(properties.charAt(index + 2), 16) : -1;
+                    if (high < 0 || low < 0)
+                    {
+                        throw new IllegalArgumentException("Illegal percent-encoding in property string: " + properties.substring(start, end));
+                    }
+                    escapedBytes[escapedCount++] = (byte) ((high << 4) | low);
+                    index += 3;
                 }
+                decoded.append(new String(escapedBytes, 0, escapedCount, StandardCharsets.UTF_8));
             }
             else
             {
-                /*
-                 **Codes_SRS_Mqtt_34_051: [**If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown**]**
-                 */
-                throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: " + propertyString);
+                decoded.append((c == '+') ? ' ' : c);
+                index++;
             }
         }
+
+        return decoded.toString();
     }
 
     /**
@@ -5,34 +5,37 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
-import org.apache.commons.lang3.tuple.Pair;
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class MqttConnection
 {
     private MqttAsyncClient mqttAsyncClient = null;
     private MqttConnectOptions connectionOptions = null;
-    private ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
+    private MqttMessageRouter messageRouter;
     private Object mqttLock;
     private MqttCallback mqttCallback;
+    private volatile MqttInFlightWindow inFlightWindow;
 
     //mqtt connection options
     private static final int KEEP_ALIVE_INTERVAL = 230;
     private static final int MQTT_VERSION = 4;
     private static final boolean SET_CLEAN_SESSION = false;
     static final int QOS = 1;
+    // telemetry sent at most once, never acknowledged by the IoT Hub
+    static final int QOS_AT_MOST_ONCE = 0;
     static final int MAX_WAIT_TIME = 1000;
 
-    // paho mqtt only supports 10 messages in flight at the same time
-    static final int MAX_IN_FLIGHT_COUNT = 10;
+    // paho mqtt lets 10 messages in flight at the same time unless told otherwise
+    static final int DEFAULT_IN_FLIGHT_COUNT = 10;
 
     /**
      * Constructor to create MqttAsync Client with Paho
@@ -45,7 +48,24 @@ public class MqttConnection
      */
     MqttConnection(String serverURI, String clientId, String userName, String password, SSLContext iotHubSSLContext) throws IOException
     {
-        if (serverURI == null || clientId == null || userName == null || iotHubSSLContext == null)
+        //Codes_SRS_MQTTCONNECTION_45_013: [If no persistence is provided, the constructor shall keep the messages in flight in memory.]
+        this(serverURI, clientId, userName, password, iotHubSSLContext, new MemoryPersistence());
+    }
+
+    /**
+     * Constructor to create MqttAsync Client with Paho, keeping the messages
+     * in flight in the provided persistence
+     * @param serverURI Uri to connect to
+     * @param clientId Client Id to connect to
+     * @param userName Username
+     * @param password password
+     * @param iotHubSSLContext SSLContext for the connection
+     * @param persistence the persistence of the messages in flight
+     * @throws IOException is thrown if any of the parameters are null or empty or client cannot be instantiated
+     */
+    MqttConnection(String serverURI, String clientId, String userName, String password, SSLContext iotHubSSLContext, MqttClientPersistence persistence) throws IOException
+    {
+        if (serverURI == null || clientId == null || userName == null || iotHubSSLContext == null || persistence == null)
         {
             //Codes_SRS_MQTTCONNECTION_25_001: [The constructor shall throw InvalidParameter Exception if any of the input parameters are null other than password.]
             throw new IllegalArgumentException();
@@ -60,7 +80,8 @@ public class MqttConnection
         try
         {
             //Codes_SRS_MQTTCONNECTION_25_004: [The constructor shall create an MqttAsync client and update the connection options using the provided serverUri, clientId, userName, password and sslContext.]
-            mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, new MemoryPersistence());
+            //Codes_SRS_MQTTCONNECTION_45_014: [The constructor shall create the MqttAsync client with the provided persistence, which keeps the messages in flight until they are acknowledged.]
+            mqttAsyncClient = new MqttAsyncClient(serverURI, clientId, persistence);
             connectionOptions = new MqttConnectOptions();
             this.updateConnectionOptions(userName, password, iotHubSSLContext);
         }
@@ -71,9 +92,11 @@ public class MqttConnection
             throw new IOException("Error initializing MQTT connection:" + e.getMessage());
         }
 
-        //Codes_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, queue for this MqttConnection.]
-        this.allReceivedMessages = new ConcurrentLinkedQueue<>();
+        //Codes_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, message router for this MqttConnection.]
+        this.messageRouter = new MqttMessageRouter();
         this.mqttLock = new Object();
+        //Codes_SRS_MQTTCONNECTION_45_001: [The constructor shall create a fixed in flight window of DEFAULT_IN_FLIGHT_COUNT slots for this MqttConnection.]
+        this.inFlightWindow = new MqttInFlightWindow(DEFAULT_IN_FLIGHT_COUNT, false);
     }
 
     /**
@@ -125,13 +148,13 @@ public class MqttConnection
     }
 
     /**
-     * Getter for queue for the messages
-     * @return Queue for the messages
+     * Getter for the router of the received messages
+     * @return The router that queues the received messages by the client that handles them
      */
-    ConcurrentLinkedQueue<Pair<String, byte[]>> getAllReceivedMessages()
+    MqttMessageRouter getMessageRouter()
     {
-        //Codes_SRS_MQTTCONNECTION_25_008: [Getter for the Message Queue.]
-        return allReceivedMessages;
+        //Codes_SRS_MQTTCONNECTION_45_012: [Getter for the message router.]
+        return messageRouter;
     }
 
     /**
@@ -154,6 +177,85 @@ public class MqttConnection
         return connectionOptions;
     }
 
+    /**
+     * Takes a slot of the in flight window before a publish, if one is free.
+     * A full window never holds up the thread of the caller.
+     * @return {@code true} if a slot was taken, and {@code false} if all the slots are taken.
+     */
+    boolean tryAcquireInFlightSlot()
+    {
+        //Codes_SRS_MQTTCONNECTION_45_002: [This method shall take a slot of the in flight window and return true, or return false without waiting if all the slots are taken.]
+        return this.inFlightWindow.tryAcquire();
+    }
+
+    /**
+     * Gives back a slot of the in flight window for a publish that never
+     * left.
+     */
+    void releaseInFlightSlot()
+    {
+        //Codes_SRS_MQTTCONNECTION_45_004: [This method shall release a slot of the in flight window.]
+        this.inFlightWindow.release();
+    }
+
+    /**
+     * Gives back the slot of the in flight window of a publish once its
+     * delivery completed, so an adaptive window can tune its size from the
+     * round trip of the publish or from its failure.
+     * @param sentNanos the {@link System#nanoTime()} when the publish was sent.
+     * @param isDelivered {@code true} if the publish was acknowledged, and {@code false} if its delivery failed.
+     */
+    void completeInFlightSlot(long sentNanos, boolean isDelivered)
+    {
+        if (isDelivered)
+        {
+            //Codes_SRS_MQTTCONNECTION_45_005: [If the publish was delivered, this method shall release its slot and pass its round trip to the in flight window.]
+            this.inFlightWindow.onDelivered(sentNanos);
+        }
+        else
+        {
+            //Codes_SRS_MQTTCONNECTION_45_006: [If the delivery of the publish failed, this method shall release its slot and report the failure to the in flight window.]
+            this.inFlightWindow.onDeliveryFailed(sentNanos);
+        }
+    }
+
+    /**
+     * Reports a lost connection to the in flight window, so an adaptive window
+     * shrinks.
+     */
+    void onConnectionLost()
+    {
+        //Codes_SRS_MQTTCONNECTION_45_007: [This method shall report the lost connection to the in flight window.]
+        this.inFlightWindow.onConnectionLost();
+    }
+
+    /**
+     * Replaces the in flight window of the connection, and lets paho keep as
+     * many messages in flight. Must be called before the connection is used.
+     * @param maxInFlightCount the maximum number of publishes in flight.
+     * @param isAdaptive {@code true} to tune the size of the window from the round trip of the publishes.
+     * @throws IllegalArgumentException if the maximum number of publishes in flight is smaller than 1.
+     */
+    void setInFlightWindow(int maxInFlightCount, boolean isAdaptive)
+    {
+        //Codes_SRS_MQTTCONNECTION_45_008: [If the maximum number of publishes in flight is smaller than 1, this method shall throw IllegalArgumentException.]
+        //Codes_SRS_MQTTCONNECTION_45_009: [This method shall replace the in flight window with a new one of the provided maximum size and mode.]
+        this.inFlightWindow = new MqttInFlightWindow(maxInFlightCount, isAdaptive);
+
+        //Codes_SRS_MQTTCONNECTION_45_010: [This method shall set the maximum number of messages in flight of the connection options to the provided maximum.]
+        this.connectionOptions.setMaxInflight(maxInFlightCount);
+    }
+
+    /**
+     * Getter for the gauges of the in flight window.
+     * @return a snapshot of the size of the window, of the publishes in flight and of their round trip.
+     */
+    InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        //Codes_SRS_MQTTCONNECTION_45_011: [Getter for the statistics of the in flight window.]
+        return this.inFlightWindow.getStatistics();
+    }
+
     /**
      * Setter for mqttAsyncClient
      * @param mqttAsyncClient set mqttAsyncClient. Can be {@code null}.
@@ -11,4 +11,9 @@ public interface MqttConnectionStateListener
      * Method executed when the connection with the IoTHub is established
      */
     void connectionEstablished();
+
+    /**
+     * Method executed when a message from the IoTHub is added to the received messages queue.
+     */
+    void messageReceived();
 }
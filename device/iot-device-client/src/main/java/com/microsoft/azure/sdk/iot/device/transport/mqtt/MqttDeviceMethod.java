@@ -17,6 +17,7 @@ import java.util.Map;
 public class MqttDeviceMethod extends Mqtt
 {
     private String subscribeTopic;
+    private MqttSubscription subscription;
     private String responseTopic;
     private final Map<String, DeviceOperations> requestMap = new HashMap<>();
     private boolean isStarted = false;
@@ -41,14 +42,27 @@ public class MqttDeviceMethod extends Mqtt
         /*
         Codes_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class without any parameters.**]**
          */
-        super(mqttConnection, null);
+        //Codes_SRS_MQTTDEVICEMETHOD_45_001: [The constructor shall read the received messages from the DEVICE_METHOD queue of the message router.]
+        super(mqttConnection, null, MqttMessageRouter.Route.DEVICE_METHOD);
         /*
         Codes_SRS_MqttDeviceMethod_25_002: [**The constructor shall create subscribe and response topics strings for device methods as per the spec.**]**
          */
         this.subscribeTopic = POST + BACKSLASH + POUND;
+        this.subscription = new MqttSubscription(this.subscribeTopic);
         this.responseTopic = RES;
     }
 
+    /**
+     * Getter for the subscription to the device method requests.
+     *
+     * @return the subscription of the device method requests.
+     */
+    MqttSubscription getSubscription()
+    {
+        //Codes_SRS_MQTTDEVICEMETHOD_45_003: [The function shall return the subscription to the device method subscribe topic.]
+        return this.subscription;
+    }
+
     public void start()
     {
         if (!isStarted)
@@ -100,7 +114,8 @@ public class MqttDeviceMethod extends Mqtt
         {
             case DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST:
             {
-                this.subscribe(subscribeTopic);
+                //Codes_SRS_MQTTDEVICEMETHOD_45_004: [send method shall subscribe to the device method subscribe topic once, without waiting for the IoT Hub to acknowledge it, if the operation is of type DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST.]
+                this.subscribe(this.subscription);
                 break;
             }
             case DEVICE_OPERATION_METHOD_SEND_RESPONSE:
@@ -237,6 +252,12 @@ public class MqttDeviceMethod extends Mqtt
                                 throw new IOException("Method Invoke received without request ID");
                             }
                         }
+                        else
+                        {
+                            //Codes_SRS_MQTTDEVICEMETHOD_45_002: [If the topic is not a post topic, this method shall remove the message from the queue and return null, so it cannot hold back the next requests.]
+                            allReceivedMessages.poll();
+                            logger.LogInfo("Dropping message received on unexpected device method topic %s, method name is %s ", topic, logger.getMethodName());
+                        }
                     }
                 }
             }
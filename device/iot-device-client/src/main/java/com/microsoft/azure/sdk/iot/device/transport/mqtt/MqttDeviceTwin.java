@@ -8,17 +8,21 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 public class MqttDeviceTwin extends Mqtt
 {
     private String subscribeTopic;
-    private final Map<String, DeviceOperations> requestMap = new HashMap<>();
+    private MqttSubscription responseSubscription;
+    private MqttSubscription desiredPropertiesSubscription;
+    private final IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
     private boolean isStarted = false;
     private final CustomLogger logger = new CustomLogger(this.getClass());
 
@@ -54,12 +58,24 @@ public class MqttDeviceTwin extends Mqtt
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
          */
-        super(mqttConnection, null);
+        //Codes_SRS_MQTTDEVICETWIN_45_001: [The constructor shall read the received messages from the DEVICE_TWIN queue of the message router.]
+        super(mqttConnection, null, MqttMessageRouter.Route.DEVICE_TWIN);
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
          */
         this.subscribeTopic = RES + BACKSLASH + POUND;
+        this.responseSubscription = new MqttSubscription(this.subscribeTopic);
 
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_45_006: [**The constructor shall create the subscriptions to the twin response topic ($iothub/twin/res/#) and to the desired properties topic ($iothub/twin/PATCH/properties/desired/#).**]**
+         */
+        this.desiredPropertiesSubscription = new MqttSubscription(PATCH +
+                BACKSLASH +
+                PROPERTIES +
+                BACKSLASH +
+                DESIRED +
+                BACKSLASH +
+                POUND);
     }
 
     public void start() throws IOException
@@ -67,18 +83,44 @@ public class MqttDeviceTwin extends Mqtt
         if (!isStarted)
         {
             /*
-            **Codes_SRS_MQTTDEVICETWIN_25_019: [**start method shall subscribe to twin response topic ($iothub/twin/res/#) if connected and throw IoException otherwise.**]**
+            **Codes_SRS_MQTTDEVICETWIN_45_007: [**start method shall just mark that this class is ready to start, since the twin response topic is subscribed along with the other topics of the connection when it opens.**]**
              */
-            this.subscribe(subscribeTopic);
             isStarted = true;
         }
     }
 
+    /**
+     * Getter for the subscription to the twin responses, to subscribe along
+     * with the other topics of the connection when it opens.
+     *
+     * @return the subscription of the twin responses.
+     */
+    MqttSubscription getResponseSubscription()
+    {
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_45_008: [**The function shall return the subscription to the twin response topic.**]**
+         */
+        return this.responseSubscription;
+    }
+
+    /**
+     * Getter for the subscription to the desired properties updates.
+     *
+     * @return the subscription of the desired properties updates.
+     */
+    MqttSubscription getDesiredPropertiesSubscription()
+    {
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_45_009: [**The function shall return the subscription to the desired properties topic.**]**
+         */
+        return this.desiredPropertiesSubscription;
+    }
+
     public void stop() throws IOException
     {
         isStarted = false;
 
-        if (!requestMap.isEmpty())
+        if (requestMap.size() > 0)
         {
             logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
         }
@@ -209,7 +251,6 @@ public class MqttDeviceTwin extends Mqtt
         }
 
         String publishTopic = buildTopic(message);
-        requestMap.put(message.getRequestId(), message.getDeviceOperationType());
 
         /*
         **Codes_SRS_MqttMessaging_25_024: [**send method shall publish a message to the IOT Hub on the publish topic by calling method publish().**]**
@@ -220,24 +261,32 @@ public class MqttDeviceTwin extends Mqtt
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
              */
-            String subscribeTopic = PATCH +
-                    BACKSLASH +
-                    PROPERTIES +
-                    BACKSLASH +
-                    DESIRED +
-                    BACKSLASH +
-                    POUND;
             /*
-            **Codes_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
+            **Codes_SRS_MQTTDEVICETWIN_45_010: [**send method shall subscribe to desired properties once, without waiting for the IoT Hub to acknowledge it.**]**
              */
-            this.subscribe(subscribeTopic);
+            this.subscribe(this.desiredPropertiesSubscription);
         }
         else
         {
             /*
-            **Codes_SRS_MQTTDEVICETWIN_25_031: [**send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().**]**
+            **Codes_SRS_MQTTDEVICETWIN_45_002: [**send method shall add the request id and operation of the message to the table of the requests waiting for their response, with the deadline of the table, before publishing it.**]**
              */
-            this.publish(publishTopic, message.getBytes());
+            requestMap.add(message.getRequestId(), message.getDeviceOperationType(), System.currentTimeMillis());
+            try
+            {
+                /*
+                **Codes_SRS_MQTTDEVICETWIN_25_031: [**send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().**]**
+                 */
+                this.publish(publishTopic, message.getBytes());
+            }
+            catch (IOException e)
+            {
+                /*
+                **Codes_SRS_MQTTDEVICETWIN_45_003: [**If the message cannot be published, send method shall remove its request from the table and rethrow the exception.**]**
+                 */
+                requestMap.remove(message.getRequestId());
+                throw e;
+            }
         }
     }
 
@@ -361,9 +410,10 @@ public class MqttDeviceTwin extends Mqtt
                             */
                                 String requestId = getRequestId(topicTokens[REQID_TOKEN]);
                                 messsage.setRequestId(requestId);
-                                if (requestMap.containsKey(requestId))
+                                DeviceOperations requestOperation = requestMap.remove(requestId);
+                                if (requestOperation != null)
                                 {
-                                    switch (requestMap.remove(requestId))
+                                    switch (requestOperation)
                                     {
                                         case DEVICE_OPERATION_TWIN_GET_REQUEST:
                                             messsage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
@@ -445,4 +495,55 @@ public class MqttDeviceTwin extends Mqtt
             return messsage;
         }
     }
+
+    /**
+     * Removes the requests that waited for their response past their deadline
+     * and makes up a response for each, with status
+     * {@link IotHubTwinRequestTable#TIMEOUT_STATUS}, so the callers of the
+     * requests learn that they failed.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return the responses of the requests that timed out. Never {@code null}.
+     */
+    public List<IotHubTransportMessage> removeExpiredRequests(long currentTimeMillis)
+    {
+        List<IotHubTransportMessage> timeoutResponses = new ArrayList<>();
+        for (Map.Entry<String, DeviceOperations> expiredRequest : requestMap.removeExpired(currentTimeMillis).entrySet())
+        {
+            /*
+            **Codes_SRS_MQTTDEVICETWIN_45_004: [**removeExpiredRequests shall remove the requests whose deadline passed and return for each a response with an empty payload, the request id of the request, the status TIMEOUT_STATUS and the response operation type of the request.**]**
+             */
+            IotHubTransportMessage timeoutResponse = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+            timeoutResponse.setRequestId(expiredRequest.getKey());
+            timeoutResponse.setStatus(IotHubTwinRequestTable.TIMEOUT_STATUS);
+            switch (expiredRequest.getValue())
+            {
+                case DEVICE_OPERATION_TWIN_GET_REQUEST:
+                    timeoutResponse.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_GET_RESPONSE);
+                    break;
+                case DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST:
+                    timeoutResponse.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+                    break;
+                default:
+                    timeoutResponse.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_UNKNOWN);
+            }
+            logger.LogWarn("Device twin request %s timed out waiting for its response, method name is %s ", expiredRequest.getKey(), logger.getMethodName());
+            timeoutResponses.add(timeoutResponse);
+        }
+
+        return timeoutResponses;
+    }
+
+    /**
+     * Getter for the number of requests that wait for their response.
+     *
+     * @return the number of pending device twin requests.
+     */
+    public int getPendingRequestCount()
+    {
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_45_005: [**getPendingRequestCount shall return the number of requests in the table of the requests waiting for their response.**]**
+         */
+        return requestMap.size();
+    }
 }
@@ -0,0 +1,563 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A Paho persistence that keeps the MQTT messages in flight in a single file,
+ * so the publishes that were not acknowledged resume when the process
+ * restarts. Unlike the default file persistence of Paho, which writes a file
+ * per message, the file is an append-only log: storing a message appends a
+ * record, removing it appends a removal record, and an index in memory maps
+ * each key to the position of its last record. The index is rebuilt from the
+ * log when the persistence is opened.
+ *
+ * Once the records that are no longer live take more room than the live ones,
+ * the live records are copied to a new file that atomically replaces the log.
+ * The records are not forced to the disk on each write, so they survive a
+ * restart of the process but not necessarily a crash of the operating system.
+ */
+public final class MqttFilePersistence implements MqttClientPersistence
+{
+    /** The size the log must reach before it is compacted. */
+    static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private static final String LOG_SUFFIX = ".mqtt";
+    private static final String COMPACTION_SUFFIX = ".compact";
+    private static final Charset KEY_CHARSET = Charset.forName("UTF-8");
+
+    // record layout: length of the rest of the record, CRC32 of the rest of the record,
+    // operation, key length, key, header length, header, payload
+    private static final int RECORD_PREFIX_BYTES = 4 + 4;
+    private static final int RECORD_FIXED_BYTES = 1 + 2 + 4;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final File directory;
+    private final Map<String, Entry> index = new HashMap<>();
+    private File logFile;
+    private File compactionFile;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long endPosition;
+    private long liveBytes;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+    private final CRC32 crc = new CRC32();
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    private static final class Entry
+    {
+        private final long position;
+        private final int length;
+
+        private Entry(long position, int length)
+        {
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Constructor. The persistence is not usable until Paho opens it.
+     *
+     * @param directory the directory of the log files. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the directory is {@code null}.
+     */
+    public MqttFilePersistence(File directory)
+    {
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_001: [If the directory is null, the constructor shall throw IllegalArgumentException.]
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Parameter 'directory' must not be null");
+        }
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_002: [The constructor shall save the directory.]
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the log of the client, creating the directory if needed, and
+     * rebuilds the index from it. A record torn by a crash ends the log.
+     *
+     * @param clientId the identifier of the MQTT client.
+     * @param serverURI the URI of the server the client connects to.
+     * @throws MqttPersistenceException if the persistence is already open, or
+     * the log cannot be read or created.
+     */
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException
+    {
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_003: [If the persistence is already open, the function shall throw MqttPersistenceException.]
+        if (this.channel != null)
+        {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+        }
+
+        try
+        {
+            // Codes_SRS_MQTTFILEPERSISTENCE_45_004: [The function shall create the directory if it does not exist, and open the log named after the client id and the server URI, deleting a compaction left unfinished.]
+            if (!this.directory.isDirectory() && !this.directory.mkdirs())
+            {
+                throw new IOException("Cannot create MQTT persistence directory " + this.directory);
+            }
+
+            String name = toFileName(clientId + "-" + serverURI);
+            this.logFile = new File(this.directory, name + LOG_SUFFIX);
+            this.compactionFile = new File(this.directory, name + COMPACTION_SUFFIX);
+            Files.deleteIfExists(this.compactionFile.toPath());
+            this.randomAccessFile = new RandomAccessFile(this.logFile, "rw");
+            this.channel = this.randomAccessFile.getChannel();
+
+            // Codes_SRS_MQTTFILEPERSISTENCE_45_005: [The function shall replay the records of the log into the index, stopping at the first record with a bad length or checksum, and cut the log after the last valid record.]
+            this.recover();
+        }
+        catch (IOException e)
+        {
+            this.closeQuietly();
+            throw new MqttPersistenceException(e);
+        }
+
+        logger.LogInfo("MQTT persistence in %s recovered %d messages, method name is %s ", this.logFile, this.index.size(), logger.getMethodName());
+    }
+
+    /**
+     * Closes the log. The messages are kept for the next open. If the
+     * persistence is not open, the function does nothing.
+     *
+     * @throws MqttPersistenceException if the log cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws MqttPersistenceException
+    {
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_006: [If the persistence is not open, the function shall do nothing.]
+        if (this.channel == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_007: [The function shall close the log and clear the index.]
+        try
+        {
+            this.randomAccessFile.close();
+        }
+        catch (IOException e)
+        {
+            throw new MqttPersistenceException(e);
+        }
+        finally
+        {
+            this.channel = null;
+            this.randomAccessFile = null;
+            this.index.clear();
+            this.liveBytes = 0;
+        }
+    }
+
+    /**
+     * Stores a message, replacing any message with the same key.
+     *
+     * @param key the key of the message.
+     * @param persistable the header and payload of the message.
+     * @throws MqttPersistenceException if the persistence is not open, or the
+     * record cannot be written.
+     */
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_009: [The function shall append a record of the key, the header and the payload to the log, and index the key at the position of the record.]
+        byte[] keyBytes = key.getBytes(KEY_CHARSET);
+        int headerLength = persistable.getHeaderLength();
+        int payloadLength = (persistable.getPayloadBytes() == null) ? 0 : persistable.getPayloadLength();
+        int bodyLength = RECORD_FIXED_BYTES + keyBytes.length + headerLength + payloadLength;
+
+        ByteBuffer buffer = this.startRecord(bodyLength);
+        buffer.put(PUT);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(headerLength);
+        buffer.put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        if (payloadLength > 0)
+        {
+            buffer.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        }
+
+        long position = this.appendRecord(buffer);
+        Entry previous = this.index.put(key, new Entry(position, RECORD_PREFIX_BYTES + bodyLength));
+        if (previous != null)
+        {
+            this.liveBytes -= previous.length;
+        }
+        this.liveBytes += RECORD_PREFIX_BYTES + bodyLength;
+
+        this.compactIfSparse();
+    }
+
+    /**
+     * Reads a stored message.
+     *
+     * @param key the key of the message.
+     * @return the header and payload of the message.
+     * @throws MqttPersistenceException if the persistence is not open, no
+     * message is stored with this key, or its record cannot be read.
+     */
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        Entry entry = this.index.get(key);
+        if (entry == null)
+        {
+            // Codes_SRS_MQTTFILEPERSISTENCE_45_010: [If no message is stored with the key, the function shall throw MqttPersistenceException.]
+            throw new MqttPersistenceException();
+        }
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_011: [The function shall read the record of the key from the log and return its header and payload.]
+        try
+        {
+            ByteBuffer record = ByteBuffer.allocate(entry.length);
+            readFully(this.channel, record, entry.position);
+            record.position(RECORD_PREFIX_BYTES + 1);
+            int keyLength = record.getShort() & 0xFFFF;
+            record.position(record.position() + keyLength);
+            int headerLength = record.getInt();
+            byte[] header = new byte[headerLength];
+            record.get(header);
+            byte[] payload = new byte[record.remaining()];
+            record.get(payload);
+            return new MqttPersistentData(key, header, 0, headerLength, payload, 0, payload.length);
+        }
+        catch (IOException e)
+        {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    /**
+     * Removes a stored message. Removing a key that is not stored does nothing.
+     *
+     * @param key the key of the message.
+     * @throws MqttPersistenceException if the persistence is not open, or the
+     * record cannot be written.
+     */
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_012: [If no message is stored with the key, the function shall do nothing.]
+        Entry entry = this.index.remove(key);
+        if (entry == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_013: [The function shall append a removal record of the key to the log and remove the key from the index.]
+        this.liveBytes -= entry.length;
+        byte[] keyBytes = key.getBytes(KEY_CHARSET);
+        ByteBuffer buffer = this.startRecord(1 + 2 + keyBytes.length);
+        buffer.put(REMOVE);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        this.appendRecord(buffer);
+
+        this.compactIfSparse();
+    }
+
+    /**
+     * Getter for the keys of the stored messages.
+     *
+     * @return a snapshot of the keys.
+     * @throws MqttPersistenceException if the persistence is not open.
+     */
+    @Override
+    public synchronized Enumeration keys() throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_014: [The function shall return a snapshot of the keys of the index.]
+        return Collections.enumeration(new ArrayList<>(this.index.keySet()));
+    }
+
+    /**
+     * Removes all the stored messages.
+     *
+     * @throws MqttPersistenceException if the persistence is not open, or the
+     * log cannot be truncated.
+     */
+    @Override
+    public synchronized void clear() throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_015: [The function shall truncate the log and clear the index.]
+        try
+        {
+            this.channel.truncate(0);
+        }
+        catch (IOException e)
+        {
+            throw new MqttPersistenceException(e);
+        }
+        this.index.clear();
+        this.endPosition = 0;
+        this.liveBytes = 0;
+    }
+
+    /**
+     * Checks whether a message is stored.
+     *
+     * @param key the key of the message.
+     * @return {@code true} if a message is stored with this key.
+     * @throws MqttPersistenceException if the persistence is not open.
+     */
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException
+    {
+        this.checkOpen();
+
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_016: [The function shall return true if the key is in the index, and false otherwise.]
+        return this.index.containsKey(key);
+    }
+
+    private void checkOpen() throws MqttPersistenceException
+    {
+        if (this.channel == null)
+        {
+            // Codes_SRS_MQTTFILEPERSISTENCE_45_008: [If the persistence is not open, the functions that access the messages shall throw MqttPersistenceException.]
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_CLOSED);
+        }
+    }
+
+    private ByteBuffer startRecord(int bodyLength)
+    {
+        int recordLength = RECORD_PREFIX_BYTES + bodyLength;
+        if (this.writeBuffer.capacity() < recordLength)
+        {
+            this.writeBuffer = ByteBuffer.allocate(Math.max(recordLength, 2 * this.writeBuffer.capacity()));
+        }
+
+        this.writeBuffer.clear();
+        this.writeBuffer.putInt(bodyLength);
+        // the checksum is set once the body is written
+        this.writeBuffer.putInt(0);
+        return this.writeBuffer;
+    }
+
+    private long appendRecord(ByteBuffer buffer) throws MqttPersistenceException
+    {
+        this.crc.reset();
+        this.crc.update(buffer.array(), RECORD_PREFIX_BYTES, buffer.position() - RECORD_PREFIX_BYTES);
+        buffer.putInt(4, (int) this.crc.getValue());
+        buffer.flip();
+
+        long position = this.endPosition;
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                this.channel.write(buffer, this.endPosition);
+                this.endPosition = position + buffer.position();
+            }
+        }
+        catch (IOException e)
+        {
+            // a partial record reads as the end of the log
+            this.endPosition = position;
+            throw new MqttPersistenceException(e);
+        }
+
+        return position;
+    }
+
+    private void recover() throws IOException
+    {
+        long size = this.channel.size();
+        long position = 0;
+        ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_BYTES);
+        while (position + RECORD_PREFIX_BYTES <= size)
+        {
+            prefix.clear();
+            readFully(this.channel, prefix, position);
+            int bodyLength = prefix.getInt(0);
+            if ((bodyLength < 1 + 2) || (bodyLength > size - position - RECORD_PREFIX_BYTES))
+            {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(this.channel, body, position + RECORD_PREFIX_BYTES);
+            this.crc.reset();
+            this.crc.update(body.array(), 0, bodyLength);
+            if (prefix.getInt(4) != (int) this.crc.getValue())
+            {
+                logger.LogWarn("MQTT persistence %s ends with a torn record, method name is %s ", this.logFile, logger.getMethodName());
+                break;
+            }
+
+            byte operation = body.get(0);
+            int keyLength = body.getShort(1) & 0xFFFF;
+            if ((3 + keyLength > bodyLength) || ((operation == PUT) && (RECORD_FIXED_BYTES + keyLength > bodyLength)))
+            {
+                break;
+            }
+            String key = new String(body.array(), 3, keyLength, KEY_CHARSET);
+
+            int recordLength = RECORD_PREFIX_BYTES + bodyLength;
+            Entry previous = (operation == PUT) ? this.index.put(key, new Entry(position, recordLength)) : this.index.remove(key);
+            if (previous != null)
+            {
+                this.liveBytes -= previous.length;
+            }
+            if (operation == PUT)
+            {
+                this.liveBytes += recordLength;
+            }
+
+            position += recordLength;
+        }
+
+        if (position < size)
+        {
+            this.channel.truncate(position);
+        }
+        this.endPosition = position;
+    }
+
+    private void compactIfSparse() throws MqttPersistenceException
+    {
+        // Codes_SRS_MQTTFILEPERSISTENCE_45_017: [Once the log is larger than MIN_COMPACTION_BYTES and less than half of it is live, put and remove shall copy the live records to a new file that atomically replaces the log.]
+        if ((this.endPosition < MIN_COMPACTION_BYTES) || (this.liveBytes * 2 > this.endPosition))
+        {
+            return;
+        }
+
+        Map<String, Entry> compactedIndex = new HashMap<>();
+        try
+        {
+            long position = 0;
+            RandomAccessFile compaction = new RandomAccessFile(this.compactionFile, "rw");
+            try
+            {
+                FileChannel compactionChannel = compaction.getChannel();
+                compactionChannel.truncate(0);
+                for (Map.Entry<String, Entry> live : this.index.entrySet())
+                {
+                    Entry entry = live.getValue();
+                    long copied = 0;
+                    while (copied < entry.length)
+                    {
+                        copied += this.channel.transferTo(entry.position + copied, entry.length - copied, compactionChannel);
+                    }
+                    compactedIndex.put(live.getKey(), new Entry(position, entry.length));
+                    position += entry.length;
+                }
+                compactionChannel.force(false);
+            }
+            finally
+            {
+                compaction.close();
+            }
+
+            this.randomAccessFile.close();
+            Files.move(this.compactionFile.toPath(), this.logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.randomAccessFile = new RandomAccessFile(this.logFile, "rw");
+            this.channel = this.randomAccessFile.getChannel();
+            this.index.clear();
+            this.index.putAll(compactedIndex);
+            this.endPosition = position;
+        }
+        catch (IOException e)
+        {
+            logger.LogError("Cannot compact MQTT persistence %s, method name is %s ", this.logFile, logger.getMethodName());
+            this.reopenAfterFailedCompaction(e);
+        }
+    }
+
+    private void reopenAfterFailedCompaction(IOException cause) throws MqttPersistenceException
+    {
+        try
+        {
+            if (!this.channel.isOpen())
+            {
+                // the log was closed before the move, and is whichever file won
+                this.randomAccessFile = new RandomAccessFile(this.logFile, "rw");
+                this.channel = this.randomAccessFile.getChannel();
+                this.index.clear();
+                this.liveBytes = 0;
+                this.recover();
+            }
+        }
+        catch (IOException e)
+        {
+            this.closeQuietly();
+            throw new MqttPersistenceException(cause);
+        }
+    }
+
+    private void closeQuietly()
+    {
+        if (this.randomAccessFile != null)
+        {
+            try
+            {
+                this.randomAccessFile.close();
+            }
+            catch (IOException e)
+            {
+                logger.LogError(e);
+            }
+        }
+        this.randomAccessFile = null;
+        this.channel = null;
+        this.index.clear();
+        this.liveBytes = 0;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of MQTT persistence log");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static String toFileName(String name)
+    {
+        StringBuilder fileName = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            fileName.append(Character.isLetterOrDigit(c) || (c == '-') || (c == '.') ? c : '_');
+        }
+        return fileName.toString();
+    }
+}
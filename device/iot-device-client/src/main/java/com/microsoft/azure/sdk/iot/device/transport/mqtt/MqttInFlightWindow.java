@@ -0,0 +1,260 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The window of QoS 1 publishes waiting for their PUBACK on one MQTT
+ * connection. A fixed window always lets the same number of publishes in
+ * flight. An adaptive window starts at {@link #INITIAL_ADAPTIVE_SIZE} slots
+ * and tunes its size in the AIMD way: it grows by one slot per window of
+ * acknowledged publishes while the round trip stays close to the fastest one
+ * seen, and halves on a failed delivery, a round trip inflated past
+ * {@link #TIMEOUT_RTT_FACTOR} times the fastest one, or a lost connection.
+ * The size never goes above the configured maximum, nor below 1.
+ */
+final class MqttInFlightWindow
+{
+    /** The size an adaptive window starts at, if its maximum allows it. */
+    static final int INITIAL_ADAPTIVE_SIZE = 10;
+    /** A round trip up to this factor of the fastest one is flat, and lets the window grow. */
+    static final double FLAT_RTT_FACTOR = 1.5;
+    /** A round trip above this factor of the fastest one counts as a timeout, and shrinks the window. */
+    static final double TIMEOUT_RTT_FACTOR = 4.0;
+
+    /* weight of a new sample in the smoothed round trip, as in TCP */
+    private static final double RTT_SMOOTHING_FACTOR = 0.125;
+
+    private final int maxSize;
+    private final boolean isAdaptive;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int size;
+    private int inFlightCount = 0;
+    private int acknowledgedSinceGrowth = 0;
+    private boolean hasShrunk = false;
+    private long lastShrinkNanos = 0;
+    private long minRttNanos = 0;
+    private long smoothedRttNanos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum number of publishes in flight.
+     * @param isAdaptive {@code true} to tune the size of the window from the
+     * round trip of the publishes, and {@code false} to keep it at maxSize.
+     * @throws IllegalArgumentException if the maximum size is smaller than 1.
+     */
+    MqttInFlightWindow(int maxSize, boolean isAdaptive)
+    {
+        // Codes_SRS_MQTTINFLIGHTWINDOW_45_001: [If the maximum size is smaller than 1, the constructor shall throw IllegalArgumentException.]
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("in flight window size cannot be smaller than 1");
+        }
+
+        this.maxSize = maxSize;
+        this.isAdaptive = isAdaptive;
+
+        // Codes_SRS_MQTTINFLIGHTWINDOW_45_002: [The constructor shall size a fixed window to the maximum size, and an adaptive window to the smallest of INITIAL_ADAPTIVE_SIZE and the maximum size.]
+        this.size = isAdaptive ? Math.min(INITIAL_ADAPTIVE_SIZE, maxSize) : maxSize;
+    }
+
+    /**
+     * Takes a slot of the window if one is free. Never parks: a caller that
+     * gets no slot tries again once a publish in flight completes.
+     *
+     * @return {@code true} if a slot was taken, and {@code false} if all the slots are taken.
+     */
+    boolean tryAcquire()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_003: [The function shall take a slot and return true if fewer publishes than the size of the window are in flight.]
+            if (this.inFlightCount >= this.size)
+            {
+                // Codes_SRS_MQTTINFLIGHTWINDOW_45_004: [If all the slots are taken, the function shall return false without waiting.]
+                return false;
+            }
+
+            this.inFlightCount++;
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a slot without any measure of the round trip, as for a
+     * publish that never left.
+     */
+    void release()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_005: [The function shall free a slot.]
+            this.freeSlot();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a publish that was acknowledged, and tunes an
+     * adaptive window from its round trip.
+     *
+     * @param sentNanos the {@link System#nanoTime()} when the publish was sent.
+     */
+    void onDelivered(long sentNanos)
+    {
+        long nowNanos = System.nanoTime();
+        long rttNanos = Math.max(0, nowNanos - sentNanos);
+
+        this.lock.lock();
+        try
+        {
+            this.freeSlot();
+
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_006: [The function shall update the smoothed and the minimum round trip with the round trip of the publish.]
+            this.smoothedRttNanos = (this.smoothedRttNanos == 0)
+                    ? rttNanos
+                    : (long) ((1 - RTT_SMOOTHING_FACTOR) * this.smoothedRttNanos + RTT_SMOOTHING_FACTOR * rttNanos);
+            if ((this.minRttNanos == 0) || (rttNanos < this.minRttNanos))
+            {
+                this.minRttNanos = Math.max(1, rttNanos);
+            }
+
+            if (!this.isAdaptive)
+            {
+                return;
+            }
+
+            if (rttNanos > TIMEOUT_RTT_FACTOR * this.minRttNanos)
+            {
+                // Codes_SRS_MQTTINFLIGHTWINDOW_45_008: [If the window is adaptive and the round trip is above TIMEOUT_RTT_FACTOR times the minimum round trip, the function shall shrink the window.]
+                this.shrink(sentNanos);
+            }
+            else if (rttNanos <= FLAT_RTT_FACTOR * this.minRttNanos)
+            {
+                // Codes_SRS_MQTTINFLIGHTWINDOW_45_007: [If the window is adaptive and the round trip is up to FLAT_RTT_FACTOR times the minimum round trip, the function shall grow the window by one slot once a full window of publishes is acknowledged, up to the maximum size.]
+                this.acknowledgedSinceGrowth++;
+                if (this.acknowledgedSinceGrowth >= this.size)
+                {
+                    this.acknowledgedSinceGrowth = 0;
+                    if (this.size < this.maxSize)
+                    {
+                        this.size++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a publish whose delivery failed, and shrinks an
+     * adaptive window.
+     *
+     * @param sentNanos the {@link System#nanoTime()} when the publish was sent.
+     */
+    void onDeliveryFailed(long sentNanos)
+    {
+        this.lock.lock();
+        try
+        {
+            this.freeSlot();
+
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_009: [If the window is adaptive, the function shall shrink the window.]
+            if (this.isAdaptive)
+            {
+                this.shrink(sentNanos);
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Shrinks an adaptive window after the connection was lost, as the IoT
+     * Hub drops the connections of the clients it throttles. The minimum
+     * round trip is measured again on the new connection.
+     */
+    void onConnectionLost()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_010: [If the window is adaptive, the function shall shrink the window and forget the minimum round trip.]
+            if (this.isAdaptive)
+            {
+                this.shrink(System.nanoTime());
+                this.minRttNanos = 0;
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for the gauges of the window.
+     *
+     * @return a snapshot of the size of the window, of the publishes in flight and of their round trip.
+     */
+    InFlightWindowStatistics getStatistics()
+    {
+        this.lock.lock();
+        try
+        {
+            // Codes_SRS_MQTTINFLIGHTWINDOW_45_011: [The function shall return the current and maximum size of the window, the number of publishes in flight, and the smoothed and minimum round trip in microseconds.]
+            return new InFlightWindowStatistics(this.size, this.maxSize, this.inFlightCount,
+                    TimeUnit.NANOSECONDS.toMicros(this.smoothedRttNanos), TimeUnit.NANOSECONDS.toMicros(this.minRttNanos));
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    private void freeSlot()
+    {
+        if (this.inFlightCount > 0)
+        {
+            this.inFlightCount--;
+        }
+    }
+
+    /* halves the window, at most once per round trip: the publishes sent
+       before the last shrink saw the old window, so they do not count again */
+    private void shrink(long sentNanos)
+    {
+        // Codes_SRS_MQTTINFLIGHTWINDOW_45_012: [The window shall be halved, down to 1 slot, at most once for the publishes sent before the last time it shrank.]
+        if (this.hasShrunk && (sentNanos - this.lastShrinkNanos < 0))
+        {
+            return;
+        }
+
+        this.size = Math.max(1, this.size / 2);
+        this.acknowledgedSinceGrowth = 0;
+        this.hasShrunk = true;
+        this.lastShrinkNanos = System.nanoTime();
+    }
+}
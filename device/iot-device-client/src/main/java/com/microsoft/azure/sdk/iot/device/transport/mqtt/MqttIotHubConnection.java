@@ -4,25 +4,35 @@
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 
 import javax.net.ssl.SSLContext;
+import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-public class MqttIotHubConnection implements MqttConnectionStateListener
+public class MqttIotHubConnection implements MqttConnectionStateListener, MqttTransportConnection
 {
     /** The MQTT connection lock. */
     private final Object MQTT_CONNECTION_LOCK = new Object();
+    private final CustomLogger logger = new CustomLogger(this.getClass());
 
     private final DeviceClientConfig config;
-    private State state = State.CLOSED;
+    private volatile State state = State.CLOSED;
 
     private String iotHubUserName;
     private String iotHubUserPassword;
-    private MqttConnection mqttConnection;
+    private volatile MqttConnection mqttConnection;
 
     //string constants
     private static final String WS_SSL_PREFIX = "wss://";
@@ -44,6 +54,13 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
     private IotHubConnectionStateCallback stateCallback;
     private Object stateCallbackContext;
 
+    private volatile IotHubSignalledTask receiveSignal;
+    private volatile IotHubSignalledTask sendSignal;
+
+    private MqttReconnector reconnector;
+    private ScheduledExecutorService reconnectScheduler;
+    private boolean isReconnectSchedulerOwned;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -139,17 +156,18 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
                 {
                     //Codes_SRS_MQTTIOTHUBCONNECTION_25_018: [The function shall establish an MQTT WS connection with a server uri as wss://<hostName>/$iothub/websocket?iothub-no-client-cert=true if websocket was enabled.]
                     final String wsServerUri = WS_SSL_PREFIX + this.config.getIotHubHostname() + WEBSOCKET_RAW_PATH + WEBSOCKET_QUERY ;
-                    mqttConnection = new MqttConnection(wsServerUri,
-                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
+                    mqttConnection = this.createMqttConnection(wsServerUri, sslContext);
                 }
                 else
                 {
                     //Codes_SRS_MQTTIOTHUBCONNECTION_25_019: [The function shall establish an MQTT connection with a server uri as ssl://<hostName>:8883 if websocket was not enabled.]
                     final String serverUri = SSL_PREFIX + this.config.getIotHubHostname() + SSL_PORT_SUFFIX;
-                    mqttConnection = new MqttConnection(serverUri,
-                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
+                    mqttConnection = this.createMqttConnection(serverUri, sslContext);
                 }
 
+                //Codes_SRS_MQTTIOTHUBCONNECTION_45_007: [The function shall size the in flight window of the connection with the window size and mode of the configuration.]
+                this.mqttConnection.setInFlightWindow(this.config.getMqttInFlightWindowSize(), this.config.isMqttInFlightWindowAdaptive());
+
                 //Codes_SRS_MQTTIOTHUBCONNECTION_34_030: [This function shall instantiate this object's MqttMessaging object with this object as the listener.]
                 this.deviceMessaging = new MqttMessaging(mqttConnection, this.config.getDeviceId(), this);
                 this.mqttConnection.setMqttCallback(this.deviceMessaging);
@@ -159,7 +177,26 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
                 // Codes_SRS_MQTTIOTHUBCONNECTION_99_017 : [The function shall set DeviceClientConfig object needed for SAS token renewal.]
                 this.deviceMessaging.setDeviceClientConfig(this.config);
 
-                this.deviceMessaging.start();
+                //Codes_SRS_MQTTIOTHUBCONNECTION_45_010: [The function shall create the reconnector of the connection on the scheduler of the client runtime of the configuration, if any, or on a scheduler of its own otherwise, and set it on the messaging client.]
+                ClientRuntime clientRuntime = this.config.getClientRuntime();
+                if (clientRuntime == null)
+                {
+                    // the scheduler only starts its thread once a connection is lost.
+                    this.reconnectScheduler = Executors.newSingleThreadScheduledExecutor();
+                    this.isReconnectSchedulerOwned = true;
+                }
+                else
+                {
+                    this.reconnectScheduler = clientRuntime.getScheduler();
+                    this.isReconnectSchedulerOwned = false;
+                }
+                this.reconnector = new MqttReconnector(this.deviceMessaging, this.mqttConnection, this.reconnectScheduler);
+                this.deviceMessaging.setReconnector(this.reconnector);
+
+                //Codes_SRS_MQTTIOTHUBCONNECTION_45_022: [The function shall subscribe to the cloud to device messages and the device twin responses in a single SUBSCRIBE once connected, and start the device method and device twin clients.]
+                this.deviceMessaging.start(this.deviceTwin.getResponseSubscription());
+                this.deviceMethod.start();
+                this.deviceTwin.start();
                 this.state = State.OPEN;
             }
             catch (Exception e)
@@ -179,6 +216,7 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
                 {
                     this.deviceMessaging.stop();
                 }
+                this.stopReconnector();
                 throw new IOException(e);
             }
         }
@@ -200,6 +238,9 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
         // Codes_SRS_MQTTIOTHUBCONNECTION_15_006: [The function shall close the MQTT connection.]
         try
         {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_45_011: [The function shall stop the reconnector, and shut down its scheduler if it is not the scheduler of a client runtime, before closing the MQTT connection.]
+            this.stopReconnector();
+
             this.deviceMethod.stop();
             this.deviceMethod = null;
 
@@ -218,8 +259,152 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
         }
     }
 
+    private MqttConnection createMqttConnection(String serverUri, SSLContext sslContext) throws IOException
+    {
+        String persistenceDirectory = this.config.getMqttPersistenceDirectory();
+        if (persistenceDirectory == null)
+        {
+            return new MqttConnection(serverUri,
+                    this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_021: [If the configuration has an MQTT persistence directory, the function shall keep the messages in flight of the connection in a file persistence in this directory.]
+        return new MqttConnection(serverUri,
+                this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext,
+                new MqttFilePersistence(new File(persistenceDirectory)));
+    }
+
+    private void stopReconnector()
+    {
+        if (this.reconnector != null)
+        {
+            this.reconnector.stop();
+        }
+        if (this.isReconnectSchedulerOwned && this.reconnectScheduler != null)
+        {
+            this.reconnectScheduler.shutdownNow();
+        }
+        this.reconnectScheduler = null;
+        this.isReconnectSchedulerOwned = false;
+    }
+
+    /**
+     * Checks if the connection was lost and is being restored. The messages
+     * to send are kept in the meantime, until the connection is restored.
+     *
+     * @return {@code true} if the connection is being restored, and {@code false} otherwise.
+     */
+    public boolean isReconnecting()
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_012: [The function shall return true if the connection was opened and its reconnector is restoring it, and false otherwise.]
+        MqttReconnector reconnector = this.reconnector;
+        return reconnector != null && reconnector.isReconnecting();
+    }
+
+    /**
+     * Getter for the gauges of the reconnections of the connection.
+     *
+     * @return a snapshot of the outages of the connection, or {@code null} if the connection was never opened.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_013: [If the connection was never opened, the function shall return null.]
+        MqttReconnector reconnector = this.reconnector;
+        if (reconnector == null)
+        {
+            return null;
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_014: [The function shall return the statistics of the reconnector of the connection.]
+        return reconnector.getStatistics();
+    }
+
+    /**
+     * Getter for the gauges of the in flight window of the connection.
+     *
+     * @return a snapshot of the in flight window, or {@code null} if the connection was never opened.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_008: [If the connection was never opened, the function shall return null.]
+        if (this.mqttConnection == null)
+        {
+            return null;
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_009: [The function shall return the statistics of the in flight window of the MQTT connection.]
+        return this.mqttConnection.getInFlightWindowStatistics();
+    }
+
+    /**
+     * Removes the device twin requests that waited for their response past
+     * their deadline.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return the responses made up for the requests that timed out. Never {@code null}.
+     */
+    public List<IotHubTransportMessage> removeExpiredTwinRequests(long currentTimeMillis)
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_017: [If the connection is not open, the function shall return an empty list.]
+        MqttDeviceTwin deviceTwin = this.deviceTwin;
+        if (deviceTwin == null)
+        {
+            return Collections.emptyList();
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_018: [The function shall return the responses of the device twin requests that timed out.]
+        return deviceTwin.removeExpiredRequests(currentTimeMillis);
+    }
+
+    /**
+     * Getter for the number of device twin requests waiting for their response.
+     *
+     * @return the number of pending device twin requests, or 0 if the connection is not open.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_019: [The function shall return the number of device twin requests waiting for their response, or 0 if the connection is not open.]
+        MqttDeviceTwin deviceTwin = this.deviceTwin;
+        return (deviceTwin == null) ? 0 : deviceTwin.getPendingRequestCount();
+    }
+
+    /**
+     * Takes a slot of the in flight window for the next message to send, if
+     * one is free. Returns right away, and takes no lock.
+     *
+     * @return {@code true} if a slot was taken, and {@code false} if all the slots are taken.
+     * @throws IOException if the connection is closed.
+     */
+    public boolean tryAcquireInFlightSlot() throws IOException
+    {
+        MqttConnection mqttConnection = this.mqttConnection;
+        if (this.state == State.CLOSED || mqttConnection == null)
+        {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_45_024: [If the MQTT connection is closed, the function shall throw an IOException.]
+            throw new IOException("Cannot take an in flight slot of a closed MQTT connection");
+        }
+
+        // Codes_SRS_MQTTIOTHUBCONNECTION_45_025: [The function shall try to take a slot of the in flight window of the MQTT connection without holding the connection lock, and return whether it took one.]
+        return mqttConnection.tryAcquireInFlightSlot();
+    }
+
+    /**
+     * Gives back a slot taken with {@link #tryAcquireInFlightSlot()} for a
+     * message that was not handed over to the connection.
+     */
+    public void releaseInFlightSlot()
+    {
+        MqttConnection mqttConnection = this.mqttConnection;
+        if (mqttConnection != null)
+        {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_45_026: [The function shall release a slot of the in flight window of the MQTT connection.]
+            mqttConnection.releaseInFlightSlot();
+        }
+    }
+
     /**
-     * Sends an event message.
+     * Sends an event message. The caller shall hold a slot of the in flight
+     * window for the message, taken with {@link #tryAcquireInFlightSlot()}.
      *
      * @param message the event message.
      *
@@ -228,6 +413,37 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
      * @throws IllegalStateException if the MqttIotHubConnection is not open
      */
     public IotHubStatusCode sendEvent(Message message) throws IllegalStateException
+    {
+        return this.sendEvent(message, null);
+    }
+
+    /**
+     * Sends an event message without waiting for the IoT Hub to acknowledge
+     * it. If the message is sent, the delivery listener is notified exactly
+     * once with the outcome: for telemetry messages once the IoT Hub
+     * acknowledges the publish, and for device twin and device method
+     * messages as soon as the request is handed over, since their outcome is
+     * carried by the responses of the IoT Hub. Telemetry messages sent at
+     * most once are never acknowledged, so they are also notified as soon as
+     * they are handed over.
+     * <p>
+     * The caller shall hold a slot of the in flight window for the message,
+     * taken with {@link #tryAcquireInFlightSlot()}. If the function returns
+     * OK_EMPTY, the slot is handed over to the connection; otherwise the
+     * caller keeps it and shall release it.
+     * </p>
+     *
+     * @param message the event message.
+     * @param deliveryListener the listener to notify with the outcome of the
+     * delivery. Can be {@code null}. It is never notified if the function does
+     * not return OK_EMPTY.
+     *
+     * @return OK_EMPTY if the message is sent, or the status code of the failure.
+     *
+     * @throws IllegalStateException if the MqttIotHubConnection is not open,
+     * or if its connection was lost while sending and is being restored.
+     */
+    public IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener) throws IllegalStateException
     {
         synchronized (MQTT_CONNECTION_LOCK)
         {
@@ -272,30 +488,69 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
                 // Codes_SRS_MQTTIOTHUBCONNECTION_15_009: [The function shall send the message payload.]
                 if (message.getMessageType() == MessageType.DEVICE_METHODS)
                 {
-                    this.deviceMethod.start();
                     this.deviceMethod.send((IotHubTransportMessage) message);
                 }
                 else if (message.getMessageType() == MessageType.DEVICE_TWIN)
                 {
-                    this.deviceTwin.start();
                     this.deviceTwin.send((IotHubTransportMessage) message);
                 }
+                else if (this.config.getMqttTelemetryDeliveryMode() == TelemetryDeliveryMode.AT_MOST_ONCE)
+                {
+                    // Codes_SRS_MQTTIOTHUBCONNECTION_45_020: [If the telemetry delivery mode of the configuration is AT_MOST_ONCE, the function shall send the telemetry message at QoS 0 and notify the delivery listener of the success right away.]
+                    this.deviceMessaging.sendAtMostOnce(message);
+
+                    // Codes_SRS_MQTTIOTHUBCONNECTION_45_027: [If the telemetry message is sent at QoS 0, the function shall release the slot of the in flight window held for it right away.]
+                    this.mqttConnection.releaseInFlightSlot();
+                }
                 else
                 {
-                    this.deviceMessaging.send(message);
+                    // Codes_SRS_MQTTIOTHUBCONNECTION_45_005: [The function shall pass the delivery listener to the messaging client, so it is notified once the IoT Hub acknowledges the telemetry message.]
+                    this.deviceMessaging.send(message, deliveryListener);
+                    return result;
                 }
             }
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully
             // received by the service, the function shall return status code ERROR.]
             catch (Exception e)
             {
-                result = IotHubStatusCode.ERROR;
+                // Codes_SRS_MQTTIOTHUBCONNECTION_45_028: [If the message was not sent because the connection
+                // was lost and is to be restored, the function shall throw an IllegalStateException.]
+                // the message is not failed, so the caller can send it again once the connection is restored.
+                if (this.isConnectionLost())
+                {
+                    throw new IllegalStateException("The MQTT connection was lost while sending the event", e);
+                }
+                return IotHubStatusCode.ERROR;
+            }
+
+            if (deliveryListener != null)
+            {
+                // Codes_SRS_MQTTIOTHUBCONNECTION_45_006: [If a device twin or device method message is sent, the function shall notify the delivery listener of the success right away.]
+                deliveryListener.onSuccess(null);
             }
 
             return result;
         }
     }
 
+    /**
+     * Checks if the MQTT client is disconnected and its connection is to be
+     * restored, so a failure to send is not final.
+     *
+     * @return {@code true} if the connection is lost and the reconnector is not stopped.
+     */
+    private boolean isConnectionLost()
+    {
+        MqttReconnector reconnector = this.reconnector;
+        if (reconnector == null || reconnector.isStopped())
+        {
+            return false;
+        }
+
+        MqttAsyncClient mqttAsyncClient = this.mqttConnection.getMqttAsyncClient();
+        return reconnector.isReconnecting() || mqttAsyncClient == null || !mqttAsyncClient.isConnected();
+    }
+
     /**
      * Receives a message, if one exists.
      *
@@ -317,6 +572,8 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
 
         // Codes_SRS_MQTTIOTHUBCONNECTION_15_014: [The function shall attempt to consume a message
         // from various messaging clients.]
+        // the messages are routed to the queue of their client when they arrive, so each
+        // client only looks at its own queue.
         // Codes_SRS__MQTTIOTHUBCONNECTION_34_016: [If any of the messaging clients throw an exception, The associated message will be removed from the queue and the exception will be propagated up to the receive task.]
         Message message = this.deviceMethod.receive();
         if (message == null)
@@ -338,7 +595,7 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
      * @param callbackContext the context to include
      * @throws IllegalArgumentException if the provided callback object is null
      */
-    void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext)
+    public void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext)
     {
         if (callback == null)
         {
@@ -351,6 +608,43 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
         this.stateCallbackContext = callbackContext;
     }
 
+    /**
+     * Saves the task to signal whenever a message is received. Can be {@code null} to stop signalling.
+     * @param receiveSignal the task to signal
+     */
+    public void registerReceiveSignal(IotHubSignalledTask receiveSignal)
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_001: [This function shall save the provided receive signal.]
+        this.receiveSignal = receiveSignal;
+    }
+
+    /**
+     * Saves the task to signal once the connection is restored, so the messages
+     * kept while it was down are sent. Can be {@code null} to stop signalling.
+     * @param sendSignal the task to signal
+     */
+    public void registerSendSignal(IotHubSignalledTask sendSignal)
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_015: [This function shall save the provided send signal.]
+        this.sendSignal = sendSignal;
+    }
+
+    /**
+     * Getter for the number of received messages that were not consumed yet.
+     * @return the number of messages in the received messages queues, or 0 if the connection is closed.
+     */
+    public int getReceivedMessageCount()
+    {
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_002: [If the MQTT connection is closed, this function shall return 0.]
+        if (this.state == State.CLOSED || this.mqttConnection == null || this.mqttConnection.getMessageRouter() == null)
+        {
+            return 0;
+        }
+
+        //Codes_SRS_MQTTIOTHUBCONNECTION_45_003: [This function shall return the number of messages in the received messages queues of the message router.]
+        return this.mqttConnection.getMessageRouter().size();
+    }
+
     public void connectionLost()
     {
         if (this.stateCallback != null)
@@ -367,5 +661,71 @@ public class MqttIotHubConnection implements MqttConnectionStateListener
             //Codes_SRS_MQTTIOTHUBCONNECTION_34_029: [If this object's connection state callback is not null, this function shall fire that callback with the saved context and status CONNECTION_SUCCESS.]
             this.stateCallback.execute(IotHubConnectionState.CONNECTION_SUCCESS, this.stateCallbackContext);
         }
+
+        if (this.state == State.OPEN)
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_45_023: [If the connection is open, this function shall subscribe again, in a single SUBSCRIBE, to the requested subscriptions the IoT Hub did not grant yet, before signalling the send signal.]
+            this.restoreSubscriptions();
+        }
+
+        IotHubSignalledTask signal = this.sendSignal;
+        if (signal != null)
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_45_016: [If this object has a saved send signal, this function shall signal it, so the messages kept while the connection was down are sent.]
+            signal.signal();
+        }
+    }
+
+    /**
+     * Subscribes again to the subscriptions that were requested but are not
+     * in place, because their SUBSCRIBE failed or was lost with the
+     * connection. The subscriptions the IoT Hub granted are kept in the
+     * session of the device across reconnections, so they are not sent again.
+     */
+    private void restoreSubscriptions()
+    {
+        MqttMessaging deviceMessaging = this.deviceMessaging;
+        MqttDeviceMethod deviceMethod = this.deviceMethod;
+        MqttDeviceTwin deviceTwin = this.deviceTwin;
+        if (deviceMessaging == null || deviceMethod == null || deviceTwin == null)
+        {
+            return;
+        }
+
+        List<MqttSubscription> subscriptions = new ArrayList<>();
+        for (MqttSubscription subscription : new MqttSubscription[] {
+                deviceMessaging.getSubscription(),
+                deviceTwin.getResponseSubscription(),
+                deviceTwin.getDesiredPropertiesSubscription(),
+                deviceMethod.getSubscription() })
+        {
+            if (subscription.isRequested() && !subscription.isSubscribed())
+            {
+                subscriptions.add(subscription);
+            }
+        }
+
+        if (!subscriptions.isEmpty())
+        {
+            try
+            {
+                deviceMessaging.subscribe(subscriptions.toArray(new MqttSubscription[subscriptions.size()]));
+            }
+            catch (IOException e)
+            {
+                // the subscriptions are restored again with the next reconnection.
+                logger.LogError("Cannot restore the subscriptions of the connection: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            }
+        }
+    }
+
+    public void messageReceived()
+    {
+        IotHubSignalledTask signal = this.receiveSignal;
+        if (signal != null)
+        {
+            //Codes_SRS_MQTTIOTHUBCONNECTION_45_004: [If this object has a saved receive signal, this function shall signal it.]
+            signal.signal();
+        }
     }
 }
@@ -0,0 +1,104 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sorts the messages received on one MQTT connection by the client that
+ * handles them. The topic of each message is classified once, when it
+ * arrives, and the message goes to the queue of its client, so each client
+ * only ever reads its own messages, and a message that no client takes
+ * cannot hold back the messages of the others.
+ */
+final class MqttMessageRouter
+{
+    /** The clients the received messages are routed to. */
+    enum Route
+    {
+        /** The device method requests, on {@code $iothub/methods/}. */
+        DEVICE_METHOD,
+        /** The device twin responses and patches, on {@code $iothub/twin}. */
+        DEVICE_TWIN,
+        /** The cloud to device messages, on every other topic. */
+        MESSAGING
+    }
+
+    private static final String DEVICE_METHOD_TOPIC_PREFIX = "$iothub/methods/";
+    private static final String DEVICE_TWIN_TOPIC_PREFIX = "$iothub/twin";
+
+    private final ConcurrentLinkedQueue<Pair<String, byte[]>> deviceMethodMessages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Pair<String, byte[]>> deviceTwinMessages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Pair<String, byte[]>> messagingMessages = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Finds the client that handles the messages received on a topic.
+     *
+     * @param topic the topic the message was received on. Can be {@code null}.
+     * @return the route of the message.
+     */
+    static Route classify(String topic)
+    {
+        // Codes_SRS_MQTTMESSAGEROUTER_45_001: [The function shall return DEVICE_METHOD for a topic longer than and starting with `$iothub/methods/`, DEVICE_TWIN for a topic longer than and starting with `$iothub/twin`, and MESSAGING for any other topic, including a null one.]
+        if (topic != null && !topic.isEmpty() && topic.charAt(0) == '$')
+        {
+            if (topic.length() > DEVICE_METHOD_TOPIC_PREFIX.length() && topic.startsWith(DEVICE_METHOD_TOPIC_PREFIX))
+            {
+                return Route.DEVICE_METHOD;
+            }
+            if (topic.length() > DEVICE_TWIN_TOPIC_PREFIX.length() && topic.startsWith(DEVICE_TWIN_TOPIC_PREFIX))
+            {
+                return Route.DEVICE_TWIN;
+            }
+        }
+
+        return Route.MESSAGING;
+    }
+
+    /**
+     * Adds a received message to the queue of the client that handles it.
+     *
+     * @param topic the topic the message was received on.
+     * @param payload the payload of the message.
+     */
+    void route(String topic, byte[] payload)
+    {
+        // Codes_SRS_MQTTMESSAGEROUTER_45_002: [The function shall classify the topic and add the topic and payload to the queue of its route.]
+        this.getQueue(classify(topic)).add(new MutablePair<>(topic, payload));
+    }
+
+    /**
+     * Getter for the queue of the messages of one client.
+     *
+     * @param route the route of the client.
+     * @return the queue of the messages routed to the client, in the order they arrived.
+     */
+    ConcurrentLinkedQueue<Pair<String, byte[]>> getQueue(Route route)
+    {
+        // Codes_SRS_MQTTMESSAGEROUTER_45_003: [The function shall return the queue of the provided route.]
+        switch (route)
+        {
+            case DEVICE_METHOD:
+                return this.deviceMethodMessages;
+            case DEVICE_TWIN:
+                return this.deviceTwinMessages;
+            default:
+                return this.messagingMessages;
+        }
+    }
+
+    /**
+     * Getter for the number of messages waiting to be handled.
+     *
+     * @return the number of messages in all the queues.
+     */
+    int size()
+    {
+        // Codes_SRS_MQTTMESSAGEROUTER_45_004: [The function shall return the number of messages in all the queues.]
+        return this.deviceMethodMessages.size() + this.deviceTwinMessages.size() + this.messagingMessages.size();
+    }
+}
@@ -5,13 +5,16 @@ package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 
 import java.io.IOException;
 
 public class MqttMessaging extends Mqtt
 {
     private String subscribeTopic;
+    private MqttSubscription subscription;
     private String publishTopic;
+    private MqttTopicEncoder topicEncoder;
     private String parseTopic;
 
     public MqttMessaging(MqttConnection mqttConnection, String deviceId, MqttConnectionStateListener listener) throws IOException
@@ -28,15 +31,45 @@ public class MqttMessaging extends Mqtt
         //Codes_SRS_MqttMessaging_25_004: [The constructor shall save the provided listener.]
         this.publishTopic = "devices/" + deviceId + "/messages/events/";
         this.subscribeTopic = "devices/" + deviceId + "/messages/devicebound/#";
+        this.subscription = new MqttSubscription(this.subscribeTopic);
         this.parseTopic = "devices/" + deviceId + "/messages/devicebound/";
+        this.topicEncoder = new MqttTopicEncoder(this.publishTopic);
     }
 
     public void start() throws IOException
+    {
+        this.start(new MqttSubscription[0]);
+    }
+
+    /**
+     * Connects to the IoT Hub, and subscribes to the messaging subscribe topic
+     * along with the provided subscriptions in a single SUBSCRIBE.
+     *
+     * @param subscriptions the other subscriptions the connection needs from the start.
+     * @throws IOException if the connection cannot be established or the topics cannot be subscribed.
+     */
+    void start(MqttSubscription... subscriptions) throws IOException
     {
         //Codes_SRS_MqttMessaging_25_020: [start method shall be call connect to establish a connection to IOT Hub with the given configuration.]
-        //Codes_SRS_MqttMessaging_25_021: [start method shall subscribe to messaging subscribe topic once connected.]
         this.connect();
-        this.subscribe(subscribeTopic);
+
+        //Codes_SRS_MqttMessaging_25_021: [start method shall subscribe to messaging subscribe topic once connected.]
+        //Codes_SRS_MqttMessaging_45_005: [start method shall subscribe to the messaging subscribe topic and the provided subscriptions in a single call to subscribe().]
+        MqttSubscription[] allSubscriptions = new MqttSubscription[subscriptions.length + 1];
+        allSubscriptions[0] = this.subscription;
+        System.arraycopy(subscriptions, 0, allSubscriptions, 1, subscriptions.length);
+        this.subscribe(allSubscriptions);
+    }
+
+    /**
+     * Getter for the subscription to the messaging subscribe topic.
+     *
+     * @return the subscription of the cloud to device messages.
+     */
+    MqttSubscription getSubscription()
+    {
+        //Codes_SRS_MqttMessaging_45_006: [The function shall return the subscription to the messaging subscribe topic.]
+        return this.subscription;
     }
 
     public void stop() throws IOException
@@ -47,90 +80,58 @@ public class MqttMessaging extends Mqtt
 
     public void send(Message message) throws IOException
     {
-        if (message == null || message.getBytes() == null)
+        this.send(message, null);
+    }
+
+    /**
+     * Publishes the message without waiting for its delivery.
+     *
+     * @param message the message to publish.
+     * @param deliveryListener the listener to notify with the outcome of the
+     * delivery once it completes. Can be {@code null}.
+     * @throws IOException if the message cannot be published.
+     */
+    public void send(Message message, IMqttActionListener deliveryListener) throws IOException
+    {
+        // the message owns its body, which is not modified until the delivery
+        // completes, so the MQTT client can keep it without a copy.
+        byte[] body = (message == null) ? null : message.getBytesNoCopy();
+        if (body == null)
         {
             //Codes_SRS_MqttMessaging_25_025: [send method shall throw an exception if the message is null.]
             throw new IOException("Message cannot be null");
         }
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(this.publishTopic);
-
-        boolean separatorNeeded = false;
-
-        if (message.getMessageId() != null)
-        {
-            //Codes_SRS_MqttMessaging_21_027: [send method shall append the messageid to publishTopic before publishing using the key name `$.mid`.]
-            stringBuilder.append(MESSAGE_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getMessageId());
-
-            separatorNeeded = true;
-        }
-
-        if (message.getCorrelationId() != null)
-        {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
-            //Codes_SRS_MqttMessaging_34_028: [If the message has a correlationId, this method shall append that correlationid to publishTopic before publishing using the key name `$.cid`.]
-            stringBuilder.append(CORRELATION_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getCorrelationId());
+        //Codes_SRS_MqttMessaging_21_027: [send method shall append the messageid to publishTopic before publishing using the key name `$.mid`.]
+        //Codes_SRS_MqttMessaging_34_028: [If the message has a correlationId, this method shall append that correlationid to publishTopic before publishing using the key name `$.cid`.]
+        //Codes_SRS_MqttMessaging_34_030: [If the message has a UserId, this method shall append that userId to publishTopic before publishing using the key name `$.uid`.]
+        //Codes_SRS_MqttMessaging_34_029: [If the message has a To, this method shall append that To to publishTopic before publishing using the key name `$.to`.]
+        //Codes_SRS_MqttMessaging_34_026: [This method shall append each custom property's name and value to the publishTopic before publishing.]
+        //Codes_SRS_MqttMessaging_45_002: [send method shall percent-encode the names and values of the properties appended to publishTopic, reusing the topic encoder of the connection.]
+        String messagePublishTopic = this.topicEncoder.encode(message);
 
-            separatorNeeded = true;
-        }
-
-        if (message.getUserId() != null)
-        {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
-            //Codes_SRS_MqttMessaging_34_030: [If the message has a UserId, this method shall append that userId to publishTopic before publishing using the key name `$.uid`.]
-            stringBuilder.append(USER_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getUserId());
-
-            separatorNeeded = true;
-        }
-
-        if (message.getTo() != null)
-        {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
-            //Codes_SRS_MqttMessaging_34_029: [If the message has a To, this method shall append that To to publishTopic before publishing using the key name `$.to`.]
-            stringBuilder.append(TO);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getTo());
-
-            separatorNeeded = true;
-        }
+        //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
+        //Codes_SRS_MqttMessaging_45_001: [send method shall pass the delivery listener to publish, so it is notified once the delivery completes.]
+        this.publish(messagePublishTopic, body, deliveryListener);
+    }
 
-        for(MessageProperty property : message.getProperties())
+    /**
+     * Publishes the message at QoS 0, without waiting for its delivery nor
+     * being notified of it.
+     *
+     * @param message the message to publish.
+     * @throws IOException if the message cannot be published.
+     */
+    public void sendAtMostOnce(Message message) throws IOException
+    {
+        byte[] body = (message == null) ? null : message.getBytesNoCopy();
+        if (body == null)
         {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
-            //Codes_SRS_MqttMessaging_34_026: [This method shall append each custom property's name and value to the publishTopic before publishing.]
-            stringBuilder.append(property.getName());
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(property.getValue());
-
-            separatorNeeded = true;
+            //Codes_SRS_MqttMessaging_45_003: [sendAtMostOnce method shall throw an exception if the message is null.]
+            throw new IOException("Message cannot be null");
         }
 
-        String messagePublishTopic = stringBuilder.toString();
-
-        //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
-        this.publish(messagePublishTopic, message.getBytes());
+        //Codes_SRS_MqttMessaging_45_004: [sendAtMostOnce method shall publish the message at QoS 0 on the same publish topic as send, by calling method publishAtMostOnce().]
+        this.publishAtMostOnce(this.topicEncoder.encode(message), body);
     }
 }
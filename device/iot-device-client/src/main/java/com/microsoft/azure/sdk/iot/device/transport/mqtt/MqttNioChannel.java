@@ -0,0 +1,644 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One non-blocking TLS socket to an MQTT server, run by a selector loop of an
+ * {@link MqttNioEngine}. The channel moves the bytes between the socket and
+ * its TLS engine, and splits the bytes received into MQTT packets; the
+ * protocol itself is left to its listener.
+ *
+ * Everything but {@link #open()}, {@link #write(ByteBuffer)} and
+ * {@link #close()} runs on the thread of the loop, and so do the events of
+ * the listener. The TLS engine runs its delegated tasks on that thread too.
+ *
+ * The buffers start small and grow to the size of the TLS records they
+ * hold. The ones the handshake grew are shrunk back once it is over, as
+ * most connections only carry small packets afterwards.
+ */
+final class MqttNioChannel
+{
+    /**
+     * The events of a channel, notified on the thread of its selector loop.
+     */
+    interface Listener
+    {
+        /**
+         * The TLS handshake is over, and the channel can carry MQTT packets.
+         *
+         * @param channel the channel.
+         * @throws IOException to close the channel.
+         */
+        void onOpened(MqttNioChannel channel) throws IOException;
+
+        /**
+         * An MQTT packet was received.
+         *
+         * @param channel the channel.
+         * @param header the first byte of the packet.
+         * @param body the bytes of the packet after its fixed header.
+         * @throws IOException to close the channel.
+         */
+        void onPacket(MqttNioChannel channel, int header, byte[] body) throws IOException;
+
+        /**
+         * The periodic tick of the selector loop.
+         *
+         * @param channel the channel.
+         * @param nowNanos the {@link System#nanoTime()} of the tick.
+         * @throws IOException to close the channel.
+         */
+        void onTick(MqttNioChannel channel, long nowNanos) throws IOException;
+
+        /**
+         * The channel is closed, and will not notify any other event.
+         *
+         * @param channel the channel.
+         * @param cause the reason the channel closed, or {@code null} if it was asked to.
+         */
+        void onClosed(MqttNioChannel channel, IOException cause);
+    }
+
+    /** The largest MQTT packet a channel accepts, well above the largest IoT Hub message. */
+    static final int MAX_PACKET_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final MqttNioEngine.SelectorLoop loop;
+    private final InetSocketAddress address;
+    private final SSLEngine sslEngine;
+    private final Listener listener;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+    private final Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            isFlushScheduled.set(false);
+            advanceSafely();
+        }
+    };
+
+    private SocketChannel socket;
+    private SelectionKey key;
+    private ByteBuffer netIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer netOut = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer appIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private boolean isConnected = false;
+    private boolean isOpened = false;
+    private volatile boolean isClosed = false;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param loop the selector loop that runs the channel.
+     * @param address the address of the MQTT server.
+     * @param sslEngine the TLS engine of the channel, in client mode.
+     * @param listener the listener of the events of the channel.
+     * @throws IllegalArgumentException if any of the parameters is {@code null}.
+     */
+    MqttNioChannel(MqttNioEngine.SelectorLoop loop, InetSocketAddress address, SSLEngine sslEngine, Listener listener)
+    {
+        // Codes_SRS_MQTTNIOCHANNEL_45_001: [If any of the parameters is null, the constructor shall throw IllegalArgumentException.]
+        if (loop == null || address == null || sslEngine == null || listener == null)
+        {
+            throw new IllegalArgumentException("loop, address, TLS engine and listener cannot be null");
+        }
+
+        // Codes_SRS_MQTTNIOCHANNEL_45_002: [The constructor shall save the parameters, and not open the socket.]
+        this.loop = loop;
+        this.address = address;
+        this.sslEngine = sslEngine;
+        this.listener = listener;
+    }
+
+    /**
+     * Opens the socket on the thread of the loop, without waiting for it to
+     * connect. The listener is notified once the handshake is over, or once
+     * the channel closes if it fails.
+     */
+    void open()
+    {
+        // Codes_SRS_MQTTNIOCHANNEL_45_003: [The function shall hand the selector loop the connection of a non-blocking socket to the address, registered with the selector of the loop.]
+        this.loop.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connect();
+            }
+        });
+    }
+
+    /**
+     * Queues a packet to be written, from any thread. The packets are written
+     * in the order they are queued, once the handshake is over. The packets
+     * queued once the channel is closed are dropped.
+     *
+     * @param packet the packet, which must not be changed afterwards.
+     */
+    void write(ByteBuffer packet)
+    {
+        // Codes_SRS_MQTTNIOCHANNEL_45_004: [The function shall queue the packet, and hand the selector loop a single flush for all the packets queued until it runs.]
+        this.outbound.offer(packet);
+        if (this.isFlushScheduled.compareAndSet(false, true))
+        {
+            this.loop.execute(this.flushTask);
+        }
+    }
+
+    /**
+     * Closes the channel, from any thread, once the packets already queued
+     * are flushed as far as the socket takes them without blocking.
+     */
+    void close()
+    {
+        // Codes_SRS_MQTTNIOCHANNEL_45_005: [The function shall hand the selector loop a last flush of the queued packets, then the closure of the socket, and notify the listener with no cause.]
+        this.loop.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                advanceSafely();
+                closeWith(null);
+            }
+        });
+    }
+
+    /**
+     * Checks if the channel is closed.
+     *
+     * @return {@code true} if the channel is closed.
+     */
+    boolean isClosed()
+    {
+        return this.isClosed;
+    }
+
+    /**
+     * Handles the readiness of the socket. Called on the thread of the loop.
+     *
+     * @param key the selection key of the socket.
+     */
+    void onReady(SelectionKey key)
+    {
+        try
+        {
+            if (!key.isValid())
+            {
+                return;
+            }
+
+            int readyOps = key.readyOps();
+            if ((readyOps & SelectionKey.OP_CONNECT) != 0)
+            {
+                // Codes_SRS_MQTTNIOCHANNEL_45_006: [Once the socket is connected, the channel shall start the TLS handshake.]
+                this.socket.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                this.onConnected();
+            }
+            boolean isEndOfStream = false;
+            if ((readyOps & SelectionKey.OP_READ) != 0)
+            {
+                isEndOfStream = this.read();
+            }
+            this.advance();
+            if (isEndOfStream)
+            {
+                // the packets received before the end of the stream, like a refused CONNACK, are handed over first.
+                throw new EOFException("The MQTT server closed the connection");
+            }
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_MQTTNIOCHANNEL_45_007: [If the socket, the TLS engine or the listener fail, the channel shall close and notify the listener with the cause.]
+            this.closeWith(e);
+        }
+        catch (RuntimeException e)
+        {
+            this.closeWith(new IOException(e));
+        }
+    }
+
+    /**
+     * Ticks the listener. Called on the thread of the loop.
+     *
+     * @param nowNanos the {@link System#nanoTime()} of the tick.
+     */
+    void onTick(long nowNanos)
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            // Codes_SRS_MQTTNIOCHANNEL_45_008: [The channel shall pass the ticks of the selector loop to the listener.]
+            this.listener.onTick(this, nowNanos);
+        }
+        catch (IOException e)
+        {
+            this.closeWith(e);
+        }
+        catch (RuntimeException e)
+        {
+            this.closeWith(new IOException(e));
+        }
+    }
+
+    /**
+     * Closes the socket right away, and notifies the listener. Called on the
+     * thread of the loop. Closing a closed channel does nothing.
+     *
+     * @param cause the reason the channel closes, or {@code null} if it was asked to.
+     */
+    void closeWith(IOException cause)
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+        this.isClosed = true;
+
+        this.loop.unregister(this);
+        if (this.key != null)
+        {
+            this.key.cancel();
+        }
+        if (this.socket != null)
+        {
+            try
+            {
+                this.socket.close();
+            }
+            catch (IOException e)
+            {
+                logger.LogError("Cannot close the MQTT NIO socket: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            }
+        }
+        this.outbound.clear();
+
+        try
+        {
+            this.listener.onClosed(this, cause);
+        }
+        catch (RuntimeException e)
+        {
+            logger.LogError("MQTT NIO listener failed on close: %s, method name is %s ", e.toString(), logger.getMethodName());
+        }
+    }
+
+    private void connect()
+    {
+        if (this.isClosed)
+        {
+            return;
+        }
+
+        try
+        {
+            this.socket = SocketChannel.open();
+            this.socket.configureBlocking(false);
+            this.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.loop.register(this);
+            if (this.socket.connect(this.address))
+            {
+                this.key = this.socket.register(this.loop.getSelector(), SelectionKey.OP_READ, this);
+                this.onConnected();
+                this.advance();
+            }
+            else
+            {
+                this.key = this.socket.register(this.loop.getSelector(), SelectionKey.OP_CONNECT, this);
+            }
+        }
+        catch (IOException e)
+        {
+            this.closeWith(e);
+        }
+        catch (RuntimeException e)
+        {
+            // an unresolved address is reported as an unchecked exception.
+            this.closeWith(new IOException(e));
+        }
+    }
+
+    private void onConnected() throws SSLException
+    {
+        this.isConnected = true;
+        this.sslEngine.beginHandshake();
+    }
+
+    /**
+     * Reads the bytes the socket holds, as many as the buffer takes.
+     *
+     * @return {@code true} if the server closed the connection.
+     */
+    private boolean read() throws IOException
+    {
+        while (this.netIn.hasRemaining())
+        {
+            int count = this.socket.read(this.netIn);
+            if (count < 0)
+            {
+                return true;
+            }
+            if (count == 0)
+            {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void advanceSafely()
+    {
+        try
+        {
+            this.advance();
+        }
+        catch (IOException e)
+        {
+            this.closeWith(e);
+        }
+        catch (RuntimeException e)
+        {
+            this.closeWith(new IOException(e));
+        }
+    }
+
+    /**
+     * Moves the bytes through the TLS engine, the packet parser and the
+     * socket until none of them can make any progress without waiting for
+     * the socket.
+     */
+    private void advance() throws IOException
+    {
+        if (!this.isConnected || this.isClosed)
+        {
+            return;
+        }
+
+        boolean isProgressing = true;
+        while (isProgressing && !this.isClosed)
+        {
+            isProgressing = false;
+            SSLEngineResult.HandshakeStatus handshakeStatus = this.sslEngine.getHandshakeStatus();
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK)
+            {
+                Runnable task;
+                while ((task = this.sslEngine.getDelegatedTask()) != null)
+                {
+                    task.run();
+                }
+                isProgressing = true;
+                continue;
+            }
+
+            boolean isHandshaking = handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    && handshakeStatus != SSLEngineResult.HandshakeStatus.FINISHED;
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP || (this.isOpened && !isHandshaking && !this.outbound.isEmpty()))
+            {
+                isProgressing |= this.wrap(handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP);
+            }
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_UNWRAP || !isHandshaking)
+            {
+                isProgressing |= this.unwrap();
+            }
+            isProgressing |= this.flush();
+
+            if (!this.isOpened && this.sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)
+            {
+                // Codes_SRS_MQTTNIOCHANNEL_45_009: [Once the TLS handshake is over, the channel shall shrink the buffers the handshake grew, if they are empty, and notify the listener.]
+                this.isOpened = true;
+                this.shrinkBuffers();
+                this.listener.onOpened(this);
+                isProgressing = true;
+            }
+
+            isProgressing |= this.parse();
+        }
+
+        this.updateInterest();
+    }
+
+    private boolean wrap(boolean isHandshake) throws IOException
+    {
+        ByteBuffer source = isHandshake ? EMPTY_BUFFER : this.outbound.peek();
+        if (source == null)
+        {
+            return false;
+        }
+
+        SSLEngineResult result = this.sslEngine.wrap(source, this.netOut);
+        switch (result.getStatus())
+        {
+            case BUFFER_OVERFLOW:
+                if (this.netOut.position() > 0)
+                {
+                    // the record fits once the pending bytes are written.
+                    return false;
+                }
+                this.netOut = ByteBuffer.allocate(this.sslEngine.getSession().getPacketBufferSize());
+                return true;
+            case CLOSED:
+                throw new EOFException("The TLS session of the MQTT connection is closed");
+            default:
+                break;
+        }
+
+        if (!isHandshake && !source.hasRemaining())
+        {
+            this.outbound.poll();
+        }
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    private boolean unwrap() throws IOException
+    {
+        if (this.netIn.position() == 0)
+        {
+            return false;
+        }
+
+        this.netIn.flip();
+        SSLEngineResult result;
+        try
+        {
+            result = this.sslEngine.unwrap(this.netIn, this.appIn);
+        }
+        finally
+        {
+            this.netIn.compact();
+        }
+
+        switch (result.getStatus())
+        {
+            case BUFFER_OVERFLOW:
+                this.appIn = grow(this.appIn, this.appIn.position() + this.sslEngine.getSession().getApplicationBufferSize());
+                return true;
+            case BUFFER_UNDERFLOW:
+                if (!this.netIn.hasRemaining())
+                {
+                    // the record does not fit: it is read once the buffer is large enough.
+                    this.netIn = grow(this.netIn, Math.max(2 * this.netIn.capacity(), this.sslEngine.getSession().getPacketBufferSize()));
+                }
+                return false;
+            case CLOSED:
+                throw new EOFException("The TLS session of the MQTT connection is closed");
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean flush() throws IOException
+    {
+        if (this.netOut.position() == 0)
+        {
+            return false;
+        }
+
+        this.netOut.flip();
+        int count = this.socket.write(this.netOut);
+        this.netOut.compact();
+        return count > 0;
+    }
+
+    /**
+     * Splits the bytes received into MQTT packets, and hands the complete
+     * ones to the listener.
+     */
+    private boolean parse() throws IOException
+    {
+        if (!this.isOpened || this.appIn.position() == 0)
+        {
+            return false;
+        }
+
+        boolean isParsed = false;
+        int requiredCapacity = 0;
+        this.appIn.flip();
+        try
+        {
+            while (this.appIn.remaining() >= 2 && !this.isClosed)
+            {
+                int start = this.appIn.position();
+                int header = this.appIn.get() & 0xFF;
+
+                // Codes_SRS_MQTTNIOCHANNEL_45_010: [The channel shall split the bytes received into MQTT packets from their remaining length, and hand each complete packet to the listener.]
+                int remainingLength = 0;
+                int shift = 0;
+                boolean isLengthComplete = false;
+                while (this.appIn.hasRemaining())
+                {
+                    int digit = this.appIn.get() & 0xFF;
+                    remainingLength |= (digit & 0x7F) << shift;
+                    if ((digit & 0x80) == 0)
+                    {
+                        isLengthComplete = true;
+                        break;
+                    }
+                    shift += 7;
+                    if (shift > 21)
+                    {
+                        // Codes_SRS_MQTTNIOCHANNEL_45_011: [If a packet has a malformed remaining length, or is larger than MAX_PACKET_SIZE, the channel shall close with an IOException.]
+                        throw new IOException("Malformed MQTT packet, the remaining length is longer than 4 bytes");
+                    }
+                }
+
+                if (!isLengthComplete)
+                {
+                    this.appIn.position(start);
+                    break;
+                }
+                if (remainingLength > MAX_PACKET_SIZE)
+                {
+                    throw new IOException("The MQTT packet of " + remainingLength + " bytes is larger than " + MAX_PACKET_SIZE + " bytes");
+                }
+                if (this.appIn.remaining() < remainingLength)
+                {
+                    requiredCapacity = this.appIn.position() - start + remainingLength;
+                    this.appIn.position(start);
+                    break;
+                }
+
+                byte[] body = new byte[remainingLength];
+                this.appIn.get(body);
+                isParsed = true;
+                this.listener.onPacket(this, header, body);
+            }
+        }
+        finally
+        {
+            this.appIn.compact();
+        }
+
+        if (requiredCapacity > this.appIn.capacity())
+        {
+            this.appIn = grow(this.appIn, requiredCapacity);
+        }
+        return isParsed;
+    }
+
+    private void updateInterest()
+    {
+        if (this.key == null || !this.key.isValid() || !this.isConnected)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTNIOCHANNEL_45_012: [The channel shall wait for the socket to be writable only while it holds bytes the socket did not take.]
+        int interestOps = (this.netOut.position() > 0) ? (SelectionKey.OP_READ | SelectionKey.OP_WRITE) : SelectionKey.OP_READ;
+        if (this.key.interestOps() != interestOps)
+        {
+            this.key.interestOps(interestOps);
+        }
+    }
+
+    private void shrinkBuffers()
+    {
+        if (this.netIn.position() == 0 && this.netIn.capacity() > INITIAL_BUFFER_SIZE)
+        {
+            this.netIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        if (this.netOut.position() == 0 && this.netOut.capacity() > INITIAL_BUFFER_SIZE)
+        {
+            this.netOut = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        if (this.appIn.position() == 0 && this.appIn.capacity() > INITIAL_BUFFER_SIZE)
+        {
+            this.appIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity)
+    {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
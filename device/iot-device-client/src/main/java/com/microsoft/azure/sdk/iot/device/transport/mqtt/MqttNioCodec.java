@@ -0,0 +1,290 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the MQTT 3.1.1 control packets an {@link MqttNioIotHubConnection}
+ * sends, and decodes the fields of the ones it receives. Each packet is
+ * encoded at once in a buffer of its exact size, ready to be written.
+ */
+final class MqttNioCodec
+{
+    static final int CONNECT = 1;
+    static final int CONNACK = 2;
+    static final int PUBLISH = 3;
+    static final int PUBACK = 4;
+    static final int SUBSCRIBE = 8;
+    static final int SUBACK = 9;
+    static final int PINGREQ = 12;
+    static final int PINGRESP = 13;
+    static final int DISCONNECT = 14;
+
+    /** The largest remaining length a packet can have, with 4 bytes of encoded length. */
+    static final int MAX_REMAINING_LENGTH = 268435455;
+
+    private static final byte[] PROTOCOL_NAME = { 0, 4, 'M', 'Q', 'T', 'T' };
+    private static final byte PROTOCOL_LEVEL = 4;
+
+    private static final int USER_NAME_FLAG = 0x80;
+    private static final int PASSWORD_FLAG = 0x40;
+    private static final int CLEAN_SESSION_FLAG = 0x02;
+    private static final int DUPLICATE_FLAG = 0x08;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private MqttNioCodec()
+    {
+    }
+
+    /**
+     * Getter for the type of a packet.
+     *
+     * @param header the first byte of the packet.
+     * @return the control packet type, from 1 to 14.
+     */
+    static int getPacketType(int header)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_001: [The function shall return the 4 high bits of the header.]
+        return (header >> 4) & 0x0F;
+    }
+
+    /**
+     * Encodes a CONNECT packet.
+     *
+     * @param clientId the client identifier.
+     * @param userName the user name, or {@code null} for none.
+     * @param password the password, or {@code null} for none.
+     * @param keepAliveSeconds the keep alive interval, in seconds.
+     * @param isCleanSession {@code true} to start a new session.
+     * @return the packet.
+     * @throws IllegalArgumentException if a string is longer than 65535 bytes.
+     */
+    static ByteBuffer encodeConnect(String clientId, String userName, String password, int keepAliveSeconds, boolean isCleanSession)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password flags and fields of the ones that are not null.]
+        byte[] clientIdBytes = toUtf8(clientId);
+        byte[] userNameBytes = (userName == null) ? null : toUtf8(userName);
+        byte[] passwordBytes = (password == null) ? null : toUtf8(password);
+
+        int flags = isCleanSession ? CLEAN_SESSION_FLAG : 0;
+        int remainingLength = PROTOCOL_NAME.length + 4 + 2 + clientIdBytes.length;
+        if (userNameBytes != null)
+        {
+            flags |= USER_NAME_FLAG;
+            remainingLength += 2 + userNameBytes.length;
+        }
+        if (passwordBytes != null)
+        {
+            flags |= PASSWORD_FLAG;
+            remainingLength += 2 + passwordBytes.length;
+        }
+
+        ByteBuffer packet = allocate(CONNECT << 4, remainingLength);
+        packet.put(PROTOCOL_NAME);
+        packet.put(PROTOCOL_LEVEL);
+        packet.put((byte) flags);
+        packet.putShort((short) keepAliveSeconds);
+        putString(packet, clientIdBytes);
+        if (userNameBytes != null)
+        {
+            putString(packet, userNameBytes);
+        }
+        if (passwordBytes != null)
+        {
+            putString(packet, passwordBytes);
+        }
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Encodes a PUBLISH packet.
+     *
+     * @param topic the topic to publish on.
+     * @param payload the payload of the message.
+     * @param qos the quality of service, 0 or 1.
+     * @param packetId the packet identifier, ignored at QoS 0.
+     * @return the packet.
+     * @throws IllegalArgumentException if the topic is longer than 65535 bytes or the packet is too large.
+     */
+    static ByteBuffer encodePublish(String topic, byte[] payload, int qos, int packetId)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_003: [The function shall encode a PUBLISH packet with the topic, the packet identifier if the QoS is above 0, and the payload.]
+        byte[] topicBytes = toUtf8(topic);
+        long remainingLength = 2L + topicBytes.length + ((qos > 0) ? 2 : 0) + payload.length;
+        if (remainingLength > MAX_REMAINING_LENGTH)
+        {
+            // Codes_SRS_MQTTNIOCODEC_45_004: [If the packet is larger than an MQTT packet can be, the function shall throw IllegalArgumentException.]
+            throw new IllegalArgumentException("The message is too large for an MQTT packet");
+        }
+
+        ByteBuffer packet = allocate((PUBLISH << 4) | (qos << 1), (int) remainingLength);
+        putString(packet, topicBytes);
+        if (qos > 0)
+        {
+            packet.putShort((short) packetId);
+        }
+        packet.put(payload);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Copies an encoded PUBLISH packet with its DUP flag set, to send it
+     * again on a new connection.
+     *
+     * @param publish the encoded packet, which is left as is.
+     * @return the copy of the packet with the DUP flag.
+     */
+    static ByteBuffer asDuplicate(ByteBuffer publish)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_005: [The function shall return a copy of the packet with the DUP flag set in its header.]
+        ByteBuffer copy = ByteBuffer.allocate(publish.remaining());
+        copy.put(publish.duplicate());
+        copy.flip();
+        copy.put(0, (byte) (copy.get(0) | DUPLICATE_FLAG));
+        return copy;
+    }
+
+    /**
+     * Encodes a PUBACK packet.
+     *
+     * @param packetId the identifier of the acknowledged PUBLISH.
+     * @return the packet.
+     */
+    static ByteBuffer encodePuback(int packetId)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_006: [The function shall encode a PUBACK packet with the packet identifier.]
+        ByteBuffer packet = allocate(PUBACK << 4, 2);
+        packet.putShort((short) packetId);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Encodes a SUBSCRIBE packet for one topic filter.
+     *
+     * @param packetId the packet identifier.
+     * @param topicFilter the topic filter to subscribe to.
+     * @param qos the maximum quality of service of the subscription.
+     * @return the packet.
+     * @throws IllegalArgumentException if the topic filter is longer than 65535 bytes.
+     */
+    static ByteBuffer encodeSubscribe(int packetId, String topicFilter, int qos)
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_007: [The function shall encode a SUBSCRIBE packet with the reserved flags, the packet identifier, the topic filter and the QoS.]
+        byte[] topicFilterBytes = toUtf8(topicFilter);
+        ByteBuffer packet = allocate((SUBSCRIBE << 4) | 0x02, 2 + 2 + topicFilterBytes.length + 1);
+        packet.putShort((short) packetId);
+        putString(packet, topicFilterBytes);
+        packet.put((byte) qos);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Encodes a PINGREQ packet.
+     *
+     * @return the packet.
+     */
+    static ByteBuffer encodePingreq()
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_008: [The function shall encode a PINGREQ packet.]
+        ByteBuffer packet = allocate(PINGREQ << 4, 0);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Encodes a DISCONNECT packet.
+     *
+     * @return the packet.
+     */
+    static ByteBuffer encodeDisconnect()
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_009: [The function shall encode a DISCONNECT packet.]
+        ByteBuffer packet = allocate(DISCONNECT << 4, 0);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Reads a two byte integer from the body of a packet.
+     *
+     * @param body the body of the packet, after its fixed header.
+     * @param offset the index of the integer.
+     * @return the integer, from 0 to 65535.
+     * @throws IOException if the body is too short.
+     */
+    static int readUnsignedShort(byte[] body, int offset) throws IOException
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_010: [If the body is too short, the function shall throw IOException.]
+        if (offset + 2 > body.length)
+        {
+            throw new IOException("Malformed MQTT packet, the body is too short");
+        }
+
+        // Codes_SRS_MQTTNIOCODEC_45_011: [The function shall read the big endian integer at the offset.]
+        return ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string from the body of a packet.
+     *
+     * @param body the body of the packet, after its fixed header.
+     * @param offset the index of the length of the string.
+     * @return the string.
+     * @throws IOException if the body is too short.
+     */
+    static String readString(byte[] body, int offset) throws IOException
+    {
+        // Codes_SRS_MQTTNIOCODEC_45_012: [The function shall read the string after its length, and throw IOException if the body is too short.]
+        int length = readUnsignedShort(body, offset);
+        if (offset + 2 + length > body.length)
+        {
+            throw new IOException("Malformed MQTT packet, the body is too short");
+        }
+        return new String(body, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer allocate(int header, int remainingLength)
+    {
+        int lengthBytes = 1;
+        for (int length = remainingLength >> 7; length > 0; length >>= 7)
+        {
+            lengthBytes++;
+        }
+
+        ByteBuffer packet = ByteBuffer.allocate(1 + lengthBytes + remainingLength);
+        packet.put((byte) header);
+        int length = remainingLength;
+        do
+        {
+            int digit = length & 0x7F;
+            length >>= 7;
+            packet.put((byte) ((length > 0) ? (digit | 0x80) : digit));
+        }
+        while (length > 0);
+        return packet;
+    }
+
+    private static byte[] toUtf8(String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH)
+        {
+            throw new IllegalArgumentException("An MQTT string cannot be longer than " + MAX_STRING_LENGTH + " bytes");
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer packet, byte[] bytes)
+    {
+        packet.putShort((short) bytes.length);
+        packet.put(bytes);
+    }
+}
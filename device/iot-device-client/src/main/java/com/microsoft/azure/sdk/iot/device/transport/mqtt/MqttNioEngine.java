@@ -0,0 +1,431 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The selector threads that run the MQTT connections of the clients opened
+ * with {@link com.microsoft.azure.sdk.iot.device.IotHubClientProtocol#MQTT_NIO}.
+ * Each connection is a non-blocking socket with a non-blocking TLS engine,
+ * bound to one selector thread for its whole life, so the number of threads
+ * stays flat however many devices are connected: the Paho client of the
+ * MQTT transport starts threads of its own for every connection.
+ *
+ * Each selector thread also runs the timers of its connections, and ticks
+ * them every {@link #TICK_MILLIS} milliseconds, so they can keep their
+ * session alive and detect the servers that stopped responding.
+ *
+ * The threads are daemon threads, so an engine never keeps the process
+ * alive. An engine can be shared with any number of clients, and must only
+ * be closed once they are all closed.
+ */
+public final class MqttNioEngine implements Closeable
+{
+    /** The number of selector threads of the shared engine. */
+    public static final int DEFAULT_SELECTOR_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /** The period the connections are ticked at, in milliseconds. */
+    static final long TICK_MILLIS = 1000;
+
+    private static final AtomicInteger ENGINE_NUMBER = new AtomicInteger();
+
+    private static MqttNioEngine sharedEngine = null;
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoopIndex = new AtomicInteger();
+    private final boolean isShared;
+    private volatile boolean isClosed = false;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Creates an engine with its own selector threads.
+     *
+     * @param selectorThreadCount the number of selector threads the connections are spread over.
+     * @throws IllegalArgumentException if the selector thread count is smaller than 1.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public MqttNioEngine(int selectorThreadCount) throws IOException
+    {
+        this(selectorThreadCount, false);
+    }
+
+    private MqttNioEngine(int selectorThreadCount, boolean isShared) throws IOException
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_001: [If the selector thread count is smaller than 1, the constructor shall throw IllegalArgumentException.]
+        if (selectorThreadCount < 1)
+        {
+            throw new IllegalArgumentException("selector thread count cannot be smaller than 1");
+        }
+
+        this.isShared = isShared;
+        String namePrefix = "azure-iot-sdk-mqtt-nio-" + ENGINE_NUMBER.incrementAndGet() + "-selector-";
+
+        // Codes_SRS_MQTTNIOENGINE_45_002: [The constructor shall open a selector per thread and start the selector threads as daemon threads.]
+        // Codes_SRS_MQTTNIOENGINE_45_003: [If a selector cannot be opened, the constructor shall close the selectors already opened and throw IOException.]
+        this.loops = new SelectorLoop[selectorThreadCount];
+        try
+        {
+            for (int i = 0; i < selectorThreadCount; i++)
+            {
+                this.loops[i] = new SelectorLoop(namePrefix + (i + 1));
+            }
+        }
+        catch (IOException e)
+        {
+            for (SelectorLoop loop : this.loops)
+            {
+                if (loop != null)
+                {
+                    loop.closeSelector();
+                }
+            }
+            throw e;
+        }
+
+        for (SelectorLoop loop : this.loops)
+        {
+            loop.thread.start();
+        }
+
+        logger.LogInfo("MQTT NIO engine is created with %d selector threads, method name is %s ", selectorThreadCount, logger.getMethodName());
+    }
+
+    /**
+     * Returns the engine shared by the whole process, created with
+     * {@link #DEFAULT_SELECTOR_THREAD_COUNT} selector threads the first time
+     * it is requested. The shared engine cannot be closed.
+     *
+     * @return the shared engine.
+     * @throws IOException if the shared engine cannot be created.
+     */
+    public static synchronized MqttNioEngine getShared() throws IOException
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_004: [The function shall create the shared engine with the default thread count the first time it is called, and return the same engine afterwards.]
+        if (sharedEngine == null)
+        {
+            sharedEngine = new MqttNioEngine(DEFAULT_SELECTOR_THREAD_COUNT, true);
+        }
+        return sharedEngine;
+    }
+
+    /**
+     * Getter for the number of selector threads of the engine.
+     *
+     * @return the number of selector threads.
+     */
+    public int getSelectorThreadCount()
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_005: [The function shall return the number of selector threads.]
+        return this.loops.length;
+    }
+
+    /**
+     * Getter for the number of connections whose socket is open on the engine.
+     *
+     * @return the number of open sockets, over all the selector threads.
+     */
+    public int getConnectionCount()
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_006: [The function shall return the number of channels registered with all the selector threads.]
+        int count = 0;
+        for (SelectorLoop loop : this.loops)
+        {
+            count += loop.channelCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the selector threads of the engine, and closes the connections
+     * still open on it, which are not restored. Must only be called once all
+     * the clients that use the engine are closed. Closing a closed engine
+     * does nothing.
+     *
+     * @throws IllegalStateException if the engine is the shared engine.
+     */
+    @Override
+    public void close()
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_007: [If the engine is the shared engine, the function shall throw IllegalStateException.]
+        if (this.isShared)
+        {
+            throw new IllegalStateException("The shared MQTT NIO engine cannot be closed.");
+        }
+
+        // Codes_SRS_MQTTNIOENGINE_45_008: [The function shall stop the selector threads, which close the channels still registered with them.]
+        this.isClosed = true;
+        for (SelectorLoop loop : this.loops)
+        {
+            loop.stop();
+        }
+    }
+
+    /**
+     * Picks the selector thread of a new connection, in turn.
+     *
+     * @return the selector loop to register the connection with.
+     * @throws IllegalStateException if the engine is closed.
+     */
+    SelectorLoop nextLoop()
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_009: [If the engine is closed, the function shall throw IllegalStateException.]
+        if (this.isClosed)
+        {
+            throw new IllegalStateException("The MQTT NIO engine is closed.");
+        }
+
+        // Codes_SRS_MQTTNIOENGINE_45_010: [The function shall return the selector loops in turn.]
+        int index = (this.nextLoopIndex.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length;
+        return this.loops[index];
+    }
+
+    /**
+     * Runs a task once, after a delay, on one of the selector threads.
+     *
+     * @param task the task to run.
+     * @param delayMillis the delay before the task runs, in milliseconds.
+     * @throws IllegalStateException if the engine is closed.
+     */
+    void schedule(Runnable task, long delayMillis)
+    {
+        // Codes_SRS_MQTTNIOENGINE_45_011: [The function shall run the task once after the delay on the next selector loop, and throw IllegalStateException if the engine is closed.]
+        this.nextLoop().schedule(task, delayMillis);
+    }
+
+    /**
+     * One selector thread, with the channels registered with it, its pending
+     * tasks and its timers. The channels and the timers are only touched on
+     * the thread of the loop; the other threads hand it tasks.
+     */
+    static final class SelectorLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private final Set<MqttNioChannel> channels = new HashSet<>();
+        private final AtomicInteger channelCount = new AtomicInteger();
+        private volatile boolean isStopped = false;
+        private long timerSequence = 0;
+
+        private final CustomLogger logger = new CustomLogger(this.getClass());
+
+        private SelectorLoop(String threadName) throws IOException
+        {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, threadName);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Hands a task to the loop, which runs it on its thread.
+         *
+         * @param task the task to run.
+         */
+        void execute(Runnable task)
+        {
+            this.tasks.offer(task);
+            if (Thread.currentThread() != this.thread)
+            {
+                this.selector.wakeup();
+            }
+        }
+
+        /**
+         * Runs a task once on the thread of the loop, after a delay.
+         *
+         * @param task the task to run.
+         * @param delayMillis the delay before the task runs, in milliseconds.
+         */
+        void schedule(final Runnable task, long delayMillis)
+        {
+            final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            this.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    timers.add(new Timer(deadlineNanos, timerSequence++, task));
+                }
+            });
+        }
+
+        Selector getSelector()
+        {
+            return this.selector;
+        }
+
+        /**
+         * Tracks a channel whose socket is open. Called on the thread of the loop.
+         *
+         * @param channel the channel to tick and to close when the loop stops.
+         */
+        void register(MqttNioChannel channel)
+        {
+            if (this.channels.add(channel))
+            {
+                this.channelCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Stops tracking a closed channel. Called on the thread of the loop.
+         *
+         * @param channel the closed channel.
+         */
+        void unregister(MqttNioChannel channel)
+        {
+            if (this.channels.remove(channel))
+            {
+                this.channelCount.decrementAndGet();
+            }
+        }
+
+        private void stop()
+        {
+            this.isStopped = true;
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+            long nextTickNanos = System.nanoTime() + tickNanos;
+            try
+            {
+                while (!this.isStopped)
+                {
+                    long waitNanos = nextTickNanos - System.nanoTime();
+                    Timer nextTimer = this.timers.peek();
+                    if (nextTimer != null)
+                    {
+                        waitNanos = Math.min(waitNanos, nextTimer.deadlineNanos - System.nanoTime());
+                    }
+
+                    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+                    if (!this.tasks.isEmpty() || waitMillis <= 0)
+                    {
+                        this.selector.selectNow();
+                    }
+                    else
+                    {
+                        this.selector.select(waitMillis);
+                    }
+
+                    Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext())
+                    {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        ((MqttNioChannel) key.attachment()).onReady(key);
+                    }
+
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null)
+                    {
+                        this.runSafely(task);
+                    }
+
+                    long nowNanos = System.nanoTime();
+                    while ((nextTimer = this.timers.peek()) != null && nextTimer.deadlineNanos - nowNanos <= 0)
+                    {
+                        this.runSafely(this.timers.poll().task);
+                    }
+
+                    if (nowNanos - nextTickNanos >= 0)
+                    {
+                        nextTickNanos = nowNanos + tickNanos;
+                        for (MqttNioChannel channel : new ArrayList<>(this.channels))
+                        {
+                            channel.onTick(nowNanos);
+                        }
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.LogError("MQTT NIO selector loop %s stopped: %s, method name is %s ", this.thread.getName(), e.toString(), logger.getMethodName());
+            }
+            finally
+            {
+                // the tasks still pending are dropped: the connections they
+                // target are closed below, and are not restored.
+                for (MqttNioChannel channel : new ArrayList<>(this.channels))
+                {
+                    channel.closeWith(new IOException("The MQTT NIO engine is closed"));
+                }
+                this.tasks.clear();
+                this.timers.clear();
+                this.closeSelector();
+            }
+        }
+
+        private void runSafely(Runnable task)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                logger.LogError("MQTT NIO task failed: %s, method name is %s ", e.toString(), logger.getMethodName());
+            }
+        }
+
+        private void closeSelector()
+        {
+            try
+            {
+                this.selector.close();
+            }
+            catch (IOException e)
+            {
+                logger.LogError("Cannot close the MQTT NIO selector: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer>
+    {
+        private final long deadlineNanos;
+        private final long sequence;
+        private final Runnable task;
+
+        private Timer(long deadlineNanos, long sequence, Runnable task)
+        {
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other)
+        {
+            // the deadlines come from System.nanoTime, so only their difference is meaningful.
+            long difference = this.deadlineNanos - other.deadlineNanos;
+            if (difference != 0)
+            {
+                return (difference < 0) ? -1 : 1;
+            }
+            return (this.sequence < other.sequence) ? -1 : ((this.sequence == other.sequence) ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,989 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.State;
+import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection of one device to an IoT Hub, run by the selector threads of
+ * an {@link MqttNioEngine} instead of a Paho client of its own. It speaks
+ * MQTT 3.1.1 itself, over a non-blocking TLS socket, and only holds the
+ * state of its session, so thousands of devices fit on a few threads.
+ *
+ * The connection carries the telemetry messages, at QoS 1 through the same
+ * in flight window as the Paho connection, or at QoS 0, and receives the
+ * cloud to device messages. It does not carry the device twin and device
+ * method messages, which fail with status ERROR.
+ *
+ * A lost connection is restored on the engine, after the same jittered
+ * exponential backoff as the Paho connection. The publishes waiting for
+ * their PUBACK are kept, and sent again with the DUP flag once the session
+ * is restored, as the IoT Hub keeps the session of the device.
+ */
+final class MqttNioIotHubConnection implements MqttTransportConnection, MqttNioChannel.Listener
+{
+    /** The states of the MQTT session of an open connection. */
+    enum SessionState
+    {
+        CONNECTING,
+        CONNECTED,
+        WAITING,
+        STOPPED
+    }
+
+    private static final int MQTT_PORT = 8883;
+    private static final int DEFAULT_KEEP_ALIVE_SECONDS = 230;
+    private static final long CONNECT_TIMEOUT_MILLIS = 30000;
+    private static final int MAX_PACKET_ID = 0xFFFF;
+    private static final int CONNACK_ACCEPTED = 0;
+    private static final int SUBACK_FAILURE = 0x80;
+
+    private static final String TWIN_API_VERSION = "api-version=2016-11-14";
+
+    /** Serializes the opening of the connection and the sends. */
+    private final Object MQTT_CONNECTION_LOCK = new Object();
+    /** Guards the session, which the selector threads update. */
+    private final Object sessionLock = new Object();
+
+    private final DeviceClientConfig config;
+    private final InetSocketAddress serverAddress;
+    private MqttNioEngine engine;
+
+    private volatile State state = State.CLOSED;
+    private SessionState sessionState = SessionState.STOPPED;
+    private boolean isOpening = false;
+    private IOException connectFailure = null;
+    private MqttNioChannel channel = null;
+
+    private SSLContext sslContext;
+    private String iotHubUserName;
+    private String iotHubUserPassword;
+    private MqttTopicEncoder topicEncoder;
+    private String subscribeTopic;
+    private volatile MqttInFlightWindow inFlightWindow = null;
+
+    private final Map<Integer, PendingPublish> pendingPublishes = new LinkedHashMap<>();
+    private int lastPacketId = 0;
+    private final LinkedBlockingQueue<Message> receivedMessages = new LinkedBlockingQueue<>();
+
+    private int keepAliveSeconds = DEFAULT_KEEP_ALIVE_SECONDS;
+    private long connectStartNanos = 0;
+    private volatile long lastSentNanos = 0;
+    private volatile long pingSentNanos = 0;
+
+    private long outageStartNanos = 0;
+    private long outageCount = 0;
+    private int outageAttemptCount = 0;
+    private long reconnectAttemptCount = 0;
+    private long lastOutageNanos = 0;
+    private long totalOutageNanos = 0;
+
+    private IotHubConnectionStateCallback stateCallback;
+    private Object stateCallbackContext;
+    private volatile IotHubSignalledTask receiveSignal;
+    private volatile IotHubSignalledTask sendSignal;
+
+    private final Runnable attemptTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            attempt();
+        }
+    };
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object, connecting to the IoT Hub of the configuration.
+     *
+     * @param config the client configuration.
+     * @param engine the engine to run on, or {@code null} for the shared engine.
+     * @throws IllegalArgumentException if any of the parameters of the configuration is null or empty.
+     */
+    MqttNioIotHubConnection(DeviceClientConfig config, MqttNioEngine engine)
+    {
+        this(config, engine, null);
+    }
+
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object, connecting to the provided address instead of the IoT Hub of
+     * the configuration, whose host name is still the one the certificate
+     * of the server is checked against.
+     *
+     * @param config the client configuration.
+     * @param engine the engine to run on, or {@code null} for the shared engine.
+     * @param serverAddress the address to connect to, or {@code null} for the IoT Hub of the configuration.
+     * @throws IllegalArgumentException if any of the parameters of the configuration is null or empty.
+     */
+    MqttNioIotHubConnection(DeviceClientConfig config, MqttNioEngine engine, InetSocketAddress serverAddress)
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_001: [If the configuration is null, or its host name or device ID is null or empty, the constructor shall throw IllegalArgumentException.]
+        if (config == null)
+        {
+            throw new IllegalArgumentException("The DeviceClientConfig cannot be null.");
+        }
+        if (config.getIotHubHostname() == null || config.getIotHubHostname().length() == 0)
+        {
+            throw new IllegalArgumentException("hostName cannot be null or empty.");
+        }
+        if (config.getDeviceId() == null || config.getDeviceId().length() == 0)
+        {
+            throw new IllegalArgumentException("deviceID cannot be null or empty.");
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_002: [The constructor shall save the configuration, the engine and the address, and not connect.]
+        this.config = config;
+        this.engine = engine;
+        this.serverAddress = serverAddress;
+    }
+
+    /**
+     * Establishes the connection for the device and IoT Hub given in the
+     * client configuration, and waits until the IoT Hub accepts it. If the
+     * connection is already open, the function does nothing.
+     *
+     * @throws IOException if the connection could not be established.
+     */
+    @Override
+    public void open() throws IOException
+    {
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_003: [If the connection is already open, the function shall do nothing.]
+            if (this.state == State.OPEN)
+            {
+                return;
+            }
+
+            try
+            {
+                if (this.engine == null)
+                {
+                    // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_004: [If the connection has no engine, the function shall run it on the shared engine.]
+                    this.engine = MqttNioEngine.getShared();
+                }
+
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_005: [The function shall connect with the same user name, password and TLS context as the MQTT connection, to port 8883 of the host name of the configuration unless another address was provided.]
+                if (this.config.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
+                {
+                    this.iotHubUserPassword = this.config.getSasTokenAuthentication().getRenewedSasToken();
+                    this.sslContext = this.config.getSasTokenAuthentication().getSSLContext();
+                }
+                else
+                {
+                    this.iotHubUserPassword = null;
+                    this.sslContext = this.config.getX509Authentication().getSSLContext();
+                }
+
+                String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.JAVA_DEVICE_CLIENT_IDENTIFIER + TransportUtils.CLIENT_VERSION, "UTF-8");
+                this.iotHubUserName = this.config.getIotHubHostname() + "/" + this.config.getDeviceId() + "/" + TWIN_API_VERSION + "&" + clientIdentifier;
+                this.topicEncoder = new MqttTopicEncoder("devices/" + this.config.getDeviceId() + "/messages/events/");
+                this.subscribeTopic = "devices/" + this.config.getDeviceId() + "/messages/devicebound/#";
+
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_006: [The function shall size the in flight window of the connection with the window size and mode of the configuration.]
+                this.inFlightWindow = new MqttInFlightWindow(this.config.getMqttInFlightWindowSize(), this.config.isMqttInFlightWindowAdaptive());
+
+                InetSocketAddress address = (this.serverAddress != null)
+                        ? this.serverAddress
+                        : new InetSocketAddress(this.config.getIotHubHostname(), MQTT_PORT);
+
+                synchronized (this.sessionLock)
+                {
+                    this.isOpening = true;
+                    this.connectFailure = null;
+                    this.sessionState = SessionState.CONNECTING;
+                    this.connectChannel(address);
+
+                    // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_007: [The function shall wait until the IoT Hub accepts the connection, and throw IOException if it refuses it, if the socket closes or if it does not answer in time.]
+                    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+                    while (this.sessionState == SessionState.CONNECTING)
+                    {
+                        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                        if (remainingMillis <= 0)
+                        {
+                            this.connectFailure = new IOException("The IoT Hub did not accept the connection in time");
+                            break;
+                        }
+                        this.sessionLock.wait(remainingMillis);
+                    }
+
+                    if (this.sessionState != SessionState.CONNECTED)
+                    {
+                        throw (this.connectFailure != null) ? this.connectFailure : new IOException("The connection is closed");
+                    }
+
+                    this.isOpening = false;
+                    this.state = State.OPEN;
+                }
+            }
+            catch (Exception e)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_008: [If the connection cannot be established for any reason, the function shall close the socket, if any, and throw IOException.]
+                MqttNioChannel channel;
+                synchronized (this.sessionLock)
+                {
+                    this.isOpening = false;
+                    this.sessionState = SessionState.STOPPED;
+                    channel = this.channel;
+                    this.channel = null;
+                }
+                if (channel != null)
+                {
+                    channel.close();
+                }
+                if (e instanceof InterruptedException)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection. The publishes still waiting for their PUBACK are
+     * dropped without notifying their delivery listener, as the transport
+     * cancels them. If the connection is already closed, the function does
+     * nothing.
+     */
+    @Override
+    public void close()
+    {
+        MqttNioChannel channel;
+        synchronized (this.sessionLock)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_009: [If the connection is closed, the function shall do nothing.]
+            if (this.state == State.CLOSED)
+            {
+                return;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_010: [The function shall stop restoring the connection, drop the publishes in flight, and send a DISCONNECT before closing the socket.]
+            this.endOutage(SessionState.STOPPED);
+            this.state = State.CLOSED;
+            for (int i = this.pendingPublishes.size(); i > 0; i--)
+            {
+                this.inFlightWindow.release();
+            }
+            this.pendingPublishes.clear();
+            this.receivedMessages.clear();
+            channel = this.channel;
+            this.channel = null;
+        }
+
+        if (channel != null)
+        {
+            channel.write(MqttNioCodec.encodeDisconnect());
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks if the connection was lost and is being restored.
+     *
+     * @return {@code true} if the connection is being restored, and {@code false} otherwise.
+     */
+    @Override
+    public boolean isReconnecting()
+    {
+        synchronized (this.sessionLock)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_011: [The function shall return true if the connection is open and its session is WAITING or CONNECTING, and false otherwise.]
+            return this.state == State.OPEN && this.isRestoring();
+        }
+    }
+
+    /**
+     * Takes a slot of the in flight window for the next message to send, if
+     * one is free, without waiting for one or taking the connection lock.
+     *
+     * @return {@code true} if a slot was taken, and {@code false} if all the slots are taken.
+     * @throws IOException if the connection is closed.
+     */
+    @Override
+    public boolean tryAcquireInFlightSlot() throws IOException
+    {
+        MqttInFlightWindow inFlightWindow = this.inFlightWindow;
+        if (this.state == State.CLOSED || inFlightWindow == null)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_053: [If the connection is closed, the function shall throw an IOException.]
+            throw new IOException("Cannot take an in flight slot of a closed MQTT connection");
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_019: [The function shall take a slot of the in flight window and return true, or return false without waiting if the window is full.]
+        return inFlightWindow.tryAcquire();
+    }
+
+    /**
+     * Gives back a slot taken with {@link #tryAcquireInFlightSlot()} for a
+     * message that was not handed over to the connection.
+     */
+    @Override
+    public void releaseInFlightSlot()
+    {
+        MqttInFlightWindow inFlightWindow = this.inFlightWindow;
+        if (inFlightWindow != null)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_055: [The function shall release a slot of the in flight window.]
+            inFlightWindow.release();
+        }
+    }
+
+    /**
+     * Sends a telemetry message without waiting for the IoT Hub to
+     * acknowledge it. The caller holds a slot of the in flight window for the
+     * message, which is handed over to the connection if the function
+     * returns OK_EMPTY.
+     *
+     * @param message the event message.
+     * @param deliveryListener the listener to notify with the outcome of the delivery. Can be {@code null}.
+     * @return OK_EMPTY if the message is sent, or the status code of the failure.
+     * @throws IllegalStateException if the connection is closed, or is being restored.
+     */
+    @Override
+    public IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener) throws IllegalStateException
+    {
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_012: [If the message is null or empty, the function shall return status code BAD_FORMAT.]
+            if (message == null || message.getBytes() == null ||
+                    (message.getMessageType() != MessageType.DEVICE_TWIN
+                            && message.getMessageType() != MessageType.DEVICE_METHODS
+                            && message.getBytes().length == 0))
+            {
+                return IotHubStatusCode.BAD_FORMAT;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_013: [If the connection is closed, the function shall throw an IllegalStateException.]
+            if (this.state == State.CLOSED)
+            {
+                throw new IllegalStateException("Cannot send event using a closed MQTT connection");
+            }
+
+            if (this.config.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN && this.config.getSasTokenAuthentication().isRenewalNecessary())
+            {
+                if (this.stateCallback != null)
+                {
+                    // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_014: [If the sas token saved in the config needs to be renewed, the function shall invoke the connection state callback, if any, with status SAS_TOKEN_EXPIRED, and return UNAUTHORIZED.]
+                    this.stateCallback.execute(IotHubConnectionState.SAS_TOKEN_EXPIRED, this.stateCallbackContext);
+                }
+                return IotHubStatusCode.UNAUTHORIZED;
+            }
+
+            if (message.getMessageType() == MessageType.DEVICE_TWIN || message.getMessageType() == MessageType.DEVICE_METHODS)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_015: [If the message is a device twin or device method message, the function shall return status code ERROR.]
+                logger.LogError("Device twin and device method messages are not supported over MQTT_NIO, method name is %s ", logger.getMethodName());
+                return IotHubStatusCode.ERROR;
+            }
+
+            try
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_016: [The function shall publish the message on the telemetry topic of the device, with its properties percent-encoded in the topic.]
+                // the body is encoded into the packet, which is what is kept
+                // until the PUBACK, so it is only read here.
+                byte[] body = message.getBytesNoCopy();
+                String topic = this.topicEncoder.encode(message);
+                if (this.config.getMqttTelemetryDeliveryMode() == TelemetryDeliveryMode.AT_MOST_ONCE)
+                {
+                    return this.sendAtMostOnce(topic, body, deliveryListener);
+                }
+                return this.sendAtLeastOnce(topic, body, deliveryListener);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_017: [If the message cannot be encoded, the function shall return status code ERROR.]
+                logger.LogError("Cannot encode the message: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+                return IotHubStatusCode.ERROR;
+            }
+        }
+    }
+
+    private IotHubStatusCode sendAtMostOnce(String topic, byte[] body, IMqttActionListener deliveryListener)
+    {
+        synchronized (this.sessionLock)
+        {
+            IotHubStatusCode status = this.checkConnected();
+            if (status != null)
+            {
+                return status;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_018: [If the telemetry delivery mode of the configuration is AT_MOST_ONCE, the function shall publish the message at QoS 0 and notify the delivery listener of the success right away.]
+            this.writePacket(MqttNioCodec.encodePublish(topic, body, MqttConnection.QOS_AT_MOST_ONCE, 0));
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_052: [If the message is published at QoS 0, the function shall release the slot of the in flight window held for it right away.]
+        this.inFlightWindow.release();
+
+        if (deliveryListener != null)
+        {
+            deliveryListener.onSuccess(null);
+        }
+        return IotHubStatusCode.OK_EMPTY;
+    }
+
+    private IotHubStatusCode sendAtLeastOnce(String topic, byte[] body, IMqttActionListener deliveryListener)
+    {
+        synchronized (this.sessionLock)
+        {
+            IotHubStatusCode status = this.checkConnected();
+            if (status != null)
+            {
+                return status;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_020: [The function shall publish the message at QoS 1 and keep it until its PUBACK arrives, which notifies the delivery listener of the success.]
+            int packetId = this.nextPacketId();
+            ByteBuffer packet = MqttNioCodec.encodePublish(topic, body, MqttConnection.QOS, packetId);
+            this.pendingPublishes.put(packetId, new PendingPublish(packet, deliveryListener, System.nanoTime()));
+            this.writePacket(packet.duplicate());
+        }
+        return IotHubStatusCode.OK_EMPTY;
+    }
+
+    /**
+     * Receives a cloud to device message, if one exists.
+     *
+     * @return the message received, or {@code null} if none exists.
+     * @throws IllegalStateException if the connection is closed.
+     */
+    @Override
+    public Message receiveMessage() throws IllegalStateException
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_021: [If the connection is closed, the function shall throw an IllegalStateException.]
+        if (this.state == State.CLOSED)
+        {
+            throw new IllegalStateException("The MQTT connection is currently closed. Call open() before attempting " +
+                    "to receive a message.");
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_022: [The function shall return the oldest message received and not consumed yet, or null if there is none.]
+        return this.receivedMessages.poll();
+    }
+
+    /**
+     * The connection sends no device twin request, so none ever expires.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return an empty list.
+     */
+    @Override
+    public List<IotHubTransportMessage> removeExpiredTwinRequests(long currentTimeMillis)
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_023: [The function shall return an empty list.]
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext)
+    {
+        if (callback == null)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_024: [If the provided callback object is null, this function shall throw an IllegalArgumentException.]
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_025: [This function shall save the provided callback and callback context.]
+        this.stateCallback = callback;
+        this.stateCallbackContext = callbackContext;
+    }
+
+    @Override
+    public void registerSendSignal(IotHubSignalledTask sendSignal)
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_026: [This function shall save the provided send signal, signalled once a lost connection is restored.]
+        this.sendSignal = sendSignal;
+    }
+
+    @Override
+    public void registerReceiveSignal(IotHubSignalledTask receiveSignal)
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_027: [This function shall save the provided receive signal, signalled whenever a message is received.]
+        this.receiveSignal = receiveSignal;
+    }
+
+    @Override
+    public int getReceivedMessageCount()
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_028: [This function shall return the number of messages received and not consumed yet, or 0 if the connection is closed.]
+        return (this.state == State.CLOSED) ? 0 : this.receivedMessages.size();
+    }
+
+    @Override
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_029: [The function shall return the statistics of the in flight window, or null if the connection was never opened.]
+        MqttInFlightWindow inFlightWindow = this.inFlightWindow;
+        return (inFlightWindow == null) ? null : inFlightWindow.getStatistics();
+    }
+
+    @Override
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        synchronized (this.sessionLock)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_030: [If the connection was never opened, the function shall return null.]
+            if (this.inFlightWindow == null)
+            {
+                return null;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_031: [The function shall return the number of outages and of attempts, and the current, last and total duration of the outages in milliseconds.]
+            boolean isReconnecting = this.state == State.OPEN && this.isRestoring();
+            long currentOutageNanos = isReconnecting ? System.nanoTime() - this.outageStartNanos : 0;
+            return new ReconnectStatistics(isReconnecting, this.outageCount, this.reconnectAttemptCount,
+                    TimeUnit.NANOSECONDS.toMillis(currentOutageNanos),
+                    TimeUnit.NANOSECONDS.toMillis(this.lastOutageNanos),
+                    TimeUnit.NANOSECONDS.toMillis(this.totalOutageNanos + currentOutageNanos));
+        }
+    }
+
+    @Override
+    public int getPendingTwinRequestCount()
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_032: [The function shall return 0.]
+        return 0;
+    }
+
+    @Override
+    public void onOpened(MqttNioChannel channel)
+    {
+        synchronized (this.sessionLock)
+        {
+            if (channel != this.channel)
+            {
+                return;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_033: [Once the TLS handshake is over, the connection shall send a CONNECT with the device ID as client identifier, the user name, the password, and no clean session.]
+            this.writePacket(MqttNioCodec.encodeConnect(this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword,
+                    this.keepAliveSeconds, false));
+        }
+    }
+
+    @Override
+    public void onPacket(MqttNioChannel channel, int header, byte[] body) throws IOException
+    {
+        this.pingSentNanos = 0;
+        switch (MqttNioCodec.getPacketType(header))
+        {
+            case MqttNioCodec.CONNACK:
+                this.onConnack(channel, body);
+                break;
+            case MqttNioCodec.PUBACK:
+                this.onPuback(MqttNioCodec.readUnsignedShort(body, 0));
+                break;
+            case MqttNioCodec.PUBLISH:
+                this.onPublish(channel, header, body);
+                break;
+            case MqttNioCodec.SUBACK:
+                if (body.length > 2 && (body[2] & 0xFF) == SUBACK_FAILURE)
+                {
+                    logger.LogError("The IoT Hub refused the subscription to the cloud to device messages of %s, method name is %s ", this.config.getDeviceId(), logger.getMethodName());
+                }
+                break;
+            case MqttNioCodec.PINGRESP:
+                break;
+            default:
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_034: [If the connection receives a packet a server does not send, it shall close the socket.]
+                throw new IOException("Unexpected MQTT packet of type " + MqttNioCodec.getPacketType(header));
+        }
+    }
+
+    private void onConnack(MqttNioChannel channel, byte[] body) throws IOException
+    {
+        synchronized (this.sessionLock)
+        {
+            if (channel != this.channel || this.sessionState != SessionState.CONNECTING)
+            {
+                return;
+            }
+
+            if (body.length < 2 || body[1] != CONNACK_ACCEPTED)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_035: [If the IoT Hub refuses the connection, the connection shall close the socket.]
+                throw new IOException("The IoT Hub refused the MQTT connection with return code " + ((body.length < 2) ? -1 : body[1]));
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_036: [Once the IoT Hub accepts the connection, the connection shall subscribe to the cloud to device messages of the device, and send again with the DUP flag the publishes still waiting for their PUBACK.]
+            this.sessionState = SessionState.CONNECTED;
+            this.writePacket(MqttNioCodec.encodeSubscribe(this.nextPacketId(), this.subscribeTopic, MqttConnection.QOS));
+            long nowNanos = System.nanoTime();
+            for (PendingPublish pendingPublish : this.pendingPublishes.values())
+            {
+                pendingPublish.sentNanos = nowNanos;
+                this.writePacket(MqttNioCodec.asDuplicate(pendingPublish.packet));
+            }
+
+            if (this.isOpening)
+            {
+                this.sessionLock.notifyAll();
+                return;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_037: [If the connection was restored, the connection shall end the outage, fire the connection state callback with status CONNECTION_SUCCESS and signal the send signal, out of its lock.]
+            this.endOutage(SessionState.CONNECTED);
+        }
+
+        logger.LogInfo("The MQTT connection of %s is restored, method name is %s ", this.config.getDeviceId(), logger.getMethodName());
+        if (this.stateCallback != null)
+        {
+            this.stateCallback.execute(IotHubConnectionState.CONNECTION_SUCCESS, this.stateCallbackContext);
+        }
+        IotHubSignalledTask signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
+    private void onPuback(int packetId)
+    {
+        PendingPublish pendingPublish;
+        synchronized (this.sessionLock)
+        {
+            pendingPublish = this.pendingPublishes.remove(packetId);
+        }
+        if (pendingPublish == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_038: [Once the PUBACK of a publish arrives, the connection shall give its slot back to the in flight window with its round trip and notify its delivery listener of the success.]
+        this.inFlightWindow.onDelivered(pendingPublish.sentNanos);
+        if (pendingPublish.deliveryListener != null)
+        {
+            pendingPublish.deliveryListener.onSuccess(null);
+        }
+    }
+
+    private void onPublish(MqttNioChannel channel, int header, byte[] body) throws IOException
+    {
+        String topic = MqttNioCodec.readString(body, 0);
+        int offset = 2 + MqttNioCodec.readUnsignedShort(body, 0);
+        int qos = (header >> 1) & 0x03;
+        if (qos > 0)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_039: [Once a cloud to device message arrives at QoS 1, the connection shall acknowledge it with a PUBACK.]
+            int packetId = MqttNioCodec.readUnsignedShort(body, offset);
+            offset += 2;
+            channel.write(MqttNioCodec.encodePuback(packetId));
+        }
+
+        try
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_040: [The connection shall build the message from its payload and the properties of its topic, queue it and signal the receive signal.]
+            this.receivedMessages.add(Mqtt.constructMessage(Arrays.copyOfRange(body, offset, body.length), topic));
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.LogError("Dropped a cloud to device message with malformed properties: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            return;
+        }
+
+        IotHubSignalledTask signal = this.receiveSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
+    @Override
+    public void onTick(MqttNioChannel channel, long nowNanos) throws IOException
+    {
+        synchronized (this.sessionLock)
+        {
+            if (channel != this.channel)
+            {
+                return;
+            }
+
+            if (this.sessionState == SessionState.CONNECTING)
+            {
+                if (nowNanos - this.connectStartNanos > TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS))
+                {
+                    // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_041: [If the IoT Hub does not accept the connection in time, the connection shall close the socket.]
+                    throw new IOException("The IoT Hub did not accept the connection in time");
+                }
+                return;
+            }
+
+            long keepAliveNanos = TimeUnit.SECONDS.toNanos(this.keepAliveSeconds);
+            if (this.pingSentNanos != 0 && nowNanos - this.pingSentNanos > keepAliveNanos)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_042: [If the IoT Hub does not answer a PINGREQ within the keep alive interval, the connection shall close the socket.]
+                throw new IOException("The IoT Hub did not answer within the keep alive interval");
+            }
+            if (this.pingSentNanos == 0 && nowNanos - this.lastSentNanos >= keepAliveNanos)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_043: [If the connection sent nothing for the keep alive interval, it shall send a PINGREQ.]
+                this.pingSentNanos = nowNanos;
+                this.writePacket(MqttNioCodec.encodePingreq());
+            }
+        }
+    }
+
+    @Override
+    public void onClosed(MqttNioChannel channel, IOException cause)
+    {
+        synchronized (this.sessionLock)
+        {
+            if (channel != this.channel)
+            {
+                return;
+            }
+            this.channel = null;
+
+            if (this.isOpening)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_044: [If the socket closes while the connection opens, the connection shall fail the opening with the cause.]
+                this.connectFailure = (cause != null) ? cause : new IOException("The connection is closed");
+                this.sessionState = SessionState.STOPPED;
+                this.sessionLock.notifyAll();
+                return;
+            }
+            if (this.state == State.CLOSED || this.sessionState == SessionState.STOPPED)
+            {
+                return;
+            }
+
+            logger.LogInfo("The MQTT connection of %s is lost: %s, method name is %s ", this.config.getDeviceId(),
+                    (cause == null) ? "closed" : cause.getMessage(), logger.getMethodName());
+            if (this.sessionState == SessionState.CONNECTING)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_045: [If an attempt to restore the connection fails, the connection shall schedule the next attempt.]
+                this.sessionState = SessionState.WAITING;
+                this.scheduleAttempt();
+                return;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_046: [If the connection is lost, it shall start an outage, report it to the in flight window, schedule the first attempt to restore it on the engine, and fire the connection state callback with status CONNECTION_DROP out of its lock.]
+            this.sessionState = SessionState.WAITING;
+            this.outageStartNanos = System.nanoTime();
+            this.outageCount++;
+            this.outageAttemptCount = 0;
+            this.inFlightWindow.onConnectionLost();
+            this.scheduleAttempt();
+        }
+
+        if (this.stateCallback != null)
+        {
+            this.stateCallback.execute(IotHubConnectionState.CONNECTION_DROP, this.stateCallbackContext);
+        }
+    }
+
+    /**
+     * Makes one attempt to restore the connection, on a selector thread.
+     */
+    private void attempt()
+    {
+        synchronized (this.sessionLock)
+        {
+            if (this.sessionState != SessionState.WAITING || this.state == State.CLOSED)
+            {
+                return;
+            }
+
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_047: [An attempt shall move to CONNECTING and count the attempt.]
+            this.sessionState = SessionState.CONNECTING;
+            this.outageAttemptCount++;
+            this.reconnectAttemptCount++;
+        }
+
+        try
+        {
+            String password = this.iotHubUserPassword;
+            if (this.config.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
+            {
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_048: [An attempt shall renew the SAS token, and stop restoring the connection if the token supplied by the user has expired.]
+                password = this.config.getSasTokenAuthentication().getRenewedSasToken();
+                if (IotHubSasToken.isExpired(password))
+                {
+                    logger.LogError("The SAS token of %s has expired, the connection will not be restored, method name is %s ", this.config.getDeviceId(), logger.getMethodName());
+                    synchronized (this.sessionLock)
+                    {
+                        this.endOutage(SessionState.STOPPED);
+                    }
+                    return;
+                }
+            }
+
+            synchronized (this.sessionLock)
+            {
+                if (this.sessionState != SessionState.CONNECTING || this.state == State.CLOSED)
+                {
+                    return;
+                }
+
+                // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_049: [An attempt shall connect a new socket without waiting for the outcome.]
+                this.iotHubUserPassword = password;
+                this.connectChannel((this.serverAddress != null)
+                        ? this.serverAddress
+                        : new InetSocketAddress(this.config.getIotHubHostname(), MQTT_PORT));
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            synchronized (this.sessionLock)
+            {
+                if (this.sessionState == SessionState.CONNECTING && this.state == State.OPEN)
+                {
+                    this.sessionState = SessionState.WAITING;
+                    this.scheduleAttempt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the next attempt to restore the connection. Must be called holding the session lock.
+     */
+    private void scheduleAttempt()
+    {
+        // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_050: [The attempts shall be scheduled after the jittered exponential backoff of TransportUtils for the number of attempts made during the outage.]
+        long delayMillis = TransportUtils.generateJitteredSleepInterval(this.outageAttemptCount);
+        try
+        {
+            this.engine.schedule(this.attemptTask, delayMillis);
+        }
+        catch (IllegalStateException e)
+        {
+            // Codes_SRS_MQTTNIOIOTHUBCONNECTION_45_051: [If the engine is closed, the connection shall stop restoring the connection.]
+            logger.LogError("Cannot schedule a reconnection attempt, the connection will not be restored: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            this.endOutage(SessionState.STOPPED);
+        }
+    }
+
+    /**
+     * Opens a new socket for the session. Must be called holding the session lock.
+     */
+    private void connectChannel(InetSocketAddress address)
+    {
+        SSLEngine sslEngine = this.sslContext.createSSLEngine(this.config.getIotHubHostname(), address.getPort());
+        sslEngine.setUseClientMode(true);
+        SSLParameters sslParameters = sslEngine.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslEngine.setSSLParameters(sslParameters);
+
+        this.connectStartNanos = System.nanoTime();
+        this.pingSentNanos = 0;
+        this.channel = new MqttNioChannel(this.engine.nextLoop(), address, sslEngine, this);
+        this.channel.open();
+    }
+
+    /**
+     * Checks that the session can carry a publish. Must be called holding the session lock.
+     *
+     * @return {@code null} if the session is connected, or ERROR if it will not be restored.
+     * @throws IllegalStateException if the connection is closed or is being restored.
+     */
+    private IotHubStatusCode checkConnected()
+    {
+        if (this.state == State.CLOSED)
+        {
+            throw new IllegalStateException("Cannot send event using a closed MQTT connection");
+        }
+        if (this.sessionState == SessionState.CONNECTED)
+        {
+            return null;
+        }
+        if (this.sessionState == SessionState.STOPPED)
+        {
+            // the connection will not be restored, so the message is not kept either.
+            return IotHubStatusCode.ERROR;
+        }
+        throw new IllegalStateException("The MQTT connection is being restored");
+    }
+
+    /**
+     * Writes a packet on the socket of the session. Must be called holding the session lock.
+     */
+    private void writePacket(ByteBuffer packet)
+    {
+        this.lastSentNanos = System.nanoTime();
+        this.channel.write(packet);
+    }
+
+    /**
+     * Picks the identifier of the next packet, skipping the ones of the
+     * publishes in flight. Must be called holding the session lock.
+     */
+    private int nextPacketId()
+    {
+        if (this.pendingPublishes.size() >= MAX_PACKET_ID)
+        {
+            throw new IllegalStateException("All the MQTT packet identifiers are in use");
+        }
+
+        do
+        {
+            this.lastPacketId = (this.lastPacketId % MAX_PACKET_ID) + 1;
+        }
+        while (this.pendingPublishes.containsKey(this.lastPacketId));
+        return this.lastPacketId;
+    }
+
+    private boolean isRestoring()
+    {
+        return this.sessionState == SessionState.WAITING
+                || (this.sessionState == SessionState.CONNECTING && !this.isOpening);
+    }
+
+    /**
+     * Ends the current outage, if any, and moves to the provided state. Must
+     * be called holding the session lock.
+     */
+    private void endOutage(SessionState nextState)
+    {
+        if (this.state == State.OPEN && this.isRestoring())
+        {
+            long outageNanos = System.nanoTime() - this.outageStartNanos;
+            this.totalOutageNanos += outageNanos;
+            if (nextState == SessionState.CONNECTED)
+            {
+                this.lastOutageNanos = outageNanos;
+            }
+        }
+        this.sessionState = nextState;
+    }
+
+    private static final class PendingPublish
+    {
+        private final ByteBuffer packet;
+        private final IMqttActionListener deliveryListener;
+        private long sentNanos;
+
+        private PendingPublish(ByteBuffer packet, IMqttActionListener deliveryListener, long sentNanos)
+        {
+            this.packet = packet;
+            this.deliveryListener = deliveryListener;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.ReconnectStatistics;
+import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores a lost MQTT connection without holding any thread while it is
+ * down. Each attempt runs on a scheduler, after a jittered exponential
+ * backoff, and connects without waiting for the outcome, which comes back
+ * on the thread of the MQTT client. No lock is held in between, so the
+ * clients of the connection keep working: the messages to send stay in the
+ * outbound queue until the connection is restored.
+ *
+ * The reconnector goes through the following states:
+ * <ul>
+ *     <li>CONNECTED, until the connection is lost;</li>
+ *     <li>WAITING, while the next attempt is scheduled;</li>
+ *     <li>CONNECTING, while an attempt waits for its outcome, which goes
+ *     back to WAITING on a failure and to CONNECTED on a success;</li>
+ *     <li>STOPPED, once the connection is closed or its credentials
+ *     expired for good, which no event leaves.</li>
+ * </ul>
+ */
+final class MqttReconnector implements IMqttActionListener
+{
+    enum State
+    {
+        CONNECTED,
+        WAITING,
+        CONNECTING,
+        STOPPED
+    }
+
+    private final Mqtt mqtt;
+    private final MqttConnection mqttConnection;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable attemptTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            attempt();
+        }
+    };
+
+    private State state = State.CONNECTED;
+    private int outageAttemptCount = 0;
+    private ScheduledFuture<?> scheduledAttempt = null;
+
+    private long outageStartNanos = 0;
+    private long outageCount = 0;
+    private long reconnectAttemptCount = 0;
+    private long lastOutageNanos = 0;
+    private long totalOutageNanos = 0;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param mqtt the client that receives the events of the connection, and refreshes its credentials.
+     * @param mqttConnection the connection to restore.
+     * @param scheduler the scheduler the attempts run on.
+     * @throws IllegalArgumentException if any of the parameters is {@code null}.
+     */
+    MqttReconnector(Mqtt mqtt, MqttConnection mqttConnection, ScheduledExecutorService scheduler)
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_001: [If any of the parameters is null, the constructor shall throw IllegalArgumentException.]
+        if (mqtt == null || mqttConnection == null || scheduler == null)
+        {
+            throw new IllegalArgumentException("mqtt, mqtt connection and scheduler cannot be null");
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_45_002: [The constructor shall save the parameters and start in the CONNECTED state.]
+        this.mqtt = mqtt;
+        this.mqttConnection = mqttConnection;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts restoring the connection. Returns right away, so it can be
+     * called on the thread of the MQTT client.
+     */
+    synchronized void onConnectionLost()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_003: [If the reconnector is not CONNECTED, the function shall do nothing.]
+        if (this.state != State.CONNECTED)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_45_004: [The function shall start an outage, move to WAITING and schedule the first attempt.]
+        this.state = State.WAITING;
+        this.outageStartNanos = System.nanoTime();
+        this.outageCount++;
+        this.outageAttemptCount = 0;
+        this.scheduleAttempt();
+    }
+
+    /**
+     * Schedules the next attempt. Must be called holding the lock of the reconnector.
+     */
+    private void scheduleAttempt()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_005: [The attempts shall be scheduled after the jittered exponential backoff of TransportUtils for the number of attempts made during the outage.]
+        long delayMillis = TransportUtils.generateJitteredSleepInterval(this.outageAttemptCount);
+        try
+        {
+            this.scheduledAttempt = this.scheduler.schedule(this.attemptTask, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Codes_SRS_MQTTRECONNECTOR_45_006: [If the scheduler rejects the attempt, the reconnector shall stop.]
+            logger.LogError("Cannot schedule a reconnection attempt, the connection will not be restored: %s, method name is %s ", e.getMessage(), logger.getMethodName());
+            this.endOutage(State.STOPPED);
+        }
+    }
+
+    /**
+     * Makes one attempt to restore the connection, on the scheduler.
+     */
+    private void attempt()
+    {
+        int attemptNumber;
+        synchronized (this)
+        {
+            // Codes_SRS_MQTTRECONNECTOR_45_007: [If the reconnector is not WAITING, the attempt shall do nothing.]
+            if (this.state != State.WAITING)
+            {
+                return;
+            }
+
+            // Codes_SRS_MQTTRECONNECTOR_45_008: [The attempt shall move to CONNECTING and count the attempt.]
+            this.state = State.CONNECTING;
+            this.outageAttemptCount++;
+            this.reconnectAttemptCount++;
+            attemptNumber = this.outageAttemptCount;
+        }
+
+        logger.LogInfo("Lost connection to the server. Reconnecting %d time, method name is %s ", attemptNumber, logger.getMethodName());
+        try
+        {
+            // Codes_SRS_MQTTRECONNECTOR_45_009: [The attempt shall have the client refresh the credentials of the connection before connecting, and stop the reconnector if they cannot be refreshed.]
+            if (!this.mqtt.prepareReconnect())
+            {
+                this.stop();
+                return;
+            }
+
+            MqttAsyncClient mqttAsyncClient = this.mqttConnection.getMqttAsyncClient();
+            if (mqttAsyncClient == null)
+            {
+                // Codes_SRS_MQTTRECONNECTOR_45_010: [If the connection has no MQTT client anymore, the attempt shall stop the reconnector.]
+                this.stop();
+            }
+            else if (mqttAsyncClient.isConnected())
+            {
+                // Codes_SRS_MQTTRECONNECTOR_45_011: [If the MQTT client is already connected, the attempt shall succeed right away.]
+                this.onSuccess(null);
+            }
+            else
+            {
+                // Codes_SRS_MQTTRECONNECTOR_45_012: [The attempt shall connect the MQTT client with the connection options without waiting for the outcome.]
+                mqttAsyncClient.connect(this.mqttConnection.getConnectionOptions(), null, this);
+            }
+        }
+        catch (IOException | MqttException | RuntimeException e)
+        {
+            // Codes_SRS_MQTTRECONNECTOR_45_013: [If the attempt throws, it shall fail.]
+            this.onFailure(null, e);
+        }
+    }
+
+    /**
+     * Notified when an attempt restored the connection.
+     *
+     * @param asyncActionToken the token of the connect.
+     */
+    @Override
+    public void onSuccess(IMqttToken asyncActionToken)
+    {
+        synchronized (this)
+        {
+            // Codes_SRS_MQTTRECONNECTOR_45_014: [If the reconnector is not CONNECTING, the function shall do nothing.]
+            if (this.state != State.CONNECTING)
+            {
+                return;
+            }
+
+            // Codes_SRS_MQTTRECONNECTOR_45_015: [The function shall end the outage and move to CONNECTED.]
+            this.endOutage(State.CONNECTED);
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_45_016: [The function shall notify the client that the connection is restored, out of the lock of the reconnector.]
+        this.mqtt.onReconnected();
+    }
+
+    /**
+     * Notified when an attempt failed to restore the connection.
+     *
+     * @param asyncActionToken the token of the connect.
+     * @param exception the reason of the failure.
+     */
+    @Override
+    public synchronized void onFailure(IMqttToken asyncActionToken, Throwable exception)
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_014: [If the reconnector is not CONNECTING, the function shall do nothing.]
+        if (this.state != State.CONNECTING)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTRECONNECTOR_45_017: [The function shall move back to WAITING and schedule the next attempt.]
+        this.state = State.WAITING;
+        this.scheduleAttempt();
+    }
+
+    /**
+     * Stops restoring the connection, for good. Must be called before the
+     * connection is closed.
+     */
+    synchronized void stop()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_018: [The function shall end the current outage, if any, cancel the scheduled attempt, if any, and move to STOPPED.]
+        if (this.scheduledAttempt != null)
+        {
+            this.scheduledAttempt.cancel(false);
+            this.scheduledAttempt = null;
+        }
+        this.endOutage(State.STOPPED);
+    }
+
+    /**
+     * Checks if the connection is being restored.
+     *
+     * @return {@code true} if the reconnector is WAITING or CONNECTING.
+     */
+    synchronized boolean isReconnecting()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_019: [The function shall return true if the reconnector is WAITING or CONNECTING, and false otherwise.]
+        return this.state == State.WAITING || this.state == State.CONNECTING;
+    }
+
+    /**
+     * Checks if the connection will not be restored anymore.
+     *
+     * @return {@code true} if the reconnector is STOPPED.
+     */
+    synchronized boolean isStopped()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_021: [The function shall return true if the reconnector is STOPPED, and false otherwise.]
+        return this.state == State.STOPPED;
+    }
+
+    /**
+     * Getter for the gauges of the reconnections.
+     *
+     * @return a snapshot of the outages of the connection and of the attempts to restore it.
+     */
+    synchronized ReconnectStatistics getStatistics()
+    {
+        // Codes_SRS_MQTTRECONNECTOR_45_020: [The function shall return the number of outages and of attempts, and the current, last and total duration of the outages in milliseconds.]
+        boolean isReconnecting = this.isReconnecting();
+        long currentOutageNanos = isReconnecting ? System.nanoTime() - this.outageStartNanos : 0;
+        return new ReconnectStatistics(isReconnecting, this.outageCount, this.reconnectAttemptCount,
+                TimeUnit.NANOSECONDS.toMillis(currentOutageNanos),
+                TimeUnit.NANOSECONDS.toMillis(this.lastOutageNanos),
+                TimeUnit.NANOSECONDS.toMillis(this.totalOutageNanos + currentOutageNanos));
+    }
+
+    /**
+     * Ends the current outage, if any, and moves to the provided state. Must
+     * be called holding the lock of the reconnector.
+     *
+     * @param nextState the state to move to.
+     */
+    private void endOutage(State nextState)
+    {
+        if (this.isReconnecting())
+        {
+            long outageNanos = System.nanoTime() - this.outageStartNanos;
+            this.totalOutageNanos += outageNanos;
+            if (nextState == State.CONNECTED)
+            {
+                this.lastOutageNanos = outageNanos;
+            }
+        }
+        this.state = nextState;
+    }
+}
@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+/**
+ * Tracks the state of the subscription to one topic of a connection, so the
+ * topic is subscribed once instead of on every message that needs it.
+ *
+ * A subscription is requested the first time it is subscribed, and stays
+ * requested for the life of the connection. It then goes through the
+ * following states:
+ * <ul>
+ *     <li>UNSUBSCRIBED, until a SUBSCRIBE is sent for it;</li>
+ *     <li>SUBSCRIBING, until the SUBACK comes back, without anyone waiting for it;</li>
+ *     <li>SUBSCRIBED, once the SUBACK came back.</li>
+ * </ul>
+ * If the SUBSCRIBE fails, for example because the connection is lost before
+ * the SUBACK, the subscription goes back to UNSUBSCRIBED, so it is subscribed
+ * again once the connection is restored.
+ */
+final class MqttSubscription
+{
+    private enum State
+    {
+        UNSUBSCRIBED,
+        SUBSCRIBING,
+        SUBSCRIBED
+    }
+
+    private final String topic;
+    private State state = State.UNSUBSCRIBED;
+    private boolean isRequested = false;
+
+    /**
+     * Constructor.
+     *
+     * @param topic the topic filter to subscribe to.
+     * @throws IllegalArgumentException if the topic is {@code null} or empty.
+     */
+    MqttSubscription(String topic)
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_001: [If the topic is null or empty, the constructor shall throw IllegalArgumentException.]
+        if (topic == null || topic.isEmpty())
+        {
+            throw new IllegalArgumentException("topic cannot be null or empty");
+        }
+
+        // Codes_SRS_MQTTSUBSCRIPTION_45_002: [The constructor shall save the topic, and start UNSUBSCRIBED and not requested.]
+        this.topic = topic;
+    }
+
+    /**
+     * Getter for the topic filter of the subscription.
+     *
+     * @return the topic filter.
+     */
+    String getTopic()
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_003: [The function shall return the topic of the subscription.]
+        return this.topic;
+    }
+
+    /**
+     * Marks the subscription as requested and, if no SUBSCRIBE is in flight
+     * or done for it, as SUBSCRIBING.
+     *
+     * @return {@code true} if a SUBSCRIBE must be sent for the subscription, and {@code false} otherwise.
+     */
+    synchronized boolean beginSubscribe()
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_004: [The function shall mark the subscription as requested.]
+        this.isRequested = true;
+
+        // Codes_SRS_MQTTSUBSCRIPTION_45_005: [If the subscription is UNSUBSCRIBED, the function shall move to SUBSCRIBING and return true, and return false otherwise.]
+        if (this.state != State.UNSUBSCRIBED)
+        {
+            return false;
+        }
+
+        this.state = State.SUBSCRIBING;
+        return true;
+    }
+
+    /**
+     * Notified once the SUBSCRIBE of the subscription completes.
+     *
+     * @param isSubscribed {@code true} if the IoT Hub granted the subscription, and {@code false} otherwise.
+     */
+    synchronized void completeSubscribe(boolean isSubscribed)
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_006: [If the subscription is SUBSCRIBING, the function shall move to SUBSCRIBED if the subscription was granted, and back to UNSUBSCRIBED otherwise.]
+        if (this.state == State.SUBSCRIBING)
+        {
+            this.state = isSubscribed ? State.SUBSCRIBED : State.UNSUBSCRIBED;
+        }
+    }
+
+    /**
+     * Checks if the subscription was ever requested.
+     *
+     * @return {@code true} if the subscription was requested, and {@code false} otherwise.
+     */
+    synchronized boolean isRequested()
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_007: [The function shall return true if the subscription was requested, and false otherwise.]
+        return this.isRequested;
+    }
+
+    /**
+     * Checks if the IoT Hub granted the subscription.
+     *
+     * @return {@code true} if the subscription is SUBSCRIBED, and {@code false} otherwise.
+     */
+    synchronized boolean isSubscribed()
+    {
+        // Codes_SRS_MQTTSUBSCRIPTION_45_008: [The function shall return true if the subscription is SUBSCRIBED, and false otherwise.]
+        return this.state == State.SUBSCRIBED;
+    }
+}
@@ -0,0 +1,177 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+
+/**
+ * Builds the publish topic of the telemetry messages of one connection. The
+ * topic prefix and the keys of the system properties are computed once, and
+ * the property segment is written in a builder reused from one message to the
+ * next, so encoding a message only allocates the resulting topic.
+ *
+ * The names and values of the properties are percent-encoded as UTF-8, as
+ * described in RFC 3986: every character but the unreserved ones
+ * ({@code A-Z a-z 0-9 - . _ ~}) is escaped, so the separators {@code &} and
+ * {@code =} in a property cannot break the topic apart.
+ */
+final class MqttTopicEncoder
+{
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int INITIAL_CAPACITY = 256;
+
+    /* the UTF-8 encoding of a lone surrogate, as String.getBytes writes it */
+    private static final int REPLACEMENT_BYTE = '?';
+
+    private static final String MESSAGE_ID_KEY = Mqtt.MESSAGE_ID + Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR;
+    private static final String CORRELATION_ID_KEY = Mqtt.CORRELATION_ID + Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR;
+    private static final String USER_ID_KEY = Mqtt.USER_ID + Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR;
+    private static final String TO_KEY = Mqtt.TO + Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR;
+
+    private final String topicPrefix;
+    private final StringBuilder topicBuilder;
+
+    /**
+     * Constructor.
+     *
+     * @param topicPrefix the topic every message is published on, before its properties.
+     * @throws IllegalArgumentException if the topic prefix is {@code null} or empty.
+     */
+    MqttTopicEncoder(String topicPrefix)
+    {
+        // Codes_SRS_MQTTTOPICENCODER_45_001: [If the topic prefix is null or empty, the constructor shall throw IllegalArgumentException.]
+        if (topicPrefix == null || topicPrefix.isEmpty())
+        {
+            throw new IllegalArgumentException("topic prefix cannot be null or empty");
+        }
+
+        // Codes_SRS_MQTTTOPICENCODER_45_002: [The constructor shall save the topic prefix and create the builder reused by every message.]
+        this.topicPrefix = topicPrefix;
+        this.topicBuilder = new StringBuilder(Math.max(INITIAL_CAPACITY, 2 * topicPrefix.length()));
+    }
+
+    /**
+     * Builds the publish topic of a message: the topic prefix followed by the
+     * system properties and the user properties of the message.
+     *
+     * @param message the message to publish.
+     * @return the publish topic of the message.
+     */
+    synchronized String encode(Message message)
+    {
+        StringBuilder builder = this.topicBuilder;
+        // Codes_SRS_MQTTTOPICENCODER_45_003: [The function shall start the topic with the topic prefix, reusing the builder of the previous message.]
+        builder.setLength(0);
+        builder.append(this.topicPrefix);
+        int propertiesStart = builder.length();
+
+        // Codes_SRS_MQTTTOPICENCODER_45_006: [The function shall separate the properties with `&`, and each key from its value with `=`.]
+        // Codes_SRS_MQTTTOPICENCODER_45_004: [The function shall append the message id, correlation id, user id and to of the message that are not null, with the keys `$.mid`, `$.cid`, `$.uid` and `$.to`, in this order.]
+        appendSystemProperty(builder, propertiesStart, MESSAGE_ID_KEY, message.getMessageId());
+        appendSystemProperty(builder, propertiesStart, CORRELATION_ID_KEY, message.getCorrelationId());
+        appendSystemProperty(builder, propertiesStart, USER_ID_KEY, message.getUserId());
+        appendSystemProperty(builder, propertiesStart, TO_KEY, message.getTo());
+
+        // Codes_SRS_MQTTTOPICENCODER_45_005: [The function shall append the name and value of each user property of the message.]
+        for (MessageProperty property : message.getProperties())
+        {
+            appendSeparator(builder, propertiesStart);
+            appendEncoded(builder, property.getName());
+            builder.append(Mqtt.MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
+            appendEncoded(builder, property.getValue());
+        }
+
+        return builder.toString();
+    }
+
+    private static void appendSystemProperty(StringBuilder builder, int propertiesStart, String key, String value)
+    {
+        if (value != null)
+        {
+            appendSeparator(builder, propertiesStart);
+            builder.append(key);
+            appendEncoded(builder, value);
+        }
+    }
+
+    private static void appendSeparator(StringBuilder builder, int propertiesStart)
+    {
+        if (builder.length() > propertiesStart)
+        {
+            builder.append(Mqtt.MESSAGE_PROPERTY_SEPARATOR);
+        }
+    }
+
+    /**
+     * Appends a percent-encoded name or value.
+     *
+     * @param builder the builder to append to.
+     * @param value the name or value to encode.
+     */
+    private static void appendEncoded(StringBuilder builder, String value)
+    {
+        int length = value.length();
+        int index = 0;
+
+        // Codes_SRS_MQTTTOPICENCODER_45_007: [The function shall append the unreserved characters `A-Z a-z 0-9 - . _ ~` unchanged, without copying a value that has no other character.]
+        while (index < length && isUnreserved(value.charAt(index)))
+        {
+            index++;
+        }
+        builder.append(value, 0, index);
+
+        // Codes_SRS_MQTTTOPICENCODER_45_008: [The function shall append every other character as the percent-encoded bytes of its UTF-8 encoding, and a lone surrogate as the percent-encoded `?`.]
+        while (index < length)
+        {
+            char c = value.charAt(index++);
+            if (isUnreserved(c))
+            {
+                builder.append(c);
+            }
+            else if (c < 0x80)
+            {
+                appendEscapedByte(builder, c);
+            }
+            else if (c < 0x800)
+            {
+                appendEscapedByte(builder, 0xC0 | (c >> 6));
+                appendEscapedByte(builder, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && index < length && Character.isLowSurrogate(value.charAt(index)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(index++));
+                appendEscapedByte(builder, 0xF0 | (codePoint >> 18));
+                appendEscapedByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscapedByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscapedByte(builder, 0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                appendEscapedByte(builder, REPLACEMENT_BYTE);
+            }
+            else
+            {
+                appendEscapedByte(builder, 0xE0 | (c >> 12));
+                appendEscapedByte(builder, 0x80 | ((c >> 6) & 0x3F));
+                appendEscapedByte(builder, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char c)
+    {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static void appendEscapedByte(StringBuilder builder, int b)
+    {
+        builder.append('%');
+        builder.append(HEX_DIGITS[(b >> 4) & 0xF]);
+        builder.append(HEX_DIGITS[b & 0xF]);
+    }
+}
@@ -4,15 +4,26 @@
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.State;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
@@ -36,16 +47,24 @@ public final class MqttTransport implements IotHubTransport
     private State state;
 
     /** The MQTT connection.*/
-    private MqttIotHubConnection mqttIotHubConnection;
+    private MqttTransportConnection mqttIotHubConnection;
 
     /** Messages waiting to be sent. */
-    private final Queue<IotHubOutboundPacket> waitingList;
+    private final IotHubOutboundQueue waitingList;
+
+    /** Messages sent and waiting for the IoT Hub to acknowledge them. */
+    private final Set<MqttDeliveryListener> inFlightList =
+            Collections.newSetFromMap(new ConcurrentHashMap<MqttDeliveryListener, Boolean>());
 
     /** Messages whose callbacks that are waiting to be invoked. */
     private final Queue<IotHubCallbackPacket> callbackList;
+    private final IotHubCallbackDispatcher callbackDispatcher = new IotHubCallbackDispatcher();
 
     private final DeviceClientConfig config;
 
+    /** Task signalled when there is work for the send path, if any. */
+    private volatile IotHubSignalledTask sendSignal;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -56,7 +75,7 @@ public final class MqttTransport implements IotHubTransport
     {
         // Codes_SRS_MQTTTRANSPORT_15_001: [The constructor shall initialize an empty transport queue
         // for adding messages to be sent as a batch.]
-        this.waitingList = new LinkedBlockingQueue<>();
+        this.waitingList = new IotHubOutboundQueue(config);
         // Codes_SRS_MQTTTRANSPORT_15_002: [The constructor shall initialize an empty queue
         // for completed messages whose callbacks are waiting to be invoked.]
         this.callbackList = new LinkedBlockingQueue<>();
@@ -65,6 +84,25 @@ public final class MqttTransport implements IotHubTransport
         this.mqttIotHubConnection = new MqttIotHubConnection(this.config);
     }
 
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object, whose connection runs on the selector threads of an NIO engine
+     * instead of an MQTT client of its own.
+     *
+     * @param config configuration parameters for the connection.
+     * @param engine the NIO engine the connection runs on, or {@code null}
+     * for the engine shared by the whole process.
+     */
+    public MqttTransport(DeviceClientConfig config, MqttNioEngine engine)
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_027: [The constructor shall initialize the transport queue and the callback queue, and create an MQTT NIO connection on the provided engine, or on the shared engine if it is null.]
+        this.waitingList = new IotHubOutboundQueue(config);
+        this.callbackList = new LinkedBlockingQueue<>();
+        this.config = config;
+        this.state = State.CLOSED;
+        this.mqttIotHubConnection = new MqttNioIotHubConnection(this.config, engine);
+    }
+
     /**
      * Establishes a communication channel with an IoT Hub. If a channel is
      * already open, the function shall do nothing.
@@ -118,6 +156,12 @@ public final class MqttTransport implements IotHubTransport
                 IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, packet.getCallback(), packet.getContext());
                 this.callbackList.add(callbackPacket);
             }
+
+            // Codes_SRS_MQTTTRANSPORT_45_019: [The method will complete the messages still waiting for their acknowledgement with status MESSAGE_CANCELLED_ONCLOSE.]
+            for (MqttDeliveryListener deliveryListener : this.inFlightList)
+            {
+                deliveryListener.complete(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+            }
         }
 
         // Codes_SRS_MQTTTRANSPORT_99_021: [The method will invoke the callback list]
@@ -152,7 +196,47 @@ public final class MqttTransport implements IotHubTransport
         IotHubOutboundPacket packet = new IotHubOutboundPacket(message, callback, callbackContext);
 
         //Codes_SRS_MQTTTRANSPORT_34_028: [This function shall not block and wait on the read lock.]
-        this.waitingList.add(packet);
+        //Codes_SRS_MQTTTRANSPORT_45_005: [If the outbound queue rejects the packet, this function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+        if (!this.waitingList.enqueue(packet))
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, callback, callbackContext));
+        }
+        this.cancelDroppedMessages();
+
+        //Codes_SRS_MQTTTRANSPORT_45_001: [If a send signal is registered, this function shall signal it after adding the packet.]
+        this.signalSend();
+    }
+
+    /**
+     * Adds a batch of packets to the transport queue as one unit.
+     * The batch is published back to back on the next send.
+     *
+     * @param packets the packets to be sent, each with its own callback and
+     * callback context.
+     *
+     * @throws IllegalStateException if the transport is closed.
+     */
+    public void addMessages(List<IotHubOutboundPacket> packets) throws IllegalStateException
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_007: [If the transport is closed, this function shall throw an IllegalStateException.]
+        if (this.state == State.CLOSED)
+        {
+            throw new IllegalStateException("Cannot add messages to an MQTT transport that is closed.");
+        }
+
+        //Codes_SRS_MQTTTRANSPORT_45_008: [This function shall add the packets to the transport queue as one unit.]
+        if (!this.waitingList.enqueueAll(packets))
+        {
+            //Codes_SRS_MQTTTRANSPORT_45_009: [If the outbound queue rejects the batch, this function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
+            for (IotHubOutboundPacket packet : packets)
+            {
+                this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, packet.getCallback(), packet.getContext()));
+            }
+        }
+        this.cancelDroppedMessages();
+
+        //Codes_SRS_MQTTTRANSPORT_45_010: [If a send signal is registered, this function shall signal it once after adding the packets.]
+        this.signalSend();
     }
 
     /**
@@ -178,9 +262,15 @@ public final class MqttTransport implements IotHubTransport
 
     /**
      * <p>
-     * Sends all messages on the transport queue, one at a time. If a previous
+     * Sends all messages on the transport queue, one at a time, without
+     * waiting for the IoT Hub to acknowledge each of them. The callback of a
+     * message is completed once its acknowledgement arrives. While too many
+     * messages are waiting for theirs, the function leaves the next messages
+     * queued and returns without parking, and the acknowledgement that frees
+     * a slot signals the send task again. If a previous
      * send attempt had failed, the function will attempt to resend the messages
-     * in the previous attempt.
+     * in the previous attempt. While the connection is lost and being restored,
+     * the messages are kept in the queue, and sent once it is restored.
      * </p>
      * If one has not already been created, the function will initialize an
      * MQTT connection with the IoT Hub specified in the configuration.
@@ -196,42 +286,116 @@ public final class MqttTransport implements IotHubTransport
             throw new IllegalStateException("MQTT transport is closed.");
         }
 
-        //Codes_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
-        synchronized (this.readLock)
+        // Codes_SRS_MQTTTRANSPORT_15_009: [The function shall attempt to send every message
+        // on its waiting list, one at a time.]
+        // Codes_SRS_MQTTTRANSPORT_45_022: [While the MQTT connection is being restored, the function shall
+        // leave the messages in the waiting list, to be sent once the connection is restored.]
+        while (!this.waitingList.isEmpty() && !this.mqttIotHubConnection.isReconnecting())
         {
-            // Codes_SRS_MQTTTRANSPORT_15_009: [The function shall attempt to send every message
-            // on its waiting list, one at a time.]
-            while (!this.waitingList.isEmpty())
+            // Codes_SRS_MQTTTRANSPORT_45_030: [Before taking the read lock for a message, the function shall try to take
+            // a slot of the in flight window of the connection, and shall leave the messages in the waiting list and
+            // return without waiting if the window is full or the connection cannot carry them.]
+            // the pass may run on a thread shared with other clients, so it never parks on a full window: the
+            // delivery that frees a slot signals the send task again.
+            try
             {
-                IotHubOutboundPacket packet = this.waitingList.remove();
-                if (packet.getMessage().isExpired())
+                if (!this.mqttIotHubConnection.tryAcquireInFlightSlot())
                 {
-                    //Codes_SRS_MQTTTRANSPORT_34_027: [If the packet to be sent contains a message that has expired, the message shall not be sent, but shall be added to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
-                    IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
-                    this.callbackList.add(callbackPacket);
+                    return;
                 }
-                else
-                {
-                    try
-                    {
-                        IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage());
+            }
+            catch (IOException e)
+            {
+                return;
+            }
 
-                        // Codes_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall add
-                        // the IoT Hub status code along with the callback and context to the callback list.]
-                        IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(status, packet.getCallback(), packet.getContext());
-                        this.callbackList.add(callbackPacket);
-                    }
-                    catch (IllegalStateException e)
+            boolean isSlotHandedOver = false;
+            try
+            {
+                //Codes_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
+                synchronized (this.readLock)
+                {
+                    IotHubOutboundPacket packet = this.waitingList.poll();
+                    if (this.state == State.CLOSED || packet == null)
                     {
-                        // Codes_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, the message
-                        // shall be buffered to be sent again next time.]
-                        this.waitingList.add(packet);
+                        // the transport was closed, and the waiting list cancelled, while the slot was taken.
+                        return;
                     }
+                    isSlotHandedOver = this.sendPacket(packet);
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                // the message is sent again once the connection is restored.
+                return;
+            }
+            finally
+            {
+                if (!isSlotHandedOver)
+                {
+                    // Codes_SRS_MQTTTRANSPORT_45_031: [If a message is not handed over to the connection, the
+                    // function shall release its slot of the in flight window, also if sending it throws.]
+                    this.mqttIotHubConnection.releaseInFlightSlot();
                 }
             }
         }
     }
 
+    /**
+     * Sends one packet of the waiting list. Must be called holding the read lock.
+     *
+     * @param packet the packet to send.
+     * @return {@code true} if the message was handed over to the connection
+     * along with the slot of the in flight window taken for it, and
+     * {@code false} if the slot is still owned by the caller.
+     * @throws IllegalStateException if the connection cannot send the message
+     * yet, after putting the packet back at the head of the waiting list.
+     */
+    private boolean sendPacket(IotHubOutboundPacket packet)
+    {
+        if (packet.getMessage().isExpired())
+        {
+            //Codes_SRS_MQTTTRANSPORT_34_027: [If the packet to be sent contains a message that has expired, the message shall not be sent, but shall be added to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+            IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
+            this.callbackList.add(callbackPacket);
+            return false;
+        }
+
+        // Codes_SRS_MQTTTRANSPORT_45_016: [The function shall send each message with a delivery listener
+        // and keep it in the in flight list until the listener is notified.]
+        // the listener may be notified before sendEvent returns, so it is tracked first.
+        MqttDeliveryListener deliveryListener = new MqttDeliveryListener(packet);
+        this.inFlightList.add(deliveryListener);
+        try
+        {
+            IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage(), deliveryListener);
+
+            if (status != IotHubStatusCode.OK_EMPTY)
+            {
+                // Codes_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall add
+                // the IoT Hub status code along with the callback and context to the callback list.]
+                // Codes_SRS_MQTTTRANSPORT_45_017: [If the message is not sent, the function shall add the status code
+                // along with the callback and context to the callback list right away.]
+                this.inFlightList.remove(deliveryListener);
+                IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(status, packet.getCallback(), packet.getContext());
+                this.callbackList.add(callbackPacket);
+                return false;
+            }
+            return true;
+        }
+        catch (IllegalStateException e)
+        {
+            // Codes_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, the message
+            // shall be buffered to be sent again next time.]
+            // Codes_SRS_MQTTTRANSPORT_45_032: [If the connection cannot send the message yet, the function shall
+            // put the message back at the head of the waiting list, so it keeps its place before the messages
+            // queued after it, and end the pass.]
+            this.inFlightList.remove(deliveryListener);
+            this.waitingList.offerFirst(packet);
+            throw e;
+        }
+    }
+
     /**
      * Invokes the callbacks for all completed requests.
      *
@@ -249,10 +413,49 @@ public final class MqttTransport implements IotHubTransport
 
                 // Codes_SRS_MQTTTRANSPORT_15_015: [If an exception is thrown during the callback,
                 // the function shall drop the callback from the queue.]
-                IotHubStatusCode status = packet.getStatus();
-                IotHubEventCallback callback = packet.getCallback();
-                Object context = packet.getContext();
-                callback.execute(status, context);
+                // Codes_SRS_MQTTTRANSPORT_45_011: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any, instead of under the read lock.]
+                this.callbackDispatcher.dispatch(packet);
+            }
+        }
+    }
+
+    /**
+     * Removes the messages that expired while waiting to be sent, wherever
+     * they are in the waiting list, and adds their callbacks to the callback
+     * list with status MESSAGE_EXPIRED. Also fails the device twin requests
+     * that waited for their response past their deadline, by handing a
+     * response with status MESSAGE_EXPIRED to the device twin.
+     */
+    public void removeExpiredMessages()
+    {
+        // Codes_SRS_MQTTTRANSPORT_45_014: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+        List<IotHubOutboundPacket> expiredPackets = this.waitingList.removeExpired(System.currentTimeMillis());
+        for (IotHubOutboundPacket packet : expiredPackets)
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext()));
+        }
+
+        if (!expiredPackets.isEmpty())
+        {
+            // Codes_SRS_MQTTTRANSPORT_45_015: [If any message expired, the function shall signal the registered send task, if any.]
+            signalSend();
+        }
+
+        // Codes_SRS_MQTTTRANSPORT_45_025: [The function shall remove the device twin requests that timed out from the MQTT connection and, if a device twin message callback is registered, invoke it on the response of each.]
+        List<IotHubTransportMessage> timeoutResponses = this.mqttIotHubConnection.removeExpiredTwinRequests(System.currentTimeMillis());
+        if (!timeoutResponses.isEmpty())
+        {
+            synchronized (handleMessageLock)
+            {
+                MessageCallback deviceTwinMessageCallback = this.config.getDeviceTwinMessageCallback();
+                Object deviceTwinContext = this.config.getDeviceTwinMessageContext();
+                if (deviceTwinMessageCallback != null)
+                {
+                    for (IotHubTransportMessage timeoutResponse : timeoutResponses)
+                    {
+                        deviceTwinMessageCallback.execute(timeoutResponse, deviceTwinContext);
+                    }
+                }
             }
         }
     }
@@ -338,7 +541,8 @@ public final class MqttTransport implements IotHubTransport
         {
             // Codes_SRS_MQTTTRANSPORT_15_019: [The function shall return true if the waiting list
             // and callback list are all empty, and false otherwise.]
-            return this.waitingList.isEmpty() && this.callbackList.isEmpty();
+            // Codes_SRS_MQTTTRANSPORT_45_020: [The function shall return false while messages are waiting for their acknowledgement.]
+            return this.waitingList.isEmpty() && this.inFlightList.isEmpty() && this.callbackList.isEmpty();
         }
     }
 
@@ -355,4 +559,189 @@ public final class MqttTransport implements IotHubTransport
         //Codes_SRS_MQTTTRANSPORT_34_025: [This function shall register the provided connection state callback and context with the saved mqtt iot hub connection.]
         this.mqttIotHubConnection.registerConnectionStateCallback(callback, callbackContext);
     }
-}
\ No newline at end of file
+
+    /**
+     * Registers a task to be signalled whenever a message is queued to be sent.
+     *
+     * @param sendSignal the task to signal. Can be {@code null} to stop signalling.
+     */
+    public void registerSendSignal(IotHubSignalledTask sendSignal)
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_002: [This function shall save the provided send signal.]
+        this.sendSignal = sendSignal;
+
+        //Codes_SRS_MQTTTRANSPORT_45_023: [This function shall register the provided send signal with the saved mqtt iot hub connection, to be signalled once a lost connection is restored.]
+        this.mqttIotHubConnection.registerSendSignal(sendSignal);
+    }
+
+    /**
+     * Registers a task to be signalled whenever a message is received from the IoT Hub.
+     *
+     * @param receiveSignal the task to signal. Can be {@code null} to stop signalling.
+     */
+    public void registerReceiveSignal(IotHubSignalledTask receiveSignal)
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_003: [This function shall register the provided receive signal with the saved mqtt iot hub connection.]
+        this.mqttIotHubConnection.registerReceiveSignal(receiveSignal);
+    }
+
+    /**
+     * Returns the number of messages received from the IoT Hub and not yet handled.
+     *
+     * @return the number of received messages waiting to be handled.
+     */
+    public int getReceivedMessageCount()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_004: [This function shall return the received message count of the saved mqtt iot hub connection.]
+        return this.mqttIotHubConnection.getReceivedMessageCount();
+    }
+
+    /**
+     * Returns a snapshot of the queue of messages waiting to be sent.
+     *
+     * @return the outbound queue statistics.
+     */
+    public OutboundQueueStatistics getOutboundQueueStatistics()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_006: [This function shall return the statistics of the outbound queue.]
+        return this.waitingList.getStatistics();
+    }
+
+    /**
+     * Registers the executor that runs the callbacks of completed requests,
+     * so they are not invoked under the transport locks. Can be {@code null}
+     * to invoke them on the thread that calls {@link #invokeCallbacks()}.
+     *
+     * @param callbackExecutor the executor that runs the callbacks.
+     */
+    public void registerCallbackExecutor(Executor callbackExecutor)
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_012: [This function shall hand the provided executor to the callback dispatcher.]
+        this.callbackDispatcher.setExecutor(callbackExecutor);
+    }
+
+    /**
+     * Returns a snapshot of the callbacks waiting to be invoked, with the lag
+     * between the completion of a request and the invocation of its callback.
+     *
+     * @return the callback queue statistics.
+     */
+    public CallbackQueueStatistics getCallbackQueueStatistics()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_013: [This function shall return the statistics of the callback dispatcher.]
+        return this.callbackDispatcher.getStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the window of messages published and waiting for
+     * their PUBACK, with the measured round trip.
+     *
+     * @return the in flight window statistics, or {@code null} if the transport was never opened.
+     */
+    public InFlightWindowStatistics getInFlightWindowStatistics()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_021: [This function shall return the in flight window statistics of the MQTT connection.]
+        return this.mqttIotHubConnection.getInFlightWindowStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the outages of the MQTT connection and of the
+     * attempts to restore it.
+     *
+     * @return the reconnect statistics, or {@code null} if the transport was never opened.
+     */
+    public ReconnectStatistics getReconnectStatistics()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_024: [This function shall return the reconnect statistics of the MQTT connection.]
+        return this.mqttIotHubConnection.getReconnectStatistics();
+    }
+
+    /**
+     * MQTT has no send credit; the in flight window limits the messages sent
+     * instead.
+     *
+     * @return {@code null}.
+     */
+    public SendCreditStatistics getSendCreditStatistics()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_028: [This function shall return null.]
+        return null;
+    }
+
+    /**
+     * Returns the number of device twin requests sent on the MQTT connection
+     * and waiting for their response.
+     *
+     * @return the number of pending device twin requests.
+     */
+    public int getPendingTwinRequestCount()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_026: [This function shall return the number of device twin requests of the MQTT connection waiting for their response.]
+        return this.mqttIotHubConnection.getPendingTwinRequestCount();
+    }
+
+    /**
+     * Completes the messages dropped by the outbound queue full policy with
+     * status MESSAGE_CANCELLED_QUEUE_FULL. Called once the queue released its
+     * lock, so the callbacks never run under it.
+     */
+    private void cancelDroppedMessages()
+    {
+        //Codes_SRS_MQTTTRANSPORT_45_029: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+        for (IotHubOutboundPacket packet : this.waitingList.removeDropped())
+        {
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, packet.getCallback(), packet.getContext()));
+        }
+    }
+
+    private void signalSend()
+    {
+        IotHubSignalledTask signal = this.sendSignal;
+        if (signal != null)
+        {
+            signal.signal();
+        }
+    }
+
+    /**
+     * Completes the callback of a sent message with the outcome of its
+     * delivery. Notified on the thread of the MQTT client, so it only queues
+     * the callback and signals the send path.
+     */
+    private final class MqttDeliveryListener implements IMqttActionListener
+    {
+        private final IotHubOutboundPacket packet;
+        private final AtomicBoolean isCompleted = new AtomicBoolean(false);
+
+        private MqttDeliveryListener(IotHubOutboundPacket packet)
+        {
+            this.packet = packet;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            // Codes_SRS_MQTTTRANSPORT_45_018: [Once the delivery of a message completes, the function shall remove it from the in flight list,
+            // add the status code OK_EMPTY, or ERROR if the delivery failed, along with the callback and context to the callback list, and signal the registered send task, if any.]
+            this.complete(IotHubStatusCode.OK_EMPTY);
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            this.complete(IotHubStatusCode.ERROR);
+        }
+
+        private void complete(IotHubStatusCode status)
+        {
+            // the close may cancel the message while its acknowledgement arrives.
+            if (this.isCompleted.compareAndSet(false, true))
+            {
+                // the callback is queued first, so the transport is never seen empty in between.
+                callbackList.add(new IotHubCallbackPacket(status, this.packet.getCallback(), this.packet.getContext()));
+                inFlightList.remove(this);
+                signalSend();
+            }
+        }
+    }
+}
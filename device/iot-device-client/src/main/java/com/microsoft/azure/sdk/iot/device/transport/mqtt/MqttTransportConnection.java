@@ -0,0 +1,150 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionStateCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.ReconnectStatistics;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The connection of one device to an IoT Hub that the {@link MqttTransport}
+ * sends and receives its messages on. The {@link MqttIotHubConnection} runs
+ * each connection on a Paho client of its own, and the
+ * {@link MqttNioIotHubConnection} multiplexes many connections on the
+ * selector threads of an {@link MqttNioEngine}.
+ */
+interface MqttTransportConnection
+{
+    /**
+     * Establishes the connection. If the connection is already open, does nothing.
+     *
+     * @throws IOException if the connection could not be established.
+     */
+    void open() throws IOException;
+
+    /**
+     * Closes the connection. If the connection is already closed, does nothing.
+     */
+    void close();
+
+    /**
+     * Checks if the connection was lost and is being restored.
+     *
+     * @return {@code true} if the connection is being restored, and {@code false} otherwise.
+     */
+    boolean isReconnecting();
+
+    /**
+     * Takes a slot of the in flight window for the next message to send, if
+     * one is free. Never parks: the send pass runs on a thread that may be
+     * shared with other clients, so a full window ends the pass instead, and
+     * the completion of a publish in flight signals the send task again.
+     *
+     * @return {@code true} if a slot was taken, and {@code false} if all the slots are taken.
+     * @throws IOException if the connection is closed.
+     */
+    boolean tryAcquireInFlightSlot() throws IOException;
+
+    /**
+     * Gives back a slot taken with {@link #tryAcquireInFlightSlot()} for a
+     * message that was not handed over to the connection.
+     */
+    void releaseInFlightSlot();
+
+    /**
+     * Sends an event message without waiting for the IoT Hub to acknowledge
+     * it. If the function returns OK_EMPTY, the delivery listener is notified
+     * exactly once with the outcome of the delivery.
+     * <p>
+     * The caller shall hold a slot of the in flight window for the message,
+     * taken with {@link #tryAcquireInFlightSlot()}. If the function returns
+     * OK_EMPTY, the slot is handed over to the connection, which releases it
+     * once the delivery completes; otherwise the caller keeps it and shall
+     * release it.
+     * </p>
+     *
+     * @param message the event message.
+     * @param deliveryListener the listener to notify with the outcome of the delivery. Can be {@code null}.
+     * @return OK_EMPTY if the message is sent, or the status code of the failure.
+     * @throws IllegalStateException if the connection is closed or cannot send the message yet.
+     */
+    IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener) throws IllegalStateException;
+
+    /**
+     * Receives a message, if one exists.
+     *
+     * @return the message received, or {@code null} if none exists.
+     * @throws IllegalStateException if the connection is closed.
+     * @throws IOException if the message cannot be received.
+     */
+    Message receiveMessage() throws IllegalStateException, IOException;
+
+    /**
+     * Removes the device twin requests that waited for their response past
+     * their deadline.
+     *
+     * @param currentTimeMillis the current time, in milliseconds since the epoch.
+     * @return the responses made up for the requests that timed out. Never {@code null}.
+     */
+    List<IotHubTransportMessage> removeExpiredTwinRequests(long currentTimeMillis);
+
+    /**
+     * Saves the callback to fire whenever the connection is lost or established.
+     *
+     * @param callback the callback to fire.
+     * @param callbackContext the context to include.
+     * @throws IllegalArgumentException if the callback is {@code null}.
+     */
+    void registerConnectionStateCallback(IotHubConnectionStateCallback callback, Object callbackContext);
+
+    /**
+     * Saves the task to signal once a lost connection is restored. Can be {@code null} to stop signalling.
+     *
+     * @param sendSignal the task to signal.
+     */
+    void registerSendSignal(IotHubSignalledTask sendSignal);
+
+    /**
+     * Saves the task to signal whenever a message is received. Can be {@code null} to stop signalling.
+     *
+     * @param receiveSignal the task to signal.
+     */
+    void registerReceiveSignal(IotHubSignalledTask receiveSignal);
+
+    /**
+     * Getter for the number of received messages that were not consumed yet.
+     *
+     * @return the number of received messages, or 0 if the connection is closed.
+     */
+    int getReceivedMessageCount();
+
+    /**
+     * Getter for the gauges of the in flight window of the connection.
+     *
+     * @return a snapshot of the in flight window, or {@code null} if the connection was never opened.
+     */
+    InFlightWindowStatistics getInFlightWindowStatistics();
+
+    /**
+     * Getter for the gauges of the reconnections of the connection.
+     *
+     * @return a snapshot of the outages of the connection, or {@code null} if the connection was never opened.
+     */
+    ReconnectStatistics getReconnectStatistics();
+
+    /**
+     * Getter for the number of device twin requests waiting for their response.
+     *
+     * @return the number of pending device twin requests, or 0 if the connection is not open.
+     */
+    int getPendingTwinRequestCount();
+}
@@ -0,0 +1,29 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.CallbackQueueStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for CallbackQueueStatistics. */
+public class CallbackQueueStatisticsTest
+{
+    // Tests_SRS_CALLBACKQUEUESTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_CALLBACKQUEUESTATISTICS_45_002: [The function shall return the saved pending callback count.]
+    // Tests_SRS_CALLBACKQUEUESTATISTICS_45_003: [The function shall return the saved invoked callback count.]
+    // Tests_SRS_CALLBACKQUEUESTATISTICS_45_004: [The function shall return the saved average lag.]
+    // Tests_SRS_CALLBACKQUEUESTATISTICS_45_005: [The function shall return the saved maximum lag.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        CallbackQueueStatistics statistics = new CallbackQueueStatistics(4, 120L, 15L, 300L);
+
+        assertEquals(4, statistics.getPendingCallbackCount());
+        assertEquals(120L, statistics.getInvokedCallbackCount());
+        assertEquals(15L, statistics.getAverageLagMillis());
+        assertEquals(300L, statistics.getMaxLagMillis());
+    }
+}
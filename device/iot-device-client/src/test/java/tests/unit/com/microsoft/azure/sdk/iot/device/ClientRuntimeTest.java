@@ -0,0 +1,287 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for ClientRuntime. */
+public class ClientRuntimeTest
+{
+    private static final String THREAD_NAME_PREFIX = "azure-iot-sdk-runtime-";
+
+    private static int countRuntimeThreads()
+    {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.getName().startsWith(THREAD_NAME_PREFIX))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Object> openClients(int clientCount, DeviceClientConfig config)
+    {
+        List<Object> clients = new ArrayList<>(clientCount);
+        for (int i = 0; i < clientCount; i++)
+        {
+            Object deviceIO = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.DeviceIO",
+                    new Class[] {DeviceClientConfig.class, IotHubClientProtocol.class, long.class, long.class},
+                    config, IotHubClientProtocol.MQTT, 1000L, 1000L);
+            Deencapsulation.invoke(deviceIO, "open");
+            clients.add(deviceIO);
+        }
+        return clients;
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_001: [If any of the thread counts is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroSchedulerThreads()
+    {
+        new ClientRuntime(0, 1);
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_001: [If any of the thread counts is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroBlockingThreads()
+    {
+        new ClientRuntime(1, 0);
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_002: [The constructor shall create a scheduler with the provided number of daemon threads, which drops the cancelled tasks right away.]
+    // Tests_SRS_CLIENTRUNTIME_45_005: [The function shall return the scheduler of the runtime.]
+    // Tests_SRS_CLIENTRUNTIME_45_009: [The function shall shut down the scheduler, the blocking executor and the expiry executor.]
+    @Test
+    public void schedulerRunsTasksOnDaemonThreads() throws Exception
+    {
+        ClientRuntime runtime = new ClientRuntime(2, 1);
+        try
+        {
+            Future<Thread> thread = runtime.getScheduler().schedule(new Callable<Thread>()
+            {
+                @Override
+                public Thread call()
+                {
+                    return Thread.currentThread();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+
+            assertTrue(thread.get(10, TimeUnit.SECONDS).isDaemon());
+            assertTrue(thread.get().getName().startsWith(THREAD_NAME_PREFIX));
+            assertEquals(2, ((ScheduledThreadPoolExecutor) runtime.getScheduler()).getCorePoolSize());
+            assertTrue(((ScheduledThreadPoolExecutor) runtime.getScheduler()).getRemoveOnCancelPolicy());
+        }
+        finally
+        {
+            runtime.close();
+        }
+
+        assertTrue(runtime.getScheduler().isShutdown());
+        assertTrue(runtime.getBlockingExecutor().isShutdown());
+        assertTrue(((ExecutorService) Deencapsulation.getField(runtime, "expiryExecutor")).isShutdown());
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_003: [The constructor shall create a blocking executor with at most the provided number of daemon threads, which stop when they are idle.]
+    // Tests_SRS_CLIENTRUNTIME_45_006: [The function shall return the blocking executor of the runtime.]
+    @Test
+    public void blockingExecutorRunsTasksOnDaemonThreads() throws Exception
+    {
+        ClientRuntime runtime = new ClientRuntime(1, 3);
+        try
+        {
+            Future<Thread> thread = runtime.getBlockingExecutor().submit(new Callable<Thread>()
+            {
+                @Override
+                public Thread call()
+                {
+                    return Thread.currentThread();
+                }
+            });
+
+            assertTrue(thread.get(10, TimeUnit.SECONDS).isDaemon());
+            assertTrue(thread.get().getName().startsWith(THREAD_NAME_PREFIX));
+        }
+        finally
+        {
+            runtime.close();
+        }
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_007: [The function shall return the sum of the scheduler thread count and the blocking thread count, plus one for the thread of the expiry sweep.]
+    @Test
+    public void getThreadBudgetReturnsSumOfThreadCounts()
+    {
+        ClientRuntime runtime = new ClientRuntime(4, 6);
+        runtime.close();
+
+        assertEquals(11, runtime.getThreadBudget());
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_004: [The function shall create the shared runtime with the default thread counts the first time it is called, and return the same runtime afterwards.]
+    @Test
+    public void getSharedReturnsSameRuntime()
+    {
+        ClientRuntime runtime = ClientRuntime.getShared();
+
+        assertSame(runtime, ClientRuntime.getShared());
+        assertEquals(ClientRuntime.DEFAULT_SCHEDULER_THREAD_COUNT + ClientRuntime.DEFAULT_BLOCKING_THREAD_COUNT + 1, runtime.getThreadBudget());
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_008: [If the runtime is the shared runtime, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void closeThrowsOnSharedRuntime()
+    {
+        ClientRuntime.getShared().close();
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_010: [If the expiry sweep is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addExpirySweepThrowsOnNullSweep()
+    {
+        ClientRuntime runtime = new ClientRuntime(1, 1);
+        try
+        {
+            Deencapsulation.invoke(runtime, "addExpirySweep", new Class[] {Runnable.class}, (Runnable) null);
+        }
+        finally
+        {
+            runtime.close();
+        }
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_011: [The function shall add the expiry sweep to the ones run by the sweep of the runtime.]
+    // Tests_SRS_CLIENTRUNTIME_45_012: [If the sweep of the runtime is not scheduled, the function shall schedule a timer on the scheduler that signals every EXPIRY_SWEEP_PERIOD_MILLIS milliseconds a pass on the expiry executor, which runs all the added expiry sweeps.]
+    // Tests_SRS_CLIENTRUNTIME_45_013: [The function shall remove the expiry sweep from the ones run by the sweep of the runtime.]
+    // Tests_SRS_CLIENTRUNTIME_45_014: [If no expiry sweep is left, the function shall cancel the timer of the sweep of the runtime.]
+    // Tests_SRS_CLIENTRUNTIME_45_015: [The constructor shall create an expiry executor with a single daemon thread, which stops when it is idle.]
+    @Test
+    public void runtimeRunsOneSweepForAllClientsOnlyWhileAnyIsAdded() throws Exception
+    {
+        // arrange
+        final ClientRuntime runtime = new ClientRuntime(1, 1);
+        final CountDownLatch firstSwept = new CountDownLatch(2);
+        final CountDownLatch secondSwept = new CountDownLatch(2);
+        final AtomicReference<Thread> sweepThread = new AtomicReference<>();
+        Runnable firstSweep = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sweepThread.set(Thread.currentThread());
+                firstSwept.countDown();
+            }
+        };
+        Runnable secondSweep = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                secondSwept.countDown();
+            }
+        };
+        ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) runtime.getScheduler();
+
+        try
+        {
+            assertTrue(scheduler.getQueue().isEmpty());
+
+            // act
+            Deencapsulation.invoke(runtime, "addExpirySweep", firstSweep);
+            Deencapsulation.invoke(runtime, "addExpirySweep", secondSweep);
+
+            // assert
+            assertEquals(1, scheduler.getQueue().size());
+            assertTrue(firstSwept.await(10, TimeUnit.SECONDS));
+            assertTrue(secondSwept.await(10, TimeUnit.SECONDS));
+            assertTrue(sweepThread.get().getName().contains("-expiry-"));
+            assertTrue(sweepThread.get().isDaemon());
+
+            Deencapsulation.invoke(runtime, "removeExpirySweep", firstSweep);
+            assertEquals(1, scheduler.getQueue().size());
+            Deencapsulation.invoke(runtime, "removeExpirySweep", secondSweep);
+            assertTrue(scheduler.getQueue().isEmpty());
+        }
+        finally
+        {
+            runtime.close();
+        }
+    }
+
+    // Tests_SRS_CLIENTRUNTIME_45_002: [The constructor shall create a scheduler with the provided number of daemon threads, which drops the cancelled tasks right away.]
+    @Test
+    public void threadCountStaysFlatAsClientsGrow(
+            @Mocked final MqttTransport mockTransport,
+            @Mocked final DeviceClientConfig mockConfig) throws InterruptedException
+    {
+        // arrange
+        final ClientRuntime runtime = new ClientRuntime(2, 1);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = runtime;
+            }
+        };
+
+        try
+        {
+            List<Object> clients = openClients(10, mockConfig);
+            // the thread of the expiry sweep starts with the first sweep.
+            final CountDownLatch swept = new CountDownLatch(1);
+            Runnable sweep = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    swept.countDown();
+                }
+            };
+            Deencapsulation.invoke(runtime, "addExpirySweep", sweep);
+            assertTrue(swept.await(10, TimeUnit.SECONDS));
+            Deencapsulation.invoke(runtime, "removeExpirySweep", sweep);
+            int runtimeThreadsWithFewClients = countRuntimeThreads();
+            int threadsWithFewClients = Thread.activeCount();
+
+            // act
+            clients.addAll(openClients(2000, mockConfig));
+
+            // assert
+            assertTrue(countRuntimeThreads() <= runtimeThreadsWithFewClients);
+            assertTrue(((ScheduledThreadPoolExecutor) runtime.getScheduler()).getPoolSize() <= 2);
+            // other tests may leave threads behind, but nowhere near one per client.
+            assertTrue(Thread.activeCount() < threadsWithFewClients + 100);
+
+            for (Object client : clients)
+            {
+                Deencapsulation.invoke(client, "close");
+            }
+            assertTrue(((ScheduledThreadPoolExecutor) runtime.getScheduler()).getQueue().isEmpty());
+        }
+        finally
+        {
+            runtime.close();
+        }
+    }
+}
@@ -3,10 +3,14 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.device.MessageCallback;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueFullPolicy;
+import com.microsoft.azure.sdk.iot.device.TelemetryDeliveryMode;
 import com.microsoft.azure.sdk.iot.device.auth.*;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderTpm;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderX509;
@@ -661,4 +665,324 @@ public class DeviceClientConfigTest
         //act
         DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, new Class[] {IotHubConnectionString.class, SecurityProvider.class}, mockIotHubConnectionString, mockSecurityProvider);
     }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_001: [The function shall return the saved maximum number of queued messages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_004: [The function shall return the saved maximum number of queued bytes.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_007: [The function shall return the saved outbound queue full policy.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_010: [The function shall return the saved block timeout in milliseconds.]
+    @Test
+    public void outboundQueueLimitsHaveDefaults()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //assert
+        assertEquals(0, config.getOutboundQueueMaxMessages());
+        assertEquals(0L, config.getOutboundQueueMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.REJECT, config.getOutboundQueueFullPolicy());
+        assertEquals(10000L, config.getOutboundQueueBlockTimeoutMillis());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_003: [The function shall save the maximum number of queued messages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_006: [The function shall save the maximum number of queued bytes.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_009: [The function shall save the outbound queue full policy.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_012: [The function shall save the block timeout in milliseconds.]
+    @Test
+    public void outboundQueueSettersSaveValues()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setOutboundQueueMaxMessages(10);
+        config.setOutboundQueueMaxBytes(2048L);
+        config.setOutboundQueueFullPolicy(OutboundQueueFullPolicy.BLOCK);
+        config.setOutboundQueueBlockTimeoutMillis(250L);
+
+        //assert
+        assertEquals(10, config.getOutboundQueueMaxMessages());
+        assertEquals(2048L, config.getOutboundQueueMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.BLOCK, config.getOutboundQueueFullPolicy());
+        assertEquals(250L, config.getOutboundQueueBlockTimeoutMillis());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_002: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxMessagesThrowsOnNegative()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundQueueMaxMessages(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_005: [If the provided value is negative, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueMaxBytesThrowsOnNegative()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundQueueMaxBytes(-1L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_008: [If the provided policy is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueFullPolicyThrowsOnNull()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundQueueFullPolicy(null);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_011: [If the provided timeout is zero or negative, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueueBlockTimeoutMillisThrowsOnZero()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundQueueBlockTimeoutMillis(0L);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_013: [The function shall return the saved journal directory.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_016: [The function shall return the saved maximum journal size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_019: [The function shall return the saved journal full policy.]
+    @Test
+    public void outboundJournalSettingsHaveDefaults()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //assert
+        assertNull(config.getOutboundJournalDirectory());
+        assertEquals(64L * 1024 * 1024, config.getOutboundJournalMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.DROP_OLDEST, config.getOutboundJournalFullPolicy());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_015: [The function shall save the journal directory.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_018: [The function shall save the maximum journal size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_021: [The function shall save the journal full policy.]
+    @Test
+    public void outboundJournalSettersSaveValues()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setOutboundJournalDirectory("journal");
+        config.setOutboundJournalMaxBytes(DeviceClientConfig.MIN_OUTBOUND_JOURNAL_MAX_BYTES);
+        config.setOutboundJournalFullPolicy(OutboundQueueFullPolicy.DROP_NEWEST);
+
+        //assert
+        assertEquals("journal", config.getOutboundJournalDirectory());
+        assertEquals(DeviceClientConfig.MIN_OUTBOUND_JOURNAL_MAX_BYTES, config.getOutboundJournalMaxBytes());
+        assertEquals(OutboundQueueFullPolicy.DROP_NEWEST, config.getOutboundJournalFullPolicy());
+
+        //act
+        config.setOutboundJournalDirectory(null);
+
+        //assert
+        assertNull(config.getOutboundJournalDirectory());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_022: [The function shall return the saved client runtime.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_023: [The function shall save the client runtime.]
+    @Test
+    public void clientRuntimeSetterSavesValue(@Mocked final ClientRuntime mockClientRuntime)
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getClientRuntime());
+
+        //act
+        config.setClientRuntime(mockClientRuntime);
+
+        //assert
+        assertEquals(mockClientRuntime, config.getClientRuntime());
+
+        //act
+        config.setClientRuntime(null);
+
+        //assert
+        assertNull(config.getClientRuntime());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_024: [The function shall return the saved MQTT in flight window size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_026: [The function shall save the MQTT in flight window size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_027: [The function shall return the saved MQTT in flight window mode.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_028: [The function shall save the MQTT in flight window mode.]
+    @Test
+    public void mqttInFlightWindowSettersSaveValues()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(DeviceClientConfig.DEFAULT_MQTT_IN_FLIGHT_WINDOW_SIZE, config.getMqttInFlightWindowSize());
+        assertFalse(config.isMqttInFlightWindowAdaptive());
+
+        //act
+        config.setMqttInFlightWindowSize(1);
+        config.setMqttInFlightWindowAdaptive(true);
+
+        //assert
+        assertEquals(1, config.getMqttInFlightWindowSize());
+        assertTrue(config.isMqttInFlightWindowAdaptive());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_025: [If the provided size is smaller than 1, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setMqttInFlightWindowSizeThrowsOnZero()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setMqttInFlightWindowSize(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_029: [The function shall return the saved MQTT telemetry delivery mode.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_031: [The function shall save the MQTT telemetry delivery mode.]
+    @Test
+    public void mqttTelemetryDeliveryModeSetterSavesValue()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(TelemetryDeliveryMode.AT_LEAST_ONCE, config.getMqttTelemetryDeliveryMode());
+
+        //act
+        config.setMqttTelemetryDeliveryMode(TelemetryDeliveryMode.AT_MOST_ONCE);
+
+        //assert
+        assertEquals(TelemetryDeliveryMode.AT_MOST_ONCE, config.getMqttTelemetryDeliveryMode());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_030: [If the provided mode is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setMqttTelemetryDeliveryModeThrowsOnNull()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setMqttTelemetryDeliveryMode(null);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_032: [The function shall return the saved MQTT persistence directory.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_034: [The function shall save the MQTT persistence directory.]
+    @Test
+    public void mqttPersistenceDirectorySetterSavesValue()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getMqttPersistenceDirectory());
+
+        //act
+        config.setMqttPersistenceDirectory("mqtt-persistence");
+
+        //assert
+        assertEquals("mqtt-persistence", config.getMqttPersistenceDirectory());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_035: [The function shall return the saved MQTT NIO engine.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_036: [The function shall save the MQTT NIO engine.]
+    @Test
+    public void mqttNioEngineSetterSavesValue(@Mocked final MqttNioEngine mockEngine)
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getMqttNioEngine());
+
+        //act
+        config.setMqttNioEngine(mockEngine);
+
+        //assert
+        assertEquals(mockEngine, config.getMqttNioEngine());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_037: [The function shall return the saved AMQP telemetry batch maximum number of messages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_039: [The function shall save the AMQP telemetry batch maximum number of messages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_040: [The function shall return the saved AMQP telemetry batch maximum size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_042: [The function shall save the AMQP telemetry batch maximum size.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_043: [The function shall return the saved AMQP telemetry batch linger time.]
+    // Tests_SRS_DEVICECLIENTCONFIG_45_045: [The function shall save the AMQP telemetry batch linger time.]
+    @Test
+    public void amqpTelemetryBatchSettersSaveValues()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(DeviceClientConfig.DEFAULT_AMQP_TELEMETRY_BATCH_MAX_MESSAGES, config.getAmqpTelemetryBatchMaxMessages());
+        assertEquals(DeviceClientConfig.DEFAULT_AMQP_TELEMETRY_BATCH_MAX_BYTES, config.getAmqpTelemetryBatchMaxBytes());
+        assertEquals(0, config.getAmqpTelemetryBatchLingerMillis());
+
+        //act
+        config.setAmqpTelemetryBatchMaxMessages(100);
+        config.setAmqpTelemetryBatchMaxBytes(64 * 1024);
+        config.setAmqpTelemetryBatchLingerMillis(20);
+
+        //assert
+        assertEquals(100, config.getAmqpTelemetryBatchMaxMessages());
+        assertEquals(64 * 1024, config.getAmqpTelemetryBatchMaxBytes());
+        assertEquals(20, config.getAmqpTelemetryBatchLingerMillis());
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_038: [If the provided number is smaller than 1, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setAmqpTelemetryBatchMaxMessagesThrowsOnZero()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setAmqpTelemetryBatchMaxMessages(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_041: [If the provided size is smaller than 1, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setAmqpTelemetryBatchMaxBytesThrowsOnZero()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setAmqpTelemetryBatchMaxBytes(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_044: [If the provided time is negative, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setAmqpTelemetryBatchLingerMillisThrowsOnNegative()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setAmqpTelemetryBatchLingerMillis(-1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_033: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setMqttPersistenceDirectoryThrowsOnEmptyPath()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setMqttPersistenceDirectory("");
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_014: [If the provided path is empty, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundJournalDirectoryThrowsOnEmpty()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundJournalDirectory("");
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_017: [If the provided size is smaller than MIN_OUTBOUND_JOURNAL_MAX_BYTES, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundJournalMaxBytesThrowsOnTooSmall()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundJournalMaxBytes(DeviceClientConfig.MIN_OUTBOUND_JOURNAL_MAX_BYTES - 1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_45_020: [If the provided policy is not DROP_OLDEST or DROP_NEWEST, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundJournalFullPolicyThrowsOnReject()
+    {
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.setOutboundJournalFullPolicy(OutboundQueueFullPolicy.REJECT);
+    }
 }
@@ -9,10 +9,12 @@ import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvi
 import com.microsoft.azure.sdk.iot.device.auth.IotHubX509AuthenticationProvider;
 import com.microsoft.azure.sdk.iot.device.fileupload.FileUpload;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.IoTHubConnectionType;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.exceptions.SecurityProviderException;
 import mockit.*;
 import org.junit.Test;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -21,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * Unit tests for DeviceClient.
@@ -791,6 +794,112 @@ public class DeviceClientTest
         };
     }
 
+    /* Tests_SRS_DEVICECLIENT_45_029: [The sendEventAsync shall asynchronously send the message using the deviceIO connection, with a new future as the callback and the client's connection string, and return the future.] */
+    @Test
+    public void sendEventAsyncWithoutCallbackReturnsFutureSentAsCallback(
+            @Mocked final Message mockMessage)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        final IotHubEventFuture future = client.sendEventAsync(mockMessage);
+
+        // assert
+        assertFalse(future.isDone());
+        new Verifications()
+        {
+            {
+                mockDeviceIO.sendEventAsync(mockMessage, future, null, mockConfig.getIotHubConnectionString());
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICECLIENT_45_030: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
+    @Test (expected = IllegalStateException.class)
+    public void sendEventAsyncWithoutCallbackBadSendThrows(
+            @Mocked final Message mockMessage)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.sendEventAsync(mockMessage, (IotHubEventCallback) any, null, (IotHubConnectionString) any);
+                result = new IllegalStateException();
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        client.open();
+
+        // act
+        client.sendEventAsync(mockMessage);
+    }
+
+
+    /* Tests_SRS_DEVICECLIENT_45_021: [The sendEventBatchAsync shall asynchronously send the messages using the deviceIO connection, with the client's connection string.] */
+    @Test
+    public void sendEventBatchAsyncSendsSuccess(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        final Map<String, Object> context = new HashMap<>();
+        final List<Message> messages = Arrays.asList(mockMessage, mockMessage);
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+
+        // act
+        client.sendEventBatchAsync(messages, mockCallback, context);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.sendEventBatchAsync(messages, mockCallback, context, mockConfig.getIotHubConnectionString());
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICECLIENT_45_022: [If starting to send via deviceIO is not successful, the sendEventBatchAsync shall bypass the threw exception.] */
+    @Test (expected = IllegalStateException.class)
+    public void sendEventBatchAsyncBadSendThrows(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        final List<Message> messages = Arrays.asList(mockMessage);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.sendEventBatchAsync(messages, mockCallback, null, (IotHubConnectionString) any);
+                result = new IllegalStateException();
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.sendEventBatchAsync(messages, mockCallback, null);
+    }
+
     /* Tests_SRS_DEVICECLIENT_21_011: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
     // Tests_SRS_DEVICECLIENT_12_001: [The function shall call deviceIO.sendEventAsync with the client's config parameter to enable multiplexing.]
     @Test
@@ -1324,6 +1433,94 @@ public class DeviceClientTest
         };
     }
 
+    /*
+    **Tests_SRS_DEVICECLIENT_45_032: [**This method shall send the reported properties by calling updateReportedPropertiesAsync on the twin object, and return its future.**]**
+     */
+    @Test
+    public void sendRPAsyncReturnsTwinFuture(@Mocked final DeviceTwin mockedDeviceTwin,
+                                             @Mocked final IotHubEventCallback mockedStatusCB,
+                                             @Mocked final PropertyCallBack mockedPropertyCB,
+                                             @Mocked final Set<Property> mockSet,
+                                             @Mocked final IotHubEventFuture mockedFuture) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockedDeviceTwin.updateReportedPropertiesAsync(mockSet, null);
+                result = mockedFuture;
+                mockedDeviceTwin.updateReportedPropertiesAsync(mockSet, 10);
+                result = mockedFuture;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        //act
+        IotHubEventFuture future = client.sendReportedPropertiesAsync(mockSet);
+        IotHubEventFuture versionFuture = client.sendReportedPropertiesAsync(mockSet, 10);
+
+        //assert
+        assertEquals(mockedFuture, future);
+        assertEquals(mockedFuture, versionFuture);
+    }
+
+    /*
+    **Tests_SRS_DEVICECLIENT_45_031: [**This method shall check the client and reported properties as sendReportedProperties does.**]**
+     */
+    @Test (expected = IOException.class)
+    public void sendRPAsyncThrowsIfCalledBeforeStartingTwin(@Mocked final Set<Property> mockSet) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+
+        //act
+        client.sendReportedPropertiesAsync(mockSet);
+    }
+
+    /*
+    **Tests_SRS_DEVICECLIENT_45_033: [**If version is negative, the function shall throw an IllegalArgumentException.**]**
+     */
+    @Test (expected = IllegalArgumentException.class)
+    public void sendRPAsyncThrowsOnNegativeVersion(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                   @Mocked final IotHubEventCallback mockedStatusCB,
+                                                   @Mocked final PropertyCallBack mockedPropertyCB,
+                                                   @Mocked final Set<Property> mockSet) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        //act
+        client.sendReportedPropertiesAsync(mockSet, -1);
+    }
+
+
     /*
     **Tests_SRS_DEVICECLIENT_25_032: [**If the client has not started twin before calling this method, the function shall throw an IOException.**]**
      */
@@ -1647,6 +1844,92 @@ public class DeviceClientTest
 
     }
 
+    /*
+    Tests_SRS_DEVICECLIENT_45_036: [**This method shall subscribe by calling subscribeToDeviceMethodAsync on the DeviceMethod object, creating it only if needed, and return its future.**]**
+     */
+    @Test
+    public void subscribeToDeviceMethodAsyncReturnsMethodFuture(@Mocked final IotHubEventCallback mockedStatusCB,
+                                                               @Mocked final DeviceMethodCallback mockedDeviceMethodCB,
+                                                               @Mocked final DeviceMethod mockedMethod,
+                                                               @Mocked final IotHubEventFuture mockedFuture) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockedMethod.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, any);
+                result = mockedFuture;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+
+        //act
+        client.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null, mockedStatusCB, null);
+        IotHubEventFuture future = client.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null, mockedStatusCB, null);
+
+        //assert
+        assertEquals(mockedFuture, future);
+        new Verifications()
+        {
+            {
+                new DeviceMethod((DeviceIO) any, (DeviceClientConfig) any, mockedStatusCB, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    Tests_SRS_DEVICECLIENT_45_034: [**If the client has not been open, the function shall throw an IOException.**]**
+     */
+    @Test (expected = IOException.class)
+    public void subscribeToDeviceMethodAsyncThrowsIfClientNotOpen(@Mocked final IotHubEventCallback mockedStatusCB,
+                                                                 @Mocked final DeviceMethodCallback mockedDeviceMethodCB) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+
+        //act
+        client.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null, mockedStatusCB, null);
+    }
+
+    /*
+    Tests_SRS_DEVICECLIENT_45_035: [**If deviceMethodCallback or deviceMethodStatusCallback is null, the function shall throw an IllegalArgumentException.**]**
+     */
+    @Test (expected = IllegalArgumentException.class)
+    public void subscribeToDeviceMethodAsyncThrowsIfStatusCallbackNull(@Mocked final DeviceMethodCallback mockedDeviceMethodCB) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        final DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        client.open();
+
+        //act
+        client.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null, null, null);
+    }
+
+
     /*
     Tests_SRS_DEVICECLIENT_25_036: [**If the client has not been open, the function shall throw an IOException.**]**
      */
@@ -1738,237 +2021,1555 @@ public class DeviceClientTest
                 result = true;
             }
         };
-        final DeviceClient client = new DeviceClient(connString, protocol);
-        client.open();
-        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+        final DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+
+        // act
+        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockedMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the client, then it shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionWithNullOptionNameThrows()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        long someMilliseconds = 4;
+
+        // act
+        client.setOption(null, someMilliseconds);
+    }
+
+    // Tests_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the client, then it shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionWithUnknownOptionNameThrows()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        long someMilliseconds = 4;
+
+        // act
+        client.setOption("thisIsNotAHandledOption", someMilliseconds);
+    }
+
+    //Tests_SRS_DEVICECLIENT_02_017: [Available only for HTTP.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMinimumPollingIntervalWithAMQPfails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        long someMilliseconds = 4;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMinimumPollingInterval", someMilliseconds);
+    }
+
+    //Tests_SRS_DEVICECLIENT_02_018: [Value needs to have type long].
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMinimumPollingIntervalWithStringInsteadOfLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMinimumPollingInterval", "thisIsNotALong");
+    }
+
+    //Tests_SRS_DEVICECLIENT_02_005: [Setting the option can only be done before open call.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionMinimumPollingIntervalAfterOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        long value = 3;
+
+        // act
+        client.setOption("SetMinimumPollingInterval", value);
+    }
+
+    //Tests_SRS_DEVICECLIENT_02_016: ["SetMinimumPollingInterval" - time in milliseconds between 2 consecutive polls.]
+    @Test
+    public void setOptionMinimumPollingIntervalSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        final long value = 3L;
+
+        // act
+        client.setOption("SetMinimumPollingInterval", value);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setReceivePeriodInMilliseconds(value);
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_21_040: ["SetSendInterval" - time in milliseconds between 2 consecutive message sends.]
+    @Test
+    public void setOptionSendIntervalSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        final long value = 3L;
+
+        // act
+        client.setOption("SetSendInterval", value);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setSendPeriodInMilliseconds(value);
+            }
+        };
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionSendIntervalWithStringInsteadOfLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.HTTPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetSendInterval", "thisIsNotALong");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_001: ["SetEventDrivenSend" - send queued messages as soon as they are added.]
+    @Test
+    public void setOptionEventDrivenSendSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenSend", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setEventDrivenSend(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_002: ["SetEventDrivenSend" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionEventDrivenSendWithStringInsteadOfBooleanFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenSend", "thisIsNotABoolean");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_004: ["SetEventDrivenSend" shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionEventDrivenSendAfterOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.setOption("SetEventDrivenSend", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_005: ["SetEventDrivenReceive" - dispatch received messages as soon as they arrive.]
+    @Test
+    public void setOptionEventDrivenReceiveSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenReceive", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setEventDrivenReceive(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_006: ["SetEventDrivenReceive" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionEventDrivenReceiveWithStringInsteadOfBooleanFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetEventDrivenReceive", "thisIsNotABoolean");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_008: ["SetEventDrivenReceive" shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionEventDrivenReceiveAfterOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.setOption("SetEventDrivenReceive", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_009: ["SetOutboundQueueMaxMessages" - maximum number of messages waiting to be sent, 0 for no limit.]
+    @Test
+    public void setOptionOutboundQueueMaxMessagesSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 5);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueMaxMessages(5);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_010: ["SetOutboundQueueMaxMessages" needs to have value type integer.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxMessagesWithStringInsteadOfIntFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", "thisIsNotTheRightType");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_011: ["SetOutboundQueueMaxBytes" - maximum total body size in bytes of the messages waiting to be sent, 0 for no limit.]
+    @Test
+    public void setOptionOutboundQueueMaxBytesSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxBytes", 1024L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueMaxBytes(1024L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_012: ["SetOutboundQueueMaxBytes" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueMaxBytesWithStringInsteadOfLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueMaxBytes", "thisIsNotTheRightType");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_013: ["SetOutboundQueueFullPolicy" - policy applied to new messages when the outbound queue is full.]
+    @Test
+    public void setOptionOutboundQueueFullPolicySucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueFullPolicy", OutboundQueueFullPolicy.DROP_OLDEST);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueFullPolicy(OutboundQueueFullPolicy.DROP_OLDEST);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_014: ["SetOutboundQueueFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueFullPolicyWithStringInsteadOfPolicyFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueFullPolicy", "thisIsNotTheRightType");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_015: ["SetOutboundQueueBlockTimeout" - time in milliseconds that the BLOCK policy waits for room in the outbound queue.]
+    @Test
+    public void setOptionOutboundQueueBlockTimeoutSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueBlockTimeout", 500L);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueueBlockTimeoutMillis(500L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_016: ["SetOutboundQueueBlockTimeout" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundQueueBlockTimeoutWithStringInsteadOfLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundQueueBlockTimeout", "thisIsNotTheRightType");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_018: [If the client configured to use TransportClient the outbound queue options shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionOutboundQueueMaxMessagesWithTransportClientFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
+
+        // act
+        client.setOption("SetOutboundQueueMaxMessages", 5);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_020: [The function shall return the outbound queue statistics of the DeviceIO.]
+    @Test
+    public void getOutboundQueueStatisticsReturnsDeviceIOStatistics(@Mocked final OutboundQueueStatistics mockStatistics)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getOutboundQueueStatistics();
+                result = mockStatistics;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        OutboundQueueStatistics statistics = client.getOutboundQueueStatistics();
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_019: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getOutboundQueueStatisticsThrowsWithoutDeviceIO()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getOutboundQueueStatistics();
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_023: ["SetCallbackExecutor" - executor that runs the callbacks of sent messages.]
+    @Test
+    public void setOptionCallbackExecutorSucceeds(@Mocked final Executor mockCallbackExecutor)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetCallbackExecutor", mockCallbackExecutor);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockDeviceIO.setCallbackExecutor(mockCallbackExecutor);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_024: ["SetCallbackExecutor" needs to have value type Executor.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionCallbackExecutorWithStringInsteadOfExecutorFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetCallbackExecutor", "thisIsNotAnExecutor");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_025: [If the client configured to use TransportClient the SetCallbackExecutor shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionCallbackExecutorWithTransportClientFails(@Mocked final Executor mockCallbackExecutor)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
+
+        // act
+        client.setOption("SetCallbackExecutor", mockCallbackExecutor);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_026: ["SetCallbackExecutor" shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionCallbackExecutorAfterOpenFails(@Mocked final Executor mockCallbackExecutor)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.setOption("SetCallbackExecutor", mockCallbackExecutor);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_045: ["SetClientRuntime" - runtime whose threads run the tasks of the client.]
+    @Test
+    public void setOptionClientRuntimeSucceeds(@Mocked final ClientRuntime mockClientRuntime)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetClientRuntime", mockClientRuntime);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setClientRuntime(mockClientRuntime);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_046: ["SetClientRuntime" needs to have value type ClientRuntime.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionClientRuntimeWithStringInsteadOfClientRuntimeFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetClientRuntime", "thisIsNotAClientRuntime");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_047: [If the client configured to use TransportClient the SetClientRuntime shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionClientRuntimeWithTransportClientFails(@Mocked final ClientRuntime mockClientRuntime)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
+
+        // act
+        client.setOption("SetClientRuntime", mockClientRuntime);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_048: ["SetClientRuntime" shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionClientRuntimeAfterOpenFails(@Mocked final ClientRuntime mockClientRuntime)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.setOption("SetClientRuntime", mockClientRuntime);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_049: ["SetMqttInFlightWindow" - number of MQTT messages in flight.]
+    // Tests_SRS_DEVICECLIENT_45_051: ["SetMqttAdaptiveInFlightWindow" - whether the MQTT in flight window tunes its size.]
+    @Test
+    public void setOptionMqttInFlightWindowSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT_WS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT_WS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttInFlightWindow", 200);
+        client.setOption("SetMqttAdaptiveInFlightWindow", true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttInFlightWindowSize(200);
+                times = 1;
+                mockConfig.setMqttInFlightWindowAdaptive(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_050: ["SetMqttInFlightWindow" needs to have value type int.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttInFlightWindowWithLongInsteadOfIntFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttInFlightWindow", 200L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_052: ["SetMqttAdaptiveInFlightWindow" needs to have value type boolean.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttAdaptiveInFlightWindowWithStringInsteadOfBooleanFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttAdaptiveInFlightWindow", "true");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_062: ["SetMqttTelemetryDeliveryMode" - QoS of the MQTT telemetry messages.]
+    @Test
+    public void setOptionMqttTelemetryDeliveryModeSucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttTelemetryDeliveryMode", TelemetryDeliveryMode.AT_MOST_ONCE);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttTelemetryDeliveryMode(TelemetryDeliveryMode.AT_MOST_ONCE);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_063: ["SetMqttTelemetryDeliveryMode" needs to have value type TelemetryDeliveryMode.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttTelemetryDeliveryModeWithStringFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttTelemetryDeliveryMode", "AT_MOST_ONCE");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_064: ["SetMqttPersistenceDirectory" - directory where the MQTT messages in flight are kept.]
+    @Test
+    public void setOptionMqttPersistenceDirectorySucceeds()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttPersistenceDirectory", "mqtt-persistence");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttPersistenceDirectory("mqtt-persistence");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_065: ["SetMqttPersistenceDirectory" needs to have value type String.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttPersistenceDirectoryWithFileInsteadOfStringFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttPersistenceDirectory", new java.io.File("mqtt-persistence"));
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_055: [The MQTT connection options are available only for the MQTT protocols they apply to.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttPersistenceDirectoryWithMqttNioFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT_NIO;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT_NIO;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttPersistenceDirectory", "mqtt-persistence");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_066: ["SetMqttNioEngine" - engine whose selector threads run the MQTT_NIO connection.]
+    @Test
+    public void setOptionMqttNioEngineSucceeds(@Mocked final MqttNioEngine mockEngine)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT_NIO;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT_NIO;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttNioEngine", mockEngine);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttNioEngine(mockEngine);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_067: ["SetMqttNioEngine" needs to have value type MqttNioEngine.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttNioEngineWithStringFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT_NIO;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT_NIO;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttNioEngine", "engine");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_055: [The MQTT connection options are available only for the MQTT protocols they apply to.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttNioEngineWithMqttFails(@Mocked final MqttNioEngine mockEngine)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttNioEngine", mockEngine);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_054: [The MQTT connection options shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionMqttPersistenceDirectoryWhileOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttPersistenceDirectory", "mqtt-persistence");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_053: [If the client configured to use TransportClient the MQTT connection options shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionMqttInFlightWindowWithTransportClientFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
+
+        // act
+        client.setOption("SetMqttInFlightWindow", 200);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_054: [The MQTT connection options shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionMqttAdaptiveInFlightWindowAfterOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        client.setOption("SetMqttAdaptiveInFlightWindow", true);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_055: [The MQTT connection options are available only for the MQTT protocols they apply to.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttInFlightWindowWithAmqpFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetMqttInFlightWindow", 200);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_070: ["SetAmqpTelemetryBatchMaxMessages" - largest number of AMQP telemetry messages in one transfer.]
+    // Tests_SRS_DEVICECLIENT_45_072: ["SetAmqpTelemetryBatchMaxBytes" - largest size of a batched AMQP telemetry transfer.]
+    // Tests_SRS_DEVICECLIENT_45_074: ["SetAmqpTelemetryBatchLinger" - time an incomplete AMQP telemetry batch waits for more messages.]
+    @Test
+    public void setOptionAmqpTelemetryBatchSucceedsWhileOpen()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS_WS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS_WS;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
 
         // act
-        client.subscribeToDeviceMethod(mockedDeviceMethodCB, null, mockedStatusCB, null);
+        client.setOption("SetAmqpTelemetryBatchMaxMessages", 100);
+        client.setOption("SetAmqpTelemetryBatchMaxBytes", 64 * 1024);
+        client.setOption("SetAmqpTelemetryBatchLinger", 20L);
 
         // assert
         new Verifications()
         {
             {
-                mockedMethod.subscribeToDeviceMethod(mockedDeviceMethodCB, any);
-                times = 2;
+                mockConfig.setAmqpTelemetryBatchMaxMessages(100);
+                times = 1;
+                mockConfig.setAmqpTelemetryBatchMaxBytes(64 * 1024);
+                times = 1;
+                mockConfig.setAmqpTelemetryBatchLingerMillis(20L);
+                times = 1;
             }
         };
     }
 
-    // Tests_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the client, then it shall throw IllegalArgumentException.]
+    // Tests_SRS_DEVICECLIENT_45_075: ["SetAmqpTelemetryBatchLinger" needs to have value type long.]
     @Test (expected = IllegalArgumentException.class)
-    public void setOptionWithNullOptionNameThrows()
+    public void setOptionAmqpTelemetryBatchLingerWithIntFails()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = false;
                 mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                result = IotHubClientProtocol.AMQPS;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
 
-        long someMilliseconds = 4;
+        // act
+        client.setOption("SetAmqpTelemetryBatchLinger", 20);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_076: [If the client configured to use TransportClient the AMQP telemetry batch options shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionAmqpTelemetryBatchMaxMessagesWithTransportClientFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
 
         // act
-        client.setOption(null, someMilliseconds);
+        client.setOption("SetAmqpTelemetryBatchMaxMessages", 100);
     }
 
-    // Tests_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the client, then it shall throw IllegalArgumentException.]
+    // Tests_SRS_DEVICECLIENT_45_077: [The AMQP telemetry batch options are available only for AMQPS and AMQPS_WS.]
     @Test (expected = IllegalArgumentException.class)
-    public void setOptionWithUnknownOptionNameThrows()
+    public void setOptionAmqpTelemetryBatchMaxMessagesWithMqttFails()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = false;
                 mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                result = IotHubClientProtocol.MQTT;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
 
-        long someMilliseconds = 4;
-
         // act
-        client.setOption("thisIsNotAHandledOption", someMilliseconds);
+        client.setOption("SetAmqpTelemetryBatchMaxMessages", 100);
     }
 
-    //Tests_SRS_DEVICECLIENT_02_017: [Available only for HTTP.]
-    @Test (expected = IllegalArgumentException.class)
-    public void setOptionMinimumPollingIntervalWithAMQPfails()
+    // Tests_SRS_DEVICECLIENT_45_057: [The function shall return the in flight window statistics of the DeviceIO.]
+    @Test
+    public void getInFlightWindowStatisticsReturnsDeviceIOStatistics(@Mocked final InFlightWindowStatistics mockStatistics)
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
-        long someMilliseconds = 4;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = false;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.AMQPS;
+                mockDeviceIO.getInFlightWindowStatistics();
+                result = mockStatistics;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
 
         // act
-        client.setOption("SetMinimumPollingInterval", someMilliseconds);
+        InFlightWindowStatistics statistics = client.getInFlightWindowStatistics();
+
+        // assert
+        assertEquals(mockStatistics, statistics);
     }
 
-    //Tests_SRS_DEVICECLIENT_02_018: [Value needs to have type long].
-    @Test (expected = IllegalArgumentException.class)
-    public void setOptionMinimumPollingIntervalWithStringInsteadOfLongFails()
+    // Tests_SRS_DEVICECLIENT_45_056: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getInFlightWindowStatisticsThrowsWithoutDeviceIO()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getInFlightWindowStatistics();
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_059: [The function shall return the reconnect statistics of the DeviceIO.]
+    @Test
+    public void getReconnectStatisticsReturnsDeviceIOStatistics(@Mocked final ReconnectStatistics mockStatistics)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = false;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                mockDeviceIO.getReconnectStatistics();
+                result = mockStatistics;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
 
         // act
-        client.setOption("SetMinimumPollingInterval", "thisIsNotALong");
+        ReconnectStatistics statistics = client.getReconnectStatistics();
+
+        // assert
+        assertEquals(mockStatistics, statistics);
     }
 
-    //Tests_SRS_DEVICECLIENT_02_005: [Setting the option can only be done before open call.]
+    // Tests_SRS_DEVICECLIENT_45_058: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
     @Test (expected = IllegalStateException.class)
-    public void setOptionMinimumPollingIntervalAfterOpenFails()
+    public void getReconnectStatisticsThrowsWithoutDeviceIO()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getReconnectStatistics();
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_069: [The function shall return the send credit statistics of the DeviceIO.]
+    @Test
+    public void getSendCreditStatisticsReturnsDeviceIOStatistics(@Mocked final SendCreditStatistics mockStatistics)
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = true;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                mockDeviceIO.getSendCreditStatistics();
+                result = mockStatistics;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
-        client.open();
-        long value = 3;
 
         // act
-        client.setOption("SetMinimumPollingInterval", value);
+        SendCreditStatistics statistics = client.getSendCreditStatistics();
+
+        // assert
+        assertEquals(mockStatistics, statistics);
     }
 
-    //Tests_SRS_DEVICECLIENT_02_016: ["SetMinimumPollingInterval" - time in milliseconds between 2 consecutive polls.]
+    // Tests_SRS_DEVICECLIENT_45_068: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getSendCreditStatisticsThrowsWithoutDeviceIO()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getSendCreditStatistics();
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_037: ["SetOutboundJournalDirectory" - directory of the outbound journal.]
+    // Tests_SRS_DEVICECLIENT_45_039: ["SetOutboundJournalMaxBytes" - maximum disk space in bytes of the outbound journal.]
+    // Tests_SRS_DEVICECLIENT_45_041: ["SetOutboundJournalFullPolicy" - policy applied when the outbound journal is full.]
     @Test
-    public void setOptionMinimumPollingIntervalSucceeds()
+    public void setOptionOutboundJournalSucceeds()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
                 mockDeviceIO.isOpen();
                 result = false;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
-        final long value = 3L;
+        Deencapsulation.setField(client, "config", mockConfig);
 
         // act
-        client.setOption("SetMinimumPollingInterval", value);
+        client.setOption("SetOutboundJournalDirectory", "journal");
+        client.setOption("SetOutboundJournalMaxBytes", 1048576L);
+        client.setOption("SetOutboundJournalFullPolicy", OutboundQueueFullPolicy.DROP_NEWEST);
 
         // assert
         new Verifications()
         {
             {
-                mockDeviceIO.setReceivePeriodInMilliseconds(value);
+                mockConfig.setOutboundJournalDirectory("journal");
+                times = 1;
+                mockConfig.setOutboundJournalMaxBytes(1048576L);
+                times = 1;
+                mockConfig.setOutboundJournalFullPolicy(OutboundQueueFullPolicy.DROP_NEWEST);
+                times = 1;
             }
         };
     }
 
-    // Tests_SRS_DEVICECLIENT_21_040: ["SetSendInterval" - time in milliseconds between 2 consecutive message sends.]
-    @Test
-    public void setOptionSendIntervalSucceeds()
+    // Tests_SRS_DEVICECLIENT_45_038: ["SetOutboundJournalDirectory" needs to have value type String.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundJournalDirectoryWithLongInsteadOfStringFails()
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundJournalDirectory", 10L);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_040: ["SetOutboundJournalMaxBytes" needs to have value type long.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundJournalMaxBytesWithIntInsteadOfLongFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundJournalMaxBytes", 1048576);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_042: ["SetOutboundJournalFullPolicy" needs to have value type OutboundQueueFullPolicy.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionOutboundJournalFullPolicyWithStringInsteadOfPolicyFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        client.setOption("SetOutboundJournalFullPolicy", "DROP_OLDEST");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_043: [If the client configured to use TransportClient the outbound journal options shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionOutboundJournalDirectoryWithTransportClientFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "ioTHubConnectionType", IoTHubConnectionType.USE_TRANSPORTCLIENT);
+
+        // act
+        client.setOption("SetOutboundJournalDirectory", "journal");
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_044: [The outbound journal options shall throw IllegalStateException if the client is open.]
+    @Test (expected = IllegalStateException.class)
+    public void setOptionOutboundJournalMaxBytesAfterOpenFails()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
                 mockDeviceIO.isOpen();
-                result = false;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                result = true;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
-        final long value = 3L;
+        client.open();
 
         // act
-        client.setOption("SetSendInterval", value);
-
-        // assert
-        new Verifications()
-        {
-            {
-                mockDeviceIO.setSendPeriodInMilliseconds(value);
-            }
-        };
+        client.setOption("SetOutboundJournalMaxBytes", 1048576L);
     }
 
-    @Test (expected = IllegalArgumentException.class)
-    public void setOptionSendIntervalWithStringInsteadOfLongFails()
+    // Tests_SRS_DEVICECLIENT_45_028: [The function shall return the callback queue statistics of the DeviceIO.]
+    @Test
+    public void getCallbackQueueStatisticsReturnsDeviceIOStatistics(@Mocked final CallbackQueueStatistics mockStatistics)
             throws IOException, URISyntaxException
     {
         // arrange
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                 + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
         new NonStrictExpectations()
         {
             {
-                mockDeviceIO.isOpen();
-                result = false;
-                mockDeviceIO.getProtocol();
-                result = IotHubClientProtocol.HTTPS;
+                mockDeviceIO.getCallbackQueueStatistics();
+                result = mockStatistics;
             }
         };
         DeviceClient client = new DeviceClient(connString, protocol);
 
         // act
-        client.setOption("SetSendInterval", "thisIsNotALong");
+        CallbackQueueStatistics statistics = client.getCallbackQueueStatistics();
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_027: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getCallbackQueueStatisticsThrowsWithoutDeviceIO()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getCallbackQueueStatistics();
     }
 
     @Test (expected = IllegalArgumentException.class)
@@ -3302,4 +4903,45 @@ public class DeviceClientTest
         assertNull(Deencapsulation.getField(client, "config"));
         assertNull(Deencapsulation.getField(client, "deviceIO"));
     }
+
+    // Tests_SRS_DEVICECLIENT_45_061: [The function shall return the number of pending device twin requests of the DeviceIO.]
+    @Test
+    public void getPendingTwinRequestCountReturnsDeviceIOCount()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getPendingTwinRequestCount();
+                result = 5;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+
+        // act
+        int pendingTwinRequestCount = client.getPendingTwinRequestCount();
+
+        // assert
+        assertEquals(5, pendingTwinRequestCount);
+    }
+
+    // Tests_SRS_DEVICECLIENT_45_060: [If the client has no DeviceIO, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void getPendingTwinRequestCountThrowsWithoutDeviceIO()
+            throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "deviceIO", null);
+
+        // act
+        client.getPendingTwinRequestCount();
+    }
 }
@@ -4,23 +4,40 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubBatchEventCollector;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubDispatchTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExpirySweepTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundJournal;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 import mockit.*;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -67,6 +84,8 @@ public class DeviceIOTest
             {
                 new AmqpsTransport(mockConfig);
                 result = mockAmqpsTransport;
+                mockConfig.getClientRuntime();
+                result = null;
             }
         };
 
@@ -85,6 +104,8 @@ public class DeviceIOTest
             {
                 new HttpsTransport(mockConfig);
                 result = mockHttpsTransport;
+                mockConfig.getClientRuntime();
+                result = null;
             }
         };
 
@@ -299,6 +320,36 @@ public class DeviceIOTest
         };
     }
 
+    @Test
+    public void constructorMqttNioSuccess(@Mocked final MqttNioEngine mockEngine) throws URISyntaxException
+    {
+        // arrange
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT_NIO;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMqttNioEngine();
+                result = mockEngine;
+            }
+        };
+
+        // act
+        Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.DeviceIO",
+                                    new Class[] {DeviceClientConfig.class, IotHubClientProtocol.class, long.class, long.class},
+                                    mockConfig, protocol, SEND_PERIOD_MILLIS, RECEIVE_PERIOD_MILLIS_AMQPS);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setUseWebsocket(false);
+                times = 1;
+                new MqttTransport(mockConfig, mockEngine);
+                times = 1;
+            }
+        };
+    }
+
     /* Tests_SRS_DEVICE_IO_21_004: [If the `protocol` is null, the constructor shall throw an IllegalArgumentException.] */
     @Test (expected = IllegalArgumentException.class)
     public void constructorNullProtocolThrows()
@@ -406,6 +457,39 @@ public class DeviceIOTest
         assertEquals("OPEN", Deencapsulation.getField(deviceIO, "state").toString());
     }
 
+    /* Tests_SRS_DEVICE_IO_45_034: [If no client runtime is configured, the open shall schedule an expiry sweep task to run every EXPIRY_SWEEP_PERIOD_MILLIS milliseconds, which removes the messages that expired while waiting to be sent.] */
+    @Test
+    public void openSchedulesExpirySweep(
+            @Mocked final IotHubExpirySweepTask mockExpirySweepTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockExecutors.newScheduledThreadPool(anyInt);
+                result = mockScheduler;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubExpirySweepTask(mockAmqpsTransport);
+                times = 1;
+                mockScheduler.scheduleWithFixedDelay((IotHubExpirySweepTask) any,
+                        100L, 100L,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
     /* Tests_SRS_DEVICE_IO_21_015: [If an error occurs in opening the transport, the open shall throw an IOException.] */
     @Test
     public void openThrowsIOExceptionIfTransportOpenThrows()
@@ -504,6 +588,7 @@ public class DeviceIOTest
 
     /* Tests_SRS_DEVICE_IO_21_017: [The closeNow shall finish all ongoing tasks.] */
     /* Tests_SRS_DEVICE_IO_21_018: [The closeNow shall cancel all recurring tasks.] */
+    /* Tests_SRS_DEVICE_IO_45_036: [The close shall cancel the recurring tasks of the client, and shut down the scheduler only if it is not the scheduler of a client runtime.] */
     @Test
     public void closeWaitsForTaskShutdownToFinishSuccess()
             throws URISyntaxException, IOException
@@ -525,6 +610,221 @@ public class DeviceIOTest
         };
     }
 
+    /* Tests_SRS_DEVICE_IO_45_035: [If a client runtime is configured, the open shall run the tasks on the scheduler of the runtime instead of creating a scheduler.] */
+    /* Tests_SRS_DEVICE_IO_45_045: [If a client runtime is configured, the open shall add an expiry sweep task to the single sweep of the runtime instead of scheduling it.] */
+    @Test
+    public void openWithClientRuntimeUsesRuntimeScheduler(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final IotHubExpirySweepTask mockExpirySweepTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduler;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                Executors.newScheduledThreadPool(anyInt);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                times = 2;
+                mockScheduler.scheduleWithFixedDelay((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                times = 0;
+                new IotHubExpirySweepTask(mockAmqpsTransport);
+                times = 1;
+                Deencapsulation.invoke(mockClientRuntime, "addExpirySweep", new Class[] {Runnable.class}, withInstanceOf(IotHubExpirySweepTask.class));
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_036: [The close shall cancel the recurring tasks of the client, and shut down the scheduler only if it is not the scheduler of a client runtime.] */
+    /* Tests_SRS_DEVICE_IO_45_046: [If the expiry sweep task was added to the sweep of a client runtime, the close shall remove it.] */
+    @Test
+    public void closeWithClientRuntimeCancelsTasksWithoutShutdown(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ScheduledFuture<?> mockScheduledFuture,
+            @Mocked final IotHubExpirySweepTask mockExpirySweepTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduler;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                result = mockScheduledFuture;
+                mockScheduler.scheduleWithFixedDelay((Runnable) any, anyLong, anyLong, TimeUnit.MILLISECONDS);
+                result = mockScheduledFuture;
+            }
+        };
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduledFuture.cancel(false);
+                times = 2;
+                Deencapsulation.invoke(mockClientRuntime, "removeExpirySweep", new Class[] {Runnable.class}, withInstanceOf(IotHubExpirySweepTask.class));
+                times = 1;
+                mockScheduler.shutdown();
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_043: [If a client runtime is configured, the open shall only keep timers on the scheduler of the runtime, and run the send and receive passes on its blocking executor.] */
+    /* Tests_SRS_DEVICE_IO_45_044: [The close shall stop the signalled periodic passes, if any.] */
+    @Test
+    public void openWithClientRuntimeRunsPassesOnBlockingExecutor(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ExecutorService mockBlockingExecutor,
+            @Mocked final IotHubSignalledTask mockSignalledTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduler;
+                mockClientRuntime.getBlockingExecutor();
+                result = mockBlockingExecutor;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubSignalledTask(withInstanceOf(IotHubSendTask.class), mockBlockingExecutor);
+                times = 1;
+                new IotHubSignalledTask(withInstanceOf(IotHubReceiveTask.class), mockBlockingExecutor);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(withInstanceOf(IotHubSendTask.class), anyLong, anyLong, TimeUnit.MILLISECONDS);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate(withInstanceOf(IotHubReceiveTask.class), anyLong, anyLong, TimeUnit.MILLISECONDS);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, 0, SEND_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                times = 2;
+                mockSignalledTask.stop();
+                times = 2;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_043: [If a client runtime is configured, the open shall only keep timers on the scheduler of the runtime, and run the send and receive passes on its blocking executor.] */
+    @Test
+    public void clientRuntimeKeepsSendingForOtherClientsWhileOnePassBlocks()
+            throws URISyntaxException, IOException, InterruptedException
+    {
+        // arrange
+        final ClientRuntime clientRuntime = new ClientRuntime(1, 2);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch otherPasses = new CountDownLatch(5);
+        final AtomicBoolean isPassBlocked = new AtomicBoolean(false);
+        new NonStrictExpectations()
+        {
+            {
+                // the executors of the runtime wrap their tasks with Executors.callable, which is mocked here.
+                Executors.callable((Runnable) any, any);
+                result = new Delegate()
+                {
+                    <T> Callable<T> callable(final Runnable task, final T result)
+                    {
+                        return new Callable<T>()
+                        {
+                            @Override
+                            public T call()
+                            {
+                                task.run();
+                                return result;
+                            }
+                        };
+                    }
+                };
+                mockIotHubSendTask.run();
+                result = new Delegate()
+                {
+                    void run()
+                    {
+                        // the first pass of one of the clients blocks, as on a stalled network.
+                        if (isPassBlocked.compareAndSet(false, true))
+                        {
+                            try
+                            {
+                                unblock.await();
+                            }
+                            catch (InterruptedException e)
+                            {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        else
+                        {
+                            otherPasses.countDown();
+                        }
+                    }
+                };
+            }
+        };
+        final Object firstDeviceIO = newDeviceIOAmqp();
+        final Object secondDeviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = clientRuntime;
+            }
+        };
+
+        try
+        {
+            // act
+            Deencapsulation.invoke(firstDeviceIO, "open");
+            Deencapsulation.invoke(secondDeviceIO, "open");
+
+            // assert
+            assertTrue("the passes of a client shall keep running while a pass of another client blocks",
+                    otherPasses.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            unblock.countDown();
+            Deencapsulation.invoke(firstDeviceIO, "close");
+            Deencapsulation.invoke(secondDeviceIO, "close");
+            clientRuntime.close();
+        }
+    }
+
     /* Tests_SRS_DEVICE_IO_21_019: [The closeNow shall closeNow the transport.] */
     @Test
     public void closeClosesTransportSuccess()
@@ -646,6 +946,172 @@ public class DeviceIOTest
         };
     }
 
+    /* Tests_SRS_DEVICE_IO_45_048: [The sendEventAsync and sendEventBatchAsync shall add to the transport without holding a lock of the client, so that a send that waits for room in the outbound queue does not block other sends or calls on the client.] */
+    @Test
+    public void sendEventAsyncDoesNotBlockOtherSendsWhileWaitingForTransport(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws URISyntaxException, IOException, InterruptedException
+    {
+        // arrange
+        final CountDownLatch firstSendWaiting = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch secondSendAdded = new CountDownLatch(1);
+        final AtomicBoolean isSendBlocked = new AtomicBoolean(false);
+        final Map<String, Object> context = new HashMap<>();
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.addMessage((Message) any, (IotHubEventCallback) any, any);
+                result = new Delegate()
+                {
+                    void addMessage(Message message, IotHubEventCallback callback, Object callbackContext) throws InterruptedException
+                    {
+                        // the first send waits for room in the outbound queue, as with the BLOCK policy.
+                        if (isSendBlocked.compareAndSet(false, true))
+                        {
+                            firstSendWaiting.countDown();
+                            unblock.await();
+                        }
+                        else
+                        {
+                            secondSendAdded.countDown();
+                        }
+                    }
+                };
+            }
+        };
+        Runnable send = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+            }
+        };
+        Thread firstSender = new Thread(send);
+        Thread secondSender = new Thread(send);
+
+        try
+        {
+            // act
+            firstSender.start();
+            assertTrue(firstSendWaiting.await(5, TimeUnit.SECONDS));
+            secondSender.start();
+
+            // assert
+            assertTrue("a send shall reach the transport while another send waits for room in the queue",
+                    secondSendAdded.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            unblock.countDown();
+            firstSender.join(5000);
+            secondSender.join(5000);
+        }
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_018:[The sendEventBatchAsync shall create one outbound packet per message, in order, each with an event callback that collects its status and invokes the batch callback once all messages have completed.] */
+    /* Tests_SRS_DEVICE_IO_45_019: [The sendEventBatchAsync shall set the connection string on each message if the iotHubConnectionString parameter is not null.] */
+    /* Tests_SRS_DEVICE_IO_45_020: [The sendEventBatchAsync shall add the packets to the transport as one unit.] */
+    @Test
+    public void sendEventBatchAsyncAddsPacketsToTransportSuccess(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubBatchEventCallback mockCallback,
+            @Mocked final IotHubBatchEventCollector mockCollector,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        final List<Message> messages = Arrays.asList(mockMsg, mockMsg);
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", messages, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubBatchEventCollector(2, mockCallback, context);
+                times = 1;
+                mockMsg.setIotHubConnectionString(mockConfig.getIotHubConnectionString());
+                times = 2;
+                new IotHubOutboundPacket(mockMsg, (IotHubEventCallback) any, 0);
+                times = 1;
+                new IotHubOutboundPacket(mockMsg, (IotHubEventCallback) any, 1);
+                times = 1;
+                mockAmqpsTransport.addMessages((List<IotHubOutboundPacket>) any);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_017: [If the list of messages is null or empty, or contains a null message, the sendEventBatchAsync shall throw an IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void sendEventBatchAsyncRejectsEmptyBatchThrows(
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", new ArrayList<Message>(), mockCallback, new Object(), mockConfig.getIotHubConnectionString());
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_017: [If the list of messages is null or empty, or contains a null message, the sendEventBatchAsync shall throw an IllegalArgumentException.] */
+    @Test
+    public void sendEventBatchAsyncRejectsNullMessageThrows(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        boolean thrown = false;
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", Arrays.asList(mockMsg, null), mockCallback, new Object(), mockConfig.getIotHubConnectionString());
+        }
+        catch (IllegalArgumentException expected)
+        {
+            thrown = true;
+        }
+
+        // assert
+        assertTrue(thrown);
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.addMessages((List<IotHubOutboundPacket>) any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_016: [If the client is closed, the sendEventBatchAsync shall throw an IllegalStateException.] */
+    @Test (expected = IllegalStateException.class)
+    public void sendEventBatchAsyncClientNotOpenedThrows(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", Arrays.asList(mockMsg), mockCallback, new Object(), mockConfig.getIotHubConnectionString());
+    }
+
     /* Tests_SRS_DEVICE_IO_21_023: [If the message given is null, the sendEventAsync shall throw an IllegalArgumentException.] */
     @Test (expected = IllegalArgumentException.class)
     public void sendEventAsyncRejectsNullMessageThrows(
@@ -1121,4 +1587,1094 @@ public class DeviceIOTest
             }
         };
     }
+
+    /* Tests_SRS_DEVICE_IO_45_001: [If the event driven send is enabled, the open shall register a signalled send task with the transport instead of scheduling the send task.] */
+    /* Tests_SRS_DEVICE_IO_45_002: [If the event driven send is enabled, the open shall signal the send task once to drain messages queued before the open.] */
+    /* Tests_SRS_DEVICE_IO_45_041: [If the event driven send is enabled, the open shall have the send task signal itself again while messages stay queued after a pass, first after sendPeriodInMilliseconds and then backing off.] */
+    /* Tests_SRS_DEVICE_IO_45_047: [If the event driven send is enabled, the signalled send task shall raise its delayed signals on the task scheduler.] */
+    @Test
+    public void openEventDrivenSendRegistersSignalSuccess(@Mocked final IotHubSignalledTask mockSignalledTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubSignalledTask(mockIotHubSendTask, mockScheduler, mockScheduler);
+                result = mockSignalledTask;
+            }
+        };
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.registerSendSignal(mockSignalledTask);
+                times = 1;
+                mockSignalledTask.signal();
+                times = 1;
+                mockIotHubSendTask.setRetrySignal(mockSignalledTask, mockScheduler, anyLong);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(mockIotHubSendTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask,
+                        0, RECEIVE_PERIOD_MILLIS_AMQPS,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_003: [If a signalled send task exists, the close shall stop it and unregister it from the transport.] */
+    @Test
+    public void closeEventDrivenSendStopsSignalSuccess(@Mocked final IotHubSignalledTask mockSignalledTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignalledTask.stop();
+                times = 1;
+                mockAmqpsTransport.registerSendSignal(null);
+                times = 1;
+                mockScheduler.shutdown();
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "sendSignal"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_004: [If the event driven send is enabled, the setSendPeriodInMilliseconds shall only store the new value.] */
+    @Test
+    public void setSendPeriodInMillisecondsEventDrivenSendDoesNotScheduleSuccess(@Mocked final IotHubSignalledTask mockSignalledTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final long interval = 1234L;
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setSendPeriodInMilliseconds",  interval);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.scheduleAtFixedRate(mockIotHubSendTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+            }
+        };
+        assertEquals(interval, Deencapsulation.getField(deviceIO, "sendPeriodInMilliseconds"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_005: [The isEventDrivenSend shall return true if the event driven send is enabled, false otherwise.] */
+    /* Tests_SRS_DEVICE_IO_45_007: [The setEventDrivenSend shall store the new send mode.] */
+    @Test
+    public void setEventDrivenSendStoresValueSuccess()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        assertFalse((boolean)Deencapsulation.invoke(deviceIO, "isEventDrivenSend"));
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+
+        // assert
+        assertTrue((boolean)Deencapsulation.invoke(deviceIO, "isEventDrivenSend"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_006: [If the client is open, the setEventDrivenSend shall throw IllegalStateException.] */
+    @Test (expected = IllegalStateException.class)
+    public void setEventDrivenSendOpenedThrows()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenSend", true);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_008: [If the event driven receive is enabled and the protocol is not HTTPS, the open shall register a signalled dispatch task with the transport instead of scheduling the receive task.] */
+    /* Tests_SRS_DEVICE_IO_45_009: [If the event driven receive is enabled and the protocol is not HTTPS, the open shall signal the dispatch task once to handle messages received before the open.] */
+    @Test
+    public void openEventDrivenReceiveRegistersSignalSuccess(@Mocked final IotHubSignalledTask mockSignalledTask,
+                                                             @Mocked final IotHubDispatchTask mockDispatchTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubDispatchTask(mockAmqpsTransport);
+                result = mockDispatchTask;
+                new IotHubSignalledTask(mockDispatchTask, mockScheduler);
+                result = mockSignalledTask;
+            }
+        };
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.registerReceiveSignal(mockSignalledTask);
+                times = 1;
+                mockSignalledTask.signal();
+                times = 1;
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate(mockIotHubSendTask,
+                        0, SEND_PERIOD_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_008: [If the event driven receive is enabled and the protocol is not HTTPS, the open shall register a signalled dispatch task with the transport instead of scheduling the receive task.] */
+    @Test
+    public void openEventDrivenReceiveHttpsSchedulesReceiveTaskSuccess(@Mocked final IotHubSignalledTask mockSignalledTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOHttps();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+
+        // act
+        openDeviceIO(deviceIO, mockHttpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockHttpsTransport.registerReceiveSignal((IotHubSignalledTask)any);
+                times = 0;
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask,
+                        0, RECEIVE_PERIOD_MILLIS_HTTPS,
+                        TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_010: [If a signalled dispatch task exists, the close shall stop it and unregister it from the transport.] */
+    @Test
+    public void closeEventDrivenReceiveStopsSignalSuccess(@Mocked final IotHubSignalledTask mockSignalledTask,
+                                                          @Mocked final IotHubDispatchTask mockDispatchTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignalledTask.stop();
+                times = 1;
+                mockAmqpsTransport.registerReceiveSignal(null);
+                times = 1;
+                mockScheduler.shutdown();
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "receiveSignal"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_011: [If the receive is signalled, the setReceivePeriodInMilliseconds shall only store the new value.] */
+    @Test
+    public void setReceivePeriodInMillisecondsEventDrivenReceiveDoesNotScheduleSuccess(@Mocked final IotHubSignalledTask mockSignalledTask,
+                                                                                       @Mocked final IotHubDispatchTask mockDispatchTask)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final long interval = 1234L;
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setReceivePeriodInMilliseconds",  interval);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.scheduleAtFixedRate(mockIotHubReceiveTask, anyLong, anyLong, (TimeUnit)any);
+                times = 0;
+            }
+        };
+        assertEquals(interval, Deencapsulation.getField(deviceIO, "receivePeriodInMilliseconds"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_012: [The isEventDrivenReceive shall return true if the event driven receive is enabled, false otherwise.] */
+    /* Tests_SRS_DEVICE_IO_45_014: [The setEventDrivenReceive shall store the new receive mode.] */
+    @Test
+    public void setEventDrivenReceiveStoresValueSuccess()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        assertFalse((boolean)Deencapsulation.invoke(deviceIO, "isEventDrivenReceive"));
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+
+        // assert
+        assertTrue((boolean)Deencapsulation.invoke(deviceIO, "isEventDrivenReceive"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_013: [If the client is open, the setEventDrivenReceive shall throw IllegalStateException.] */
+    @Test (expected = IllegalStateException.class)
+    public void setEventDrivenReceiveOpenedThrows()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setEventDrivenReceive", true);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_015: [The getOutboundQueueStatistics shall return the outbound queue statistics of the transport.] */
+    @Test
+    public void getOutboundQueueStatisticsReturnsTransportStatistics(
+            @Mocked final OutboundQueueStatistics mockStatistics)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        // act
+        OutboundQueueStatistics statistics = Deencapsulation.invoke(deviceIO, "getOutboundQueueStatistics");
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_023: [The getCallbackExecutor shall return the saved callback executor.] */
+    /* Tests_SRS_DEVICE_IO_45_025: [The setCallbackExecutor shall store the callback executor.] */
+    @Test
+    public void setCallbackExecutorStoresValueSuccess(@Mocked final Executor mockCallbackExecutor)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        assertNull(Deencapsulation.invoke(deviceIO, "getCallbackExecutor"));
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setCallbackExecutor", mockCallbackExecutor);
+
+        // assert
+        assertEquals(mockCallbackExecutor, Deencapsulation.invoke(deviceIO, "getCallbackExecutor"));
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_024: [If the client is open, the setCallbackExecutor shall throw IllegalStateException.] */
+    @Test (expected = IllegalStateException.class)
+    public void setCallbackExecutorOpenedThrows(@Mocked final Executor mockCallbackExecutor)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "setCallbackExecutor", mockCallbackExecutor);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_021: [If a callback executor is set, the open shall register it with the transport before starting the tasks.] */
+    /* Tests_SRS_DEVICE_IO_45_022: [If a callback executor is set, the close shall unregister it from the transport after closing the transport.] */
+    @Test
+    public void openAndCloseRegisterCallbackExecutorSuccess(@Mocked final Executor mockCallbackExecutor)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        Deencapsulation.invoke(deviceIO, "setCallbackExecutor", mockCallbackExecutor);
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                mockAmqpsTransport.registerCallbackExecutor(mockCallbackExecutor);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                mockAmqpsTransport.close();
+                times = 1;
+                mockAmqpsTransport.registerCallbackExecutor(null);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_021: [If a callback executor is set, the open shall register it with the transport before starting the tasks.] */
+    @Test
+    public void openWithoutCallbackExecutorDoesNotRegisterSuccess()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.registerCallbackExecutor((Executor) any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_026: [The getCallbackQueueStatistics shall return the callback queue statistics of the transport.] */
+    @Test
+    public void getCallbackQueueStatisticsReturnsTransportStatistics(
+            @Mocked final CallbackQueueStatistics mockStatistics)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getCallbackQueueStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        // act
+        CallbackQueueStatistics statistics = Deencapsulation.invoke(deviceIO, "getCallbackQueueStatistics");
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_037: [The getInFlightWindowStatistics shall return the in flight window statistics of the transport.] */
+    @Test
+    public void getInFlightWindowStatisticsReturnsTransportStatistics(
+            @Mocked final InFlightWindowStatistics mockStatistics)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getInFlightWindowStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        // act
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(deviceIO, "getInFlightWindowStatistics");
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_038: [The getReconnectStatistics shall return the reconnect statistics of the transport.] */
+    @Test
+    public void getReconnectStatisticsReturnsTransportStatistics(
+            @Mocked final ReconnectStatistics mockStatistics)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getReconnectStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        // act
+        ReconnectStatistics statistics = Deencapsulation.invoke(deviceIO, "getReconnectStatistics");
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_040: [The getSendCreditStatistics shall return the send credit statistics of the transport.] */
+    @Test
+    public void getSendCreditStatisticsReturnsTransportStatistics(
+            @Mocked final SendCreditStatistics mockStatistics)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getSendCreditStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        // act
+        SendCreditStatistics statistics = Deencapsulation.invoke(deviceIO, "getSendCreditStatistics");
+
+        // assert
+        assertEquals(mockStatistics, statistics);
+    }
+
+    private void outboundJournalExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundJournalDirectory();
+                result = "journal";
+                mockConfig.getOutboundJournalMaxBytes();
+                result = 65536L;
+                mockConfig.getOutboundJournalFullPolicy();
+                result = OutboundQueueFullPolicy.DROP_NEWEST;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_027: [If a journal directory is configured, the open shall create and open an outbound journal in it, with the configured maximum size and full policy, before opening the transport.] */
+    /* Tests_SRS_DEVICE_IO_45_030: [The open shall add the recovered journal records to the transport, with a callback that acknowledges them, before starting the tasks.] */
+    @Test
+    public void openWithOutboundJournalAddsRecoveredRecordsSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final IotHubOutboundJournal.Record mockRecord,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockAcknowledgingCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockJournal.open();
+                result = Collections.singletonList(mockRecord);
+                mockRecord.getMessage();
+                result = mockMsg;
+                mockRecord.getSequenceNumber();
+                result = 7L;
+                mockJournal.newAcknowledgingCallback(7L, null);
+                result = mockAcknowledgingCallback;
+            }
+        };
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                new IotHubOutboundJournal((File) any, 65536L, OutboundQueueFullPolicy.DROP_NEWEST);
+                times = 1;
+                mockJournal.open();
+                times = 1;
+                mockAmqpsTransport.open();
+                times = 1;
+                mockMsg.setIotHubConnectionString(mockConfig.getIotHubConnectionString());
+                mockAmqpsTransport.addMessage(mockMsg, mockAcknowledgingCallback, null);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_027: [If a journal directory is configured, the open shall create and open an outbound journal in it, with the configured maximum size and full policy, before opening the transport.] */
+    @Test
+    public void openWithoutOutboundJournalDirectoryDoesNotCreateJournalSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+
+        // act
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubOutboundJournal((File) any, anyLong, (OutboundQueueFullPolicy) any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_028: [If the outbound journal cannot be opened, the open shall throw the IOException without opening the transport.] */
+    @Test
+    public void openOutboundJournalFailureThrows(
+            @Mocked final IotHubOutboundJournal mockJournal)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockJournal.open();
+                result = new IOException();
+            }
+        };
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(deviceIO, "open");
+            fail("open shall throw IOException");
+        }
+        catch (Exception expected)
+        {
+            assertTrue(expected instanceof IOException);
+        }
+
+        // assert
+        assertEquals("CLOSED", Deencapsulation.getField(deviceIO, "state").toString());
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.open();
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_029: [If an error occurs in opening the transport, the open shall close the outbound journal.] */
+    @Test
+    public void openTransportFailureClosesOutboundJournal(
+            @Mocked final IotHubOutboundJournal mockJournal)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.open();
+                result = new IOException();
+            }
+        };
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(deviceIO, "open");
+            fail("open shall throw IOException");
+        }
+        catch (Exception expected)
+        {
+            assertTrue(expected instanceof IOException);
+        }
+
+        // assert
+        assertNull(Deencapsulation.getField(deviceIO, "outboundJournal"));
+        new Verifications()
+        {
+            {
+                mockJournal.close();
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_031: [The close shall close the outbound journal, if any, after closing the transport.] */
+    @Test
+    public void closeClosesOutboundJournalAfterTransportSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        assertNull(Deencapsulation.getField(deviceIO, "outboundJournal"));
+        new VerificationsInOrder()
+        {
+            {
+                mockAmqpsTransport.close();
+                times = 1;
+                mockJournal.close();
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_032: [If there is an outbound journal and the message is telemetry, the sendEventAsync shall append the message to the journal and add it to the transport with a callback that acknowledges the record and then invokes the provided callback.] */
+    @Test
+    public void sendEventAsyncJournalsTelemetrySuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubEventCallback mockAcknowledgingCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockJournal.append(mockMsg);
+                result = 3L;
+                mockJournal.newAcknowledgingCallback(3L, mockCallback);
+                result = mockAcknowledgingCallback;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.addMessage(mockMsg, mockAcknowledgingCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_032: [If there is an outbound journal and the message is telemetry, the sendEventAsync shall append the message to the journal and add it to the transport with a callback that acknowledges the record and then invokes the provided callback.] */
+    @Test
+    public void sendEventAsyncDoesNotJournalTwinMessageSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockJournal.append((Message) any);
+                times = 0;
+                mockAmqpsTransport.addMessage(mockMsg, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_042: [If there is an outbound journal, the sendEventBatchAsync shall append each telemetry message to the journal as the sendEventAsync does, with a callback that acknowledges the record and then collects the status of the message.] */
+    @Test
+    public void sendEventBatchAsyncJournalsTelemetrySuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final Message mockTwinMsg,
+            @Mocked final IotHubBatchEventCallback mockCallback,
+            @Mocked final IotHubBatchEventCollector mockCollector,
+            @Mocked final IotHubEventCallback mockAcknowledgingCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockTwinMsg.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockJournal.append(mockMsg);
+                result = 3L;
+                mockJournal.newAcknowledgingCallback(3L, (IotHubEventCallback) any);
+                result = mockAcknowledgingCallback;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", new Class[] { List.class, IotHubBatchEventCallback.class, Object.class, IotHubConnectionString.class },
+                Arrays.asList(mockMsg, mockTwinMsg), mockCallback, null, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockJournal.append(mockMsg);
+                times = 1;
+                mockJournal.append(mockTwinMsg);
+                times = 0;
+                new IotHubOutboundPacket(mockMsg, mockAcknowledgingCallback, 0);
+                times = 1;
+                new IotHubOutboundPacket(mockTwinMsg, (IotHubEventCallback) any, 1);
+                times = 1;
+                mockAmqpsTransport.addMessages((List<IotHubOutboundPacket>) any);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_017: [If the list of messages is null or empty, or contains a null message, the sendEventBatchAsync shall throw an IllegalArgumentException.] */
+    @Test
+    public void sendEventBatchAsyncWithNullMessageDoesNotJournalThrows(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubBatchEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(deviceIO, "sendEventBatchAsync", new Class[] { List.class, IotHubBatchEventCallback.class, Object.class, IotHubConnectionString.class },
+                    Arrays.asList(mockMsg, null), mockCallback, null, null);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected)
+        {
+            // expected
+        }
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockJournal.append((Message) any);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_033: [If the message cannot be appended to the outbound journal, including because the client is closing it, the sendEventAsync shall add it to the transport with the provided callback.] */
+    @Test
+    public void sendEventAsyncJournalFailureSendsMessageSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockJournal.append(mockMsg);
+                result = new IOException();
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.addMessage(mockMsg, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_033: [If the message cannot be appended to the outbound journal, including because the client is closing it, the sendEventAsync shall add it to the transport with the provided callback.] */
+    @Test
+    public void sendEventAsyncClosedJournalSendsMessageSuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockJournal.append(mockMsg);
+                result = new IllegalStateException();
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.addMessage(mockMsg, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_048: [The sendEventAsync and sendEventBatchAsync shall add to the transport without holding a lock of the client, so that a send that waits for room in the outbound queue does not block other sends or calls on the client.] */
+    @Test
+    public void sendEventAsyncDoesNotBlockOtherSendsWhileAppendingToJournal(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final Message mockTwinMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws URISyntaxException, IOException, InterruptedException
+    {
+        // arrange
+        final CountDownLatch firstAppendWaiting = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch secondSendAdded = new CountDownLatch(1);
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockTwinMsg.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockJournal.append(mockMsg);
+                result = new Delegate()
+                {
+                    long append(Message message) throws InterruptedException
+                    {
+                        // the append waits on the disk.
+                        firstAppendWaiting.countDown();
+                        unblock.await();
+                        return IotHubOutboundJournal.NOT_JOURNALED;
+                    }
+                };
+                mockAmqpsTransport.addMessage(mockTwinMsg, (IotHubEventCallback) any, any);
+                result = new Delegate()
+                {
+                    void addMessage(Message message, IotHubEventCallback callback, Object callbackContext)
+                    {
+                        secondSendAdded.countDown();
+                    }
+                };
+            }
+        };
+        Thread firstSender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+            }
+        });
+        Thread secondSender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Deencapsulation.invoke(deviceIO, "sendEventAsync", mockTwinMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+            }
+        });
+
+        try
+        {
+            // act
+            firstSender.start();
+            assertTrue(firstAppendWaiting.await(5, TimeUnit.SECONDS));
+            secondSender.start();
+
+            // assert
+            assertTrue("a send shall reach the transport while another send appends to the journal",
+                    secondSendAdded.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            unblock.countDown();
+            firstSender.join(5000);
+            secondSender.join(5000);
+        }
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_049: [If there is an outbound journal and the message is telemetry, the sendEventAsync shall append the message to the journal as the sendEventAsync with an event callback does, and add it to the transport with a response callback that acknowledges the record and then invokes the provided callback.] */
+    @Test
+    public void sendEventAsyncWithResponseJournalsTelemetrySuccess(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubResponseCallback mockCallback,
+            @Mocked final IotHubResponseCallback mockAcknowledgingCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockJournal.append(mockMsg);
+                result = 3L;
+                mockJournal.newAcknowledgingResponseCallback(3L, mockCallback);
+                result = mockAcknowledgingCallback;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockAmqpsTransport.addMessage(mockMsg, mockAcknowledgingCallback, context);
+                times = 1;
+                mockJournal.acknowledge(anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_050: [If the transport does not support response callbacks, the sendEventAsync shall acknowledge the record of the message, if any, so it is not sent again on the next open, and rethrow the exception.] */
+    @Test
+    public void sendEventAsyncWithResponseUnsupportedAcknowledgesRecordAndThrows(
+            @Mocked final IotHubOutboundJournal mockJournal,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubResponseCallback mockCallback,
+            @Mocked final IotHubResponseCallback mockAcknowledgingCallback)
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object context = new Object();
+        final Object deviceIO = newDeviceIOAmqp();
+        outboundJournalExpectations();
+        openDeviceIO(deviceIO, mockAmqpsTransport, mockExecutors, mockScheduler);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockJournal.append(mockMsg);
+                result = 3L;
+                mockJournal.newAcknowledgingResponseCallback(3L, mockCallback);
+                result = mockAcknowledgingCallback;
+                mockAmqpsTransport.addMessage(mockMsg, mockAcknowledgingCallback, context);
+                result = new UnsupportedOperationException();
+            }
+        };
+
+        // act
+        boolean isThrown = false;
+        try
+        {
+            Deencapsulation.invoke(deviceIO, "sendEventAsync", mockMsg, mockCallback, context, mockConfig.getIotHubConnectionString());
+        }
+        catch (UnsupportedOperationException e)
+        {
+            isThrown = true;
+        }
+
+        // assert
+        assertTrue(isThrown);
+        new Verifications()
+        {
+            {
+                mockJournal.acknowledge(3L);
+                times = 1;
+            }
+        };
+    }
+
+    /* Tests_SRS_DEVICE_IO_45_039: [The getPendingTwinRequestCount shall return the number of pending device twin requests of the transport.] */
+    @Test
+    public void getPendingTwinRequestCountReturnsTransportCount()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIOAmqp();
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsTransport.getPendingTwinRequestCount();
+                result = 4;
+            }
+        };
+
+        // act
+        int pendingTwinRequestCount = Deencapsulation.invoke(deviceIO, "getPendingTwinRequestCount");
+
+        // assert
+        assertEquals(4, pendingTwinRequestCount);
+    }
 }
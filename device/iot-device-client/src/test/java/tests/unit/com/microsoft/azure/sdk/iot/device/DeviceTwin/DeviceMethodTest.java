@@ -175,6 +175,61 @@ public class DeviceMethodTest
         };
     }
 
+    /*
+    **Tests_SRS_DEVICEMETHOD_45_001: [**The method shall subscribe as subscribeToDeviceMethod does, passing the future as the context of the subscribe message callback, and return the future.**]**
+    **Tests_SRS_DEVICEMETHOD_45_003: [**When the subscribe message completes, the future of the subscription shall be completed with its status.**]**
+     */
+    @Test
+    public void subscribeToMethodsAsyncReturnsFutureCompletedBySubscribeCallback() throws InterruptedException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        IotHubEventCallback testDeviceMethodRequestMessageCallback = Deencapsulation.newInnerInstance("deviceMethodRequestMessageCallback", testMethod);
+
+        //act
+        final IotHubEventFuture future = testMethod.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null);
+        assertFalse(future.isDone());
+        testDeviceMethodRequestMessageCallback.execute(IotHubStatusCode.OK_EMPTY, future);
+
+        //assert
+        assertTrue(future.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get());
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message)any, (IotHubEventCallback)any, future, null);
+                times = 1;
+                mockedStatusCB.execute(IotHubStatusCode.OK_EMPTY, any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_DEVICEMETHOD_45_002: [**If already subscribed, the method shall return a future completed with OK_EMPTY.**]**
+     */
+    @Test
+    public void subscribeToMethodsAsyncReturnsCompletedFutureIfAlreadySubscribed() throws InterruptedException
+    {
+        //arrange
+        DeviceMethod testMethod = new DeviceMethod(mockedDeviceIO, mockedConfig, mockedStatusCB, null);
+        Deencapsulation.setField(testMethod, "isSubscribed", true);
+
+        //act
+        IotHubEventFuture future = testMethod.subscribeToDeviceMethodAsync(mockedDeviceMethodCB, null);
+
+        //assert
+        assertTrue(future.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get());
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message)any, (IotHubEventCallback)any, any, (IotHubConnectionString)any);
+                times = 0;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_DEVICEMETHOD_25_007: [**On receiving a message from IOTHub with for method invoke, the callback DeviceMethodResponseMessageCallback is triggered.**]**
     **Tests_SRS_DEVICEMETHOD_25_008: [**If the message is of type DeviceMethod and DEVICE_OPERATION_METHOD_RECEIVE_REQUEST then user registered device method callback gets invoked providing the user with method name and payload along with the user context. **]**
@@ -540,6 +540,235 @@ public class DeviceTwinTest
         };
     }
 
+    /*
+     **Tests_SRS_DEVICETWIN_45_001: [**The method shall send the reported properties as updateReportedProperties does and return a new future for the update.**]**
+     **Tests_SRS_DEVICETWIN_45_003: [**The method shall set a new correlation id on the message, save the future by request id and correlation id before sending, and pass the request id as the context of the delivery callback.**]**
+     **Tests_SRS_DEVICETWIN_45_004: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE then the future of the request with the request id or correlation id of the message is completed with the status, after releasing the lock of the twin.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncCompletesFutureOnResponseWithRequestId() throws IOException, InterruptedException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+
+        IotHubEventFuture firstFuture = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+        IotHubEventFuture secondFuture = testTwin.updateReportedPropertiesAsync(reportedProp, 5);
+
+        final IotHubTransportMessage testMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        testMessage.setStatus(String.valueOf(400));
+        testMessage.setRequestId("1");
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertFalse(firstFuture.isDone());
+        assertTrue(secondFuture.isDone());
+        assertEquals(IotHubStatusCode.BAD_FORMAT, secondFuture.get());
+        new Verifications()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, "0", (IotHubConnectionString) any);
+                times = 1;
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, "1", (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_45_003: [**The method shall set a new correlation id on the message, save the future by request id and correlation id before sending, and pass the request id as the context of the delivery callback.**]**
+     **Tests_SRS_DEVICETWIN_45_004: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE then the future of the request with the request id or correlation id of the message is completed with the status, after releasing the lock of the twin.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncCompletesFutureOnResponseWithCorrelationId() throws IOException, InterruptedException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+
+        IotHubEventFuture firstFuture = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+        IotHubEventFuture secondFuture = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+
+        Map<String, String> requestIds = Deencapsulation.getField(testTwin, "pendingReportedPropertiesRequestIds");
+        String secondCorrelationId = null;
+        for (Map.Entry<String, String> entry : requestIds.entrySet())
+        {
+            if (entry.getValue().equals("1"))
+            {
+                secondCorrelationId = entry.getKey();
+            }
+        }
+        assertNotNull(secondCorrelationId);
+
+        final IotHubTransportMessage testMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        testMessage.setStatus(String.valueOf(204));
+        testMessage.setCorrelationId(secondCorrelationId);
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertFalse(firstFuture.isDone());
+        assertTrue(secondFuture.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, secondFuture.get());
+        assertEquals(1, requestIds.size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_45_007: [**If the request id and the correlation id of the message match no pending future, no future is completed.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncIgnoresResponseWithoutKnownId() throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+
+        IotHubEventFuture firstFuture = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+
+        final IotHubTransportMessage noIdMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        noIdMessage.setStatus(String.valueOf(204));
+        noIdMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+        final IotHubTransportMessage unknownIdMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        unknownIdMessage.setStatus(String.valueOf(204));
+        unknownIdMessage.setRequestId("42");
+        unknownIdMessage.setCorrelationId("unknown");
+        unknownIdMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(noIdMessage, null);
+        deviceTwinResponseMessageCallback.execute(unknownIdMessage, null);
+
+        //assert
+        assertFalse(firstFuture.isDone());
+        Map pendingFutures = Deencapsulation.getField(testTwin, "pendingReportedPropertiesFutures");
+        assertEquals(1, pendingFutures.size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_45_004: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE then the future of the request with the request id or correlation id of the message is completed with the status, after releasing the lock of the twin.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncCompletesFutureOutsideTwinLock() throws IOException, InterruptedException
+    {
+        //arrange
+        final DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        MessageCallback deviceTwinResponseMessageCallback = Deencapsulation.newInnerInstance("deviceTwinResponseMessageCallback", testTwin);
+        final HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+        final Object twinLock = Deencapsulation.getField(testTwin, "DEVICE_TWIN_LOCK");
+        final boolean[] isLockHeldByListener = new boolean[] { true };
+        final IotHubEventFuture[] chainedFuture = new IotHubEventFuture[1];
+
+        IotHubEventFuture future = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+        future.addListener(new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                isLockHeldByListener[0] = Thread.holdsLock(twinLock);
+                try
+                {
+                    chainedFuture[0] = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+                }
+                catch (IOException e)
+                {
+                    fail("Unexpected IOException");
+                }
+            }
+        }, null);
+
+        final IotHubTransportMessage testMessage = new IotHubTransportMessage(new byte[0], MessageType.DEVICE_TWIN);
+        testMessage.setStatus(String.valueOf(200));
+        testMessage.setRequestId("0");
+        testMessage.setDeviceOperationType(DeviceOperations.DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE);
+
+        //act
+        deviceTwinResponseMessageCallback.execute(testMessage, null);
+
+        //assert
+        assertTrue(future.isDone());
+        assertFalse(isLockHeldByListener[0]);
+        assertNotNull(chainedFuture[0]);
+        Map pendingFutures = Deencapsulation.getField(testTwin, "pendingReportedPropertiesFutures");
+        assertEquals(1, pendingFutures.size());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_45_005: [**If a reported properties update request fails to be delivered, the future of the request is completed with the delivery status, after releasing the lock of the twin.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncCompletesFutureOnDeliveryFailure() throws IOException, InterruptedException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        IotHubEventCallback deviceTwinRequestMessageCallback = Deencapsulation.newInnerInstance("deviceTwinRequestMessageCallback", testTwin);
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+        IotHubEventFuture future = testTwin.updateReportedPropertiesAsync(reportedProp, null);
+
+        //act
+        deviceTwinRequestMessageCallback.execute(IotHubStatusCode.OK_EMPTY, "0");
+        assertFalse(future.isDone());
+        deviceTwinRequestMessageCallback.execute(IotHubStatusCode.MESSAGE_EXPIRED, "0");
+
+        //assert
+        assertTrue(future.isDone());
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, future.get());
+        Map pendingFutures = Deencapsulation.getField(testTwin, "pendingReportedPropertiesFutures");
+        assertTrue(pendingFutures.isEmpty());
+    }
+
+    /*
+     **Tests_SRS_DEVICETWIN_45_006: [**If sendEventAsync throws, the method shall forget the future and rethrow the exception.**]**
+     */
+    @Test
+    public void updateReportedPropAsyncForgetsFutureIfSendThrows() throws IOException
+    {
+        //arrange
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        HashSet<Property> reportedProp = new HashSet<>();
+        reportedProp.add(new Property("prop1", "val1"));
+        new NonStrictExpectations()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any, (IotHubConnectionString) any);
+                result = new IllegalStateException();
+            }
+        };
+
+        //act
+        try
+        {
+            testTwin.updateReportedPropertiesAsync(reportedProp, null);
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException expected)
+        {
+            // expected
+        }
+
+        //assert
+        Map pendingFutures = Deencapsulation.getField(testTwin, "pendingReportedPropertiesFutures");
+        assertTrue(pendingFutures.isEmpty());
+    }
+
     /*
      **Tests_SRS_DEVICETWIN_25_028: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE and if the status is null then the user is notified on the status callback registered by the user as ERROR.**]**
      */
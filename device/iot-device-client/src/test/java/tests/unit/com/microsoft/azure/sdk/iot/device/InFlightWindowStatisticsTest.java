@@ -0,0 +1,31 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for InFlightWindowStatistics. */
+public class InFlightWindowStatisticsTest
+{
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_002: [The function shall return the saved window size.]
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_003: [The function shall return the saved maximum window size.]
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_004: [The function shall return the saved in flight count.]
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_005: [The function shall return the saved smoothed round trip.]
+    // Tests_SRS_INFLIGHTWINDOWSTATISTICS_45_006: [The function shall return the saved minimum round trip.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        InFlightWindowStatistics statistics = new InFlightWindowStatistics(24, 64, 17, 210000L, 198000L);
+
+        assertEquals(24, statistics.getWindowSize());
+        assertEquals(64, statistics.getMaxWindowSize());
+        assertEquals(17, statistics.getInFlightCount());
+        assertEquals(210000L, statistics.getSmoothedRoundTripMicros());
+        assertEquals(198000L, statistics.getMinRoundTripMicros());
+    }
+}
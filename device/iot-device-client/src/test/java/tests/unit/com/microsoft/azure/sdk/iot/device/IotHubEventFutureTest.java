@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubEventFuture;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.VerificationsInOrder;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for IotHubEventFuture. */
+public class IotHubEventFutureTest
+{
+    @Mocked IotHubEventCallback mockListener;
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_001: [If the status is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void executeThrowsOnNullStatus()
+    {
+        new IotHubEventFuture().execute(null, null);
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_003: [The function shall save the status and wake up all the threads waiting for it.]
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_008: [The function shall wait until the future is complete and return the status.]
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_011: [The function shall return true if the future is complete, and false otherwise.]
+    @Test
+    public void executeCompletesFuture() throws InterruptedException
+    {
+        IotHubEventFuture future = new IotHubEventFuture();
+        assertFalse(future.isDone());
+
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        assertTrue(future.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get());
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_002: [If the future is already complete, the function shall do nothing.]
+    @Test
+    public void executeKeepsFirstStatus() throws InterruptedException
+    {
+        IotHubEventFuture future = new IotHubEventFuture();
+        future.addListener(mockListener, null);
+
+        future.execute(IotHubStatusCode.MESSAGE_EXPIRED, null);
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, future.get());
+        new Verifications()
+        {
+            {
+                mockListener.execute((IotHubStatusCode) any, any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_003: [The function shall save the status and wake up all the threads waiting for it.]
+    @Test
+    public void executeWakesUpWaitingThread() throws InterruptedException
+    {
+        final IotHubEventFuture future = new IotHubEventFuture();
+        final IotHubStatusCode[] result = new IotHubStatusCode[1];
+        Thread waiter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result[0] = future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+
+        future.execute(IotHubStatusCode.OK, null);
+        waiter.join(10000);
+
+        assertFalse(waiter.isAlive());
+        assertEquals(IotHubStatusCode.OK, result[0]);
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_005: [If the callback is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addListenerThrowsOnNullCallback()
+    {
+        new IotHubEventFuture().addListener(null, null);
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_004: [The function shall invoke the listeners in the order they were added, with the status and their context, outside of the lock of the future.]
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_006: [If the future is not complete, the function shall save the callback and context to be invoked on completion.]
+    @Test
+    public void executeInvokesListenersInOrder()
+    {
+        final Object firstContext = new Object();
+        final Object secondContext = new Object();
+        IotHubEventFuture future = new IotHubEventFuture();
+        future.addListener(mockListener, firstContext).addListener(mockListener, secondContext);
+
+        future.execute(IotHubStatusCode.ERROR, null);
+
+        new VerificationsInOrder()
+        {
+            {
+                mockListener.execute(IotHubStatusCode.ERROR, firstContext);
+                mockListener.execute(IotHubStatusCode.ERROR, secondContext);
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_007: [If the future is already complete, the function shall invoke the callback with the status and the context.]
+    @Test
+    public void addListenerOnCompleteFutureInvokesCallback()
+    {
+        final Object context = new Object();
+        IotHubEventFuture future = new IotHubEventFuture();
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        future.addListener(mockListener, context);
+
+        new Verifications()
+        {
+            {
+                mockListener.execute(IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_009: [The function shall wait until the future is complete or the timeout elapses, and return the status.]
+    @Test
+    public void getWithTimeoutReturnsStatus() throws InterruptedException, TimeoutException
+    {
+        IotHubEventFuture future = new IotHubEventFuture();
+        future.execute(IotHubStatusCode.OK_EMPTY, null);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, future.get(1, TimeUnit.MILLISECONDS));
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_010: [If the future does not complete before the timeout, the function shall throw TimeoutException.]
+    @Test (expected = TimeoutException.class)
+    public void getWithTimeoutThrowsIfNotComplete() throws InterruptedException, TimeoutException
+    {
+        new IotHubEventFuture().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_012: [The function shall return false and leave the future unchanged.]
+    // Tests_SRS_IOTHUBEVENTFUTURE_45_013: [The function shall return false.]
+    @Test
+    public void cancelDoesNothing()
+    {
+        IotHubEventFuture future = new IotHubEventFuture();
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertFalse(future.isDone());
+    }
+}
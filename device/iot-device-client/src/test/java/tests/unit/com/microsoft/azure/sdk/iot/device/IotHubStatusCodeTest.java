@@ -136,6 +136,18 @@ public class IotHubStatusCodeTest
         assertThat(testStatus, is(expectedStatus));
     }
 
+    // Tests_SRS_IOTHUBSTATUSCODE_45_001: [The function shall convert the HTTPS status code 408 (request timeout) to MESSAGE_EXPIRED.]
+    @Test
+    public void getIotHubStatusCodeMapsRequestTimeoutToMessageExpired()
+    {
+        final int httpsStatus = 408;
+        IotHubStatusCode testStatus =
+                IotHubStatusCode.getIotHubStatusCode(httpsStatus);
+
+        final IotHubStatusCode expectedStatus = IotHubStatusCode.MESSAGE_EXPIRED;
+        assertThat(testStatus, is(expectedStatus));
+    }
+
     // Tests_SRS_IOTHUBSTATUSCODE_11_002: [If the given HTTPS status code does not map to an IoT Hub status code, the function return status code ERROR.]
     @Test
     public void getIotHubStatusCodeMapsOtherStatusCodeToError()
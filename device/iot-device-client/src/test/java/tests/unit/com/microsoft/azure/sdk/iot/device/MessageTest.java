@@ -42,6 +42,19 @@ public class MessageTest
         assertThat(testBody, is(expectedBody));
     }
 
+    // Tests_SRS_MESSAGE_45_002: [The function shall return the message body itself, without copying it.]
+    @Test
+    public void getBytesNoCopyReturnsBodyItself()
+    {
+        final byte[] body = { 1, 2, 3 };
+        Message msg = new Message(body);
+
+        byte[] testBody = msg.getBytesNoCopy();
+
+        assertThat(testBody, is(body));
+        assertSame(testBody, msg.getBytesNoCopy());
+    }
+
     // Tests_SRS_MESSAGE_11_025: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
     @Test(expected = IllegalArgumentException.class)
     public void constructorRejectsNullBody()
@@ -290,6 +303,18 @@ public class MessageTest
         msg.setAbsoluteExpiryTime(-1L);
     }
 
+    // Tests_SRS_MESSAGE_45_001: [The function shall return the message's absolute expiry time, or 0 if it is not set.]
+    @Test
+    public void getExpiryTimeReturnsAbsoluteExpiryTime()
+    {
+        Message msg = new Message("body");
+        assertEquals(0L, msg.getExpiryTime());
+
+        msg.setAbsoluteExpiryTime(1234L);
+
+        assertEquals(1234L, msg.getExpiryTime());
+    }
+
     // Tests_SRS_MESSAGE_34_047: [The function shall set the message's expiry time.]
     // Tests_SRS_MESSAGE_34_048: [The function shall set the message's message type.]
     // Tests_SRS_MESSAGE_34_046: [The function shall set the message's correlation ID to the provided value.]
@@ -0,0 +1,31 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.OutboundQueueLaneStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for OutboundQueueLaneStatistics. */
+public class OutboundQueueLaneStatisticsTest
+{
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_002: [The function shall return the saved queued message count.]
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_003: [The function shall return the saved dequeued message count.]
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_004: [The function shall return the saved average queue time.]
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_005: [The function shall return the saved maximum queue time.]
+    // Tests_SRS_OUTBOUNDQUEUELANESTATISTICS_45_006: [The function shall return the saved oldest message age.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        OutboundQueueLaneStatistics statistics = new OutboundQueueLaneStatistics(3, 40L, 12L, 90L, 25L);
+
+        assertEquals(3, statistics.getQueuedMessageCount());
+        assertEquals(40L, statistics.getDequeuedMessageCount());
+        assertEquals(12L, statistics.getAverageQueueTimeMillis());
+        assertEquals(90L, statistics.getMaxQueueTimeMillis());
+        assertEquals(25L, statistics.getOldestMessageAgeMillis());
+    }
+}
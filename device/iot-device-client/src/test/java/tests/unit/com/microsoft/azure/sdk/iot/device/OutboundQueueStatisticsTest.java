@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.OutboundQueueLane;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueLaneStatistics;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueStatistics;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for OutboundQueueStatistics. */
+public class OutboundQueueStatisticsTest
+{
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_002: [The function shall return the saved queued message count.]
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_003: [The function shall return the saved queued bytes.]
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_004: [The function shall return the saved dropped message count.]
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_005: [The function shall return the saved rejected message count.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        OutboundQueueStatistics statistics = new OutboundQueueStatistics(3, 1024L, 5L, 7L, null);
+
+        assertEquals(3, statistics.getQueuedMessageCount());
+        assertEquals(1024L, statistics.getQueuedBytes());
+        assertEquals(5L, statistics.getDroppedMessageCount());
+        assertEquals(7L, statistics.getRejectedMessageCount());
+    }
+
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_006: [The constructor shall save a copy of the lane statistics, so later changes to the provided map are not visible.]
+    // Tests_SRS_OUTBOUNDQUEUESTATISTICS_45_007: [The function shall return the saved statistics of the provided lane, or null if there are none.]
+    @Test
+    public void getLaneStatisticsReturnsCopyOfSavedLanes()
+    {
+        OutboundQueueLaneStatistics control = new OutboundQueueLaneStatistics(1, 2L, 3L, 4L, 5L);
+        Map<OutboundQueueLane, OutboundQueueLaneStatistics> lanes = new EnumMap<>(OutboundQueueLane.class);
+        lanes.put(OutboundQueueLane.CONTROL, control);
+
+        OutboundQueueStatistics statistics = new OutboundQueueStatistics(1, 10L, 0L, 0L, lanes);
+        lanes.put(OutboundQueueLane.TELEMETRY, control);
+
+        assertSame(control, statistics.getLaneStatistics(OutboundQueueLane.CONTROL));
+        assertNull(statistics.getLaneStatistics(OutboundQueueLane.TELEMETRY));
+    }
+}
@@ -0,0 +1,34 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.ReconnectStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for ReconnectStatistics. */
+public class ReconnectStatisticsTest
+{
+    // Tests_SRS_RECONNECTSTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_002: [The function shall return the saved reconnecting state.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_003: [The function shall return the saved outage count.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_004: [The function shall return the saved reconnect attempt count.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_005: [The function shall return the saved current outage duration.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_006: [The function shall return the saved last outage duration.]
+    // Tests_SRS_RECONNECTSTATISTICS_45_007: [The function shall return the saved total outage duration.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        ReconnectStatistics statistics = new ReconnectStatistics(true, 3L, 11L, 4500L, 31000L, 52000L);
+
+        assertTrue(statistics.isReconnecting());
+        assertEquals(3L, statistics.getOutageCount());
+        assertEquals(11L, statistics.getReconnectAttemptCount());
+        assertEquals(4500L, statistics.getCurrentOutageMillis());
+        assertEquals(31000L, statistics.getLastOutageMillis());
+        assertEquals(52000L, statistics.getTotalOutageMillis());
+    }
+}
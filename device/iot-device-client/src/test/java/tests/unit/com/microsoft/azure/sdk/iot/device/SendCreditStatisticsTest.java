@@ -0,0 +1,32 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.SendCreditStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for SendCreditStatistics. */
+public class SendCreditStatisticsTest
+{
+    // Tests_SRS_SENDCREDITSTATISTICS_45_001: [The constructor shall save the provided values.]
+    // Tests_SRS_SENDCREDITSTATISTICS_45_002: [The function shall return the saved starvation state.]
+    // Tests_SRS_SENDCREDITSTATISTICS_45_003: [The function shall return the saved available credit.]
+    // Tests_SRS_SENDCREDITSTATISTICS_45_004: [The function shall return the saved starved link count.]
+    // Tests_SRS_SENDCREDITSTATISTICS_45_005: [The function shall return the saved starvation count.]
+    // Tests_SRS_SENDCREDITSTATISTICS_45_006: [The function shall return the saved deferred send count.]
+    @Test
+    public void gettersReturnSavedValues()
+    {
+        SendCreditStatistics statistics = new SendCreditStatistics(true, 250L, 2, 7L, 1300L);
+
+        assertTrue(statistics.isCreditStarved());
+        assertEquals(250L, statistics.getAvailableCredit());
+        assertEquals(2, statistics.getStarvedLinkCount());
+        assertEquals(7L, statistics.getStarvationCount());
+        assertEquals(1300L, statistics.getDeferredSendCount());
+    }
+}
@@ -54,6 +54,17 @@ public class TransportClientTest
         new TransportClient(iotHubClientProtocol);
     }
 
+    // Tests_SRS_TRANSPORTCLIENT_12_001: [If the `protocol` is not valid, the constructor shall throw an IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsProtocolMQTT_NIO()
+    {
+        // arrange
+        IotHubClientProtocol iotHubClientProtocol = IotHubClientProtocol.MQTT_NIO;
+
+        // act
+        new TransportClient(iotHubClientProtocol);
+    }
+
     // Tests_SRS_TRANSPORTCLIENT_12_001: [If the `protocol` is not valid, the constructor shall throw an IllegalArgumentException.]
     @Test (expected = IllegalArgumentException.class)
     public void constructorThrowsProtocolHTTPS()
@@ -181,4 +181,41 @@ public class FileUploadInProgressTest
         Deencapsulation.invoke(fileUploadInProgress, "isCancelled");
     }
 
+    /* Codes_SRS_FILEUPLOADINPROGRESS_45_002: [The cancel shall call cancel on the `task`, interrupting it if it is running.] */
+    @Test
+    public void cancelSuccess()
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        FileUploadInProgress fileUploadInProgress = Deencapsulation.newInstance(FileUploadInProgress.class,
+                new Class[] {IotHubEventCallback.class, Object.class},
+                mockIotHubEventCallback, context);
+        Deencapsulation.invoke(fileUploadInProgress, "setTask", new Class[] {Future.class}, mockFuture);
+
+        // act
+        Deencapsulation.invoke(fileUploadInProgress, "cancel");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockFuture.cancel(true);
+                times = 1;
+            }
+        };
+    }
+
+    /* Codes_SRS_FILEUPLOADINPROGRESS_45_001: [If the `task` is null, the cancel shall throws IOException.] */
+    @Test (expected = IOException.class)
+    public void cancelThrows()
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        FileUploadInProgress fileUploadInProgress = Deencapsulation.newInstance(FileUploadInProgress.class,
+                new Class[] {IotHubEventCallback.class, Object.class},
+                mockIotHubEventCallback, context);
+
+        // act
+        Deencapsulation.invoke(fileUploadInProgress, "cancel");
+    }
 }
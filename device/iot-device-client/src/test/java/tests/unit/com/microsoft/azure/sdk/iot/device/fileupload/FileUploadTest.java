@@ -3,6 +3,7 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.fileupload;
 
+import com.microsoft.azure.sdk.iot.device.ClientRuntime;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
@@ -22,11 +23,13 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -66,6 +69,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
             }
@@ -92,6 +97,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
             }
@@ -143,6 +150,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = new IllegalArgumentException();
                 times = 1;
@@ -334,6 +343,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
                 Deencapsulation.invoke(mockFileUploadInProgress, "isCancelled");
@@ -356,6 +367,86 @@ public class FileUploadTest
         };
     }
 
+    /* Tests_SRS_FILEUPLOAD_45_001: [If a client runtime is configured, the constructor shall execute the uploads on the blocking executor of the runtime instead of creating a pool of threads.] */
+    @Test
+    public void constructorWithClientRuntimeUsesBlockingExecutor(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ExecutorService mockBlockingExecutor) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                new HttpsTransportManager(mockConfig);
+                result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getBlockingExecutor();
+                result = mockBlockingExecutor;
+            }
+        };
+
+        // act
+        FileUpload fileUpload = new FileUpload(mockConfig);
+
+        // assert
+        assertEquals(mockBlockingExecutor, Deencapsulation.getField(fileUpload, "taskScheduler"));
+        new Verifications()
+        {
+            {
+                Executors.newScheduledThreadPool(anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    /* Tests_SRS_FILEUPLOAD_45_002: [If the uploads run on the blocking executor of a client runtime, the closeNow shall cancel the pending uploads instead of shutting down the executor.] */
+    @Test
+    public void closeNowWithClientRuntimeCancelsPendingUploads(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ExecutorService mockBlockingExecutor) throws IOException
+    {
+        // arrange
+        final Queue<FileUploadInProgress> fileUploadInProgressSet = new LinkedBlockingDeque<FileUploadInProgress>()
+        {
+            {
+                add(mockFileUploadInProgress);
+            }
+        };
+
+        new NonStrictExpectations()
+        {
+            {
+                new HttpsTransportManager(mockConfig);
+                result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getBlockingExecutor();
+                result = mockBlockingExecutor;
+                Deencapsulation.invoke(mockFileUploadInProgress, "isCancelled");
+                result = true;
+            }
+        };
+        FileUpload fileUpload = new FileUpload(mockConfig);
+        Deencapsulation.setField(fileUpload, "fileUploadInProgressesSet", fileUploadInProgressSet);
+
+        // act
+        fileUpload.closeNow();
+
+        // assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockFileUploadInProgress, "cancel");
+                times = 1;
+                Deencapsulation.invoke(mockFileUploadInProgress, "triggerCallback" , new Class[] {IotHubStatusCode.class}, IotHubStatusCode.ERROR);
+                times = 1;
+                mockBlockingExecutor.shutdownNow();
+                times = 0;
+            }
+        };
+    }
+
     /* Tests_SRS_FILEUPLOAD_21_014: [The constructor shall create an Event callback `fileUploadStatusCallBack` to receive the upload status.] */
     /* Tests_SRS_FILEUPLOAD_21_019: [The FileUploadStatusCallBack shall implements the `IotHubEventCallback` as result of the FileUploadTask.] */
     /* Tests_SRS_FILEUPLOAD_21_020: [The FileUploadStatusCallBack shall call the `statusCallback` reporting the received status.] */
@@ -392,6 +483,8 @@ public class FileUploadTest
             {
                 new HttpsTransportManager(mockConfig);
                 result = mockHttpsTransportManager;
+                mockConfig.getClientRuntime();
+                result = null;
 
                 Executors.newScheduledThreadPool(10);
                 result = mockScheduler;
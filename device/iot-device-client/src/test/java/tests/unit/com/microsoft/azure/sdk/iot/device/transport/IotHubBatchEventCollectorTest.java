@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubBatchEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubBatchEventCollector;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit tests for IotHubBatchEventCollector. */
+public class IotHubBatchEventCollectorTest
+{
+    @Mocked IotHubBatchEventCallback mockCallback;
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_001: [If the message count is zero or negative, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnEmptyBatch()
+    {
+        new IotHubBatchEventCollector(0, mockCallback, null);
+    }
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_002: [The constructor shall save the message count, callback, and callback context.]
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_004: [The function shall save the status of the message at the position given by the context.]
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_005: [When the status of the last pending message is saved, the function shall invoke the callback, if any, once with the statuses in the order of the messages and the callback context.]
+    @Test
+    public void executeInvokesCallbackOnceWithStatusesInMessageOrder()
+    {
+        final Object context = new Object();
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(3, mockCallback, context);
+
+        collector.execute(IotHubStatusCode.OK_EMPTY, 2);
+        collector.execute(IotHubStatusCode.MESSAGE_EXPIRED, 0);
+        collector.execute(IotHubStatusCode.OK, 1);
+
+        final List<IotHubStatusCode> expectedStatuses =
+                Arrays.asList(IotHubStatusCode.MESSAGE_EXPIRED, IotHubStatusCode.OK, IotHubStatusCode.OK_EMPTY);
+        new Verifications()
+        {
+            {
+                mockCallback.execute(expectedStatuses, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_005: [When the status of the last pending message is saved, the function shall invoke the callback, if any, once with the statuses in the order of the messages and the callback context.]
+    @Test
+    public void executeDoesNotInvokeCallbackWhileMessagesArePending()
+    {
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(2, mockCallback, null);
+
+        collector.execute(IotHubStatusCode.OK_EMPTY, 0);
+
+        new Verifications()
+        {
+            {
+                mockCallback.execute((List<IotHubStatusCode>) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_005: [When the status of the last pending message is saved, the function shall invoke the callback, if any, once with the statuses in the order of the messages and the callback context.]
+    @Test
+    public void executeWithoutCallbackSucceeds()
+    {
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(1, null, null);
+
+        collector.execute(IotHubStatusCode.OK_EMPTY, 0);
+    }
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_003: [If the context is not an Integer within the batch, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void executeThrowsOnIndexOutsideBatch()
+    {
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(1, mockCallback, null);
+
+        collector.execute(IotHubStatusCode.OK_EMPTY, 1);
+    }
+
+    // Tests_SRS_IOTHUBBATCHEVENTCOLLECTOR_45_003: [If the context is not an Integer within the batch, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void executeThrowsOnContextThatIsNotAnIndex()
+    {
+        IotHubBatchEventCollector collector = new IotHubBatchEventCollector(1, mockCallback, null);
+
+        collector.execute(IotHubStatusCode.OK_EMPTY, "notAnIndex");
+    }
+}
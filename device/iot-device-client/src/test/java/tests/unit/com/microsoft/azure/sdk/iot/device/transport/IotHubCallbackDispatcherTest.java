@@ -0,0 +1,238 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import mockit.VerificationsInOrder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for IotHubCallbackDispatcher. */
+public class IotHubCallbackDispatcherTest
+{
+    @Mocked IotHubEventCallback mockEventCallback;
+    @Mocked IotHubResponseCallback mockResponseCallback;
+    @Mocked ResponseMessage mockResponseMessage;
+
+    /** Executor that only runs the submitted tasks when the test asks it to. */
+    private static final class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task)
+        {
+            tasks.add(task);
+        }
+
+        private void runAll()
+        {
+            while (!tasks.isEmpty())
+            {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_002: [If the packet is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void dispatchThrowsOnNullPacket()
+    {
+        new IotHubCallbackDispatcher().dispatch(null);
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_003: [If there is no executor and no callback is waiting for a previous executor, the function shall invoke the callback on the calling thread, and exceptions thrown by the callback shall propagate to the caller.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_008: [The callback invocation shall execute the event callback, if any, with the status and context of the packet, then the response callback, if any, with the response message and context of the packet.]
+    @Test
+    public void dispatchWithoutExecutorInvokesCallbacksOnCallingThread()
+    {
+        final Object context = new Object();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, context));
+        dispatcher.dispatch(new IotHubCallbackPacket(mockResponseMessage, mockResponseCallback, context));
+
+        new VerificationsInOrder()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+                mockResponseCallback.execute(mockResponseMessage, context);
+                times = 1;
+            }
+        };
+        assertEquals(2L, dispatcher.getStatistics().getInvokedCallbackCount());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_003: [If there is no executor and no callback is waiting for a previous executor, the function shall invoke the callback on the calling thread, and exceptions thrown by the callback shall propagate to the caller.]
+    @Test (expected = IllegalStateException.class)
+    public void dispatchWithoutExecutorPropagatesCallbackException()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockEventCallback.execute((IotHubStatusCode) any, any);
+                result = new IllegalStateException();
+            }
+        };
+
+        new IotHubCallbackDispatcher().dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, null));
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_001: [The function shall save the executor, which can be null.]
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_004: [If there is an executor, or callbacks are waiting for a previous executor, the function shall add the packet to the pending callbacks and, if no drain pass is submitted or running, submit one to the executor.]
+    @Test
+    public void dispatchWithExecutorDefersCallbacksAndKeepsTheirOrder()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+        dispatcher.setExecutor(executor);
+
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, 1));
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, 2));
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockEventCallback, 3));
+
+        new Verifications()
+        {
+            {
+                mockEventCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+        assertEquals(1, executor.tasks.size());
+        assertEquals(3, dispatcher.getStatistics().getPendingCallbackCount());
+
+        executor.runAll();
+
+        new VerificationsInOrder()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.OK, 1);
+                mockEventCallback.execute(IotHubStatusCode.OK_EMPTY, 2);
+                mockEventCallback.execute(IotHubStatusCode.ERROR, 3);
+            }
+        };
+        assertEquals(0, dispatcher.getStatistics().getPendingCallbackCount());
+        assertEquals(3L, dispatcher.getStatistics().getInvokedCallbackCount());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_004: [If there is an executor, or callbacks are waiting for a previous executor, the function shall add the packet to the pending callbacks and, if no drain pass is submitted or running, submit one to the executor.]
+    @Test
+    public void dispatchAfterExecutorRemovedWaitsForPendingCallbacks()
+    {
+        ManualExecutor executor = new ManualExecutor();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+        dispatcher.setExecutor(executor);
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, 1));
+
+        dispatcher.setExecutor(null);
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, 2));
+
+        new Verifications()
+        {
+            {
+                mockEventCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+
+        executor.runAll();
+
+        new VerificationsInOrder()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.OK, 1);
+                mockEventCallback.execute(IotHubStatusCode.OK, 2);
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_005: [If the executor rejects the drain pass, the function shall run it on the calling thread.]
+    @Test
+    public void dispatchRunsCallbacksOnCallingThreadWhenExecutorRejects()
+    {
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+        dispatcher.setExecutor(new Executor()
+        {
+            @Override
+            public void execute(Runnable task)
+            {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, null));
+
+        new Verifications()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.OK, null);
+                times = 1;
+            }
+        };
+        assertEquals(0, dispatcher.getStatistics().getPendingCallbackCount());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_006: [If a callback invoked by the drain pass throws, the drain pass shall drop that callback and continue with the next one.]
+    @Test
+    public void drainPassContinuesAfterFailedCallback()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.ERROR, any);
+                result = new IllegalStateException();
+            }
+        };
+        ManualExecutor executor = new ManualExecutor();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+        dispatcher.setExecutor(executor);
+
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockEventCallback, 1));
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, 2));
+        executor.runAll();
+
+        new Verifications()
+        {
+            {
+                mockEventCallback.execute(IotHubStatusCode.OK, 2);
+                times = 1;
+            }
+        };
+
+        // the drain pass finished, so the next callback submits a new one.
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, 3));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    // Tests_SRS_IOTHUBCALLBACKDISPATCHER_45_007: [The function shall return the number of pending callbacks, the number of invoked callbacks, and the average and maximum time between the creation of a callback packet and the invocation of its callback.]
+    @Test
+    public void getStatisticsReturnsCallbackLag() throws InterruptedException
+    {
+        ManualExecutor executor = new ManualExecutor();
+        IotHubCallbackDispatcher dispatcher = new IotHubCallbackDispatcher();
+        dispatcher.setExecutor(executor);
+
+        dispatcher.dispatch(new IotHubCallbackPacket(IotHubStatusCode.OK, mockEventCallback, null));
+        Thread.sleep(20);
+        executor.runAll();
+
+        CallbackQueueStatistics statistics = dispatcher.getStatistics();
+        assertEquals(0, statistics.getPendingCallbackCount());
+        assertEquals(1L, statistics.getInvokedCallbackCount());
+        assertTrue(statistics.getAverageLagMillis() >= 20);
+        assertTrue(statistics.getMaxLagMillis() >= statistics.getAverageLagMillis());
+    }
+}
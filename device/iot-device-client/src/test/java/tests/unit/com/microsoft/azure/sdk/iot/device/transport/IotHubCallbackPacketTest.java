@@ -9,6 +9,7 @@ import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.ResponseMessage;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import mockit.Deencapsulation;
 import mockit.Mocked;
 import org.junit.Test;
 
@@ -20,6 +21,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.isIn;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
 
 /** Unit tests for IotHubCallbackPacket. */
@@ -149,4 +151,20 @@ public class IotHubCallbackPacketTest
         assertNull(packet.getStatus());
     }
 
+    // Tests_SRS_IOTHUBCALLBACKPACKET_45_001: [The function shall return the value of System.nanoTime() at the time the packet was created.]
+    @Test
+    public void getCreatedNanosReturnsCreationTime()
+    {
+        // arrange
+        long before = System.nanoTime();
+
+        // act
+        IotHubCallbackPacket packet =
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockEventCallback, null);
+
+        // assert
+        long createdNanos = Deencapsulation.invoke(packet, "getCreatedNanos");
+        assertTrue(createdNanos >= before);
+        assertTrue(createdNanos <= System.nanoTime());
+    }
 }
@@ -0,0 +1,101 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubDispatchTask;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/** Unit tests for IotHubDispatchTask. */
+public class IotHubDispatchTaskTest
+{
+    @Mocked MqttTransport mockTransport;
+
+    // Tests_SRS_IOTHUBDISPATCHTASK_45_001: [If the transport is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullTransport()
+    {
+        new IotHubDispatchTask(null);
+    }
+
+    // Tests_SRS_IOTHUBDISPATCHTASK_45_002: [The constructor shall save the transport.]
+    // Tests_SRS_IOTHUBDISPATCHTASK_45_003: [The function shall call handleMessage on the transport once for each message that the transport has received and not yet handled when the function starts.]
+    @Test
+    public void runHandlesAllReceivedMessages() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getReceivedMessageCount();
+                result = 1000;
+            }
+        };
+
+        IotHubDispatchTask dispatchTask = new IotHubDispatchTask(mockTransport);
+        dispatchTask.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.handleMessage();
+                times = 1000;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBDISPATCHTASK_45_003: [The function shall call handleMessage on the transport once for each message that the transport has received and not yet handled when the function starts.]
+    @Test
+    public void runDoesNothingIfNoMessagesReceived() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getReceivedMessageCount();
+                result = 0;
+            }
+        };
+
+        IotHubDispatchTask dispatchTask = new IotHubDispatchTask(mockTransport);
+        dispatchTask.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.handleMessage();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBDISPATCHTASK_45_004: [The function shall not crash because of any error or exception thrown by the transport, and shall continue with the next message.]
+    @Test
+    public void runContinuesAfterThrowable() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getReceivedMessageCount();
+                result = 2;
+                mockTransport.handleMessage();
+                result = new IOException();
+            }
+        };
+
+        IotHubDispatchTask dispatchTask = new IotHubDispatchTask(mockTransport);
+        dispatchTask.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.handleMessage();
+                times = 2;
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExpirySweepTask;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+/** Unit tests for IotHubExpirySweepTask. */
+public class IotHubExpirySweepTaskTest
+{
+    @Mocked MqttTransport mockTransport;
+
+    // Tests_SRS_IOTHUBEXPIRYSWEEPTASK_45_001: [If the transport is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullTransport()
+    {
+        new IotHubExpirySweepTask(null);
+    }
+
+    // Tests_SRS_IOTHUBEXPIRYSWEEPTASK_45_002: [The constructor shall save the transport.]
+    // Tests_SRS_IOTHUBEXPIRYSWEEPTASK_45_003: [The function shall remove the expired messages from the transport.]
+    @Test
+    public void runRemovesExpiredMessages()
+    {
+        IotHubExpirySweepTask sweepTask = new IotHubExpirySweepTask(mockTransport);
+        sweepTask.run();
+
+        new Verifications()
+        {
+            {
+                mockTransport.removeExpiredMessages();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBEXPIRYSWEEPTASK_45_004: [The function shall not crash because of any error or exception thrown by the transport.]
+    @Test
+    public void runDoesNotCrashOnThrowable()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.removeExpiredMessages();
+                result = new IllegalStateException();
+            }
+        };
+
+        IotHubExpirySweepTask sweepTask = new IotHubExpirySweepTask(mockTransport);
+        sweepTask.run();
+    }
+}
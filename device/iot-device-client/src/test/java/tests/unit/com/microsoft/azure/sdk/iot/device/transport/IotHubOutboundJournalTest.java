@@ -0,0 +1,573 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.OutboundQueueFullPolicy;
+import com.microsoft.azure.sdk.iot.device.ResponseMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundJournal;
+import mockit.Mocked;
+import mockit.Verifications;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for IotHubOutboundJournal. The journal is exercised against real
+ * files in a temporary directory; a crash is simulated by opening a second
+ * journal on the directory without closing the first one.
+ */
+public class IotHubOutboundJournalTest
+{
+    // a record of newMessage(i, BODY_BYTES) takes 63 bytes, so 2 records fit in a segment
+    private static final int BODY_BYTES = 20;
+    private static final long SEGMENT_BYTES = 160;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mocked IotHubEventCallback mockCallback;
+
+    private static Message newMessage(int index, int bodyBytes)
+    {
+        byte[] body = new byte[bodyBytes];
+        Arrays.fill(body, (byte) index);
+        Message message = new Message(body);
+        message.setMessageId(String.format("m-%04d", index));
+        message.setCorrelationId(null);
+        return message;
+    }
+
+    private IotHubOutboundJournal newJournal(long maxBytes, OutboundQueueFullPolicy fullPolicy)
+    {
+        return new IotHubOutboundJournal(this.folder.getRoot(), SEGMENT_BYTES, maxBytes, fullPolicy);
+    }
+
+    private File[] segmentFiles()
+    {
+        File[] files = this.folder.getRoot().listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(".seg");
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void assertSequenceNumbers(List<IotHubOutboundJournal.Record> records, long... expected)
+    {
+        long[] actual = new long[records.size()];
+        for (int i = 0; i < actual.length; i++)
+        {
+            actual[i] = records.get(i).getSequenceNumber();
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_001: [If the directory is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullDirectory()
+    {
+        new IotHubOutboundJournal(null, 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_002: [If the segment size is not larger than a record header, not at most the maximum size, or more than Integer.MAX_VALUE, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnSegmentNotLargerThanRecordHeader()
+    {
+        new IotHubOutboundJournal(this.folder.getRoot(), 16, 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_002: [If the segment size is not larger than a record header, not at most the maximum size, or more than Integer.MAX_VALUE, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnSegmentLargerThanMaximumSize()
+    {
+        new IotHubOutboundJournal(this.folder.getRoot(), 2048, 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_003: [If the full policy is not DROP_OLDEST or DROP_NEWEST, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnBlockPolicy()
+    {
+        new IotHubOutboundJournal(this.folder.getRoot(), 1024, OutboundQueueFullPolicy.BLOCK);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_005: [If the journal is already open, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void openThrowsIfAlreadyOpen() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+
+        journal.open();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_006: [The function shall create the directory if it does not exist, and throw IOException if it cannot.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_007: [The function shall read the acknowledged sequence number from the checkpoint file, creating it if it does not exist.]
+    @Test
+    public void openCreatesDirectory() throws IOException
+    {
+        File directory = new File(this.folder.getRoot(), "journal");
+        IotHubOutboundJournal journal = new IotHubOutboundJournal(directory, 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+
+        List<IotHubOutboundJournal.Record> records = journal.open();
+
+        assertTrue(records.isEmpty());
+        assertTrue(new File(directory, "journal.ack").isFile());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_006: [The function shall create the directory if it does not exist, and throw IOException if it cannot.]
+    @Test (expected = IOException.class)
+    public void openThrowsIfDirectoryCannotBeCreated() throws IOException
+    {
+        File file = this.folder.newFile("not-a-directory");
+
+        new IotHubOutboundJournal(new File(file, "journal"), 1024, OutboundQueueFullPolicy.DROP_OLDEST).open();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_010: [If the message is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void appendThrowsOnNullMessage() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+
+        journal.append(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_011: [If the journal is not open, the function shall throw IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void appendThrowsIfNotOpen() throws IOException
+    {
+        newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST).append(newMessage(1, BODY_BYTES));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_008: [The function shall scan the segment files in order and return the valid records above the acknowledged sequence number, stopping the scan of a segment at the first record with a bad length, checksum, or sequence number.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_016: [The function shall write the record to the last segment, with its length written last so a torn record reads as the end of the segment, and return its sequence number.]
+    @Test
+    public void openRecoversRecordsAfterCrash() throws IOException
+    {
+        IotHubOutboundJournal crashed = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        crashed.open();
+        assertEquals(1, crashed.append(newMessage(1, BODY_BYTES)));
+        assertEquals(2, crashed.append(newMessage(2, BODY_BYTES)));
+        assertEquals(3, crashed.append(newMessage(3, BODY_BYTES)));
+
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        List<IotHubOutboundJournal.Record> records = journal.open();
+
+        assertSequenceNumbers(records, 1, 2, 3);
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(String.format("m-%04d", i + 1), records.get(i).getMessage().getMessageId());
+        }
+        assertEquals(3, journal.getPendingRecordCount());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_008: [The function shall scan the segment files in order and return the valid records above the acknowledged sequence number, stopping the scan of a segment at the first record with a bad length, checksum, or sequence number.]
+    @Test
+    public void openRecoversMessageFields() throws IOException
+    {
+        Message message = new Message("telemetry");
+        message.setMessageId("message-id");
+        message.setCorrelationId("correlation-id");
+        message.setAbsoluteExpiryTime(1234567L);
+        message.setProperty("name", "value");
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        journal.append(message);
+        journal.close();
+
+        journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        Message recovered = journal.open().get(0).getMessage();
+
+        assertEquals("message-id", recovered.getMessageId());
+        assertEquals("correlation-id", recovered.getCorrelationId());
+        assertEquals(1234567L, recovered.getExpiryTime());
+        assertEquals("value", recovered.getProperty("name"));
+        assertArrayEquals("telemetry".getBytes(), recovered.getBytes());
+        assertNull(recovered.getMessageType());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_019: [The function shall mark the record as acknowledged, advance the checkpoint to the highest sequence number below which every record is acknowledged, and delete the segments whose records are all acknowledged, except the last one.]
+    @Test
+    public void openDoesNotRecoverAcknowledgedRecords() throws IOException
+    {
+        IotHubOutboundJournal crashed = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        crashed.open();
+        for (int i = 1; i <= 3; i++)
+        {
+            crashed.append(newMessage(i, BODY_BYTES));
+        }
+        crashed.acknowledge(1);
+        crashed.acknowledge(2);
+
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+
+        assertSequenceNumbers(journal.open(), 3);
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_019: [The function shall mark the record as acknowledged, advance the checkpoint to the highest sequence number below which every record is acknowledged, and delete the segments whose records are all acknowledged, except the last one.]
+    @Test
+    public void acknowledgeOutOfOrderAdvancesCheckpointOnlyOverContiguousRecords() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        for (int i = 1; i <= 3; i++)
+        {
+            journal.append(newMessage(i, BODY_BYTES));
+        }
+        journal.acknowledge(2);
+        journal.close();
+
+        // record 2 is sent again, as the checkpoint could not move past record 1
+        journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertSequenceNumbers(journal.open(), 1, 2, 3);
+        journal.acknowledge(2);
+        journal.acknowledge(1);
+        journal.close();
+
+        journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertSequenceNumbers(journal.open(), 3);
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_008: [The function shall scan the segment files in order and return the valid records above the acknowledged sequence number, stopping the scan of a segment at the first record with a bad length, checksum, or sequence number.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_016: [The function shall write the record to the last segment, with its length written last so a torn record reads as the end of the segment, and return its sequence number.]
+    @Test
+    public void openIgnoresTornRecordAndAppendOverwritesIt() throws IOException
+    {
+        IotHubOutboundJournal crashed = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        crashed.open();
+        crashed.append(newMessage(1, BODY_BYTES));
+        crashed.append(newMessage(2, BODY_BYTES));
+
+        // tear the last byte of the second record, as if the process died while writing it
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles()[0], "rw"))
+        {
+            int firstRecordBytes = 16 + file.readInt();
+            int secondRecordBytes = 16 + readIntAt(file, firstRecordBytes);
+            file.seek(firstRecordBytes + secondRecordBytes - 1);
+            file.writeByte(0x5A);
+        }
+
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertSequenceNumbers(journal.open(), 1);
+        assertEquals(2, journal.append(newMessage(7, BODY_BYTES)));
+
+        IotHubOutboundJournal reopened = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        List<IotHubOutboundJournal.Record> records = reopened.open();
+        assertSequenceNumbers(records, 1, 2);
+        assertEquals("m-0007", records.get(1).getMessage().getMessageId());
+        reopened.close();
+    }
+
+    private static int readIntAt(RandomAccessFile file, long position) throws IOException
+    {
+        file.seek(position);
+        return file.readInt();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_015: [If there is no last segment, or the record does not fit in it or does not follow its last record, the function shall create a new segment file named after the sequence number of its first record.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_019: [The function shall mark the record as acknowledged, advance the checkpoint to the highest sequence number below which every record is acknowledged, and delete the segments whose records are all acknowledged, except the last one.]
+    @Test
+    public void acknowledgeDeletesFullyAcknowledgedSegment() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        for (int i = 1; i <= 3; i++)
+        {
+            journal.append(newMessage(i, BODY_BYTES));
+        }
+        assertEquals(2, segmentFiles().length);
+        assertEquals("00000000000000000003.seg", segmentFiles()[1].getName());
+
+        journal.acknowledge(1);
+        assertEquals(2, segmentFiles().length);
+        journal.acknowledge(2);
+
+        assertEquals(1, segmentFiles().length);
+        assertEquals("00000000000000000003.seg", segmentFiles()[0].getName());
+        assertEquals(1, journal.getPendingRecordCount());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_013: [If a new segment is needed, the journal is full and the policy is DROP_OLDEST, the function shall delete the oldest segments, counting their records that are not acknowledged as dropped.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_021: [The function shall return the number of messages not journaled and of records dropped with their segment.]
+    @Test
+    public void appendDropOldestDeletesOldestSegmentWhenFull() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(2 * SEGMENT_BYTES, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        for (int i = 1; i <= 5; i++)
+        {
+            assertEquals(i, journal.append(newMessage(i, BODY_BYTES)));
+        }
+
+        assertEquals(2, segmentFiles().length);
+        assertEquals(2, journal.getDroppedRecordCount());
+        assertEquals(3, journal.getPendingRecordCount());
+        journal.close();
+
+        journal = newJournal(2 * SEGMENT_BYTES, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertSequenceNumbers(journal.open(), 3, 4, 5);
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_014: [If a new segment is needed, the journal is full and the policy is DROP_NEWEST, the function shall count the message as dropped and return NOT_JOURNALED.]
+    @Test
+    public void appendDropNewestDoesNotJournalWhenFull() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(2 * SEGMENT_BYTES, OutboundQueueFullPolicy.DROP_NEWEST);
+        journal.open();
+        for (int i = 1; i <= 4; i++)
+        {
+            assertEquals(i, journal.append(newMessage(i, BODY_BYTES)));
+        }
+
+        assertEquals(IotHubOutboundJournal.NOT_JOURNALED, journal.append(newMessage(5, BODY_BYTES)));
+
+        assertEquals(1, journal.getDroppedRecordCount());
+        assertEquals(4, journal.getPendingRecordCount());
+
+        // room is made once the oldest segment is acknowledged
+        journal.acknowledge(1);
+        journal.acknowledge(2);
+        assertEquals(5, journal.append(newMessage(5, BODY_BYTES)));
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_012: [If the record does not fit in a segment, the function shall count it as dropped and return NOT_JOURNALED.]
+    @Test
+    public void appendDoesNotJournalRecordLargerThanSegment() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+
+        assertEquals(IotHubOutboundJournal.NOT_JOURNALED, journal.append(newMessage(1, (int) SEGMENT_BYTES)));
+
+        assertEquals(1, journal.getDroppedRecordCount());
+        assertEquals(0, journal.getPendingRecordCount());
+        assertEquals(1, journal.append(newMessage(2, BODY_BYTES)));
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_009: [The function shall delete the segments whose records are all acknowledged, except the last one.]
+    @Test
+    public void sequenceNumbersContinueAfterRestart() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        for (int i = 1; i <= 3; i++)
+        {
+            journal.append(newMessage(i, BODY_BYTES));
+            journal.acknowledge(i);
+        }
+        journal.close();
+
+        journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertTrue(journal.open().isEmpty());
+
+        assertEquals(1, segmentFiles().length);
+        assertEquals(4, journal.append(newMessage(4, BODY_BYTES)));
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_017: [The function shall return a callback that, if the status is OK, OK_EMPTY, MESSAGE_EXPIRED, BAD_FORMAT, REQUEST_ENTITY_TOO_LARGE or PRECONDITION_FAILED, acknowledges the record, and then invokes the provided callback, if any, with the status and the context.]
+    @Test
+    public void acknowledgingCallbackAcknowledgesAndInvokesCallback() throws IOException
+    {
+        final Object context = new Object();
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        long sequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+
+        journal.newAcknowledgingCallback(sequenceNumber, mockCallback).execute(IotHubStatusCode.OK_EMPTY, context);
+
+        assertEquals(0, journal.getPendingRecordCount());
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, context);
+                times = 1;
+            }
+        };
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_017: [The function shall return a callback that, if the status is OK, OK_EMPTY, MESSAGE_EXPIRED, BAD_FORMAT, REQUEST_ENTITY_TOO_LARGE or PRECONDITION_FAILED, acknowledges the record, and then invokes the provided callback, if any, with the status and the context.]
+    @Test
+    public void acknowledgingCallbackKeepsRecordCancelledOnClose() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        long sequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+
+        journal.newAcknowledgingCallback(sequenceNumber, null).execute(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, null);
+
+        assertEquals(1, journal.getPendingRecordCount());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_017: [The function shall return a callback that, if the status is OK, OK_EMPTY, MESSAGE_EXPIRED, BAD_FORMAT, REQUEST_ENTITY_TOO_LARGE or PRECONDITION_FAILED, acknowledges the record, and then invokes the provided callback, if any, with the status and the context.]
+    @Test
+    public void acknowledgingCallbackKeepsRecordFailedWithRetryableStatus() throws IOException
+    {
+        final IotHubStatusCode[] retryableStatuses = new IotHubStatusCode[]
+                {
+                        IotHubStatusCode.ERROR,
+                        IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL,
+                        IotHubStatusCode.UNAUTHORIZED,
+                        IotHubStatusCode.THROTTLED,
+                        IotHubStatusCode.SERVER_BUSY,
+                        IotHubStatusCode.INTERNAL_SERVER_ERROR
+                };
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+
+        for (final IotHubStatusCode status : retryableStatuses)
+        {
+            long sequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+            journal.newAcknowledgingCallback(sequenceNumber, mockCallback).execute(status, null);
+        }
+
+        assertEquals(retryableStatuses.length, journal.getPendingRecordCount());
+        new Verifications()
+        {
+            {
+                mockCallback.execute((IotHubStatusCode) any, null);
+                times = retryableStatuses.length;
+            }
+        };
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_017: [The function shall return a callback that, if the status is OK, OK_EMPTY, MESSAGE_EXPIRED, BAD_FORMAT, REQUEST_ENTITY_TOO_LARGE or PRECONDITION_FAILED, acknowledges the record, and then invokes the provided callback, if any, with the status and the context.]
+    @Test
+    public void acknowledgingCallbackAcknowledgesRecordFailedWithFinalStatus() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+
+        for (IotHubStatusCode status : new IotHubStatusCode[] { IotHubStatusCode.MESSAGE_EXPIRED, IotHubStatusCode.BAD_FORMAT, IotHubStatusCode.REQUEST_ENTITY_TOO_LARGE })
+        {
+            long sequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+            journal.newAcknowledgingCallback(sequenceNumber, null).execute(status, null);
+        }
+
+        assertEquals(0, journal.getPendingRecordCount());
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_024: [The function shall return a response callback that, if the response has one of the statuses that acknowledge the record of an event callback, acknowledges the record, and then invokes the provided callback, if any, with the response and the context.]
+    @Test
+    public void acknowledgingResponseCallbackAcknowledgesOnFinalStatusAndInvokesCallback(
+            @Mocked final IotHubResponseCallback mockResponseCallback) throws IOException
+    {
+        final Object context = new Object();
+        final ResponseMessage okResponse = new ResponseMessage(new byte[0], IotHubStatusCode.OK);
+        final ResponseMessage throttledResponse = new ResponseMessage(new byte[0], IotHubStatusCode.THROTTLED);
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        long acknowledgedSequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+        long keptSequenceNumber = journal.append(newMessage(1, BODY_BYTES));
+
+        journal.newAcknowledgingResponseCallback(acknowledgedSequenceNumber, mockResponseCallback).execute(okResponse, context);
+        journal.newAcknowledgingResponseCallback(keptSequenceNumber, mockResponseCallback).execute(throttledResponse, context);
+
+        assertEquals(1, journal.getPendingRecordCount());
+        new Verifications()
+        {
+            {
+                mockResponseCallback.execute(okResponse, context);
+                times = 1;
+                mockResponseCallback.execute(throttledResponse, context);
+                times = 1;
+            }
+        };
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_018: [If the journal is not open or the record is not in the journal, the function shall do nothing.]
+    @Test
+    public void acknowledgeIgnoresUnknownRecordAndClosedJournal() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.acknowledge(1);
+        journal.open();
+        journal.append(newMessage(1, BODY_BYTES));
+
+        journal.acknowledge(42);
+        journal.close();
+        journal.acknowledge(1);
+
+        journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertSequenceNumbers(journal.open(), 1);
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_022: [If the journal is not open, the function shall do nothing.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_023: [The function shall flush and close the segment and checkpoint files, and mark the journal as not open.]
+    @Test
+    public void closeMarksJournalNotOpenAndCanBeRepeated() throws IOException
+    {
+        IotHubOutboundJournal journal = newJournal(1600, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.close();
+        journal.open();
+        journal.append(newMessage(1, BODY_BYTES));
+
+        journal.close();
+        journal.close();
+
+        assertSequenceNumbers(journal.open(), 1);
+        journal.close();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_016: [The function shall write the record to the last segment, with its length written last so a torn record reads as the end of the segment, and return its sequence number.]
+    // Tests_SRS_IOTHUBOUTBOUNDJOURNAL_45_019: [The function shall mark the record as acknowledged, advance the checkpoint to the highest sequence number below which every record is acknowledged, and delete the segments whose records are all acknowledged, except the last one.]
+    @Test
+    public void appendsAndAcknowledgesTenThousandRecords() throws IOException
+    {
+        final int count = 10000;
+        IotHubOutboundJournal journal = new IotHubOutboundJournal(this.folder.getRoot(), 16 * 1024 * 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+        journal.open();
+        for (int i = 1; i <= count; i++)
+        {
+            assertEquals(i, journal.append(newMessage(i, 256)));
+        }
+        assertEquals(count, journal.getPendingRecordCount());
+
+        for (int i = 1; i <= count; i++)
+        {
+            journal.acknowledge(i);
+        }
+
+        assertEquals(0, journal.getPendingRecordCount());
+        assertEquals(0, journal.getDroppedRecordCount());
+        assertEquals(1, segmentFiles().length);
+        journal.close();
+
+        journal = new IotHubOutboundJournal(this.folder.getRoot(), 16 * 1024 * 1024, OutboundQueueFullPolicy.DROP_OLDEST);
+        assertTrue(journal.open().isEmpty());
+        journal.close();
+    }
+}
@@ -6,8 +6,11 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubResponseCallback;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import mockit.Deencapsulation;
 import mockit.Mocked;
+import mockit.NonStrictExpectations;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -101,4 +104,90 @@ public class IotHubOutboundPacketTest
                 context.entrySet();
         assertThat(testEntrySet, everyItem(isIn(expectedEntrySet)));
     }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_001: [The function shall return the length of the message body, or 0 if the message or its body is null.]
+    @Test
+    public void getBodySizeReturnsBodyLength()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBytes();
+                result = new byte[] {1, 2, 3};
+            }
+        };
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, null);
+        IotHubOutboundPacket emptyPacket = new IotHubOutboundPacket(null, mockCallback, null);
+
+        long bodySize = Deencapsulation.invoke(packet, "getBodySize");
+        long emptyBodySize = Deencapsulation.invoke(emptyPacket, "getBodySize");
+
+        assertThat(bodySize, is(3L));
+        assertThat(emptyBodySize, is(0L));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_002: [The function shall return true if the message type is DEVICE_TWIN or DEVICE_METHODS, and false otherwise, including if the message is null.]
+    @Test
+    public void isControlMessageReturnsTrueOnlyForTwinAndMethods()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getMessageType();
+                returns(MessageType.DEVICE_TWIN, MessageType.DEVICE_METHODS, MessageType.DEVICE_TELEMETRY);
+            }
+        };
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, null);
+        IotHubOutboundPacket emptyPacket = new IotHubOutboundPacket(null, mockCallback, null);
+
+        assertThat((boolean) Deencapsulation.invoke(packet, "isControlMessage"), is(true));
+        assertThat((boolean) Deencapsulation.invoke(packet, "isControlMessage"), is(true));
+        assertThat((boolean) Deencapsulation.invoke(packet, "isControlMessage"), is(false));
+        assertThat((boolean) Deencapsulation.invoke(emptyPacket, "isControlMessage"), is(false));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_003: [The function shall return the expiry time of the message, or 0 if the message is null.]
+    @Test
+    public void getExpiryTimeReturnsMessageExpiryTime()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getExpiryTime();
+                result = 1234L;
+            }
+        };
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, null);
+        IotHubOutboundPacket emptyPacket = new IotHubOutboundPacket(null, mockCallback, null);
+
+        long expiryTime = Deencapsulation.invoke(packet, "getExpiryTime");
+        long emptyExpiryTime = Deencapsulation.invoke(emptyPacket, "getExpiryTime");
+
+        assertThat(expiryTime, is(1234L));
+        assertThat(emptyExpiryTime, is(0L));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_004: [The function shall return the converted message saved on the packet, or null if there is none.]
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_005: [The function shall save the converted message on the packet.]
+    @Test
+    public void getConvertedMessageReturnsSavedMessage()
+    {
+        Object convertedMessage = new Object();
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, null);
+        assertNull(packet.getConvertedMessage());
+
+        packet.setConvertedMessage(convertedMessage);
+
+        assertThat(packet.getConvertedMessage(), is(convertedMessage));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDPACKET_45_006: [The function shall mark the packet as deferred, and return true if it was not marked before, and false otherwise.]
+    @Test
+    public void markDeferredReturnsTrueOnlyTheFirstTime()
+    {
+        IotHubOutboundPacket packet = new IotHubOutboundPacket(mockMsg, mockCallback, null);
+
+        assertThat(packet.markDeferred(), is(true));
+        assertThat(packet.markDeferred(), is(false));
+    }
 }
@@ -0,0 +1,692 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for IotHubOutboundQueue. */
+public class IotHubOutboundQueueTest
+{
+    @Mocked DeviceClientConfig mockConfig;
+    @Mocked IotHubEventCallback mockCallback;
+
+    /** Executor that keeps the submitted tasks so the test decides when they run. */
+    private static class QueuedExecutor implements Executor
+    {
+        final List<Runnable> submitted = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            submitted.add(command);
+        }
+    }
+
+    private void limitsExpectations(final int maxMessages, final long maxBytes, final OutboundQueueFullPolicy policy, final long blockTimeoutMillis)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getOutboundQueueMaxMessages();
+                result = maxMessages;
+                mockConfig.getOutboundQueueMaxBytes();
+                result = maxBytes;
+                mockConfig.getOutboundQueueFullPolicy();
+                result = policy;
+                mockConfig.getOutboundQueueBlockTimeoutMillis();
+                result = blockTimeoutMillis;
+            }
+        };
+    }
+
+    private IotHubOutboundPacket newPacket(int bodySize, MessageType messageType)
+    {
+        Message message = new Message(new byte[bodySize]);
+        message.setMessageType(messageType);
+        return new IotHubOutboundPacket(message, mockCallback, null);
+    }
+
+    private IotHubOutboundPacket newExpiringPacket(int bodySize, MessageType messageType, long expiryTime)
+    {
+        IotHubOutboundPacket packet = newPacket(bodySize, messageType);
+        packet.getMessage().setAbsoluteExpiryTime(expiryTime);
+        return packet;
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_001: [If the config is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullConfig()
+    {
+        new IotHubOutboundQueue(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_003: [If the packet is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void enqueueThrowsOnNullPacket()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_002: [The constructor shall save the config.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_004: [If the packet is a device twin or device method message, or if there is room for the packet, the function shall add it to the end of its lane and return true.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_016: [The function shall return the number of queued packets, their total body size in bytes, and the number of dropped and rejected packets.]
+    @Test
+    public void enqueueWithoutLimitsAddsAllPackets()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(queue.enqueue(newPacket(10, MessageType.DEVICE_TELEMETRY)));
+        }
+
+        OutboundQueueStatistics statistics = queue.getStatistics();
+        assertEquals(100, statistics.getQueuedMessageCount());
+        assertEquals(1000L, statistics.getQueuedBytes());
+        assertEquals(0L, statistics.getDroppedMessageCount());
+        assertEquals(0L, statistics.getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_008: [If the queue is full and the policy is REJECT, or the block timeout expired, the function shall count the packet as rejected and return false.]
+    @Test
+    public void enqueueRejectsWhenMessageLimitReached()
+    {
+        limitsExpectations(2, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        assertFalse(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_008: [If the queue is full and the policy is REJECT, or the block timeout expired, the function shall count the packet as rejected and return false.]
+    @Test
+    public void enqueueRejectsWhenByteLimitReached()
+    {
+        limitsExpectations(0, 15, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        assertTrue(queue.enqueue(newPacket(10, MessageType.DEVICE_TELEMETRY)));
+        assertFalse(queue.enqueue(newPacket(10, MessageType.DEVICE_TELEMETRY)));
+        assertTrue(queue.enqueue(newPacket(5, MessageType.DEVICE_TELEMETRY)));
+
+        assertEquals(15L, queue.getStatistics().getQueuedBytes());
+        assertEquals(1L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_004: [If the packet is a device twin or device method message, or if there is room for the packet, the function shall add it to the end of its lane and return true.]
+    @Test
+    public void enqueueAcceptsControlPacketsWhenFull()
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TWIN)));
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_METHODS)));
+
+        assertEquals(3, queue.size());
+        assertEquals(0L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_005: [If the queue is full and the policy is DROP_NEWEST, the function shall discard the packet, count it as dropped, keep it to be returned by removeDropped, and return true.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_024: [The function shall return the packets dropped since its last call, in the order they were dropped, and forget them.]
+    @Test
+    public void enqueueDropsNewestWhenFull()
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.DROP_NEWEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket first = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket newest = newPacket(1, MessageType.DEVICE_TELEMETRY);
+
+        assertTrue(queue.enqueue(first));
+        assertTrue(queue.enqueue(newest));
+
+        assertEquals(1, queue.size());
+        assertSame(first, queue.peek());
+        assertEquals(1L, queue.getStatistics().getDroppedMessageCount());
+        assertEquals(Arrays.asList(newest), queue.removeDropped());
+        assertTrue(queue.removeDropped().isEmpty());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_006: [If the queue is full and the policy is DROP_OLDEST, the function shall discard the oldest packets that are not device twin or device method messages, counting each as dropped and keeping each to be returned by removeDropped, until there is room, then add the packet and return true.]
+    @Test
+    public void enqueueDropsOldestNonControlPacketsWhenFull()
+    {
+        limitsExpectations(2, 0, OutboundQueueFullPolicy.DROP_OLDEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket twin = newPacket(1, MessageType.DEVICE_TWIN);
+        IotHubOutboundPacket oldest = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket newest = newPacket(1, MessageType.DEVICE_TELEMETRY);
+
+        queue.enqueue(twin);
+        queue.enqueue(oldest);
+        assertTrue(queue.enqueue(newest));
+
+        assertEquals(2, queue.size());
+        assertSame(twin, queue.poll());
+        assertSame(newest, queue.poll());
+        assertEquals(1L, queue.getStatistics().getDroppedMessageCount());
+        assertEquals(Arrays.asList(oldest), queue.removeDropped());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_006: [If the queue is full and the policy is DROP_OLDEST, the function shall discard the oldest packets that are not device twin or device method messages, counting each as dropped and keeping each to be returned by removeDropped, until there is room, then add the packet and return true.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_024: [The function shall return the packets dropped since its last call, in the order they were dropped, and forget them.]
+    @Test
+    public void enqueueAllDropsOldestThenBatchLargerThanLimit()
+    {
+        limitsExpectations(0, 10, OutboundQueueFullPolicy.DROP_OLDEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket oldest = newPacket(5, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket first = newPacket(6, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket second = newPacket(6, MessageType.DEVICE_TELEMETRY);
+        queue.enqueue(oldest);
+
+        assertTrue(queue.enqueueAll(Arrays.asList(first, second)));
+
+        assertEquals(0, queue.size());
+        assertEquals(3L, queue.getStatistics().getDroppedMessageCount());
+        assertEquals(Arrays.asList(oldest, first, second), queue.removeDropped());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_007: [If the queue is full and the policy is BLOCK, the function shall wait until there is room for the packet or the block timeout expires. If room is made, the function shall add the packet and return true.]
+    @Test
+    public void enqueueBlocksUntilRoomIsMade() throws InterruptedException
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.BLOCK, 10000);
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+
+        Thread consumer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                queue.poll();
+            }
+        });
+        consumer.start();
+
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        consumer.join();
+
+        assertEquals(1, queue.size());
+        assertEquals(0L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_008: [If the queue is full and the policy is REJECT, or the block timeout expired, the function shall count the packet as rejected and return false.]
+    @Test
+    public void enqueueRejectsWhenBlockTimeoutExpires()
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.BLOCK, 10);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+
+        assertFalse(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+
+        assertEquals(1, queue.size());
+        assertEquals(1L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_027: [If the queue is full, the policy is BLOCK and the function is called from the drain pass of a signalled task, the function shall not wait for room.]
+    @Test
+    public void enqueueFromDrainPassRejectsWithoutWaiting()
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.BLOCK, 60000);
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+        final List<Boolean> isAdded = new ArrayList<>();
+        QueuedExecutor executor = new QueuedExecutor();
+        new IotHubSignalledTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                isAdded.add(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+            }
+        }, executor).signal();
+        long startNanos = System.nanoTime();
+
+        executor.submitted.get(0).run();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) < 10000);
+        assertEquals(Arrays.asList(false), isAdded);
+        assertEquals(1, queue.size());
+        assertEquals(1L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_009: [If the packet is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void offerThrowsOnNullPacket()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.offer(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_010: [The function shall add the packet to the end of its lane regardless of the limits, and return true.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_024: [The function shall return the packets dropped since its last call, in the order they were dropped, and forget them.]
+    @Test
+    public void offerIgnoresLimits()
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.DROP_OLDEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        assertTrue(queue.offer(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        assertTrue(queue.offer(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+
+        assertEquals(2, queue.size());
+        assertEquals(0L, queue.getStatistics().getRejectedMessageCount());
+        assertEquals(0L, queue.getStatistics().getDroppedMessageCount());
+        assertTrue(queue.removeDropped().isEmpty());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_025: [If the packet is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void offerFirstThrowsOnNullPacket()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.offerFirst(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_026: [The function shall add the packet to the head of its lane regardless of the limits, and return true.]
+    @Test
+    public void offerFirstPutsPacketBackAtHeadOfItsLaneIgnoringLimits()
+    {
+        limitsExpectations(2, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket first = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket second = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket third = newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000L);
+        IotHubOutboundPacket control = newPacket(1, MessageType.DEVICE_TWIN);
+        assertTrue(queue.enqueue(first));
+        assertTrue(queue.enqueue(second));
+        assertTrue(queue.enqueue(control));
+
+        assertSame(control, queue.poll());
+        assertTrue(queue.offerFirst(third));
+        assertTrue(queue.offerFirst(control));
+
+        assertEquals(4, queue.size());
+        assertEquals(0L, queue.getStatistics().getRejectedMessageCount());
+        assertSame(control, queue.poll());
+        assertSame(third, queue.poll());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_026: [The function shall add the packet to the head of its lane regardless of the limits, and return true.]
+    @Test
+    public void offerFirstIndexesPacketByExpiryTime()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket queued = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket expiring = newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000L);
+        queue.add(queued);
+        queue.offerFirst(expiring);
+
+        List<IotHubOutboundPacket> expired = queue.removeExpired(2000L);
+
+        assertEquals(1, expired.size());
+        assertSame(expiring, expired.get(0));
+        assertSame(queued, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_011: [The function shall remove and return the packet at the head of the queue, or return null if the queue is empty.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_013: [The function shall return the packet at the head of the queue without removing it, or return null if the queue is empty.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_014: [The function shall return the number of packets in the queue.]
+    @Test
+    public void pollAndPeekReturnHeadInOrder()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket first = newPacket(3, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket second = newPacket(4, MessageType.DEVICE_TELEMETRY);
+        queue.add(first);
+        queue.add(second);
+
+        assertSame(first, queue.peek());
+        assertEquals(2, queue.size());
+        assertSame(first, queue.poll());
+        assertEquals(4L, queue.getStatistics().getQueuedBytes());
+        assertSame(second, queue.poll());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+        assertEquals(0L, queue.getStatistics().getQueuedBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_015: [The function shall return a read only iterator over a snapshot of the queue.]
+    @Test (expected = UnsupportedOperationException.class)
+    public void iteratorIsReadOnlySnapshot()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket packet = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        queue.add(packet);
+
+        Iterator<IotHubOutboundPacket> iterator = queue.iterator();
+        queue.poll();
+
+        assertSame(packet, iterator.next());
+        iterator.remove();
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_017: [If the list is null or empty, or contains a null packet, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void enqueueAllThrowsOnEmptyList()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueueAll(new ArrayList<IotHubOutboundPacket>());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_017: [If the list is null or empty, or contains a null packet, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void enqueueAllThrowsOnNullPacket()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueueAll(Arrays.asList(newPacket(1, MessageType.DEVICE_TELEMETRY), null));
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_018: [The function shall apply the limits and the outbound queue full policy to the batch as a whole, so that either all the packets are added next to each other at the end of the queue, or none of them is.]
+    @Test
+    public void enqueueAllAddsWholeBatchInOrder()
+    {
+        limitsExpectations(3, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket first = newPacket(2, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket second = newPacket(3, MessageType.DEVICE_TELEMETRY);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+
+        assertTrue(queue.enqueueAll(Arrays.asList(first, second)));
+
+        assertEquals(3, queue.size());
+        assertEquals(6L, queue.getStatistics().getQueuedBytes());
+        queue.poll();
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_018: [The function shall apply the limits and the outbound queue full policy to the batch as a whole, so that either all the packets are added next to each other at the end of the queue, or none of them is.]
+    @Test
+    public void enqueueAllRejectsWholeBatchWhenItDoesNotFit()
+    {
+        limitsExpectations(3, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+
+        assertFalse(queue.enqueueAll(Arrays.asList(newPacket(1, MessageType.DEVICE_TELEMETRY), newPacket(1, MessageType.DEVICE_TELEMETRY))));
+
+        assertEquals(2, queue.size());
+        assertEquals(2L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_018: [The function shall apply the limits and the outbound queue full policy to the batch as a whole, so that either all the packets are added next to each other at the end of the queue, or none of them is.]
+    @Test
+    public void enqueueAllDropsWholeBatchWhenNewestAreDropped()
+    {
+        limitsExpectations(0, 10, OutboundQueueFullPolicy.DROP_NEWEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(5, MessageType.DEVICE_TELEMETRY));
+
+        assertTrue(queue.enqueueAll(Arrays.asList(newPacket(3, MessageType.DEVICE_TELEMETRY), newPacket(3, MessageType.DEVICE_TELEMETRY))));
+
+        assertEquals(1, queue.size());
+        assertEquals(2L, queue.getStatistics().getDroppedMessageCount());
+        assertEquals(2, queue.removeDropped().size());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_018: [The function shall apply the limits and the outbound queue full policy to the batch as a whole, so that either all the packets are added next to each other at the end of the queue, or none of them is.]
+    @Test
+    public void enqueueAllRejectsBatchLargerThanLimitWithoutBlocking()
+    {
+        limitsExpectations(2, 0, OutboundQueueFullPolicy.BLOCK, 60000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        assertFalse(queue.enqueueAll(Arrays.asList(newPacket(1, MessageType.DEVICE_TELEMETRY),
+                newPacket(1, MessageType.DEVICE_TELEMETRY), newPacket(1, MessageType.DEVICE_TELEMETRY))));
+
+        assertEquals(0, queue.size());
+        assertEquals(3L, queue.getStatistics().getRejectedMessageCount());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_019: [The head of the queue shall be the head of the CONTROL lane if it is not empty, and the head of the TELEMETRY lane otherwise.]
+    @Test
+    public void pollDrainsControlLaneBeforeTelemetryLane()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket telemetry1 = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket twin = newPacket(1, MessageType.DEVICE_TWIN);
+        IotHubOutboundPacket telemetry2 = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket method = newPacket(1, MessageType.DEVICE_METHODS);
+
+        queue.enqueue(telemetry1);
+        queue.enqueue(twin);
+        queue.enqueue(telemetry2);
+        queue.enqueue(method);
+
+        assertSame(twin, queue.peek());
+        assertSame(twin, queue.poll());
+        assertSame(method, queue.poll());
+        assertSame(telemetry1, queue.poll());
+        assertSame(telemetry2, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_019: [The head of the queue shall be the head of the CONTROL lane if it is not empty, and the head of the TELEMETRY lane otherwise.]
+    @Test
+    public void iteratorListsControlLaneBeforeTelemetryLane()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket telemetry = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket twin = newPacket(1, MessageType.DEVICE_TWIN);
+
+        queue.enqueue(telemetry);
+        queue.offer(twin);
+
+        Iterator<IotHubOutboundPacket> iterator = queue.iterator();
+        assertSame(twin, iterator.next());
+        assertSame(telemetry, iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_028: [If the filter is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void pollFirstThrowsOnNullFilter()
+    {
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.pollFirst(null);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_029: [The function shall remove and return the first packet of the CONTROL lane, then of the TELEMETRY lane, that the filter accepts, leaving the packets it rejects in place, or return null if it accepts none.]
+    @Test
+    public void pollFirstTakesFirstAcceptedPacketAndLeavesOthersInPlace()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        final IotHubOutboundPacket telemetry1 = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        final IotHubOutboundPacket twin = newPacket(1, MessageType.DEVICE_TWIN);
+        final IotHubOutboundPacket telemetry2 = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        final IotHubOutboundPacket telemetry3 = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        queue.enqueue(telemetry1);
+        queue.enqueue(twin);
+        queue.enqueue(telemetry2);
+        queue.enqueue(telemetry3);
+
+        IotHubOutboundQueue.PacketFilter skipTwinAndFirstTelemetry = new IotHubOutboundQueue.PacketFilter()
+        {
+            @Override
+            public boolean accept(IotHubOutboundPacket packet)
+            {
+                return packet != twin && packet != telemetry1;
+            }
+        };
+
+        assertSame(telemetry2, queue.pollFirst(skipTwinAndFirstTelemetry));
+        assertSame(telemetry3, queue.pollFirst(skipTwinAndFirstTelemetry));
+        assertNull(queue.pollFirst(skipTwinAndFirstTelemetry));
+
+        assertEquals(2, queue.size());
+        assertEquals(2L, queue.getStatistics().getLaneStatistics(OutboundQueueLane.TELEMETRY).getDequeuedMessageCount());
+        Iterator<IotHubOutboundPacket> iterator = queue.iterator();
+        assertSame(twin, iterator.next());
+        assertSame(telemetry1, iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_020: [The function shall count the packet as dequeued from its lane and record the time it spent in the queue.]
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_021: [The function shall return, for each lane, the number of queued packets, the number of dequeued packets, their average and maximum time in the queue, and the age of the oldest queued packet.]
+    @Test
+    public void getStatisticsReturnsPerLaneDepthAndLatency() throws InterruptedException
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TWIN));
+        Thread.sleep(20);
+        queue.poll();
+        queue.poll();
+
+        OutboundQueueStatistics statistics = queue.getStatistics();
+        OutboundQueueLaneStatistics control = statistics.getLaneStatistics(OutboundQueueLane.CONTROL);
+        OutboundQueueLaneStatistics telemetry = statistics.getLaneStatistics(OutboundQueueLane.TELEMETRY);
+
+        assertEquals(0, control.getQueuedMessageCount());
+        assertEquals(1L, control.getDequeuedMessageCount());
+        assertTrue(control.getMaxQueueTimeMillis() >= 20);
+        assertEquals(0L, control.getOldestMessageAgeMillis());
+
+        assertEquals(1, telemetry.getQueuedMessageCount());
+        assertEquals(1L, telemetry.getDequeuedMessageCount());
+        assertTrue(telemetry.getAverageQueueTimeMillis() >= 20);
+        assertTrue(telemetry.getMaxQueueTimeMillis() >= telemetry.getAverageQueueTimeMillis());
+        assertTrue(telemetry.getOldestMessageAgeMillis() >= 20);
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_022: [The function shall remove from their lanes the packets whose message expiry time is set and earlier than the provided time, and return them in the order of their expiry time.]
+    @Test
+    public void removeExpiredRemovesOnlyExpiredPacketsFromBothLanes()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket neverExpires = newPacket(1, MessageType.DEVICE_TELEMETRY);
+        IotHubOutboundPacket expiresLast = newExpiringPacket(2, MessageType.DEVICE_TELEMETRY, 2000);
+        IotHubOutboundPacket notExpired = newExpiringPacket(4, MessageType.DEVICE_TELEMETRY, 5000);
+        IotHubOutboundPacket expiresFirst = newExpiringPacket(8, MessageType.DEVICE_TWIN, 1000);
+        IotHubOutboundPacket twin = newPacket(16, MessageType.DEVICE_TWIN);
+
+        queue.enqueue(neverExpires);
+        queue.enqueue(expiresLast);
+        queue.enqueue(notExpired);
+        queue.enqueue(expiresFirst);
+        queue.enqueue(twin);
+
+        List<IotHubOutboundPacket> expired = queue.removeExpired(3000);
+
+        assertEquals(Arrays.asList(expiresFirst, expiresLast), expired);
+        assertEquals(3, queue.size());
+        assertEquals(21L, queue.getStatistics().getQueuedBytes());
+        assertSame(twin, queue.poll());
+        assertSame(neverExpires, queue.poll());
+        assertSame(notExpired, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_022: [The function shall remove from their lanes the packets whose message expiry time is set and earlier than the provided time, and return them in the order of their expiry time.]
+    @Test
+    public void removeExpiredReturnsEmptyListWhenNothingExpired()
+    {
+        limitsExpectations(0, 0, OutboundQueueFullPolicy.REJECT, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY));
+        queue.enqueue(newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000));
+
+        assertTrue(queue.removeExpired(1000).isEmpty());
+        assertEquals(2, queue.size());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_022: [The function shall remove from their lanes the packets whose message expiry time is set and earlier than the provided time, and return them in the order of their expiry time.]
+    @Test
+    public void removeExpiredSkipsPolledAndDroppedPackets()
+    {
+        limitsExpectations(2, 0, OutboundQueueFullPolicy.DROP_OLDEST, 1000);
+        IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        IotHubOutboundPacket dropped = newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000);
+        IotHubOutboundPacket polled = newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000);
+        IotHubOutboundPacket queued = newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000);
+
+        queue.enqueue(dropped);
+        queue.enqueue(polled);
+        queue.enqueue(queued);
+        assertSame(polled, queue.poll());
+
+        assertEquals(Arrays.asList(queued), queue.removeExpired(2000));
+        assertEquals(0, queue.size());
+        assertEquals(0L, queue.getStatistics().getQueuedBytes());
+    }
+
+    // Tests_SRS_IOTHUBOUTBOUNDQUEUE_45_023: [If any packet was removed, the function shall wake up the callers blocked waiting for room.]
+    @Test
+    public void removeExpiredWakesUpBlockedEnqueue() throws InterruptedException
+    {
+        limitsExpectations(1, 0, OutboundQueueFullPolicy.BLOCK, 10000);
+        final IotHubOutboundQueue queue = new IotHubOutboundQueue(mockConfig);
+        queue.enqueue(newExpiringPacket(1, MessageType.DEVICE_TELEMETRY, 1000));
+
+        Thread sweeper = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                queue.removeExpired(2000);
+            }
+        });
+        sweeper.start();
+
+        assertTrue(queue.enqueue(newPacket(1, MessageType.DEVICE_TELEMETRY)));
+        sweeper.join();
+
+        assertEquals(1, queue.size());
+        assertEquals(0L, queue.getStatistics().getRejectedMessageCount());
+    }
+}
@@ -3,8 +3,11 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
 
+import com.microsoft.azure.sdk.iot.device.OutboundQueueStatistics;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
+import mockit.Delegate;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
@@ -12,6 +15,15 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 
 /** Unit tests for IotHubSendTask. */
 public class IotHubSendTaskTest
@@ -83,4 +95,229 @@ public class IotHubSendTaskTest
         IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
         sendTask.run();
     }
+
+    // Tests_SRS_IOTHUBSENDTASK_45_001: [The function shall save the retry signal, the scheduler and the delay.]
+    // Tests_SRS_IOTHUBSENDTASK_45_002: [If a retry signal is set and messages are still queued after the pass, the function shall schedule the signal to be raised once after the retry delay, unless a retry is already scheduled.]
+    @Test
+    public void runSchedulesRetrySignalWhileMessagesStayQueued(
+            @Mocked final IotHubSignalledTask mockSignal,
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final OutboundQueueStatistics mockStatistics) throws IOException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.sendMessages();
+                result = new IOException();
+                mockTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+                mockStatistics.getQueuedMessageCount();
+                result = 3;
+                mockSignal.isStopped();
+                result = false;
+            }
+        };
+        IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
+        sendTask.setRetrySignal(mockSignal, mockScheduler, 10);
+
+        // act
+        sendTask.run();
+        sendTask.run();
+
+        // assert
+        final List<Runnable> retries = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(retries), 10, TimeUnit.MILLISECONDS);
+                times = 1;
+                mockSignal.signal();
+                times = 0;
+            }
+        };
+        retries.get(0).run();
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+
+        // a retry can be scheduled again once the previous one ran, after twice the delay
+        sendTask.run();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, 10, TimeUnit.MILLISECONDS);
+                times = 1;
+                mockScheduler.schedule((Runnable) any, 20, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDTASK_45_004: [The function shall double the retry delay for the next retry, up to 5 seconds, or keep it if it is already longer.]
+    // Tests_SRS_IOTHUBSENDTASK_45_005: [If no message is queued after the pass, the function shall reset the retry delay to the delay set with the retry signal.]
+    @Test
+    public void runBacksOffRetryWhileMessagesStayQueuedAndResetsOnceQueueDrains(
+            @Mocked final IotHubSignalledTask mockSignal,
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final OutboundQueueStatistics mockStatistics)
+    {
+        // arrange
+        final List<Runnable> retries = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+                mockStatistics.getQueuedMessageCount();
+                returns(1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 1);
+                mockSignal.isStopped();
+                result = false;
+                mockScheduler.schedule((Runnable) any, anyLong, TimeUnit.MILLISECONDS);
+                result = new Delegate()
+                {
+                    ScheduledFuture<?> schedule(Runnable retry, long delay, TimeUnit unit)
+                    {
+                        retries.add(retry);
+                        delays.add(delay);
+                        return null;
+                    }
+                };
+            }
+        };
+        IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
+        sendTask.setRetrySignal(mockSignal, mockScheduler, 10);
+
+        // act
+        for (int i = 0; i < 14; i++)
+        {
+            sendTask.run();
+            if (!retries.isEmpty())
+            {
+                retries.remove(0).run();
+            }
+        }
+
+        // assert
+        assertEquals(Arrays.asList(10L, 20L, 40L, 80L, 160L, 320L, 640L, 1280L, 2560L, 5000L, 5000L, 5000L, 10L), delays);
+    }
+
+    // Tests_SRS_IOTHUBSENDTASK_45_004: [The function shall double the retry delay for the next retry, up to 5 seconds, or keep it if it is already longer.]
+    @Test
+    public void runKeepsRetryDelayLongerThanBackoffLimit(
+            @Mocked final IotHubSignalledTask mockSignal,
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final OutboundQueueStatistics mockStatistics)
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+                mockStatistics.getQueuedMessageCount();
+                result = 1;
+                mockSignal.isStopped();
+                result = false;
+            }
+        };
+        IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
+        sendTask.setRetrySignal(mockSignal, mockScheduler, 30000);
+
+        // act
+        sendTask.run();
+        final List<Runnable> retries = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(retries), anyLong, (TimeUnit) any);
+            }
+        };
+        retries.get(0).run();
+        sendTask.run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, 30000, TimeUnit.MILLISECONDS);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDTASK_45_002: [If a retry signal is set and messages are still queued after the pass, the function shall schedule the signal to be raised once after the retry delay, unless a retry is already scheduled.]
+    @Test
+    public void runDoesNotScheduleRetryIfQueueEmptyOrNoSignal(
+            @Mocked final IotHubSignalledTask mockSignal,
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final OutboundQueueStatistics mockStatistics)
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+                mockStatistics.getQueuedMessageCount();
+                result = 0;
+            }
+        };
+        IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
+
+        // act
+        sendTask.run();
+        sendTask.setRetrySignal(mockSignal, mockScheduler, 10);
+        sendTask.run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDTASK_45_003: [If the scheduler rejects the retry, the function shall drop it.]
+    @Test
+    public void runDropsRetryRejectedByScheduler(
+            @Mocked final IotHubSignalledTask mockSignal,
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final OutboundQueueStatistics mockStatistics)
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.getOutboundQueueStatistics();
+                result = mockStatistics;
+                mockStatistics.getQueuedMessageCount();
+                result = 1;
+                mockScheduler.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                result = new RejectedExecutionException();
+            }
+        };
+        IotHubSendTask sendTask = new IotHubSendTask(mockTransport);
+        sendTask.setRetrySignal(mockSignal, mockScheduler, 10);
+
+        // act
+        sendTask.run();
+        sendTask.run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                times = 2;
+            }
+        };
+    }
 }
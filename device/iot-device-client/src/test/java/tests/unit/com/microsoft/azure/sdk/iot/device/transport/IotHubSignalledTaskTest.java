@@ -0,0 +1,346 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSignalledTask. */
+public class IotHubSignalledTaskTest
+{
+    @Mocked
+    Runnable mockDrainTask;
+
+    @Mocked
+    Executor mockExecutor;
+
+    /** Executor that keeps the submitted tasks so the test decides when they run. */
+    private static class QueuedExecutor implements Executor
+    {
+        final List<Runnable> submitted = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command)
+        {
+            submitted.add(command);
+        }
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_001: [If the drainTask or the executor is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullDrainTask()
+    {
+        new IotHubSignalledTask(null, mockExecutor);
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_001: [If the drainTask or the executor is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullExecutor()
+    {
+        new IotHubSignalledTask(mockDrainTask, null);
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_002: [The constructor shall save the drainTask and the executor.]
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_004: [If no drain pass is pending or running, the function shall submit this task to the executor.]
+    @Test
+    public void signalSubmitsTaskToExecutor()
+    {
+        final IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor);
+
+        signalledTask.signal();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute(signalledTask);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_005: [If a drain pass is pending or running, the function shall only record the signal.]
+    @Test
+    public void signalCoalescesPendingSignals()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor);
+
+        signalledTask.signal();
+        signalledTask.signal();
+        signalledTask.signal();
+
+        assertEquals(1, executor.submitted.size());
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_010: [The function shall run the drain task.]
+    @Test
+    public void runRunsDrainTaskOnceForCoalescedSignals()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor);
+        signalledTask.signal();
+        signalledTask.signal();
+
+        executor.submitted.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockDrainTask.run();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_012: [If new signals arrived while the drain task was running, the function shall run the drain task again.]
+    @Test
+    public void runRunsDrainTaskAgainIfSignalledWhileRunning()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        final IotHubSignalledTask[] signalledTask = new IotHubSignalledTask[1];
+        final int[] runs = new int[1];
+        signalledTask[0] = new IotHubSignalledTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (runs[0]++ == 0)
+                {
+                    signalledTask[0].signal();
+                }
+            }
+        }, executor);
+        signalledTask[0].signal();
+
+        executor.submitted.get(0).run();
+
+        assertEquals(2, runs[0]);
+        assertEquals(1, executor.submitted.size());
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_017: [The function shall mark the current thread as running a drain pass while the drain task runs.]
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_018: [The function shall return true if the current thread is running a drain pass, false otherwise.]
+    @Test
+    public void runMarksThreadAsInDrainPassOnlyWhileDrainTaskRuns()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        final boolean[] isInDrainPass = new boolean[1];
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                isInDrainPass[0] = Deencapsulation.invoke(IotHubSignalledTask.class, "isInDrainPass");
+            }
+        }, executor);
+        boolean isInDrainPassBefore = Deencapsulation.invoke(IotHubSignalledTask.class, "isInDrainPass");
+        signalledTask.signal();
+
+        executor.submitted.get(0).run();
+
+        assertFalse(isInDrainPassBefore);
+        assertTrue(isInDrainPass[0]);
+        assertFalse((Boolean) Deencapsulation.invoke(IotHubSignalledTask.class, "isInDrainPass"));
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_004: [If no drain pass is pending or running, the function shall submit this task to the executor.]
+    @Test
+    public void signalAfterDrainSubmitsAgain()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor);
+        signalledTask.signal();
+        executor.submitted.get(0).run();
+
+        signalledTask.signal();
+
+        assertEquals(2, executor.submitted.size());
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_011: [The function shall not crash because of any error or exception thrown by the drain task.]
+    @Test
+    public void runDoesNotCrashFromThrowable()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockDrainTask.run();
+                result = new IllegalStateException("Test that drain does not crash.");
+            }
+        };
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor);
+        signalledTask.signal();
+
+        executor.submitted.get(0).run();
+
+        signalledTask.signal();
+        assertEquals(2, executor.submitted.size());
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_006: [If the executor rejects the task, the function shall clear the recorded signals.]
+    @Test
+    public void signalClearsSignalsIfExecutorRejects()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                result = new RejectedExecutionException();
+            }
+        };
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor);
+
+        signalledTask.signal();
+        signalledTask.signal();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_003: [If the task is stopped, the function shall do nothing.]
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_007: [The function shall mark the task as stopped.]
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_008: [The function shall return true if the task was stopped, false otherwise.]
+    @Test
+    public void signalDoesNothingWhenStopped()
+    {
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor);
+        assertFalse(signalledTask.isStopped());
+
+        signalledTask.stop();
+        signalledTask.signal();
+
+        assertTrue(signalledTask.isStopped());
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_009: [If the task is stopped, the function shall clear the recorded signals and return.]
+    @Test
+    public void runDoesNotDrainWhenStopped()
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor);
+        signalledTask.signal();
+        signalledTask.stop();
+
+        executor.submitted.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockDrainTask.run();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_013: [The constructor shall save the timer, if any.]
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_015: [The function shall schedule the task to be signalled once on the timer after the delay.]
+    @Test
+    public void signalAfterSignalsOnTimerAfterDelay(@Mocked final ScheduledExecutorService mockTimer)
+    {
+        QueuedExecutor executor = new QueuedExecutor();
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, executor, mockTimer);
+
+        signalledTask.signalAfter(500);
+
+        assertEquals(0, executor.submitted.size());
+        final List<Runnable> delayedSignals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockTimer.schedule(withCapture(delayedSignals), 500, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+
+        delayedSignals.get(0).run();
+        assertEquals(1, executor.submitted.size());
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_014: [If the task is stopped or has no timer, the function shall do nothing.]
+    @Test
+    public void signalAfterDoesNothingWithoutTimer()
+    {
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor);
+
+        signalledTask.signalAfter(500);
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_014: [If the task is stopped or has no timer, the function shall do nothing.]
+    @Test
+    public void signalAfterDoesNothingWhenStopped(@Mocked final ScheduledExecutorService mockTimer)
+    {
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor, mockTimer);
+        signalledTask.stop();
+
+        signalledTask.signalAfter(500);
+
+        new Verifications()
+        {
+            {
+                mockTimer.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSIGNALLEDTASK_45_016: [If the timer rejects the signal, the function shall drop it.]
+    @Test
+    public void signalAfterDropsSignalIfTimerRejects(@Mocked final ScheduledExecutorService mockTimer)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTimer.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                result = new RejectedExecutionException();
+            }
+        };
+        IotHubSignalledTask signalledTask = new IotHubSignalledTask(mockDrainTask, mockExecutor, mockTimer);
+
+        signalledTask.signalAfter(500);
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,214 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for IotHubTwinRequestTable.
+ * 100% methods, 100% lines covered
+ */
+public class IotHubTwinRequestTableTest
+{
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final long START_MILLIS = 1500000000000L;
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_001: [If the timeout is not positive, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroTimeout()
+    {
+        new IotHubTwinRequestTable(0);
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_001: [If the timeout is not positive, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNegativeTimeout()
+    {
+        new IotHubTwinRequestTable(-1);
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_002: [The constructor shall save the timeout and create an empty table.]
+    @Test
+    public void constructorCreatesEmptyTableWithDefaultTimeout()
+    {
+        //act
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable();
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+
+        //assert
+        assertTrue(table.removeExpired(START_MILLIS + IotHubTwinRequestTable.DEFAULT_TIMEOUT_MILLIS - 1).isEmpty());
+        assertEquals(1, table.removeExpired(START_MILLIS + IotHubTwinRequestTable.DEFAULT_TIMEOUT_MILLIS).size());
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_003: [If the request id or the operation is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addThrowsOnNullRequestId()
+    {
+        new IotHubTwinRequestTable(TIMEOUT_MILLIS).add(null, DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_003: [If the request id or the operation is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addThrowsOnNullOperation()
+    {
+        new IotHubTwinRequestTable(TIMEOUT_MILLIS).add("1", null, START_MILLIS);
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_004: [The function shall save the request with a deadline of the timeout after the provided time, replacing any request with the same id, and file it in the slot of the wheel of its deadline.]
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_006: [The function shall remove the request and return its operation.]
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_010: [The function shall return the number of requests that wait for their response.]
+    @Test
+    public void addSavesRequestAndRemoveReturnsItsOperation()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+
+        //act
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+        table.add("2", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, START_MILLIS);
+
+        //assert
+        assertEquals(2, table.size());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, table.remove("2"));
+        assertEquals(1, table.size());
+        assertNull(table.remove("2"));
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_005: [If the request id is null or no request with this id waits for its response, the function shall return null.]
+    @Test
+    public void removeReturnsNullForNullOrUnknownRequestId()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+
+        //act - assert
+        assertNull(table.remove(null));
+        assertNull(table.remove("2"));
+        assertEquals(1, table.size());
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_007: [The function shall visit the slots of the wheel from the tick of the last sweep up to the current tick, or every slot if it was never swept or a whole turn elapsed.]
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_009: [The function shall remove the requests of the visited slots whose deadline passed, unless they are answered meanwhile, and return their operations by request id.]
+    @Test
+    public void removeExpiredRemovesRequestsWhoseDeadlinePassed()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+        table.add("2", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, START_MILLIS + 3000);
+
+        //act
+        Map<String, DeviceOperations> beforeDeadline = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS - 1);
+        Map<String, DeviceOperations> afterFirstDeadline = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS);
+        Map<String, DeviceOperations> afterSecondDeadline = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS + 5000);
+
+        //assert
+        assertTrue(beforeDeadline.isEmpty());
+        assertEquals(1, afterFirstDeadline.size());
+        assertEquals(DEVICE_OPERATION_TWIN_GET_REQUEST, afterFirstDeadline.get("1"));
+        assertEquals(1, afterSecondDeadline.size());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, afterSecondDeadline.get("2"));
+        assertEquals(0, table.size());
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_007: [The function shall visit the slots of the wheel from the tick of the last sweep up to the current tick, or every slot if it was never swept or a whole turn elapsed.]
+    @Test
+    public void removeExpiredRemovesRequestsAfterMoreThanAWholeTurn()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        table.removeExpired(START_MILLIS);
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+
+        //act
+        Map<String, DeviceOperations> expiredRequests = table.removeExpired(START_MILLIS + 1000 * TIMEOUT_MILLIS);
+
+        //assert
+        assertEquals(1, expiredRequests.size());
+        assertEquals(0, table.size());
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_004: [The function shall save the request with a deadline of the timeout after the provided time, replacing any request with the same id, and file it in the slot of the wheel of its deadline.]
+    @Test
+    public void removeExpiredRemovesRequestWithDeadlineInSweptSlot()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        table.removeExpired(START_MILLIS + TIMEOUT_MILLIS);
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+
+        //act
+        Map<String, DeviceOperations> expiredRequests = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS + 1);
+
+        //assert
+        assertEquals(1, expiredRequests.size());
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_008: [The function shall drop from the visited slots the requests that were answered or replaced.]
+    @Test
+    public void removeExpiredSkipsAnsweredAndReplacedRequests()
+    {
+        //arrange
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        table.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+        table.add("2", DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS);
+        table.remove("1");
+        table.add("2", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, START_MILLIS + 5000);
+
+        //act
+        Map<String, DeviceOperations> atFirstDeadline = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS);
+        Map<String, DeviceOperations> atReplacedDeadline = table.removeExpired(START_MILLIS + TIMEOUT_MILLIS + 5000);
+
+        //assert
+        assertTrue(atFirstDeadline.isEmpty());
+        assertEquals(1, atReplacedDeadline.size());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, atReplacedDeadline.get("2"));
+    }
+
+    // Tests_SRS_IOTHUBTWINREQUESTTABLE_45_009: [The function shall remove the requests of the visited slots whose deadline passed, unless they are answered meanwhile, and return their operations by request id.]
+    @Test
+    public void removeExpiredSweepsLargeTableInDeadlineOrder()
+    {
+        //arrange
+        final int count = 100000;
+        IotHubTwinRequestTable table = new IotHubTwinRequestTable(TIMEOUT_MILLIS);
+        for (int i = 0; i < count; i++)
+        {
+            table.add(String.valueOf(i), DEVICE_OPERATION_TWIN_GET_REQUEST, START_MILLIS + i / 10);
+        }
+        for (int i = 0; i < count; i += 2)
+        {
+            table.remove(String.valueOf(i));
+        }
+
+        //act
+        int expiredCount = 0;
+        int lastExpired = -1;
+        for (long now = START_MILLIS; now <= START_MILLIS + TIMEOUT_MILLIS + count / 10; now += 100)
+        {
+            Iterator<String> expiredIds = table.removeExpired(now).keySet().iterator();
+            while (expiredIds.hasNext())
+            {
+                int expired = Integer.parseInt(expiredIds.next());
+                assertEquals(1, expired % 2);
+                assertTrue(expired > lastExpired);
+                lastExpired = expired;
+                expiredCount++;
+            }
+        }
+
+        //assert
+        assertEquals(count / 2, expiredCount);
+        assertEquals(0, table.size());
+    }
+}
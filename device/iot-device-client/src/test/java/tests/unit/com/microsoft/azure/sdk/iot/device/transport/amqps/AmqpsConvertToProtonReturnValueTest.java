@@ -8,6 +8,7 @@ import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsConvertToProtonReturnValue;
 import mockit.Deencapsulation;
 import mockit.Mocked;
+import mockit.Verifications;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Test;
 
@@ -58,4 +59,26 @@ public class AmqpsConvertToProtonReturnValueTest
         assertEquals(mockMessageImpl, actualMessageImpl);
         assertEquals(messageType, actualMessageType);
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_AMQPSCONVERTTOPROTONRETURNVALUE_45_001: [The function shall estimate the encoded length of messageImpl on the first call, and return the same value on the subsequent calls.]
+    @Test
+    public void getEstimatedLengthEstimatesOnce()
+    {
+        //arrange
+        AmqpsConvertToProtonReturnValue amqpsConvertToProtonReturnValue = Deencapsulation.newInstance(AmqpsConvertToProtonReturnValue.class, mockMessageImpl, MessageType.DEVICE_TELEMETRY);
+
+        //act
+        long estimatedLength = Deencapsulation.invoke(amqpsConvertToProtonReturnValue, "getEstimatedLength");
+        long estimatedLengthAgain = Deencapsulation.invoke(amqpsConvertToProtonReturnValue, "getEstimatedLength");
+
+        //assert
+        assertEquals(estimatedLength, estimatedLengthAgain);
+        new Verifications()
+        {
+            {
+                mockMessageImpl.getBody();
+                times = 1;
+            }
+        };
+    }
+}
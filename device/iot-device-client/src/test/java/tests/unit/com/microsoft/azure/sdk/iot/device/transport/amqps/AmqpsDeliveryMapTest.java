@@ -0,0 +1,307 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for AmqpsDeliveryMap.
+ * 100% methods covered
+ * 100% lines covered
+ */
+public class AmqpsDeliveryMapTest
+{
+    private static final String DELIVERY_MAP_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsDeliveryMap";
+
+    private static Object newDeliveryMap()
+    {
+        return Deencapsulation.newInstance(DELIVERY_MAP_CLASS);
+    }
+
+    private static void put(Object deliveryMap, long deliveryTag, Object value)
+    {
+        Deencapsulation.invoke(deliveryMap, "put", new Class[] { long.class, Object.class }, deliveryTag, value);
+    }
+
+    private static Object remove(Object deliveryMap, long deliveryTag)
+    {
+        return Deencapsulation.invoke(deliveryMap, "remove", new Class[] { long.class }, deliveryTag);
+    }
+
+    private static List<Object> removeRange(Object deliveryMap, long firstDeliveryTag, long lastDeliveryTag)
+    {
+        return Deencapsulation.invoke(deliveryMap, "removeRange", new Class[] { long.class, long.class }, firstDeliveryTag, lastDeliveryTag);
+    }
+
+    private static long[] removeRange(Object deliveryMap, long firstDeliveryTag, long lastDeliveryTag, List<Object> removed)
+    {
+        return Deencapsulation.invoke(deliveryMap, "removeRange", new Class[] { long.class, long.class, List.class }, firstDeliveryTag, lastDeliveryTag, removed);
+    }
+
+    private static int size(Object deliveryMap)
+    {
+        return Deencapsulation.invoke(deliveryMap, "size");
+    }
+
+    private static boolean isEmpty(Object deliveryMap)
+    {
+        return Deencapsulation.invoke(deliveryMap, "isEmpty");
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_001: [The constructor shall create an empty map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_007: [The function shall return the number of deliveries in the map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_008: [The function shall return true if there is no delivery in the map, and false otherwise.]
+    @Test
+    public void constructorCreatesEmptyMap()
+    {
+        // act
+        Object deliveryMap = newDeliveryMap();
+
+        // assert
+        assertEquals(0, size(deliveryMap));
+        assertTrue(isEmpty(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_002: [If the delivery tag is negative or the value is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsIfDeliveryTagIsNegative()
+    {
+        // act
+        put(newDeliveryMap(), -1, "value");
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_002: [If the delivery tag is negative or the value is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void putThrowsIfValueIsNull()
+    {
+        // act
+        put(newDeliveryMap(), 1, null);
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_003: [The function shall add the value of the delivery, or replace it if the delivery is already in the map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_004: [The function shall remove the delivery and return its value, or return null if the delivery is not in the map.]
+    @Test
+    public void putAddsOrReplacesValue()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+
+        // act
+        put(deliveryMap, 7, "first");
+        put(deliveryMap, 7, "second");
+
+        // assert
+        assertEquals(1, size(deliveryMap));
+        assertFalse(isEmpty(deliveryMap));
+        assertEquals("second", remove(deliveryMap, 7));
+        assertNull(remove(deliveryMap, 7));
+        assertNull(remove(deliveryMap, -1));
+        assertTrue(isEmpty(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_003: [The function shall add the value of the delivery, or replace it if the delivery is already in the map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_004: [The function shall remove the delivery and return its value, or return null if the delivery is not in the map.]
+    @Test
+    public void putGrowsMapBeyondInitialCapacity()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+        final int count = 10000;
+
+        // act
+        for (long deliveryTag = 0; deliveryTag < count; deliveryTag++)
+        {
+            put(deliveryMap, deliveryTag * 1000003, deliveryTag);
+        }
+
+        // assert
+        assertEquals(count, size(deliveryMap));
+        for (long deliveryTag = 0; deliveryTag < count; deliveryTag += 2)
+        {
+            assertEquals(deliveryTag, remove(deliveryMap, deliveryTag * 1000003));
+        }
+        for (long deliveryTag = 1; deliveryTag < count; deliveryTag += 2)
+        {
+            assertEquals(deliveryTag, remove(deliveryMap, deliveryTag * 1000003));
+        }
+        assertTrue(isEmpty(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_005: [The function shall remove the deliveries of the tags from the first to the last included, and return their values in delivery tag order.]
+    @Test
+    public void removeRangeReturnsValuesInDeliveryTagOrder()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+        for (long deliveryTag = 10; deliveryTag > 0; deliveryTag--)
+        {
+            put(deliveryMap, deliveryTag, deliveryTag);
+        }
+        remove(deliveryMap, 5);
+
+        // act
+        List<Object> removed = removeRange(deliveryMap, 3, 7);
+
+        // assert
+        assertArrayEquals(new Object[] { 3L, 4L, 6L, 7L }, removed.toArray());
+        assertEquals(5, size(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_005: [The function shall remove the deliveries of the tags from the first to the last included, and return their values in delivery tag order.]
+    @Test
+    public void removeRangeWiderThanMapReturnsValuesInDeliveryTagOrder()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+        put(deliveryMap, 5000000000L, "c");
+        put(deliveryMap, 100, "b");
+        put(deliveryMap, 1, "a");
+        put(deliveryMap, 6000000000L, "d");
+
+        // act
+        List<Object> removed = removeRange(deliveryMap, -10, 5000000000L);
+
+        // assert
+        assertArrayEquals(new Object[] { "a", "b", "c" }, removed.toArray());
+        assertEquals(1, size(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_009: [The function shall add the values of the deliveries removed to the provided list, and return their delivery tags in the same order.]
+    @Test
+    public void removeRangeWithListReturnsTagsOfRemovedValues()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+        put(deliveryMap, 7, "c");
+        put(deliveryMap, 2, "a");
+        put(deliveryMap, 4, "b");
+        put(deliveryMap, 5000000000L, "d");
+        List<Object> removed = new ArrayList<>();
+
+        // act
+        long[] removedTags = removeRange(deliveryMap, 1, 8, removed);
+        long[] widerRemovedTags = removeRange(deliveryMap, 0, Long.MAX_VALUE, removed);
+
+        // assert
+        assertArrayEquals(new Object[] { "a", "b", "c", "d" }, removed.toArray());
+        assertArrayEquals(new long[] { 2, 4, 7 }, removedTags);
+        assertArrayEquals(new long[] { 5000000000L }, widerRemovedTags);
+        assertTrue(isEmpty(deliveryMap));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_006: [The function shall remove all the deliveries and return their values in delivery tag order.]
+    @Test
+    public void removeAllReturnsValuesInDeliveryTagOrder()
+    {
+        // arrange
+        Object deliveryMap = newDeliveryMap();
+        put(deliveryMap, 30, "c");
+        put(deliveryMap, 10, "a");
+        put(deliveryMap, 20, "b");
+
+        // act
+        List<Object> removed = Deencapsulation.invoke(deliveryMap, "removeAll");
+
+        // assert
+        assertArrayEquals(new Object[] { "a", "b", "c" }, removed.toArray());
+        assertTrue(isEmpty(deliveryMap));
+        assertNull(remove(deliveryMap, 10));
+    }
+
+    // Tests_SRS_AMQPSDELIVERYMAP_45_003: [The function shall add the value of the delivery, or replace it if the delivery is already in the map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_004: [The function shall remove the delivery and return its value, or return null if the delivery is not in the map.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_005: [The function shall remove the deliveries of the tags from the first to the last included, and return their values in delivery tag order.]
+    // Tests_SRS_AMQPSDELIVERYMAP_45_006: [The function shall remove all the deliveries and return their values in delivery tag order.]
+    @Test
+    public void tenMillionSendsSettledOneByOneOrByRangeAreNeverMisattributed() throws Exception
+    {
+        // arrange
+        final int sends = 10000000;
+        final int window = 1000;
+        Class<?> deliveryMapClass = Class.forName(DELIVERY_MAP_CLASS);
+        Method putMethod = deliveryMapClass.getDeclaredMethod("put", long.class, Object.class);
+        Method removeMethod = deliveryMapClass.getDeclaredMethod("remove", long.class);
+        Method removeRangeMethod = deliveryMapClass.getDeclaredMethod("removeRange", long.class, long.class);
+        putMethod.setAccessible(true);
+        removeMethod.setAccessible(true);
+        removeRangeMethod.setAccessible(true);
+
+        Object deliveryMap = newDeliveryMap();
+        Random random = new Random(42);
+        BitSet settled = new BitSet(sends);
+        long firstUnsettled = 0;
+        long misattributed = 0;
+
+        // act
+        for (long deliveryTag = 0; deliveryTag < sends; deliveryTag++)
+        {
+            putMethod.invoke(deliveryMap, deliveryTag, deliveryTag);
+
+            if (deliveryTag - firstUnsettled + 1 < window)
+            {
+                continue;
+            }
+
+            if (random.nextInt(4) == 0)
+            {
+                // Settle the oldest deliveries at once, as a disposition of a range does.
+                long lastSettled = firstUnsettled + random.nextInt(window / 4);
+                int expected = (int) (lastSettled - firstUnsettled + 1) - settled.get((int) firstUnsettled, (int) lastSettled + 1).cardinality();
+                List<?> removed = (List<?>) removeRangeMethod.invoke(deliveryMap, firstUnsettled, lastSettled);
+
+                long previous = firstUnsettled - 1;
+                for (Object value : removed)
+                {
+                    long removedTag = (Long) value;
+                    if (removedTag <= previous || removedTag > lastSettled || settled.get((int) removedTag))
+                    {
+                        misattributed++;
+                    }
+                    settled.set((int) removedTag);
+                    previous = removedTag;
+                }
+                if (removed.size() != expected)
+                {
+                    misattributed++;
+                }
+                firstUnsettled = lastSettled + 1;
+            }
+            else
+            {
+                // Settle a single delivery of the window, in any order.
+                long settledTag = firstUnsettled + random.nextInt((int) (deliveryTag - firstUnsettled + 1));
+                Object value = removeMethod.invoke(deliveryMap, settledTag);
+                if (settled.get((int) settledTag) ? value != null : !Long.valueOf(settledTag).equals(value))
+                {
+                    misattributed++;
+                }
+                settled.set((int) settledTag);
+            }
+        }
+
+        List<Object> remaining = Deencapsulation.invoke(deliveryMap, "removeAll");
+
+        // assert
+        assertEquals(0, misattributed);
+        assertEquals(sends - settled.cardinality(), remaining.size());
+        long previous = -1;
+        for (Object value : remaining)
+        {
+            long remainingTag = (Long) value;
+            assertTrue(remainingTag > previous);
+            assertFalse(settled.get((int) remainingTag));
+            previous = remainingTag;
+        }
+        assertTrue(isEmpty(deliveryMap));
+    }
+}
@@ -132,63 +132,82 @@ public class AmqpsDeviceAuthenticationCBSTest
         };
     }
 
-    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_008: [The function shall doubles the buffer if encode throws BufferOverflowException.]
+    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_45_001: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
     @Test
-    public void sendAuthenticationMessagesDoubleBuffer()
+    public void sendAuthenticationMessagesEncodesAgainIfEncodeThrowsBufferOverflowException()
     {
         // arrange
         final AmqpsDeviceAuthenticationCBS amqpsDeviceAuthenticationCBS = new AmqpsDeviceAuthenticationCBS(mockDeviceClientConfig);
-        final byte[] bytes = new byte[1024];
         Deencapsulation.setField(amqpsDeviceAuthenticationCBS, "waitingMessages", mockQueue);
         Deencapsulation.setField(amqpsDeviceAuthenticationCBS, "senderLink", mockSender);
 
-        new StrictExpectations()
+        new NonStrictExpectations()
         {
             {
                 mockQueue.isEmpty();
-                result = false;
+                returns(false, true);
                 mockQueue.remove();
                 result = mockMessageImpl;
-                mockMessageImpl.encode(bytes, anyInt, anyInt);
+                mockMessageImpl.encode((byte[]) any, anyInt, anyInt);
                 result = new BufferOverflowException();
-                mockMessageImpl.encode((byte[])any, anyInt, anyInt);
-                mockQueue.isEmpty();
-                result = true;
+                result = 10;
             }
         };
 
         // act
         Deencapsulation.invoke(amqpsDeviceAuthenticationCBS, "sendAuthenticationMessages");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockQueue.remove();
+                times = 1;
+                mockMessageImpl.encode((byte[]) any, anyInt, anyInt);
+                times = 2;
+            }
+        };
     }
 
     // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_006: [The function shall read the message from the queue.]
     // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_007: [The function shall encode the message to a buffer.]
+    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_45_001: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
     // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_009: [The function shall set the delivery tag for the sender.]
-    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_010: [The function shall call the super class sendMessageAndGetDeliveryHash.]
+    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_45_002: [The function shall take the delivery tag from the AmqpsDeliveryTag counter shared by all the links.]
+    // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_010: [The function shall call the super class sendMessageAndGetDeliveryTag.]
     @Test
     public void sendAuthenticationMessagesSuccess()
     {
         // arrange
         final AmqpsDeviceAuthenticationCBS amqpsDeviceAuthenticationCBS = new AmqpsDeviceAuthenticationCBS(mockDeviceClientConfig);
-        final byte[] bytes = new byte[1024];
         Deencapsulation.setField(amqpsDeviceAuthenticationCBS, "waitingMessages", mockQueue);
         Deencapsulation.setField(amqpsDeviceAuthenticationCBS, "senderLink", mockSender);
 
-        new StrictExpectations()
+        new NonStrictExpectations()
         {
             {
                 mockQueue.isEmpty();
-                result = false;
+                returns(false, true);
                 mockQueue.remove();
                 result = mockMessageImpl;
-                mockMessageImpl.encode(bytes, anyInt, anyInt);
-                mockQueue.isEmpty();
-                result = true;
             }
         };
 
         // act
         Deencapsulation.invoke(amqpsDeviceAuthenticationCBS, "sendAuthenticationMessages");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockQueue.remove();
+                times = 1;
+                mockMessageImpl.encode((byte[]) any, anyInt, anyInt);
+                times = 1;
+                mockSender.send((byte[]) any, 0, anyInt);
+                times = 1;
+            }
+        };
     }
 
     // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_023: [The function shall call the super to get the message.]
@@ -188,7 +188,7 @@ public class AmqpsDeviceMethodsTest
 
     // Codes_SRS_AMQPSDEVICEMETHODS_12_010: [The function shall call the super function if the MessageType is DEVICE_METHODS, and return with it's return value.]
     @Test
-    public void sendMessageAndGetDeliveryHashCallsSuper() throws IOException
+    public void sendMessageAndGetDeliveryTagCallsSuper() throws IOException
     {
         //arrange
         String deviceId = "deviceId";
@@ -198,18 +198,18 @@ public class AmqpsDeviceMethodsTest
         Deencapsulation.invoke(amqpsDeviceMethods, "openLinks", mockSession);
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceMethods, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_METHODS, bytes, 0, 1, bytes);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceMethods, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_METHODS, bytes, 0, 1, 1L);
         boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertEquals(true, deliverySuccessful);
-        assertNotEquals(-1, deliveryHash);
+        assertNotEquals(-1, actualDeliveryTag);
     }
 
-    // Codes_SRS_AMQPSDEVICEMETHODS_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery hash.]
+    // Codes_SRS_AMQPSDEVICEMETHODS_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery tag.]
     @Test
-    public void sendMessageAndGetDeliveryHashReturnsFalse() throws IOException
+    public void sendMessageAndGetDeliveryTagReturnsFalse() throws IOException
     {
         //arrange
         String deviceId = "deviceId";
@@ -219,13 +219,13 @@ public class AmqpsDeviceMethodsTest
         Deencapsulation.invoke(amqpsDeviceMethods, "openLinks", mockSession);
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceMethods, "sendMessageAndGetDeliveryHash",MessageType.DEVICE_TWIN, bytes, 0, 1, bytes);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceMethods, "sendMessageAndGetDeliveryTag",MessageType.DEVICE_TWIN, bytes, 0, 1, 1L);
         boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertEquals(false, deliverySuccessful);
-        assertEquals(-1, deliveryHash);
+        assertEquals(-1, actualDeliveryTag);
     }
 
     // Codes_SRS_AMQPSDEVICEMETHODS_12_012: [The function shall call the super function.]
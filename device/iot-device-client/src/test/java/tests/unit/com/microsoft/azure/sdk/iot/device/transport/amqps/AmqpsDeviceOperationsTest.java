@@ -21,6 +21,7 @@ import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -470,104 +471,172 @@ public class AmqpsDeviceOperationsTest
     **Tests_SRS_AMQPSDEVICEOPERATIONS_12_019: [**The function shall throw IllegalStateException if the sender link is not initialized.**]**
      */
     @Test (expected = IllegalStateException.class)
-    public void sendMessageAndGetDeliveryHashThrowsIllegalStateExceptionIfSenderLinkNull()
+    public void sendMessageAndGetDeliveryTagThrowsIllegalStateExceptionIfSenderLinkNull()
     {
         //arrange
         AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
         byte[] msgData = new byte[1];
         int offset = 0;
         int length = 1;
-        byte[] deliveryTag = new byte[1];
+        long deliveryTag = 1L;
         Deencapsulation.setField(amqpsDeviceOperations, "senderLink", null);
 
         //act
-        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
     }
 
-    // Tests_SRS_AMQPSDEVICEOPERATIONS_12_020: [The function shall throw IllegalArgumentException if the deliveryTag length is zero.]
+    // Tests_SRS_AMQPSDEVICEOPERATIONS_45_003: [The function shall throw IllegalArgumentException if the deliveryTag is negative.]
     @Test (expected = IllegalArgumentException.class)
-    public void sendMessageAndGetDeliveryHashThrowsIllegalArgumentExceptionIfDeliveryTagNull()
+    public void sendMessageAndGetDeliveryTagThrowsIllegalArgumentExceptionIfDeliveryTagNegative()
     {
         //arrange
         AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
         final byte[] msgData = new byte[1];
         final int offset = 0;
         final int length = 1;
-        final byte[] deliveryTag = new byte[0];
+        final long deliveryTag = -1L;
         Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
 
         //act
-        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
     }
 
     /*
     **Tests_SRS_AMQPSDEVICEOPERATIONS_12_021: [**The function shall create a Delivery object using the sender link and the deliveryTag.**]**
     **Tests_SRS_AMQPSDEVICEOPERATIONS_12_022: [**The function shall try to send the message data using the sender link with the offset and length argument.**]**
     **Tests_SRS_AMQPSDEVICEOPERATIONS_12_023: [**The function shall advance the sender link.**]**
-    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_024: [**The function shall set the delivery hash to the value returned by the sender link.**]**
-    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_026: [**The function shall return with the delivery hash.**]**
+    **Tests_SRS_AMQPSDEVICEOPERATIONS_45_004: [**The function shall return the delivery tag if the sender link sent the message.**]**
+    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_026: [**The function shall return with the delivery tag.**]**
     */
     @Test
-    public void sendMessageAndGetDeliveryHashSendSuccessful()
+    public void sendMessageAndGetDeliveryTagSendSuccessful()
     {
         //arrange
         AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
         final byte[] msgData = new byte[1];
         final int offset = 0;
         final int length = 1;
-        final byte[] deliveryTag = new byte[1];
+        final long deliveryTag = 1234567L;
         Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
 
         new NonStrictExpectations()
         {
             {
-                mockSender.delivery(deliveryTag);
+                mockSender.delivery((byte[]) any);
                 result = mockDelivery;
-                mockDelivery.hashCode();
-                result = new byte[1];
             }
         };
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
 
         //assert
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
-        assertTrue(deliveryHash != -1);
+        boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
+        assertTrue(deliverySuccessful);
+        assertEquals(deliveryTag, actualDeliveryTag);
         new Verifications()
         {
             {
-                mockSender.delivery(deliveryTag);
+                mockSender.delivery("1234567".getBytes(StandardCharsets.US_ASCII));
                 times = 1;
                 mockSender.send(msgData, offset, length);
                 times = 1;
                 mockSender.advance();
                 times = 1;
-                mockDelivery.hashCode();
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSDEVICEOPERATIONS_45_005: [The function shall send the batch like a message, with a delivery of the batch message format.]
+    @Test
+    public void sendBatchAndGetDeliveryTagSendsDeliveryOfBatchMessageFormat()
+    {
+        //arrange
+        AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
+        final byte[] msgData = new byte[1];
+        final int offset = 0;
+        final int length = 1;
+        final long deliveryTag = 1234567L;
+        Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        //act
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceOperations, "sendBatchAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+
+        //assert
+        boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
+        assertTrue(deliverySuccessful);
+        assertEquals(deliveryTag, actualDeliveryTag);
+        new Verifications()
+        {
+            {
+                mockDelivery.setMessageFormat(0x80013700);
+                times = 1;
+                mockSender.send(msgData, offset, length);
+                times = 1;
+                mockSender.advance();
                 times = 1;
             }
         };
     }
 
+    // Tests_SRS_AMQPSDEVICEOPERATIONS_45_005: [The function shall send the batch like a message, with a delivery of the batch message format.]
+    @Test
+    public void sendMessageAndGetDeliveryTagKeepsDefaultMessageFormat()
+    {
+        //arrange
+        AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
+        Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, new byte[1], 0, 1, 1L);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockDelivery.setMessageFormat(anyInt);
+                times = 0;
+            }
+        };
+    }
+
     /*
-    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_025: [**If proton failed sending the function shall advance the sender link, release the delivery object and sets the delivery hash to -1.**]**
-    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_026: [**The function shall return with the delivery hash.**]**
+    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_025: [**If proton failed sending the function shall advance the sender link, release the delivery object and sets the delivery tag to -1.**]**
+    **Tests_SRS_AMQPSDEVICEOPERATIONS_12_026: [**The function shall return with the delivery tag.**]**
      */
     @Test
-    public void sendMessageAndGetDeliveryHashSendFails()
+    public void sendMessageAndGetDeliveryTagSendFails()
     {
         //arrange
         AmqpsDeviceOperations amqpsDeviceOperations = Deencapsulation.newInstance(AmqpsDeviceOperations.class);
         final byte[] msgData = new byte[1];
         final int offset = 0;
         final int length = 1;
-        final byte[] deliveryTag = new byte[1];
+        final long deliveryTag = 1L;
         Deencapsulation.setField(amqpsDeviceOperations, "senderLink", mockSender);
 
         new NonStrictExpectations()
         {
             {
-                mockSender.delivery(deliveryTag);
+                mockSender.delivery((byte[]) any);
                 result = mockDelivery;
                 mockSender.send(msgData, offset, length);
                 result = new Exception();
@@ -576,11 +645,11 @@ public class AmqpsDeviceOperationsTest
         };
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceOperations, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
 
         //assert
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
-        assertTrue(deliveryHash == -1);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
+        assertTrue(actualDeliveryTag == -1);
         new Verifications()
         {
             {
@@ -180,31 +180,31 @@ public class AmqpsDeviceTelemetryTest
     **Tests_SRS_AMQPSDEVICETELEMETRY_12_006: [**The function shall return an AmqpsSendReturnValue object with false and -1 if the message type is not telemetry.**]**
     */
     @Test
-    public void sendMessageAndGetDeliveryHashReturnsFalseIfMessageTypeIsNotDeviceTelemetry() throws IOException
+    public void sendMessageAndGetDeliveryTagReturnsFalseIfMessageTypeIsNotDeviceTelemetry() throws IOException
     {
         //arrange
         AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
         final byte[] msgData = new byte[1];
         final int offset = 0;
         final int length = 1;
-        final byte[] deliveryTag = new byte[0];
+        final long deliveryTag = 1L;
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_METHODS, msgData, offset, length, deliveryTag);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_METHODS, msgData, offset, length, deliveryTag);
         boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
 
         //assert
         assertEquals(false, deliverySuccessful);
-        assertEquals(-1, deliveryHash);
+        assertEquals(-1, actualDeliveryTag);
     }
 
     /*
     **Tests_SRS_AMQPSDEVICETELEMETRY_12_007: [**The function shall call the ssuper function with the arguments and return with it's return value.**]**
     */
     @Test
-    public void sendMessageAndGetDeliveryHashReturnsWithSuperResult() throws IOException
+    public void sendMessageAndGetDeliveryTagReturnsWithSuperResult() throws IOException
     {
         //arrange
         AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
@@ -212,16 +212,51 @@ public class AmqpsDeviceTelemetryTest
         final byte[] msgData = new byte[1];
         final int offset = 0;
         final int length = 1;
-        final byte[] deliveryTag = new byte[1];
+        final long deliveryTag = 1L;
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, msgData, offset, length, deliveryTag);
             boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-            int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+            long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
+
+        //assert
+        assertTrue(deliverySuccessful);
+        assertTrue(actualDeliveryTag > 0);
+    }
+
+    // Tests_SRS_AMQPSDEVICETELEMETRY_45_002: [The function shall return an AmqpsSendReturnValue object with false and -1 if the message type is not DEVICE_TELEMETRY.]
+    @Test
+    public void sendBatchAndGetDeliveryTagReturnsFalseIfMessageTypeIsNotDeviceTelemetry() throws IOException
+    {
+        //arrange
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+
+        //act
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendBatchAndGetDeliveryTag", MessageType.DEVICE_TWIN, new byte[1], 0, 1, 1L);
+        boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
+
+        //assert
+        assertEquals(false, deliverySuccessful);
+        assertEquals(-1, actualDeliveryTag);
+    }
+
+    // Tests_SRS_AMQPSDEVICETELEMETRY_45_001: [The function shall call the super function with the arguments and return with it's return value.]
+    @Test
+    public void sendBatchAndGetDeliveryTagReturnsWithSuperResult() throws IOException
+    {
+        //arrange
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+        Deencapsulation.invoke(amqpsDeviceTelemetry, "openLinks", mockSession);
+
+        //act
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTelemetry, "sendBatchAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, new byte[1], 0, 1, 1L);
+        boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertTrue(deliverySuccessful);
-        assertTrue(deliveryHash > 0);
+        assertEquals(1L, actualDeliveryTag);
     }
 
     /*
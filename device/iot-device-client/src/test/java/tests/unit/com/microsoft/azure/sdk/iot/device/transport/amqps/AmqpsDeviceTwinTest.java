@@ -7,6 +7,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.*;
 import mockit.Deencapsulation;
 import mockit.Mocked;
@@ -23,6 +24,7 @@ import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -76,7 +78,7 @@ public class AmqpsDeviceTwinTest
     // Tests_SRS_AMQPSDEVICETWIN_12_005: [The constructor shall insert the given deviceId argument to the sender and receiver link address.]
     // Tests_SRS_AMQPSDEVICETWIN_12_006: [The constructor shall add the API version key to the amqpProperties.]
     // Tests_SRS_AMQPSDEVICETWIN_12_007: [The constructor shall generate a UUID amd add it as a correlation ID to the amqpProperties.]
-    // Tests_SRS_AMQPSDEVICETWIN_12_009: [The constructor shall create a HashMap for correlationId list.]
+    // Tests_SRS_AMQPSDEVICETWIN_12_009: [The constructor shall create a request table for correlationId list.]
     @Test
     public void constructorInitializesAllMembers(
             @Mocked final UUID mockUUID
@@ -131,7 +133,7 @@ public class AmqpsDeviceTwinTest
         assertTrue(amqpsProperties.containsKey(Symbol.getSymbol(API_VERSION_KEY)));
         assertTrue(amqpsProperties.containsKey(Symbol.getSymbol(CORRELATION_ID_KEY)));
 
-        Map<String, DeviceOperations> correlationIdList = Deencapsulation.getField(amqpsDeviceTwin, "correlationIdList");
+        IotHubTwinRequestTable correlationIdList = Deencapsulation.getField(amqpsDeviceTwin, "correlationIdList");
         assertNotNull(correlationIdList);
     }
 
@@ -223,7 +225,7 @@ public class AmqpsDeviceTwinTest
 
     // Tests_SRS_AMQPSDEVICETWIN_12_010: [The function shall call the super function if the MessageType is DEVICE_TWIN, and return with it's return value.]
     @Test
-    public void sendMessageAndGetDeliveryHashCallsSuper() throws IOException
+    public void sendMessageAndGetDeliveryTagCallsSuper() throws IOException
     {
         //arrange
         String deviceId = "deviceId";
@@ -235,18 +237,18 @@ public class AmqpsDeviceTwinTest
         //act
 
 
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTwin, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TWIN, bytes, 0, 1, bytes);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTwin, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TWIN, bytes, 0, 1, 1L);
         boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertTrue(deliverySuccessful);
-        assertNotEquals(-1, deliveryHash);
+        assertNotEquals(-1, actualDeliveryTag);
     }
 
-    // Tests_SRS_AMQPSDEVICETWIN_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery hash.]
+    // Tests_SRS_AMQPSDEVICETWIN_12_011: [The function shall return with AmqpsSendReturnValue with false success and -1 delivery tag.]
     @Test
-    public void sendMessageAndGetDeliveryHashReturnsFalse() throws IOException
+    public void sendMessageAndGetDeliveryTagReturnsFalse() throws IOException
     {
         //arrange
         String deviceId = "deviceId";
@@ -256,13 +258,13 @@ public class AmqpsDeviceTwinTest
         Deencapsulation.invoke(amqpsDeviceTwin, "openLinks", mockSession);
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTwin, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_METHODS, bytes, 0, 1, bytes);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.invoke(amqpsDeviceTwin, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_METHODS, bytes, 0, 1, 1L);
         boolean deliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int deliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertFalse(deliverySuccessful);
-        assertEquals(-1, deliveryHash);
+        assertEquals(-1, actualDeliveryTag);
     }
 
     // Tests_SRS_AMQPSDEVICETWIN_12_012: [The function shall call the super function.]
@@ -753,7 +755,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertFromProtonPropertiesCorrelationIdGetRequest(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final DeviceClientConfig mockDeviceClientConfig
     ) throws IOException
     {
@@ -781,9 +783,7 @@ public class AmqpsDeviceTwinTest
                 mockProperties.getCorrelationId();
                 result = correlationId;
 
-                mockCorrelationIdList.containsKey(correlationId.toString());
-                result = true;
-                mockCorrelationIdList.get(correlationId.toString());
+                mockCorrelationIdList.remove(correlationId.toString());
                 result = DEVICE_OPERATION_TWIN_GET_REQUEST;
 
                 mockProperties.getMessageId();
@@ -820,7 +820,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertFromProtonPropertiesCorrelationIdUpdateReportedPropertiesRequest(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final DeviceClientConfig mockDeviceClientConfig
     ) throws IOException
     {
@@ -848,9 +848,7 @@ public class AmqpsDeviceTwinTest
                 mockProperties.getCorrelationId();
                 result = correlationId;
 
-                mockCorrelationIdList.containsKey(correlationId.toString());
-                result = true;
-                mockCorrelationIdList.get(correlationId.toString());
+                mockCorrelationIdList.remove(correlationId.toString());
                 result = DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST;
 
                 mockProperties.getMessageId();
@@ -887,7 +885,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertFromProtonPropertiesCorrelationIdSubscribeDesiredPropertiesRequest(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final DeviceClientConfig mockDeviceClientConfig
     ) throws IOException
     {
@@ -915,9 +913,7 @@ public class AmqpsDeviceTwinTest
                 mockProperties.getCorrelationId();
                 result = correlationId;
 
-                mockCorrelationIdList.containsKey(correlationId.toString());
-                result = true;
-                mockCorrelationIdList.get(correlationId.toString());
+                mockCorrelationIdList.remove(correlationId.toString());
                 result = DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
 
                 mockProperties.getMessageId();
@@ -954,7 +950,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertFromProtonPropertiesCorrelationIdUnSubscribeDesiredPropertiesRequest(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final DeviceClientConfig mockDeviceClientConfig
     ) throws IOException
     {
@@ -982,9 +978,7 @@ public class AmqpsDeviceTwinTest
                 mockProperties.getCorrelationId();
                 result = correlationId;
 
-                mockCorrelationIdList.containsKey(correlationId.toString());
-                result = true;
-                mockCorrelationIdList.get(correlationId.toString());
+                mockCorrelationIdList.remove(correlationId.toString());
                 result = DEVICE_OPERATION_TWIN_UNSUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
 
                 mockProperties.getMessageId();
@@ -1021,7 +1015,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertFromProtonPropertiesCorrelationIdRemoves(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final DeviceClientConfig mockDeviceClientConfig
     ) throws IOException
     {
@@ -1049,9 +1043,7 @@ public class AmqpsDeviceTwinTest
                 mockProperties.getCorrelationId();
                 result = correlationId;
 
-                mockCorrelationIdList.containsKey(correlationId.toString());
-                result = true;
-                mockCorrelationIdList.get(correlationId.toString());
+                mockCorrelationIdList.remove(correlationId.toString());
                 result = DEVICE_OPERATION_TWIN_UNSUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
 
                 mockProperties.getMessageId();
@@ -1346,7 +1338,7 @@ public class AmqpsDeviceTwinTest
     @Test
     public void convertToProtonSetsProperties(
             @Mocked final Properties mockProperties,
-            @Mocked final Map<String, DeviceOperations> mockCorrelationIdList,
+            @Mocked final IotHubTwinRequestTable mockCorrelationIdList,
             @Mocked final IotHubTransportMessage mockIotHubTransportMessage,
             @Mocked final MessageImpl mockMessageImpl,
             @Mocked final UUID mockUUID
@@ -1388,7 +1380,7 @@ public class AmqpsDeviceTwinTest
                 times = 1;
                 mockProperties.setCorrelationId(any);
                 times = 1;
-                mockCorrelationIdList.put(anyString, (DeviceOperations) any);
+                mockCorrelationIdList.add(anyString, (DeviceOperations) any, anyLong);
                 times = 1;
                 mockMessageImpl.setProperties(mockProperties);
                 times = 1;
@@ -1846,4 +1838,41 @@ public class AmqpsDeviceTwinTest
         // act - assert
         Deencapsulation.invoke(amqpsDeviceTwin, "iotHubMessageToProtonMessage", mockedIotHubTransportMessage);
     }
+
+    // Tests_SRS_AMQPSDEVICETWIN_45_001: [The function shall remove the requests whose deadline passed from the correlationId list and return for each a response with an empty body, the correlationId of the request, the status TIMEOUT_STATUS and the response operation type of the request, with the device twin message callback and context of the configuration.]
+    // Tests_SRS_AMQPSDEVICETWIN_45_002: [The function shall return the number of requests in the correlationId list.]
+    @Test
+    public void removeExpiredRequestsReturnsTimeoutResponses()
+    {
+        //arrange
+        final Object messageContext = "context";
+        AmqpsDeviceTwin amqpsDeviceTwin = Deencapsulation.newInstance(AmqpsDeviceTwin.class, mockDeviceClientConfig);
+        IotHubTwinRequestTable correlationIdList = new IotHubTwinRequestTable(1000);
+        correlationIdList.add("correlationId1", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, 0);
+        correlationIdList.add("correlationId2", DEVICE_OPERATION_TWIN_GET_REQUEST, 60000);
+        Deencapsulation.setField(amqpsDeviceTwin, "correlationIdList", correlationIdList);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceClientConfig.getDeviceTwinMessageCallback();
+                result = mockMessageCallback;
+                mockDeviceClientConfig.getDeviceTwinMessageContext();
+                result = messageContext;
+            }
+        };
+
+        //act
+        List<AmqpsConvertFromProtonReturnValue> timeoutResponses = Deencapsulation.invoke(amqpsDeviceTwin, "removeExpiredRequests", 30000L);
+
+        //assert
+        assertEquals(1, timeoutResponses.size());
+        IotHubTransportMessage actualMessage = Deencapsulation.getField(timeoutResponses.get(0), "message");
+        assertEquals("correlationId1", actualMessage.getCorrelationId());
+        assertEquals(IotHubTwinRequestTable.TIMEOUT_STATUS, actualMessage.getStatus());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE, actualMessage.getDeviceOperationType());
+        assertEquals(0, actualMessage.getBytes().length);
+        assertEquals(mockMessageCallback, Deencapsulation.getField(timeoutResponses.get(0), "messageCallback"));
+        assertEquals(messageContext, Deencapsulation.getField(timeoutResponses.get(0), "messageContext"));
+        assertEquals(1, (int) Deencapsulation.invoke(amqpsDeviceTwin, "getPendingRequestCount"));
+    }
 }
@@ -15,6 +15,7 @@ import com.microsoft.azure.sdk.iot.device.transport.amqps.*;
 import mockit.*;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
 import org.apache.qpid.proton.amqp.messaging.Source;
 import org.apache.qpid.proton.amqp.messaging.Target;
 import org.apache.qpid.proton.engine.*;
@@ -27,12 +28,14 @@ import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -49,6 +52,7 @@ public class AmqpsIotHubConnectionTest {
     final String deviceKey = "test-devicekey?&test";
     final String amqpPort = "5671";
     final String amqpWebSocketPort = "443";
+    private static final String SENDER_LINK_NAME = "telemetry_sender_link";
 
     @Mocked
     protected Handshaker mockHandshaker;
@@ -963,62 +967,362 @@ public class AmqpsIotHubConnectionTest {
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
 
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
         Deencapsulation.setField(connection, "state", State.CLOSED);
-        Deencapsulation.setField(connection, "linkCredit", 100);
+        grantCredit(connection, SENDER_LINK_NAME, 100);
 
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create(), MessageType.DEVICE_TELEMETRY, mockConnectionString);
+        long actualDeliveryTag = connection.sendMessage(Message.Factory.create(), MessageType.DEVICE_TELEMETRY, mockConnectionString);
 
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        assertEquals(-1L, actualDeliveryTag);
     }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
     // credit, the function shall return -1.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_006: [The function shall take the credit to send the message from the send window of the sender link of the message type and the device of the connection string.]
     @Test
     public void sendMessageDoesNothingIfNotEnoughLinkCredit() throws IOException
     {
         baseExpectations();
+        senderLinkExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 0);
+
+        long actualDeliveryTag = connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        assertEquals(-1L, actualDeliveryTag);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_006: [The function shall take the credit to send the message from the send window of the sender link of the message type and the device of the connection string.]
+    @Test
+    public void sendMessageDoesNothingIfNoFlowOnSenderLink() throws IOException
+    {
+        baseExpectations();
+        senderLinkExpectations();
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
 
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", -1);
+        grantCredit(connection, "otherLinkName", 100);
 
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = connection.sendMessage(Message.Factory.create(), MessageType.DEVICE_TELEMETRY, mockConnectionString);
+        long actualDeliveryTag = connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
 
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        assertEquals(-1L, actualDeliveryTag);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_006: [The function shall take the credit to send the message from the send window of the sender link of the message type and the device of the connection string.]
+    @Test
+    public void sendMessageSendsAsManyMessagesAsLinkCredit() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = 42L;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 3);
+
+        // act
+        int sentCount = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            if (connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString) != -1)
+            {
+                sentCount++;
+            }
+        }
+
+        // assert
+        assertEquals(3, sentCount);
+        SendCreditStatistics statistics = connection.getSendCreditStatistics();
+        assertTrue(statistics.isCreditStarved());
+        assertEquals(0L, statistics.getAvailableCredit());
+        assertEquals(0L, statistics.getDeferredSendCount());
+        assertEquals(1L, statistics.getStarvationCount());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_007: [If the message was not sent, the function shall give the credit back to the send window.]
+    @Test
+    public void sendMessageGivesCreditBackIfMessageNotSent() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = -1L;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 1);
+
+        // act
+        long actualDeliveryTag = connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertEquals(-1L, actualDeliveryTag);
+        assertEquals(1L, connection.getSendCreditStatistics().getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_013: [The function shall take one credit of the send window of the telemetry sender link of the device for the whole batch.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_014: [The function shall call AmqpsSessionManager.sendMessageBatch with the given parameters, and give the credit back to the send window if the batch was not sent.]
+    @Test
+    public void sendMessageBatchTakesOneCreditPerBatch() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+        final List<Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessageBatch", messages, mockConnectionString);
+                result = 42L;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 2);
+
+        // act
+        long actualDeliveryTag = connection.sendMessageBatch(messages, mockConnectionString);
+
+        // assert
+        assertEquals(42L, actualDeliveryTag);
+        assertEquals(1L, connection.getSendCreditStatistics().getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_014: [The function shall call AmqpsSessionManager.sendMessageBatch with the given parameters, and give the credit back to the send window if the batch was not sent.]
+    @Test
+    public void sendMessageBatchGivesCreditBackIfBatchNotSent() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+        final List<Message> messages = new ArrayList<>();
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessageBatch", messages, mockConnectionString);
+                result = -1L;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 1);
+
+        // act
+        long actualDeliveryTag = connection.sendMessageBatch(messages, mockConnectionString);
+
+        // assert
+        assertEquals(-1L, actualDeliveryTag);
+        assertEquals(1L, connection.getSendCreditStatistics().getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_012: [If the state of the connection is CLOSED or the telemetry sender link of the device has no credit, the function shall return -1.]
+    @Test
+    public void sendMessageBatchDoesNothingIfNotEnoughLinkCredit() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+        final List<Message> messages = new ArrayList<>();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        grantCredit(connection, SENDER_LINK_NAME, 0);
+
+        // act
+        long actualDeliveryTag = connection.sendMessageBatch(messages, mockConnectionString);
+
+        // assert
+        assertEquals(-1L, actualDeliveryTag);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessageBatch", messages, mockConnectionString);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_015: [The function shall return true if the session manager resolves the name of the sender link of the message type and the device of the connection string, and false otherwise.]
+    @Test
+    public void hasSenderLinkReturnsTrueIfLinkResolved() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+
+        // act
+        boolean hasSenderLink = connection.hasSenderLink(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertTrue(hasSenderLink);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_015: [The function shall return true if the session manager resolves the name of the sender link of the message type and the device of the connection string, and false otherwise.]
+    @Test
+    public void hasSenderLinkReturnsFalseIfLinkNotResolved() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = null;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+
+        // act
+        boolean hasSenderLink = connection.hasSenderLink(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertFalse(hasSenderLink);
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_008: [The function shall return false if the send window of the sender link of the message type and the device of the connection string has credit, and true otherwise.]
+    @Test
+    public void isSendCreditStarvedReturnsFalseIfLinkHasCredit() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        grantCredit(connection, SENDER_LINK_NAME, 1);
+
+        // act
+        boolean isStarved = connection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertFalse(isStarved);
+        assertEquals(1L, connection.getSendCreditStatistics().getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_008: [The function shall return false if the send window of the sender link of the message type and the device of the connection string has credit, and true otherwise.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_009: [The function shall return the statistics of the send window.]
+    @Test
+    public void isSendCreditStarvedReturnsTrueIfLinkHasNoCredit() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        grantCredit(connection, SENDER_LINK_NAME, 0);
+
+        // act
+        boolean isStarved = connection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertTrue(isStarved);
+        SendCreditStatistics statistics = connection.getSendCreditStatistics();
+        assertTrue(statistics.isCreditStarved());
+        assertEquals(1, statistics.getStarvedLinkCount());
+        assertEquals(1L, statistics.getStarvationCount());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_016: [The function shall count a deferred send on the send window of the sender link of the message type and the device of the connection string.]
+    @Test
+    public void countDeferredSendCountsOnSendWindow() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+
+        // act
+        connection.countDeferredSend(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+
+        // assert
+        assertEquals(1L, connection.getSendCreditStatistics().getDeferredSendCount());
     }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_12_024: [The function shall call AmqpsSessionManager.sendMessage with the given parameters.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery tag.]
     @Test
     public void sendMessage() throws IOException
     {
         // arrange
         baseExpectations();
+        senderLinkExpectations();
 
         final byte[] messageBytes = new byte[] {1, 2};
-        final Integer expectedDeliveryHash = 42;
+        final long expectedDeliveryTag = 42;
 
         new NonStrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
-                result = expectedDeliveryHash;
+                result = expectedDeliveryTag;
             }
         };
 
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
         Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
         Deencapsulation.setField(connection, "state", State.OPEN);
-        Deencapsulation.setField(connection, "linkCredit", 100);
+        grantCredit(connection, SENDER_LINK_NAME, 100);
 
         // act
-        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+        long actualDeliveryTag = connection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
 
         // assert
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        assertEquals(expectedDeliveryTag, actualDeliveryTag);
 
         new Verifications()
         {
@@ -1480,7 +1784,8 @@ public class AmqpsIotHubConnectionTest {
     }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) tag to inform the AmqpsIotHubConnection of the message receipt.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_004: [The event handler shall notify the listeners of the settled deliveries not notified yet.]
     @Test
     public void onDeliverySend(
     ) throws IOException
@@ -1503,7 +1808,8 @@ public class AmqpsIotHubConnectionTest {
                 result = mockDelivery;
                 mockDelivery.getRemoteState();
                 result = Accepted.getInstance();
-                mockServerListener.messageSent(anyInt, true);
+                mockDelivery.getTag();
+                result = "42".getBytes();
                 Deencapsulation.invoke(mockAmqpsSessionManager, "getMessageFromReceiverLink", receiverLinkName);
                 result = null;
             }
@@ -1511,6 +1817,7 @@ public class AmqpsIotHubConnectionTest {
 
         connection.addListener(mockServerListener);
         connection.onDelivery(mockEvent);
+        connection.onReactorQuiesced(mockEvent);
 
         new Verifications()
         {
@@ -1521,7 +1828,7 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockDelivery.getRemoteState();
                 times = 1;
-                mockServerListener.messageSent(mockDelivery.hashCode(), true);
+                mockServerListener.messagesSent(42, 42, true);
                 times = 1;
                 mockDelivery.free();
                 times = 1;
@@ -1529,6 +1836,69 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_003: [If the delivery follows the settled deliveries with the same state, the event handler shall add it to them, and otherwise notify the listeners of the settled deliveries and start new ones with the delivery.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_004: [The event handler shall notify the listeners of the settled deliveries not notified yet.]
+    @Test
+    public void onDeliveryNotifiesConsecutiveSettledDeliveriesAsOneRange() throws IOException
+    {
+        baseExpectations();
+        final String receiverLinkName = "receiver";
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockLink;
+                mockLink.getName();
+                result = receiverLinkName;
+                mockEvent.getType();
+                result = Event.Type.DELIVERY;
+                mockEvent.getDelivery();
+                result = mockDelivery;
+                mockDelivery.getRemoteState();
+                returns(Accepted.getInstance(), Accepted.getInstance(), Accepted.getInstance(), new Rejected(), Accepted.getInstance(), Accepted.getInstance());
+                mockDelivery.getTag();
+                returns("5".getBytes(), "6".getBytes(), "7".getBytes(), "8".getBytes(), "10".getBytes(), "not-a-tag".getBytes());
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getMessageFromReceiverLink", receiverLinkName);
+                result = null;
+            }
+        };
+
+        connection.addListener(mockServerListener);
+
+        // act
+        for (int i = 0; i < 6; i++)
+        {
+            connection.onDelivery(mockEvent);
+        }
+        connection.onReactorQuiesced(mockEvent);
+        connection.onReactorQuiesced(mockEvent);
+
+        // assert
+        new VerificationsInOrder()
+        {
+            {
+                mockServerListener.messagesSent(5, 7, true);
+                times = 1;
+                mockServerListener.messagesSent(8, 8, false);
+                times = 1;
+                mockServerListener.messagesSent(10, 10, true);
+                times = 1;
+            }
+        };
+        new Verifications()
+        {
+            {
+                mockServerListener.messagesSent(anyLong, anyLong, anyBoolean);
+                times = 3;
+                mockDelivery.free();
+                times = 6;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_12_016: [The function shall get the link from the event and call device operation objects with it.]
     @Test
     public void onLinkInit() throws IOException
@@ -1561,6 +1931,8 @@ public class AmqpsIotHubConnectionTest {
             {
                 mockEvent.getLink();
                 result = mockSender;
+                mockSender.getName();
+                result = SENDER_LINK_NAME;
                 mockSender.getCredit();
                 result = 100;
             }
@@ -1569,10 +1941,7 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
         connection.onLinkFlow(mockEvent);
 
-        Integer expectedLinkCredit = 100;
-        Integer actualLinkCredit = Deencapsulation.getField(connection, "linkCredit");
-
-        assertEquals(expectedLinkCredit, actualLinkCredit);
+        assertEquals(100L, connection.getSendCreditStatistics().getAvailableCredit());
 
         new Verifications()
         {
@@ -1585,6 +1954,85 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_010: [If the link was starved and the flow granted it credit, the event handler shall notify the listeners that send credit is available.]
+    @Test
+    public void onLinkFlowNotifiesListenersIfStarvedLinkGetsCredit() throws IOException
+    {
+        // arrange
+        baseExpectations();
+        senderLinkExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = SENDER_LINK_NAME;
+                mockSender.getCredit();
+                result = 0;
+                result = 10;
+                result = 20;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
+        connection.addListener(mockServerListener);
+
+        // act
+        connection.onLinkFlow(mockEvent);
+        connection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, mockConnectionString);
+        connection.onLinkFlow(mockEvent);
+        connection.onLinkFlow(mockEvent);
+
+        // assert
+        assertFalse(connection.getSendCreditStatistics().isCreditStarved());
+        assertEquals(20L, connection.getSendCreditStatistics().getAvailableCredit());
+        new Verifications()
+        {
+            {
+                mockServerListener.sendCreditAvailable();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_010: [If the link was starved and the flow granted it credit, the event handler shall notify the listeners that send credit is available.]
+    @Test
+    public void onLinkFlowDoesNotNotifyListenersIfLinkWasNotStarved() throws IOException
+    {
+        // arrange
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getName();
+                result = SENDER_LINK_NAME;
+                mockSender.getCredit();
+                result = 10;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        connection.addListener(mockServerListener);
+
+        // act
+        connection.onLinkFlow(mockEvent);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockServerListener.sendCreditAvailable();
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_99_001: [All server listeners shall be notified when that the connection has been established.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_21_051: [The open lock shall be notified when that the connection has been established.]
@@ -1737,6 +2185,29 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_45_011: [The function shall forget the credit of the links of the lost connection.]
+    @Test
+    public void onTransportErrorForgetsCreditOfLostLinks() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, 1);
+        grantCredit(connection, SENDER_LINK_NAME, 100);
+
+        new MockUp<AmqpsIotHubConnection>()
+        {
+            @Mock
+            void closeAsync()
+            {
+                Deencapsulation.setField(connection, "state", State.CLOSED);
+            }
+        };
+
+        connection.onTransportError(mockEvent);
+
+        assertEquals(0L, connection.getSendCreditStatistics().getAvailableCredit());
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to reconnect to IoTHub.]
     @Test
     public void onTransportErrorReconnectionCounterRotate() throws IOException, InterruptedException
@@ -1878,6 +2349,23 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    private static void grantCredit(AmqpsIotHubConnection connection, String linkName, int credit)
+    {
+        Object sendCreditWindow = Deencapsulation.getField(connection, "sendCreditWindow");
+        Deencapsulation.invoke(sendCreditWindow, "onLinkFlow", linkName, credit);
+    }
+
+    private void senderLinkExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = SENDER_LINK_NAME;
+            }
+        };
+    }
+
     private void baseExpectations()
     {
         new NonStrictExpectations() {
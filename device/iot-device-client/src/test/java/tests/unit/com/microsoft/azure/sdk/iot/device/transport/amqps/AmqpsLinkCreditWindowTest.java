@@ -0,0 +1,289 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.SendCreditStatistics;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for AmqpsLinkCreditWindow.
+ * 100% methods covered
+ * 100% lines covered
+ */
+public class AmqpsLinkCreditWindowTest
+{
+    private static final String CREDIT_WINDOW_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsLinkCreditWindow";
+    private static final String TELEMETRY_LINK_NAME = "telemetry_sender_link";
+    private static final String METHODS_LINK_NAME = "methods_sender_link";
+
+    private static Object newCreditWindow()
+    {
+        return Deencapsulation.newInstance(CREDIT_WINDOW_CLASS);
+    }
+
+    private static boolean onLinkFlow(Object creditWindow, String linkName, int credit)
+    {
+        return Deencapsulation.invoke(creditWindow, "onLinkFlow", new Class[] { String.class, int.class }, linkName, credit);
+    }
+
+    private static boolean hasCredit(Object creditWindow, String linkName)
+    {
+        return Deencapsulation.invoke(creditWindow, "hasCredit", new Class[] { String.class }, linkName);
+    }
+
+    private static boolean tryAcquire(Object creditWindow, String linkName)
+    {
+        return Deencapsulation.invoke(creditWindow, "tryAcquire", new Class[] { String.class }, linkName);
+    }
+
+    private static void release(Object creditWindow, String linkName)
+    {
+        Deencapsulation.invoke(creditWindow, "release", new Class[] { String.class }, linkName);
+    }
+
+    private static void countDeferredSend(Object creditWindow, String linkName)
+    {
+        Deencapsulation.invoke(creditWindow, "countDeferredSend", new Class[] { String.class }, linkName);
+    }
+
+    private static SendCreditStatistics getStatistics(Object creditWindow)
+    {
+        return Deencapsulation.invoke(creditWindow, "getStatistics");
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_001: [If the link name is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void onLinkFlowThrowsIfLinkNameNull()
+    {
+        onLinkFlow(newCreditWindow(), null, 10);
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_002: [The function shall save the credit of the link, and return true if the link was starved and the credit is positive.]
+    @Test
+    public void onLinkFlowReturnsFalseIfLinkWasNotStarved()
+    {
+        Object creditWindow = newCreditWindow();
+
+        assertFalse(onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 10));
+        assertEquals(10L, getStatistics(creditWindow).getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_002: [The function shall save the credit of the link, and return true if the link was starved and the credit is positive.]
+    @Test
+    public void onLinkFlowReturnsTrueOnceIfStarvedLinkGetsCredit()
+    {
+        Object creditWindow = newCreditWindow();
+        assertFalse(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+
+        assertFalse(onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 0));
+        assertTrue(getStatistics(creditWindow).isCreditStarved());
+        assertTrue(onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 5));
+        assertFalse(onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 5));
+        assertFalse(getStatistics(creditWindow).isCreditStarved());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_003: [The function shall return true if the link has positive credit, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void hasCreditDoesNotTakeCredit()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 1);
+
+        assertTrue(hasCredit(creditWindow, TELEMETRY_LINK_NAME));
+        assertTrue(hasCredit(creditWindow, TELEMETRY_LINK_NAME));
+        assertEquals(1L, getStatistics(creditWindow).getAvailableCredit());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_003: [The function shall return true if the link has positive credit, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void hasCreditStarvesLinkWithoutCredit()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, METHODS_LINK_NAME, 3);
+
+        assertFalse(hasCredit(creditWindow, TELEMETRY_LINK_NAME));
+        assertFalse(hasCredit(creditWindow, TELEMETRY_LINK_NAME));
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertTrue(statistics.isCreditStarved());
+        assertEquals(1, statistics.getStarvedLinkCount());
+        assertEquals(1L, statistics.getStarvationCount());
+        assertEquals(0L, statistics.getDeferredSendCount());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_003: [The function shall return true if the link has positive credit, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void hasCreditReturnsFalseWithoutCountingIfLinkNameNull()
+    {
+        Object creditWindow = newCreditWindow();
+
+        assertFalse(hasCredit(creditWindow, null));
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertFalse(statistics.isCreditStarved());
+        assertEquals(0L, statistics.getDeferredSendCount());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_004: [If the link has positive credit, the function shall take one and return true, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void tryAcquireTakesCreditUntilLinkIsStarved()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 2);
+
+        assertTrue(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+        assertTrue(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+        assertFalse(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+        assertFalse(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertEquals(0L, statistics.getAvailableCredit());
+        assertEquals(1, statistics.getStarvedLinkCount());
+        assertEquals(1L, statistics.getStarvationCount());
+        assertEquals(0L, statistics.getDeferredSendCount());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_004: [If the link has positive credit, the function shall take one and return true, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void tryAcquireOnlyTakesCreditOfItsLink()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 1);
+        onLinkFlow(creditWindow, METHODS_LINK_NAME, 4);
+
+        assertTrue(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+        assertFalse(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+        assertTrue(tryAcquire(creditWindow, METHODS_LINK_NAME));
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertEquals(3L, statistics.getAvailableCredit());
+        assertEquals(1, statistics.getStarvedLinkCount());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_005: [If the link has a credit saved, the function shall add one to it.]
+    @Test
+    public void releaseGivesCreditBack()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 1);
+        tryAcquire(creditWindow, TELEMETRY_LINK_NAME);
+
+        release(creditWindow, TELEMETRY_LINK_NAME);
+
+        assertEquals(1L, getStatistics(creditWindow).getAvailableCredit());
+        assertTrue(tryAcquire(creditWindow, TELEMETRY_LINK_NAME));
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_005: [If the link has a credit saved, the function shall add one to it.]
+    @Test
+    public void releaseDoesNothingIfNoCreditSaved()
+    {
+        Object creditWindow = newCreditWindow();
+
+        release(creditWindow, TELEMETRY_LINK_NAME);
+        release(creditWindow, null);
+
+        assertEquals(0L, getStatistics(creditWindow).getAvailableCredit());
+        assertFalse(hasCredit(creditWindow, TELEMETRY_LINK_NAME));
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_008: [If the link name is not null, the function shall add one to the deferred send count.]
+    @Test
+    public void countDeferredSendCountsOnlySendsForALink()
+    {
+        Object creditWindow = newCreditWindow();
+
+        countDeferredSend(creditWindow, TELEMETRY_LINK_NAME);
+        countDeferredSend(creditWindow, TELEMETRY_LINK_NAME);
+        countDeferredSend(creditWindow, null);
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertEquals(2L, statistics.getDeferredSendCount());
+        assertEquals(0L, statistics.getStarvationCount());
+        assertFalse(statistics.isCreditStarved());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_006: [The function shall remove the credit and the starved state of all the links, and keep the counters.]
+    @Test
+    public void clearRemovesCreditAndKeepsCounters()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, METHODS_LINK_NAME, 4);
+        tryAcquire(creditWindow, TELEMETRY_LINK_NAME);
+        countDeferredSend(creditWindow, TELEMETRY_LINK_NAME);
+
+        Deencapsulation.invoke(creditWindow, "clear");
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertFalse(statistics.isCreditStarved());
+        assertEquals(0L, statistics.getAvailableCredit());
+        assertEquals(0, statistics.getStarvedLinkCount());
+        assertEquals(1L, statistics.getStarvationCount());
+        assertEquals(1L, statistics.getDeferredSendCount());
+        assertFalse(onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, 4));
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_007: [The function shall return the sum of the positive credits, the number of starved links, the starvation count and the deferred send count.]
+    @Test
+    public void getStatisticsIgnoresNegativeCredit()
+    {
+        Object creditWindow = newCreditWindow();
+        onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, -1);
+        onLinkFlow(creditWindow, METHODS_LINK_NAME, 6);
+
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+
+        assertFalse(statistics.isCreditStarved());
+        assertEquals(6L, statistics.getAvailableCredit());
+        assertEquals(0, statistics.getStarvedLinkCount());
+        assertEquals(0L, statistics.getStarvationCount());
+        assertEquals(0L, statistics.getDeferredSendCount());
+    }
+
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_002: [The function shall save the credit of the link, and return true if the link was starved and the credit is positive.]
+    // Tests_SRS_AMQPSLINKCREDITWINDOW_45_004: [If the link has positive credit, the function shall take one and return true, and otherwise mark the link as starved, counting a starvation if it was not starved, and return false.]
+    @Test
+    public void neverSendsMoreThanGrantedCreditUnderLargeLoad()
+    {
+        // arrange
+        final int flowCount = 1000;
+        final int creditPerFlow = 50;
+        final int sendsPerFlow = 80;
+        Object creditWindow = newCreditWindow();
+        long sentCount = 0;
+        int wakeUpCount = 0;
+
+        // act
+        for (int flow = 0; flow < flowCount; flow++)
+        {
+            if (onLinkFlow(creditWindow, TELEMETRY_LINK_NAME, creditPerFlow))
+            {
+                wakeUpCount++;
+            }
+
+            for (int send = 0; send < sendsPerFlow; send++)
+            {
+                if (tryAcquire(creditWindow, TELEMETRY_LINK_NAME))
+                {
+                    sentCount++;
+                }
+                else
+                {
+                    countDeferredSend(creditWindow, TELEMETRY_LINK_NAME);
+                }
+            }
+        }
+
+        // assert
+        SendCreditStatistics statistics = getStatistics(creditWindow);
+        assertEquals((long) flowCount * creditPerFlow, sentCount);
+        assertEquals(flowCount - 1, wakeUpCount);
+        assertEquals(flowCount, statistics.getStarvationCount());
+        assertEquals((long) flowCount * (sendsPerFlow - creditPerFlow), statistics.getDeferredSendCount());
+        assertTrue(statistics.isCreditStarved());
+    }
+}
@@ -0,0 +1,368 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import mockit.Deencapsulation;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for AmqpsMessageEncoder. The messages are real proton messages,
+ * so the encoded bytes are decoded back to check them.
+ */
+public class AmqpsMessageEncoderTest
+{
+    private static final String ENCODER_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessageEncoder";
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Counts the calls to encode, and can fail the first one as if the
+     * buffer was too small.
+     */
+    private static class CountingMessage extends MessageImpl
+    {
+        private int encodeCount = 0;
+        private boolean overflowOnce = false;
+
+        @Override
+        public int encode(byte[] data, int offset, int length)
+        {
+            this.encodeCount++;
+            if (this.overflowOnce)
+            {
+                this.overflowOnce = false;
+                throw new BufferOverflowException();
+            }
+            return super.encode(data, offset, length);
+        }
+    }
+
+    private static Object getEncoder()
+    {
+        return Deencapsulation.invoke(ENCODER_CLASS, "get");
+    }
+
+    private static int encode(Object encoder, Message message) throws ClassNotFoundException
+    {
+        return Deencapsulation.invoke(encoder, "encode", new Class[] { Message.class }, message);
+    }
+
+    private static int encodeBatch(Object encoder, List<Message> messages) throws ClassNotFoundException
+    {
+        return Deencapsulation.invoke(encoder, "encodeBatch", new Class[] { List.class }, messages);
+    }
+
+    /**
+     * Decodes the data sections of an encoded batch back to messages.
+     */
+    private static List<MessageImpl> decodeBatch(byte[] buffer, int length)
+    {
+        List<MessageImpl> messages = new ArrayList<>();
+        int position = 0;
+        while (position < length)
+        {
+            assertEquals(0x00, buffer[position]);
+            assertEquals(0x53, buffer[position + 1]);
+            assertEquals(0x75, buffer[position + 2]);
+            assertEquals((byte) 0xb0, buffer[position + 3]);
+            int size = ((buffer[position + 4] & 0xff) << 24) | ((buffer[position + 5] & 0xff) << 16)
+                    | ((buffer[position + 6] & 0xff) << 8) | (buffer[position + 7] & 0xff);
+            position += 8;
+
+            MessageImpl message = new MessageImpl();
+            message.decode(buffer, position, size);
+            messages.add(message);
+            position += size;
+        }
+        assertEquals(length, position);
+        return messages;
+    }
+
+    private static CountingMessage newTelemetryMessage(int payloadSize)
+    {
+        byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'a');
+
+        Properties properties = new Properties();
+        properties.setMessageId(UUID.randomUUID().toString());
+        properties.setTo("/devices/device-é/messages/events");
+        properties.setUserId(new Binary("device-é".getBytes()));
+        properties.setCorrelationId(UUID.randomUUID());
+        properties.setContentType(Symbol.valueOf("application/json"));
+
+        Map<String, Object> applicationProperties = new HashMap<>();
+        applicationProperties.put("temperature", "25.5°C");
+        applicationProperties.put("building", "東京");
+        applicationProperties.put("count", 42L);
+
+        CountingMessage message = new CountingMessage();
+        message.setProperties(properties);
+        message.setApplicationProperties(new ApplicationProperties(applicationProperties));
+        message.setBody(new Data(new Binary(payload)));
+        return message;
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_001: [The function shall return the encoder of the calling thread, and create it the first time the thread calls it.]
+    @Test
+    public void getReturnsOneEncoderPerThread() throws InterruptedException
+    {
+        // arrange
+        final AtomicReference<Object> otherEncoder = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                otherEncoder.set(getEncoder());
+            }
+        });
+
+        // act
+        Object encoder = getEncoder();
+        thread.start();
+        thread.join();
+
+        // assert
+        assertNotNull(encoder);
+        assertSame(encoder, getEncoder());
+        assertNotNull(otherEncoder.get());
+        assertNotSame(encoder, otherEncoder.get());
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_002: [If the message is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeThrowsIfMessageIsNull() throws ClassNotFoundException
+    {
+        // act
+        encode(getEncoder(), null);
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_003: [The function shall encode the message in the pooled buffer if it is as large as the estimated encoded length, and in a buffer of the estimated encoded length otherwise.]
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_005: [The function shall return the buffer the last message was encoded in.]
+    @Test
+    public void encodeEncodesMessageInBuffer() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        CountingMessage message = newTelemetryMessage(100);
+
+        // act
+        int length = encode(encoder, message);
+
+        // assert
+        byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+        MessageImpl decoded = new MessageImpl();
+        decoded.decode(buffer, 0, length);
+        assertEquals(message.getProperties().getTo(), decoded.getProperties().getTo());
+        assertEquals(message.getApplicationProperties().getValue(), decoded.getApplicationProperties().getValue());
+        assertEquals(((Data) message.getBody()).getValue(), ((Data) decoded.getBody()).getValue());
+        assertEquals(1, message.encodeCount);
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_008: [The function shall keep a new buffer for the next messages if it is not larger than MAX_POOLED_BUFFER_SIZE.]
+    @Test
+    public void encodeKeepsGrownBufferForNextMessages() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        encode(encoder, newTelemetryMessage(64 * 1024));
+        byte[] grownBuffer = Deencapsulation.invoke(encoder, "getBuffer");
+
+        // act
+        encode(encoder, newTelemetryMessage(100));
+
+        // assert
+        assertSame(grownBuffer, Deencapsulation.invoke(encoder, "getBuffer"));
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_008: [The function shall keep a new buffer for the next messages if it is not larger than MAX_POOLED_BUFFER_SIZE.]
+    @Test
+    public void encodeDropsBufferLargerThanMaxPooledSize() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        CountingMessage largeMessage = newTelemetryMessage(2 * MAX_POOLED_BUFFER_SIZE);
+
+        // act
+        encode(encoder, largeMessage);
+        byte[] largeBuffer = Deencapsulation.invoke(encoder, "getBuffer");
+        encode(encoder, newTelemetryMessage(100));
+
+        // assert
+        byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+        assertEquals(1, largeMessage.encodeCount);
+        assertTrue(largeBuffer.length > MAX_POOLED_BUFFER_SIZE);
+        assertTrue(buffer.length <= MAX_POOLED_BUFFER_SIZE);
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_004: [If the message does not fit the buffer, the function shall encode it again in a buffer twice as large, and rethrow the BufferOverflowException if the buffer cannot grow.]
+    @Test
+    public void encodeDoublesBufferIfEncodeThrowsBufferOverflowException() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        CountingMessage message = newTelemetryMessage(100);
+        encode(encoder, message);
+        byte[] firstBuffer = Deencapsulation.invoke(encoder, "getBuffer");
+        message.encodeCount = 0;
+        message.overflowOnce = true;
+
+        // act
+        int length = encode(encoder, message);
+
+        // assert
+        byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+        assertEquals(2, message.encodeCount);
+        assertEquals(2 * firstBuffer.length, buffer.length);
+        assertTrue(length > 100);
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_006: [The function shall add the length of the body, properties, application properties, annotations and footer of the message to a fixed overhead for the other sections.]
+    @Test
+    public void estimateEncodedLengthIsAnUpperBound() throws ClassNotFoundException
+    {
+        // arrange
+        Map<Symbol, Object> annotations = new HashMap<>();
+        annotations.put(Symbol.valueOf("iothub-connection-device-id"), "device-é");
+        MessageImpl message = newTelemetryMessage(1000);
+        message.setMessageAnnotations(new MessageAnnotations(annotations));
+        MessageImpl valueMessage = new MessageImpl();
+        valueMessage.setBody(new AmqpValue("ünïcödé, 東京"));
+
+        // act
+        int estimate = Deencapsulation.invoke(Class.forName(ENCODER_CLASS), "estimateEncodedLength", new Class[] { Message.class }, message);
+        int valueEstimate = Deencapsulation.invoke(Class.forName(ENCODER_CLASS), "estimateEncodedLength", new Class[] { Message.class }, valueMessage);
+
+        // assert
+        assertTrue(estimate >= message.encode(new byte[estimate], 0, estimate));
+        assertTrue(estimate < 2 * 1000);
+        assertTrue(valueEstimate >= valueMessage.encode(new byte[valueEstimate], 0, valueEstimate));
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_003: [The function shall encode the message in the pooled buffer if it is as large as the estimated encoded length, and in a buffer of the estimated encoded length otherwise.]
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_006: [The function shall add the length of the body, properties, application properties, annotations and footer of the message to a fixed overhead for the other sections.]
+    @Test
+    public void encodeEncodesEachPayloadSizeInOnePassUnderLoad() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        int[] payloadSizes = { 100, 1000, 1024, 4 * 1024, 16 * 1024, 64 * 1024, 200 * 1024, 256 * 1024 };
+        final int messagesPerSize = 200;
+
+        for (int payloadSize : payloadSizes)
+        {
+            for (int i = 0; i < messagesPerSize; i++)
+            {
+                CountingMessage message = newTelemetryMessage(payloadSize);
+
+                // act
+                int length = encode(encoder, message);
+
+                // assert
+                assertEquals(1, message.encodeCount);
+                assertTrue(length > payloadSize);
+            }
+
+            byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+            assertTrue(buffer.length <= MAX_POOLED_BUFFER_SIZE);
+        }
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_009: [If the list of messages is null, empty or holds a null message, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeBatchThrowsIfMessagesIsEmpty() throws ClassNotFoundException
+    {
+        // act
+        encodeBatch(getEncoder(), new ArrayList<Message>());
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_009: [If the list of messages is null, empty or holds a null message, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeBatchThrowsIfMessagesHoldsNull() throws ClassNotFoundException
+    {
+        // arrange
+        List<Message> messages = new ArrayList<>();
+        messages.add(newTelemetryMessage(100));
+        messages.add(null);
+
+        // act
+        encodeBatch(getEncoder(), messages);
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_010: [The function shall encode the batch in the pooled buffer if it is as large as the sum of the estimated encoded lengths, and in a buffer of that size otherwise.]
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_011: [The function shall encode each message in a data section holding its encoding, in the order of the list.]
+    @Test
+    public void encodeBatchEncodesEachMessageInDataSection() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        List<Message> messages = new ArrayList<>();
+        int[] payloadSizes = { 10, 300, 70 * 1024 };
+        for (int payloadSize : payloadSizes)
+        {
+            messages.add(newTelemetryMessage(payloadSize));
+        }
+
+        // act
+        int length = encodeBatch(encoder, messages);
+
+        // assert
+        byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+        List<MessageImpl> decoded = decodeBatch(buffer, length);
+        assertEquals(messages.size(), decoded.size());
+        for (int i = 0; i < messages.size(); i++)
+        {
+            assertEquals(messages.get(i).getProperties().getMessageId(), decoded.get(i).getProperties().getMessageId());
+            assertEquals(((Data) messages.get(i).getBody()).getValue(), ((Data) decoded.get(i).getBody()).getValue());
+            assertEquals(1, ((CountingMessage) messages.get(i)).encodeCount);
+        }
+    }
+
+    // Tests_SRS_AMQPSMESSAGEENCODER_45_012: [If the batch does not fit the buffer, the function shall encode it again in a buffer twice as large, and rethrow the BufferOverflowException if the buffer cannot grow.]
+    @Test
+    public void encodeBatchDoublesBufferIfEncodeThrowsBufferOverflowException() throws ClassNotFoundException
+    {
+        // arrange
+        Object encoder = getEncoder();
+        CountingMessage first = newTelemetryMessage(100);
+        CountingMessage second = newTelemetryMessage(100);
+        List<Message> messages = new ArrayList<>();
+        messages.add(first);
+        messages.add(second);
+        encodeBatch(encoder, messages);
+        byte[] firstBuffer = Deencapsulation.invoke(encoder, "getBuffer");
+        first.encodeCount = 0;
+        second.encodeCount = 0;
+        second.overflowOnce = true;
+
+        // act
+        int length = encodeBatch(encoder, messages);
+
+        // assert
+        byte[] buffer = Deencapsulation.invoke(encoder, "getBuffer");
+        assertEquals(2, first.encodeCount);
+        assertEquals(2, second.encodeCount);
+        assertEquals(2 * firstBuffer.length, buffer.length);
+        assertEquals(2, decodeBatch(buffer, length).size());
+    }
+}
@@ -17,40 +17,40 @@ import static org.junit.Assert.assertEquals;
 */
 public class AmqpsSendReturnValueTest
 {
-    // Tests_SRS_AMQPSSENDRETURNVALUE_12_001: [The constructor shall initialize deliverySuccessful and deliveryHash private member variables with the given arguments.]
+    // Tests_SRS_AMQPSSENDRETURNVALUE_45_001: [The constructor shall initialize deliverySuccessful and deliveryTag private member variables with the given arguments.]
     @Test
     public void constructorInitializesAllMembers()
     {
         //arrange
         boolean isDeliverySuccessful = false;
-        int deliveryHash = 42;
+        long deliveryTag = 42L;
 
         //act
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.newInstance(AmqpsSendReturnValue.class, isDeliverySuccessful, deliveryHash);
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.newInstance(AmqpsSendReturnValue.class, isDeliverySuccessful, deliveryTag);
         boolean actualIsDeliverySuccessful = Deencapsulation.getField(amqpsSendReturnValue, "deliverySuccessful");
-        int actualDeliveryHash = Deencapsulation.getField(amqpsSendReturnValue, "deliveryHash");
+        long actualDeliveryTag = Deencapsulation.getField(amqpsSendReturnValue, "deliveryTag");
 
         //assert
         assertEquals(isDeliverySuccessful, actualIsDeliverySuccessful);
-        assertEquals(deliveryHash, actualDeliveryHash);
+        assertEquals(deliveryTag, actualDeliveryTag);
     }
 
     // Tests_SRS_AMQPSSENDRETURNVALUE_12_002: [The function shall return the current value of deliverySuccessful private member.]
-    // Tests_SRS_AMQPSSENDRETURNVALUE_12_003: [The function shall return the current value of deliveryHash private member.]
+    // Tests_SRS_AMQPSSENDRETURNVALUE_45_002: [The function shall return the current value of deliveryTag private member.]
     @Test
-    public void isDeliverySuccessfulAndGetDeliveryHashReturns()
+    public void isDeliverySuccessfulAndGetDeliveryTagReturns()
     {
         //arrange
         boolean isDeliverySuccessful = true;
-        int deliveryHash = 42;
-        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.newInstance(AmqpsSendReturnValue.class, isDeliverySuccessful, deliveryHash);
+        long deliveryTag = 42L;
+        AmqpsSendReturnValue amqpsSendReturnValue = Deencapsulation.newInstance(AmqpsSendReturnValue.class, isDeliverySuccessful, deliveryTag);
 
         //act
         boolean actualIsDeliverySuccessful = Deencapsulation.invoke(amqpsSendReturnValue, "isDeliverySuccessful");
-        int actualDeliveryHash = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryHash");
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSendReturnValue, "getDeliveryTag");
 
         //assert
         assertEquals(isDeliverySuccessful, actualIsDeliverySuccessful);
-        assertEquals(deliveryHash, actualDeliveryHash);
+        assertEquals(deliveryTag, actualDeliveryTag);
     }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@ import java.nio.BufferOverflowException;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.assertFalse;
@@ -149,6 +150,85 @@ public class AmqpsSessionDeviceOperationTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_007: [The constructor shall index the device operations by the message type they send and by the name of their links.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_008: [The function shall return the names of the sender and receiver links of all device operations.]
+    @Test
+    public void constructorIndexesDeviceOperations() throws IllegalArgumentException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "getSenderLinkTag");
+                result = "sender_link_telemetry";
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "getReceiverLinkTag");
+                result = "receiver_link_telemetry";
+                Deencapsulation.invoke(mockAmqpsDeviceMethods, "getSenderLinkTag");
+                result = "sender_link_methods";
+                Deencapsulation.invoke(mockAmqpsDeviceMethods, "getReceiverLinkTag");
+                result = "receiver_link_methods";
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "getSenderLinkTag");
+                result = "sender_link_twin";
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "getReceiverLinkTag");
+                result = "receiver_link_twin";
+            }
+        };
+
+        // act
+        AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+
+        // assert
+        Map<MessageType, AmqpsDeviceOperations> operationsByMessageType = Deencapsulation.getField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByMessageType");
+        Map<String, AmqpsDeviceOperations> operationsByLinkName = Deencapsulation.getField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName");
+        Set<String> linkNames = Deencapsulation.invoke(amqpsSessionDeviceOperation, "getLinkNames");
+        assertEquals(3, operationsByMessageType.size());
+        assertEquals(6, operationsByLinkName.size());
+        assertEquals(operationsByLinkName.keySet(), linkNames);
+        assertTrue(linkNames.contains("sender_link_telemetry"));
+        assertTrue(linkNames.contains("receiver_link_twin"));
+    }
+
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_012: [The function shall return the name of the sender link of the device operation object of the message type, or null if there is none.]
+    @Test
+    public void getSenderLinkNameReturnsSenderLinkOfMessageType() throws IllegalArgumentException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "getSenderLinkTag");
+                result = "sender_link_telemetry";
+                Deencapsulation.invoke(mockAmqpsDeviceMethods, "getSenderLinkTag");
+                result = "sender_link_methods";
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "getSenderLinkTag");
+                result = "sender_link_twin";
+            }
+        };
+        AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+
+        // act
+        String telemetryLinkName = Deencapsulation.invoke(amqpsSessionDeviceOperation, "getSenderLinkName", MessageType.DEVICE_TELEMETRY);
+        String twinLinkName = Deencapsulation.invoke(amqpsSessionDeviceOperation, "getSenderLinkName", MessageType.DEVICE_TWIN);
+
+        // assert
+        assertEquals("sender_link_telemetry", telemetryLinkName);
+        assertEquals("sender_link_twin", twinLinkName);
+    }
+
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_012: [The function shall return the name of the sender link of the device operation object of the message type, or null if there is none.]
+    @Test
+    public void getSenderLinkNameReturnsNullIfNoDeviceOperationOfMessageType() throws IllegalArgumentException
+    {
+        // arrange
+        AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+
+        // act
+        String linkName = Deencapsulation.invoke(amqpsSessionDeviceOperation, "getSenderLinkName", new Class[] { MessageType.class }, (MessageType) null);
+
+        // assert
+        assertNull(linkName);
+    }
+
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_002: [The constructor shall save the deviceClientConfig and amqpsDeviceAuthentication parameter value to a member variable.]
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_003: [The constructor shall create AmqpsDeviceTelemetry, AmqpsDeviceMethods and AmqpsDeviceTwin and add them to the device operations list. ]
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_004: [The constructor shall set the authentication state to not authenticated if the authentication type is CBS.]
@@ -172,6 +252,8 @@ public class AmqpsSessionDeviceOperationTest
                 result = mockIotHubSasTokenAuthenticationProvider;
                 mockIotHubSasTokenAuthenticationProvider.getTokenValidSecs();
                 result = tokenValidSecs;
+                mockDeviceClientConfig.getClientRuntime();
+                result = null;
 
                 new AmqpsDeviceAuthenticationCBSTokenRenewalTask((AmqpsSessionDeviceOperation)any);
                 result = mockAmqpsDeviceAuthenticationCBSTokenRenewalTask;
@@ -211,6 +293,58 @@ public class AmqpsSessionDeviceOperationTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_001: [If a client runtime is configured, the constructor shall schedule the AmqpsDeviceAuthenticationCBSTokenRenewalTask on the scheduler of the runtime instead of creating a scheduler.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_002: [If the AmqpsDeviceAuthenticationCBSTokenRenewalTask runs on the scheduler of a client runtime, the close shall cancel the task without shutting down the scheduler.]
+    @Test
+    public void constructorSuccessCBSOnClientRuntime(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ScheduledFuture<?> mockScheduledFuture) throws IllegalArgumentException
+    {
+        // arrange
+        final long tokenValidSecs = 3600;
+        final long expectedRenewalTimeMillisecs = 2700 * 1000;
+
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceClientConfig.getAuthenticationType();
+                result = DeviceClientConfig.AuthType.SAS_TOKEN;
+                mockDeviceClientConfig.getSasTokenAuthentication();
+                result = mockIotHubSasTokenAuthenticationProvider;
+                mockIotHubSasTokenAuthenticationProvider.getTokenValidSecs();
+                result = tokenValidSecs;
+                mockDeviceClientConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduledExecutorService;
+
+                new AmqpsDeviceAuthenticationCBSTokenRenewalTask((AmqpsSessionDeviceOperation)any);
+                result = mockAmqpsDeviceAuthenticationCBSTokenRenewalTask;
+                mockScheduledExecutorService.scheduleAtFixedRate(mockAmqpsDeviceAuthenticationCBSTokenRenewalTask, 0, expectedRenewalTimeMillisecs, TimeUnit.MILLISECONDS);
+                result = mockScheduledFuture;
+            }
+        };
+        AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+
+        // act
+        amqpsSessionDeviceOperation.close();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockExecutors.newScheduledThreadPool(anyInt);
+                times = 0;
+                mockScheduledExecutorService.scheduleAtFixedRate(mockAmqpsDeviceAuthenticationCBSTokenRenewalTask, 0, expectedRenewalTimeMillisecs, TimeUnit.MILLISECONDS);
+                times = 1;
+                mockScheduledFuture.cancel(false);
+                times = 1;
+                mockScheduledExecutorService.shutdown();
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_058: [The function shall shut down the executor threads.]
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_059: [The function shall close the operation links.]
     @Test
@@ -325,6 +459,8 @@ public class AmqpsSessionDeviceOperationTest
                 result = mockIotHubSasTokenAuthenticationProvider;
                 mockIotHubSasTokenAuthenticationProvider.getTokenValidSecs();
                 result = tokenValidSecs;
+                mockDeviceClientConfig.getClientRuntime();
+                result = null;
             }
         };
 
@@ -542,10 +678,10 @@ public class AmqpsSessionDeviceOperationTest
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATING);
 
         // act
-        Integer deliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(deliveryHash == -1);
+        assertTrue(actualDeliveryTag == -1);
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_013: [The function shall return -1 if the deviceId int he connection string is not equal to the deviceId in the config.]
@@ -567,16 +703,18 @@ public class AmqpsSessionDeviceOperationTest
         };
 
         // act
-        Integer deliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(deliveryHash == -1);
+        assertTrue(actualDeliveryTag == -1);
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_014: [The function shall encode the message and copy the contents to the byte buffer.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_005: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_017: [The function shall set the delivery tag for the sender.]
-    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_018: [The function shall call sendMessageAndGetDeliveryHash on all device operation objects.]
-    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery hash.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_006: [The function shall take the delivery tag from the AmqpsDeliveryTag counter shared by all the links.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_009: [The function shall call sendMessageAndGetDeliveryTag on the device operation object of the message type.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery tag.]
     @Test
     public void sendMessageNoDelivery() throws IllegalArgumentException, IOException
     {
@@ -592,9 +730,9 @@ public class AmqpsSessionDeviceOperationTest
                 mockDeviceClientConfig.getDeviceId();
                 result = "deviceId";
 
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
 
-                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, bytes);
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, anyLong);
                 result = mockAmqpsSendReturnValue;
                 Deencapsulation.invoke(mockAmqpsSendReturnValue, "isDeliverySuccessful");
                 result = false;
@@ -602,23 +740,25 @@ public class AmqpsSessionDeviceOperationTest
         };
 
         // act
-        Integer actualDeliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(actualDeliveryHash == -1);
+        assertTrue(actualDeliveryTag == -1);
         new Verifications()
         {
             {
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
                 times = 1;
             }
         };
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_014: [The function shall encode the message and copy the contents to the byte buffer.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_005: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_017: [The function shall set the delivery tag for the sender.]
-    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_018: [The function shall call sendMessageAndGetDeliveryHash on all device operation objects.]
-    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery hash.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_006: [The function shall take the delivery tag from the AmqpsDeliveryTag counter shared by all the links.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_009: [The function shall call sendMessageAndGetDeliveryTag on the device operation object of the message type.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery tag.]
     @Test
     public void sendMessageSuccess() throws IllegalArgumentException, IOException
     {
@@ -634,9 +774,9 @@ public class AmqpsSessionDeviceOperationTest
                 mockDeviceClientConfig.getDeviceId();
                 result = "deviceId";
 
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
 
-                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, bytes);
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, anyLong);
                 result = mockAmqpsSendReturnValue;
                 Deencapsulation.invoke(mockAmqpsSendReturnValue, "isDeliverySuccessful");
                 result = true;
@@ -644,22 +784,85 @@ public class AmqpsSessionDeviceOperationTest
         };
 
         // act
-        Integer actualDeliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(actualDeliveryHash != -1);
+        assertTrue(actualDeliveryTag != -1);
         new Verifications()
         {
             {
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
                 times = 1;
             }
         };
     }
 
-    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_015: [The function shall doubles the buffer if encode throws BufferOverflowException.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_013: [The function shall return -1 if the state is not authenticated, or if the deviceId in the connection string is not equal to the deviceId in the config.]
     @Test
-    public void sendMessageDoublesBufferIfEncodeThrowsBufferOverflowException() throws IllegalArgumentException, IOException
+    public void sendMessageBatchNotAuthenticated() throws IllegalArgumentException, IOException
+    {
+        // arrange
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATING);
+        final List<org.apache.qpid.proton.message.Message> messages = Arrays.asList((org.apache.qpid.proton.message.Message) mockProtonMessage, mockProtonMessage);
+
+        // act
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessageBatch", messages, mockIotHubConnectionString);
+
+        // assert
+        assertEquals(-1, actualDeliveryTag);
+        new Verifications()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_014: [The function shall encode the messages as the body of a batched message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_015: [The function shall call sendBatchAndGetDeliveryTag on the telemetry device operation object and return the delivery tag, or -1 if it did not send the batch.]
+    @Test
+    public void sendMessageBatchSendsEncodedBatchOnTelemetryLink() throws IllegalArgumentException, IOException
+    {
+        // arrange
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        final List<org.apache.qpid.proton.message.Message> messages = Arrays.asList((org.apache.qpid.proton.message.Message) mockProtonMessage, mockProtonMessage);
+        new NonStrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId";
+                mockDeviceClientConfig.getDeviceId();
+                result = "deviceId";
+
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendBatchAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, new byte[0], anyInt, anyInt, anyLong);
+                result = mockAmqpsSendReturnValue;
+                Deencapsulation.invoke(mockAmqpsSendReturnValue, "isDeliverySuccessful");
+                result = true;
+                Deencapsulation.invoke(mockAmqpsSendReturnValue, "getDeliveryTag");
+                result = 42L;
+            }
+        };
+
+        // act
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessageBatch", messages, mockIotHubConnectionString);
+
+        // assert
+        assertEquals(42L, actualDeliveryTag);
+        new Verifications()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_005: [The function shall encode the message in the pooled buffer of the AmqpsMessageEncoder of the calling thread.]
+    @Test
+    public void sendMessageEncodesAgainIfEncodeThrowsBufferOverflowException() throws IllegalArgumentException, IOException
     {
         // arrange
         final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
@@ -673,10 +876,11 @@ public class AmqpsSessionDeviceOperationTest
                 mockDeviceClientConfig.getDeviceId();
                 result = "deviceId";
 
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
                 result = new BufferOverflowException();
+                result = 10;
 
-                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, bytes);
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryTag", MessageType.DEVICE_TELEMETRY, bytes, anyInt, anyInt, anyLong);
                 result = mockAmqpsSendReturnValue;
                 Deencapsulation.invoke(mockAmqpsSendReturnValue, "isDeliverySuccessful");
                 result = true;
@@ -684,15 +888,15 @@ public class AmqpsSessionDeviceOperationTest
         };
 
         // act
-        Integer actualDeliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long actualDeliveryTag = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(actualDeliveryHash != -1);
+        assertTrue(actualDeliveryTag != -1);
         new Verifications()
         {
             {
-                mockProtonMessage.encode(bytes, anyInt, anyInt);
-                times = 1;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 2;
             }
         };
     }
@@ -705,6 +909,9 @@ public class AmqpsSessionDeviceOperationTest
         final String linkName = "linkName";
         final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.NOT_AUTHENTICATED);
+        Map<String, AmqpsDeviceOperations> operationsByLinkName = new HashMap<>();
+        operationsByLinkName.put(linkName, mockAmqpsDeviceTelemetry);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", operationsByLinkName);
 
         new NonStrictExpectations()
         {
@@ -722,6 +929,7 @@ public class AmqpsSessionDeviceOperationTest
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_021: [If the state is authenticated the function shall call getMessageFromReceiverLink on all device operations and return with the success if any.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_010: [The function shall read the message from the device operation object of the link, and return null if no device operation has a link of this name.]
     @Test
     public void getMessageFromReceiverLinkAuthenticated() throws IllegalArgumentException, IOException
     {
@@ -729,6 +937,9 @@ public class AmqpsSessionDeviceOperationTest
         final String linkName = "linkName";
         final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        Map<String, AmqpsDeviceOperations> operationsByLinkName = new HashMap<>();
+        operationsByLinkName.put(linkName, mockAmqpsDeviceTelemetry);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", operationsByLinkName);
 
         new NonStrictExpectations()
         {
@@ -920,6 +1131,7 @@ public class AmqpsSessionDeviceOperationTest
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_057: [If the state is other than authenticating the function shall try to read the message from the device operation objects.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_010: [The function shall read the message from the device operation object of the link, and return null if no device operation has a link of this name.]
     @Test
     public void getMessageFromReceiverLinkNotAuthenticating() throws IllegalArgumentException, IOException
     {
@@ -931,6 +1143,9 @@ public class AmqpsSessionDeviceOperationTest
         cbsCorrelationIdList.add(mockUUID);
         final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.UNKNOWN);
+        Map<String, AmqpsDeviceOperations> operationsByLinkName = new HashMap<>();
+        operationsByLinkName.put(linkName, mockAmqpsDeviceTelemetry);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", operationsByLinkName);
         ArrayList<AmqpsDeviceOperations> operationList = new ArrayList<>();
         operationList.add(mockAmqpsDeviceTelemetry);
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsList", operationList);
@@ -959,6 +1174,7 @@ public class AmqpsSessionDeviceOperationTest
     }
 
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_024: [The function shall return true if any of the operation's link name is a match and return false otherwise.]
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_011: [The function shall call isLinkFound on the device operation object of the link only.]
     @Test
     public void isLinkFoundTrue()
     {
@@ -966,6 +1182,9 @@ public class AmqpsSessionDeviceOperationTest
         final String linkName = "linkName";
         final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
         Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        Map<String, AmqpsDeviceOperations> operationsByLinkName = new HashMap<>();
+        operationsByLinkName.put(linkName, mockAmqpsDeviceTelemetry);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", operationsByLinkName);
 
         new NonStrictExpectations()
         {
@@ -982,6 +1201,62 @@ public class AmqpsSessionDeviceOperationTest
         assertTrue(isFound);
     }
 
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_011: [The function shall call isLinkFound on the device operation object of the link only.]
+    @Test
+    public void isLinkFoundFalseIfNoDeviceOperationHasLink()
+    {
+        // arrange
+        final String linkName = "unknownLinkName";
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", new HashMap<String, AmqpsDeviceOperations>());
+
+        // act
+        Boolean isFound = Deencapsulation.invoke(amqpsSessionDeviceOperation, "isLinkFound", linkName);
+
+        // assert
+        assertFalse(isFound);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "isLinkFound", linkName);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsDeviceMethods, "isLinkFound", linkName);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "isLinkFound", linkName);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSESSIONDEVICEOPERATION_45_010: [The function shall read the message from the device operation object of the link, and return null if no device operation has a link of this name.]
+    @Test
+    public void getMessageFromReceiverLinkReturnsNullIfNoDeviceOperationHasLink() throws IllegalArgumentException, IOException
+    {
+        // arrange
+        final String linkName = "unknownLinkName";
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsByLinkName", new HashMap<String, AmqpsDeviceOperations>());
+
+        // act
+        AmqpsMessage actualAmqpsMessage = Deencapsulation.invoke(amqpsSessionDeviceOperation, "getMessageFromReceiverLink", linkName);
+
+        // assert
+        assertNull(actualAmqpsMessage);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "getMessageFromReceiverLink", linkName);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsDeviceMethods, "getMessageFromReceiverLink", linkName);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "getMessageFromReceiverLink", linkName);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_024: [The function shall return true if any of the operation's link name is a match and return false otherwise.]
     @Test
     public void isLinkFoundFalse()
@@ -9,8 +9,14 @@ import org.junit.Test;
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
@@ -161,6 +167,50 @@ public class AmqpsSessionManagerTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONMANAGER_45_001: [If a client runtime is configured, the constructor shall schedule the AmqpsDeviceAuthenticationCBSSendTask on the scheduler of the runtime instead of creating a scheduler.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_002: [If the AmqpsDeviceAuthenticationCBSSendTask runs on the scheduler of a client runtime, the function shall cancel the task without shutting down the scheduler.]
+    @Test
+    public void constructorCreatesCBSOnClientRuntime(
+            @Mocked final ClientRuntime mockClientRuntime,
+            @Mocked final ScheduledFuture<?> mockScheduledFuture) throws IllegalArgumentException
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceClientConfig.getAuthenticationType();
+                result = DeviceClientConfig.AuthType.SAS_TOKEN;
+                mockDeviceClientConfig.getClientRuntime();
+                result = mockClientRuntime;
+                mockClientRuntime.getScheduler();
+                result = mockScheduledExecutorService;
+                mockScheduledExecutorService.scheduleAtFixedRate((AmqpsDeviceAuthenticationCBSSendTask) any, 0, anyLong, TimeUnit.MILLISECONDS);
+                result = mockScheduledFuture;
+                new AmqpsDeviceAuthenticationCBS(mockDeviceClientConfig);
+                result = mockAmqpsDeviceAuthenticationCBS;
+                new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+                result = mockAmqpsSessionDeviceOperation;
+            }
+        };
+        AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+
+        // act
+        Deencapsulation.invoke(amqpsSessionManager, "closeNow");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockScheduledExecutorService.scheduleAtFixedRate((AmqpsDeviceAuthenticationCBSSendTask) any, 0, anyLong, TimeUnit.MILLISECONDS);
+                times = 1;
+                mockScheduledFuture.cancel(false);
+                times = 1;
+                mockScheduledExecutorService.shutdown();
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSESSIONMANAGER_12_008: [The function shall throw IllegalArgumentException if the deviceClientConfig parameter is null.]
     @Test (expected = IllegalArgumentException.class)
     public void addDeviceOperationSessionThrowsIfDeviceClientIsNull() throws IllegalArgumentException
@@ -196,6 +246,40 @@ public class AmqpsSessionManagerTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONMANAGER_45_005: [The function shall index the new device session by the device ID of the deviceClientConfig and by the name of its links.]
+    @Test
+    public void addDeviceOperationSessionIndexesDeviceSession() throws IllegalArgumentException
+    {
+        // arrange
+        final String deviceId = "deviceId";
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceClientConfig.getDeviceId();
+                result = deviceId;
+                new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthenticationCBS);
+                result = mockAmqpsSessionDeviceOperation;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "getLinkNames");
+                result = new HashSet<>(Arrays.asList("senderLinkName", "receiverLinkName"));
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(amqpsSessionManager, "addDeviceOperationSession", mockDeviceClientConfig);
+
+        // assert
+        ArrayList<AmqpsSessionDeviceOperation> actualList = Deencapsulation.getField(amqpsSessionManager, "amqpsDeviceSessionList");
+        AmqpsSessionDeviceOperation addedSession = actualList.get(actualList.size() - 1);
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = Deencapsulation.getField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId");
+        Map<String, AmqpsSessionDeviceOperation> sessionsByLinkName = Deencapsulation.getField(amqpsSessionManager, "amqpsDeviceSessionsByLinkName");
+        assertSame(addedSession, sessionsByDeviceId.get(deviceId));
+        assertSame(addedSession, sessionsByLinkName.get("senderLinkName"));
+        assertSame(addedSession, sessionsByLinkName.get("receiverLinkName"));
+    }
+
     // Tests_SRS_AMQPSESSIONMANAGER_12_010: [The function shall call all device session to closeNow links.]
     // Tests_SRS_AMQPSESSIONMANAGER_12_011: [The function shall closeNow the authentication links.]
     // Tests_SRS_AMQPSESSIONMANAGER_12_012: [The function shall closeNow the session.]
@@ -658,6 +742,7 @@ public class AmqpsSessionManagerTest
     }
 
     // Tests_SRS_AMQPSESSIONMANAGER_12_031: [The function shall call all all device session's isLinkFound, and if both links are opened notify the lock.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_006: [The function shall call isLinkFound on the device session of the link only.]
     @Test
     public void onLinkRemoteOpenNotify() throws IllegalArgumentException, InterruptedException
     {
@@ -671,6 +756,10 @@ public class AmqpsSessionManagerTest
         sessionList.add(mockAmqpsSessionDeviceOperation1);
         Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
 
+        Map<String, AmqpsSessionDeviceOperation> sessionsByLinkName = new HashMap<>();
+        sessionsByLinkName.put(linkName, mockAmqpsSessionDeviceOperation);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByLinkName", sessionsByLinkName);
+
         Deencapsulation.setField(amqpsSessionManager, "openLinksLock", mockObjectLock);
 
         new Expectations()
@@ -709,68 +798,210 @@ public class AmqpsSessionManagerTest
         };
     }
 
-    // Tests_SRS_AMQPSESSIONMANAGER_12_032: [The function shall call sendMessage on all session list member and if there is a successful send return with the deliveryHash, otherwise return -1.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_009: [The function shall return the name of the sender link of the message type in the device session of the device ID of the connection string, or null if there is no such device session.]
+    @Test
+    public void getSenderLinkNameReturnsLinkOfDeviceSession() throws IllegalArgumentException
+    {
+        // arrange
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        sessionsByDeviceId.put("deviceId", mockAmqpsSessionDeviceOperation);
+        sessionsByDeviceId.put("deviceId1", mockAmqpsSessionDeviceOperation1);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
+
+        new StrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId1";
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "getSenderLinkName", MessageType.DEVICE_TELEMETRY);
+                result = "sender_link_telemetry";
+            }
+        };
+
+        // act
+        String linkName = Deencapsulation.invoke(amqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+
+        // assert
+        assertEquals("sender_link_telemetry", linkName);
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_009: [The function shall return the name of the sender link of the message type in the device session of the device ID of the connection string, or null if there is no such device session.]
+    @Test
+    public void getSenderLinkNameReturnsNullIfNoDeviceSession() throws IllegalArgumentException
+    {
+        // arrange
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "unknownDeviceId";
+            }
+        };
+
+        // act
+        String linkName = Deencapsulation.invoke(amqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        String nullConnectionLinkName = Deencapsulation.invoke(amqpsSessionManager, "getSenderLinkName", new Class[] { MessageType.class, IotHubConnectionString.class }, MessageType.DEVICE_TELEMETRY, null);
+
+        // assert
+        assertNull(linkName);
+        assertNull(nullConnectionLinkName);
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_007: [The function shall call sendMessage on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
     @Test
     public void sendMessageNoSender() throws IllegalArgumentException, InterruptedException
     {
         // arrange
-        final String linkName = "linkName";
         final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
         Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
         Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
 
-        ArrayList<AmqpsSessionDeviceOperation> sessionList = new ArrayList<>();
-        sessionList.add(mockAmqpsSessionDeviceOperation);
-        sessionList.add(mockAmqpsSessionDeviceOperation1);
-        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        sessionsByDeviceId.put("deviceId", mockAmqpsSessionDeviceOperation);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
 
         new StrictExpectations()
         {
             {
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId";
                 Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
-                result = -1;
-                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
-                result = -1;
+                result = -1L;
             }
         };
 
         // act
-        Integer deliveryHash = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
 
         // assert
-        assertTrue(deliveryHash == -1);
+        assertTrue(deliveryTag == -1);
     }
 
-    // Tests_SRS_AMQPSESSIONMANAGER_12_032: [The function shall call sendMessage on all session list member and if there is a successful send return with the deliveryHash, otherwise return -1.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_007: [The function shall call sendMessage on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
     @Test
     public void sendMessageSuccess() throws IllegalArgumentException, InterruptedException
     {
         // arrange
-        final String linkName = "linkName";
         final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
         Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
         Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
 
-        ArrayList<AmqpsSessionDeviceOperation> sessionList = new ArrayList<>();
-        sessionList.add(mockAmqpsSessionDeviceOperation);
-        sessionList.add(mockAmqpsSessionDeviceOperation1);
-        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        sessionsByDeviceId.put("deviceId", mockAmqpsSessionDeviceOperation);
+        sessionsByDeviceId.put("deviceId1", mockAmqpsSessionDeviceOperation1);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
 
         new StrictExpectations()
         {
             {
-                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
-                result = -1;
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId1";
                 Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
-                result = 42;
+                result = 42L;
+            }
+        };
+
+        // act
+        long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+
+        // assert
+        assertEquals(42L, deliveryTag);
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_010: [The function shall call sendMessageBatch on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+    @Test
+    public void sendMessageBatchSendsOnDeviceSession() throws IllegalArgumentException, InterruptedException
+    {
+        // arrange
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+        Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
+        final List<org.apache.qpid.proton.message.Message> messages = new ArrayList<>();
+
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        sessionsByDeviceId.put("deviceId", mockAmqpsSessionDeviceOperation);
+        sessionsByDeviceId.put("deviceId1", mockAmqpsSessionDeviceOperation1);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
+
+        new StrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId1";
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "sendMessageBatch", messages, mockIotHubConnectionString);
+                result = 42L;
+            }
+        };
+
+        // act
+        long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessageBatch", messages, mockIotHubConnectionString);
+
+        // assert
+        assertEquals(42L, deliveryTag);
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_010: [The function shall call sendMessageBatch on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+    @Test
+    public void sendMessageBatchReturnsMinusOneForUnknownDevice() throws IllegalArgumentException, InterruptedException
+    {
+        // arrange
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+        Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", new HashMap<String, AmqpsSessionDeviceOperation>());
+
+        new NonStrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "unknownDevice";
             }
         };
 
         // act
-        Integer deliveryHash = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+        long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessageBatch", new ArrayList<org.apache.qpid.proton.message.Message>(), mockIotHubConnectionString);
 
         // assert
-        assertEquals((Integer)42, deliveryHash);
+        assertEquals(-1L, deliveryTag);
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_007: [The function shall call sendMessage on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+    @Test
+    public void sendMessageReturnsMinusOneIfNoDeviceSession() throws IllegalArgumentException, InterruptedException
+    {
+        // arrange
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+        Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
+
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        sessionsByDeviceId.put("deviceId", mockAmqpsSessionDeviceOperation);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "unknownDeviceId";
+            }
+        };
+
+        // act
+        long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+
+        // assert
+        assertEquals(-1L, deliveryTag);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+                times = 0;
+            }
+        };
     }
 
     // Tests_SRS_AMQPSESSIONMANAGER_12_033: [The function shall do nothing and return null if the session is not open.]
@@ -858,6 +1089,128 @@ public class AmqpsSessionManagerTest
         };
     }
 
+    // Tests_SRS_AMQPSESSIONMANAGER_45_008: [If the link is a link of a device session, the function shall call getMessageFromReceiverLink on this device session only.]
+    @Test
+    public void getMessageFromReceiverLinkCallsDeviceSessionOfLinkOnly() throws IllegalArgumentException, InterruptedException
+    {
+        // arrange
+        final String linkName = "linkName";
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+
+        ArrayList<AmqpsSessionDeviceOperation> sessionList = new ArrayList<>();
+        sessionList.add(mockAmqpsSessionDeviceOperation);
+        sessionList.add(mockAmqpsSessionDeviceOperation1);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
+
+        Map<String, AmqpsSessionDeviceOperation> sessionsByLinkName = new HashMap<>();
+        sessionsByLinkName.put(linkName, mockAmqpsSessionDeviceOperation1);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByLinkName", sessionsByLinkName);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsDeviceAuthenticationCBS.operationLinksOpened();
+                result = true;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "getMessageFromReceiverLink", linkName);
+                result = mockAmqpsMessage;
+            }
+        };
+
+        // act
+        AmqpsMessage amqpsMessage = Deencapsulation.invoke(amqpsSessionManager, "getMessageFromReceiverLink", linkName);
+
+        // assert
+        assertEquals(mockAmqpsMessage, amqpsMessage);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "getMessageFromReceiverLink", linkName);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSESSIONMANAGER_45_006: [The function shall call isLinkFound on the device session of the link only.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_007: [The function shall call sendMessage on the device session of the device ID of the connection string and return with its delivery tag, or return -1 if there is no such device session.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_008: [If the link is a link of a device session, the function shall call getMessageFromReceiverLink on this device session only.]
+    @Test
+    public void routingCallsOnlyTargetDeviceSessionAmongManyMultiplexedDevices() throws IllegalArgumentException, InterruptedException
+    {
+        // arrange
+        final int deviceCount = 10000;
+        final int callCount = 1000;
+        final String targetDeviceId = "device" + (deviceCount / 2);
+        final String targetLinkName = "receiver_link_telemetry-" + targetDeviceId;
+        final AmqpsSessionManager amqpsSessionManager = new AmqpsSessionManager(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsSessionManager, "session", mockSession);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceAuthentication", mockAmqpsDeviceAuthenticationCBS);
+
+        ArrayList<AmqpsSessionDeviceOperation> sessionList = new ArrayList<>();
+        Map<String, AmqpsSessionDeviceOperation> sessionsByDeviceId = new HashMap<>();
+        Map<String, AmqpsSessionDeviceOperation> sessionsByLinkName = new HashMap<>();
+        for (int i = 0; i < deviceCount; i++)
+        {
+            String deviceId = "device" + i;
+            AmqpsSessionDeviceOperation deviceSession = deviceId.equals(targetDeviceId) ? mockAmqpsSessionDeviceOperation1 : mockAmqpsSessionDeviceOperation;
+            sessionList.add(deviceSession);
+            sessionsByDeviceId.put(deviceId, deviceSession);
+            sessionsByLinkName.put("sender_link_telemetry-" + deviceId, deviceSession);
+            sessionsByLinkName.put("receiver_link_telemetry-" + deviceId, deviceSession);
+        }
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByDeviceId", sessionsByDeviceId);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByLinkName", sessionsByLinkName);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockAmqpsDeviceAuthenticationCBS.operationLinksOpened();
+                result = true;
+                mockIotHubConnectionString.getDeviceId();
+                result = targetDeviceId;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+                result = 42L;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "getMessageFromReceiverLink", targetLinkName);
+                result = mockAmqpsMessage;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "isLinkFound", targetLinkName);
+                result = true;
+            }
+        };
+
+        // act
+        for (int i = 0; i < callCount; i++)
+        {
+            long deliveryTag = Deencapsulation.invoke(amqpsSessionManager, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+            AmqpsMessage amqpsMessage = Deencapsulation.invoke(amqpsSessionManager, "getMessageFromReceiverLink", targetLinkName);
+            Boolean isFound = Deencapsulation.invoke(amqpsSessionManager, "isLinkFound", targetLinkName);
+
+            // assert
+            assertEquals(42L, deliveryTag);
+            assertEquals(mockAmqpsMessage, amqpsMessage);
+            assertTrue(isFound);
+        }
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+                times = callCount;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "getMessageFromReceiverLink", targetLinkName);
+                times = callCount;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation1, "isLinkFound", targetLinkName);
+                times = callCount;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "getMessageFromReceiverLink", targetLinkName);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsSessionDeviceOperation, "isLinkFound", targetLinkName);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSESSIONMANAGER_12_037: [The function shall return with the authentication isLinkFound's return value if the authentication is not open.]
     @Test
     public void isLinkFoundCallsAuth() throws IllegalArgumentException, InterruptedException
@@ -891,6 +1244,7 @@ public class AmqpsSessionManagerTest
     }
 
     // Tests_SRS_AMQPSESSIONMANAGER_12_038: [The function shall call all device session's isLinkFound, and if any of them true return true otherwise return false.]
+    // Tests_SRS_AMQPSESSIONMANAGER_45_006: [The function shall call isLinkFound on the device session of the link only.]
     @Test
     public void isLinkFoundCallsDeviceSessions() throws IllegalArgumentException, InterruptedException
     {
@@ -905,6 +1259,10 @@ public class AmqpsSessionManagerTest
         sessionList.add(mockAmqpsSessionDeviceOperation1);
         Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionList", sessionList);
 
+        Map<String, AmqpsSessionDeviceOperation> sessionsByLinkName = new HashMap<>();
+        sessionsByLinkName.put(linkName, mockAmqpsSessionDeviceOperation);
+        Deencapsulation.setField(amqpsSessionManager, "amqpsDeviceSessionsByLinkName", sessionsByLinkName);
+
         new Expectations()
         {
             {
@@ -0,0 +1,243 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import mockit.Deencapsulation;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for AmqpsTelemetryBatch.
+ * 100% methods covered
+ * 100% lines covered
+ */
+public class AmqpsTelemetryBatchTest
+{
+    private static final String TELEMETRY_BATCH_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTelemetryBatch";
+    private static final String ENCODER_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessageEncoder";
+
+    @Mocked
+    IotHubOutboundPacket mockPacket;
+
+    @Injectable
+    IotHubConnectionString mockConnectionString;
+
+    @Injectable
+    IotHubConnectionString mockOtherConnectionString;
+
+    private static Object newTelemetryBatch(int maxMessages, int maxBytes)
+    {
+        return Deencapsulation.newInstance(TELEMETRY_BATCH_CLASS, new Class[] { int.class, int.class }, maxMessages, maxBytes);
+    }
+
+    private static boolean fits(Object telemetryBatch, IotHubConnectionString iotHubConnectionString, Message message)
+    {
+        return Deencapsulation.invoke(telemetryBatch, "fits", new Class[] { IotHubConnectionString.class, long.class }, iotHubConnectionString, estimateLength(message));
+    }
+
+    private static void add(Object telemetryBatch, IotHubOutboundPacket packet, IotHubConnectionString iotHubConnectionString, Message message)
+    {
+        Deencapsulation.invoke(telemetryBatch, "add", new Class[] { IotHubOutboundPacket.class, IotHubConnectionString.class, Message.class, long.class }, packet, iotHubConnectionString, message, estimateLength(message));
+    }
+
+    private static long estimateLength(Message message)
+    {
+        int length = Deencapsulation.invoke(ENCODER_CLASS, "estimateEncodedLength", message);
+        return length;
+    }
+
+    private static boolean isFull(Object telemetryBatch)
+    {
+        return Deencapsulation.invoke(telemetryBatch, "isFull");
+    }
+
+    private static boolean isEmpty(Object telemetryBatch)
+    {
+        return Deencapsulation.invoke(telemetryBatch, "isEmpty");
+    }
+
+    private static Message newMessage(int bodyLength)
+    {
+        Message message = Proton.message();
+        message.setBody(new Data(new Binary(new byte[bodyLength])));
+        return message;
+    }
+
+    private void deviceIdExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConnectionString.getDeviceId();
+                result = "deviceId";
+                mockOtherConnectionString.getDeviceId();
+                result = "otherDeviceId";
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_001: [If a limit is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfMaxMessagesSmallerThanOne()
+    {
+        // act
+        newTelemetryBatch(0, 1024);
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_001: [If a limit is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfMaxBytesSmallerThanOne()
+    {
+        // act
+        newTelemetryBatch(10, 0);
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_002: [The constructor shall create an empty batch with the given limits.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_003: [The function shall return true if the batch is empty.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_009: [The function shall return true if the batch holds no message.]
+    @Test
+    public void constructorCreatesEmptyBatchAnyMessageFits()
+    {
+        // act
+        Object telemetryBatch = newTelemetryBatch(10, 1);
+
+        // assert
+        assertTrue(isEmpty(telemetryBatch));
+        assertFalse(isFull(telemetryBatch));
+        assertTrue(fits(telemetryBatch, mockConnectionString, newMessage(1024)));
+        assertNull(Deencapsulation.invoke(telemetryBatch, "getIotHubConnectionString"));
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_004: [The function shall return false if the message is sent by another device than the messages of the batch.]
+    @Test
+    public void fitsReturnsFalseForMessageOfAnotherDevice()
+    {
+        // arrange
+        deviceIdExpectations();
+        Object telemetryBatch = newTelemetryBatch(10, 1024 * 1024);
+        add(telemetryBatch, mockPacket, mockConnectionString, newMessage(16));
+
+        // act - assert
+        assertTrue(fits(telemetryBatch, mockConnectionString, newMessage(16)));
+        assertFalse(fits(telemetryBatch, mockOtherConnectionString, newMessage(16)));
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_005: [The function shall return false if the batch is full or the estimated length of the batch with the message exceeds the size limit.]
+    @Test
+    public void fitsReturnsFalseIfBatchWouldExceedSizeLimit()
+    {
+        // arrange
+        deviceIdExpectations();
+        Object telemetryBatch = newTelemetryBatch(10, 4096);
+        add(telemetryBatch, mockPacket, mockConnectionString, newMessage(1024));
+
+        // act - assert
+        assertTrue(fits(telemetryBatch, mockConnectionString, newMessage(1024)));
+        assertFalse(fits(telemetryBatch, mockConnectionString, newMessage(4096)));
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_005: [The function shall return false if the batch is full or the estimated length of the batch with the message exceeds the size limit.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_008: [The function shall return true if the batch holds as many messages as its limit.]
+    @Test
+    public void fitsReturnsFalseIfBatchFull()
+    {
+        // arrange
+        deviceIdExpectations();
+        Object telemetryBatch = newTelemetryBatch(2, 1024 * 1024);
+        add(telemetryBatch, mockPacket, mockConnectionString, newMessage(16));
+        assertFalse(isFull(telemetryBatch));
+        add(telemetryBatch, mockPacket, mockConnectionString, newMessage(16));
+
+        // act - assert
+        assertTrue(isFull(telemetryBatch));
+        assertFalse(fits(telemetryBatch, mockConnectionString, newMessage(16)));
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_006: [If an argument is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addThrowsIfPacketNull()
+    {
+        // arrange
+        Object telemetryBatch = newTelemetryBatch(10, 1024);
+
+        // act
+        Deencapsulation.invoke(telemetryBatch, "add", new Class[] { IotHubOutboundPacket.class, IotHubConnectionString.class, Message.class, long.class }, null, mockConnectionString, newMessage(16), 16L);
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_006: [If an argument is null, the function shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void addThrowsIfMessageNull()
+    {
+        // arrange
+        Object telemetryBatch = newTelemetryBatch(10, 1024);
+
+        // act
+        Deencapsulation.invoke(telemetryBatch, "add", new Class[] { IotHubOutboundPacket.class, IotHubConnectionString.class, Message.class, long.class }, mockPacket, mockConnectionString, null, 0L);
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_007: [The function shall add the packet and the message to the batch, and add the estimated length of the message to the one of the batch.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_010: [The function shall return a copy of the packets of the batch, in the order they were added.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_011: [The function shall return the proton messages of the batch, in the order they were added.]
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_012: [The function shall return the connection string of the device sending the batch.]
+    @Test
+    public void addKeepsPacketsAndMessagesInOrder(@Mocked final IotHubOutboundPacket mockOtherPacket)
+    {
+        // arrange
+        Object telemetryBatch = newTelemetryBatch(10, 1024 * 1024);
+        Message firstMessage = newMessage(16);
+        Message secondMessage = newMessage(32);
+
+        // act
+        add(telemetryBatch, mockPacket, mockConnectionString, firstMessage);
+        add(telemetryBatch, mockOtherPacket, mockConnectionString, secondMessage);
+
+        // assert
+        List<IotHubOutboundPacket> packets = Deencapsulation.invoke(telemetryBatch, "getPackets");
+        List<Message> messages = Deencapsulation.invoke(telemetryBatch, "getMessages");
+        assertFalse(isEmpty(telemetryBatch));
+        assertEquals(2, packets.size());
+        assertSame(mockPacket, packets.get(0));
+        assertSame(mockOtherPacket, packets.get(1));
+        assertEquals(2, messages.size());
+        assertSame(firstMessage, messages.get(0));
+        assertSame(secondMessage, messages.get(1));
+        assertSame(mockConnectionString, Deencapsulation.invoke(telemetryBatch, "getIotHubConnectionString"));
+
+        packets.clear();
+        assertEquals(2, ((List<?>) Deencapsulation.invoke(telemetryBatch, "getPackets")).size());
+    }
+
+    // Tests_SRS_AMQPSTELEMETRYBATCH_45_013: [The function shall remove all the messages of the batch.]
+    @Test
+    public void clearEmptiesBatch()
+    {
+        // arrange
+        deviceIdExpectations();
+        Object telemetryBatch = newTelemetryBatch(1, 2048);
+        add(telemetryBatch, mockPacket, mockConnectionString, newMessage(1024));
+
+        // act
+        Deencapsulation.invoke(telemetryBatch, "clear");
+
+        // assert
+        assertTrue(isEmpty(telemetryBatch));
+        assertFalse(isFull(telemetryBatch));
+        assertTrue(((List<?>) Deencapsulation.invoke(telemetryBatch, "getPackets")).isEmpty());
+        assertTrue(((List<?>) Deencapsulation.invoke(telemetryBatch, "getMessages")).isEmpty());
+        assertNull(Deencapsulation.invoke(telemetryBatch, "getIotHubConnectionString"));
+        assertTrue(fits(telemetryBatch, mockOtherConnectionString, newMessage(1024)));
+    }
+}
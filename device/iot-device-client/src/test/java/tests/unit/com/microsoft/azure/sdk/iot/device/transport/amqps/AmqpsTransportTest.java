@@ -5,19 +5,23 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvider;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.*;
 import mockit.*;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.*;
 
@@ -53,12 +57,6 @@ public class AmqpsTransportTest
     @Mocked
     IotHubConnectionStateCallback mockConnectionStateCallback;
 
-    @Mocked
-    Map<Integer, IotHubOutboundPacket> mockMapIntegerIotHubOutboundPacket;
-
-    @Mocked
-    Map.Entry<Integer, IotHubOutboundPacket> mockMapIntegerIotHubOutboundPacketEntry;
-
     @Mocked
     AmqpsDeviceOperations mockAmqpsDeviceOperations;
 
@@ -92,6 +90,48 @@ public class AmqpsTransportTest
     @Mocked
     List<DeviceClient> mockDeviceClientList;
 
+    /** The connection has a sender link for every message, unless a test records otherwise. */
+    @Before
+    public void setUp()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.hasSenderLink((MessageType) any, (IotHubConnectionString) any);
+                result = true;
+            }
+        };
+    }
+
+    private static final String DELIVERY_MAP_CLASS = "com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsDeliveryMap";
+
+    /** Creates the map of the messages in progress, with the packets at the delivery tags 1, 2, and so on. */
+    private static Object newInProgressMessages(IotHubOutboundPacket... packets)
+    {
+        Object inProgressMessages = Deencapsulation.newInstance(DELIVERY_MAP_CLASS);
+        for (int i = 0; i < packets.length; i++)
+        {
+            Deencapsulation.invoke(inProgressMessages, "put", new Class[] { long.class, Object.class }, (long) (i + 1), packets[i]);
+        }
+        return inProgressMessages;
+    }
+
+    /** Puts the batches in the map of the batches in progress of the transport, at the delivery tags 1, 2, and so on. */
+    private static Object putInProgressBatches(AmqpsTransport transport, List<?>... batches)
+    {
+        Object inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        for (int i = 0; i < batches.length; i++)
+        {
+            Deencapsulation.invoke(inProgressBatches, "put", new Class[] { long.class, Object.class }, (long) (i + 1), batches[i]);
+        }
+        return inProgressBatches;
+    }
+
+    private static int sizeOf(Object inProgressMessages)
+    {
+        return Deencapsulation.invoke(inProgressMessages, "size");
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_001: [The constructor shall save the input parameters into instance variables.]
     @Test
     public void constructorSavesInputParameters()
@@ -436,13 +476,10 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = "AnyData".getBytes();
-                mockMapIntegerIotHubOutboundPacket.size();
-                result = 1;
-                mockMapIntegerIotHubOutboundPacket.entrySet();
-                result = mockMapIntegerIotHubOutboundPacketEntry;
             }
         };
-        Deencapsulation.setField(transport, "inProgressMessages", mockMapIntegerIotHubOutboundPacket);
+        Object inProgressMessages = newInProgressMessages(mockedPacket);
+        Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         transport.open();
         transport.addMessage(mockMsg, mockCallback, null);
@@ -450,10 +487,9 @@ public class AmqpsTransportTest
 
 
         Queue<IotHubOutboundPacket> actualWaitingMessages = Deencapsulation.getField(transport, "waitingMessages");
-        Map<Integer, IotHubOutboundPacket> actualInProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
 
         assertEquals(actualWaitingMessages.size(), 0);
-        assertEquals(actualInProgressMessages.size(), 1);
+        assertEquals(0, sizeOf(inProgressMessages));
 
         new Verifications()
         {
@@ -735,7 +771,7 @@ public class AmqpsTransportTest
                 new IotHubOutboundPacket(mockMessage, mockCallback, context);
                 times = 2;
                 mockPacket.getMessage();
-                times = 2;
+                times = 4;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
                 times = 2;
             }
@@ -920,7 +956,7 @@ public class AmqpsTransportTest
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TELEMETRY;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
-                returns (1, 2);
+                returns (1L, 2L);
                 mockConfig.getDeviceId();
                 result = "deviceId";
                 Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "convertToProton", mockMessage);
@@ -938,8 +974,8 @@ public class AmqpsTransportTest
         transport.addMessage(mockMessage, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
-        Assert.assertEquals(2, inProgressMessages.size());
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(2, sizeOf(inProgressMessages));
 
         new Verifications()
         {
@@ -947,7 +983,7 @@ public class AmqpsTransportTest
                 new IotHubOutboundPacket(mockMessage, mockCallback, context);
                 times = 2;
                 mockPacket.getMessage();
-                times = 2;
+                times = 4;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
                 times = 2;
             }
@@ -980,7 +1016,7 @@ public class AmqpsTransportTest
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TELEMETRY;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
-                returns (1, -1);
+                returns (1L, -1L);
                 mockConfig.getDeviceId();
                 result = "deviceId";
                 Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "convertToProton", mockMessage);
@@ -998,8 +1034,8 @@ public class AmqpsTransportTest
         transport.addMessage(mockMessage, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
-        Assert.assertEquals(1, inProgressMessages.size());
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(1, sizeOf(inProgressMessages));
 
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         Assert.assertEquals(1, waitingMessages.size());
@@ -1010,7 +1046,7 @@ public class AmqpsTransportTest
                 new IotHubOutboundPacket(mockMessage, mockCallback, context);
                 times = 2;
                 mockPacket.getMessage();
-                times = 2;
+                times = 4;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
                 times = 2;
             }
@@ -1046,7 +1082,7 @@ public class AmqpsTransportTest
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TELEMETRY;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
-                result = 1;
+                result = 1L;
                 mockConfig.getDeviceId();
                 result = "deviceId";
             }
@@ -1058,8 +1094,8 @@ public class AmqpsTransportTest
         transport.addMessage(mockMessage, mockCallback, context);
         transport.sendMessages();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
-        Assert.assertEquals(1, inProgressMessages.size());
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(1, sizeOf(inProgressMessages));
 
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         Assert.assertEquals(0, waitingMessages.size());
@@ -1073,7 +1109,7 @@ public class AmqpsTransportTest
                 new IotHubOutboundPacket(mockMessage, mockCallback, context);
                 times = 2;
                 mockPacket.getMessage();
-                times = 2;
+                times = 4;
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
                 times = 0;
                 new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, (IotHubEventCallback) any, any);
@@ -1082,6 +1118,262 @@ public class AmqpsTransportTest
         };
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_45_026: [The function shall leave the messages of a sender link without credit in place in the waiting list, without converting or sending them, and shall not check the credit of that link again during the pass.]
+    @Test
+    public void sendMessagesHoldsBackMessagesOfStarvedLink(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMessage, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMessage;
+                mockMessage.isExpired();
+                result = false;
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.sendMessages();
+
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Assert.assertEquals(0, sizeOf(inProgressMessages));
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(2, waitingMessages.size());
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(0, callbackList.size());
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockMessage);
+                times = 0;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_026: [The function shall leave the messages of a sender link without credit in place in the waiting list, without converting or sending them, and shall not check the credit of that link again during the pass.]
+    @Test
+    public void sendMessagesLeavesMessagesOfStarvedLinkInPlaceAndSendsOthers(
+            @Mocked final Message mockTelemetry1,
+            @Mocked final Message mockTelemetry2,
+            @Mocked final Message mockTwin,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                mockTelemetry1.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockTelemetry2.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockTwin.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                result = true;
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockTwin);
+                result = mockAmqpsConvertToProtonReturnValue;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockProtonMessage;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TWIN;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TWIN, (IotHubConnectionString) any);
+                result = 1L;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockTelemetry1, mockCallback, context);
+        transport.addMessage(mockTelemetry2, mockCallback, context);
+        transport.addMessage(mockTwin, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+
+        // assert
+        Assert.assertEquals(1, sizeOf(Deencapsulation.getField(transport, "inProgressMessages")));
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Iterator<IotHubOutboundPacket> waiting = waitingMessages.iterator();
+        assertSame(mockTelemetry1, waiting.next().getMessage());
+        assertSame(mockTelemetry2, waiting.next().getMessage());
+        assertFalse(waiting.hasNext());
+        new Verifications()
+        {
+            {
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 1;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_044: [The function shall count each message it leaves in place for a sender link without credit once as a deferred send, however many passes it waits.]
+    @Test
+    public void sendMessagesCountsEachMessageOfStarvedLinkOnceAsDeferred(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                result = true;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.addMessage(mockMessage, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+        transport.sendMessages();
+        transport.sendMessages();
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(2, waitingMessages.size());
+        new Verifications()
+        {
+            {
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 3;
+                mockConnection.countDeferredSend(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_041: [If the connection has no sender link for the message, the function shall add a callback with the ERROR status to the callback list without converting or sending the message.]
+    @Test
+    public void sendMessagesCompletesMessagesWithoutSenderLinkWithError(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMessage, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMessage;
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+                mockMessage.isExpired();
+                result = false;
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockConnection.hasSenderLink((MessageType) any, (IotHubConnectionString) any);
+                result = false;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.sendMessages();
+
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(0, waitingMessages.size());
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(1, callbackList.size());
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
+                times = 1;
+                mockConnection.isSendCreditStarved((MessageType) any, (IotHubConnectionString) any);
+                times = 0;
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockMessage);
+                times = 0;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_026: [The function shall leave the messages of a sender link without credit in place in the waiting list, without converting or sending them, and shall not check the credit of that link again during the pass.]
+    @Test
+    public void sendMessagesChecksCreditOfTelemetryLinkForMessagesWithoutType(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMessage, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMessage;
+                mockMessage.isExpired();
+                result = false;
+                mockMessage.getMessageType();
+                result = null;
+                mockConnection.isSendCreditStarved((MessageType) any, (IotHubConnectionString) any);
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                mockConnection.isSendCreditStarved(MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_019: [If the transport closed, the function shall throw an IllegalStateException.]
     @Test(expected = IllegalStateException.class)
     public void invokeCallbacksFailsIfTransportNotOpen()
@@ -1374,7 +1666,7 @@ public class AmqpsTransportTest
         Assert.assertTrue(receivedTransportMessages.size() == 2);
     }
 
-    // Tests_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
+    // Tests_SRS_AMQPSTRANSPORT_15_029: [If the delivery tag cannot be found in the list of keys for the messages in progress, the method returns.]
     @Test
     public void messageSentReturnsIfThereAreNoMessagesInProgress() throws IOException
     {
@@ -1393,7 +1685,7 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
+        Object inProgressMessages = newInProgressMessages();
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         transport.messageSent(1, true);
@@ -1427,9 +1719,9 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
-        inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
-        inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Object inProgressMessages = newInProgressMessages(
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         transport.messageSent(1, true);
@@ -1445,7 +1737,7 @@ public class AmqpsTransportTest
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
 
-        Assert.assertTrue(inProgressMessages.size() == 1);
+        Assert.assertTrue(sizeOf(inProgressMessages) == 1);
         Assert.assertTrue(waitingMessages.size() == 0);
         Assert.assertTrue(callbackList.size() == 1);
     }
@@ -1469,9 +1761,9 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
-        inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
-        inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Object inProgressMessages = newInProgressMessages(
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         transport.messageSent(1, false);
@@ -1487,7 +1779,7 @@ public class AmqpsTransportTest
         Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
 
-        Assert.assertTrue(inProgressMessages.size() == 1);
+        Assert.assertTrue(sizeOf(inProgressMessages) == 1);
         Assert.assertTrue(waitingMessages.size() == 1);
         Assert.assertTrue(callbackList.size() == 0);
     }
@@ -1512,19 +1804,18 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
         transport.open();
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
-        inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
-        inProgressMessages.put(2, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Object inProgressMessages = newInProgressMessages(
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
-        Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingQueue<>();
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
-        Deencapsulation.setField(transport, "waitingMessages", waitingMessages);
 
         transport.connectionLost();
 
-        Assert.assertTrue(inProgressMessages.size() == 0);
+        Assert.assertTrue(sizeOf(inProgressMessages) == 0);
         Assert.assertTrue(waitingMessages.size() == 4);
     }
 
@@ -1722,9 +2013,8 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
 
 
-        Queue<IotHubOutboundPacket> waitingMessages = new LinkedBlockingQueue<>();
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
         waitingMessages.add(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
-        Deencapsulation.setField(transport, "waitingMessages", waitingMessages);
 
         Boolean isEmpty = transport.isEmpty();
 
@@ -1748,8 +2038,7 @@ public class AmqpsTransportTest
         AmqpsTransport transport = new AmqpsTransport(mockConfig);
 
 
-        Map<Integer, IotHubOutboundPacket> inProgressMessages = new ConcurrentHashMap<>();
-        inProgressMessages.put(1, new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Object inProgressMessages = newInProgressMessages(new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
         Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
 
         Boolean isEmpty = transport.isEmpty();
@@ -1781,4 +2070,1141 @@ public class AmqpsTransportTest
 
         Assert.assertFalse(isEmpty);
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_AMQPSTRANSPORT_45_001: [If a send signal is registered, the function shall signal it after adding the packet.]
+    // Tests_SRS_AMQPSTRANSPORT_45_004: [The function shall save the provided send signal.]
+    @Test
+    public void addMessageSignalsRegisteredSendSignal(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+
+        // act
+        transport.addMessage(mockMsg, mockIotHubEventCallback, new Object());
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_002: [If a send signal is registered, the function shall signal it after queueing the callback or the packet to resend.]
+    @Test
+    public void messageSentSignalsRegisteredSendSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+        Object inProgressMessages = newInProgressMessages(
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
+
+        // act
+        transport.messageSent(1, true);
+        transport.messageSent(2, false);
+        transport.messageSent(3, true);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_024: [The function shall handle the message as a range of one message.]
+    // Tests_SRS_AMQPSTRANSPORT_45_025: [The function shall remove the messages of the delivery tags from the first to the last from the in progress map, in delivery tag order.]
+    @Test
+    public void messagesSentHandlesRangeOfMessagesInProgress(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+        Object inProgressMessages = newInProgressMessages(
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()));
+        Deencapsulation.setField(transport, "inProgressMessages", inProgressMessages);
+
+        // act
+        transport.messagesSent(1, 3, true);
+        transport.messagesSent(4, 4, false);
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(1, sizeOf(inProgressMessages));
+        Assert.assertEquals(1, waitingMessages.size());
+        Assert.assertEquals(3, callbackList.size());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, (IotHubEventCallback) any, any);
+                times = 3;
+                mockSignal.signal();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_003: [If a send signal is registered, the function shall signal it so messages buffered while the connection was down are sent.]
+    @Test
+    public void connectionEstablishedSignalsRegisteredSendSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerSendSignal(mockSignal);
+
+        // act
+        transport.connectionEstablished();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_005: [The function shall save the provided receive signal.]
+    // Tests_SRS_AMQPSTRANSPORT_45_006: [If a receive signal is registered, the function shall signal it after adding the message.]
+    @Test
+    public void messageReceivedSignalsRegisteredReceiveSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerReceiveSignal(mockSignal);
+
+        // act
+        transport.messageReceived(mockAmqpsMessage);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_007: [If a receive signal is registered, the function shall signal it so messages put back on the received queue while the connection was down are handled.]
+    @Test
+    public void connectionEstablishedSignalsRegisteredReceiveSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerReceiveSignal(mockSignal);
+
+        // act
+        transport.connectionEstablished();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_008: [The function shall return the number of messages in the received messages queue.]
+    @Test
+    public void getReceivedMessageCountReturnsQueueSize() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.messageReceived(mockAmqpsMessage);
+        transport.messageReceived(mockAmqpsMessage);
+
+        // act
+        int count = transport.getReceivedMessageCount();
+
+        // assert
+        assertEquals(2, count);
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_009: [If the outbound queue rejects the packet, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+    @Test
+    public void addMessageRejectedByFullQueueAddsQueueFullCallback(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueue((IotHubOutboundPacket) any);
+                result = false;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_040: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+    @Test
+    public void addMessageDroppedByFullQueueAddsQueueFullCallback(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockDroppedPacket,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Object droppedContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueue((IotHubOutboundPacket) any);
+                result = true;
+                mockQueue.removeDropped();
+                result = Arrays.asList(mockDroppedPacket);
+                mockDroppedPacket.getCallback();
+                result = mockCallback;
+                mockDroppedPacket.getContext();
+                result = droppedContext;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, new Object());
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, droppedContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_010: [The function shall return the statistics of the outbound queue.]
+    @Test
+    public void getOutboundQueueStatisticsReturnsQueueStatistics(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final OutboundQueueStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.getStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        assertEquals(mockStatistics, transport.getOutboundQueueStatistics());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_011: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void addMessagesFailsIfTransportNotOpened(@Mocked final IotHubOutboundPacket mockPacket)
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        transport.addMessages(Arrays.asList(mockPacket));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_012: [The function shall add the packets to the transport queue as one unit.]
+    // Tests_SRS_AMQPSTRANSPORT_45_014: [If a send signal is registered, the function shall signal it once after adding the packets.]
+    @Test
+    public void addMessagesEnqueuesBatchAndSignalsOnce(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        final List<IotHubOutboundPacket> packets = Arrays.asList(mockPacket, mockPacket);
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueueAll(packets);
+                result = true;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+        transport.addMessages(packets);
+
+        new Verifications()
+        {
+            {
+                mockQueue.enqueueAll(packets);
+                times = 1;
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_013: [If the outbound queue rejects the batch, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
+    @Test
+    public void addMessagesRejectedByFullQueueAddsQueueFullCallbackPerPacket(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueueAll((List<IotHubOutboundPacket>) any);
+                result = false;
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessages(Arrays.asList(mockPacket, mockPacket, mockPacket));
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_015: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any.]
+    @Test
+    public void invokeCallbacksHandsCallbacksToDispatcher(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final IotHubCallbackPacket mockPacket) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                mockConfig.getDeviceId();
+                result = "deviceId";
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(mockPacket);
+        callbackList.add(mockPacket);
+
+        transport.invokeCallbacks();
+
+        new Verifications()
+        {
+            {
+                mockDispatcher.dispatch(mockPacket);
+                times = 2;
+            }
+        };
+        assertTrue(callbackList.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_016: [The function shall hand the provided executor to the callback dispatcher.]
+    @Test
+    public void registerCallbackExecutorSetsDispatcherExecutor(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final Executor mockExecutor) throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        transport.registerCallbackExecutor(mockExecutor);
+
+        new Verifications()
+        {
+            {
+                mockDispatcher.setExecutor(mockExecutor);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_017: [The function shall return the statistics of the callback dispatcher.]
+    @Test
+    public void getCallbackQueueStatisticsReturnsDispatcherStatistics(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final CallbackQueueStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockDispatcher.getStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        assertEquals(mockStatistics, transport.getCallbackQueueStatistics());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_020: [The function shall return null.]
+    @Test
+    public void getInFlightWindowStatisticsReturnsNull() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        assertNull(transport.getInFlightWindowStatistics());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_021: [The function shall return null.]
+    @Test
+    public void getReconnectStatisticsReturnsNull() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        assertNull(transport.getReconnectStatistics());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_018: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+    // Tests_SRS_AMQPSTRANSPORT_45_019: [If any message expired, the function shall signal the registered send task, if any.]
+    @Test
+    public void removeExpiredMessagesAddsExpiredCallbacksAndSignals(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.removeExpired(anyLong);
+                result = Arrays.asList(mockPacket, mockPacket);
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertEquals(2, callbackList.size());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, mockCallback, context);
+                times = 2;
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_019: [If any message expired, the function shall signal the registered send task, if any.]
+    @Test
+    public void removeExpiredMessagesWithoutExpiredMessageDoesNotSignal(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.removeExpired(anyLong);
+                result = new ArrayList<IotHubOutboundPacket>();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertTrue(callbackList.isEmpty());
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_022: [If the transport is open, the function shall remove the device twin requests that timed out from the connection and invoke the message callback of each, if any, on its response.]
+    @Test
+    public void removeExpiredMessagesInvokesCallbackOnTimedOutTwinRequests(
+            @Mocked final Message mockTimeoutResponse) throws IOException
+    {
+        final Object twinContext = "context";
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "removeExpiredTwinRequests", anyLong);
+                result = Arrays.asList(mockAmqpsConvertFromProtonReturnValue);
+                Deencapsulation.invoke(mockAmqpsConvertFromProtonReturnValue, "getMessageCallback");
+                result = mockMessageCallback;
+                Deencapsulation.invoke(mockAmqpsConvertFromProtonReturnValue, "getMessage");
+                result = mockTimeoutResponse;
+                Deencapsulation.invoke(mockAmqpsConvertFromProtonReturnValue, "getMessageContext");
+                result = twinContext;
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        Deencapsulation.setField(transport, "state", State.OPEN);
+        Deencapsulation.setField(transport, "connection", mockConnection);
+        transport.removeExpiredMessages();
+
+        new Verifications()
+        {
+            {
+                mockMessageCallback.execute(mockTimeoutResponse, twinContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_022: [If the transport is open, the function shall remove the device twin requests that timed out from the connection and invoke the message callback of each, if any, on its response.]
+    // Tests_SRS_AMQPSTRANSPORT_45_023: [The function shall return the number of pending device twin requests of the connection, or 0 if the transport is not open.]
+    @Test
+    public void twinRequestsAreNotTrackedBeforeOpen() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.removeExpiredMessages();
+
+        assertEquals(0, transport.getPendingTwinRequestCount());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "removeExpiredTwinRequests", anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_023: [The function shall return the number of pending device twin requests of the connection, or 0 if the transport is not open.]
+    @Test
+    public void getPendingTwinRequestCountReturnsConnectionCount() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "getPendingTwinRequestCount");
+                result = 2;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        Deencapsulation.setField(transport, "state", State.OPEN);
+        Deencapsulation.setField(transport, "connection", mockConnection);
+
+        assertEquals(2, transport.getPendingTwinRequestCount());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_027: [If a send signal is registered, the function shall signal it so the messages held back for lack of credit are sent.]
+    @Test
+    public void sendCreditAvailableSignalsRegisteredSendSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.registerSendSignal(mockSignal);
+
+        // act
+        transport.sendCreditAvailable();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_027: [If a send signal is registered, the function shall signal it so the messages held back for lack of credit are sent.]
+    @Test
+    public void sendCreditAvailableDoesNothingWithoutSendSignal() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+
+        transport.sendCreditAvailable();
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_028: [The function shall return the send credit statistics of the connection, or null if the transport is not open.]
+    @Test
+    public void getSendCreditStatisticsReturnsNullIfTransportNotOpen() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        Deencapsulation.setField(transport, "connection", mockConnection);
+
+        assertNull(transport.getSendCreditStatistics());
+        new Verifications()
+        {
+            {
+                mockConnection.getSendCreditStatistics();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_028: [The function shall return the send credit statistics of the connection, or null if the transport is not open.]
+    @Test
+    public void getSendCreditStatisticsReturnsConnectionStatistics(@Mocked final SendCreditStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.getSendCreditStatistics();
+                result = mockStatistics;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        Deencapsulation.setField(transport, "state", State.OPEN);
+        Deencapsulation.setField(transport, "connection", mockConnection);
+
+        assertEquals(mockStatistics, transport.getSendCreditStatistics());
+    }
+
+    /** Records the expectations of a transport packing the telemetry of a device in batches. */
+    private void telemetryBatchExpectations(
+            final Message mockMessage,
+            final IotHubEventCallback mockCallback,
+            final IotHubOutboundPacket mockPacket,
+            final IotHubConnectionString mockConnectionString,
+            final Map<String, Object> context,
+            final int maxMessages,
+            final long lingerMillis)
+            throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMessage, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMessage;
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockMessage.isExpired();
+                result = false;
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockMessage.getIotHubConnectionString();
+                result = mockConnectionString;
+                mockConnectionString.getDeviceId();
+                result = "deviceId";
+                mockConnection.isSendCreditStarved((MessageType) any, (IotHubConnectionString) any);
+                result = false;
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockMessage);
+                result = mockAmqpsConvertToProtonReturnValue;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockProtonMessage;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+                mockConfig.getAmqpTelemetryBatchMaxMessages();
+                result = maxMessages;
+                mockConfig.getAmqpTelemetryBatchMaxBytes();
+                result = DeviceClientConfig.DEFAULT_AMQP_TELEMETRY_BATCH_MAX_BYTES;
+                mockConfig.getAmqpTelemetryBatchLingerMillis();
+                result = lingerMillis;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_030: [If the configuration allows more than one AMQP telemetry message per batch, the function shall pack the telemetry messages in batches limited by the configured number of messages and size.]
+    // Tests_SRS_AMQPSTRANSPORT_45_031: [If the telemetry message does not fit the batch, the function shall send the batch first, then add the message to the batch, and send the batch once it is full.]
+    // Tests_SRS_AMQPSTRANSPORT_45_033: [If the last batch is incomplete and its linger time elapsed, the function shall send it.]
+    // Tests_SRS_AMQPSTRANSPORT_45_034: [A batch of one message shall be sent as a plain message and added to the in progress map.]
+    // Tests_SRS_AMQPSTRANSPORT_45_035: [The function shall send a batch of several messages in one transfer, and add its messages to the map of batches in progress under the delivery tag of the transfer, or buffer them to be sent in a subsequent attempt if the transfer was not sent.]
+    @Test
+    public void sendMessagesPacksTelemetryInBatches(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, 3, 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                returns(10L, 11L);
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                result = 12L;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        for (int i = 0; i < 7; i++)
+        {
+            transport.addMessage(mockMessage, mockCallback, context);
+        }
+
+        // act
+        transport.sendMessages();
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(0, waitingMessages.size());
+        Assert.assertEquals(2, sizeOf(Deencapsulation.getField(transport, "inProgressBatches")));
+        Assert.assertEquals(1, sizeOf(Deencapsulation.getField(transport, "inProgressMessages")));
+        assertFalse(transport.isEmpty());
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                times = 2;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_030: [If the configuration allows more than one AMQP telemetry message per batch, the function shall pack the telemetry messages in batches limited by the configured number of messages and size.]
+    @Test
+    public void sendMessagesSendsEachMessageIfBatchingDisabled(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, 1, 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                returns(1L, 2L, 3L);
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        for (int i = 0; i < 3; i++)
+        {
+            transport.addMessage(mockMessage, mockCallback, context);
+        }
+
+        // act
+        transport.sendMessages();
+
+        // assert
+        Assert.assertEquals(3, sizeOf(Deencapsulation.getField(transport, "inProgressMessages")));
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_035: [The function shall send a batch of several messages in one transfer, and add its messages to the map of batches in progress under the delivery tag of the transfer, or buffer them to be sent in a subsequent attempt if the transfer was not sent.]
+    @Test
+    public void sendMessagesBuffersBatchIfNotSent(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, 10, 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                result = -1L;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        for (int i = 0; i < 4; i++)
+        {
+            transport.addMessage(mockMessage, mockCallback, context);
+        }
+
+        // act
+        transport.sendMessages();
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(4, waitingMessages.size());
+        Assert.assertEquals(0, sizeOf(Deencapsulation.getField(transport, "inProgressBatches")));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_032: [If the last batch is incomplete and its linger time did not elapse, the function shall put its messages back in the waiting list, so they are packed again with the next messages.]
+    // Tests_SRS_AMQPSTRANSPORT_45_033: [If the last batch is incomplete and its linger time elapsed, the function shall send it.]
+    @Test
+    public void sendMessagesHoldsIncompleteBatchUntilLingerElapses(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, 10, 60000);
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                result = 10L;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.addMessage(mockMessage, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+        transport.addMessage(mockMessage, mockCallback, context);
+        transport.sendMessages();
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(3, waitingMessages.size());
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+
+        // act
+        Deencapsulation.setField(transport, "telemetryBatchLingerStartMillis", System.currentTimeMillis() - 60000);
+        transport.sendMessages();
+
+        // assert
+        Object inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        List<IotHubOutboundPacket> batch = Deencapsulation.invoke(inProgressBatches, "remove", 10L);
+        Assert.assertEquals(0, waitingMessages.size());
+        Assert.assertEquals(3, batch.size());
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_036: [When an incomplete telemetry batch starts to linger, the function shall have the registered send task, if any, signalled once its linger time elapsed.]
+    @Test
+    public void sendMessagesSignalsSendOnceBatchLingerElapses(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString,
+            @Mocked final IotHubSignalledTask mockSignal)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, 10, 60000);
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+        transport.addMessage(mockMessage, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+        transport.sendMessages();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignal.signalAfter(60000L);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_042: [The function shall convert a message to a Proton message only once, and keep the converted message on its packet for the subsequent attempts to send it.]
+    @Test
+    public void sendMessagesConvertsMessageOnceOverAttempts(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        // arrange
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, 1);
+                result = mockConnection;
+                mockMessage.isExpired();
+                result = false;
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockMessage);
+                result = mockAmqpsConvertToProtonReturnValue;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockProtonMessage;
+                Deencapsulation.invoke(mockAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any, (IotHubConnectionString) any);
+                returns(-1L, 1L);
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMessage, mockCallback, context);
+
+        // act
+        transport.sendMessages();
+        transport.sendMessages();
+
+        // assert
+        Assert.assertEquals(1, sizeOf(Deencapsulation.getField(transport, "inProgressMessages")));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockConnection, "convertToProton", mockMessage);
+                times = 1;
+                mockConnection.sendMessage(mockProtonMessage, MessageType.DEVICE_TELEMETRY, (IotHubConnectionString) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_037: [The function shall remove the batches of the delivery tags from the first to the last from the map of batches in progress, and handle each message of a batch with the state of its batch.]
+    @Test
+    public void messagesSentMapsBatchDispositionToEveryMessage() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        Object inProgressBatches = putInProgressBatches(
+                transport,
+                Arrays.asList(
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object())),
+                Arrays.asList(
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object())));
+
+        // act
+        transport.messageSent(1, true);
+        transport.messageSent(2, false);
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(0, sizeOf(inProgressBatches));
+        Assert.assertEquals(3, callbackList.size());
+        Assert.assertEquals(2, waitingMessages.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_038: [The messages of the batches in progress are buffered to be sent again.]
+    // Tests_SRS_AMQPSTRANSPORT_45_039: [The function shall return false if a batch of messages is in progress.]
+    @Test
+    public void connectionLostBuffersMessagesOfBatchesInProgress() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        Object inProgressBatches = putInProgressBatches(
+                transport,
+                Arrays.asList(
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object())));
+        assertFalse(transport.isEmpty());
+
+        // act
+        transport.connectionLost();
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Assert.assertEquals(0, sizeOf(inProgressBatches));
+        Assert.assertEquals(2, waitingMessages.size());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_046: [The messages in progress and the messages of the batches in progress shall be put back at the head of the waiting list, in the order they were sent.]
+    @Test
+    public void connectionLostPutsMessagesInProgressBackAtHeadInSendOrder() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        IotHubOutboundPacket message1 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket batched2 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket batched3 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket message4 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket batched5 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket waiting = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Deencapsulation.invoke(inProgressMessages, "put", new Class[] { long.class, Object.class }, 10L, message1);
+        Deencapsulation.invoke(inProgressMessages, "put", new Class[] { long.class, Object.class }, 12L, message4);
+        Object inProgressBatches = Deencapsulation.getField(transport, "inProgressBatches");
+        Deencapsulation.invoke(inProgressBatches, "put", new Class[] { long.class, Object.class }, 11L, Arrays.asList(batched2, batched3));
+        Deencapsulation.invoke(inProgressBatches, "put", new Class[] { long.class, Object.class }, 13L, Arrays.asList(batched5));
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        waitingMessages.add(waiting);
+
+        // act
+        transport.connectionLost();
+
+        // assert
+        Assert.assertEquals(0, sizeOf(inProgressMessages));
+        Assert.assertEquals(0, sizeOf(inProgressBatches));
+        assertArrayEquals(new Object[] { message1, batched2, batched3, message4, batched5, waiting }, waitingMessages.toArray());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_045: [The function shall put the messages that were not delivered back at the head of the waiting list, in the order they were sent.]
+    @Test
+    public void messagesSentPutsUndeliveredMessagesBackAtHeadInSendOrder() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        IotHubOutboundPacket batched1 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket batched2 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket message3 = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        IotHubOutboundPacket waiting = new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object());
+        Object inProgressMessages = Deencapsulation.getField(transport, "inProgressMessages");
+        Deencapsulation.invoke(inProgressMessages, "put", new Class[] { long.class, Object.class }, 2L, message3);
+        putInProgressBatches(transport, Arrays.asList(batched1, batched2));
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        waitingMessages.add(waiting);
+
+        // act
+        transport.messagesSent(1, 2, false);
+
+        // assert
+        assertArrayEquals(new Object[] { batched1, batched2, message3, waiting }, waitingMessages.toArray());
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_029: [The function shall add a MESSAGE_CANCELLED_ONCLOSE callback for every message of the batches in progress to the callback list.]
+    @Test
+    public void closeCancelsMessagesOfBatchesInProgress() throws IOException
+    {
+        // arrange
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        Object inProgressBatches = putInProgressBatches(
+                transport,
+                Arrays.asList(
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object()),
+                        new IotHubOutboundPacket(new Message(), mockIotHubEventCallback, new Object())));
+
+        // act
+        transport.close();
+
+        // assert
+        Assert.assertEquals(0, sizeOf(inProgressBatches));
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, mockIotHubEventCallback, any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_45_030: [If the configuration allows more than one AMQP telemetry message per batch, the function shall pack the telemetry messages in batches limited by the configured number of messages and size.]
+    // Tests_SRS_AMQPSTRANSPORT_45_037: [The function shall remove the batches of the delivery tags from the first to the last from the map of batches in progress, and handle each message of a batch with the state of its batch.]
+    @Test
+    public void sendMessagesPacksSmallTelemetryInFewTransfersUnderLoad(
+            @Mocked final Message mockMessage,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubConnectionString mockConnectionString)
+            throws IOException
+    {
+        // arrange
+        final int messageCount = 10000;
+        final int batchSize = 100;
+        final Map<String, Object> context = new HashMap<>();
+        telemetryBatchExpectations(mockMessage, mockCallback, mockPacket, mockConnectionString, context, batchSize, 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                result = new Delegate()
+                {
+                    long nextDeliveryTag = 0;
+
+                    @SuppressWarnings("unused")
+                    long sendMessageBatch(List<org.apache.qpid.proton.message.Message> messages, IotHubConnectionString iotHubConnectionString)
+                    {
+                        assertEquals(batchSize, messages.size());
+                        return nextDeliveryTag++;
+                    }
+                };
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig);
+        transport.open();
+        for (int i = 0; i < messageCount; i++)
+        {
+            transport.addMessage(mockMessage, mockCallback, context);
+        }
+
+        // act
+        transport.sendMessages();
+        transport.messagesSent(0, messageCount / batchSize - 1, true);
+
+        // assert
+        Queue<IotHubOutboundPacket> waitingMessages = Deencapsulation.getField(transport, "waitingMessages");
+        Queue<IotHubCallbackPacket> callbackList  = Deencapsulation.getField(transport, "callbackList");
+        Assert.assertEquals(0, waitingMessages.size());
+        Assert.assertEquals(messageCount, callbackList.size());
+        Assert.assertEquals(0, sizeOf(Deencapsulation.getField(transport, "inProgressBatches")));
+        new Verifications()
+        {
+            {
+                mockConnection.sendMessageBatch((List<org.apache.qpid.proton.message.Message>) any, (IotHubConnectionString) any);
+                times = messageCount / batchSize;
+                mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any, (MessageType) any, (IotHubConnectionString) any);
+                times = 0;
+            }
+        };
+    }
+}
@@ -5,8 +5,11 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubSizeExceededException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.https.*;
 import junit.framework.AssertionFailedError;
 import mockit.*;
@@ -14,9 +17,13 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -1047,4 +1054,370 @@ public class HttpsTransportTest
         //act
         transport.registerConnectionStateCallback(null, callbackContext);
     }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_001: [If a send signal is registered, the function shall signal it after adding the packet.]
+    // Tests_SRS_HTTPSTRANSPORT_45_003: [The function shall save the provided send signal.]
+    @Test
+    public void addMessageSignalsRegisteredSendSignal(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubResponseCallback mockResponseCallback,
+            @Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+
+        transport.addMessage(mockMsg, mockCallback, new Object());
+        transport.addMessage(mockMsg, mockResponseCallback, new Object());
+
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_021: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+    @Test
+    public void addMessageDroppedByFullQueueAddsQueueFullCallback(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockDroppedPacket,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Object droppedContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueue((IotHubOutboundPacket) any);
+                result = true;
+                mockQueue.removeDropped();
+                result = Arrays.asList(mockDroppedPacket);
+                mockDroppedPacket.getCallback();
+                result = mockCallback;
+                mockDroppedPacket.getContext();
+                result = droppedContext;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, new Object());
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, droppedContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_005: [The function shall return 0.]
+    @Test
+    public void getReceivedMessageCountReturnsZero() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+
+        int count = transport.getReceivedMessageCount();
+
+        assertEquals(0, count);
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_006: [If the outbound queue rejects the packet, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+    @Test
+    public void addMessageRejectedByFullQueueAddsQueueFullCallback(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueue((IotHubOutboundPacket) any);
+                result = false;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_007: [The function shall return the statistics of the outbound queue.]
+    @Test
+    public void getOutboundQueueStatisticsReturnsQueueStatistics(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final OutboundQueueStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.getStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertEquals(mockStatistics, transport.getOutboundQueueStatistics());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_008: [If the transport is closed, the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void addMessagesFailsIfTransportNotOpened(@Mocked final IotHubOutboundPacket mockPacket)
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        transport.addMessages(Arrays.asList(mockPacket));
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_009: [The function shall add the packets to the transport queue as one unit.]
+    // Tests_SRS_HTTPSTRANSPORT_45_011: [If a send signal is registered, the function shall signal it once after adding the packets.]
+    @Test
+    public void addMessagesEnqueuesBatchAndSignalsOnce(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        final List<IotHubOutboundPacket> packets = Arrays.asList(mockPacket, mockPacket);
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueueAll(packets);
+                result = true;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.registerSendSignal(mockSendSignal);
+        transport.addMessages(packets);
+
+        new Verifications()
+        {
+            {
+                mockQueue.enqueueAll(packets);
+                times = 1;
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_010: [If the outbound queue rejects the batch, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
+    @Test
+    public void addMessagesRejectedByFullQueueAddsQueueFullCallbackPerPacket(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueueAll((List<IotHubOutboundPacket>) any);
+                result = false;
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessages(Arrays.asList(mockPacket, mockPacket, mockPacket));
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_012: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any.]
+    @Test
+    public void invokeCallbacksHandsCallbacksToDispatcher(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final IotHubCallbackPacket mockPacket) throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(mockPacket);
+        callbackList.add(mockPacket);
+
+        transport.invokeCallbacks();
+
+        new Verifications()
+        {
+            {
+                mockDispatcher.dispatch(mockPacket);
+                times = 2;
+            }
+        };
+        assertTrue(callbackList.isEmpty());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_013: [The function shall hand the provided executor to the callback dispatcher.]
+    @Test
+    public void registerCallbackExecutorSetsDispatcherExecutor(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final Executor mockExecutor) throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        transport.registerCallbackExecutor(mockExecutor);
+
+        new Verifications()
+        {
+            {
+                mockDispatcher.setExecutor(mockExecutor);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_014: [The function shall return the statistics of the callback dispatcher.]
+    @Test
+    public void getCallbackQueueStatisticsReturnsDispatcherStatistics(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final CallbackQueueStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockDispatcher.getStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertEquals(mockStatistics, transport.getCallbackQueueStatistics());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_017: [The function shall return null.]
+    @Test
+    public void getInFlightWindowStatisticsReturnsNull() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertNull(transport.getInFlightWindowStatistics());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_018: [The function shall return null.]
+    @Test
+    public void getReconnectStatisticsReturnsNull() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertNull(transport.getReconnectStatistics());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_020: [The function shall return null.]
+    @Test
+    public void getSendCreditStatisticsReturnsNull() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertNull(transport.getSendCreditStatistics());
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_015: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+    // Tests_SRS_HTTPSTRANSPORT_45_016: [If any message expired, the function shall signal the registered send task, if any.]
+    @Test
+    public void removeExpiredMessagesAddsExpiredCallbacksAndSignals(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.removeExpired(anyLong);
+                result = Arrays.asList(mockPacket, mockPacket);
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertEquals(2, callbackList.size());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, mockCallback, context);
+                times = 2;
+                mockSendSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_016: [If any message expired, the function shall signal the registered send task, if any.]
+    @Test
+    public void removeExpiredMessagesWithoutExpiredMessageDoesNotSignal(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.removeExpired(anyLong);
+                result = new ArrayList<IotHubOutboundPacket>();
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertTrue(callbackList.isEmpty());
+        new Verifications()
+        {
+            {
+                mockSendSignal.signal();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_45_019: [The function shall return 0.]
+    @Test
+    public void getPendingTwinRequestCountReturnsZero() throws IOException
+    {
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+
+        assertEquals(0, transport.getPendingTwinRequestCount());
+    }
 }
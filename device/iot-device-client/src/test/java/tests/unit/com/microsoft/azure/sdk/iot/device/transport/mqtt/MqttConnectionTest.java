@@ -5,23 +5,25 @@
 
 package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
-import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /*
     Unit test for MqttConnection
@@ -91,7 +93,7 @@ public class MqttConnectionTest
         };
     }
 
-    //Tests_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, queue for this MqttConnection.]
+    //Tests_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, message router for this MqttConnection.]
     //Tests_SRS_MQTTCONNECTION_25_004: [The constructor shall create an MqttAsync client and update the connection options using the provided SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD and sslContext.]
     @Test
     public void constructorSucceeds() throws Exception
@@ -108,12 +110,41 @@ public class MqttConnectionTest
         assertNotNull(actualAsyncClient);
         MqttConnectOptions actualConnectionOptions = Deencapsulation.getField(mqttConnection, "connectionOptions");
         assertNotNull(actualConnectionOptions);
-        Queue<Pair<String, byte[]>> actualQueue = Deencapsulation.getField(mqttConnection, "allReceivedMessages");
-        assertNotNull(actualQueue);
+        Object actualRouter = Deencapsulation.getField(mqttConnection, "messageRouter");
+        assertNotNull(actualRouter);
         Object actualLock = Deencapsulation.getField(mqttConnection, "mqttLock");
         assertNotNull(actualLock);
     }
 
+    //Tests_SRS_MQTTCONNECTION_45_014: [The constructor shall create the MqttAsync client with the provided persistence, which keeps the messages in flight until they are acknowledged.]
+    @Test
+    public void constructorCreatesAsyncClientWithProvidedPersistence(@Mocked final MqttClientPersistence mockPersistence) throws Exception
+    {
+        //act
+        Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, MqttClientPersistence.class},
+                SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext, mockPersistence);
+
+        //assert
+        new Verifications()
+        {
+            {
+                new MqttAsyncClient(SERVER_URI, CLIENT_ID, mockPersistence);
+                times = 1;
+                new MemoryPersistence();
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTCONNECTION_25_001: [The constructor shall throw IllegalArgumentException if any of the input parameters are null other than password.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullPersistence() throws Exception
+    {
+        //act
+        Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, MqttClientPersistence.class},
+                SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext, null);
+    }
+
     @Test (expected = IOException.class)
     public void constructorThrowsOnAsyncClientFailure() throws Exception
     {
@@ -194,18 +225,19 @@ public class MqttConnectionTest
         assertNotNull(mqttAsyncClient);
     }
 
-    //Tests_SRS_MQTTCONNECTION_25_008: [Getter for the Message Queue.]
+    //Tests_SRS_MQTTCONNECTION_45_012: [Getter for the message router.]
     @Test
-    public void getAllReceivedMessagesSucceeds() throws Exception
+    public void getMessageRouterSucceeds() throws Exception
     {
         //arrange
         final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
 
         //act
-        ConcurrentLinkedQueue concurrentLinkedQueue = Deencapsulation.invoke(mqttConnection, "getAllReceivedMessages");
+        Object messageRouter = Deencapsulation.invoke(mqttConnection, "getMessageRouter");
 
         //assert
-        assertNotNull(concurrentLinkedQueue);
+        assertNotNull(messageRouter);
+        assertSame(Deencapsulation.getField(mqttConnection, "messageRouter"), messageRouter);
     }
 
     //Tests_SRS_MQTTCONNECTION_25_009: [Getter for the Mqtt Lock on this connection.]
@@ -283,4 +315,141 @@ public class MqttConnectionTest
         MqttCallback actualMqttCallback = Deencapsulation.getField(mqttConnection,  "mqttCallback");
         assertEquals(actualMqttCallback, testMqttCallback);
     }
+
+    //Tests_SRS_MQTTCONNECTION_45_001: [The constructor shall create a fixed in flight window of DEFAULT_IN_FLIGHT_COUNT slots for this MqttConnection.]
+    //Tests_SRS_MQTTCONNECTION_45_002: [This method shall take a slot of the in flight window and return true, or return false without waiting if all the slots are taken.]
+    //Tests_SRS_MQTTCONNECTION_45_004: [This method shall release a slot of the in flight window.]
+    //Tests_SRS_MQTTCONNECTION_45_011: [Getter for the statistics of the in flight window.]
+    @Test
+    public void tryAcquireInFlightSlotTakesSlotsOfTheWindow() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+        Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+        Deencapsulation.invoke(mqttConnection, "releaseInFlightSlot");
+
+        //assert
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+        assertEquals(10, statistics.getWindowSize());
+        assertEquals(10, statistics.getMaxWindowSize());
+        assertEquals(1, statistics.getInFlightCount());
+    }
+
+    //Tests_SRS_MQTTCONNECTION_45_005: [If the publish was delivered, this method shall release its slot and pass its round trip to the in flight window.]
+    @Test
+    public void completeInFlightSlotReleasesSlotAndMeasuresRoundTrip() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "completeInFlightSlot", System.nanoTime() - 5000000L, true);
+
+        //assert
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+        assertEquals(0, statistics.getInFlightCount());
+        assertTrue(statistics.getSmoothedRoundTripMicros() >= 5000);
+        assertTrue(statistics.getMinRoundTripMicros() >= 5000);
+    }
+
+    //Tests_SRS_MQTTCONNECTION_45_006: [If the delivery of the publish failed, this method shall release its slot and report the failure to the in flight window.]
+    //Tests_SRS_MQTTCONNECTION_45_007: [This method shall report the lost connection to the in flight window.]
+    @Test
+    public void failuresAndLostConnectionsShrinkAdaptiveWindow() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        Deencapsulation.invoke(mqttConnection, "setInFlightWindow", 100, true);
+        Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "completeInFlightSlot", System.nanoTime(), false);
+        InFlightWindowStatistics afterFailure = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+        Deencapsulation.invoke(mqttConnection, "onConnectionLost");
+        InFlightWindowStatistics afterLostConnection = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+
+        //assert
+        assertEquals(0, afterFailure.getInFlightCount());
+        assertEquals(5, afterFailure.getWindowSize());
+        assertEquals(2, afterLostConnection.getWindowSize());
+    }
+
+    //Tests_SRS_MQTTCONNECTION_45_009: [This method shall replace the in flight window with a new one of the provided maximum size and mode.]
+    //Tests_SRS_MQTTCONNECTION_45_010: [This method shall set the maximum number of messages in flight of the connection options to the provided maximum.]
+    @Test
+    public void setInFlightWindowResizesWindowAndPahoInFlightLimit() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "setInFlightWindow", 50, false);
+        for (int i = 0; i < 50; i++)
+        {
+            Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+        }
+
+        //assert
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+        assertEquals(50, statistics.getWindowSize());
+        assertEquals(50, statistics.getInFlightCount());
+        new Verifications()
+        {
+            {
+                mockMqttConnectionOptions.setMaxInflight(50);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTCONNECTION_45_008: [If the maximum number of publishes in flight is smaller than 1, this method shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void setInFlightWindowThrowsOnZeroSize() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "setInFlightWindow", 0, false);
+    }
+
+    //Tests_SRS_MQTTCONNECTION_45_002: [This method shall take a slot of the in flight window and return true, or return false without waiting if all the slots are taken.]
+    @Test
+    public void tryAcquireInFlightSlotReturnsFalseWithoutParkingIfWindowIsFull() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue((Boolean) Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot"));
+        }
+
+        //act
+        boolean isTakenWhileWindowIsFull = Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+        Deencapsulation.invoke(mqttConnection, "releaseInFlightSlot");
+        boolean isTakenOnceSlotIsReleased = Deencapsulation.invoke(mqttConnection, "tryAcquireInFlightSlot");
+
+        //assert
+        assertFalse(isTakenWhileWindowIsFull);
+        assertTrue(isTakenOnceSlotIsReleased);
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(mqttConnection, "getInFlightWindowStatistics");
+        assertEquals(10, statistics.getInFlightCount());
+    }
 }
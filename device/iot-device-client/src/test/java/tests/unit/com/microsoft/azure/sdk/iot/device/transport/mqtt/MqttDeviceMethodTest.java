@@ -19,6 +19,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
@@ -35,19 +36,49 @@ public class MqttDeviceMethodTest
     @Mocked
     MqttConnection mockedMqttConnection;
 
+    private static Class<?> subscriptionsClass() throws ClassNotFoundException
+    {
+        return Array.newInstance(Class.forName("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription"), 0).getClass();
+    }
+
     private void baseConstructorExpectation()
     {
         new NonStrictExpectations()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
-                result = new ConcurrentLinkedQueue<>();
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 result = new Object();
             }
         };
     }
 
+    //Tests_SRS_MQTTDEVICEMETHOD_45_001: [The constructor shall read the received messages from the DEVICE_METHOD queue of the message router.]
+    @Test
+    public void constructorReadsDeviceMethodQueueOfRouter() throws IOException
+    {
+        //arrange
+        final Object messageRouter = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = messageRouter;
+            }
+        };
+
+        //act
+        MqttDeviceMethod testClient = new MqttDeviceMethod(mockedMqttConnection);
+        Deencapsulation.invoke(messageRouter, "route", "devices/deviceId/messages/devicebound/", new byte[0]);
+        Deencapsulation.invoke(messageRouter, "route", "$iothub/methods/POST/testMethod/?$rid=10", new byte[0]);
+
+        //assert
+        Queue<Pair<String, byte[]>> receivedMessages = Deencapsulation.getField(testClient, "allReceivedMessages");
+        assertEquals(1, receivedMessages.size());
+        assertEquals("$iothub/methods/POST/testMethod/?$rid=10", receivedMessages.peek().getKey());
+    }
+
     /*
     Tests_SRS_MqttDeviceMethod_25_001: [**The constructor shall instantiate super class without any parameters.**]**
 
@@ -78,7 +109,7 @@ public class MqttDeviceMethodTest
     Tests_SRS_MqttDeviceMethod_25_014: [**start method shall just mark that this class is ready to start.**]**
      */
     @Test
-    public void startSucceedsCalls(@Mocked final Mqtt mockMqtt) throws IOException
+    public void startSucceedsCalls(@Mocked final Mqtt mockMqtt) throws Exception
     {
         //arrange
         final MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
@@ -90,7 +121,7 @@ public class MqttDeviceMethodTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(testMethod, "subscribe", anyString);
+                Deencapsulation.invoke(testMethod, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 0;
             }
         };
@@ -98,7 +129,7 @@ public class MqttDeviceMethodTest
 
 
     @Test
-    public void startSucceedsDoesNotCallsSubscribeIfStarted(@Mocked final Mqtt mockMqtt) throws IOException
+    public void startSucceedsDoesNotCallsSubscribeIfStarted(@Mocked final Mqtt mockMqtt) throws Exception
     {
         //arrange
         final MqttDeviceMethod testMethod = new MqttDeviceMethod(mockedMqttConnection);
@@ -110,7 +141,7 @@ public class MqttDeviceMethodTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(testMethod, "subscribe", anyString);
+                Deencapsulation.invoke(testMethod, "subscribe", new Class[] { subscriptionsClass() }, any);
                 maxTimes = 0;
             }
         };
@@ -119,8 +150,10 @@ public class MqttDeviceMethodTest
     /*
     Tests_SRS_MqttDeviceMethod_25_020: [**send method shall subscribe to topic from spec ($iothub/methods/POST/#) if the operation is of type DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST.**]**
      */
+    //Tests_SRS_MQTTDEVICEMETHOD_45_003: [The function shall return the subscription to the device method subscribe topic.]
+    //Tests_SRS_MQTTDEVICEMETHOD_45_004: [send method shall subscribe to the device method subscribe topic once, without waiting for the IoT Hub to acknowledge it, if the operation is of type DEVICE_OPERATION_METHOD_SUBSCRIBE_REQUEST.]
     @Test
-    public void sendSucceedsCallsSubscribe(@Mocked final Mqtt mockMqtt) throws IOException
+    public void sendSucceedsCallsSubscribe(@Mocked final Mqtt mockMqtt) throws Exception
     {
         //arrange
         final String actualSubscribeTopic = "$iothub/methods/POST/#";
@@ -137,10 +170,12 @@ public class MqttDeviceMethodTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(testMethod, "subscribe", actualSubscribeTopic);
-                maxTimes = 1;
+                Deencapsulation.invoke(testMethod, "subscribe", new Class[] { subscriptionsClass() }, any);
+                times = 1;
             }
         };
+        Object subscription = Deencapsulation.invoke(testMethod, "getSubscription");
+        assertEquals(actualSubscribeTopic, Deencapsulation.invoke(subscription, "getTopic"));
     }
 
     /*
@@ -217,7 +252,7 @@ public class MqttDeviceMethodTest
     Tests_SRS_MqttDeviceMethod_25_017: [**send method shall return if the message is not of Type DeviceMethod.**]**
      */
     @Test
-    public void sendDoesNotSendOnDifferentMessageType(@Mocked final Mqtt mockMqtt) throws IOException
+    public void sendDoesNotSendOnDifferentMessageType(@Mocked final Mqtt mockMqtt) throws Exception
     {
         final byte[] actualPayload = "TestMessage".getBytes();
         final IotHubTransportMessage testMessage = new IotHubTransportMessage(actualPayload, MessageType.DEVICE_METHODS);
@@ -235,7 +270,7 @@ public class MqttDeviceMethodTest
             {
                 Deencapsulation.invoke(testMethod, "publish", anyString, actualPayload);
                 maxTimes = 0;
-                Deencapsulation.invoke(testMethod, "subscribe", anyString);
+                Deencapsulation.invoke(testMethod, "subscribe", new Class[] { subscriptionsClass() }, any);
                 maxTimes = 0;
             }
         };
@@ -349,6 +384,7 @@ public class MqttDeviceMethodTest
 
 
     //Tests_SRS_MqttDeviceMethod_34_027: [This method shall parse message to look for Post topic ($iothub/methods/POST/) and return null other wise.]
+    //Tests_SRS_MQTTDEVICEMETHOD_45_002: [If the topic is not a post topic, this method shall remove the message from the queue and return null, so it cannot hold back the next requests.]
     @Test
     public void receiveReturnsNullMessageIfTopicWasNotPost() throws IOException
     {
@@ -367,6 +403,7 @@ public class MqttDeviceMethodTest
 
         //assert
         assertNull(actualMessage);
+        assertTrue(testAllReceivedMessages.isEmpty());
     }
 
     // Tests_SRS_MQTTDEVICEMETHOD_25_029: [**If method name not found or is null then receive shall throw IOException **]**
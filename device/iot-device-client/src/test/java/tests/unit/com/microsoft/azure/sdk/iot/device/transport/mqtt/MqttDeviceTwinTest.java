@@ -6,6 +6,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceOperations;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTwinRequestTable;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeviceTwin;
@@ -14,7 +15,8 @@ import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 import java.io.IOException;
-import java.util.HashMap;
+import java.lang.reflect.Array;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -43,14 +45,44 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
-                result = new ConcurrentLinkedQueue<>();
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 result = new Object();
             }
         };
     }
 
+    private static Class<?> subscriptionsClass() throws ClassNotFoundException
+    {
+        return Array.newInstance(Class.forName("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription"), 0).getClass();
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_45_001: [The constructor shall read the received messages from the DEVICE_TWIN queue of the message router.]
+    @Test
+    public void constructorReadsDeviceTwinQueueOfRouter() throws IOException
+    {
+        //arrange
+        final Object messageRouter = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = messageRouter;
+            }
+        };
+
+        //act
+        MqttDeviceTwin testClient = new MqttDeviceTwin(mockedMqttConnection);
+        Deencapsulation.invoke(messageRouter, "route", "devices/deviceId/messages/devicebound/", new byte[0]);
+        Deencapsulation.invoke(messageRouter, "route", "$iothub/twin/res/200/?$rid=1", new byte[0]);
+
+        //assert
+        Queue<Pair<String, byte[]>> receivedMessages = Deencapsulation.getField(testClient, "allReceivedMessages");
+        assertEquals(1, receivedMessages.size());
+        assertEquals("$iothub/twin/res/200/?$rid=1", receivedMessages.peek().getKey());
+    }
+
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
     **Tests_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
@@ -68,54 +100,45 @@ public class MqttDeviceTwinTest
         assertEquals(actualSubscribeTopic, resTopic);
     }
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_019: [**start method shall subscribe to twin response topic ($iothub/twin/res/#) if connected.**]**
+    **Tests_SRS_MQTTDEVICETWIN_45_007: [**start method shall just mark that this class is ready to start, since the twin response topic is subscribed along with the other topics of the connection when it opens.**]**
      */
     @Test
-    public void startSubscribesToDeviceTwinResponse(@Mocked final Mqtt mockMqtt) throws IOException
+    public void startDoesNotSubscribe(@Mocked final Mqtt mockMqtt) throws Exception
     {
         //arrange
         MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
 
         //act
-
         testTwin.start();
-        //assert
 
+        //assert
+        assertTrue((boolean) Deencapsulation.getField(testTwin, "isStarted"));
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "subscribe", resTopic);
-                times = 1;
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
+                times = 0;
             }
         };
     }
+
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_019: [**start method shall subscribe to twin response topic ($iothub/twin/res/#) if connected and throw IoException otherwise.**]**
+    **Tests_SRS_MQTTDEVICETWIN_45_006: [**The constructor shall create the subscriptions to the twin response topic ($iothub/twin/res/#) and to the desired properties topic ($iothub/twin/PATCH/properties/desired/#).**]**
+    **Tests_SRS_MQTTDEVICETWIN_45_008: [**The function shall return the subscription to the twin response topic.**]**
+    **Tests_SRS_MQTTDEVICETWIN_45_009: [**The function shall return the subscription to the desired properties topic.**]**
      */
-    @Test (expected = IOException.class)
-    public void startThrowsExceptionIfSubscribesFails(@Mocked final Mqtt mockMqtt) throws IOException
+    @Test
+    public void constructorCreatesSubscriptions(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        try
-        {
-            //arrange
-            new StrictExpectations()
-            {
-                {
-                    Deencapsulation.invoke(mockMqtt, "subscribe", resTopic);
-                    result = mockIOException;
-                }
-            };
-
-            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
-
-            //act
-            testTwin.start();
-        }
-        finally
-        {
-            //assert
+        //act
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
 
-        }
+        //assert
+        Object responseSubscription = Deencapsulation.invoke(testTwin, "getResponseSubscription");
+        Object desiredPropertiesSubscription = Deencapsulation.invoke(testTwin, "getDesiredPropertiesSubscription");
+        assertEquals(resTopic, Deencapsulation.invoke(responseSubscription, "getTopic"));
+        assertEquals("$iothub/twin/PATCH/properties/desired/#", Deencapsulation.invoke(desiredPropertiesSubscription, "getTopic"));
+        assertFalse((boolean) Deencapsulation.invoke(responseSubscription, "isRequested"));
     }
 
     /*
@@ -291,7 +314,7 @@ public class MqttDeviceTwinTest
     **Tests_SRS_MQTTDEVICETWIN_25_031: [**send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().**]**
      */
     @Test
-    public void sendDoesNotPublishesMessageForSubscribeToDesiredPropertiesOnCorrectTopic(@Mocked final Mqtt mockMqtt, @Mocked final IotHubTransportMessage mockMessage) throws IOException
+    public void sendDoesNotPublishesMessageForSubscribeToDesiredPropertiesOnCorrectTopic(@Mocked final Mqtt mockMqtt, @Mocked final IotHubTransportMessage mockMessage) throws Exception
     {
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
@@ -321,7 +344,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "subscribe", expectedTopic);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
                 times = 0;
@@ -331,10 +354,10 @@ public class MqttDeviceTwinTest
     }
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
-    **Tests_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
+    **Tests_SRS_MQTTDEVICETWIN_45_010: [**send method shall subscribe to desired properties once, without waiting for the IoT Hub to acknowledge it.**]**
      */
     @Test
-    public void sendSubscribesMessageForSubscribeToDesiredPropertiesOnCorrectTopic(@Mocked final Mqtt mockMqtt, @Mocked final IotHubTransportMessage mockMessage) throws IOException
+    public void sendSubscribesMessageForSubscribeToDesiredPropertiesOnCorrectTopic(@Mocked final Mqtt mockMqtt, @Mocked final IotHubTransportMessage mockMessage) throws Exception
     {
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
@@ -365,7 +388,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "subscribe", expectedSubscribeTopic);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload);
                 times = 0;
@@ -461,8 +484,8 @@ public class MqttDeviceTwinTest
             Queue<Pair<String, byte[]>> testAllReceivedMessages = new ConcurrentLinkedQueue<>();
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -501,8 +524,8 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -634,8 +657,8 @@ public class MqttDeviceTwinTest
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -669,8 +692,8 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
@@ -708,8 +731,8 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -747,8 +770,8 @@ public class MqttDeviceTwinTest
             Queue<Pair<String, byte[]>> testAllReceivedMessages = new ConcurrentLinkedQueue<>();
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -785,8 +808,8 @@ public class MqttDeviceTwinTest
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_GET_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
 
             //act
@@ -835,8 +858,8 @@ public class MqttDeviceTwinTest
             testAllReceivedMessages.add(new MutablePair<>(insertTopic, actualPayload));
             Deencapsulation.setField(testTwin, "allReceivedMessages", testAllReceivedMessages);
 
-            Map<String, DeviceOperations> requestMap = new HashMap<>();
-            requestMap.put(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST);
+            IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable();
+            requestMap.add(mockReqId, DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, System.currentTimeMillis());
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
             Deencapsulation.setField(testTwin, "mqttLock", new Object());
 
@@ -1075,4 +1098,103 @@ public class MqttDeviceTwinTest
         Deencapsulation.setField(mqttDeviceTwin, "allReceivedMessages", null);
         mqttDeviceTwin.receive();
     }
-}
\ No newline at end of file
+
+    //Tests_SRS_MQTTDEVICETWIN_45_002: [send method shall add the request id and operation of the message to the table of the requests waiting for their response, with the deadline of the table, before publishing it.]
+    @Test
+    public void sendAddsRequestToPendingRequests(@Mocked final Mqtt mockMqtt, @Mocked final IotHubTransportMessage mockMessage) throws IOException
+    {
+        //arrange
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        testTwin.start();
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getBytes();
+                result = new byte[0];
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockMessage.getDeviceOperationType();
+                result = DEVICE_OPERATION_TWIN_GET_REQUEST;
+                mockMessage.getRequestId();
+                result = mockReqId;
+            }
+        };
+
+        //act
+        testTwin.send(mockMessage);
+
+        //assert
+        assertEquals(1, testTwin.getPendingRequestCount());
+        IotHubTwinRequestTable requestMap = Deencapsulation.getField(testTwin, "requestMap");
+        assertEquals(DEVICE_OPERATION_TWIN_GET_REQUEST, requestMap.remove(mockReqId));
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_45_003: [If the message cannot be published, send method shall remove its request from the table and rethrow the exception.]
+    @Test
+    public void sendRemovesRequestIfPublishFails(@Mocked final IotHubTransportMessage mockMessage) throws IOException
+    {
+        //arrange
+        baseConstructorExpectation();
+        new MockUp<Mqtt>()
+        {
+            @Mock
+            void publish(String publishTopic, byte[] payload) throws IOException
+            {
+                throw new IOException();
+            }
+        };
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        Deencapsulation.setField(testTwin, "isStarted", true);
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockMessage.getDeviceOperationType();
+                result = DEVICE_OPERATION_TWIN_GET_REQUEST;
+                mockMessage.getRequestId();
+                result = mockReqId;
+            }
+        };
+
+        //act
+        try
+        {
+            testTwin.send(mockMessage);
+            fail("send shall rethrow the exception of publish");
+        }
+        catch (IOException expected)
+        {
+            //assert
+            assertEquals(0, testTwin.getPendingRequestCount());
+        }
+    }
+
+    //Tests_SRS_MQTTDEVICETWIN_45_004: [removeExpiredRequests shall remove the requests whose deadline passed and return for each a response with an empty payload, the request id of the request, the status TIMEOUT_STATUS and the response operation type of the request.]
+    //Tests_SRS_MQTTDEVICETWIN_45_005: [getPendingRequestCount shall return the number of requests in the table of the requests waiting for their response.]
+    @Test
+    public void removeExpiredRequestsReturnsTimeoutResponses() throws IOException
+    {
+        //arrange
+        baseConstructorExpectation();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockedMqttConnection);
+        IotHubTwinRequestTable requestMap = new IotHubTwinRequestTable(1000);
+        requestMap.add("1", DEVICE_OPERATION_TWIN_GET_REQUEST, 0);
+        requestMap.add("2", DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST, 0);
+        requestMap.add("3", DEVICE_OPERATION_TWIN_GET_REQUEST, 60000);
+        Deencapsulation.setField(testTwin, "requestMap", requestMap);
+
+        //act
+        List<IotHubTransportMessage> timeoutResponses = testTwin.removeExpiredRequests(30000);
+
+        //assert
+        assertEquals(2, timeoutResponses.size());
+        assertEquals("1", timeoutResponses.get(0).getRequestId());
+        assertEquals(DEVICE_OPERATION_TWIN_GET_RESPONSE, timeoutResponses.get(0).getDeviceOperationType());
+        assertEquals(IotHubTwinRequestTable.TIMEOUT_STATUS, timeoutResponses.get(0).getStatus());
+        assertEquals(0, timeoutResponses.get(0).getBytes().length);
+        assertEquals("2", timeoutResponses.get(1).getRequestId());
+        assertEquals(DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_RESPONSE, timeoutResponses.get(1).getDeviceOperationType());
+        assertEquals(1, testTwin.getPendingRequestCount());
+    }
+}
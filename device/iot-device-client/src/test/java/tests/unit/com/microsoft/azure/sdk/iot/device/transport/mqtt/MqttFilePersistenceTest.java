@@ -0,0 +1,336 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttFilePersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttFilePersistence. The persistence is exercised against
+ * real files in a temporary directory; a restart is simulated by opening a
+ * second persistence on the directory.
+ */
+public class MqttFilePersistenceTest
+{
+    private static final String CLIENT_ID = "test-device";
+    private static final String SERVER_URI = "ssl://test.host.name:8883";
+    private static final String LOG_FILE_NAME = "test-device-ssl___test.host.name_8883.mqtt";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private MqttFilePersistence newOpenPersistence() throws MqttPersistenceException
+    {
+        MqttFilePersistence persistence = new MqttFilePersistence(this.folder.getRoot());
+        persistence.open(CLIENT_ID, SERVER_URI);
+        return persistence;
+    }
+
+    private static MqttPersistable newPersistable(int index, int payloadBytes)
+    {
+        byte[] header = new byte[] { 0x32, (byte) index, 0, 0 };
+        byte[] payload = new byte[payloadBytes];
+        for (int i = 0; i < payloadBytes; i++)
+        {
+            payload[i] = (byte) (index + i);
+        }
+        return new MqttPersistentData("s-" + index, header, 1, 3, payload, 0, payloadBytes);
+    }
+
+    private static void assertPersistable(int index, int payloadBytes, MqttPersistable actual) throws MqttPersistenceException
+    {
+        MqttPersistable expected = newPersistable(index, payloadBytes);
+        assertEquals(3, actual.getHeaderLength());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(expected.getHeaderBytes()[1 + i], actual.getHeaderBytes()[actual.getHeaderOffset() + i]);
+        }
+        assertEquals(payloadBytes, actual.getPayloadLength());
+        for (int i = 0; i < payloadBytes; i++)
+        {
+            assertEquals(expected.getPayloadBytes()[i], actual.getPayloadBytes()[actual.getPayloadOffset() + i]);
+        }
+    }
+
+    private static List<String> sortedKeys(MqttFilePersistence persistence) throws MqttPersistenceException
+    {
+        List<String> keys = new ArrayList<>();
+        Enumeration enumeration = persistence.keys();
+        while (enumeration.hasMoreElements())
+        {
+            keys.add((String) enumeration.nextElement());
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private File logFile()
+    {
+        return new File(this.folder.getRoot(), LOG_FILE_NAME);
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_001: [If the directory is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullDirectory()
+    {
+        new MqttFilePersistence(null);
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_002: [The constructor shall save the directory.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_004: [The function shall create the directory if it does not exist, and open the log named after the client id and the server URI, deleting a compaction left unfinished.]
+    @Test
+    public void openCreatesDirectoryAndLogNamedAfterClient() throws Exception
+    {
+        //arrange
+        File directory = new File(this.folder.getRoot(), "mqtt");
+        MqttFilePersistence persistence = new MqttFilePersistence(directory);
+
+        //act
+        persistence.open(CLIENT_ID, SERVER_URI);
+
+        //assert
+        assertTrue(new File(directory, LOG_FILE_NAME).isFile());
+        assertFalse(persistence.keys().hasMoreElements());
+        persistence.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_003: [If the persistence is already open, the function shall throw MqttPersistenceException.]
+    @Test (expected = MqttPersistenceException.class)
+    public void openThrowsIfAlreadyOpen() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+
+        //act
+        persistence.open(CLIENT_ID, SERVER_URI);
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_009: [The function shall append a record of the key, the header and the payload to the log, and index the key at the position of the record.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_011: [The function shall read the record of the key from the log and return its header and payload.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_016: [The function shall return true if the key is in the index, and false otherwise.]
+    @Test
+    public void putStoresMessageAndGetReadsIt() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+
+        //act
+        persistence.put("s-1", newPersistable(1, 10));
+        persistence.put("s-2", newPersistable(2, 0));
+        persistence.put("s-1", newPersistable(3, 20));
+
+        //assert
+        assertTrue(persistence.containsKey("s-1"));
+        assertFalse(persistence.containsKey("s-3"));
+        assertPersistable(3, 20, persistence.get("s-1"));
+        assertPersistable(2, 0, persistence.get("s-2"));
+        persistence.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_010: [If no message is stored with the key, the function shall throw MqttPersistenceException.]
+    @Test (expected = MqttPersistenceException.class)
+    public void getThrowsOnUnknownKey() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+
+        //act
+        persistence.get("s-1");
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_012: [If no message is stored with the key, the function shall do nothing.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_013: [The function shall append a removal record of the key to the log and remove the key from the index.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_014: [The function shall return a snapshot of the keys of the index.]
+    @Test
+    public void removeRemovesMessage() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+        persistence.put("s-1", newPersistable(1, 10));
+        persistence.put("s-2", newPersistable(2, 10));
+        long logBytes = this.logFile().length();
+
+        //act
+        persistence.remove("s-3");
+        long logBytesAfterUnknownRemove = this.logFile().length();
+        persistence.remove("s-1");
+
+        //assert
+        assertEquals(logBytes, logBytesAfterUnknownRemove);
+        assertTrue(this.logFile().length() > logBytes);
+        assertEquals(Collections.singletonList("s-2"), sortedKeys(persistence));
+        persistence.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_005: [The function shall replay the records of the log into the index, stopping at the first record with a bad length or checksum, and cut the log after the last valid record.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_007: [The function shall close the log and clear the index.]
+    @Test
+    public void openRecoversMessagesNotRemovedBeforeRestart() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+        persistence.put("s-1", newPersistable(1, 10));
+        persistence.put("s-2", newPersistable(2, 10));
+        persistence.put("sc-1", newPersistable(3, 0));
+        persistence.remove("s-1");
+        persistence.put("s-2", newPersistable(4, 5));
+        persistence.close();
+
+        //act
+        MqttFilePersistence restarted = this.newOpenPersistence();
+
+        //assert
+        List<String> expectedKeys = new ArrayList<>();
+        expectedKeys.add("s-2");
+        expectedKeys.add("sc-1");
+        assertEquals(expectedKeys, sortedKeys(restarted));
+        assertPersistable(4, 5, restarted.get("s-2"));
+        assertPersistable(3, 0, restarted.get("sc-1"));
+        restarted.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_005: [The function shall replay the records of the log into the index, stopping at the first record with a bad length or checksum, and cut the log after the last valid record.]
+    @Test
+    public void openCutsTornRecordAtTheEndOfTheLog() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+        persistence.put("s-1", newPersistable(1, 10));
+        long validBytes = this.logFile().length();
+        persistence.put("s-2", newPersistable(2, 10));
+        persistence.close();
+        RandomAccessFile log = new RandomAccessFile(this.logFile(), "rw");
+        log.seek(log.length() - 1);
+        log.write(0x7F);
+        log.close();
+
+        //act
+        MqttFilePersistence restarted = this.newOpenPersistence();
+
+        //assert
+        assertEquals(Collections.singletonList("s-1"), sortedKeys(restarted));
+        assertEquals(validBytes, this.logFile().length());
+        restarted.put("s-3", newPersistable(3, 10));
+        restarted.close();
+        MqttFilePersistence restartedAgain = this.newOpenPersistence();
+        assertPersistable(3, 10, restartedAgain.get("s-3"));
+        restartedAgain.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_015: [The function shall truncate the log and clear the index.]
+    @Test
+    public void clearRemovesAllMessages() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+        persistence.put("s-1", newPersistable(1, 10));
+
+        //act
+        persistence.clear();
+
+        //assert
+        assertFalse(persistence.containsKey("s-1"));
+        assertEquals(0, this.logFile().length());
+        persistence.put("s-2", newPersistable(2, 10));
+        persistence.close();
+        MqttFilePersistence restarted = this.newOpenPersistence();
+        assertEquals(Collections.singletonList("s-2"), sortedKeys(restarted));
+        restarted.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_006: [If the persistence is not open, the function shall do nothing.]
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_008: [If the persistence is not open, the functions that access the messages shall throw MqttPersistenceException.]
+    @Test
+    public void closedPersistenceRefusesAccess() throws Exception
+    {
+        //arrange
+        MqttFilePersistence persistence = this.newOpenPersistence();
+        persistence.close();
+
+        //act
+        persistence.close();
+
+        //assert
+        try
+        {
+            persistence.put("s-1", newPersistable(1, 10));
+            fail("put on a closed persistence shall throw");
+        }
+        catch (MqttPersistenceException e)
+        {
+            assertEquals(MqttPersistenceException.REASON_CODE_CLIENT_CLOSED, e.getReasonCode());
+        }
+        try
+        {
+            persistence.keys();
+            fail("keys on a closed persistence shall throw");
+        }
+        catch (MqttPersistenceException e)
+        {
+            assertEquals(MqttPersistenceException.REASON_CODE_CLIENT_CLOSED, e.getReasonCode());
+        }
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_017: [Once the log is larger than MIN_COMPACTION_BYTES and less than half of it is live, put and remove shall copy the live records to a new file that atomically replaces the log.]
+    @Test
+    public void publishAndAcknowledgeUnderLoadKeepsLogCompact() throws Exception
+    {
+        //arrange
+        final int count = 20000;
+        final int window = 10;
+        MqttFilePersistence persistence = this.newOpenPersistence();
+
+        //act - store each publish and remove it once acknowledged, with a window of publishes in flight
+        for (int i = 0; i < count; i++)
+        {
+            persistence.put("s-" + i, newPersistable(i, 100));
+            if (i >= window)
+            {
+                persistence.remove("s-" + (i - window));
+            }
+        }
+        persistence.close();
+
+        //assert
+        assertTrue(this.logFile().length() < 2 * 64 * 1024);
+        MqttFilePersistence restarted = this.newOpenPersistence();
+        List<String> keys = sortedKeys(restarted);
+        assertEquals(window, keys.size());
+        for (int i = count - window; i < count; i++)
+        {
+            assertTrue(keys.contains("s-" + i));
+            assertPersistable(i, 100, restarted.get("s-" + i));
+        }
+        restarted.close();
+    }
+
+    // Tests_SRS_MQTTFILEPERSISTENCE_45_004: [The function shall create the directory if it does not exist, and open the log named after the client id and the server URI, deleting a compaction left unfinished.]
+    @Test
+    public void openDeletesUnfinishedCompaction() throws Exception
+    {
+        //arrange
+        File compaction = new File(this.folder.getRoot(), LOG_FILE_NAME.replace(".mqtt", ".compact"));
+        assertTrue(compaction.createNewFile());
+
+        //act
+        MqttFilePersistence persistence = this.newOpenPersistence();
+
+        //assert
+        assertFalse(compaction.exists());
+        persistence.close();
+    }
+}
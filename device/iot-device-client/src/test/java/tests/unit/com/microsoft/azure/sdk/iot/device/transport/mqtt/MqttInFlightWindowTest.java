@@ -0,0 +1,189 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.InFlightWindowStatistics;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for MqttInFlightWindow. */
+public class MqttInFlightWindowTest
+{
+    private static final long FLAT_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static Object createWindow(int maxSize, boolean isAdaptive)
+    {
+        return Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttInFlightWindow",
+                new Class[] {int.class, boolean.class}, maxSize, isAdaptive);
+    }
+
+    private static boolean tryAcquire(Object window)
+    {
+        return Deencapsulation.invoke(window, "tryAcquire");
+    }
+
+    private static void deliver(Object window, long rttNanos)
+    {
+        tryAcquire(window);
+        Deencapsulation.invoke(window, "onDelivered", new Class[] {long.class}, System.nanoTime() - rttNanos);
+    }
+
+    private static InFlightWindowStatistics statistics(Object window)
+    {
+        return Deencapsulation.invoke(window, "getStatistics");
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_001: [If the maximum size is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroSize()
+    {
+        createWindow(0, false);
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_002: [The constructor shall size a fixed window to the maximum size, and an adaptive window to the smallest of INITIAL_ADAPTIVE_SIZE and the maximum size.]
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_011: [The function shall return the current and maximum size of the window, the number of publishes in flight, and the smoothed and minimum round trip in microseconds.]
+    @Test
+    public void constructorSizesWindow()
+    {
+        InFlightWindowStatistics fixed = statistics(createWindow(50, false));
+        InFlightWindowStatistics adaptive = statistics(createWindow(50, true));
+        InFlightWindowStatistics smallAdaptive = statistics(createWindow(4, true));
+
+        assertEquals(50, fixed.getWindowSize());
+        assertEquals(50, fixed.getMaxWindowSize());
+        assertEquals(10, adaptive.getWindowSize());
+        assertEquals(50, adaptive.getMaxWindowSize());
+        assertEquals(4, smallAdaptive.getWindowSize());
+        assertEquals(0, adaptive.getInFlightCount());
+        assertEquals(0, adaptive.getSmoothedRoundTripMicros());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_003: [The function shall take a slot if fewer publishes than the size of the window are in flight, and wait for a slot up to the timeout otherwise.]
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_004: [If no slot is freed before the timeout, the function shall return false.]
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_005: [The function shall free a slot and wake up the callers waiting for one.]
+    @Test
+    public void tryAcquireFailsWhileWindowIsFull()
+    {
+        Object window = createWindow(2, false);
+
+        assertTrue(tryAcquire(window));
+        assertTrue(tryAcquire(window));
+        assertFalse(tryAcquire(window));
+        Deencapsulation.invoke(window, "release");
+        assertTrue(tryAcquire(window));
+        assertEquals(2, statistics(window).getInFlightCount());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_006: [The function shall update the smoothed and the minimum round trip with the round trip of the publish.]
+    @Test
+    public void onDeliveredMeasuresRoundTrip()
+    {
+        Object window = createWindow(10, false);
+
+        deliver(window, FLAT_RTT_NANOS);
+        deliver(window, 2 * FLAT_RTT_NANOS);
+
+        InFlightWindowStatistics statistics = statistics(window);
+        long flatRttMicros = TimeUnit.NANOSECONDS.toMicros(FLAT_RTT_NANOS);
+        assertTrue(statistics.getMinRoundTripMicros() >= flatRttMicros);
+        assertTrue(statistics.getMinRoundTripMicros() < 2 * flatRttMicros);
+        assertTrue(statistics.getSmoothedRoundTripMicros() > statistics.getMinRoundTripMicros());
+        assertTrue(statistics.getSmoothedRoundTripMicros() < 2 * flatRttMicros);
+        assertEquals(0, statistics.getInFlightCount());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_007: [If the window is adaptive and the round trip is up to FLAT_RTT_FACTOR times the minimum round trip, the function shall grow the window by one slot once a full window of publishes is acknowledged, up to the maximum size.]
+    @Test
+    public void adaptiveWindowGrowsWhileRoundTripIsFlat()
+    {
+        Object window = createWindow(12, true);
+
+        for (int i = 0; i < 10; i++)
+        {
+            deliver(window, FLAT_RTT_NANOS);
+        }
+        int sizeAfterOneWindow = statistics(window).getWindowSize();
+        for (int i = 0; i < 100; i++)
+        {
+            deliver(window, FLAT_RTT_NANOS);
+        }
+
+        assertEquals(11, sizeAfterOneWindow);
+        assertEquals(12, statistics(window).getWindowSize());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_007: [If the window is adaptive and the round trip is up to FLAT_RTT_FACTOR times the minimum round trip, the function shall grow the window by one slot once a full window of publishes is acknowledged, up to the maximum size.]
+    @Test
+    public void windowDoesNotGrowWhileRoundTripIsInflated()
+    {
+        Object adaptive = createWindow(100, true);
+        Object fixed = createWindow(10, false);
+        deliver(adaptive, FLAT_RTT_NANOS);
+
+        for (int i = 0; i < 50; i++)
+        {
+            deliver(adaptive, 3 * FLAT_RTT_NANOS);
+            deliver(fixed, FLAT_RTT_NANOS);
+        }
+
+        assertEquals(10, statistics(adaptive).getWindowSize());
+        assertEquals(10, statistics(fixed).getWindowSize());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_008: [If the window is adaptive and the round trip is above TIMEOUT_RTT_FACTOR times the minimum round trip, the function shall shrink the window.]
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_012: [The window shall be halved, down to 1 slot, at most once for the publishes sent before the last time it shrank.]
+    @Test
+    public void adaptiveWindowShrinksOnceOnTimedOutRoundTrips()
+    {
+        Object window = createWindow(100, true);
+        deliver(window, FLAT_RTT_NANOS);
+
+        // all sent before the first one is acknowledged
+        deliver(window, 10 * FLAT_RTT_NANOS);
+        deliver(window, 10 * FLAT_RTT_NANOS);
+        deliver(window, 10 * FLAT_RTT_NANOS);
+
+        assertEquals(5, statistics(window).getWindowSize());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_009: [If the window is adaptive, the function shall shrink the window.]
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_012: [The window shall be halved, down to 1 slot, at most once for the publishes sent before the last time it shrank.]
+    @Test
+    public void onDeliveryFailedShrinksAdaptiveWindowDownToOneSlot()
+    {
+        Object adaptive = createWindow(100, true);
+        Object fixed = createWindow(10, false);
+
+        for (int i = 0; i < 10; i++)
+        {
+            tryAcquire(adaptive);
+            Deencapsulation.invoke(adaptive, "onDeliveryFailed", new Class[] {long.class}, System.nanoTime());
+            tryAcquire(fixed);
+            Deencapsulation.invoke(fixed, "onDeliveryFailed", new Class[] {long.class}, System.nanoTime());
+        }
+
+        assertEquals(1, statistics(adaptive).getWindowSize());
+        assertEquals(0, statistics(adaptive).getInFlightCount());
+        assertEquals(10, statistics(fixed).getWindowSize());
+    }
+
+    // Tests_SRS_MQTTINFLIGHTWINDOW_45_010: [If the window is adaptive, the function shall shrink the window and forget the minimum round trip.]
+    @Test
+    public void onConnectionLostShrinksAdaptiveWindowAndForgetsMinimumRoundTrip()
+    {
+        Object window = createWindow(100, true);
+        deliver(window, FLAT_RTT_NANOS);
+
+        Deencapsulation.invoke(window, "onConnectionLost");
+
+        assertEquals(5, statistics(window).getWindowSize());
+        assertEquals(0, statistics(window).getMinRoundTripMicros());
+    }
+}
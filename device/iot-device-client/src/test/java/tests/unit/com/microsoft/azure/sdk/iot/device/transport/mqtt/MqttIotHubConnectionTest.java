@@ -6,20 +6,32 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvider;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.*;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /* Unit tests for MqttIotHubConnection
  * Code coverage: 100% methods, 95% lines
@@ -37,6 +49,7 @@ public class MqttIotHubConnectionTest
     final int qos = 1;
     final String publishTopic = "devices/test-deviceId/messages/events/";
     final String subscribeTopic = "devices/test-deviceId/messages/devicebound/#";
+    private static final String SUBSCRIPTION_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription";
     final String expectedToken = "someToken";
     final byte[] expectedMessageBody = { 0x61, 0x62, 0x63 };
 
@@ -393,6 +406,7 @@ public class MqttIotHubConnectionTest
             {
                 Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
                 result = mockedMqttConnection;
+                Deencapsulation.invoke(mockedMqttConnection, "setInFlightWindow", new Class[] {int.class, boolean.class}, anyInt, anyBoolean);
             }
         };
 
@@ -451,6 +465,7 @@ public class MqttIotHubConnectionTest
             {
                 Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
                 result = mockedMqttConnection;
+                Deencapsulation.invoke(mockedMqttConnection, "setInFlightWindow", new Class[] {int.class, boolean.class}, anyInt, anyBoolean);
             }
         };
 
@@ -619,7 +634,7 @@ public class MqttIotHubConnectionTest
             {
                 mockedMessage.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockedMessage);
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
             }
         };
 
@@ -632,7 +647,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                mockDeviceMessaging.send(mockedMessage);
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
                 times = 1;
             }
         };
@@ -744,7 +759,7 @@ public class MqttIotHubConnectionTest
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully received by the service,
     // the function shall return status code ERROR.]
     @Test
-    public void sendEventReturnsErrorIfMessageNotReceived() throws IOException
+    public void sendEventReturnsErrorIfMessageNotReceived(@Mocked final MqttAsyncClient mockMqttAsyncClient) throws IOException
     {
         baseExpectations();
 
@@ -754,8 +769,10 @@ public class MqttIotHubConnectionTest
             {
                 mockedMessage.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockedMessage);
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
                 result = new IOException(anyString);
+                mockMqttAsyncClient.isConnected();
+                result = true;
             }
         };
 
@@ -767,6 +784,61 @@ public class MqttIotHubConnectionTest
         assertEquals(expectedStatus, actualStatus);
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_028: [If the message was not sent because the connection was lost and is to be restored, the function shall throw an IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void sendEventThrowsIfConnectionLostWhileSending(@Mocked final MqttAsyncClient mockMqttAsyncClient) throws IOException
+    {
+        baseExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytes();
+                result = msgBody;
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
+                result = new IOException(anyString);
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        connection.sendEvent(mockedMessage);
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully received by the service,
+    // the function shall return status code ERROR.]
+    @Test
+    public void sendEventReturnsErrorIfConnectionLostForGood(@Mocked final MqttAsyncClient mockMqttAsyncClient) throws IOException
+    {
+        baseExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytes();
+                result = msgBody;
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
+                result = new IOException(anyString);
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        // the credentials expired, so the connection will not be restored.
+        Deencapsulation.invoke(Deencapsulation.getField(connection, "reconnector"), "stop");
+
+        IotHubStatusCode actualStatus = connection.sendEvent(mockedMessage);
+
+        assertEquals(IotHubStatusCode.ERROR, actualStatus);
+    }
+
     @Test
     public void sendEventSendsDeviceTwinMessage(@Mocked final IotHubTransportMessage mockDeviceTwinMsg) throws IOException
     {
@@ -788,20 +860,23 @@ public class MqttIotHubConnectionTest
         MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
         connection.open();
         IotHubStatusCode result = connection.sendEvent(mockDeviceTwinMsg);
+        IotHubStatusCode secondResult = connection.sendEvent(mockDeviceTwinMsg);
 
         assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        assertEquals(IotHubStatusCode.OK_EMPTY, secondResult);
 
+        // the device twin client is started once by open, not by every message.
         new Verifications()
         {
             {
                 mockDeviceMethod.send((IotHubTransportMessage)any);
                 times = 0;
-                mockDeviceMessaging.send(mockDeviceTwinMsg);
+                mockDeviceMessaging.send(mockDeviceTwinMsg, (IMqttActionListener) any);
                 times = 0;
                 mockDeviceTwin.start();
                 times = 1;
                 mockDeviceTwin.send(mockDeviceTwinMsg);
-                times = 1;
+                times = 2;
             }
         };
     }
@@ -837,7 +912,7 @@ public class MqttIotHubConnectionTest
                 times = 1;
                 mockDeviceMethod.send(mockDeviceMethodMsg);
                 times = 1;
-                mockDeviceMessaging.send(mockDeviceMethodMsg);
+                mockDeviceMessaging.send(mockDeviceMethodMsg, (IMqttActionListener) any);
                 times = 0;
                 mockDeviceTwin.send(mockDeviceMethodMsg);
                 times = 0;
@@ -845,6 +920,416 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_007: [The function shall size the in flight window of the connection with the window size and mode of the configuration.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_009: [The function shall return the statistics of the in flight window of the MQTT connection.]
+    @Test
+    public void openSizesInFlightWindowFromConfig(@Mocked final InFlightWindowStatistics mockStatistics) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMqttInFlightWindowSize();
+                result = 64;
+                mockConfig.isMqttInFlightWindowAdaptive();
+                result = true;
+                Deencapsulation.invoke(mockedMqttConnection, "getInFlightWindowStatistics");
+                result = mockStatistics;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        assertEquals(mockStatistics, connection.getInFlightWindowStatistics());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "setInFlightWindow", 64, true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_021: [If the configuration has an MQTT persistence directory, the function shall keep the messages in flight of the connection in a file persistence in this directory.]
+    @Test
+    public void openKeepsMessagesInFlightInFilePersistenceIfConfigured(@Mocked final MqttFilePersistence mockPersistence) throws IOException
+    {
+        baseExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMqttPersistenceDirectory();
+                result = "mqtt-persistence";
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, MqttClientPersistence.class}, anyString, anyString, anyString, anyString, any, any);
+                result = mockedMqttConnection;
+                new MqttMessaging(mockedMqttConnection, anyString, (MqttConnectionStateListener) any);
+                result = mockDeviceMessaging;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        new Verifications()
+        {
+            {
+                new MqttFilePersistence(new File("mqtt-persistence"));
+                times = 1;
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, MqttClientPersistence.class}, anyString, anyString, anyString, anyString, any, any);
+                times = 1;
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, anyString, anyString, anyString, anyString, any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_008: [If the connection was never opened, the function shall return null.]
+    @Test
+    public void getInFlightWindowStatisticsReturnsNullBeforeOpen() throws IOException
+    {
+        baseExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        assertNull(connection.getInFlightWindowStatistics());
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_010: [The function shall create the reconnector of the connection on the scheduler of the client runtime of the configuration, if any, or on a scheduler of its own otherwise, and set it on the messaging client.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_011: [The function shall stop the reconnector, and shut down its scheduler if it is not the scheduler of a client runtime, before closing the MQTT connection.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_014: [The function shall return the statistics of the reconnector of the connection.]
+    @Test
+    public void openCreatesReconnectorOnSchedulerOfClientRuntime(@Mocked final ClientRuntime mockRuntime,
+                                                                 @Mocked final ScheduledExecutorService mockScheduler) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = mockRuntime;
+                mockRuntime.getScheduler();
+                result = mockScheduler;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        connection.open();
+        final Object reconnector = Deencapsulation.getField(connection, "reconnector");
+        ReconnectStatistics statistics = connection.getReconnectStatistics();
+        connection.close();
+
+        assertNotNull(reconnector);
+        assertEquals(mockScheduler, Deencapsulation.getField(reconnector, "scheduler"));
+        assertEquals(0L, statistics.getOutageCount());
+        assertFalse(connection.isReconnecting());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "setReconnector", reconnector);
+                times = 1;
+                mockScheduler.shutdownNow();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_010: [The function shall create the reconnector of the connection on the scheduler of the client runtime of the configuration, if any, or on a scheduler of its own otherwise, and set it on the messaging client.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_011: [The function shall stop the reconnector, and shut down its scheduler if it is not the scheduler of a client runtime, before closing the MQTT connection.]
+    @Test
+    public void closeShutsDownOwnReconnectScheduler() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getClientRuntime();
+                result = null;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        connection.open();
+        ScheduledExecutorService scheduler = Deencapsulation.getField(connection, "reconnectScheduler");
+        connection.close();
+
+        assertNotNull(scheduler);
+        assertTrue(scheduler.isShutdown());
+        assertNull(Deencapsulation.getField(connection, "reconnectScheduler"));
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_012: [The function shall return true if the connection was opened and its reconnector is restoring it, and false otherwise.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_013: [If the connection was never opened, the function shall return null.]
+    @Test
+    public void getReconnectStatisticsReturnsNullBeforeOpen()
+    {
+        baseExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        assertNull(connection.getReconnectStatistics());
+        assertFalse(connection.isReconnecting());
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_017: [If the connection is not open, the function shall return an empty list.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_019: [The function shall return the number of device twin requests waiting for their response, or 0 if the connection is not open.]
+    @Test
+    public void twinRequestsAreNotTrackedBeforeOpen()
+    {
+        baseExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        assertTrue(connection.removeExpiredTwinRequests(System.currentTimeMillis()).isEmpty());
+        assertEquals(0, connection.getPendingTwinRequestCount());
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_018: [The function shall return the responses of the device twin requests that timed out.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_019: [The function shall return the number of device twin requests waiting for their response, or 0 if the connection is not open.]
+    @Test
+    public void twinRequestsAreTrackedByDeviceTwin(@Mocked final IotHubTransportMessage mockTimeoutResponse)
+    {
+        baseExpectations();
+        final long currentTimeMillis = 1234L;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceTwin.removeExpiredRequests(currentTimeMillis);
+                result = Collections.singletonList(mockTimeoutResponse);
+                mockDeviceTwin.getPendingRequestCount();
+                result = 6;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        Deencapsulation.setField(connection, "deviceTwin", mockDeviceTwin);
+
+        List<IotHubTransportMessage> timeoutResponses = connection.removeExpiredTwinRequests(currentTimeMillis);
+
+        assertEquals(1, timeoutResponses.size());
+        assertEquals(mockTimeoutResponse, timeoutResponses.get(0));
+        assertEquals(6, connection.getPendingTwinRequestCount());
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_020: [If the telemetry delivery mode of the configuration is AT_MOST_ONCE, the function shall send the telemetry message at QoS 0 and notify the delivery listener of the success right away.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_027: [If the telemetry message is sent at QoS 0, the function shall release the slot of the in flight window held for it right away.]
+    @Test
+    public void sendEventSendsTelemetryAtMostOnceIfConfigured(@Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytes();
+                result = msgBody;
+                mockConfig.getMqttTelemetryDeliveryMode();
+                result = TelemetryDeliveryMode.AT_MOST_ONCE;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockedMessage, mockListener);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.sendAtMostOnce(mockedMessage);
+                times = 1;
+                mockDeviceMessaging.send(mockedMessage, (IMqttActionListener) any);
+                times = 0;
+                mockListener.onSuccess(null);
+                times = 1;
+                Deencapsulation.invoke(mockedMqttConnection, "releaseInFlightSlot");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_024: [If the MQTT connection is closed, the function shall throw an IOException.]
+    @Test (expected = IOException.class)
+    public void tryAcquireInFlightSlotThrowsIfClosed() throws IOException
+    {
+        baseExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        connection.tryAcquireInFlightSlot();
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_025: [The function shall try to take a slot of the in flight window of the MQTT connection without holding the connection lock, and return whether it took one.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_026: [The function shall release a slot of the in flight window of the MQTT connection.]
+    @Test
+    public void tryAcquireAndReleaseInFlightSlotUseWindowOfMqttConnection() throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.tryAcquireInFlightSlot();
+        connection.releaseInFlightSlot();
+
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "tryAcquireInFlightSlot");
+                times = 1;
+                Deencapsulation.invoke(mockedMqttConnection, "releaseInFlightSlot");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_020: [If the telemetry delivery mode of the configuration is AT_MOST_ONCE, the function shall send the telemetry message at QoS 0 and notify the delivery listener of the success right away.]
+    @Test
+    public void sendEventSendsDeviceTwinMessageAtLeastOnceIfTelemetryIsAtMostOnce(@Mocked final IotHubTransportMessage mockDeviceTwinMsg) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceTwinMsg.getBytes();
+                result = msgBody;
+                mockDeviceTwinMsg.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+                mockConfig.getMqttTelemetryDeliveryMode();
+                result = TelemetryDeliveryMode.AT_MOST_ONCE;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        connection.sendEvent(mockDeviceTwinMsg);
+
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.sendAtMostOnce((Message) any);
+                times = 0;
+                mockDeviceTwin.send(mockDeviceTwinMsg);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_005: [The function shall pass the delivery listener to the messaging client, so it is notified once the IoT Hub acknowledges the telemetry message.]
+    @Test
+    public void sendEventPassesDeliveryListenerToMessaging(@Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytes();
+                result = msgBody;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockedMessage, mockListener);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.send(mockedMessage, mockListener);
+                times = 1;
+                mockListener.onSuccess((IMqttToken) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_45_006: [If a device twin or device method message is sent, the function shall notify the delivery listener of the success right away.]
+    @Test
+    public void sendEventNotifiesDeliveryListenerForDeviceTwinMessage(@Mocked final IotHubTransportMessage mockDeviceTwinMsg,
+                                                                       @Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceTwinMsg.getBytes();
+                result = msgBody;
+                mockDeviceTwinMsg.getMessageType();
+                result = MessageType.DEVICE_TWIN;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockDeviceTwinMsg, mockListener);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        new VerificationsInOrder()
+        {
+            {
+                mockDeviceTwin.send(mockDeviceTwinMsg);
+                times = 1;
+                mockListener.onSuccess(null);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully received by the service,
+    // the function shall return status code ERROR.]
+    @Test
+    public void sendEventDoesNotNotifyDeliveryListenerOnError(@Mocked final IotHubTransportMessage mockDeviceMethodMsg,
+                                                              @Mocked final IMqttActionListener mockListener,
+                                                              @Mocked final MqttAsyncClient mockMqttAsyncClient) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceMethodMsg.getBytes();
+                result = msgBody;
+                mockDeviceMethodMsg.getMessageType();
+                result = MessageType.DEVICE_METHODS;
+                mockDeviceMethod.send(mockDeviceMethodMsg);
+                result = new IOException();
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockDeviceMethodMsg, mockListener);
+
+        assertEquals(IotHubStatusCode.ERROR, result);
+        new Verifications()
+        {
+            {
+                mockListener.onSuccess((IMqttToken) any);
+                times = 0;
+                mockListener.onFailure((IMqttToken) any, (Throwable) any);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_014: [The function shall attempt to consume a message
     // from the received messages queue.]
     @Test
@@ -1213,6 +1698,198 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_001: [This function shall save the provided receive signal.]
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_004: [If this object has a saved receive signal, this function shall signal it.]
+    @Test
+    public void messageReceivedSignalsRegisteredReceiveSignal(@Mocked final IotHubSignalledTask mockSignal)
+    {
+        //arrange
+        baseExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        Deencapsulation.invoke(connection, "registerReceiveSignal", mockSignal);
+
+        //act
+        connection.messageReceived();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_015: [This function shall save the provided send signal.]
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_016: [If this object has a saved send signal, this function shall signal it, so the messages kept while the connection was down are sent.]
+    @Test
+    public void connectionEstablishedSignalsRegisteredSendSignal(@Mocked final IotHubSignalledTask mockSignal)
+    {
+        //arrange
+        baseExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        Deencapsulation.invoke(connection, "registerSendSignal", mockSignal);
+
+        //act
+        connection.connectionEstablished();
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_022: [The function shall subscribe to the cloud to device messages and the device twin responses in a single SUBSCRIBE once connected, and start the device method and device twin clients.]
+    @Test
+    public void openSubscribesToMessagesAndTwinResponsesAtOnce() throws Exception
+    {
+        //arrange
+        baseExpectations();
+        openExpectations();
+        final Object responseSubscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "$iothub/twin/res/#");
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceTwin, "getResponseSubscription");
+                result = responseSubscription;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        //act
+        connection.open();
+
+        //assert
+        final Object expectedSubscriptions = subscriptions(responseSubscription);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "start", new Class[] { expectedSubscriptions.getClass() }, expectedSubscriptions);
+                times = 1;
+                mockDeviceTwin.start();
+                times = 1;
+                mockDeviceMethod.start();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_023: [If the connection is open, this function shall subscribe again, in a single SUBSCRIBE, to the requested subscriptions the IoT Hub did not grant yet, before signalling the send signal.]
+    @Test
+    public void connectionEstablishedRestoresRequestedSubscriptions() throws Exception
+    {
+        //arrange
+        baseExpectations();
+        openExpectations();
+        final Object messagingSubscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "devices/test-deviceId/messages/devicebound/#");
+        final Object responseSubscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "$iothub/twin/res/#");
+        final Object desiredPropertiesSubscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "$iothub/twin/PATCH/properties/desired/#");
+        final Object methodSubscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "$iothub/methods/POST/#");
+        Deencapsulation.invoke(messagingSubscription, "beginSubscribe");
+        Deencapsulation.invoke(messagingSubscription, "completeSubscribe", true);
+        Deencapsulation.invoke(responseSubscription, "beginSubscribe");
+        Deencapsulation.invoke(responseSubscription, "completeSubscribe", false);
+        Deencapsulation.invoke(methodSubscription, "beginSubscribe");
+        Deencapsulation.invoke(methodSubscription, "completeSubscribe", false);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "getSubscription");
+                result = messagingSubscription;
+                Deencapsulation.invoke(mockDeviceTwin, "getResponseSubscription");
+                result = responseSubscription;
+                Deencapsulation.invoke(mockDeviceTwin, "getDesiredPropertiesSubscription");
+                result = desiredPropertiesSubscription;
+                Deencapsulation.invoke(mockDeviceMethod, "getSubscription");
+                result = methodSubscription;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        //act
+        connection.connectionEstablished();
+
+        //assert
+        final Object expectedSubscriptions = subscriptions(responseSubscription, methodSubscription);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "subscribe", new Class[] { expectedSubscriptions.getClass() }, expectedSubscriptions);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_023: [If the connection is open, this function shall subscribe again, in a single SUBSCRIBE, to the requested subscriptions the IoT Hub did not grant yet, before signalling the send signal.]
+    @Test
+    public void connectionEstablishedDoesNotSubscribeIfClosed() throws Exception
+    {
+        //arrange
+        baseExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        //act
+        connection.connectionEstablished();
+
+        //assert
+        final Class<?> subscriptionsClass = subscriptions().getClass();
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "subscribe", new Class[] { subscriptionsClass }, any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_002: [If the MQTT connection is closed, this function shall return 0.]
+    @Test
+    public void getReceivedMessageCountReturnsZeroIfClosed()
+    {
+        //arrange
+        baseExpectations();
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+
+        //act
+        int count = Deencapsulation.invoke(connection, "getReceivedMessageCount");
+
+        //assert
+        assertEquals(0, count);
+    }
+
+    //Tests_SRS_MQTTIOTHUBCONNECTION_45_003: [This function shall return the number of messages in the received messages queues of the message router.]
+    @Test
+    public void getReceivedMessageCountReturnsQueueSize() throws IOException
+    {
+        //arrange
+        final Object messageRouter = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
+        Deencapsulation.invoke(messageRouter, "route", "devices/deviceId/messages/devicebound/", new byte[0]);
+        Deencapsulation.invoke(messageRouter, "route", "$iothub/twin/res/200/?$rid=1", new byte[0]);
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = messageRouter;
+            }
+        };
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+
+        //act
+        int count = Deencapsulation.invoke(connection, "getReceivedMessageCount");
+
+        //assert
+        assertEquals(2, count);
+    }
+
     private void baseExpectations()
     {
         new NonStrictExpectations() {
@@ -1232,6 +1909,16 @@ public class MqttIotHubConnectionTest
         };
     }
 
+    private static Object subscriptions(Object... subscriptions) throws ClassNotFoundException
+    {
+        Object array = Array.newInstance(Class.forName(SUBSCRIPTION_CLASS), subscriptions.length);
+        for (int i = 0; i < subscriptions.length; i++)
+        {
+            Array.set(array, i, subscriptions[i]);
+        }
+        return array;
+    }
+
     private void openExpectations() throws IOException
     {
         new NonStrictExpectations()
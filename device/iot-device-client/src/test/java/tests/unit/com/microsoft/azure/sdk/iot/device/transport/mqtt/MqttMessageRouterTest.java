@@ -0,0 +1,102 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import mockit.Deencapsulation;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.Queue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/** Unit tests for MqttMessageRouter. */
+public class MqttMessageRouterTest
+{
+    private static final String ROUTER_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter";
+    private static final String MESSAGING_TOPIC = "devices/deviceId/messages/devicebound/%24.mid=1&property=value";
+    private static final String DEVICE_TWIN_TOPIC = "$iothub/twin/res/200/?$rid=1";
+    private static final String DEVICE_METHOD_TOPIC = "$iothub/methods/POST/reboot/?$rid=1";
+
+    private static Object route(String name) throws ClassNotFoundException
+    {
+        return Deencapsulation.getField(Class.forName(ROUTER_CLASS + "$Route"), name);
+    }
+
+    private static Object classify(String topic) throws ClassNotFoundException
+    {
+        return Deencapsulation.invoke(Class.forName(ROUTER_CLASS), "classify", new Class[] {String.class}, topic);
+    }
+
+    private static Queue<Pair<String, byte[]>> getQueue(Object router, String routeName) throws ClassNotFoundException
+    {
+        return Deencapsulation.invoke(router, "getQueue", route(routeName));
+    }
+
+    // Tests_SRS_MQTTMESSAGEROUTER_45_001: [The function shall return DEVICE_METHOD for a topic longer than and starting with `$iothub/methods/`, DEVICE_TWIN for a topic longer than and starting with `$iothub/twin`, and MESSAGING for any other topic, including a null one.]
+    @Test
+    public void classifyRoutesTopicsByPrefix() throws ClassNotFoundException
+    {
+        assertSame(route("DEVICE_METHOD"), classify(DEVICE_METHOD_TOPIC));
+        assertSame(route("DEVICE_TWIN"), classify(DEVICE_TWIN_TOPIC));
+        assertSame(route("DEVICE_TWIN"), classify("$iothub/twin/PATCH/properties/desired/?$version=2"));
+        assertSame(route("MESSAGING"), classify(MESSAGING_TOPIC));
+        assertSame(route("MESSAGING"), classify("$iothub/methods/"));
+        assertSame(route("MESSAGING"), classify("$iothub/twin"));
+        assertSame(route("MESSAGING"), classify(""));
+        assertSame(route("MESSAGING"), classify(null));
+    }
+
+    // Tests_SRS_MQTTMESSAGEROUTER_45_002: [The function shall classify the topic and add the topic and payload to the queue of its route.]
+    // Tests_SRS_MQTTMESSAGEROUTER_45_003: [The function shall return the queue of the provided route.]
+    @Test
+    public void routeAddsMessageToQueueOfItsRoute() throws ClassNotFoundException
+    {
+        Object router = Deencapsulation.newInstance(ROUTER_CLASS);
+        byte[] payload = {1, 2, 3};
+
+        Deencapsulation.invoke(router, "route", DEVICE_TWIN_TOPIC, payload);
+
+        Queue<Pair<String, byte[]>> twinQueue = getQueue(router, "DEVICE_TWIN");
+        assertEquals(0, getQueue(router, "DEVICE_METHOD").size());
+        assertEquals(0, getQueue(router, "MESSAGING").size());
+        assertEquals(1, twinQueue.size());
+        assertEquals(DEVICE_TWIN_TOPIC, twinQueue.peek().getKey());
+        assertArrayEquals(payload, twinQueue.peek().getValue());
+        assertNotSame(twinQueue, getQueue(router, "MESSAGING"));
+    }
+
+    // Tests_SRS_MQTTMESSAGEROUTER_45_002: [The function shall classify the topic and add the topic and payload to the queue of its route.]
+    // Tests_SRS_MQTTMESSAGEROUTER_45_004: [The function shall return the number of messages in all the queues.]
+    @Test
+    public void mixedLoadIsRoutedInArrivalOrderPerClient() throws ClassNotFoundException
+    {
+        Object router = Deencapsulation.newInstance(ROUTER_CLASS);
+        String[] topics = {MESSAGING_TOPIC, DEVICE_TWIN_TOPIC, DEVICE_METHOD_TOPIC};
+        int messageCount = 30000;
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            Deencapsulation.invoke(router, "route", topics[i % topics.length], new byte[] {(byte) (i / topics.length)});
+        }
+
+        assertEquals(messageCount, (int) Deencapsulation.invoke(router, "size"));
+        String[] routes = {"MESSAGING", "DEVICE_TWIN", "DEVICE_METHOD"};
+        for (int route = 0; route < routes.length; route++)
+        {
+            Queue<Pair<String, byte[]>> queue = getQueue(router, routes[route]);
+            assertEquals(messageCount / topics.length, queue.size());
+            for (int i = 0; i < messageCount / topics.length; i++)
+            {
+                Pair<String, byte[]> message = queue.poll();
+                assertEquals(topics[route], message.getKey());
+                assertEquals((byte) i, message.getValue()[0]);
+            }
+        }
+        assertEquals(0, (int) Deencapsulation.invoke(router, "size"));
+    }
+}
@@ -11,12 +11,18 @@ import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnectionStateListener;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessaging;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertArrayEquals;
 
 /*
  * Unit tests for MqttMessaging.java
@@ -27,6 +33,8 @@ public class MqttMessagingTest
     private static final String CLIENT_ID = "test.iothub";
     private static final String MOCK_PARSE_TOPIC = "testTopic";
 
+    private static final String SUBSCRIPTION_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription";
+
     @Mocked
     private IOException mockedIOException;
 
@@ -39,6 +47,11 @@ public class MqttMessagingTest
     @Mocked
     private MqttConnectionStateListener mockedMqttConnectionStateListener;
 
+    private static Class<?> subscriptionsClass() throws ClassNotFoundException
+    {
+        return Array.newInstance(Class.forName(SUBSCRIPTION_CLASS), 0).getClass();
+    }
+
     //Tests_SRS_MqttMessaging_25_002: [The constructor shall use the configuration to instantiate super class and passing the parameters.]
     //Tests_SRS_MqttMessaging_25_003: [The constructor construct publishTopic and subscribeTopic from deviceId.]
     //Tests_SRS_MqttMessaging_25_004: [The constructor shall save the provided listener.]
@@ -85,14 +98,14 @@ public class MqttMessagingTest
     **Tests_SRS_MqttMessaging_25_021: [**start method shall subscribe to messaging subscribe topic once connected.**]**
      */
     @Test
-    public  void startCallsConnectAndSubscribe(@Mocked final Mqtt mockMqtt) throws IOException
+    public  void startCallsConnectAndSubscribe(@Mocked final Mqtt mockMqtt) throws Exception
     {
 
         new NonStrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
             }
         };
 
@@ -104,15 +117,55 @@ public class MqttMessagingTest
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 1;
             }
         };
 
     }
 
+    /*
+    **Tests_SRS_MqttMessaging_45_005: [**start method shall subscribe to the messaging subscribe topic and the provided subscriptions in a single call to subscribe().**]**
+    **Tests_SRS_MqttMessaging_45_006: [**The function shall return the subscription to the messaging subscribe topic.**]**
+     */
+    @Test
+    public void startSubscribesToAllSubscriptionsAtOnce(@Mocked final MqttAsyncClient mockMqttAsyncClient) throws Exception
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
+                result = new Object();
+                Deencapsulation.invoke(mockedMqttConnection, "getMqttAsyncClient");
+                result = mockMqttAsyncClient;
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+        Object others = Array.newInstance(Class.forName(SUBSCRIPTION_CLASS), 1);
+        Array.set(others, 0, Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "$iothub/twin/res/#"));
+
+        //act
+        Deencapsulation.invoke(testMqttMessaging, "start", new Class[] { subscriptionsClass() }, others);
+
+        //assert
+        final List<String[]> topics = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.subscribe(withCapture(topics), (int[]) any, any, (IMqttActionListener) any);
+                times = 1;
+            }
+        };
+        Object subscription = Deencapsulation.invoke(testMqttMessaging, "getSubscription");
+        assertArrayEquals(new String[] { Deencapsulation.<String>invoke(subscription, "getTopic"), "$iothub/twin/res/#" }, topics.get(0));
+        assertEquals("devices/" + CLIENT_ID + "/messages/devicebound/#", Deencapsulation.invoke(subscription, "getTopic"));
+    }
+
     @Test (expected = IOException.class)
-    public void startThrowsIoExceptionIfConnectFails(@Mocked final Mqtt mockMqtt) throws IOException
+    public void startThrowsIoExceptionIfConnectFails(@Mocked final Mqtt mockMqtt) throws Exception
     {
         new StrictExpectations()
         {
@@ -130,7 +183,7 @@ public class MqttMessagingTest
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 0;
 
             }
@@ -139,13 +192,13 @@ public class MqttMessagingTest
     }
 
     @Test (expected = IOException.class)
-    public void startThrowsIoExceptionIfSubscribeFails(@Mocked final Mqtt mockMqtt) throws IOException
+    public void startThrowsIoExceptionIfSubscribeFails(@Mocked final Mqtt mockMqtt) throws Exception
     {
         new StrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 result = mockedIOException;
             }
         };
@@ -158,7 +211,7 @@ public class MqttMessagingTest
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 times = 1;
 
             }
@@ -195,13 +248,13 @@ public class MqttMessagingTest
     }
 
     @Test (expected = IOException.class)
-    public void stopIfDisconnectFailsThrowsIOException(@Mocked final Mqtt mockMqtt) throws IOException
+    public void stopIfDisconnectFailsThrowsIOException(@Mocked final Mqtt mockMqtt) throws Exception
     {
         new StrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockMqtt, "connect");
-                Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
+                Deencapsulation.invoke(mockMqtt, "subscribe", new Class[] { subscriptionsClass() }, any);
                 Deencapsulation.invoke(mockMqtt, "disconnect");
                 result = mockedIOException;
             }
@@ -230,9 +283,9 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, anyString, messageBody, null);
             }
         };
 
@@ -242,9 +295,9 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
-                times = 2;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                mockedMessage.getBytesNoCopy();
+                times = 1;
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, anyString, messageBody, null);
                 times = 1;
 
             }
@@ -252,6 +305,32 @@ public class MqttMessagingTest
 
     }
 
+    //Tests_SRS_MqttMessaging_45_001: [send method shall pass the delivery listener to publish, so it is notified once the delivery completes.]
+    @Test
+    public void sendPassesDeliveryListenerToPublish(@Mocked final Mqtt mockMqtt,
+                                                    @Mocked final IMqttActionListener mockListener) throws IOException
+    {
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytesNoCopy();
+                result = messageBody;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+        testMqttMessaging.send(mockedMessage, mockListener);
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, anyString, messageBody, mockListener);
+                times = 1;
+            }
+        };
+    }
+
     @Test (expected =  IOException.class)
     public void sendShallThrowIOExceptionIfMessageIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
@@ -259,9 +338,9 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
-                Deencapsulation.invoke(mockMqtt, "publish", anyString, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, anyString, messageBody, null);
                 result = mockedIOException;
             }
         };
@@ -272,9 +351,9 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 times = 1;
-                Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, MOCK_PARSE_TOPIC, new byte[1], null);
                 times = 1;
             }
         };
@@ -293,9 +372,9 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 times = 0;
-                Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, MOCK_PARSE_TOPIC, new byte[1], null);
                 times = 0;
             }
         };
@@ -318,7 +397,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getProperties();
                 result = messageProperties;
@@ -335,7 +414,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCustomProperties,  messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithCustomProperties, messageBody, null);
                 times = 1;
             }
         };
@@ -353,7 +432,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getProperties();
                 result = messageProperties;
@@ -371,7 +450,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithMessageId, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithMessageId, messageBody, null);
                 times = 1;
             }
         };
@@ -389,7 +468,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getProperties();
                 result = messageProperties;
@@ -407,7 +486,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithCorrelationId, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithCorrelationId, messageBody, null);
                 times = 1;
             }
         };
@@ -425,7 +504,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getProperties();
                 result = messageProperties;
@@ -443,7 +522,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithUserId, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithUserId, messageBody, null);
                 times = 1;
             }
         };
@@ -461,7 +540,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getProperties();
                 result = messageProperties;
@@ -479,7 +558,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithTo, messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithTo, messageBody, null);
                 times = 1;
             }
         };
@@ -510,7 +589,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesNoCopy();
                 result = messageBody;
                 mockedMessage.getMessageId();
                 result = messageId;
@@ -535,9 +614,82 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithAllSystemAndCustomProperties,  messageBody);
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, publishTopicWithAllSystemAndCustomProperties, messageBody, null);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MqttMessaging_45_002: [send method shall percent-encode the names and values of the properties appended to publishTopic, reusing the topic encoder of the connection.]
+    @Test
+    public void sendShallPercentEncodePropertiesInPublishTopic(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        final String messageId = "id&1";
+        final MessageProperty[] messageProperties = new MessageProperty[]
+                {
+                        new MessageProperty("key=1", "a b/c")
+                };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytesNoCopy();
+                result = messageBody;
+                mockedMessage.getMessageId();
+                result = messageId;
+                mockedMessage.getProperties();
+                result = messageProperties;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+        final String expectedPublishTopic = "devices/" + CLIENT_ID + "/messages/events/$.mid=id%261&key%3D1=a%20b%2Fc";
+
+        // act
+        testMqttMessaging.send(mockedMessage);
+        testMqttMessaging.send(mockedMessage);
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, expectedPublishTopic, messageBody, null);
+                times = 2;
+            }
+        };
+    }
+
+    //Tests_SRS_MqttMessaging_45_004: [sendAtMostOnce method shall publish the message at QoS 0 on the same publish topic as send, by calling method publishAtMostOnce().]
+    @Test
+    public void sendAtMostOncePublishesAtMostOnce(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytesNoCopy();
+                result = messageBody;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+        testMqttMessaging.sendAtMostOnce(mockedMessage);
+
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", new Class[] {String.class, byte[].class}, anyString, messageBody);
                 times = 1;
+                Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, anyString, messageBody, null);
+                times = 0;
             }
         };
     }
+
+    //Tests_SRS_MqttMessaging_45_003: [sendAtMostOnce method shall throw an exception if the message is null.]
+    @Test (expected = IOException.class)
+    public void sendAtMostOnceThrowsIOExceptionIfMessageIsNull(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+        testMqttMessaging.sendAtMostOnce(null);
+    }
 }
@@ -0,0 +1,182 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttNioCodec. The packets are checked byte by byte against
+ * the MQTT 3.1.1 encoding.
+ */
+public class MqttNioCodecTest
+{
+    private static final String CODEC_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioCodec";
+
+    private static byte[] toArray(ByteBuffer packet)
+    {
+        byte[] bytes = new byte[packet.remaining()];
+        packet.duplicate().get(bytes);
+        return bytes;
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_001: [The function shall return the 4 high bits of the header.]
+    @Test
+    public void getPacketTypeReturnsHighBits()
+    {
+        // act
+        int type = Deencapsulation.invoke(CODEC_CLASS, "getPacketType", 0x3B);
+
+        // assert
+        assertEquals(3, type);
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password flags and fields of the ones that are not null.]
+    @Test
+    public void encodeConnectEncodesAllFields()
+    {
+        // act
+        ByteBuffer packet = Deencapsulation.invoke(CODEC_CLASS, "encodeConnect", "id", "user", "pw", 230, false);
+
+        // assert
+        byte[] expected = { 0x10, 24, 0, 4, 'M', 'Q', 'T', 'T', 4, (byte) 0xC0, 0, (byte) 230,
+                0, 2, 'i', 'd', 0, 4, 'u', 's', 'e', 'r', 0, 2, 'p', 'w' };
+        assertArrayEquals(expected, toArray(packet));
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_002: [The function shall encode a CONNECT packet of protocol level 4 with the client identifier, and the user name and password flags and fields of the ones that are not null.]
+    @Test
+    public void encodeConnectOmitsNullPassword() throws ClassNotFoundException
+    {
+        // act
+        ByteBuffer packet = Deencapsulation.invoke(Class.forName(CODEC_CLASS), "encodeConnect",
+                new Class[] { String.class, String.class, String.class, int.class, boolean.class }, "id", "user", null, 60, true);
+
+        // assert
+        byte[] expected = { 0x10, 20, 0, 4, 'M', 'Q', 'T', 'T', 4, (byte) 0x82, 0, 60,
+                0, 2, 'i', 'd', 0, 4, 'u', 's', 'e', 'r' };
+        assertArrayEquals(expected, toArray(packet));
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_003: [The function shall encode a PUBLISH packet with the topic, the packet identifier if the QoS is above 0, and the payload.]
+    @Test
+    public void encodePublishEncodesPacketIdAtQos1()
+    {
+        // act
+        ByteBuffer packet = Deencapsulation.invoke(CODEC_CLASS, "encodePublish", "a/b", new byte[] { 9, 8 }, 1, 0x0102);
+
+        // assert
+        byte[] expected = { 0x32, 9, 0, 3, 'a', '/', 'b', 1, 2, 9, 8 };
+        assertArrayEquals(expected, toArray(packet));
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_003: [The function shall encode a PUBLISH packet with the topic, the packet identifier if the QoS is above 0, and the payload.]
+    @Test
+    public void encodePublishEncodesLongRemainingLength()
+    {
+        // arrange
+        byte[] payload = new byte[200];
+
+        // act
+        ByteBuffer packet = Deencapsulation.invoke(CODEC_CLASS, "encodePublish", "t", payload, 0, 0);
+
+        // assert
+        byte[] bytes = toArray(packet);
+        assertEquals(0x30, bytes[0]);
+        assertEquals((byte) 0xCB, bytes[1]);
+        assertEquals(1, bytes[2]);
+        assertEquals(3 + 203, bytes.length);
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_005: [The function shall return a copy of the packet with the DUP flag set in its header.]
+    @Test
+    public void asDuplicateSetsDupFlagOnCopy()
+    {
+        // arrange
+        ByteBuffer packet = Deencapsulation.invoke(CODEC_CLASS, "encodePublish", "t", new byte[] { 1 }, 1, 5);
+        byte[] original = toArray(packet);
+
+        // act
+        ByteBuffer duplicate = Deencapsulation.invoke(CODEC_CLASS, "asDuplicate", packet);
+
+        // assert
+        byte[] duplicateBytes = toArray(duplicate);
+        assertEquals(0x3A, duplicateBytes[0]);
+        assertArrayEquals(Arrays.copyOfRange(original, 1, original.length), Arrays.copyOfRange(duplicateBytes, 1, duplicateBytes.length));
+        assertArrayEquals(original, toArray(packet));
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_006: [The function shall encode a PUBACK packet with the packet identifier.]
+    // Tests_SRS_MQTTNIOCODEC_45_007: [The function shall encode a SUBSCRIBE packet with the reserved flags, the packet identifier, the topic filter and the QoS.]
+    // Tests_SRS_MQTTNIOCODEC_45_008: [The function shall encode a PINGREQ packet.]
+    // Tests_SRS_MQTTNIOCODEC_45_009: [The function shall encode a DISCONNECT packet.]
+    @Test
+    public void encodeControlPackets()
+    {
+        // act
+        ByteBuffer puback = Deencapsulation.invoke(CODEC_CLASS, "encodePuback", 0x0304);
+        ByteBuffer subscribe = Deencapsulation.invoke(CODEC_CLASS, "encodeSubscribe", 7, "x/#", 1);
+        ByteBuffer pingreq = Deencapsulation.invoke(CODEC_CLASS, "encodePingreq");
+        ByteBuffer disconnect = Deencapsulation.invoke(CODEC_CLASS, "encodeDisconnect");
+
+        // assert
+        assertArrayEquals(new byte[] { 0x40, 2, 3, 4 }, toArray(puback));
+        assertArrayEquals(new byte[] { (byte) 0x82, 8, 0, 7, 0, 3, 'x', '/', '#', 1 }, toArray(subscribe));
+        assertArrayEquals(new byte[] { (byte) 0xC0, 0 }, toArray(pingreq));
+        assertArrayEquals(new byte[] { (byte) 0xE0, 0 }, toArray(disconnect));
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_011: [The function shall read the big endian integer at the offset.]
+    // Tests_SRS_MQTTNIOCODEC_45_012: [The function shall read the string after its length, and throw IOException if the body is too short.]
+    @Test
+    public void readDecodesIntegersAndStrings()
+    {
+        // arrange
+        byte[] body = { 0, 2, (byte) 0xC3, (byte) 0xA9, (byte) 0xFF, (byte) 0xFE };
+
+        // act
+        int length = Deencapsulation.invoke(CODEC_CLASS, "readUnsignedShort", body, 0);
+        int last = Deencapsulation.invoke(CODEC_CLASS, "readUnsignedShort", body, 4);
+        String value = Deencapsulation.invoke(CODEC_CLASS, "readString", body, 0);
+
+        // assert
+        assertEquals(2, length);
+        assertEquals(0xFFFE, last);
+        assertEquals(new String(new byte[] { (byte) 0xC3, (byte) 0xA9 }, StandardCharsets.UTF_8), value);
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_010: [If the body is too short, the function shall throw IOException.]
+    @Test (expected = IOException.class)
+    public void readUnsignedShortThrowsIfBodyTooShort()
+    {
+        // act
+        Deencapsulation.invoke(CODEC_CLASS, "readUnsignedShort", new byte[] { 1 }, 0);
+    }
+
+    // Tests_SRS_MQTTNIOCODEC_45_012: [The function shall read the string after its length, and throw IOException if the body is too short.]
+    @Test (expected = IOException.class)
+    public void readStringThrowsIfBodyTooShort()
+    {
+        // act
+        Deencapsulation.invoke(CODEC_CLASS, "readString", new byte[] { 0, 5, 'a' }, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void encodeSubscribeThrowsIfTopicTooLong()
+    {
+        // arrange
+        char[] topic = new char[0x10000];
+        Arrays.fill(topic, 'a');
+
+        // act
+        Deencapsulation.invoke(CODEC_CLASS, "encodeSubscribe", 1, new String(topic), 1);
+    }
+}
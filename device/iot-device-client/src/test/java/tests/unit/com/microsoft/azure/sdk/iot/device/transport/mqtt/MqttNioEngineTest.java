@@ -0,0 +1,171 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttNioEngine. The engines run real selector threads.
+ */
+public class MqttNioEngineTest
+{
+    private static final String NIO_THREAD_PREFIX = "azure-iot-sdk-mqtt-nio-";
+
+    // Tests_SRS_MQTTNIOENGINE_45_001: [If the selector thread count is smaller than 1, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfThreadCountTooSmall() throws IOException
+    {
+        // act
+        new MqttNioEngine(0);
+    }
+
+    // Tests_SRS_MQTTNIOENGINE_45_002: [The constructor shall open a selector per thread and start the selector threads as daemon threads.]
+    // Tests_SRS_MQTTNIOENGINE_45_005: [The function shall return the number of selector threads.]
+    // Tests_SRS_MQTTNIOENGINE_45_006: [The function shall return the number of channels registered with all the selector threads.]
+    @Test
+    public void constructorStartsSelectorThreads() throws IOException
+    {
+        // act
+        MqttNioEngine engine = new MqttNioEngine(3);
+
+        // assert
+        try
+        {
+            assertEquals(3, engine.getSelectorThreadCount());
+            assertEquals(0, engine.getConnectionCount());
+        }
+        finally
+        {
+            engine.close();
+        }
+    }
+
+    // Tests_SRS_MQTTNIOENGINE_45_004: [The function shall create the shared engine with the default thread count the first time it is called, and return the same engine afterwards.]
+    // Tests_SRS_MQTTNIOENGINE_45_007: [If the engine is the shared engine, the function shall throw IllegalStateException.]
+    @Test
+    public void sharedEngineIsCreatedOnceAndCannotBeClosed() throws IOException
+    {
+        // act
+        MqttNioEngine engine = MqttNioEngine.getShared();
+
+        // assert
+        assertSame(engine, MqttNioEngine.getShared());
+        assertEquals(MqttNioEngine.DEFAULT_SELECTOR_THREAD_COUNT, engine.getSelectorThreadCount());
+        try
+        {
+            engine.close();
+            fail("close should throw IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    // Tests_SRS_MQTTNIOENGINE_45_011: [The function shall run the task once after the delay on the next selector loop, and throw IllegalStateException if the engine is closed.]
+    @Test
+    public void scheduleRunsTaskOnSelectorThreadAfterDelay() throws Exception
+    {
+        // arrange
+        MqttNioEngine engine = new MqttNioEngine(1);
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        long startNanos = System.nanoTime();
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(engine, "schedule", new Class[] { Runnable.class, long.class }, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    threadName.set(Thread.currentThread().getName());
+                    ran.countDown();
+                }
+            }, 50L);
+
+            // assert
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(threadName.get().startsWith(NIO_THREAD_PREFIX));
+        }
+        finally
+        {
+            engine.close();
+        }
+    }
+
+    // Tests_SRS_MQTTNIOENGINE_45_010: [The function shall return the selector loops in turn.]
+    @Test
+    public void nextLoopReturnsLoopsInTurn() throws IOException
+    {
+        // arrange
+        MqttNioEngine engine = new MqttNioEngine(2);
+
+        // act
+        try
+        {
+            Object first = Deencapsulation.invoke(engine, "nextLoop");
+            Object second = Deencapsulation.invoke(engine, "nextLoop");
+            Object third = Deencapsulation.invoke(engine, "nextLoop");
+
+            // assert
+            assertNotSame(first, second);
+            assertSame(first, third);
+        }
+        finally
+        {
+            engine.close();
+        }
+    }
+
+    // Tests_SRS_MQTTNIOENGINE_45_008: [The function shall stop the selector threads, which close the channels still registered with them.]
+    // Tests_SRS_MQTTNIOENGINE_45_009: [If the engine is closed, the function shall throw IllegalStateException.]
+    @Test
+    public void closedEngineRefusesNewWork() throws IOException
+    {
+        // arrange
+        MqttNioEngine engine = new MqttNioEngine(1);
+
+        // act
+        engine.close();
+        engine.close();
+
+        // assert
+        try
+        {
+            Deencapsulation.invoke(engine, "nextLoop");
+            fail("nextLoop should throw IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        try
+        {
+            Deencapsulation.invoke(engine, "schedule", new Class[] { Runnable.class, long.class }, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            }, 0L);
+            fail("schedule should throw IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,832 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.*;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
+import mockit.Deencapsulation;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttNioIotHubConnection. The connection is exercised end to
+ * end against a small TLS MQTT broker stand-in listening on the loopback
+ * interface, whose self-signed certificate is issued to the host name of the
+ * IoT Hub of the configuration and trusted by the configuration.
+ */
+public class MqttNioIotHubConnectionTest
+{
+    private static final String CONNECTION_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioIotHubConnection";
+    private static final String HOST_NAME = "test-hub.azure-devices.net";
+    private static final String SHARED_ACCESS_KEY = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+    private static final char[] KEY_STORE_PASSWORD = "password".toCharArray();
+    private static final long WAIT_SECONDS = 20;
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int PUBACK = 4;
+    private static final int SUBSCRIBE = 8;
+    private static final int DISCONNECT = 14;
+
+    private static SSLContext brokerSslContext;
+    private static String brokerCertificate;
+
+    private MqttNioEngine engine;
+    private TestBroker broker;
+    private final List<Object> connections = new ArrayList<>();
+
+    @BeforeClass
+    public static void generateBrokerCertificate() throws Exception
+    {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+        long now = System.currentTimeMillis();
+        X500Name name = new X500Name("CN=" + HOST_NAME);
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - TimeUnit.DAYS.toMillis(1)), new Date(now + TimeUnit.DAYS.toMillis(1)), name, keyPair.getPublic());
+        builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName(GeneralName.dNSName, HOST_NAME)));
+        X509Certificate certificate = new JcaX509CertificateConverter()
+                .getCertificate(builder.build(new JcaContentSignerBuilder("SHA256WithRSA").build(keyPair.getPrivate())));
+
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter pemWriter = new JcaPEMWriter(pem))
+        {
+            pemWriter.writeObject(certificate);
+        }
+        brokerCertificate = pem.toString();
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("broker", keyPair.getPrivate(), KEY_STORE_PASSWORD, new Certificate[] { certificate });
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        brokerSslContext = SSLContext.getInstance("TLSv1.2");
+        brokerSslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+    }
+
+    @AfterClass
+    public static void releaseBrokerCertificate()
+    {
+        brokerSslContext = null;
+        brokerCertificate = null;
+    }
+
+    @Before
+    public void startBroker() throws IOException
+    {
+        this.engine = new MqttNioEngine(2);
+        this.broker = new TestBroker();
+    }
+
+    @After
+    public void stopBroker()
+    {
+        for (Object connection : this.connections)
+        {
+            Deencapsulation.invoke(connection, "close");
+        }
+        this.engine.close();
+        this.broker.close();
+    }
+
+    private DeviceClientConfig newConfig(String deviceId) throws URISyntaxException
+    {
+        IotHubConnectionString connectionString = new IotHubConnectionString("HostName=" + HOST_NAME + ";DeviceId=" + deviceId
+                + ";SharedAccessKey=" + SHARED_ACCESS_KEY);
+        DeviceClientConfig config = new DeviceClientConfig(connectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        config.getSasTokenAuthentication().setIotHubTrustedCert(brokerCertificate);
+        return config;
+    }
+
+    private Object newConnection(DeviceClientConfig config)
+    {
+        Object connection = Deencapsulation.newInstance(CONNECTION_CLASS,
+                new Class[] { DeviceClientConfig.class, MqttNioEngine.class, InetSocketAddress.class },
+                config, this.engine, this.broker.getAddress());
+        this.connections.add(connection);
+        return connection;
+    }
+
+    private Object openConnection(String deviceId) throws IOException, URISyntaxException
+    {
+        Object connection = this.newConnection(this.newConfig(deviceId));
+        Deencapsulation.invoke(connection, "open");
+        return connection;
+    }
+
+    private static IotHubStatusCode sendEvent(Object connection, Message message, IMqttActionListener listener)
+    {
+        // holds a slot of the in flight window for the message, as the transport does.
+        Deencapsulation.invoke(connection, "tryAcquireInFlightSlot");
+        IotHubStatusCode status = Deencapsulation.invoke(connection, "sendEvent", new Class[] { Message.class, IMqttActionListener.class }, message, listener);
+        if (status != IotHubStatusCode.OK_EMPTY)
+        {
+            Deencapsulation.invoke(connection, "releaseInFlightSlot");
+        }
+        return status;
+    }
+
+    private static byte[] encodePublish(String topic, byte[] payload, int packetId)
+    {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(topicBytes.length >> 8);
+        body.write(topicBytes.length & 0xFF);
+        body.write(topicBytes, 0, topicBytes.length);
+        body.write(packetId >> 8);
+        body.write(packetId & 0xFF);
+        body.write(payload, 0, payload.length);
+        return TestBroker.encodePacket((PUBLISH << 4) | 0x02, body.toByteArray());
+    }
+
+    private static String readString(byte[] body, int offset)
+    {
+        int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+        return new String(body, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_001: [If the configuration is null, or its host name or device ID is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfConfigNull()
+    {
+        Deencapsulation.newInstance(CONNECTION_CLASS, new Class[] { DeviceClientConfig.class, MqttNioEngine.class },
+                null, this.engine);
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_003: [If the connection is already open, the function shall do nothing.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_005: [The function shall connect with the same user name, password and TLS context as the MQTT connection, to port 8883 of the host name of the configuration unless another address was provided.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_033: [Once the TLS handshake is over, the connection shall send a CONNECT with the device ID as client identifier, the user name, the password, and no clean session.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_036: [Once the IoT Hub accepts the connection, the connection shall subscribe to the cloud to device messages of the device, and send again with the DUP flag the publishes still waiting for their PUBACK.]
+    @Test
+    public void openConnectsAndSubscribes() throws Exception
+    {
+        // act
+        Object connection = this.openConnection("device-1");
+        Deencapsulation.invoke(connection, "open");
+
+        // assert
+        TestBroker.Packet connect = this.broker.nextPacket();
+        assertEquals(CONNECT, connect.type);
+        assertEquals("MQTT", readString(connect.body, 0));
+        assertEquals(4, connect.body[6]);
+        assertEquals(0xC0, connect.body[7] & 0xFF);
+        assertEquals("device-1", readString(connect.body, 10));
+        String userName = readString(connect.body, 12 + "device-1".length());
+        assertTrue(userName.startsWith(HOST_NAME + "/device-1/api-version=2016-11-14&DeviceClientType="));
+        String password = readString(connect.body, 14 + "device-1".length() + userName.getBytes(StandardCharsets.UTF_8).length);
+        assertTrue(password.startsWith("SharedAccessSignature "));
+
+        TestBroker.Packet subscribe = this.broker.nextPacket();
+        assertEquals(SUBSCRIBE, subscribe.type);
+        assertEquals("devices/device-1/messages/devicebound/#", readString(subscribe.body, 2));
+        assertEquals(1, this.broker.getConnectionCount());
+        assertEquals(1, this.engine.getConnectionCount());
+        assertFalse((boolean) Deencapsulation.invoke(connection, "isReconnecting"));
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_007: [The function shall wait until the IoT Hub accepts the connection, and throw IOException if it refuses it, if the socket closes or if it does not answer in time.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_035: [If the IoT Hub refuses the connection, the connection shall close the socket.]
+    @Test
+    public void openThrowsIfConnectionRefused() throws URISyntaxException
+    {
+        // arrange
+        this.broker.connackCode = 5;
+        Object connection = this.newConnection(this.newConfig("device-1"));
+
+        // act
+        try
+        {
+            Deencapsulation.invoke(connection, "open");
+            fail("open should throw IOException");
+        }
+        catch (Exception e)
+        {
+            // assert
+            assertTrue(e instanceof IOException);
+            assertTrue(e.getMessage(), e.getMessage().contains("return code 5"));
+        }
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_008: [If the connection cannot be established for any reason, the function shall close the socket, if any, and throw IOException.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_044: [If the socket closes while the connection opens, the connection shall fail the opening with the cause.]
+    @Test (expected = IOException.class)
+    public void openThrowsIfTlsHandshakeFails() throws Exception
+    {
+        // arrange
+        DeviceClientConfig config = new DeviceClientConfig(new IotHubConnectionString("HostName=" + HOST_NAME + ";DeviceId=device-1;SharedAccessKey=" + SHARED_ACCESS_KEY),
+                DeviceClientConfig.AuthType.SAS_TOKEN);
+        Object connection = this.newConnection(config);
+
+        // act
+        Deencapsulation.invoke(connection, "open");
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_013: [If the connection is closed, the function shall throw an IllegalStateException.]
+    @Test (expected = IllegalStateException.class)
+    public void sendEventThrowsIfClosed() throws URISyntaxException
+    {
+        // arrange
+        Object connection = this.newConnection(this.newConfig("device-1"));
+
+        // act
+        Deencapsulation.invoke(connection, "sendEvent", new Class[] { Message.class, IMqttActionListener.class }, new Message("hello"), null);
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_053: [If the connection is closed, the function shall throw an IOException.]
+    @Test (expected = IOException.class)
+    public void tryAcquireInFlightSlotThrowsIfClosed() throws URISyntaxException
+    {
+        // arrange
+        Object connection = this.newConnection(this.newConfig("device-1"));
+
+        // act
+        Deencapsulation.invoke(connection, "tryAcquireInFlightSlot");
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_019: [The function shall take a slot of the in flight window and return true, or return false without waiting if the window is full.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_055: [The function shall release a slot of the in flight window.]
+    @Test
+    public void tryAcquireInFlightSlotReturnsFalseWithoutParkingOnFullWindow() throws Exception
+    {
+        // arrange
+        DeviceClientConfig config = this.newConfig("device-1");
+        config.setMqttInFlightWindowSize(1);
+        Object connection = this.newConnection(config);
+        Deencapsulation.invoke(connection, "open");
+        boolean isFirstSlotTaken = Deencapsulation.invoke(connection, "tryAcquireInFlightSlot");
+
+        // act
+        boolean isTakenWhileWindowIsFull = Deencapsulation.invoke(connection, "tryAcquireInFlightSlot");
+        Deencapsulation.invoke(connection, "releaseInFlightSlot");
+        boolean isTakenOnceSlotIsReleased = Deencapsulation.invoke(connection, "tryAcquireInFlightSlot");
+
+        // assert
+        assertTrue(isFirstSlotTaken);
+        assertFalse(isTakenWhileWindowIsFull);
+        assertTrue(isTakenOnceSlotIsReleased);
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_012: [If the message is null or empty, the function shall return status code BAD_FORMAT.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_015: [If the message is a device twin or device method message, the function shall return status code ERROR.]
+    @Test
+    public void sendEventRejectsEmptyAndTwinMessages() throws Exception
+    {
+        // arrange
+        Object connection = this.openConnection("device-1");
+        Message twinMessage = new Message("twin");
+        twinMessage.setMessageType(MessageType.DEVICE_TWIN);
+
+        // act
+        IotHubStatusCode emptyStatus = sendEvent(connection, new Message(new byte[0]), null);
+        IotHubStatusCode twinStatus = sendEvent(connection, twinMessage, null);
+
+        // assert
+        assertEquals(IotHubStatusCode.BAD_FORMAT, emptyStatus);
+        assertEquals(IotHubStatusCode.ERROR, twinStatus);
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_016: [The function shall publish the message on the telemetry topic of the device, with its properties percent-encoded in the topic.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_020: [The function shall publish the message at QoS 1 and keep it until its PUBACK arrives, which notifies the delivery listener of the success.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_038: [Once the PUBACK of a publish arrives, the connection shall give its slot back to the in flight window with its round trip and notify its delivery listener of the success.]
+    @Test
+    public void sendEventPublishesAtLeastOnce() throws Exception
+    {
+        // arrange
+        Object connection = this.openConnection("device-1");
+        this.broker.skipPackets(2);
+        Message message = new Message("hello");
+        message.setProperty("color", "blue");
+        CountingListener listener = new CountingListener(1);
+
+        // act
+        IotHubStatusCode status = sendEvent(connection, message, listener);
+
+        // assert
+        assertEquals(IotHubStatusCode.OK_EMPTY, status);
+        TestBroker.Packet publish = this.broker.nextPacket();
+        assertEquals(PUBLISH, publish.type);
+        assertEquals(1, (publish.header >> 1) & 0x03);
+        String topic = readString(publish.body, 0);
+        assertTrue(topic.startsWith("devices/device-1/messages/events/"));
+        assertTrue(topic.contains("color=blue"));
+        int payloadOffset = 2 + topic.length() + 2;
+        assertEquals("hello", new String(publish.body, payloadOffset, publish.body.length - payloadOffset, StandardCharsets.UTF_8));
+        assertTrue(listener.await());
+        assertEquals(0, listener.failures.get());
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(connection, "getInFlightWindowStatistics");
+        assertEquals(0, statistics.getInFlightCount());
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_018: [If the telemetry delivery mode of the configuration is AT_MOST_ONCE, the function shall publish the message at QoS 0 and notify the delivery listener of the success right away.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_052: [If the message is published at QoS 0, the function shall release the slot of the in flight window held for it right away.]
+    @Test
+    public void sendEventPublishesAtMostOnce() throws Exception
+    {
+        // arrange
+        DeviceClientConfig config = this.newConfig("device-1");
+        config.setMqttTelemetryDeliveryMode(TelemetryDeliveryMode.AT_MOST_ONCE);
+        Object connection = this.newConnection(config);
+        Deencapsulation.invoke(connection, "open");
+        this.broker.skipPackets(2);
+        CountingListener listener = new CountingListener(1);
+
+        // act
+        IotHubStatusCode status = sendEvent(connection, new Message("hello"), listener);
+
+        // assert
+        assertEquals(IotHubStatusCode.OK_EMPTY, status);
+        assertEquals(0, listener.latch.getCount());
+        TestBroker.Packet publish = this.broker.nextPacket();
+        assertEquals(PUBLISH << 4, publish.header);
+        String topic = readString(publish.body, 0);
+        int payloadOffset = 2 + topic.length();
+        assertEquals("hello", new String(publish.body, payloadOffset, publish.body.length - payloadOffset, StandardCharsets.UTF_8));
+        InFlightWindowStatistics statistics = Deencapsulation.invoke(connection, "getInFlightWindowStatistics");
+        assertEquals(0, statistics.getInFlightCount());
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_039: [Once a cloud to device message arrives at QoS 1, the connection shall acknowledge it with a PUBACK.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_040: [The connection shall build the message from its payload and the properties of its topic, queue it and signal the receive signal.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_022: [The function shall return the oldest message received and not consumed yet, or null if there is none.]
+    @Test
+    public void cloudToDeviceMessageIsAcknowledgedAndReceived() throws Exception
+    {
+        // arrange
+        Object connection = this.openConnection("device-1");
+        this.broker.skipPackets(2);
+        final CountDownLatch received = new CountDownLatch(1);
+        Deencapsulation.invoke(connection, "registerReceiveSignal", new IotHubSignalledTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                received.countDown();
+            }
+        }, new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        }));
+
+        // act
+        this.broker.send(encodePublish("devices/device-1/messages/devicebound/%24.mid=42&color=red", "hi".getBytes(StandardCharsets.UTF_8), 7));
+
+        // assert
+        assertTrue(received.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        TestBroker.Packet puback = this.broker.nextPacket();
+        assertEquals(PUBACK, puback.type);
+        assertEquals(7, ((puback.body[0] & 0xFF) << 8) | (puback.body[1] & 0xFF));
+        assertEquals(1, (int) Deencapsulation.invoke(connection, "getReceivedMessageCount"));
+        Message message = Deencapsulation.invoke(connection, "receiveMessage");
+        assertEquals("hi", new String(message.getBytes(), StandardCharsets.UTF_8));
+        assertEquals("42", message.getMessageId());
+        assertEquals("red", message.getProperty("color"));
+        assertNull(Deencapsulation.invoke(connection, "receiveMessage"));
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_046: [If the connection is lost, it shall start an outage, report it to the in flight window, schedule the first attempt to restore it on the engine, and fire the connection state callback with status CONNECTION_DROP out of its lock.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_047: [An attempt shall move to CONNECTING and count the attempt.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_049: [An attempt shall connect a new socket without waiting for the outcome.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_036: [Once the IoT Hub accepts the connection, the connection shall subscribe to the cloud to device messages of the device, and send again with the DUP flag the publishes still waiting for their PUBACK.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_037: [If the connection was restored, the connection shall end the outage, fire the connection state callback with status CONNECTION_SUCCESS and signal the send signal, out of its lock.]
+    @Test
+    public void lostConnectionIsRestoredAndPublishesInFlightAreSentAgain() throws Exception
+    {
+        // arrange
+        Object connection = this.openConnection("device-1");
+        this.broker.skipPackets(2);
+        final BlockingQueue<IotHubConnectionState> states = new LinkedBlockingQueue<>();
+        Deencapsulation.invoke(connection, "registerConnectionStateCallback", new Class[] { IotHubConnectionStateCallback.class, Object.class },
+                new IotHubConnectionStateCallback()
+                {
+                    @Override
+                    public void execute(IotHubConnectionState state, Object callbackContext)
+                    {
+                        states.add(state);
+                    }
+                }, null);
+        this.broker.isPubackEnabled = false;
+        CountingListener listener = new CountingListener(1);
+        assertEquals(IotHubStatusCode.OK_EMPTY, sendEvent(connection, new Message("hello"), listener));
+        TestBroker.Packet publish = this.broker.nextPacket();
+        this.broker.isPubackEnabled = true;
+
+        // act
+        this.broker.dropConnections();
+
+        // assert
+        assertEquals(IotHubConnectionState.CONNECTION_DROP, states.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(IotHubConnectionState.CONNECTION_SUCCESS, states.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(CONNECT, this.broker.nextPacket().type);
+        assertEquals(SUBSCRIBE, this.broker.nextPacket().type);
+        TestBroker.Packet duplicate = this.broker.nextPacket();
+        assertEquals(publish.header | 0x08, duplicate.header);
+        assertArrayEquals(publish.body, duplicate.body);
+        assertTrue(listener.await());
+        assertFalse((boolean) Deencapsulation.invoke(connection, "isReconnecting"));
+        ReconnectStatistics statistics = Deencapsulation.invoke(connection, "getReconnectStatistics");
+        assertEquals(1, statistics.getOutageCount());
+        assertEquals(1, statistics.getReconnectAttemptCount());
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_009: [If the connection is closed, the function shall do nothing.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_010: [The function shall stop restoring the connection, drop the publishes in flight, and send a DISCONNECT before closing the socket.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_021: [If the connection is closed, the function shall throw an IllegalStateException.]
+    @Test
+    public void closeSendsDisconnect() throws Exception
+    {
+        // arrange
+        Object connection = this.openConnection("device-1");
+        this.broker.skipPackets(2);
+
+        // act
+        Deencapsulation.invoke(connection, "close");
+        Deencapsulation.invoke(connection, "close");
+
+        // assert
+        assertEquals(DISCONNECT, this.broker.nextPacket().type);
+        assertEquals(0, (int) Deencapsulation.invoke(connection, "getReceivedMessageCount"));
+        try
+        {
+            Deencapsulation.invoke(connection, "receiveMessage");
+            fail("receiveMessage should throw IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_030: [If the connection was never opened, the function shall return null.]
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_032: [The function shall return 0.]
+    @Test
+    public void statisticsAreNullIfNeverOpened() throws URISyntaxException
+    {
+        // arrange
+        Object connection = this.newConnection(this.newConfig("device-1"));
+
+        // act and assert
+        assertNull(Deencapsulation.invoke(connection, "getReconnectStatistics"));
+        assertNull(Deencapsulation.invoke(connection, "getInFlightWindowStatistics"));
+        assertEquals(0, (int) Deencapsulation.invoke(connection, "getPendingTwinRequestCount"));
+    }
+
+    // Tests_SRS_MQTTNIOIOTHUBCONNECTION_45_020: [The function shall publish the message at QoS 1 and keep it until its PUBACK arrives, which notifies the delivery listener of the success.]
+    // Stands in for a benchmark: many simulated devices share the two selector threads of one engine.
+    @Test
+    public void manyDevicesShareFewSelectorThreads() throws Exception
+    {
+        // arrange
+        final int deviceCount = 200;
+        final int messagesPerDevice = 50;
+        List<Object> deviceConnections = new ArrayList<>();
+        for (int i = 0; i < deviceCount; i++)
+        {
+            deviceConnections.add(this.newConnection(this.newConfig("device-" + i)));
+        }
+        ExecutorService openers = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<?>> opens = new ArrayList<>();
+            for (final Object connection : deviceConnections)
+            {
+                opens.add(openers.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Deencapsulation.invoke(connection, "open");
+                    }
+                }));
+            }
+            for (Future<?> open : opens)
+            {
+                open.get(WAIT_SECONDS * 3, TimeUnit.SECONDS);
+            }
+        }
+        finally
+        {
+            openers.shutdown();
+        }
+        CountingListener listener = new CountingListener(deviceCount * messagesPerDevice);
+
+        // act
+        for (int m = 0; m < messagesPerDevice; m++)
+        {
+            for (Object connection : deviceConnections)
+            {
+                assertEquals(IotHubStatusCode.OK_EMPTY, sendEvent(connection, new Message("message " + m), listener));
+            }
+        }
+
+        // assert
+        assertTrue(listener.await());
+        assertEquals(0, listener.failures.get());
+        assertEquals(deviceCount, this.engine.getConnectionCount());
+        assertEquals(deviceCount, this.broker.getConnectionCount());
+        assertEquals(2, this.engine.getSelectorThreadCount());
+    }
+
+    private static final class CountingListener implements IMqttActionListener
+    {
+        private final CountDownLatch latch;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private CountingListener(int count)
+        {
+            this.latch = new CountDownLatch(count);
+        }
+
+        private boolean await() throws InterruptedException
+        {
+            return this.latch.await(WAIT_SECONDS * 3, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+            this.latch.countDown();
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            this.failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * A TLS MQTT broker stand-in, with a thread per connection. It accepts
+     * the connections with the configured return code, acknowledges the
+     * subscriptions and the QoS 1 publishes, and records every packet.
+     */
+    private static final class TestBroker implements Closeable
+    {
+        private final SSLServerSocket serverSocket;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final BlockingQueue<Packet> packets = new LinkedBlockingQueue<>();
+        private final AtomicInteger connectionCount = new AtomicInteger();
+
+        private volatile int connackCode = 0;
+        private volatile boolean isPubackEnabled = true;
+
+        private TestBroker() throws IOException
+        {
+            this.serverSocket = (SSLServerSocket) brokerSslContext.getServerSocketFactory().createServerSocket(0, 256, InetAddress.getLoopbackAddress());
+            Thread acceptThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    accept();
+                }
+            }, "test-broker-accept");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        private InetSocketAddress getAddress()
+        {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+        }
+
+        private int getConnectionCount()
+        {
+            return this.connectionCount.get();
+        }
+
+        private Packet nextPacket() throws InterruptedException
+        {
+            Packet packet = this.packets.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("The broker received no packet in time", packet);
+            return packet;
+        }
+
+        private void skipPackets(int count) throws InterruptedException
+        {
+            for (int i = 0; i < count; i++)
+            {
+                this.nextPacket();
+            }
+        }
+
+        private void send(byte[] packet) throws IOException
+        {
+            Socket socket = this.sockets.get(this.sockets.size() - 1);
+            synchronized (socket)
+            {
+                socket.getOutputStream().write(packet);
+                socket.getOutputStream().flush();
+            }
+        }
+
+        private void dropConnections()
+        {
+            for (Socket socket : this.sockets)
+            {
+                closeQuietly(socket);
+            }
+            this.sockets.clear();
+        }
+
+        @Override
+        public void close()
+        {
+            closeQuietly(this.serverSocket);
+            this.dropConnections();
+        }
+
+        private void accept()
+        {
+            try
+            {
+                while (true)
+                {
+                    final Socket socket = this.serverSocket.accept();
+                    this.sockets.add(socket);
+                    Thread connectionThread = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            serve(socket);
+                        }
+                    }, "test-broker-connection");
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                }
+            }
+            catch (IOException e)
+            {
+                // the broker is closed.
+            }
+        }
+
+        private void serve(Socket socket)
+        {
+            try
+            {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true)
+                {
+                    int header = in.read();
+                    if (header < 0)
+                    {
+                        break;
+                    }
+                    int remainingLength = 0;
+                    int multiplier = 1;
+                    int digit;
+                    do
+                    {
+                        digit = in.readUnsignedByte();
+                        remainingLength += (digit & 0x7F) * multiplier;
+                        multiplier *= 128;
+                    }
+                    while ((digit & 0x80) != 0);
+                    byte[] body = new byte[remainingLength];
+                    in.readFully(body);
+                    this.packets.add(new Packet(header, body));
+
+                    int type = (header >> 4) & 0x0F;
+                    if (type == CONNECT)
+                    {
+                        this.connectionCount.incrementAndGet();
+                        this.write(socket, encodePacket(0x20, new byte[] { 0, (byte) this.connackCode }));
+                        if (this.connackCode != 0)
+                        {
+                            break;
+                        }
+                    }
+                    else if (type == SUBSCRIBE)
+                    {
+                        this.write(socket, encodePacket(0x90, new byte[] { body[0], body[1], 1 }));
+                    }
+                    else if (type == PUBLISH && ((header >> 1) & 0x03) == 1 && this.isPubackEnabled)
+                    {
+                        int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                        this.write(socket, encodePacket(PUBACK << 4, new byte[] { body[2 + topicLength], body[3 + topicLength] }));
+                    }
+                    else if (type == 12)
+                    {
+                        this.write(socket, encodePacket(0xD0, new byte[0]));
+                    }
+                    else if (type == DISCONNECT)
+                    {
+                        break;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // the connection is closed.
+            }
+            finally
+            {
+                closeQuietly(socket);
+            }
+        }
+
+        private void write(Socket socket, byte[] packet) throws IOException
+        {
+            synchronized (socket)
+            {
+                socket.getOutputStream().write(packet);
+                socket.getOutputStream().flush();
+            }
+        }
+
+        private static byte[] encodePacket(int header, byte[] body)
+        {
+            ByteArrayOutputStream packet = new ByteArrayOutputStream();
+            packet.write(header);
+            int length = body.length;
+            do
+            {
+                int digit = length & 0x7F;
+                length >>= 7;
+                packet.write((length > 0) ? (digit | 0x80) : digit);
+            }
+            while (length > 0);
+            packet.write(body, 0, body.length);
+            return packet.toByteArray();
+        }
+
+        private static void closeQuietly(Closeable closeable)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do.
+            }
+        }
+
+        private static final class Packet
+        {
+            private final int header;
+            private final int type;
+            private final byte[] body;
+
+            private Packet(int header, byte[] body)
+            {
+                this.header = header;
+                this.type = (header >> 4) & 0x0F;
+                this.body = body;
+            }
+        }
+    }
+}
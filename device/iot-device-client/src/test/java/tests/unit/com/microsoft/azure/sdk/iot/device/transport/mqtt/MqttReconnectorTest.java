@@ -0,0 +1,398 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.ReconnectStatistics;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.Mqtt;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttConnection;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for MqttReconnector. */
+public class MqttReconnectorTest
+{
+    private static final String RECONNECTOR_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttReconnector";
+
+    @Mocked
+    private Mqtt mockMqtt;
+
+    @Mocked
+    private MqttConnection mockMqttConnection;
+
+    @Mocked
+    private MqttAsyncClient mockMqttAsyncClient;
+
+    @Mocked
+    private MqttConnectOptions mockMqttConnectOptions;
+
+    @Mocked
+    private IMqttToken mockMqttToken;
+
+    private RecordingScheduler scheduler;
+
+    /** Records the attempts instead of running them, so each test runs them by hand. */
+    private static final class RecordingScheduler extends ScheduledThreadPoolExecutor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> delaysMillis = new ArrayList<>();
+
+        private RecordingScheduler()
+        {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit)
+        {
+            this.tasks.add(task);
+            this.delaysMillis.add(unit.toMillis(delay));
+            return super.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            }, 1, TimeUnit.DAYS);
+        }
+
+        private void runLastTask()
+        {
+            this.tasks.get(this.tasks.size() - 1).run();
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        this.scheduler = new RecordingScheduler();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.scheduler.shutdownNow();
+    }
+
+    private Object createReconnector(ScheduledExecutorService scheduler)
+    {
+        return Deencapsulation.newInstance(RECONNECTOR_CLASS,
+                new Class[] {Mqtt.class, MqttConnection.class, ScheduledExecutorService.class},
+                mockMqtt, mockMqttConnection, scheduler);
+    }
+
+    private void connectionExpectations(final boolean canReconnect)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+                result = canReconnect;
+                Deencapsulation.invoke(mockMqttConnection, "getMqttAsyncClient");
+                result = mockMqttAsyncClient;
+                Deencapsulation.invoke(mockMqttConnection, "getConnectionOptions");
+                result = mockMqttConnectOptions;
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+    }
+
+    private static boolean isReconnecting(Object reconnector)
+    {
+        return Deencapsulation.invoke(reconnector, "isReconnecting");
+    }
+
+    private static ReconnectStatistics statistics(Object reconnector)
+    {
+        return Deencapsulation.invoke(reconnector, "getStatistics");
+    }
+
+    private static void fail(Object reconnector)
+    {
+        Deencapsulation.invoke(reconnector, "onFailure", new Class[] {IMqttToken.class, Throwable.class}, null, new Throwable());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_001: [If any of the parameters is null, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullScheduler()
+    {
+        Deencapsulation.newInstance(RECONNECTOR_CLASS,
+                new Class[] {Mqtt.class, MqttConnection.class, ScheduledExecutorService.class},
+                mockMqtt, mockMqttConnection, null);
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_002: [The constructor shall save the parameters and start in the CONNECTED state.]
+    // Tests_SRS_MQTTRECONNECTOR_45_003: [If the reconnector is not CONNECTED, the function shall do nothing.]
+    // Tests_SRS_MQTTRECONNECTOR_45_004: [The function shall start an outage, move to WAITING and schedule the first attempt.]
+    // Tests_SRS_MQTTRECONNECTOR_45_019: [The function shall return true if the reconnector is WAITING or CONNECTING, and false otherwise.]
+    @Test
+    public void onConnectionLostSchedulesOneAttemptRightAway()
+    {
+        Object reconnector = createReconnector(this.scheduler);
+        assertFalse(isReconnecting(reconnector));
+
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        assertTrue(isReconnecting(reconnector));
+        assertEquals(1, this.scheduler.tasks.size());
+        assertEquals(0L, (long) this.scheduler.delaysMillis.get(0));
+        assertEquals(1L, statistics(reconnector).getOutageCount());
+        assertEquals(0L, statistics(reconnector).getReconnectAttemptCount());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_008: [The attempt shall move to CONNECTING and count the attempt.]
+    // Tests_SRS_MQTTRECONNECTOR_45_009: [The attempt shall have the client refresh the credentials of the connection before connecting, and stop the reconnector if they cannot be refreshed.]
+    // Tests_SRS_MQTTRECONNECTOR_45_012: [The attempt shall connect the MQTT client with the connection options without waiting for the outcome.]
+    // Tests_SRS_MQTTRECONNECTOR_45_015: [The function shall end the outage and move to CONNECTED.]
+    // Tests_SRS_MQTTRECONNECTOR_45_016: [The function shall notify the client that the connection is restored, out of the lock of the reconnector.]
+    @Test
+    public void attemptConnectsWithoutWaitingAndSucceedsOnConnect() throws Exception
+    {
+        connectionExpectations(true);
+        final Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        this.scheduler.runLastTask();
+
+        assertTrue(isReconnecting(reconnector));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+                times = 1;
+                mockMqttAsyncClient.connect(mockMqttConnectOptions, null, (IMqttActionListener) reconnector);
+                times = 1;
+                mockMqttToken.waitForCompletion();
+                times = 0;
+                Deencapsulation.invoke(mockMqtt, "onReconnected");
+                times = 0;
+            }
+        };
+
+        Deencapsulation.invoke(reconnector, "onSuccess", new Class[] {IMqttToken.class}, mockMqttToken);
+
+        assertFalse(isReconnecting(reconnector));
+        ReconnectStatistics statistics = statistics(reconnector);
+        assertEquals(1L, statistics.getReconnectAttemptCount());
+        assertEquals(0L, statistics.getCurrentOutageMillis());
+        assertEquals(statistics.getLastOutageMillis(), statistics.getTotalOutageMillis());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "onReconnected");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_011: [If the MQTT client is already connected, the attempt shall succeed right away.]
+    @Test
+    public void attemptSucceedsIfClientIsAlreadyConnected() throws Exception
+    {
+        connectionExpectations(true);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        this.scheduler.runLastTask();
+
+        assertFalse(isReconnecting(reconnector));
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.connect((MqttConnectOptions) any, any, (IMqttActionListener) any);
+                times = 0;
+                Deencapsulation.invoke(mockMqtt, "onReconnected");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_005: [The attempts shall be scheduled after the jittered exponential backoff of TransportUtils for the number of attempts made during the outage.]
+    // Tests_SRS_MQTTRECONNECTOR_45_017: [The function shall move back to WAITING and schedule the next attempt.]
+    @Test
+    public void failedAttemptsBackOffWithJitterUpToOneMinute()
+    {
+        connectionExpectations(true);
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+        long[] maxDelaysMillis = {1000, 2000, 4000, 8000, 16000, 32000, 60000, 60000, 60000};
+
+        for (long maxDelayMillis : maxDelaysMillis)
+        {
+            this.scheduler.runLastTask();
+            fail(reconnector);
+
+            long delayMillis = this.scheduler.delaysMillis.get(this.scheduler.delaysMillis.size() - 1);
+            assertTrue(delayMillis + " > " + maxDelayMillis, delayMillis <= maxDelayMillis);
+            assertTrue(delayMillis + " < " + maxDelayMillis / 2, delayMillis >= maxDelayMillis / 2);
+        }
+
+        assertTrue(isReconnecting(reconnector));
+        assertEquals(maxDelaysMillis.length, statistics(reconnector).getReconnectAttemptCount());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_013: [If the attempt throws, it shall fail.]
+    @Test
+    public void attemptThatThrowsSchedulesNextAttempt() throws Exception
+    {
+        connectionExpectations(true);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.connect((MqttConnectOptions) any, any, (IMqttActionListener) any);
+                result = new IllegalStateException();
+            }
+        };
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        this.scheduler.runLastTask();
+
+        assertTrue(isReconnecting(reconnector));
+        assertEquals(2, this.scheduler.tasks.size());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_009: [The attempt shall have the client refresh the credentials of the connection before connecting, and stop the reconnector if they cannot be refreshed.]
+    // Tests_SRS_MQTTRECONNECTOR_45_018: [The function shall end the current outage, if any, cancel the scheduled attempt, if any, and move to STOPPED.]
+    // Tests_SRS_MQTTRECONNECTOR_45_021: [The function shall return true if the reconnector is STOPPED, and false otherwise.]
+    @Test
+    public void attemptStopsIfCredentialsCannotBeRefreshed() throws Exception
+    {
+        connectionExpectations(false);
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+        assertFalse((Boolean) Deencapsulation.invoke(reconnector, "isStopped"));
+
+        this.scheduler.runLastTask();
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        assertFalse(isReconnecting(reconnector));
+        assertTrue((Boolean) Deencapsulation.invoke(reconnector, "isStopped"));
+        assertEquals(1, this.scheduler.tasks.size());
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.connect((MqttConnectOptions) any, any, (IMqttActionListener) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_010: [If the connection has no MQTT client anymore, the attempt shall stop the reconnector.]
+    @Test
+    public void attemptStopsIfConnectionHasNoClient()
+    {
+        connectionExpectations(true);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockMqttConnection, "getMqttAsyncClient");
+                result = null;
+            }
+        };
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        this.scheduler.runLastTask();
+
+        assertFalse(isReconnecting(reconnector));
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_007: [If the reconnector is not WAITING, the attempt shall do nothing.]
+    // Tests_SRS_MQTTRECONNECTOR_45_014: [If the reconnector is not CONNECTING, the function shall do nothing.]
+    // Tests_SRS_MQTTRECONNECTOR_45_018: [The function shall end the current outage, if any, cancel the scheduled attempt, if any, and move to STOPPED.]
+    @Test
+    public void stoppedReconnectorIgnoresScheduledAttemptAndLateOutcome() throws Exception
+    {
+        connectionExpectations(true);
+        Object reconnector = createReconnector(this.scheduler);
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        Deencapsulation.invoke(reconnector, "stop");
+        this.scheduler.runLastTask();
+        Deencapsulation.invoke(reconnector, "onSuccess", new Class[] {IMqttToken.class}, mockMqttToken);
+        fail(reconnector);
+
+        assertFalse(isReconnecting(reconnector));
+        assertEquals(1, this.scheduler.tasks.size());
+        assertEquals(0L, statistics(reconnector).getReconnectAttemptCount());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+                times = 0;
+                Deencapsulation.invoke(mockMqtt, "onReconnected");
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_006: [If the scheduler rejects the attempt, the reconnector shall stop.]
+    @Test
+    public void onConnectionLostStopsIfSchedulerIsShutDown()
+    {
+        ScheduledThreadPoolExecutor shutDownScheduler = new ScheduledThreadPoolExecutor(1);
+        shutDownScheduler.shutdown();
+        Object reconnector = createReconnector(shutDownScheduler);
+
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+
+        assertFalse(isReconnecting(reconnector));
+        assertEquals(1L, statistics(reconnector).getOutageCount());
+    }
+
+    // Tests_SRS_MQTTRECONNECTOR_45_020: [The function shall return the number of outages and of attempts, and the current, last and total duration of the outages in milliseconds.]
+    @Test
+    public void statisticsCountOutagesAndAttempts() throws Exception
+    {
+        connectionExpectations(true);
+        Object reconnector = createReconnector(this.scheduler);
+
+        for (int outage = 0; outage < 3; outage++)
+        {
+            Deencapsulation.invoke(reconnector, "onConnectionLost");
+            this.scheduler.runLastTask();
+            fail(reconnector);
+            this.scheduler.runLastTask();
+            Deencapsulation.invoke(reconnector, "onSuccess", new Class[] {IMqttToken.class}, mockMqttToken);
+        }
+        Deencapsulation.invoke(reconnector, "onConnectionLost");
+        Thread.sleep(20);
+
+        ReconnectStatistics statistics = statistics(reconnector);
+        assertTrue(statistics.isReconnecting());
+        assertEquals(4L, statistics.getOutageCount());
+        assertEquals(6L, statistics.getReconnectAttemptCount());
+        assertTrue(statistics.getCurrentOutageMillis() >= 20);
+        assertTrue(statistics.getTotalOutageMillis() >= statistics.getCurrentOutageMillis() + statistics.getLastOutageMillis());
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MqttSubscription.
+ */
+public class MqttSubscriptionTest
+{
+    private static final String SUBSCRIPTION_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription";
+    private static final String TOPIC = "$iothub/twin/res/#";
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_001: [If the topic is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfTopicIsEmpty()
+    {
+        // act
+        Deencapsulation.newInstance(SUBSCRIPTION_CLASS, "");
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_001: [If the topic is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfTopicIsNull() throws ClassNotFoundException
+    {
+        // act
+        Deencapsulation.newInstance(Class.forName(SUBSCRIPTION_CLASS), new Class[] { String.class }, (Object) null);
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_002: [The constructor shall save the topic, and start UNSUBSCRIBED and not requested.]
+    // Tests_SRS_MQTTSUBSCRIPTION_45_003: [The function shall return the topic of the subscription.]
+    // Tests_SRS_MQTTSUBSCRIPTION_45_007: [The function shall return true if the subscription was requested, and false otherwise.]
+    // Tests_SRS_MQTTSUBSCRIPTION_45_008: [The function shall return true if the subscription is SUBSCRIBED, and false otherwise.]
+    @Test
+    public void constructorStartsUnsubscribedAndNotRequested()
+    {
+        // act
+        Object subscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, TOPIC);
+
+        // assert
+        assertEquals(TOPIC, Deencapsulation.invoke(subscription, "getTopic"));
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "isRequested"));
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "isSubscribed"));
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_004: [The function shall mark the subscription as requested.]
+    // Tests_SRS_MQTTSUBSCRIPTION_45_005: [If the subscription is UNSUBSCRIBED, the function shall move to SUBSCRIBING and return true, and return false otherwise.]
+    @Test
+    public void beginSubscribeOnlySucceedsOnce()
+    {
+        // arrange
+        Object subscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, TOPIC);
+
+        // act
+        boolean first = Deencapsulation.invoke(subscription, "beginSubscribe");
+        boolean second = Deencapsulation.invoke(subscription, "beginSubscribe");
+
+        // assert
+        assertTrue(first);
+        assertFalse(second);
+        assertTrue((boolean) Deencapsulation.invoke(subscription, "isRequested"));
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "isSubscribed"));
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_006: [If the subscription is SUBSCRIBING, the function shall move to SUBSCRIBED if the subscription was granted, and back to UNSUBSCRIBED otherwise.]
+    @Test
+    public void completeSubscribeMovesToSubscribedIfGranted()
+    {
+        // arrange
+        Object subscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, TOPIC);
+        Deencapsulation.invoke(subscription, "beginSubscribe");
+
+        // act
+        Deencapsulation.invoke(subscription, "completeSubscribe", true);
+
+        // assert
+        assertTrue((boolean) Deencapsulation.invoke(subscription, "isSubscribed"));
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "beginSubscribe"));
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_006: [If the subscription is SUBSCRIBING, the function shall move to SUBSCRIBED if the subscription was granted, and back to UNSUBSCRIBED otherwise.]
+    @Test
+    public void completeSubscribeMovesBackToUnsubscribedIfRefused()
+    {
+        // arrange
+        Object subscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, TOPIC);
+        Deencapsulation.invoke(subscription, "beginSubscribe");
+
+        // act
+        Deencapsulation.invoke(subscription, "completeSubscribe", false);
+
+        // assert
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "isSubscribed"));
+        assertTrue((boolean) Deencapsulation.invoke(subscription, "isRequested"));
+        assertTrue((boolean) Deencapsulation.invoke(subscription, "beginSubscribe"));
+    }
+
+    // Tests_SRS_MQTTSUBSCRIPTION_45_006: [If the subscription is SUBSCRIBING, the function shall move to SUBSCRIBED if the subscription was granted, and back to UNSUBSCRIBED otherwise.]
+    @Test
+    public void completeSubscribeDoesNothingIfNotSubscribing()
+    {
+        // arrange
+        Object subscription = Deencapsulation.newInstance(SUBSCRIPTION_CLASS, TOPIC);
+
+        // act
+        Deencapsulation.invoke(subscription, "completeSubscribe", true);
+
+        // assert
+        assertFalse((boolean) Deencapsulation.invoke(subscription, "isSubscribed"));
+    }
+}
@@ -14,9 +14,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -31,6 +36,10 @@ public class MqttTest
     private static final byte[] EXPECTED_PAYLOAD = {0x61, 0x62, 0x63};
     private Message expectedMessage;
     private static final String EXPECTED_EXPIRED_SAS_TOKEN = "SharedAccessSignature sr=hostname&sig=Signature&se=0";
+    private static final String RECONNECTOR_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttReconnector";
+    private static final String SUBSCRIPTION_CLASS = "com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttSubscription";
+    private static final String FIRST_TOPIC = "devices/deviceID/messages/devicebound/#";
+    private static final String SECOND_TOPIC = "$iothub/twin/res/#";
 
     @Mocked
     private IMqttDeliveryToken mockMqttDeliveryToken;
@@ -116,13 +125,28 @@ public class MqttTest
         }
     }
 
+    private static Object newSubscription(String topic)
+    {
+        return Deencapsulation.newInstance(SUBSCRIPTION_CLASS, topic);
+    }
+
+    private static void subscribe(Mqtt mqtt, Object... subscriptions) throws ClassNotFoundException
+    {
+        Object array = Array.newInstance(Class.forName(SUBSCRIPTION_CLASS), subscriptions.length);
+        for (int i = 0; i < subscriptions.length; i++)
+        {
+            Array.set(array, i, subscriptions[i]);
+        }
+        Deencapsulation.invoke(mqtt, "subscribe", new Class[] { array.getClass() }, array);
+    }
+
     private void baseConstructorExpectations() throws MqttException
     {
         new NonStrictExpectations()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
-                result = new ConcurrentLinkedQueue<>();
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
+                result = Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageRouter");
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 result = new Object();
             }
@@ -167,7 +191,7 @@ public class MqttTest
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttDeliveryToken;
             }
         };
@@ -185,7 +209,7 @@ public class MqttTest
                 times = 1;
                 mockMqttMessage.setQos(anyInt);
                 times = 1;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
                 mockMqttDeliveryToken.waitForCompletion();
                 times = 1;
@@ -232,7 +256,7 @@ public class MqttTest
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
                 times = 1;
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 times = 1;
@@ -263,13 +287,15 @@ public class MqttTest
 
         //assert
         assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualQueue1, actualQueue2);
+        // each client reads its own queue of the same router
+        assertNotSame(actualQueue1, actualQueue2);
+        assertEquals(Deencapsulation.getField(mockMqtt1, "messageRouter"), Deencapsulation.getField(mockMqtt2, "messageRouter"));
         assertEquals(actualLock1, actualLock2);
 
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
+                Deencapsulation.invoke(mockedMqttConnection, "getMessageRouter");
                 times = 2;
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 times = 2;
@@ -313,7 +339,9 @@ public class MqttTest
         Object actualLock2 = Deencapsulation.getField(mockMqtt2, "mqttLock");
 
         assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualQueue1, actualQueue2);
+        // each client reads its own queue of the same router
+        assertNotSame(actualQueue1, actualQueue2);
+        assertEquals(Deencapsulation.getField(mockMqtt1, "messageRouter"), Deencapsulation.getField(mockMqtt2, "messageRouter"));
         assertEquals(actualLock1, actualLock2);
     }
 
@@ -510,7 +538,7 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 2;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
             }
         };
@@ -564,20 +592,15 @@ public class MqttTest
         //arrange
         baseConstructorExpectations();
         final byte[] payload = {0x61, 0x62, 0x63};
-        final IMqttDeliveryToken[] testTokens = {mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken
-        };
         new NonStrictExpectations()
         {
             {
                 mockMqttAsyncClient.isConnected();
                 result = true;
-                mockMqttAsyncClient.getPendingDeliveryTokens();
-                result = testTokens;
-                mockMqttAsyncClient.isConnected();
-                result = false;
+                new MqttMessage(payload);
+                result = mockMqttMessage;
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
+                result = mockMqttException;
             }
         };
         Mqtt mockMqtt = instantiateMqtt(true);
@@ -586,6 +609,158 @@ public class MqttTest
         Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, payload);
     }
 
+    /*
+    **Tests_SRS_Mqtt_45_002: [**publish shall not take a slot of the in flight window of the connection, as the caller holds one for the publish.**]**
+    **Tests_SRS_Mqtt_45_003: [**publish shall not wait for the delivery, and shall release the slot of the window with the time the publish was sent and notify the delivery listener, if any, with the outcome once the delivery completes.**]**
+    */
+    @Test
+    public void publishUsesSlotOfCallerAndDoesNotWaitForDelivery() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
+                times = 1;
+                Deencapsulation.invoke(mockedMqttConnection, "tryAcquireInFlightSlot");
+                times = 0;
+                mockMqttDeliveryToken.waitForCompletion();
+                times = 0;
+                mockMqttDeliveryToken.waitForCompletion(anyLong);
+                times = 0;
+                Deencapsulation.invoke(mockedMqttConnection, "releaseInFlightSlot");
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_003: [**publish shall not wait for the delivery, and shall release the slot of the window with the time the publish was sent and notify the delivery listener, if any, with the outcome once the delivery completes.**]**
+    */
+    @Test
+    public void publishReleasesSlotAndNotifiesListenerOnDelivery(@Mocked final IMqttActionListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, MOCK_PARSE_TOPIC, payload, mockListener);
+        final List<IMqttActionListener> windowListeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, withCapture(windowListeners));
+            }
+        };
+
+        //act
+        windowListeners.get(0).onSuccess(mockMqttDeliveryToken);
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "completeInFlightSlot", new Class[] {long.class, boolean.class}, anyLong, true);
+                times = 1;
+                mockListener.onSuccess(mockMqttDeliveryToken);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_003: [**publish shall not wait for the delivery, and shall release the slot of the window with the time the publish was sent and notify the delivery listener, if any, with the outcome once the delivery completes.**]**
+    */
+    @Test
+    public void publishReleasesSlotAndNotifiesListenerOnDeliveryFailure(@Mocked final IMqttActionListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        final Throwable failure = new Throwable();
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, MOCK_PARSE_TOPIC, payload, mockListener);
+        final List<IMqttActionListener> windowListeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, withCapture(windowListeners));
+            }
+        };
+
+        //act
+        windowListeners.get(0).onFailure(mockMqttDeliveryToken, failure);
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "completeInFlightSlot", new Class[] {long.class, boolean.class}, anyLong, false);
+                times = 1;
+                mockListener.onFailure(mockMqttDeliveryToken, failure);
+                times = 1;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_004: [**If the message cannot be published, publish shall leave the slot of the window to the caller without notifying the delivery listener.**]**
+    */
+    @Test
+    public void publishLeavesSlotToCallerIfPublishThrows(@Mocked final IMqttActionListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                new MqttMessage(payload);
+                result = mockMqttMessage;
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
+                result = mockMqttException;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, byte[].class, IMqttActionListener.class}, MOCK_PARSE_TOPIC, payload, mockListener);
+            fail("publish should have thrown");
+        }
+        catch (Exception expected)
+        {
+            // expected
+        }
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "releaseInFlightSlot");
+                times = 0;
+                mockListener.onSuccess((IMqttToken) any);
+                times = 0;
+                mockListener.onFailure((IMqttToken) any, (Throwable) any);
+                times = 0;
+            }
+        };
+    }
+
 
     /*
     **Tests_SRS_Mqtt_25_014: [**The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.**]**
@@ -616,7 +791,7 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 3;
-                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -638,7 +813,7 @@ public class MqttTest
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttException;
             }
         };
@@ -725,9 +900,10 @@ public class MqttTest
 
     /*
     **Tests_SRS_Mqtt_25_017: [**The function shall subscribe to subscribeTopic specified to the IoT Hub given in the configuration.**]**
+    **Tests_SRS_Mqtt_45_019: [**The function shall send all the topics in a single SUBSCRIBE without waiting for the SUBACK, and complete each subscription with the QoS the IoT Hub granted it once the SUBACK comes back.**]**
      */
     @Test
-    public void subscribeSucceeds() throws IOException, MqttException
+    public void subscribeSendsAllTopicsInOneSubscribeWithoutWaiting() throws Exception
     {
         //arrange
         baseConstructorExpectations();
@@ -737,75 +913,151 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 result = true;
-                mockMqttAsyncClient.subscribe(MOCK_PARSE_TOPIC, anyInt);
-                result = mockMqttToken;
             }
         };
         Mqtt mockMqtt = instantiateMqtt(true);
         Deencapsulation.invoke(mockMqtt, "connect");
+        Object first = newSubscription(FIRST_TOPIC);
+        Object second = newSubscription(SECOND_TOPIC);
 
         //act
-        Deencapsulation.invoke(mockMqtt, "subscribe", MOCK_PARSE_TOPIC);
+        subscribe(mockMqtt, first, second);
 
         //assert
+        final List<String[]> topics = new ArrayList<>();
+        final List<int[]> qos = new ArrayList<>();
         new Verifications()
         {
             {
-                mockMqttAsyncClient.isConnected();
-                minTimes = 1;
-                mockMqttAsyncClient.subscribe(MOCK_PARSE_TOPIC, anyInt);
+                mockMqttAsyncClient.subscribe(withCapture(topics), withCapture(qos), any, (IMqttActionListener) any);
                 times = 1;
+                mockMqttToken.waitForCompletion(anyLong);
+                times = 0;
             }
         };
+        assertArrayEquals(new String[] { FIRST_TOPIC, SECOND_TOPIC }, topics.get(0));
+        assertArrayEquals(new int[] { 1, 1 }, qos.get(0));
+        assertFalse((boolean) Deencapsulation.invoke(first, "isSubscribed"));
+        assertTrue((boolean) Deencapsulation.invoke(first, "isRequested"));
     }
 
     /*
-    **Tests_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
+    **Tests_SRS_Mqtt_45_019: [**The function shall send all the topics in a single SUBSCRIBE without waiting for the SUBACK, and complete each subscription with the QoS the IoT Hub granted it once the SUBACK comes back.**]**
      */
-    @Test(expected = IOException.class)
-    public void subscribeFailsWhenNotConnected() throws IOException, MqttException
+    @Test
+    public void subscribeCompletesSubscriptionsWithGrantedQos() throws Exception
     {
         //arrange
         baseConstructorExpectations();
+        baseConnectExpectation();
         new NonStrictExpectations()
         {
             {
                 mockMqttAsyncClient.isConnected();
-                result = false;
+                result = true;
+                mockMqttToken.getGrantedQos();
+                result = new int[] { 1, 0x80 };
             }
         };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
+        Object first = newSubscription(FIRST_TOPIC);
+        Object second = newSubscription(SECOND_TOPIC);
+        subscribe(mockMqtt, first, second);
+        final List<IMqttActionListener> listeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.subscribe((String[]) any, (int[]) any, any, withCapture(listeners));
+            }
+        };
+
+        //act
+        listeners.get(0).onSuccess(mockMqttToken);
+
+        //assert
+        assertTrue((boolean) Deencapsulation.invoke(first, "isSubscribed"));
+        assertFalse((boolean) Deencapsulation.invoke(second, "isSubscribed"));
+        assertTrue((boolean) Deencapsulation.invoke(second, "beginSubscribe"));
+    }
 
+    /*
+    **Tests_SRS_Mqtt_45_018: [**The function shall only subscribe to the subscriptions that are not subscribed or subscribing yet, and do nothing if there is none.**]**
+     */
+    @Test
+    public void subscribeSkipsSubscriptionsAlreadySubscribing() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        baseConnectExpectation();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
         Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "connect");
+        Object first = newSubscription(FIRST_TOPIC);
+        Object second = newSubscription(SECOND_TOPIC);
+        subscribe(mockMqtt, first);
 
         //act
-        Deencapsulation.invoke(mockMqtt, "subscribe", MOCK_PARSE_TOPIC);
+        subscribe(mockMqtt, first);
+        subscribe(mockMqtt, first, second);
 
         //assert
+        final List<String[]> topics = new ArrayList<>();
         new Verifications()
+        {
+            {
+                mockMqttAsyncClient.subscribe(withCapture(topics), (int[]) any, any, (IMqttActionListener) any);
+                times = 2;
+            }
+        };
+        assertArrayEquals(new String[] { FIRST_TOPIC }, topics.get(0));
+        assertArrayEquals(new String[] { SECOND_TOPIC }, topics.get(1));
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
+     */
+    @Test(expected = IOException.class)
+    public void subscribeFailsWhenNotConnected() throws Exception
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
         {
             {
                 mockMqttAsyncClient.isConnected();
-                minTimes = 1;
+                result = false;
             }
         };
+
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        subscribe(mockMqtt, newSubscription(FIRST_TOPIC));
     }
 
     @Test(expected = IOException.class)
-    public void subscribeFailsWhenConfigIsNotSet() throws IOException, MqttException
+    public void subscribeFailsWhenConfigIsNotSet() throws Exception
     {
         //arrange
         baseConstructorExpectations();
         Mqtt mockMqtt = instantiateMqtt(false);
 
         //act
-        Deencapsulation.invoke(mockMqtt, "subscribe", MOCK_PARSE_TOPIC);
+        subscribe(mockMqtt, newSubscription(FIRST_TOPIC));
     }
 
     /*
     **Tests_SRS_Mqtt_25_016: [**If the subscribeTopic is null or empty, the function shall throw an InvalidParameter Exception.**]**
      */
     @Test(expected = InvalidParameterException.class)
-    public void subscribeThrowsExceptionWhenTopicIsNull() throws IOException, MqttException
+    public void subscribeThrowsExceptionWhenSubscriptionIsNull() throws Exception
     {
         //arrange
         baseConstructorExpectations();
@@ -814,14 +1066,14 @@ public class MqttTest
         Deencapsulation.invoke(mockMqtt, "connect");
 
         //act
-        Deencapsulation.invoke(mockMqtt, "subscribe", String.class);
+        subscribe(mockMqtt, (Object) null);
     }
 
     /*
     **Tests_SRS_Mqtt_99_049: [**If the user supplied SAS token has expired, the function shall throw an IOException.**]**
      */
     @Test(expected = IOException.class)
-    public void subscribeThrowsExceptionWhenUserSuppliedSASTokenHasExpired() throws IOException, MqttException
+    public void subscribeThrowsExceptionWhenUserSuppliedSASTokenHasExpired() throws Exception
     {
         //arrange
         baseConstructorExpectations();
@@ -831,14 +1083,14 @@ public class MqttTest
 
         //act
         Deencapsulation.setField(mockMqtt,"userSpecifiedSASTokenExpiredOnRetry",true);
-        Deencapsulation.invoke(mockMqtt, "subscribe", MOCK_PARSE_TOPIC);
+        subscribe(mockMqtt, newSubscription(FIRST_TOPIC));
     }
-    
+
     /*
     **Tests_SRS_Mqtt_25_048: [**If the Mqtt Client Async throws MqttException for any reason, the function shall throw an IOException with the message.**]**
      */
-    @Test(expected = IOException.class)
-    public void subscribeThrowsIOExceptionWhenMqttAsyncThrows() throws IOException, MqttException
+    @Test
+    public void subscribeThrowsIOExceptionWhenMqttAsyncThrows() throws Exception
     {
         //arrange
         baseConstructorExpectations();
@@ -849,26 +1101,28 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 result = true;
-                mockMqttAsyncClient.subscribe(MOCK_PARSE_TOPIC, anyInt);
+                mockMqttAsyncClient.subscribe((String[]) any, (int[]) any, any, (IMqttActionListener) any);
                 result = mockMqttException;
             }
         };
 
         Mqtt mockMqtt = instantiateMqtt(true);
         Deencapsulation.invoke(mockMqtt, "connect");
+        Object subscription = newSubscription(FIRST_TOPIC);
 
         //act
-        Deencapsulation.invoke(mockMqtt, "subscribe", MOCK_PARSE_TOPIC);
-
-        new Verifications()
+        try
         {
-            {
-                mockMqttAsyncClient.isConnected();
-                minTimes = 1;
-                mockMqttAsyncClient.subscribe(MOCK_PARSE_TOPIC, anyInt);
-                times = 1;
-            }
-        };
+            subscribe(mockMqtt, subscription);
+            fail("subscribe should throw IOException");
+        }
+        catch (Exception e)
+        {
+            assertTrue(e instanceof IOException);
+        }
+
+        //assert
+        assertTrue((boolean) Deencapsulation.invoke(subscription, "beginSubscribe"));
     }
 
     // Tests_SRS_Mqtt_34_023: [This method shall call peekMessage to get the message payload from the received Messages queue corresponding to the messaging client's operation.]
@@ -1036,233 +1290,228 @@ public class MqttTest
         }
     }
 
-    //Tests_SRS_Mqtt_99_050: [The function shall check if SAS token has already expired.]
-    //Tests_SRS_Mqtt_25_026: [The function shall notify all its concrete classes by calling abstract method onReconnect at the entry of the function]
-    //Tests_SRS_Mqtt_25_029: [The function shall notify all its concrete classes by calling abstract method onReconnectComplete at the exit of the function]
-    //Tests_SRS_Mqtt_34_045: [If this object has a saved listener, this function shall notify the listener that connection was lost.]
+    //Tests_SRS_Mqtt_45_001: [If this object has a saved listener, this function shall notify the listener that a message was received after adding it to the queue.]
     @Test
-    public void connectionLostAttemptsToReconnectWithSASTokenStillValid() throws IOException, MqttException
+    public void messageArrivedNotifiesListener() throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
         baseConstructorExpectations();
+        baseConnectExpectation();
+        final Mqtt mockMqtt = instantiateMqtt(true, mockedMqttConnectionStateListener);
+        Deencapsulation.invoke(mockMqtt, "connect");
+
+        //act
+        mockMqtt.messageArrived(MOCK_PARSE_TOPIC, new MqttMessage(actualPayload));
 
-        new StrictExpectations()
+        //assert
+        new Verifications()
         {
             {
-                mockedMqttConnectionStateListener.connectionLost();
-
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
-                mockDeviceClientConfig.getAuthenticationType();
-                result = DeviceClientConfig.AuthType.SAS_TOKEN;
-
-                IotHubSasToken.isExpired(anyString);
-                result = false;
-
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
-                mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                result = mockMqttToken;
-                mockMqttToken.waitForCompletion();
-
-                mockedMqttConnectionStateListener.connectionEstablished();
-
-                mockMqttAsyncClient.isConnected();
-                result = true;
+                mockedMqttConnectionStateListener.messageReceived();
+                times = 1;
             }
         };
+    }
+
+    //Tests_SRS_Mqtt_34_045: [If this object has a saved listener, this function shall notify the listener that connection was lost.]
+    //Tests_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
+    //Tests_SRS_Mqtt_45_010: [The function shall hand the lost connection to the saved reconnector, if any, without waiting for the connection to be restored.]
+    //Tests_SRS_Mqtt_45_013: [The function shall save the provided reconnector.]
+    @Test
+    public void connectionLostHandsLostConnectionToReconnectorWithoutWaiting(@Mocked final ScheduledExecutorService mockScheduler) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true, mockedMqttConnectionStateListener);
+        Object reconnector = Deencapsulation.newInstance(RECONNECTOR_CLASS,
+                new Class[] {Mqtt.class, MqttConnection.class, ScheduledExecutorService.class},
+                mockMqtt, mockedMqttConnection, mockScheduler);
+        Deencapsulation.invoke(mockMqtt, "setReconnector", reconnector);
 
         //act
-        try
+        mockMqtt.connectionLost(new Throwable());
+
+        //assert
+        assertTrue((Boolean) Deencapsulation.invoke(reconnector, "isReconnecting"));
+        new Verifications()
         {
-            mockMqtt = instantiateMqtt(true, mockedMqttConnectionStateListener);
-            Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
-            mockMqtt.connectionLost(t);
-        }
-        catch (Exception e)
+            {
+                mockedMqttConnectionStateListener.connectionLost();
+                times = 1;
+                mockScheduler.schedule((Runnable) any, 0L, TimeUnit.MILLISECONDS);
+                times = 1;
+                mockMqttAsyncClient.connect((MqttConnectOptions) any);
+                times = 0;
+                mockMqttAsyncClient.connect((MqttConnectOptions) any, any, (IMqttActionListener) any);
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_Mqtt_45_005: [The function shall report the lost connection to the in flight window of the connection.]
+    @Test
+    public void connectionLostReportsToInFlightWindow() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
         {
-            System.out.print("Completed throwing exception - " + e.getCause() + e.getMessage());
-        }
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        mockMqtt.connectionLost(new Throwable());
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedMqttConnection, "onConnectionLost");
+                times = 1;
+            }
+        };
     }
 
     /*
      **Tests_SRS_Mqtt_99_050: [**The function shall check if SAS token has already expired.**]**
     */
     /*
-     **Tests_SRS_Mqtt_99_051: [**The function shall check if SAS token in based on user supplied SharedAccessKey.**]**
-    */
-     /*
      **Tests_SRS_Mqtt_99_052: [**The function shall generate a new SAS token.**]**
     */
-    /*
-    **Tests_SRS_Mqtt_25_026: [**The function shall notify all its concrete classes by calling abstract method onReconnect at the entry of the function**]**
-     */
-    /*
-    **Tests_SRS_Mqtt_25_029: [**The function shall notify all its concrete classes by calling abstract method onReconnectComplete at the exit of the function**]**
-    */
+    //Tests_SRS_Mqtt_45_011: [The function shall set the renewed SAS token as the password of the connection options.]
     @Test
-    public void connectionLostAttemptsToReconnectWithUserSuppliedSharedKeyBasedSASTokenAlreadyExpired() throws IOException, MqttException
+    public void prepareReconnectRenewsSasTokenBeforeReconnecting() throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
+        final String renewedSasToken = "SharedAccessSignature sr=hostname&sig=Signature&se=4102444800";
         baseConstructorExpectations();
-
-        new StrictExpectations()
+        new NonStrictExpectations()
         {
             {
-                mockMqttAsyncClient.isConnected();
-                result = false;
+                Deencapsulation.invoke(mockedMqttConnection, "getConnectionOptions");
+                result = mockMqttConnectionOptions;
                 mockDeviceClientConfig.getAuthenticationType();
                 result = DeviceClientConfig.AuthType.SAS_TOKEN;
-                mockMqttConnectionOptions.getPassword();
-                result = EXPECTED_EXPIRED_SAS_TOKEN.toCharArray();
-                IotHubSasToken.isExpired(EXPECTED_EXPIRED_SAS_TOKEN);
-                result = true; // SAS token has expired
-                mockDeviceClientConfig.getIotHubConnectionString().getSharedAccessKey();
-                result = anyString;
-
                 mockDeviceClientConfig.getSasTokenAuthentication().getRenewedSasToken();
-                result = EXPECTED_EXPIRED_SAS_TOKEN;
-
-                mockMqttConnectionOptions.setPassword((char[])any);
-                mockMqttAsyncClient.isConnected();
+                result = renewedSasToken;
+                IotHubSasToken.isExpired(renewedSasToken);
                 result = false;
-                mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                result = mockMqttToken;
-                mockMqttToken.waitForCompletion();
-                mockMqttAsyncClient.isConnected();
-                result = true;
             }
         };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
 
         //act
-        try
-        {
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.setField(mockMqtt, "deviceClientConfig", mockDeviceClientConfig);
-            mockMqtt.connectionLost(t);
-        }
-        catch (Exception e)
+        boolean canReconnect = Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+
+        //assert
+        assertTrue(canReconnect);
+        new Verifications()
         {
-            System.out.print("Completed throwing exception - " + e.getCause() + e.getMessage());
-        }
+            {
+                mockMqttConnectionOptions.setPassword(renewedSasToken.toCharArray());
+                times = 1;
+            }
+        };
     }
 
-	/*
+    /*
      **Tests_SRS_Mqtt_99_050: [**The function shall check if SAS token has already expired.**]**
     */
-	/*
-     **Tests_SRS_Mqtt_99_051: [**The function shall check if SAS token in based on user supplied SharedAccessKey.**]**
+    /*
+     **Tests_SRS_Mqtt_99_053: [**The function shall set user supplied SAS token expiration flag to true .**]**
     */
-
     @Test(expected = IOException.class)
-    public void connectionLostAttemptsToReconnectWithUserSuppliedSASTokenAlreadyExpired() throws IOException, MqttException
+    public void prepareReconnectFailsWithUserSuppliedSASTokenAlreadyExpired() throws IOException, MqttException
     {
         //arrange
         final byte[] payload = {0x61, 0x62, 0x63};
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
         baseConstructorExpectations();
-        new StrictExpectations()
+        new NonStrictExpectations()
         {
             {
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
                 mockDeviceClientConfig.getAuthenticationType();
                 result = DeviceClientConfig.AuthType.SAS_TOKEN;
-
-                IotHubSasToken.isExpired(anyString);
+                mockDeviceClientConfig.getSasTokenAuthentication().getRenewedSasToken();
+                result = EXPECTED_EXPIRED_SAS_TOKEN;
+                IotHubSasToken.isExpired(EXPECTED_EXPIRED_SAS_TOKEN);
                 result = true; // User specified SAS token has expired
-
-                mockDeviceClientConfig.getIotHubConnectionString().getSharedAccessKey();
-                result = null;
             }
         };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
 
         //act
-        mockMqtt = instantiateMqtt(true);
-        Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
-        mockMqtt.connectionLost(t);
+        boolean canReconnect = Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+
+        //assert
+        assertFalse(canReconnect);
+        new Verifications()
+        {
+            {
+                mockMqttConnectionOptions.setPassword((char[]) any);
+                times = 0;
+            }
+        };
         Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, payload);
     }
-    
-    /*
-    **Tests_SRS_Mqtt_25_027: [**The function shall attempt to reconnect to the IoTHub in a loop with exponential backoff until it succeeds**]**
-     */
+
+    //Tests_SRS_Mqtt_45_011: [The function shall set the renewed SAS token as the password of the connection options.]
     @Test
-    public void connectionLostAttemptsToReconnectAgainIfConnectFails() throws IOException, MqttException
+    public void prepareReconnectKeepsCredentialsOfX509Connection() throws IOException, MqttException
     {
         //arrange
-        Mqtt mockMqtt = null;
-        Throwable t = new Throwable();
         baseConstructorExpectations();
         new NonStrictExpectations()
         {
             {
-                Deencapsulation.invoke(mockedMqttConnection, "getMqttAsyncClient");
-                result = mockMqttAsyncClient;
-                Deencapsulation.invoke(mockedMqttConnection, "getConnectionOptions");
-                result = mockMqttConnectionOptions;
+                mockDeviceClientConfig.getAuthenticationType();
+                result = DeviceClientConfig.AuthType.X509_CERTIFICATE;
             }
         };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
 
-        new StrictExpectations()
+        //act
+        boolean canReconnect = Deencapsulation.invoke(mockMqtt, "prepareReconnect");
+
+        //assert
+        assertTrue(canReconnect);
+        new Verifications()
         {
             {
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
-                mockDeviceClientConfig.getAuthenticationType();
-                result = DeviceClientConfig.AuthType.SAS_TOKEN;
-
-                IotHubSasToken.isExpired(anyString);
-                result = false;
-
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
-                mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                result = mockMqttException;
-
-                mockMqttAsyncClient.isConnected();
-                result = false;
-
-                mockDeviceClientConfig.getAuthenticationType();
-                result = DeviceClientConfig.AuthType.SAS_TOKEN;
-
-                IotHubSasToken.isExpired(anyString);
-                result = false;
-
-                mockMqttAsyncClient.isConnected();
-                result = false;
+                mockDeviceClientConfig.getSasTokenAuthentication();
+                times = 0;
+                mockMqttConnectionOptions.setPassword((char[]) any);
+                times = 0;
+            }
+        };
+    }
 
-                mockMqttAsyncClient.connect(mockMqttConnectionOptions);
-                result = mockMqttToken;
+    //Tests_SRS_Mqtt_45_012: [If this object has a saved listener, this function shall notify the listener that connection was established.]
+    @Test
+    public void onReconnectedNotifiesListener() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true, mockedMqttConnectionStateListener);
 
-                mockMqttToken.waitForCompletion();
+        //act
+        Deencapsulation.invoke(mockMqtt, "onReconnected");
 
-                mockMqttAsyncClient.isConnected();
-                result = true;
+        //assert
+        new Verifications()
+        {
+            {
+                mockedMqttConnectionStateListener.connectionEstablished();
+                times = 1;
             }
         };
-        //act
-        try
-        {
-            mockMqtt = instantiateMqtt(true);
-            Deencapsulation.invoke(mockMqtt, "setDeviceClientConfig", mockDeviceClientConfig);
-            mockMqtt.connectionLost(t);
-        }
-        catch (Exception e)
-        {
-            System.out.print("Completed throwing exception - " + e.getCause() + e.getMessage());
-        }
-
     }
 
     // Tests_SRS_Mqtt_34_021: [If the call peekMessage returns null then this method shall do nothing and return null]
@@ -1413,6 +1662,81 @@ public class MqttTest
         assertEquals("=", receivedMessage.getProperties()[3].getValue());
     }
 
+    //Tests_SRS_Mqtt_45_008: [This method shall scan the properties string in a single pass without regular expressions, splitting the properties on `&`, ignoring trailing separators, and each property on its first `=`.]
+    //Tests_SRS_Mqtt_45_009: [This method shall decode the `+` signs and the percent-encoded UTF-8 bytes of the keys and values, and throw an IllegalArgumentException if a percent sign is not followed by two hexadecimal digits.]
+    @Test
+    public void receiveScansPropertiesInSinglePass() throws IOException, MqttException
+    {
+        //arrange
+        final byte[] payload = {0x61, 0x62, 0x63};
+        final String mockParseTopic = "devices/deviceID/messages/devicebound/%24.mid=%E2%82%AC%F0%9F%98%80+1&key=a=b&plus=x+y&empty=&&";
+        baseConstructorExpectations();
+        new MockUp<MqttMessaging>()
+        {
+            @Mock
+            Pair<String, byte[]> peekMessage()
+            {
+                return new MutablePair<>(mockParseTopic, payload);
+            }
+        };
+        final Mqtt mockMqtt = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+
+        //act
+        Message receivedMessage = mockMqtt.receive();
+
+        //assert
+        assertEquals("\u20ac\ud83d\ude00 1", receivedMessage.getMessageId());
+        assertEquals(3, receivedMessage.getProperties().length);
+        assertEquals("a=b", receivedMessage.getProperty("key"));
+        assertEquals("x y", receivedMessage.getProperty("plus"));
+        assertEquals("", receivedMessage.getProperty("empty"));
+    }
+
+    //Tests_SRS_Mqtt_45_009: [This method shall decode the `+` signs and the percent-encoded UTF-8 bytes of the keys and values, and throw an IllegalArgumentException if a percent sign is not followed by two hexadecimal digits.]
+    @Test (expected = IllegalArgumentException.class)
+    public void receiveThrowsOnIncompletePercentEncoding() throws IOException, MqttException
+    {
+        //arrange
+        final String mockParseTopic = "devices/deviceID/messages/devicebound/%24.mid=1&key=%2";
+        baseConstructorExpectations();
+        new MockUp<MqttMessaging>()
+        {
+            @Mock
+            Pair<String, byte[]> peekMessage()
+            {
+                return new MutablePair<>(mockParseTopic, new byte[0]);
+            }
+        };
+        final Mqtt mockMqtt = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedMqttConnectionStateListener);
+
+        //act
+        mockMqtt.receive();
+    }
+
+    //Tests_SRS_Mqtt_45_007: [The function shall route the message once, by its topic, to the queue of the client that handles it.]
+    @Test
+    public void messageArrivedRoutesMessageToQueueOfItsClient() throws IOException, MqttException
+    {
+        //arrange
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
+        final String twinTopic = "$iothub/twin/res/200/?$rid=1";
+        baseConstructorExpectations();
+        Mqtt messagingClient = instantiateMqtt(true);
+        Mqtt twinClient = instantiateMqtt(false);
+
+        //act
+        messagingClient.messageArrived(twinTopic, new MqttMessage(actualPayload));
+        messagingClient.messageArrived(MOCK_PARSE_TOPIC, new MqttMessage(actualPayload));
+
+        //assert
+        Queue<Pair<String, byte[]>> messagingQueue = Deencapsulation.getField(messagingClient, "allReceivedMessages");
+        Queue<Pair<String, byte[]>> twinQueue = Deencapsulation.getField(twinClient, "allReceivedMessages");
+        assertEquals(1, messagingQueue.size());
+        assertEquals(MOCK_PARSE_TOPIC, messagingQueue.poll().getKey());
+        assertEquals(1, twinQueue.size());
+        assertEquals(twinTopic, twinQueue.poll().getKey());
+    }
+
     /*
     ** Codes_SRS_Mqtt_99_50: [**If deviceConfig is null, the function shall throw an IllegalArgumentException**]**
     */
@@ -1424,4 +1748,163 @@ public class MqttTest
 
         Deencapsulation.invoke(mockMqtt,"setDeviceClientConfig", new Class[] {DeviceClientConfig.class},(DeviceClientConfig)null);
     }
-}
\ No newline at end of file
+
+    /*
+    **Tests_SRS_Mqtt_45_016: [**publishAtMostOnce shall publish the payload at QoS 0 on the publishTopic, without taking a slot of the in flight window nor keeping the delivery token.**]**
+    */
+    @Test
+    public void publishAtMostOncePublishesAtQos0OutsideOfWindow() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                new MqttMessage(payload);
+                result = mockMqttMessage;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", MOCK_PARSE_TOPIC, payload);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttMessage.setQos(0);
+                times = 1;
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                times = 1;
+                Deencapsulation.invoke(mockedMqttConnection, "tryAcquireInFlightSlot");
+                times = 0;
+                mockMqttDeliveryToken.waitForCompletion();
+                times = 0;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_016: [**publishAtMostOnce shall publish the payload at QoS 0 on the publishTopic, without taking a slot of the in flight window nor keeping the delivery token.**]**
+    */
+    @Test
+    public void publishAtMostOnceDoesNotWaitForFullWindowUnderLoad() throws IOException, MqttException
+    {
+        //arrange
+        final int count = 10000;
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                Deencapsulation.invoke(mockedMqttConnection, "tryAcquireInFlightSlot");
+                result = new AssertionError("a publish at QoS 0 shall not wait for the in flight window");
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+
+        //act
+        for (int i = 0; i < count; i++)
+        {
+            Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", MOCK_PARSE_TOPIC, payload);
+        }
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, (MqttMessage) any);
+                times = count;
+            }
+        };
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_014: [**If the user supplied SAS token has expired or the MQTT connection is closed, publishAtMostOnce shall throw an IOException.**]**
+    */
+    @Test (expected = IOException.class)
+    public void publishAtMostOnceFailsWhenNotConnected() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", MOCK_PARSE_TOPIC, payload);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_014: [**If the user supplied SAS token has expired or the MQTT connection is closed, publishAtMostOnce shall throw an IOException.**]**
+    */
+    @Test (expected = IOException.class)
+    public void publishAtMostOnceThrowsIfUserSuppliedSASTokenHasExpired() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.setField(mockMqtt, "userSpecifiedSASTokenExpiredOnRetry", true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", MOCK_PARSE_TOPIC, payload);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_015: [**If the either publishTopic is null or empty or if payload is null, publishAtMostOnce shall throw an IOException.**]**
+    */
+    @Test (expected = IOException.class)
+    public void publishAtMostOnceThrowsWhenPayloadIsNull() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", new Class[] {String.class, byte[].class}, MOCK_PARSE_TOPIC, null);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_45_017: [**If the Mqtt Client Async throws MqttException, publishAtMostOnce shall throw an IOException with the message.**]**
+    */
+    @Test (expected = IOException.class)
+    public void publishAtMostOnceThrowsIOExceptionWhenClientThrows() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, (MqttMessage) any);
+                result = mockMqttException;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publishAtMostOnce", MOCK_PARSE_TOPIC, payload);
+    }
+}
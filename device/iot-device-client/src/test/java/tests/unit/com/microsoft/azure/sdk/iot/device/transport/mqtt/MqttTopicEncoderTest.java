@@ -0,0 +1,131 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/** Unit tests for MqttTopicEncoder. */
+public class MqttTopicEncoderTest
+{
+    private static final String TOPIC_PREFIX = "devices/test-device/messages/events/";
+
+    private static Object createEncoder(String topicPrefix)
+    {
+        return Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTopicEncoder",
+                new Class[] {String.class}, topicPrefix);
+    }
+
+    private static String encode(Object encoder, Message message)
+    {
+        return Deencapsulation.invoke(encoder, "encode", message);
+    }
+
+    private static Message createMessage()
+    {
+        Message message = new Message("body");
+        message.setMessageId("mid");
+        message.setCorrelationId(null);
+        return message;
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_001: [If the topic prefix is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullTopicPrefix()
+    {
+        Deencapsulation.newInstance("com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTopicEncoder",
+                new Class[] {String.class}, (Object) null);
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_001: [If the topic prefix is null or empty, the constructor shall throw IllegalArgumentException.]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnEmptyTopicPrefix()
+    {
+        createEncoder("");
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_002: [The constructor shall save the topic prefix and create the builder reused by every message.]
+    // Tests_SRS_MQTTTOPICENCODER_45_003: [The function shall start the topic with the topic prefix, reusing the builder of the previous message.]
+    // Tests_SRS_MQTTTOPICENCODER_45_004: [The function shall append the message id, correlation id, user id and to of the message that are not null, with the keys `$.mid`, `$.cid`, `$.uid` and `$.to`, in this order.]
+    // Tests_SRS_MQTTTOPICENCODER_45_005: [The function shall append the name and value of each user property of the message.]
+    // Tests_SRS_MQTTTOPICENCODER_45_006: [The function shall separate the properties with `&`, and each key from its value with `=`.]
+    @Test
+    public void encodeAppendsSystemAndUserProperties()
+    {
+        Object encoder = createEncoder(TOPIC_PREFIX);
+        Message message = createMessage();
+        message.setCorrelationId("cid");
+        Deencapsulation.setField(message, "userId", "uid");
+        message.setProperty("key1", "value1");
+        message.setProperty("key2", "value2");
+        Message messageWithoutProperties = createMessage();
+        messageWithoutProperties.setMessageId(null);
+
+        String topic = encode(encoder, message);
+        String topicWithoutProperties = encode(encoder, messageWithoutProperties);
+
+        assertEquals(TOPIC_PREFIX + "$.mid=mid&$.cid=cid&$.uid=uid&key1=value1&key2=value2", topic);
+        assertEquals(TOPIC_PREFIX, topicWithoutProperties);
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_007: [The function shall append the unreserved characters `A-Z a-z 0-9 - . _ ~` unchanged, without copying a value that has no other character.]
+    // Tests_SRS_MQTTTOPICENCODER_45_008: [The function shall append every other character as the percent-encoded bytes of its UTF-8 encoding, and a lone surrogate as the percent-encoded `?`.]
+    @Test
+    public void encodePercentEncodesReservedAndNonAsciiCharacters()
+    {
+        Object encoder = createEncoder(TOPIC_PREFIX);
+        Message message = createMessage();
+        message.setMessageId("Az09-._~");
+        message.setCorrelationId("caf\u00e9\u20ac\ud83d\ude00");
+        Deencapsulation.setField(message, "to", "\ud83d");
+        message.setProperty("a&b=c", "x+y %/?");
+
+        String topic = encode(encoder, message);
+
+        assertEquals(TOPIC_PREFIX + "$.mid=Az09-._~&$.cid=caf%C3%A9%E2%82%AC%F0%9F%98%80&$.to=%3F&a%26b%3Dc=x%2By%20%25%2F%3F", topic);
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_008: [The function shall append every other character as the percent-encoded bytes of its UTF-8 encoding, and a lone surrogate as the percent-encoded `?`.]
+    @Test
+    public void encodedPropertiesDecodeBackToTheirValues() throws Exception
+    {
+        Object encoder = createEncoder(TOPIC_PREFIX);
+        String value = "x+y &z=\u00e9\u20ac\ud83d\ude00";
+        Message message = createMessage();
+        message.setMessageId(value);
+
+        String topic = encode(encoder, message);
+        String encodedValue = topic.substring((TOPIC_PREFIX + "$.mid=").length());
+
+        assertEquals(value, URLDecoder.decode(encodedValue, StandardCharsets.UTF_8.name()));
+    }
+
+    // Tests_SRS_MQTTTOPICENCODER_45_003: [The function shall start the topic with the topic prefix, reusing the builder of the previous message.]
+    @Test
+    public void encodeReusesBuilderAcrossMessages()
+    {
+        Object encoder = createEncoder(TOPIC_PREFIX);
+        StringBuilder builder = Deencapsulation.getField(encoder, "topicBuilder");
+        Message message = createMessage();
+        message.setProperty("temperature", "21.5");
+        String expectedTopic = TOPIC_PREFIX + "$.mid=mid&temperature=21.5";
+
+        encode(encoder, message);
+        int capacity = builder.capacity();
+        for (int i = 0; i < 10000; i++)
+        {
+            assertEquals(expectedTopic, encode(encoder, message));
+        }
+
+        assertSame(builder, Deencapsulation.getField(encoder, "topicBuilder"));
+        assertEquals(capacity, builder.capacity());
+    }
+}
@@ -5,22 +5,37 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvider;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundQueue;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalledTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttNioEngine;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 import junit.framework.AssertionFailedError;
 import mockit.*;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.*;
@@ -58,6 +73,37 @@ public class MqttTransportTest
 
     private class ConnectionStateCallbackContext {}
 
+    @Before
+    public void setUp() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                result = true;
+            }
+        };
+    }
+
+    /* The IoT Hub acknowledges every message as soon as it is sent. */
+    private void acknowledgeEveryMessageExpectations()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = new Delegate()
+                {
+                    IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener)
+                    {
+                        deliveryListener.onSuccess(null);
+                        return IotHubStatusCode.OK_EMPTY;
+                    }
+                };
+            }
+        };
+    }
+
     private class IsEmptyRunnable implements Runnable
     {
         private MqttTransport mqttTransport;
@@ -290,6 +336,33 @@ public class MqttTransportTest
         
     }
  
+    // Tests_SRS_MQTTTRANSPORT_45_027: [The constructor shall initialize the transport queue and the callback queue, and create an MQTT NIO connection on the provided engine, or on the shared engine if it is null.]
+    @Test
+    public void constructorWithEngineCreatesNioConnection(@Mocked final MqttNioEngine mockEngine)
+    {
+        // arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getIotHubHostname();
+                result = "test.host.name";
+                mockedConfig.getDeviceId();
+                result = "test-deviceId";
+            }
+        };
+
+        // act
+        MqttTransport transport = new MqttTransport(mockedConfig, mockEngine);
+
+        // assert
+        Object connection = Deencapsulation.getField(transport, "mqttIotHubConnection");
+        assertEquals("MqttNioIotHubConnection", connection.getClass().getSimpleName());
+        assertEquals(mockEngine, Deencapsulation.getField(connection, "engine"));
+        assertNotNull(Deencapsulation.getField(transport, "waitingList"));
+        assertNotNull(Deencapsulation.getField(transport, "callbackList"));
+        assertTrue(transport.isEmpty());
+    }
+
     // Tests_SRS_MQTTTRANSPORT_15_001: [The constructor shall initialize an empty transport queue
     // for adding messages to be sent as a batch.]
     // Tests_SRS_MQTTTRANSPORT_15_007: [The function shall add a packet containing the message,
@@ -398,7 +471,51 @@ public class MqttTransportTest
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
+                expectedConnection.sendEvent(mockMsg, (IMqttActionListener) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_022: [While the MQTT connection is being restored, the function shall
+    // leave the messages in the waiting list, to be sent once the connection is restored.]
+    @Test
+    public void sendMessagesKeepsMessagesWhileReconnecting(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final MqttIotHubConnection mockConnection)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new MqttIotHubConnection(mockedConfig);
+                result = mockConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockPacket.getMessage();
+                result = mockMsg;
+                mockConnection.isReconnecting();
+                returns(true, false, false);
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        boolean isEmptyWhileReconnecting = transport.isEmpty();
+        transport.sendMessages();
+
+        assertFalse(isEmptyWhileReconnecting);
+        final MqttIotHubConnection expectedConnection = mockConnection;
+        new Verifications()
+        {
+            {
+                expectedConnection.sendEvent(mockMsg, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -430,8 +547,8 @@ public class MqttTransportTest
                 result = mockCallback;
                 mockPacket.getContext();
                 result = context;
-                mockedConnection.sendEvent((Message) any);
-                returns(IotHubStatusCode.OK_EMPTY, IotHubStatusCode.ERROR);
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                returns(IotHubStatusCode.ERROR, IotHubStatusCode.OK_EMPTY);
                 new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
                 result = mockCallbackPacket;
                 new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
@@ -444,354 +561,1305 @@ public class MqttTransportTest
         transport.addMessage(mockMsg, mockCallback, context);
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
+        final List<IMqttActionListener> deliveryListeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedConnection.sendEvent((Message) any, withCapture(deliveryListeners));
+                times = 2;
+            }
+        };
+        deliveryListeners.get(1).onSuccess(null);
 
         new VerificationsInOrder()
         {
             {
-                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
-                mockQueue.add(mockCallbackPacket);
                 new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
                 mockQueue.add(mockCallbackPacket);
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
+                mockQueue.add(mockCallbackPacket);
             }
         };
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_027: [If the packet to be sent contains a message that has expired, the message shall not be sent, but shall be added to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+    // Tests_SRS_MQTTTRANSPORT_45_016: [The function shall send each message with a delivery listener
+    // and keep it in the in flight list until the listener is notified.]
+    // Tests_SRS_MQTTTRANSPORT_45_018: [Once the delivery of a message completes, the function shall remove it from the in flight list,
+    // add the status code OK_EMPTY, or ERROR if the delivery failed, along with the callback and context to the callback list, and signal the registered send task, if any.]
+    // Tests_SRS_MQTTTRANSPORT_45_020: [The function shall return false while messages are waiting for their acknowledgement.]
     @Test
-    public void sendMessagesWithExpiredMessageAddsMessageExpiredToCallbackQueue(
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubEventCallback mockCallback,
-            @Mocked final IotHubOutboundPacket mockPacket,
-            @Mocked final IotHubCallbackPacket mockCallbackPacket)
-            throws IOException
+    public void sendMessagesCompletesCallbackOnceDelivered(
+            @Mocked final IotHubSignalledTask mockSignal) throws IOException
     {
         //arrange
         final Map<String, Object> context = new HashMap<>();
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockedConfig);
-                result = mockedConnection;
-                new IotHubOutboundPacket(mockMsg, mockCallback, context);
-                result = mockPacket;
-                mockedConfig.getAuthenticationType();
-                result = DeviceClientConfig.AuthType.X509_CERTIFICATE;
-                mockPacket.getMessage().isExpired();
-                result = true;
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
             }
         };
-
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, context);
+        transport.registerSendSignal(mockSignal);
 
         //act
         transport.sendMessages();
 
         //assert
         Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertTrue(callbackList.isEmpty());
+        assertFalse(transport.isEmpty());
+
+        final List<IMqttActionListener> deliveryListeners = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockedConnection.sendEvent(mockedMessage, withCapture(deliveryListeners));
+                times = 1;
+            }
+        };
+        deliveryListeners.get(0).onFailure(null, new Throwable());
+        // a late acknowledgement does not complete the message twice.
+        deliveryListeners.get(0).onSuccess(null);
+
         assertEquals(1, callbackList.size());
         new Verifications()
         {
             {
-                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, (IotHubEventCallback) any, any);
+                new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockedIotHubEventCallback, context);
+                times = 1;
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, (IotHubEventCallback) any, any);
+                times = 0;
+                mockSignal.signal();
                 times = 1;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached,
-    // the message shall be buffered to be sent again next time.]
+    // Tests_SRS_MQTTTRANSPORT_45_019: [The method will complete the messages still waiting for their acknowledgement with status MESSAGE_CANCELLED_ONCLOSE.]
     @Test
-    public void sendMessagesBuffersFailedMessages(
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubEventCallback mockCallback)
-            throws IOException
+    public void closeCancelsMessagesWaitingForAcknowledgement() throws IOException
     {
+        //arrange
         final Map<String, Object> context = new HashMap<>();
         new NonStrictExpectations()
         {
             {
-                mockedConnection.sendEvent((Message) any);
-                result = new IllegalStateException(anyString);
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
                 result = IotHubStatusCode.OK_EMPTY;
             }
         };
-
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.addMessage(mockMsg, mockCallback, context);
-        transport.sendMessages();
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, context);
         transport.sendMessages();
 
-        final MqttIotHubConnection expectedConnection = mockedConnection;
+        //act
+        transport.close();
+
+        //assert
+        Set<?> inFlightList = Deencapsulation.getField(transport, "inFlightList");
+        assertTrue(inFlightList.isEmpty());
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
-                times = 2;
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, mockedIotHubEventCallback, context);
+                times = 1;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_011: [If the MQTT connection is closed,
-    // the function shall throw an IllegalStateException.]
-    @Test(expected = IllegalStateException.class)
-    public void sendMessagesFailsIfTransportNeverOpened() throws IOException
-    {
-        MqttTransport transport = new MqttTransport(mockedConfig);
-        transport.sendMessages();
-    }
-
-    // Tests_SRS_MQTTTRANSPORT_15_011: [If the MQTT connection is closed,
-    // the function shall throw an IllegalStateException.]
-    @Test(expected = IllegalStateException.class)
-    public void sendMessagesFailsIfTransportClosed() throws IOException
+    // Tests_SRS_MQTTTRANSPORT_45_030: [Before taking the read lock for a message, the function shall try to take
+    // a slot of the in flight window of the connection, and shall leave the messages in the waiting list and
+    // return without waiting if the window is full or the connection cannot carry them.]
+    @Test
+    public void sendMessagesLeavesMessagesQueuedIfNoSlotCanBeTaken() throws IOException, InterruptedException
     {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                result = new IOException();
+            }
+        };
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.close();
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+
+        //act
         transport.sendMessages();
+
+        //assert
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertEquals(1, waitingList.size());
+        new Verifications()
+        {
+            {
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                times = 0;
+                mockedConnection.releaseInFlightSlot();
+                times = 0;
+            }
+        };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_013: [The function shall invoke all callbacks on the callback queue.]
+    // Tests_SRS_MQTTTRANSPORT_45_030: [Before taking the read lock for a message, the function shall try to take
+    // a slot of the in flight window of the connection, and shall leave the messages in the waiting list and
+    // return without waiting if the window is full or the connection cannot carry them.]
+    // Tests_SRS_MQTTTRANSPORT_45_031: [If a message is not handed over to the connection, the
+    // function shall release its slot of the in flight window, also if sending it throws.]
     @Test
-    public void invokeCallbacksInvokesAllCallbacks(
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubEventCallback mockCallback,
-            @Mocked final IotHubCallbackPacket mockCallbackPacket)
-            throws IOException
+    public void sendMessagesReleasesSlotOfMessagesNotHandedOver() throws IOException, InterruptedException
     {
-        final Map<String, Object> context = new HashMap<>();
+        //arrange
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockedConfig);
-                result = mockedConnection;
-                mockCallbackPacket.getCallback();
-                result = mockCallback;
-                mockCallbackPacket.getContext();
-                result = context;
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                returns(IotHubStatusCode.OK_EMPTY, IotHubStatusCode.ERROR);
             }
         };
-
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.addMessage(mockMsg, mockCallback, context);
-        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+
+        //act
         transport.sendMessages();
-        transport.invokeCallbacks();
 
-        final IotHubEventCallback expectedCallback = mockCallback;
+        //assert
         new VerificationsInOrder()
         {
             {
-                expectedCallback.execute((IotHubStatusCode) any, any);
+                mockedConnection.tryAcquireInFlightSlot();
+                mockedConnection.sendEvent(mockedMessage, (IMqttActionListener) any);
+                mockedConnection.tryAcquireInFlightSlot();
+                mockedConnection.sendEvent(mockedMessage, (IMqttActionListener) any);
+                mockedConnection.releaseInFlightSlot();
+            }
+        };
+        new Verifications()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
                 times = 2;
+                mockedConnection.releaseInFlightSlot();
+                times = 1;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_015: [If an exception is thrown during the callback,
-    // the function shall drop the callback from the queue.]
+    // Tests_SRS_MQTTTRANSPORT_45_031: [If a message is not handed over to the connection, the
+    // function shall release its slot of the in flight window, also if sending it throws.]
     @Test
-    public void invokeCallbacksDropsFailedCallback()
-            throws IOException
+    public void sendMessagesReleasesSlotIfSendThrows() throws IOException, InterruptedException
     {
-        final Map<String, Object> context = new HashMap<>();
+        //arrange
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockedConfig);
-                result = mockedConnection;
-                mockedCallbackPacket.getStatus();
-                result = IotHubStatusCode.OK_EMPTY;
-                mockedCallbackPacket.getCallback();
-                result = mockedIotHubEventCallback;
-                mockedCallbackPacket.getContext();
-                result = context;
-                mockedIotHubEventCallback.execute(IotHubStatusCode.OK_EMPTY, context);
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
                 result = new IllegalStateException();
-                result = null;
+                result = new RuntimeException();
             }
         };
-
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.addMessage(mockedMessage, mockedIotHubEventCallback, context);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
         transport.sendMessages();
+
+        //act
         try
         {
-            transport.invokeCallbacks();
-            throw new AssertionFailedError();
+            transport.sendMessages();
+            fail("sendMessages should have thrown");
         }
-        catch (IllegalStateException e)
+        catch (RuntimeException expected)
         {
-            transport.invokeCallbacks();
+            // expected
         }
 
-        final IotHubEventCallback expectedCallback = mockedIotHubEventCallback;
-        final Map<String, Object> expectedContext = context;
-        new VerificationsInOrder()
+        //assert
+        new Verifications()
         {
             {
-                expectedCallback.execute(IotHubStatusCode.OK_EMPTY, expectedContext);
-                times = 1;
+                mockedConnection.tryAcquireInFlightSlot();
+                times = 2;
+                mockedConnection.releaseInFlightSlot();
+                times = 2;
             }
         };
     }
 
-    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
-    // and callback list are all empty, and false otherwise.]
+    // Tests_SRS_MQTTTRANSPORT_45_030: [Before taking the read lock for a message, the function shall try to take
+    // a slot of the in flight window of the connection, and shall leave the messages in the waiting list and
+    // return without waiting if the window is full or the connection cannot carry them.]
     @Test
-    public void isEmptyReturnsFalseIfWaitingListIsNotEmpty(
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    public void sendMessagesEndsPassWithoutParkingOnFullInFlightWindow() throws IOException
     {
-        final Map<String, Object> context = new HashMap<>();
-
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                returns(true, false);
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.addMessage(mockMsg, mockCallback, context);
-        boolean testIsEmpty = transport.isEmpty();
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
 
-        boolean expectedIsEmpty = false;
-        assertThat(testIsEmpty, is(expectedIsEmpty));
+        //act
+        transport.sendMessages();
+
+        //assert
+        IotHubOutboundQueue waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertEquals(2, waitingList.size());
+        new Verifications()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                times = 2;
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                times = 1;
+                mockedConnection.releaseInFlightSlot();
+                times = 0;
+            }
+        };
     }
 
-    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
-    // and callback list are all empty, and false otherwise.]
+    // Tests_SRS_MQTTTRANSPORT_45_018: [Once the delivery of a message completes, the function shall remove it from the in flight list,
+    // add the status code OK_EMPTY, or ERROR if the delivery failed, along with the callback and context to the callback list, and signal the registered send task, if any.]
     @Test
-    public void isEmptyReturnsFalseIfCallbackListIsNotEmpty(
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubEventCallback mockCallback)
-            throws IOException
+    public void deliveryOnFullInFlightWindowSignalsSendTask(@Mocked final IotHubSignalledTask mockedSendSignal) throws IOException
     {
+        //arrange
+        final List<IMqttActionListener> listeners = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                returns(true, false);
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) withCapture(listeners));
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.registerSendSignal(mockedSendSignal);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        transport.sendMessages();
+        new Verifications()
+        {
+            {
+                mockedSendSignal.signal();
+                times = 2;
+            }
+        };
+
+        //act
+        listeners.get(0).onSuccess(null);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedSendSignal.signal();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_030: [Before taking the read lock for a message, the function shall try to take
+    // a slot of the in flight window of the connection, and shall leave the messages in the waiting list and
+    // return without waiting if the window is full or the connection cannot carry them.]
+    @Test
+    public void saturatedClientsDoNotHoldUpOtherClientsOfSharedRuntime() throws Exception
+    {
+        //arrange
+        final int blockingThreadCount = 2;
+        final int saturatedClientCount = blockingThreadCount * 3;
+        final int messageCount = 5;
+        ClientRuntime runtime = new ClientRuntime(1, blockingThreadCount);
+        List<MqttTransport> saturatedTransports = new ArrayList<>();
+        for (int i = 0; i < saturatedClientCount; i++)
+        {
+            saturatedTransports.add(new MqttTransport(mockedConfig));
+        }
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        final Object connection = Deencapsulation.getField(transport, "mqttIotHubConnection");
+        final CountDownLatch sent = new CountDownLatch(messageCount);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.tryAcquireInFlightSlot();
+                result = new Delegate()
+                {
+                    boolean tryAcquireInFlightSlot(Invocation invocation)
+                    {
+                        // the in flight windows of the saturated clients never free a slot.
+                        return invocation.getInvokedInstance() == connection;
+                    }
+                };
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = new Delegate()
+                {
+                    IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener)
+                    {
+                        sent.countDown();
+                        return IotHubStatusCode.OK_EMPTY;
+                    }
+                };
+            }
+        };
+        List<IotHubSignalledTask> sendSignals = new ArrayList<>();
+        try
+        {
+            for (MqttTransport saturatedTransport : saturatedTransports)
+            {
+                saturatedTransport.open();
+                IotHubSignalledTask sendSignal = new IotHubSignalledTask(new IotHubSendTask(saturatedTransport), runtime.getBlockingExecutor());
+                sendSignals.add(sendSignal);
+                saturatedTransport.registerSendSignal(sendSignal);
+                saturatedTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+                saturatedTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+            }
+            transport.open();
+            IotHubSignalledTask sendSignal = new IotHubSignalledTask(new IotHubSendTask(transport), runtime.getBlockingExecutor());
+            sendSignals.add(sendSignal);
+            transport.registerSendSignal(sendSignal);
+
+            //act
+            for (int i = 0; i < messageCount; i++)
+            {
+                transport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+            }
+
+            //assert
+            assertTrue(sent.await(10, TimeUnit.SECONDS));
+            for (MqttTransport saturatedTransport : saturatedTransports)
+            {
+                IotHubOutboundQueue waitingList = Deencapsulation.getField(saturatedTransport, "waitingList");
+                assertEquals(2, waitingList.size());
+            }
+        }
+        finally
+        {
+            for (IotHubSignalledTask sendSignal : sendSignals)
+            {
+                sendSignal.stop();
+            }
+            runtime.close();
+        }
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_027: [If the packet to be sent contains a message that has expired, the message shall not be sent, but shall be added to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+    @Test
+    public void sendMessagesWithExpiredMessageAddsMessageExpiredToCallbackQueue(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket)
+            throws IOException
+    {
+        //arrange
         final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new MqttIotHubConnection(mockedConfig);
+                result = mockedConnection;
+                new IotHubOutboundPacket(mockMsg, mockCallback, context);
+                result = mockPacket;
+                mockedConfig.getAuthenticationType();
+                result = DeviceClientConfig.AuthType.X509_CERTIFICATE;
+                mockPacket.getMessage().isExpired();
+                result = true;
+            }
+        };
 
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
         transport.addMessage(mockMsg, mockCallback, context);
-        transport.addMessage(mockMsg, mockCallback, context);
-        transport.addMessage(mockMsg, mockCallback, context);
+
+        //act
         transport.sendMessages();
-        boolean testIsEmpty = transport.isEmpty();
 
-        final boolean expectedIsEmpty = false;
-        assertThat(testIsEmpty, is(expectedIsEmpty));
+        //assert
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertEquals(1, callbackList.size());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, (IotHubEventCallback) any, any);
+                times = 1;
+            }
+        };
     }
 
-    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
-    // and callback list are all empty, and false otherwise.]
+    // Tests_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached,
+    // the message shall be buffered to be sent again next time.]
     @Test
-    public void isEmptyReturnsTrueIfEmpty(
+    public void sendMessagesBuffersFailedMessages(
             @Mocked final Message mockMsg,
             @Mocked final IotHubEventCallback mockCallback)
             throws IOException
     {
         final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = new IllegalStateException(anyString);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
 
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
         transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.sendMessages();
+
+        final MqttIotHubConnection expectedConnection = mockedConnection;
+        new Verifications()
+        {
+            {
+                expectedConnection.sendEvent(mockMsg, (IMqttActionListener) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_032: [If the connection cannot send the message yet, the function shall
+    // put the message back at the head of the waiting list, so it keeps its place before the messages
+    // queued after it, and end the pass.]
+    @Test
+    public void sendMessagesPutsMessageBackAtHeadIfConnectionLost() throws IOException, InterruptedException
+    {
+        //arrange
+        final Message firstMessage = new Message();
+        final Message secondMessage = new Message();
+        final Message thirdMessage = new Message();
+        final List<Message> sentMessages = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                result = new Delegate()
+                {
+                    IotHubStatusCode sendEvent(Message message, IMqttActionListener deliveryListener)
+                    {
+                        sentMessages.add(message);
+                        if (sentMessages.size() == 2)
+                        {
+                            // the connection is lost while sending the second message.
+                            throw new IllegalStateException("The MQTT connection was lost while sending the event");
+                        }
+                        return IotHubStatusCode.OK_EMPTY;
+                    }
+                };
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(firstMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(secondMessage, mockedIotHubEventCallback, null);
+        transport.addMessage(thirdMessage, mockedIotHubEventCallback, null);
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(Arrays.asList(firstMessage, secondMessage), sentMessages);
+        assertFalse(transport.isEmpty());
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(Arrays.asList(firstMessage, secondMessage, secondMessage, thirdMessage), sentMessages);
+        Queue<IotHubOutboundPacket> waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertTrue(waitingList.isEmpty());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket((IotHubStatusCode) any, mockedIotHubEventCallback, any);
+                times = 0;
+                mockedConnection.releaseInFlightSlot();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_011: [If the MQTT connection is closed,
+    // the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void sendMessagesFailsIfTransportNeverOpened() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.sendMessages();
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_011: [If the MQTT connection is closed,
+    // the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void sendMessagesFailsIfTransportClosed() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.close();
+        transport.sendMessages();
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_013: [The function shall invoke all callbacks on the callback queue.]
+    @Test
+    public void invokeCallbacksInvokesAllCallbacks(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new MqttIotHubConnection(mockedConfig);
+                result = mockedConnection;
+                mockCallbackPacket.getCallback();
+                result = mockCallback;
+                mockCallbackPacket.getContext();
+                result = context;
+            }
+        };
+
+        acknowledgeEveryMessageExpectations();
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
         transport.addMessage(mockMsg, mockCallback, context);
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
         transport.invokeCallbacks();
-        boolean testIsEmpty = transport.isEmpty();
 
-        final boolean expectedIsEmpty = true;
-        assertThat(testIsEmpty, is(expectedIsEmpty));
+        final IotHubEventCallback expectedCallback = mockCallback;
+        new VerificationsInOrder()
+        {
+            {
+                expectedCallback.execute((IotHubStatusCode) any, any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_015: [If an exception is thrown during the callback,
+    // the function shall drop the callback from the queue.]
+    @Test
+    public void invokeCallbacksDropsFailedCallback()
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                new MqttIotHubConnection(mockedConfig);
+                result = mockedConnection;
+                mockedCallbackPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+                mockedCallbackPacket.getCallback();
+                result = mockedIotHubEventCallback;
+                mockedCallbackPacket.getContext();
+                result = context;
+                mockedIotHubEventCallback.execute(IotHubStatusCode.OK_EMPTY, context);
+                result = new IllegalStateException();
+                result = null;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, context);
+        transport.sendMessages();
+        try
+        {
+            transport.invokeCallbacks();
+            throw new AssertionFailedError();
+        }
+        catch (IllegalStateException e)
+        {
+            transport.invokeCallbacks();
+        }
+
+        final IotHubEventCallback expectedCallback = mockedIotHubEventCallback;
+        final Map<String, Object> expectedContext = context;
+        new VerificationsInOrder()
+        {
+            {
+                expectedCallback.execute(IotHubStatusCode.OK_EMPTY, expectedContext);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
+    // and callback list are all empty, and false otherwise.]
+    @Test
+    public void isEmptyReturnsFalseIfWaitingListIsNotEmpty(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        boolean testIsEmpty = transport.isEmpty();
+
+        boolean expectedIsEmpty = false;
+        assertThat(testIsEmpty, is(expectedIsEmpty));
+    }
+
+    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
+    // and callback list are all empty, and false otherwise.]
+    @Test
+    public void isEmptyReturnsFalseIfCallbackListIsNotEmpty(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        boolean testIsEmpty = transport.isEmpty();
+
+        final boolean expectedIsEmpty = false;
+        assertThat(testIsEmpty, is(expectedIsEmpty));
+    }
+
+    // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
+    // and callback list are all empty, and false otherwise.]
+    @Test
+    public void isEmptyReturnsTrueIfEmpty(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.invokeCallbacks();
+        boolean testIsEmpty = transport.isEmpty();
+
+        final boolean expectedIsEmpty = true;
+        assertThat(testIsEmpty, is(expectedIsEmpty));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
+    @Test
+    public void handleMessageAttemptsToReceiveMessage(@Mocked final MessageCallback mockCallback) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceTelemetryMessageCallback();
+                result = mockCallback;
+                mockedConfig.getDeviceTelemetryMessageContext();
+                result = context;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.handleMessage();
+
+        final MqttIotHubConnection expectedConnection = mockedConnection;
+        new Verifications()
+        {
+            {
+                expectedConnection.receiveMessage();
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
+    // the function shall invoke the callback on the message.]
+    @Test
+    public void handleMessageInvokesCallbackIfMessageReceived(
+            @Mocked final MessageCallback mockCallback,
+            @Mocked final Message mockMsg) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDeviceTelemetryMessageCallback();
+                result = mockCallback;
+                mockedConfig.getDeviceTelemetryMessageContext();
+                result = context;
+                mockedConnection.receiveMessage();
+                result = mockMsg;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.handleMessage();
+
+        final MessageCallback expectedCallback = mockCallback;
+        final Message expectedMsg = mockMsg;
+        final Object expectedContext = context;
+        new Verifications()
+        {
+            {
+                expectedCallback.execute(expectedMsg, expectedContext);
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
+    // the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void handleMessageFailsIfTransportNeverOpened() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.handleMessage();
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
+    // the function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void handleMessageFailsIfTransportAlreadyClosed() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.close();
+        transport.handleMessage();
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_025: [This function shall register the provided connection state callback and context with the saved mqtt iot hub connection.]
+    @Test
+    public void registerConnectionStateCallbackRegistersWithMqttConnection()
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                new MqttIotHubConnection(mockedConfig);
+                result = mockedConnection;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        //act
+        transport.registerConnectionStateCallback(mockedConnectionStateCallback, mockedConnectionStateCallbackContext);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedConnection, "registerConnectionStateCallback", mockedConnectionStateCallback, mockedConnectionStateCallbackContext);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
+    //Tests_SRS_MQTTTRANSPORT_34_031: [This function shall block and wait on the read lock before reading from the in progress list.]
+    @Test
+    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndClose() throws IOException, InterruptedException
+    {
+        //arrange
+        acknowledgeEveryMessageExpectations();
+        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final int messageCount = 1000;
+        mqttTransport.open();
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        }
+
+        //act
+        executorService.submit(new SendMessagesRunnable(mqttTransport));
+        executorService.submit(new CloseRunnable(mqttTransport));
+
+        //wait for all threads to finish
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+
+        //assert
+        new Verifications()
+        {
+            {
+                //Every message was either sent before the transport was closed, or cancelled by close, exactly once
+                new IotHubCallbackPacket((IotHubStatusCode) any, mockedIotHubEventCallback, null);
+                times = messageCount;
+
+                mockedConnection.close();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
+    @Test
+    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndIsEmpty() throws IOException, InterruptedException
+    {
+        //arrange
+        acknowledgeEveryMessageExpectations();
+        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final int messageCount = 1000;
+        mqttTransport.open();
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        }
+
+        //act
+        executorService.submit(new SendMessagesRunnable(mqttTransport));
+        executorService.submit(new IsEmptyRunnable(mqttTransport));
+
+        //wait for all threads to finish
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+
+        //assert
+        new Verifications()
+        {
+            {
+                //All messages should have been sent before isEmpty ran. The isEmpty runnable asserts that waitinglist is empty
+                mockedConnection.sendEvent(mockedMessage, (IMqttActionListener) any);
+                times = messageCount;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_031: [This function shall block and wait on the read lock before reading from the in progress list or the callback list.]
+    @Test
+    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenCloseAndIsEmpty() throws IOException, InterruptedException
+    {
+        //arrange
+        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final int messageCount = 1000;
+        mqttTransport.open();
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        }
+
+        //act
+        executorService.submit(new CloseRunnable(mqttTransport));
+        executorService.submit(new IsEmptyRunnable(mqttTransport));
+
+        //wait for all threads to finish
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+
+        //assert
+        new Verifications()
+        {
+            {
+                //IsEmptyRunnable also asserts that the waitinglist was empty
+                mockedConnection.close();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_030: [This function shall block and wait on the read lock before reading from the callback list.]
+    @Test
+    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndInvokeCallbacks() throws IOException, InterruptedException
+    {
+        //arrange
+        acknowledgeEveryMessageExpectations();
+        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final int messageCount = 1000;
+        mqttTransport.open();
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        }
+
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubCallbackPacket((IotHubStatusCode) any, mockedIotHubEventCallback, null);
+                result = mockedCallbackPacket;
+
+                mockedCallbackPacket.getCallback();
+                result = mockedIotHubEventCallback;
+            }
+        };
+
+        //act
+        executorService.submit(new SendMessagesRunnable(mqttTransport));
+        executorService.submit(new InvokeCallbacksRunnable(mqttTransport));
+
+        //wait for all threads to finish
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+
+        //assert
+        new Verifications()
+        {
+            {
+                //Every message is sent and completed exactly once, though its callback may be invoked between two sends
+                mockedConnection.sendEvent(mockedMessage, (IMqttActionListener) any);
+                times = messageCount;
+
+                new IotHubCallbackPacket((IotHubStatusCode) any, mockedIotHubEventCallback, null);
+                times = messageCount;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_34_028: [This function shall not block and wait on the read lock.]
+    @Test
+    public void addMessagesDoesNotBlockAndWaitForReadOperationThreadsToFinish() throws IOException, InterruptedException
+    {
+        //arrange
+        acknowledgeEveryMessageExpectations();
+        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final int messageCount = 10000;
+        mqttTransport.open();
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
+        }
+
+        //start the thread for sending all of these messages
+        executorService.submit(new SendMessagesRunnable(mqttTransport));
+
+        //act
+        executorService.submit(new AddMessageRunnable(mqttTransport));
+
+        //wait for all threads to finish
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+
+        //assert
+        new Verifications()
+        {
+            {
+                //Message added is sent successfully when the other thread reads it from the waiting list
+                mockedConnection.sendEvent((Message) any, (IMqttActionListener) any);
+                times = messageCount + 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_45_001: [If a send signal is registered, this function shall signal it after adding the packet.]
+    //Tests_SRS_MQTTTRANSPORT_45_002: [This function shall save the provided send signal.]
+    @Test
+    public void addMessageSignalsRegisteredSendSignal(@Mocked final IotHubSignalledTask mockSignal) throws IOException
+    {
+        //arrange
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.registerSendSignal(mockSignal);
+
+        //act
+        transport.addMessage(mockedMessage, mockedIotHubEventCallback, new Object());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockSignal.signal();
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_45_023: [This function shall register the provided send signal with the saved mqtt iot hub connection, to be signalled once a lost connection is restored.]
+    @Test
+    public void registerSendSignalRegistersWithConnection(@Mocked final IotHubSignalledTask mockSignal)
+    {
+        //arrange
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        //act
+        transport.registerSendSignal(mockSignal);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedConnection, "registerSendSignal", mockSignal);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_45_003: [This function shall register the provided receive signal with the saved mqtt iot hub connection.]
+    @Test
+    public void registerReceiveSignalRegistersWithConnection(@Mocked final IotHubSignalledTask mockSignal)
+    {
+        //arrange
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        //act
+        transport.registerReceiveSignal(mockSignal);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockedConnection, "registerReceiveSignal", mockSignal);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_MQTTTRANSPORT_45_004: [This function shall return the received message count of the saved mqtt iot hub connection.]
+    @Test
+    public void getReceivedMessageCountReturnsConnectionCount()
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedConnection, "getReceivedMessageCount");
+                result = 3;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        //act
+        int count = transport.getReceivedMessageCount();
+
+        //assert
+        assertEquals(3, count);
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_005: [If the outbound queue rejects the packet, this function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list.]
+    @Test
+    public void addMessageRejectedByFullQueueAddsQueueFullCallback(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.enqueue((IotHubOutboundPacket) any);
+                result = false;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_029: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+    @Test
+    public void addMessageDroppedNewestAddsQueueFullCallback(
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        final Object droppedContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueueMaxMessages();
+                result = 1;
+                mockedConfig.getOutboundQueueFullPolicy();
+                result = OutboundQueueFullPolicy.DROP_NEWEST;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockedMessage, mockCallback, new Object());
+        transport.addMessage(mockedMessage, mockCallback, droppedContext);
+
+        assertEquals(1, transport.getOutboundQueueStatistics().getQueuedMessageCount());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, droppedContext);
+                times = 1;
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_029: [If the outbound queue dropped messages to apply its full policy, the function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each of them.]
+    @Test
+    public void addMessagesDroppedOldestAddsQueueFullCallback(
+            @Mocked final IotHubEventCallback mockCallback) throws IOException
+    {
+        final Object droppedContext = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueueMaxMessages();
+                result = 2;
+                mockedConfig.getOutboundQueueFullPolicy();
+                result = OutboundQueueFullPolicy.DROP_OLDEST;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        transport.addMessage(mockedMessage, mockCallback, droppedContext);
+        transport.addMessages(Arrays.asList(
+                new IotHubOutboundPacket(mockedMessage, mockCallback, new Object()),
+                new IotHubOutboundPacket(mockedMessage, mockCallback, new Object())));
+
+        assertEquals(2, transport.getOutboundQueueStatistics().getQueuedMessageCount());
+        new Verifications()
+        {
+            {
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, droppedContext);
+                times = 1;
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_006: [This function shall return the statistics of the outbound queue.]
+    @Test
+    public void getOutboundQueueStatisticsReturnsQueueStatistics(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final OutboundQueueStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.getStatistics();
+                result = mockStatistics;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        assertEquals(mockStatistics, transport.getOutboundQueueStatistics());
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
+    // Tests_SRS_MQTTTRANSPORT_45_007: [If the transport is closed, this function shall throw an IllegalStateException.]
+    @Test(expected = IllegalStateException.class)
+    public void addMessagesFailsIfTransportNotOpened(@Mocked final IotHubOutboundPacket mockPacket)
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        transport.addMessages(Arrays.asList(mockPacket));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_008: [This function shall add the packets to the transport queue as one unit.]
+    // Tests_SRS_MQTTTRANSPORT_45_010: [If a send signal is registered, this function shall signal it once after adding the packets.]
     @Test
-    public void handleMessageAttemptsToReceiveMessage(@Mocked final MessageCallback mockCallback) throws IOException
+    public void addMessagesEnqueuesBatchAndSignalsOnce(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
     {
-        final Object context = new Object();
+        final List<IotHubOutboundPacket> packets = Arrays.asList(mockPacket, mockPacket);
         new NonStrictExpectations()
         {
             {
-                mockedConfig.getDeviceTelemetryMessageCallback();
-                result = mockCallback;
-                mockedConfig.getDeviceTelemetryMessageContext();
-                result = context;
+                mockQueue.enqueueAll(packets);
+                result = true;
             }
         };
 
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.handleMessage();
+        transport.registerSendSignal(mockSendSignal);
+        transport.addMessages(packets);
 
-        final MqttIotHubConnection expectedConnection = mockedConnection;
         new Verifications()
         {
             {
-                expectedConnection.receiveMessage();
+                mockQueue.enqueueAll(packets);
+                times = 1;
+                mockSendSignal.signal();
+                times = 1;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
-    // the function shall invoke the callback on the message.]
+    // Tests_SRS_MQTTTRANSPORT_45_009: [If the outbound queue rejects the batch, this function shall add a callback packet with status MESSAGE_CANCELLED_QUEUE_FULL to the callback list for each packet.]
     @Test
-    public void handleMessageInvokesCallbackIfMessageReceived(
-            @Mocked final MessageCallback mockCallback,
-            @Mocked final Message mockMsg) throws IOException
+    public void addMessagesRejectedByFullQueueAddsQueueFullCallbackPerPacket(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket) throws IOException
     {
         final Object context = new Object();
         new NonStrictExpectations()
         {
             {
-                mockedConfig.getDeviceTelemetryMessageCallback();
+                mockQueue.enqueueAll((List<IotHubOutboundPacket>) any);
+                result = false;
+                mockPacket.getCallback();
                 result = mockCallback;
-                mockedConfig.getDeviceTelemetryMessageContext();
+                mockPacket.getContext();
                 result = context;
-                mockedConnection.receiveMessage();
-                result = mockMsg;
             }
         };
 
         MqttTransport transport = new MqttTransport(mockedConfig);
         transport.open();
-        transport.handleMessage();
+        transport.addMessages(Arrays.asList(mockPacket, mockPacket, mockPacket));
 
-        final MessageCallback expectedCallback = mockCallback;
-        final Message expectedMsg = mockMsg;
-        final Object expectedContext = context;
         new Verifications()
         {
             {
-                expectedCallback.execute(expectedMsg, expectedContext);
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL, mockCallback, context);
+                times = 3;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
-    // the function shall throw an IllegalStateException.]
-    @Test(expected = IllegalStateException.class)
-    public void handleMessageFailsIfTransportNeverOpened() throws IOException
-    {
-        MqttTransport transport = new MqttTransport(mockedConfig);
-        transport.handleMessage();
-    }
-
-    // Tests_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
-    // the function shall throw an IllegalStateException.]
-    @Test(expected = IllegalStateException.class)
-    public void handleMessageFailsIfTransportAlreadyClosed() throws IOException
-    {
-        MqttTransport transport = new MqttTransport(mockedConfig);
-        transport.open();
-        transport.close();
-        transport.handleMessage();
-    }
-
-    //Tests_SRS_MQTTTRANSPORT_34_025: [This function shall register the provided connection state callback and context with the saved mqtt iot hub connection.]
+    // Tests_SRS_MQTTTRANSPORT_45_011: [The function shall hand each callback to the callback dispatcher, which invokes it on the registered callback executor, if any, instead of under the read lock.]
     @Test
-    public void registerConnectionStateCallbackRegistersWithMqttConnection()
+    public void invokeCallbacksHandsCallbacksToDispatcher(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final IotHubCallbackPacket mockPacket) throws IOException
     {
-        //arrange
         new NonStrictExpectations()
         {
             {
@@ -799,208 +1867,219 @@ public class MqttTransportTest
                 result = mockedConnection;
             }
         };
+
         MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.open();
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        callbackList.add(mockPacket);
+        callbackList.add(mockPacket);
 
-        //act
-        transport.registerConnectionStateCallback(mockedConnectionStateCallback, mockedConnectionStateCallbackContext);
+        transport.invokeCallbacks();
 
-        //assert
         new Verifications()
         {
             {
-                Deencapsulation.invoke(mockedConnection, "registerConnectionStateCallback", mockedConnectionStateCallback, mockedConnectionStateCallbackContext);
-                times = 1;
+                mockDispatcher.dispatch(mockPacket);
+                times = 2;
             }
         };
+        assertTrue(callbackList.isEmpty());
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
-    //Tests_SRS_MQTTTRANSPORT_34_031: [This function shall block and wait on the read lock before reading from the in progress list.]
+    // Tests_SRS_MQTTTRANSPORT_45_012: [This function shall hand the provided executor to the callback dispatcher.]
     @Test
-    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndClose() throws IOException, InterruptedException
+    public void registerCallbackExecutorSetsDispatcherExecutor(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final Executor mockExecutor) throws IOException
     {
-        //arrange
-        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        final int messageCount = 1000;
-        mqttTransport.open();
-
-        for (int i = 0; i < messageCount; i++)
-        {
-            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
-        }
-
-        //act
-        executorService.submit(new SendMessagesRunnable(mqttTransport));
-        executorService.submit(new CloseRunnable(mqttTransport));
+        MqttTransport transport = new MqttTransport(mockedConfig);
 
-        //wait for all threads to finish
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
+        transport.registerCallbackExecutor(mockExecutor);
 
-        //assert
-        new VerificationsInOrder()
+        new Verifications()
         {
             {
-                //All messages should have been sent before the connection was closed
-                mockedConnection.sendEvent(mockedMessage);
-                times = messageCount;
-
-                mockedConnection.close();
+                mockDispatcher.setExecutor(mockExecutor);
                 times = 1;
             }
         };
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_029: [This function shall block and wait on the read lock before reading from the waiting list.]
+    // Tests_SRS_MQTTTRANSPORT_45_013: [This function shall return the statistics of the callback dispatcher.]
     @Test
-    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndIsEmpty() throws IOException, InterruptedException
+    public void getCallbackQueueStatisticsReturnsDispatcherStatistics(
+            @Mocked final IotHubCallbackDispatcher mockDispatcher,
+            @Mocked final CallbackQueueStatistics mockStatistics) throws IOException
     {
-        //arrange
-        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        final int messageCount = 1000;
-        mqttTransport.open();
-
-        for (int i = 0; i < messageCount; i++)
+        new NonStrictExpectations()
         {
-            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
-        }
+            {
+                mockDispatcher.getStatistics();
+                result = mockStatistics;
+            }
+        };
 
-        //act
-        executorService.submit(new SendMessagesRunnable(mqttTransport));
-        executorService.submit(new IsEmptyRunnable(mqttTransport));
+        MqttTransport transport = new MqttTransport(mockedConfig);
 
-        //wait for all threads to finish
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
+        assertEquals(mockStatistics, transport.getCallbackQueueStatistics());
+    }
 
-        //assert
-        new Verifications()
+    // Tests_SRS_MQTTTRANSPORT_45_021: [This function shall return the in flight window statistics of the MQTT connection.]
+    @Test
+    public void getInFlightWindowStatisticsReturnsConnectionStatistics(
+            @Mocked final InFlightWindowStatistics mockStatistics) throws IOException
+    {
+        new NonStrictExpectations()
         {
             {
-                //All messages should have been sent before isEmpty ran. The isEmpty runnable asserts that waitinglist is empty
-                mockedConnection.sendEvent(mockedMessage);
-                times = messageCount;
+                mockedConnection.getInFlightWindowStatistics();
+                result = mockStatistics;
             }
         };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        assertEquals(mockStatistics, transport.getInFlightWindowStatistics());
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_031: [This function shall block and wait on the read lock before reading from the in progress list or the callback list.]
+    // Tests_SRS_MQTTTRANSPORT_45_024: [This function shall return the reconnect statistics of the MQTT connection.]
     @Test
-    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenCloseAndIsEmpty() throws IOException, InterruptedException
+    public void getReconnectStatisticsReturnsConnectionStatistics(
+            @Mocked final ReconnectStatistics mockStatistics) throws IOException
     {
-        //arrange
-        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        final int messageCount = 1000;
-        mqttTransport.open();
-
-        for (int i = 0; i < messageCount; i++)
+        new NonStrictExpectations()
         {
-            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
-        }
+            {
+                mockedConnection.getReconnectStatistics();
+                result = mockStatistics;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockedConfig);
 
-        //act
-        executorService.submit(new CloseRunnable(mqttTransport));
-        executorService.submit(new IsEmptyRunnable(mqttTransport));
+        assertEquals(mockStatistics, transport.getReconnectStatistics());
+    }
 
-        //wait for all threads to finish
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
+    // Tests_SRS_MQTTTRANSPORT_45_028: [This function shall return null.]
+    @Test
+    public void getSendCreditStatisticsReturnsNull() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockedConfig);
 
-        //assert
+        assertNull(transport.getSendCreditStatistics());
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_014: [The function shall remove the expired messages from the waiting list and add their callbacks to the callback list with IotHubStatusCode MESSAGE_EXPIRED.]
+    // Tests_SRS_MQTTTRANSPORT_45_015: [If any message expired, the function shall signal the registered send task, if any.]
+    @Test
+    public void removeExpiredMessagesAddsExpiredCallbacksAndSignals(
+            @Mocked final IotHubOutboundPacket mockPacket,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubCallbackPacket mockCallbackPacket,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
+    {
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockQueue.removeExpired(anyLong);
+                result = Arrays.asList(mockPacket, mockPacket);
+                mockPacket.getCallback();
+                result = mockCallback;
+                mockPacket.getContext();
+                result = context;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
+
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertEquals(2, callbackList.size());
         new Verifications()
         {
             {
-                //IsEmptyRunnable also asserts that the waitinglist was empty
-                mockedConnection.close();
+                new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, mockCallback, context);
+                times = 2;
+                mockSendSignal.signal();
                 times = 1;
             }
         };
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_030: [This function shall block and wait on the read lock before reading from the callback list.]
+    // Tests_SRS_MQTTTRANSPORT_45_015: [If any message expired, the function shall signal the registered send task, if any.]
     @Test
-    public void onlyOneThreadReadsFromWaitingListAtATimeBetweenSendMessagesAndInvokeCallbacks() throws IOException, InterruptedException
+    public void removeExpiredMessagesWithoutExpiredMessageDoesNotSignal(
+            @Mocked final IotHubOutboundQueue mockQueue,
+            @Mocked final IotHubSignalledTask mockSendSignal) throws IOException
     {
-        //arrange
-        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        final int messageCount = 1000;
-        mqttTransport.open();
-
-        for (int i = 0; i < messageCount; i++)
-        {
-            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
-        }
-
         new NonStrictExpectations()
         {
             {
-                new IotHubCallbackPacket((IotHubStatusCode) any, mockedIotHubEventCallback, null);
-                result = mockedCallbackPacket;
-
-                mockedCallbackPacket.getCallback();
-                result = mockedIotHubEventCallback;
+                mockQueue.removeExpired(anyLong);
+                result = new ArrayList<IotHubOutboundPacket>();
             }
         };
 
-        //act
-        executorService.submit(new SendMessagesRunnable(mqttTransport));
-        executorService.submit(new InvokeCallbacksRunnable(mqttTransport));
-
-        //wait for all threads to finish
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.registerSendSignal(mockSendSignal);
+        transport.removeExpiredMessages();
 
-        //assert
-        new VerificationsInOrder()
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertTrue(callbackList.isEmpty());
+        new Verifications()
         {
             {
-                //All added messages are sent first, and then all of their callbacks executed
-                mockedConnection.sendEvent(mockedMessage);
-                times = messageCount;
-
-                mockedIotHubEventCallback.execute((IotHubStatusCode) any, any);
-                times = messageCount;
+                mockSendSignal.signal();
+                times = 0;
             }
         };
     }
 
-    //Tests_SRS_MQTTTRANSPORT_34_028: [This function shall not block and wait on the read lock.]
+    // Tests_SRS_MQTTTRANSPORT_45_025: [The function shall remove the device twin requests that timed out from the MQTT connection and, if a device twin message callback is registered, invoke it on the response of each.]
     @Test
-    public void addMessagesDoesNotBlockAndWaitForReadOperationThreadsToFinish() throws IOException, InterruptedException
+    public void removeExpiredMessagesInvokesTwinCallbackOnTimedOutRequests(
+            @Mocked final IotHubTransportMessage mockTimeoutResponse,
+            @Mocked final MessageCallback mockTwinCallback) throws IOException
     {
-        //arrange
-        final MqttTransport mqttTransport = new MqttTransport(mockedConfig);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        final int messageCount = 10000;
-        mqttTransport.open();
-
-        for (int i = 0; i < messageCount; i++)
+        final Object twinContext = "context";
+        new NonStrictExpectations()
         {
-            mqttTransport.addMessage(mockedMessage, mockedIotHubEventCallback, null);
-        }
-
-        //start the thread for sending all of these messages
-        executorService.submit(new SendMessagesRunnable(mqttTransport));
-
-        //act
-        executorService.submit(new AddMessageRunnable(mqttTransport));
+            {
+                mockedConnection.removeExpiredTwinRequests(anyLong);
+                result = Arrays.asList(mockTimeoutResponse, mockTimeoutResponse);
+                mockedConfig.getDeviceTwinMessageCallback();
+                result = mockTwinCallback;
+                mockedConfig.getDeviceTwinMessageContext();
+                result = twinContext;
+            }
+        };
 
-        //wait for all threads to finish
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
+        MqttTransport transport = new MqttTransport(mockedConfig);
+        transport.removeExpiredMessages();
 
-        //assert
         new Verifications()
         {
             {
-                //Message added is sent successfully when the other thread reads it from the waiting list
-                mockedConnection.sendEvent((Message) any);
-                times = messageCount + 1;
+                mockTwinCallback.execute(mockTimeoutResponse, twinContext);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_45_026: [This function shall return the number of device twin requests of the MQTT connection waiting for their response.]
+    @Test
+    public void getPendingTwinRequestCountReturnsConnectionCount() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockedConnection.getPendingTwinRequestCount();
+                result = 3;
             }
         };
+        MqttTransport transport = new MqttTransport(mockedConfig);
+
+        assertEquals(3, transport.getPendingTwinRequestCount());
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.deps.transport.amqp.AmqpMessageEncoder;
 import com.microsoft.azure.sdk.iot.deps.ws.impl.WebSocketImpl;
 import com.microsoft.azure.sdk.iot.service.IotHubServiceClientProtocol;
 import com.microsoft.azure.sdk.iot.service.Tools;
@@ -20,7 +21,6 @@ import org.apache.qpid.proton.engine.impl.TransportInternal;
 import org.apache.qpid.proton.reactor.Handshaker;
 
 import java.io.IOException;
-import java.nio.BufferOverflowException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
@@ -279,19 +279,10 @@ public class AmqpSendHandler extends BaseHandler
             // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_019: [The event handler shall encode the message and copy to the byte buffer]
             if (snd.getCredit() > 0)
             {
-                byte[] msgData = new byte[1024];
-                int length;
-                while (true)
-                {
-                    try
-                    {
-                        length = protonMessage.encode(msgData, 0, msgData.length);
-                        break;
-                    } catch (BufferOverflowException e)
-                    {
-                        msgData = new byte[msgData.length * 2];
-                    }
-                }
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_45_001: [The event handler shall encode the message in the pooled buffer of the AmqpMessageEncoder of the calling thread]
+                AmqpMessageEncoder encoder = AmqpMessageEncoder.get();
+                int length = encoder.encode(protonMessage);
+                byte[] msgData = encoder.getBuffer();
                 // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_020: [The event handler shall set the delivery tag on the Sender (Proton) object]
                 byte[] tag = String.valueOf(nextTag++).getBytes();
                 Delivery dlv = snd.delivery(tag);
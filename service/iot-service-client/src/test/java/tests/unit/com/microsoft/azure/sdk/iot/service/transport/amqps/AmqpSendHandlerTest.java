@@ -387,6 +387,7 @@ public class AmqpSendHandlerTest
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_019: [The event handler shall set the delivery tag on the Sender (Proton) object]
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_020: [The event handler shall send the encoded bytes]
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_021: [The event handler shall close the Sender, Session and Connection]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_45_001: [The event handler shall encode the message in the pooled buffer of the AmqpMessageEncoder of the calling thread]
     @Test
     public void onLinkFlow_call_flow_ok() throws UnsupportedEncodingException
     {
@@ -409,8 +410,7 @@ public class AmqpSendHandlerTest
             {
                 link = event.getLink();
                 link.getCredit();
-                byte[] buffer = new byte[1024];
-                message.encode(buffer, 0, 1024);
+                message.encode((byte[]) any, 0, anyInt);
             }
         };
         // Act